@@ -0,0 +1,648 @@
+/*******************************************************************************
+ * Copyright (c) 2014 TH4 SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     TH4 SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.filter.internal;
+
+import java.beans.PropertyEditor;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.eclipse.scada.ae.Event;
+import org.eclipse.scada.ae.filter.EventMatcher;
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.VariantEditor;
+import org.eclipse.scada.utils.filter.Assertion;
+import org.eclipse.scada.utils.filter.Filter;
+import org.eclipse.scada.utils.filter.FilterAssertion;
+import org.eclipse.scada.utils.filter.FilterExpression;
+import org.eclipse.scada.utils.filter.FilterParser;
+import org.eclipse.scada.utils.filter.Operator;
+import org.eclipse.scada.utils.lang.Apply;
+import org.eclipse.scada.utils.propertyeditors.DateEditor;
+import org.eclipse.scada.utils.propertyeditors.IntegerEditor;
+import org.eclipse.scada.utils.propertyeditors.PropertyEditorRegistry;
+import org.eclipse.scada.utils.propertyeditors.StringEditor;
+import org.eclipse.scada.utils.propertyeditors.UUIDEditor;
+import org.eclipse.scada.utils.str.StringHelper;
+
+/**
+ * Compiles a {@link Filter} into a tree of {@link EventMatcher} nodes
+ * <p>
+ * All work that does not depend on the event (attribute name dispatching,
+ * parsing of the comparison operand and building the regular expression of
+ * substring assertions) is done once during compilation. The resulting
+ * matcher is immutable and may be shared between threads.
+ * </p>
+ * <p>
+ * Problems with the filter which the interpreting matcher only reported when
+ * evaluating an event (e.g. an unsupported assertion) are still reported at
+ * evaluation time, so that the behavior of existing filters does not change.
+ * </p>
+ */
+public final class EventFilterCompiler
+{
+    private static final String ISO_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.S"; //$NON-NLS-1$
+
+    private static final ThreadLocal<DateFormat> isoDateFormat = new ThreadLocal<DateFormat> () {
+        @Override
+        protected DateFormat initialValue ()
+        {
+            return new SimpleDateFormat ( ISO_DATE_FORMAT );
+        }
+    };
+
+    private static final PropertyEditorRegistry propertyEditorRegistry = new PropertyEditorRegistry ();
+
+    static
+    {
+        propertyEditorRegistry.registerCustomEditor ( String.class, new StringEditor () );
+        propertyEditorRegistry.registerCustomEditor ( Integer.class, new IntegerEditor () );
+        propertyEditorRegistry.registerCustomEditor ( Date.class, new DateEditor () );
+        propertyEditorRegistry.registerCustomEditor ( java.sql.Date.class, new DateEditor () );
+        propertyEditorRegistry.registerCustomEditor ( Calendar.class, new DateEditor () );
+        propertyEditorRegistry.registerCustomEditor ( UUID.class, new UUIDEditor () );
+        propertyEditorRegistry.registerCustomEditor ( Variant.class, new VariantEditor () );
+    }
+
+    private EventFilterCompiler ()
+    {
+    }
+
+    /**
+     * Parse and compile a filter string
+     *
+     * @param filter
+     *            the filter string, may be <code>null</code> or empty which
+     *            will match all events
+     * @return the compiled matcher, never <code>null</code>
+     */
+    public static EventMatcher compile ( final String filter )
+    {
+        return compile ( new FilterParser ( filter ).getFilter () );
+    }
+
+    /**
+     * Compile a parsed filter
+     *
+     * @param filter
+     *            the filter to compile, <code>null</code> will match all
+     *            events
+     * @return the compiled matcher, never <code>null</code>
+     */
+    public static EventMatcher compile ( final Filter filter )
+    {
+        if ( filter == null || filter.isEmpty () )
+        {
+            return ConstantMatcher.TRUE;
+        }
+        if ( filter.isAssertion () )
+        {
+            return compileAssertion ( (FilterAssertion)filter );
+        }
+        if ( filter.isExpression () )
+        {
+            return compileExpression ( (FilterExpression)filter );
+        }
+        return ConstantMatcher.FALSE;
+    }
+
+    private static EventMatcher compileExpression ( final FilterExpression expression )
+    {
+        final List<EventMatcher> children = new ArrayList<EventMatcher> ( expression.getFilterSet ().size () );
+        for ( final Filter subFilter : expression.getFilterSet () )
+        {
+            children.add ( compile ( subFilter ) );
+        }
+        final EventMatcher[] matchers = children.toArray ( new EventMatcher[children.size ()] );
+
+        if ( expression.getOperator () == Operator.AND )
+        {
+            return matchers.length == 1 ? matchers[0] : new AndMatcher ( matchers );
+        }
+        else if ( expression.getOperator () == Operator.OR )
+        {
+            return matchers.length == 1 ? matchers[0] : new OrMatcher ( matchers );
+        }
+        else if ( expression.getOperator () == Operator.NOT )
+        {
+            return new NotMatcher ( matchers.length == 1 ? matchers[0] : new AndMatcher ( matchers ) );
+        }
+        return ConstantMatcher.FALSE;
+    }
+
+    private static EventMatcher compileAssertion ( final FilterAssertion assertion )
+    {
+        // special case id
+        if ( "id".equals ( assertion.getAttribute () ) ) //$NON-NLS-1$
+        {
+            return compileId ( assertion );
+        }
+        // special case source/entryTimestamp
+        else if ( "sourceTimestamp".equals ( assertion.getAttribute () ) ) //$NON-NLS-1$
+        {
+            return compileTimestamp ( assertion, SOURCE_TIMESTAMP );
+        }
+        else if ( "entryTimestamp".equals ( assertion.getAttribute () ) ) //$NON-NLS-1$
+        {
+            return compileTimestamp ( assertion, ENTRY_TIMESTAMP );
+        }
+        return compileVariant ( assertion, new AttributeAccessor ( assertion.getAttribute () ) );
+    }
+
+    private static EventMatcher compileId ( final FilterAssertion assertion )
+    {
+        if ( assertion.getAssertion () == Assertion.PRESENCE )
+        {
+            return new PresenceMatcher ( ID );
+        }
+        final Object value = assertion.getValue ();
+        if ( value == null )
+        {
+            return ConstantMatcher.FALSE;
+        }
+        if ( ! ( value instanceof String || value instanceof UUID || value instanceof Collection<?> ) )
+        {
+            return ConstantMatcher.FALSE;
+        }
+        if ( assertion.getAssertion () == Assertion.SUBSTRING )
+        {
+            return compileSubstring ( value, ID_STRING );
+        }
+        if ( assertion.getAssertion () == Assertion.APPROXIMATE )
+        {
+            return new ErrorMatcher ( new IllegalArgumentException ( Messages.getString ( "EventMatcherImpl.Error.ApproximateNotSupported" ) ) ); //$NON-NLS-1$
+        }
+
+        final UUID right;
+        try
+        {
+            right = UUID.fromString ( value.toString () );
+        }
+        catch ( final RuntimeException e )
+        {
+            return new ErrorMatcher ( e );
+        }
+        return compileComparison ( assertion.getAssertion (), ID, right );
+    }
+
+    private static EventMatcher compileTimestamp ( final FilterAssertion assertion, final Accessor<Date> accessor )
+    {
+        if ( assertion.getAssertion () == Assertion.PRESENCE )
+        {
+            return new PresenceMatcher ( accessor );
+        }
+        final Object value = assertion.getValue ();
+        if ( value == null )
+        {
+            return ConstantMatcher.FALSE;
+        }
+        if ( ! ( value instanceof String || value instanceof Date || value instanceof Collection<?> ) )
+        {
+            return ConstantMatcher.FALSE;
+        }
+        if ( assertion.getAssertion () == Assertion.SUBSTRING )
+        {
+            return compileSubstring ( value, new FormattedDateAccessor ( accessor ) );
+        }
+
+        final Date right;
+        if ( value instanceof String )
+        {
+            try
+            {
+                right = (Date)parse ( Date.class, (String)value );
+            }
+            catch ( final RuntimeException e )
+            {
+                return new ErrorMatcher ( e );
+            }
+        }
+        else if ( value instanceof Date )
+        {
+            right = (Date)value;
+        }
+        else
+        {
+            return new ErrorMatcher ( new IllegalArgumentException ( Messages.getString ( "EventMatcherImpl.Error.ValueTypeNotSupported" ) ) ); //$NON-NLS-1$
+        }
+        return compileComparison ( assertion.getAssertion (), accessor, right );
+    }
+
+    private static EventMatcher compileVariant ( final FilterAssertion assertion, final Accessor<Variant> accessor )
+    {
+        if ( assertion.getAssertion () == Assertion.PRESENCE )
+        {
+            return new PresenceMatcher ( accessor );
+        }
+
+        final EventMatcher matcher = compileVariantValue ( assertion, accessor );
+        if ( matcher == ConstantMatcher.FALSE )
+        {
+            return matcher;
+        }
+
+        // an event without the attribute never matches, not even with an invalid assertion
+        return new RequiredMatcher ( accessor, matcher );
+    }
+
+    private static EventMatcher compileVariantValue ( final FilterAssertion assertion, final Accessor<Variant> accessor )
+    {
+        final Object value = assertion.getValue ();
+        if ( value == null )
+        {
+            return ConstantMatcher.FALSE;
+        }
+        if ( ! ( value instanceof String || value instanceof Date || value instanceof Collection<?> ) )
+        {
+            return ConstantMatcher.FALSE;
+        }
+        if ( assertion.getAssertion () == Assertion.SUBSTRING )
+        {
+            return compileSubstring ( value, new VariantStringAccessor ( accessor ) );
+        }
+
+        final Variant right;
+        if ( value instanceof String )
+        {
+            try
+            {
+                right = (Variant)parse ( Variant.class, (String)value );
+            }
+            catch ( final RuntimeException e )
+            {
+                return new ErrorMatcher ( e );
+            }
+        }
+        else
+        {
+            return new ErrorMatcher ( new IllegalArgumentException ( Messages.getString ( "EventMatcherImpl.Error.ValueTypeNotSupported" ) ) ); //$NON-NLS-1$
+        }
+        return compileComparison ( assertion.getAssertion (), accessor, right );
+    }
+
+    private static <T extends Comparable<T>> EventMatcher compileComparison ( final Assertion assertion, final Accessor<T> accessor, final T right )
+    {
+        switch ( assertion )
+        {
+            case LESSTHAN:
+            case LESSEQ:
+            case EQUALITY:
+            case GREATEREQ:
+            case GREATERTHAN:
+                return new ComparisonMatcher<T> ( accessor, assertion, right );
+            case APPROXIMATE:
+                return new ErrorMatcher ( new IllegalArgumentException ( Messages.getString ( "EventMatcherImpl.Error.ApproximateNotSupported" ) ) ); //$NON-NLS-1$
+            default:
+                return ConstantMatcher.FALSE;
+        }
+    }
+
+    private static EventMatcher compileSubstring ( final Object value, final Accessor<String> accessor )
+    {
+        if ( ! ( value instanceof Collection<?> ) )
+        {
+            return new ErrorMatcher ( new IllegalArgumentException ( Messages.getString ( "EventMatcherImpl.Error.ValueTypeNotSupported" ) ) ); //$NON-NLS-1$
+        }
+        @SuppressWarnings ( "unchecked" )
+        final Collection<String> parts = (Collection<String>)value;
+        return new PatternMatcher ( accessor, Pattern.compile ( toRegEx ( parts ) ) );
+    }
+
+    private static Object parse ( final Class<?> clazz, final String text )
+    {
+        // the property editors are stateful, so we may not use them concurrently
+        synchronized ( propertyEditorRegistry )
+        {
+            final PropertyEditor pe = propertyEditorRegistry.findCustomEditor ( clazz );
+            pe.setAsText ( text );
+            return pe.getValue ();
+        }
+    }
+
+    private static String toRegEx ( final Collection<String> parts )
+    {
+        return StringHelper.join ( parts, ".*", new Apply<String> () { //$NON-NLS-1$
+            @Override
+            public String apply ( final String parameter )
+            {
+                return Pattern.quote ( parameter );
+            }
+        } );
+    }
+
+    /* field accessors */
+
+    private static interface Accessor<T>
+    {
+        public T get ( Event event );
+    }
+
+    private static final Accessor<UUID> ID = new Accessor<UUID> () {
+        @Override
+        public UUID get ( final Event event )
+        {
+            return event.getId ();
+        }
+    };
+
+    private static final Accessor<String> ID_STRING = new Accessor<String> () {
+        @Override
+        public String get ( final Event event )
+        {
+            final UUID id = event.getId ();
+            return id == null ? null : id.toString ();
+        }
+    };
+
+    private static final Accessor<Date> SOURCE_TIMESTAMP = new Accessor<Date> () {
+        @Override
+        public Date get ( final Event event )
+        {
+            return event.getSourceTimestamp ();
+        }
+    };
+
+    private static final Accessor<Date> ENTRY_TIMESTAMP = new Accessor<Date> () {
+        @Override
+        public Date get ( final Event event )
+        {
+            return event.getEntryTimestamp ();
+        }
+    };
+
+    private static class AttributeAccessor implements Accessor<Variant>
+    {
+        private final String name;
+
+        public AttributeAccessor ( final String name )
+        {
+            this.name = name;
+        }
+
+        @Override
+        public Variant get ( final Event event )
+        {
+            return event.getAttributes ().get ( this.name );
+        }
+    }
+
+    private static class FormattedDateAccessor implements Accessor<String>
+    {
+        private final Accessor<Date> accessor;
+
+        public FormattedDateAccessor ( final Accessor<Date> accessor )
+        {
+            this.accessor = accessor;
+        }
+
+        @Override
+        public String get ( final Event event )
+        {
+            final Date date = this.accessor.get ( event );
+            return date == null ? null : isoDateFormat.get ().format ( date );
+        }
+    }
+
+    private static class VariantStringAccessor implements Accessor<String>
+    {
+        private final Accessor<Variant> accessor;
+
+        public VariantStringAccessor ( final Accessor<Variant> accessor )
+        {
+            this.accessor = accessor;
+        }
+
+        @Override
+        public String get ( final Event event )
+        {
+            final Variant value = this.accessor.get ( event );
+            return value == null ? null : value.asString ( "" ); //$NON-NLS-1$
+        }
+    }
+
+    /* matcher nodes */
+
+    private static class ConstantMatcher implements EventMatcher
+    {
+        public static final EventMatcher TRUE = new ConstantMatcher ( true );
+
+        public static final EventMatcher FALSE = new ConstantMatcher ( false );
+
+        private final boolean result;
+
+        private ConstantMatcher ( final boolean result )
+        {
+            this.result = result;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            return this.result;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return Boolean.toString ( this.result );
+        }
+    }
+
+    private static class ErrorMatcher implements EventMatcher
+    {
+        private final RuntimeException error;
+
+        public ErrorMatcher ( final RuntimeException error )
+        {
+            this.error = error;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            throw this.error;
+        }
+    }
+
+    private static class AndMatcher implements EventMatcher
+    {
+        private final EventMatcher[] matchers;
+
+        public AndMatcher ( final EventMatcher[] matchers )
+        {
+            this.matchers = matchers;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            for ( final EventMatcher matcher : this.matchers )
+            {
+                if ( !matcher.matches ( event ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class OrMatcher implements EventMatcher
+    {
+        private final EventMatcher[] matchers;
+
+        public OrMatcher ( final EventMatcher[] matchers )
+        {
+            this.matchers = matchers;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            for ( final EventMatcher matcher : this.matchers )
+            {
+                if ( matcher.matches ( event ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class NotMatcher implements EventMatcher
+    {
+        private final EventMatcher matcher;
+
+        public NotMatcher ( final EventMatcher matcher )
+        {
+            this.matcher = matcher;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            return !this.matcher.matches ( event );
+        }
+    }
+
+    private static class PresenceMatcher implements EventMatcher
+    {
+        private final Accessor<?> accessor;
+
+        public PresenceMatcher ( final Accessor<?> accessor )
+        {
+            this.accessor = accessor;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            return this.accessor.get ( event ) != null;
+        }
+    }
+
+    private static class RequiredMatcher implements EventMatcher
+    {
+        private final Accessor<?> accessor;
+
+        private final EventMatcher matcher;
+
+        public RequiredMatcher ( final Accessor<?> accessor, final EventMatcher matcher )
+        {
+            this.accessor = accessor;
+            this.matcher = matcher;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            if ( this.accessor.get ( event ) == null )
+            {
+                return false;
+            }
+            return this.matcher.matches ( event );
+        }
+    }
+
+    private static class PatternMatcher implements EventMatcher
+    {
+        private final Accessor<String> accessor;
+
+        private final Pattern pattern;
+
+        public PatternMatcher ( final Accessor<String> accessor, final Pattern pattern )
+        {
+            this.accessor = accessor;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            final String value = this.accessor.get ( event );
+            if ( value == null )
+            {
+                return false;
+            }
+            return this.pattern.matcher ( value ).matches ();
+        }
+    }
+
+    private static class ComparisonMatcher<T extends Comparable<T>> implements EventMatcher
+    {
+        private final Accessor<T> accessor;
+
+        private final Assertion assertion;
+
+        private final T right;
+
+        public ComparisonMatcher ( final Accessor<T> accessor, final Assertion assertion, final T right )
+        {
+            this.accessor = accessor;
+            this.assertion = assertion;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches ( final Event event )
+        {
+            final T left = this.accessor.get ( event );
+            if ( left == null )
+            {
+                return false;
+            }
+
+            final int result = left.compareTo ( this.right );
+            switch ( this.assertion )
+            {
+                case LESSTHAN:
+                    return result == -1;
+                case LESSEQ:
+                    return result == -1 || result == 0;
+                case EQUALITY:
+                    return result == 0;
+                case GREATEREQ:
+                    return result == 1 || result == 0;
+                case GREATERTHAN:
+                    return result == 1;
+                default:
+                    return false;
+            }
+        }
+    }
+}
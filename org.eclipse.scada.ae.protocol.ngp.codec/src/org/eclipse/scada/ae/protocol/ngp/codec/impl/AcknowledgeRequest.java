@@ -107,8 +107,7 @@ public class AcknowledgeRequest implements BinaryMessageCodec
     {
         final org.eclipse.scada.ae.data.message.AcknowledgeRequest value = (org.eclipse.scada.ae.data.message.AcknowledgeRequest)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -89,8 +89,7 @@ public class AcknowledgeResponse implements BinaryMessageCodec
     {
         final org.eclipse.scada.ae.data.message.AcknowledgeResponse value = (org.eclipse.scada.ae.data.message.AcknowledgeResponse)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -95,8 +95,7 @@ public class BrowseData implements BinaryMessageCodec
     {
         final org.eclipse.scada.ae.data.message.BrowseData value = (org.eclipse.scada.ae.data.message.BrowseData)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
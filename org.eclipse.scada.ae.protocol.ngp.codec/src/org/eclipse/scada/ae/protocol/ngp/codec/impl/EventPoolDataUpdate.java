@@ -89,8 +89,7 @@ public class EventPoolDataUpdate implements BinaryMessageCodec
     {
         final org.eclipse.scada.ae.data.message.EventPoolDataUpdate value = (org.eclipse.scada.ae.data.message.EventPoolDataUpdate)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
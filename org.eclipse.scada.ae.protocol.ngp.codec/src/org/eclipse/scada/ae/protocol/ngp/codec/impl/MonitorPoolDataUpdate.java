@@ -101,8 +101,7 @@ public class MonitorPoolDataUpdate implements BinaryMessageCodec
     {
         final org.eclipse.scada.ae.data.message.MonitorPoolDataUpdate value = (org.eclipse.scada.ae.data.message.MonitorPoolDataUpdate)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -83,8 +83,7 @@ public class SubscribeMonitorPool implements BinaryMessageCodec
     {
         final org.eclipse.scada.ae.data.message.SubscribeMonitorPool value = (org.eclipse.scada.ae.data.message.SubscribeMonitorPool)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
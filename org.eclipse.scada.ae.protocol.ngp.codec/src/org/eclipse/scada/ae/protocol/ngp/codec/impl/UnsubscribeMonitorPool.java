@@ -83,8 +83,7 @@ public class UnsubscribeMonitorPool implements BinaryMessageCodec
     {
         final org.eclipse.scada.ae.data.message.UnsubscribeMonitorPool value = (org.eclipse.scada.ae.data.message.UnsubscribeMonitorPool)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
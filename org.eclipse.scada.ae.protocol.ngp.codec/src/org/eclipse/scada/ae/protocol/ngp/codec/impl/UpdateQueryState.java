@@ -95,8 +95,7 @@ public class UpdateQueryState implements BinaryMessageCodec
     {
         final org.eclipse.scada.ae.data.message.UpdateQueryState value = (org.eclipse.scada.ae.data.message.UpdateQueryState)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
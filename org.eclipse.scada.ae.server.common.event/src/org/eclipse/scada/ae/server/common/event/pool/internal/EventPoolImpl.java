@@ -23,7 +23,7 @@ import org.eclipse.scada.ae.Event;
 import org.eclipse.scada.ae.event.EventListener;
 import org.eclipse.scada.ae.event.EventManager;
 import org.eclipse.scada.ae.filter.EventMatcher;
-import org.eclipse.scada.ae.filter.internal.EventMatcherImpl;
+import org.eclipse.scada.ae.filter.internal.EventFilterCompiler;
 import org.eclipse.scada.ae.server.common.event.AbstractEventQueryImpl;
 import org.eclipse.scada.ae.server.storage.Query;
 import org.eclipse.scada.ae.server.storage.Storage;
@@ -58,7 +58,7 @@ public class EventPoolImpl extends AbstractEventQueryImpl implements EventListen
         this.storage = storage;
         this.eventManager = eventManager;
         this.filter = filter;
-        this.matcher = new EventMatcherImpl ( filter );
+        this.matcher = EventFilterCompiler.compile ( filter );
     }
 
     public synchronized void start () throws Exception
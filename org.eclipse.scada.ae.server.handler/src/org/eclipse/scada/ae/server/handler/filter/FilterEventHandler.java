@@ -12,7 +12,7 @@ package org.eclipse.scada.ae.server.handler.filter;
 
 import org.eclipse.scada.ae.Event;
 import org.eclipse.scada.ae.filter.EventMatcher;
-import org.eclipse.scada.ae.filter.internal.EventMatcherImpl;
+import org.eclipse.scada.ae.filter.internal.EventFilterCompiler;
 import org.eclipse.scada.ae.server.handler.AbstractEventHandler;
 import org.eclipse.scada.ae.server.handler.InjectionContext;
 import org.eclipse.scada.utils.filter.Filter;
@@ -25,7 +25,7 @@ public class FilterEventHandler extends AbstractEventHandler
 
     public FilterEventHandler ( final Filter filter, final boolean pass )
     {
-        this.matcher = new EventMatcherImpl ( filter );
+        this.matcher = EventFilterCompiler.compile ( filter );
         this.pass = pass;
     }
 
@@ -22,7 +22,7 @@ import org.eclipse.scada.ae.Event.Fields;
 import org.eclipse.scada.ae.data.Severity;
 import org.eclipse.scada.ae.event.EventProcessor;
 import org.eclipse.scada.ae.filter.EventMatcher;
-import org.eclipse.scada.ae.filter.internal.EventMatcherImpl;
+import org.eclipse.scada.ae.filter.internal.EventFilterCompiler;
 import org.eclipse.scada.ae.monitor.common.AbstractConfiguration;
 import org.eclipse.scada.ae.monitor.common.AbstractPersistentStateMonitor;
 import org.eclipse.scada.ae.monitor.common.AbstractStateMonitor;
@@ -115,7 +115,7 @@ public class EventMonitorImpl extends AbstractPersistentStateMonitor implements
 
     private void setEventMatcher ( final UserInformation userInformation, final String filter )
     {
-        this.matcher = new EventMatcherImpl ( filter );
+        this.matcher = EventFilterCompiler.compile ( filter );
     }
 
     private void setMonitorType ( final UserInformation userInformation, final String monitorType )
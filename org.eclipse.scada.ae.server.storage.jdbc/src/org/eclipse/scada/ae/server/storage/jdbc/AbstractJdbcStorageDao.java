@@ -9,6 +9,8 @@
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jürgen Rose - additional work
  *     IBH SYSTEMS GmbH - add login timeout
+ *     IBH SYSTEMS GmbH - store events in batches
+ *     IBH SYSTEMS GmbH - idempotent bulk store for journal replay
  *******************************************************************************/
 package org.eclipse.scada.ae.server.storage.jdbc;
 
@@ -22,14 +24,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 
 import org.eclipse.scada.ae.Event;
@@ -83,6 +87,13 @@ public abstract class AbstractJdbcStorageDao extends BaseStorageDao
             + "A.KEY, A.VALUE_TYPE, A.VALUE_STRING, A.VALUE_INTEGER, A.VALUE_DOUBLE " //
             + "FROM %1$sES_AE_EVENTS E LEFT JOIN %1$sES_AE_EVENTS_ATTR A ON (A.ID = E.ID) ";
 
+    private final String selectExistingIdsSql = "SELECT ID FROM %sES_AE_EVENTS WHERE ID IN (%s)";
+
+    /**
+     * The maximum number of parameters in one "IN" clause
+     */
+    private static final int EXISTING_IDS_CHUNK_SIZE = 100;
+
     private final String insertReplicationEventSql = "INSERT INTO %sES_AE_REP " //
             + "(ID, ENTRY_TIMESTAMP, NODE_ID, DATA)" //
             + " VALUES " //
@@ -124,12 +135,26 @@ public abstract class AbstractJdbcStorageDao extends BaseStorageDao
     @Override
     public void storeEvent ( final Event event ) throws Exception
     {
+        storeEvents ( Collections.singletonList ( event ) );
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.scada.ae.server.storage.jdbc.StorageDao#storeEvents(java.util.Collection)
+     */
+    @Override
+    public void storeEvents ( final Collection<Event> events ) throws Exception
+    {
+        if ( events.isEmpty () )
+        {
+            return;
+        }
+
         this.accessor.doWithConnection ( new CommonConnectionTask<Void> () {
             @Override
             protected Void performTask ( final ConnectionContext connectionContext ) throws Exception
             {
                 connectionContext.setAutoCommit ( false );
-                performStoreEvent ( event, connectionContext );
+                performStoreEvents ( events, connectionContext );
                 connectionContext.commit ();
 
                 return null;
@@ -137,29 +162,127 @@ public abstract class AbstractJdbcStorageDao extends BaseStorageDao
         } );
     }
 
-    protected void storeReplicationEvent ( final Event event, final Connection con ) throws Exception
+    /* (non-Javadoc)
+     * @see org.eclipse.scada.ae.server.storage.jdbc.StorageDao#storeEventsIfAbsent(java.util.Collection)
+     */
+    @Override
+    public int storeEventsIfAbsent ( final Collection<Event> events ) throws Exception
     {
-        final PreparedStatement stmt = con.prepareStatement ( String.format ( this.insertReplicationEventSql, getSchema () ) );
-        try
+        if ( events.isEmpty () )
         {
-            stmt.setString ( 1, event.getId ().toString () );
-            stmt.setTimestamp ( 2, new java.sql.Timestamp ( event.getEntryTimestamp ().getTime () ) );
-            stmt.setString ( 3, clip ( NODE_ID_LENGTH, getNodeId () ) );
+            return 0;
+        }
 
-            switch ( this.dataFormat )
+        return this.accessor.doWithConnection ( new CommonConnectionTask<Integer> () {
+            @Override
+            protected Integer performTask ( final ConnectionContext connectionContext ) throws Exception
             {
-                case BLOB:
-                    setReplicationDataBlob ( stmt, event );
-                    break;
+                connectionContext.setAutoCommit ( false );
 
-                case BYTES:
-                    //$FALL-THROUGH$
-                default:
-                    setReplicationDataBytes ( stmt, event );
-                    break;
+                final Set<String> existing = findExistingIds ( events, connectionContext.getConnection () );
+
+                final List<Event> missing = new ArrayList<Event> ( events.size () );
+                for ( final Event event : events )
+                {
+                    if ( existing.add ( event.getId ().toString () ) )
+                    {
+                        missing.add ( event );
+                    }
+                }
+
+                if ( !missing.isEmpty () )
+                {
+                    performStoreEvents ( missing, connectionContext );
+                }
+                connectionContext.commit ();
+
+                return missing.size ();
             }
+        } );
+    }
+
+    private Set<String> findExistingIds ( final Collection<Event> events, final Connection con ) throws SQLException
+    {
+        final Set<String> result = new HashSet<String> ( events.size () );
+
+        final List<String> ids = new ArrayList<String> ( events.size () );
+        for ( final Event event : events )
+        {
+            ids.add ( event.getId ().toString () );
+        }
+
+        for ( int i = 0; i < ids.size (); i += EXISTING_IDS_CHUNK_SIZE )
+        {
+            final List<String> chunk = ids.subList ( i, Math.min ( ids.size (), i + EXISTING_IDS_CHUNK_SIZE ) );
+
+            final StringBuilder sb = new StringBuilder ();
+            for ( int j = 0; j < chunk.size (); j++ )
+            {
+                if ( j > 0 )
+                {
+                    sb.append ( ", " );
+                }
+                sb.append ( '?' );
+            }
+
+            final PreparedStatement stm = con.prepareStatement ( String.format ( this.selectExistingIdsSql, getSchema (), sb ), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+            try
+            {
+                for ( int j = 0; j < chunk.size (); j++ )
+                {
+                    stm.setString ( j + 1, chunk.get ( j ) );
+                }
+
+                final ResultSet rs = stm.executeQuery ();
+                try
+                {
+                    while ( rs.next () )
+                    {
+                        result.add ( rs.getString ( 1 ) );
+                    }
+                }
+                finally
+                {
+                    rs.close ();
+                }
+            }
+            finally
+            {
+                closeStatement ( stm );
+            }
+        }
 
-            stmt.executeUpdate ();
+        return result;
+    }
+
+    protected void storeReplicationEvents ( final Collection<Event> events, final Connection con ) throws Exception
+    {
+        final PreparedStatement stmt = con.prepareStatement ( String.format ( this.insertReplicationEventSql, getSchema () ) );
+        try
+        {
+            final String nodeId = clip ( NODE_ID_LENGTH, getNodeId () );
+            for ( final Event event : events )
+            {
+                stmt.setString ( 1, event.getId ().toString () );
+                stmt.setTimestamp ( 2, new java.sql.Timestamp ( event.getEntryTimestamp ().getTime () ) );
+                stmt.setString ( 3, nodeId );
+
+                switch ( this.dataFormat )
+                {
+                    case BLOB:
+                        setReplicationDataBlob ( stmt, event );
+                        break;
+
+                    case BYTES:
+                        //$FALL-THROUGH$
+                    default:
+                        setReplicationDataBytes ( stmt, event );
+                        break;
+                }
+
+                stmt.addBatch ();
+            }
+            executeBatch ( stmt );
         }
         finally
         {
@@ -235,108 +358,115 @@ public abstract class AbstractJdbcStorageDao extends BaseStorageDao
         stmt.setBlob ( 4, blob );
     }
 
-    private void storeEventData ( final Event event, final Connection con ) throws SQLException
+    private void storeEventData ( final Collection<Event> events, final Connection con ) throws SQLException
     {
-        Statement stm1 = null;
-        Statement stm2 = null;
-        {
-            final PreparedStatement stm = con.prepareStatement ( String.format ( this.insertEventSql, getSchema () ) );
-            stm.setString ( 1, event.getId ().toString () );
-            stm.setString ( 2, getInstance () );
-            stm.setTimestamp ( 3, new java.sql.Timestamp ( event.getSourceTimestamp ().getTime () ) );
-            stm.setTimestamp ( 4, new java.sql.Timestamp ( event.getEntryTimestamp ().getTime () ) );
-            stm.setString ( 5, clip ( 32, Variant.valueOf ( event.getField ( Fields.MONITOR_TYPE ) ).asString ( "" ) ) );
-            stm.setString ( 6, clip ( 32, Variant.valueOf ( event.getField ( Fields.EVENT_TYPE ) ).asString ( "" ) ) );
-            stm.setString ( 7, clip ( 32, Variant.valueOf ( event.getField ( Fields.VALUE ) ).getType ().name () ) );
-            stm.setString ( 8, clip ( getMaxLength (), Variant.valueOf ( event.getField ( Fields.VALUE ) ).asString ( "" ) ) );
-            final Long longValue = Variant.valueOf ( event.getField ( Fields.VALUE ) ).asLong ( null );
-            if ( longValue == null )
-            {
-                stm.setNull ( 9, Types.BIGINT );
-            }
-            else
-            {
-                stm.setLong ( 9, longValue );
-            }
-            final Double doubleValue = Variant.valueOf ( event.getField ( Fields.VALUE ) ).asDouble ( null );
-            if ( doubleValue == null )
-            {
-                stm.setNull ( 10, Types.DOUBLE );
-            }
-            else
-            {
-                stm.setDouble ( 10, longValue );
-            }
-            stm.setString ( 11, clip ( getMaxLength (), Variant.valueOf ( event.getField ( Fields.MESSAGE ) ).asString ( "" ) ) );
-            stm.setString ( 12, clip ( 255, Variant.valueOf ( event.getField ( Fields.MESSAGE_CODE ) ).asString ( "" ) ) );
-            stm.setInt ( 13, Variant.valueOf ( event.getField ( Fields.PRIORITY ) ).asInteger ( 50 ) );
-            stm.setString ( 14, clip ( 255, Variant.valueOf ( event.getField ( Fields.SOURCE ) ).asString ( "" ) ) );
-            stm.setString ( 15, clip ( 128, Variant.valueOf ( event.getField ( Fields.ACTOR_NAME ) ).asString ( "" ) ) );
-            stm.setString ( 16, clip ( 32, Variant.valueOf ( event.getField ( Fields.ACTOR_TYPE ) ).asString ( "" ) ) );
-            stm.setString ( 17, clip ( 32, Variant.valueOf ( event.getField ( Fields.PRIORITY ) ).asString ( "" ) ) );
-            stm.addBatch ();
-            try
-            {
-                stm.executeBatch ();
-            }
-            catch ( final SQLException e )
-            {
-                logSQLError ( e );
-                throw e;
-            }
-            stm1 = stm;
-        }
-
+        final PreparedStatement stm1 = con.prepareStatement ( String.format ( this.insertEventSql, getSchema () ) );
+        try
         {
-            final PreparedStatement stm = con.prepareStatement ( String.format ( this.insertAttributesSql, getSchema () ) );
-            boolean hasAttr = false;
-            for ( final String attr : event.getAttributes ().keySet () )
+            for ( final Event event : events )
             {
-                if ( SqlConverter.inlinedAttributes.contains ( attr ) )
-                {
-                    continue;
-                }
-                stm.setString ( 1, event.getId ().toString () );
-                stm.setString ( 2, attr );
-                stm.setString ( 3, clip ( 32, event.getAttributes ().get ( attr ).getType ().name () ) );
-                stm.setString ( 4, clip ( getMaxLength (), event.getAttributes ().get ( attr ).asString ( "" ) ) );
-                final Long longValue = Variant.valueOf ( event.getAttributes ().get ( attr ) ).asLong ( null );
+                stm1.setString ( 1, event.getId ().toString () );
+                stm1.setString ( 2, getInstance () );
+                stm1.setTimestamp ( 3, new java.sql.Timestamp ( event.getSourceTimestamp ().getTime () ) );
+                stm1.setTimestamp ( 4, new java.sql.Timestamp ( event.getEntryTimestamp ().getTime () ) );
+                stm1.setString ( 5, clip ( 32, Variant.valueOf ( event.getField ( Fields.MONITOR_TYPE ) ).asString ( "" ) ) );
+                stm1.setString ( 6, clip ( 32, Variant.valueOf ( event.getField ( Fields.EVENT_TYPE ) ).asString ( "" ) ) );
+                stm1.setString ( 7, clip ( 32, Variant.valueOf ( event.getField ( Fields.VALUE ) ).getType ().name () ) );
+                stm1.setString ( 8, clip ( getMaxLength (), Variant.valueOf ( event.getField ( Fields.VALUE ) ).asString ( "" ) ) );
+                final Long longValue = Variant.valueOf ( event.getField ( Fields.VALUE ) ).asLong ( null );
                 if ( longValue == null )
                 {
-                    stm.setNull ( 5, Types.BIGINT );
+                    stm1.setNull ( 9, Types.BIGINT );
                 }
                 else
                 {
-                    stm.setLong ( 5, longValue );
+                    stm1.setLong ( 9, longValue );
                 }
-                final Double doubleValue = Variant.valueOf ( event.getAttributes ().get ( attr ) ).asDouble ( null );
+                final Double doubleValue = Variant.valueOf ( event.getField ( Fields.VALUE ) ).asDouble ( null );
                 if ( doubleValue == null )
                 {
-                    stm.setNull ( 6, Types.DOUBLE );
+                    stm1.setNull ( 10, Types.DOUBLE );
                 }
                 else
                 {
-                    stm.setDouble ( 6, doubleValue );
+                    stm1.setDouble ( 10, doubleValue );
                 }
-                stm.addBatch ();
-                hasAttr = true;
+                stm1.setString ( 11, clip ( getMaxLength (), Variant.valueOf ( event.getField ( Fields.MESSAGE ) ).asString ( "" ) ) );
+                stm1.setString ( 12, clip ( 255, Variant.valueOf ( event.getField ( Fields.MESSAGE_CODE ) ).asString ( "" ) ) );
+                stm1.setInt ( 13, Variant.valueOf ( event.getField ( Fields.PRIORITY ) ).asInteger ( 50 ) );
+                stm1.setString ( 14, clip ( 255, Variant.valueOf ( event.getField ( Fields.SOURCE ) ).asString ( "" ) ) );
+                stm1.setString ( 15, clip ( 128, Variant.valueOf ( event.getField ( Fields.ACTOR_NAME ) ).asString ( "" ) ) );
+                stm1.setString ( 16, clip ( 32, Variant.valueOf ( event.getField ( Fields.ACTOR_TYPE ) ).asString ( "" ) ) );
+                stm1.setString ( 17, clip ( 32, Variant.valueOf ( event.getField ( Fields.PRIORITY ) ).asString ( "" ) ) );
+                stm1.addBatch ();
             }
-            if ( hasAttr )
+            executeBatch ( stm1 );
+        }
+        finally
+        {
+            closeStatement ( stm1 );
+        }
+
+        final PreparedStatement stm2 = con.prepareStatement ( String.format ( this.insertAttributesSql, getSchema () ) );
+        try
+        {
+            boolean hasAttr = false;
+            for ( final Event event : events )
             {
-                try
+                for ( final String attr : event.getAttributes ().keySet () )
                 {
-                    stm.executeBatch ();
-                }
-                catch ( final SQLException e )
-                {
-                    logSQLError ( e );
-                    throw e;
+                    if ( SqlConverter.inlinedAttributes.contains ( attr ) )
+                    {
+                        continue;
+                    }
+                    stm2.setString ( 1, event.getId ().toString () );
+                    stm2.setString ( 2, attr );
+                    stm2.setString ( 3, clip ( 32, event.getAttributes ().get ( attr ).getType ().name () ) );
+                    stm2.setString ( 4, clip ( getMaxLength (), event.getAttributes ().get ( attr ).asString ( "" ) ) );
+                    final Long longValue = Variant.valueOf ( event.getAttributes ().get ( attr ) ).asLong ( null );
+                    if ( longValue == null )
+                    {
+                        stm2.setNull ( 5, Types.BIGINT );
+                    }
+                    else
+                    {
+                        stm2.setLong ( 5, longValue );
+                    }
+                    final Double doubleValue = Variant.valueOf ( event.getAttributes ().get ( attr ) ).asDouble ( null );
+                    if ( doubleValue == null )
+                    {
+                        stm2.setNull ( 6, Types.DOUBLE );
+                    }
+                    else
+                    {
+                        stm2.setDouble ( 6, doubleValue );
+                    }
+                    stm2.addBatch ();
+                    hasAttr = true;
                 }
             }
-            stm2 = stm;
+            if ( hasAttr )
+            {
+                executeBatch ( stm2 );
+            }
+        }
+        finally
+        {
+            closeStatement ( stm2 );
+        }
+    }
+
+    private void executeBatch ( final PreparedStatement stm ) throws SQLException
+    {
+        try
+        {
+            stm.executeBatch ();
+        }
+        catch ( final SQLException e )
+        {
+            logSQLError ( e );
+            throw e;
         }
-        closeStatement ( stm1 );
-        closeStatement ( stm2 );
     }
 
     protected void logSQLError ( final SQLException e )
@@ -595,8 +725,8 @@ public abstract class AbstractJdbcStorageDao extends BaseStorageDao
         } );
     }
 
-    protected void performStoreEvent ( final Event event, final ConnectionContext connectionContext ) throws SQLException, Exception
+    protected void performStoreEvents ( final Collection<Event> events, final ConnectionContext connectionContext ) throws SQLException, Exception
     {
-        storeEventData ( event, connectionContext.getConnection () );
+        storeEventData ( events, connectionContext.getConnection () );
     }
 }
@@ -9,9 +9,11 @@
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - add login timeout
+ *     IBH SYSTEMS GmbH - keep the event journal in the bundle data area
  *******************************************************************************/
 package org.eclipse.scada.ae.server.storage.jdbc;
 
+import java.io.File;
 import java.sql.SQLException;
 import java.util.Dictionary;
 import java.util.Hashtable;
@@ -167,6 +169,7 @@ public class Activator implements BundleActivator
         {
             jdbcStorageDao.setSchema ( System.getProperty ( "org.eclipse.scada.ae.server.storage.jdbc.schema" ) + "." );
         }
-        return new JdbcStorage ( jdbcStorageDao );
+        final File journalDirectory = context == null ? null : context.getDataFile ( "journal-" + jdbcStorageDao.getInstance () );
+        return new JdbcStorage ( jdbcStorageDao, jdbcStorageDao.getInstance (), journalDirectory );
     }
 }
@@ -0,0 +1,599 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.server.storage.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.scada.ae.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append only journal of events which could not be written to the
+ * database
+ * <p>
+ * The journal is stored in memory mapped segment files in one directory and
+ * survives restarts. When the size limit is reached, the oldest segment gets
+ * dropped. Events are replayed in order, a segment is deleted once all of its
+ * events were replayed.
+ * </p>
+ * <p>
+ * Replaying may re-deliver events which were already written, if the process
+ * stops before the read position was written to the storage device. So
+ * replaying must be idempotent.
+ * </p>
+ * <p>
+ * Events which cannot be replayed, while other events can, are moved to dead
+ * letter segments in the same directory. Those are never replayed, but kept
+ * for inspection.
+ * </p>
+ */
+public class EventJournal
+{
+    private final static Logger logger = LoggerFactory.getLogger ( EventJournal.class );
+
+    private static final Pattern FILE_PATTERN = Pattern.compile ( "([0-9a-f]{16})\\.journal" );
+
+    /**
+     * The number of events which may fail, before any event was replayed,
+     * until the database is considered to be unavailable
+     */
+    private static final int MAX_FAILURES = 3;
+
+    private static final Pattern DEAD_LETTER_PATTERN = Pattern.compile ( "([0-9a-f]{16})\\.deadletter" );
+
+    public interface Replayer
+    {
+        /**
+         * Replay a batch of events
+         *
+         * @throws Exception
+         *             if the events could not be replayed, they will be
+         *             retried in smaller batches or replayed again later
+         */
+        public void replay ( List<Event> events ) throws Exception;
+    }
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    /**
+     * The segments, from oldest to newest
+     */
+    private final LinkedList<JournalSegment> segments = new LinkedList<JournalSegment> ();
+
+    private long nextIndex;
+
+    private long droppedCount;
+
+    private JournalSegment deadLetter;
+
+    private long nextDeadLetterIndex;
+
+    private long deadLetterCount;
+
+    private final Object replayLock = new Object ();
+
+    public EventJournal ( final File directory, final int segmentSize, final long maxSize ) throws IOException
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int)Math.max ( 1, maxSize / segmentSize );
+
+        if ( !directory.isDirectory () && !directory.mkdirs () )
+        {
+            throw new IOException ( String.format ( "Unable to create journal directory: %s", directory ) );
+        }
+
+        load ();
+    }
+
+    private void load ()
+    {
+        final File[] files = this.directory.listFiles ( new FileFilter () {
+
+            @Override
+            public boolean accept ( final File file )
+            {
+                return file.isFile () && FILE_PATTERN.matcher ( file.getName () ).matches ();
+            }
+        } );
+
+        // the names sort by index
+        Arrays.sort ( files );
+
+        final String[] deadLetters = this.directory.list ();
+        if ( deadLetters != null )
+        {
+            for ( final String name : deadLetters )
+            {
+                final Matcher m = DEAD_LETTER_PATTERN.matcher ( name );
+                if ( m.matches () )
+                {
+                    this.nextDeadLetterIndex = Math.max ( this.nextDeadLetterIndex, Long.parseLong ( m.group ( 1 ), 16 ) + 1 );
+                }
+            }
+        }
+
+        for ( final File file : files )
+        {
+            final Matcher m = FILE_PATTERN.matcher ( file.getName () );
+            m.matches ();
+            final long index = Long.parseLong ( m.group ( 1 ), 16 );
+
+            try
+            {
+                final JournalSegment segment = JournalSegment.open ( file, index );
+                this.nextIndex = index + 1;
+
+                if ( segment.getCount () == 0 )
+                {
+                    segment.delete ();
+                    continue;
+                }
+
+                this.segments.add ( segment );
+                logger.info ( "Found journal segment {} with {} events", file, segment.getCount () );
+            }
+            catch ( final IOException e )
+            {
+                logger.warn ( String.format ( "Failed to open journal segment: %s", file ), e );
+            }
+        }
+    }
+
+    /**
+     * Append an event to the journal
+     */
+    public synchronized void append ( final Event event )
+    {
+        final byte[] data;
+        try
+        {
+            data = serialize ( event );
+        }
+        catch ( final IOException e )
+        {
+            logger.error ( String.format ( "Failed to serialize event: %s", event ), e );
+            this.droppedCount++;
+            return;
+        }
+
+        if ( data.length > JournalSegment.getMaximumRecordSize ( this.segmentSize ) )
+        {
+            logger.error ( "Event is too large for the journal ({} bytes), dropping: {}", data.length, event );
+            this.droppedCount++;
+            return;
+        }
+
+        final JournalSegment current = this.segments.peekLast ();
+        if ( current != null && current.append ( data ) )
+        {
+            return;
+        }
+
+        try
+        {
+            final JournalSegment segment = createSegment ();
+            segment.append ( data );
+        }
+        catch ( final IOException e )
+        {
+            logger.error ( String.format ( "Failed to create journal segment, dropping event: %s", event ), e );
+            this.droppedCount++;
+        }
+    }
+
+    private JournalSegment createSegment () throws IOException
+    {
+        while ( this.segments.size () >= this.maxSegments )
+        {
+            final JournalSegment oldest = this.segments.removeFirst ();
+            logger.error ( "Journal is full, dropping {} events of segment {}", oldest.getCount (), oldest.getFile () );
+            this.droppedCount += oldest.getCount ();
+            oldest.delete ();
+        }
+
+        final long index = this.nextIndex++;
+        final File file = new File ( this.directory, String.format ( "%016x.journal", index ) );
+        final JournalSegment segment = JournalSegment.create ( file, index, this.segmentSize );
+        this.segments.add ( segment );
+
+        logger.info ( "Created journal segment: {}", file );
+
+        return segment;
+    }
+
+    /**
+     * @return the number of events waiting to be replayed
+     */
+    public synchronized long size ()
+    {
+        long result = 0;
+        for ( final JournalSegment segment : this.segments )
+        {
+            result += segment.getCount ();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of events which had to be dropped
+     */
+    public synchronized long getDroppedCount ()
+    {
+        return this.droppedCount;
+    }
+
+    /**
+     * @return the number of events which were moved to the dead letter
+     *         segments
+     */
+    public synchronized long getDeadLetterCount ()
+    {
+        return this.deadLetterCount;
+    }
+
+    /**
+     * Write all changes to the storage device
+     */
+    public synchronized void force ()
+    {
+        for ( final JournalSegment segment : this.segments )
+        {
+            segment.force ();
+        }
+        if ( this.deadLetter != null )
+        {
+            this.deadLetter.force ();
+        }
+    }
+
+    /**
+     * Move a record to the dead letter segments
+     * <p>
+     * Must be called while holding the lock
+     * </p>
+     */
+    private void appendDeadLetter ( final byte[] data )
+    {
+        this.deadLetterCount++;
+
+        if ( this.deadLetter != null && this.deadLetter.append ( data ) )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( this.deadLetter != null )
+            {
+                this.deadLetter.close ();
+            }
+
+            final long index = this.nextDeadLetterIndex++;
+            final File file = new File ( this.directory, String.format ( "%016x.deadletter", index ) );
+            this.deadLetter = JournalSegment.create ( file, index, this.segmentSize );
+            this.deadLetter.append ( data );
+
+            logger.info ( "Created dead letter segment: {}", file );
+        }
+        catch ( final IOException e )
+        {
+            logger.error ( "Failed to create dead letter segment, dropping event", e );
+            this.deadLetter = null;
+            this.droppedCount++;
+        }
+    }
+
+    /**
+     * A batch of events read from the journal
+     */
+    private static class Batch
+    {
+        private final List<Event> events;
+
+        private final List<byte[]> data;
+
+        /**
+         * The position following the record of each event
+         */
+        private final int[] positions;
+
+        /**
+         * The number of records read up to and including each event
+         */
+        private final int[] records;
+
+        /**
+         * The index of the last event replayed, events before it which failed
+         * are dead letters
+         */
+        private int lastReplayed = -1;
+
+        private final BitSet failed = new BitSet ();
+
+        /**
+         * Records which could not be read, mapped by the position following
+         * them
+         */
+        private final SortedMap<Integer, byte[]> unreadable = new TreeMap<Integer, byte[]> ();
+
+        public Batch ( final int size )
+        {
+            this.events = new ArrayList<Event> ( size );
+            this.data = new ArrayList<byte[]> ( size );
+            this.positions = new int[size];
+            this.records = new int[size];
+        }
+
+        public void add ( final Event event, final byte[] data, final int position, final int records )
+        {
+            final int i = this.events.size ();
+            this.events.add ( event );
+            this.data.add ( data );
+            this.positions[i] = position;
+            this.records[i] = records;
+        }
+    }
+
+    /**
+     * Replay all events in batches
+     * <p>
+     * If a batch fails, it is split in halves until the events which cannot
+     * be replayed are found. Those are moved to the dead letter segments, but
+     * only if a later event could be replayed, which shows that the database
+     * is available. Otherwise replaying stops, the events are kept and
+     * replayed again with the next call.
+     * </p>
+     *
+     * @return the number of events replayed
+     */
+    public long replay ( final int batchSize, final Replayer replayer )
+    {
+        long total = 0;
+
+        synchronized ( this.replayLock )
+        {
+            for ( ;; )
+            {
+                final JournalSegment segment;
+                int position;
+                final Batch batch = new Batch ( batchSize );
+                int records = 0;
+
+                synchronized ( this )
+                {
+                    segment = this.segments.peekFirst ();
+                    if ( segment == null )
+                    {
+                        return total;
+                    }
+
+                    position = segment.getReadPosition ();
+
+                    byte[] data;
+                    while ( batch.events.size () < batchSize && ( data = segment.read ( position ) ) != null )
+                    {
+                        position = segment.next ( position );
+                        records++;
+                        try
+                        {
+                            batch.add ( deserialize ( data ), data, position, records );
+                        }
+                        catch ( final Exception e )
+                        {
+                            logger.error ( "Failed to read event from journal", e );
+                            batch.unreadable.put ( position, data );
+                        }
+                    }
+
+                    if ( records == 0 )
+                    {
+                        removeSegment ( segment );
+                        continue;
+                    }
+                }
+
+                replayPart ( replayer, batch, 0, batch.events.size () );
+
+                final int replayed = batch.lastReplayed + 1 - batch.failed.get ( 0, batch.lastReplayed + 1 ).cardinality ();
+                total += replayed;
+
+                synchronized ( this )
+                {
+                    final int readPosition;
+                    if ( batch.lastReplayed + 1 == batch.events.size () )
+                    {
+                        // everything was handled, including records which could not be read
+                        readPosition = position;
+                        segment.markRead ( position, records );
+                    }
+                    else if ( batch.lastReplayed >= 0 )
+                    {
+                        readPosition = batch.positions[batch.lastReplayed];
+                        segment.markRead ( readPosition, batch.records[batch.lastReplayed] );
+                    }
+                    else
+                    {
+                        readPosition = segment.getReadPosition ();
+                    }
+
+                    for ( final byte[] data : batch.unreadable.headMap ( readPosition + 1 ).values () )
+                    {
+                        logger.error ( "Moving unreadable event from the journal to the dead letters" );
+                        appendDeadLetter ( data );
+                    }
+
+                    for ( int i = batch.failed.nextSetBit ( 0 ); i >= 0 && i < batch.lastReplayed; i = batch.failed.nextSetBit ( i + 1 ) )
+                    {
+                        logger.error ( "Failed to replay event from the journal, moving it to the dead letters: {}", batch.events.get ( i ) );
+                        appendDeadLetter ( batch.data.get ( i ) );
+                    }
+
+                    if ( segment.isFullyRead () )
+                    {
+                        removeSegment ( segment );
+                    }
+                }
+
+                if ( batch.lastReplayed + 1 < batch.events.size () )
+                {
+                    logger.info ( "Failed to replay {} events from the journal, retrying later", batch.events.size () - batch.lastReplayed - 1 );
+                    return total;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replay a part of the batch, splitting it on failure
+     */
+    private void replayPart ( final Replayer replayer, final Batch batch, final int from, final int to )
+    {
+        if ( from >= to )
+        {
+            return;
+        }
+
+        if ( batch.lastReplayed < 0 && batch.failed.cardinality () >= MAX_FAILURES )
+        {
+            // the database is most likely not available at all
+            return;
+        }
+
+        try
+        {
+            replayer.replay ( batch.events.subList ( from, to ) );
+            batch.lastReplayed = to - 1;
+            return;
+        }
+        catch ( final Exception e )
+        {
+            logger.debug ( "Failed to replay {} events from the journal: {}", to - from, e.getMessage () );
+        }
+
+        if ( to - from == 1 )
+        {
+            batch.failed.set ( from );
+            return;
+        }
+
+        final int middle = from + ( to - from ) / 2;
+        replayPart ( replayer, batch, from, middle );
+        replayPart ( replayer, batch, middle, to );
+    }
+
+    /**
+     * Remove a completely replayed segment
+     * <p>
+     * Must be called while holding the lock
+     * </p>
+     */
+    private void removeSegment ( final JournalSegment segment )
+    {
+        if ( !this.segments.remove ( segment ) )
+        {
+            // dropped in the meantime
+            return;
+        }
+
+        if ( !segment.delete () )
+        {
+            logger.warn ( "Failed to delete journal segment: {}", segment.getFile () );
+        }
+    }
+
+    public synchronized void dispose ()
+    {
+        for ( final JournalSegment segment : this.segments )
+        {
+            segment.close ();
+        }
+        this.segments.clear ();
+
+        if ( this.deadLetter != null )
+        {
+            this.deadLetter.close ();
+            this.deadLetter = null;
+        }
+    }
+
+    private static byte[] serialize ( final Event event ) throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        final ObjectOutputStream oos = new ObjectOutputStream ( bos );
+        oos.writeObject ( event );
+        oos.close ();
+        return bos.toByteArray ();
+    }
+
+    private static Event deserialize ( final byte[] data ) throws IOException, ClassNotFoundException
+    {
+        final ObjectInputStream ois = new ClassLoaderObjectInputStream ( new ByteArrayInputStream ( data ), EventJournal.class.getClassLoader () );
+        try
+        {
+            return (Event)ois.readObject ();
+        }
+        finally
+        {
+            ois.close ();
+        }
+    }
+
+    /**
+     * Resolve classes using the class loader of this bundle, which can see the
+     * event classes
+     */
+    private static class ClassLoaderObjectInputStream extends ObjectInputStream
+    {
+        private final ClassLoader classLoader;
+
+        public ClassLoaderObjectInputStream ( final InputStream in, final ClassLoader classLoader ) throws IOException
+        {
+            super ( in );
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass ( final ObjectStreamClass desc ) throws IOException, ClassNotFoundException
+        {
+            try
+            {
+                return Class.forName ( desc.getName (), false, this.classLoader );
+            }
+            catch ( final ClassNotFoundException e )
+            {
+                return super.resolveClass ( desc );
+            }
+        }
+    }
+}
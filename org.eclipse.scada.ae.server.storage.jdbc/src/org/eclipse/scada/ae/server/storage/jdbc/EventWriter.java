@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.server.storage.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.scada.ae.Event;
+import org.eclipse.scada.ae.server.storage.StoreListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write events in groups, one transaction per group
+ * <p>
+ * The writer collects up to <code>batchSize</code> events, waiting at most
+ * <code>maxDelay</code> milliseconds for more events after the first one, and
+ * writes them in one transaction. Store listeners are notified after the
+ * transaction was committed.
+ * </p>
+ * <p>
+ * The queue is bounded. When it is full, storing an event blocks the caller
+ * for up to <code>enqueueTimeout</code> milliseconds. If there is still no
+ * space left, the event is handed over to the failure handler.
+ * </p>
+ * <p>
+ * Comment updates are queued together with the events, so that an update is
+ * never executed before the event it belongs to was written.
+ * </p>
+ */
+public class EventWriter
+{
+    private final static Logger logger = LoggerFactory.getLogger ( EventWriter.class );
+
+    /**
+     * The number of consecutive failures after which the database is
+     * considered to be unavailable
+     */
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    public interface FailureHandler
+    {
+        /**
+         * Called for events which could not be written
+         */
+        public void failed ( Event event );
+    }
+
+    private static class Entry
+    {
+        private final Event event;
+
+        private final StoreListener listener;
+
+        /**
+         * The id of the event to update the comment of, <code>null</code> if
+         * the event has to be stored
+         */
+        private final UUID commentId;
+
+        private final String comment;
+
+        public Entry ( final Event event, final StoreListener listener )
+        {
+            this ( event, listener, null, null );
+        }
+
+        public Entry ( final Event event, final StoreListener listener, final UUID commentId, final String comment )
+        {
+            this.event = event;
+            this.listener = listener;
+            this.commentId = commentId;
+            this.comment = comment;
+        }
+    }
+
+    private final StorageDao storageDao;
+
+    private final FailureHandler failureHandler;
+
+    private final BlockingQueue<Entry> queue;
+
+    private final int batchSize;
+
+    private final long maxDelay;
+
+    private final long enqueueTimeout;
+
+    private final EventWriterStatistics statistics = new EventWriterStatistics ();
+
+    private final Thread thread;
+
+    private volatile boolean disposed;
+
+    public EventWriter ( final StorageDao storageDao, final FailureHandler failureHandler, final String instance, final int capacity, final int batchSize, final long maxDelay, final long enqueueTimeout )
+    {
+        this.storageDao = storageDao;
+        this.failureHandler = failureHandler;
+        this.queue = new ArrayBlockingQueue<Entry> ( Math.max ( 1, capacity ) );
+        this.batchSize = Math.max ( 1, batchSize );
+        this.maxDelay = maxDelay;
+        this.enqueueTimeout = enqueueTimeout;
+
+        this.statistics.register ( instance );
+
+        this.thread = new Thread ( "org.eclipse.scada.ae.server.storage.jdbc/EventWriter" ) {
+            @Override
+            public void run ()
+            {
+                runWriter ();
+            }
+        };
+        this.thread.start ();
+    }
+
+    public EventWriterStatisticsMXBean getStatistics ()
+    {
+        return this.statistics;
+    }
+
+    public void store ( final Event event, final StoreListener listener )
+    {
+        if ( enqueue ( new Entry ( event, listener ) ) )
+        {
+            return;
+        }
+
+        this.statistics.rejected ();
+        logger.warn ( "Unable to queue event for writing: {}", event.getId () );
+        this.failureHandler.failed ( event );
+    }
+
+    /**
+     * Update the comment of an event after all events queued before were
+     * written
+     *
+     * @param event
+     *            the event with the new comment, passed to the listener
+     */
+    public void updateComment ( final UUID id, final String comment, final Event event, final StoreListener listener )
+    {
+        if ( enqueue ( new Entry ( event, listener, id, comment ) ) )
+        {
+            return;
+        }
+
+        logger.error ( "Unable to queue comment update for writing: {}", id );
+    }
+
+    private boolean enqueue ( final Entry entry )
+    {
+        if ( this.disposed )
+        {
+            return false;
+        }
+
+        this.statistics.queued ( 1 );
+        try
+        {
+            if ( this.queue.offer ( entry, this.enqueueTimeout, TimeUnit.MILLISECONDS ) )
+            {
+                return true;
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread ().interrupt ();
+        }
+        this.statistics.queued ( -1 );
+        return false;
+    }
+
+    protected void runWriter ()
+    {
+        final List<Entry> batch = new ArrayList<Entry> ( this.batchSize );
+
+        for ( ;; )
+        {
+            try
+            {
+                final Entry first = this.queue.poll ( 1, TimeUnit.SECONDS );
+                if ( first == null )
+                {
+                    if ( this.disposed && this.queue.isEmpty () )
+                    {
+                        return;
+                    }
+                    continue;
+                }
+
+                batch.add ( first );
+                this.queue.drainTo ( batch, this.batchSize - batch.size () );
+
+                if ( this.maxDelay > 0 && !this.disposed )
+                {
+                    final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos ( this.maxDelay );
+                    while ( batch.size () < this.batchSize )
+                    {
+                        final long remaining = deadline - System.nanoTime ();
+                        if ( remaining <= 0 )
+                        {
+                            break;
+                        }
+                        final Entry entry = this.queue.poll ( remaining, TimeUnit.NANOSECONDS );
+                        if ( entry == null )
+                        {
+                            break;
+                        }
+                        batch.add ( entry );
+                        this.queue.drainTo ( batch, this.batchSize - batch.size () );
+                    }
+                }
+
+                this.statistics.queued ( -batch.size () );
+                write ( batch );
+            }
+            catch ( final InterruptedException e )
+            {
+                logger.warn ( "Event writer interrupted", e );
+                // write what we have and continue until disposed
+                this.statistics.queued ( -batch.size () );
+                write ( batch );
+            }
+            finally
+            {
+                batch.clear ();
+            }
+        }
+    }
+
+    /**
+     * Write a batch, keeping the order of events and comment updates
+     */
+    private void write ( final List<Entry> batch )
+    {
+        final List<Entry> events = new ArrayList<Entry> ( batch.size () );
+
+        for ( final Entry entry : batch )
+        {
+            if ( entry.commentId == null )
+            {
+                events.add ( entry );
+                continue;
+            }
+
+            // write the events before, the update might refer to one of them
+            writeEvents ( events );
+            events.clear ();
+
+            updateComment ( entry );
+        }
+
+        writeEvents ( events );
+    }
+
+    private void updateComment ( final Entry entry )
+    {
+        try
+        {
+            this.storageDao.updateComment ( entry.commentId, entry.comment );
+            logger.debug ( "Comment saved to database - event: {}", entry.event );
+        }
+        catch ( final Exception e )
+        {
+            logger.error ( "Exception occured ({}) while saving Comment to database: {}", e, entry.event );
+            logger.info ( "Exception was", e );
+            return;
+        }
+        notifyListener ( entry );
+    }
+
+    private void writeEvents ( final List<Entry> batch )
+    {
+        if ( batch.isEmpty () )
+        {
+            return;
+        }
+
+        final List<Event> events = new ArrayList<Event> ( batch.size () );
+        for ( final Entry entry : batch )
+        {
+            events.add ( entry.event );
+        }
+
+        final long start = System.nanoTime ();
+        try
+        {
+            this.storageDao.storeEvents ( events );
+            this.statistics.committed ( events.size (), System.nanoTime () - start );
+            logger.debug ( "Stored {} events - remaining in queue: {}", events.size (), this.queue.size () );
+        }
+        catch ( final Exception e )
+        {
+            if ( batch.size () == 1 )
+            {
+                failed ( batch.get ( 0 ), e );
+                return;
+            }
+
+            logger.warn ( String.format ( "Failed to store %s events in one transaction, storing them one by one", batch.size () ), e );
+            writeSingle ( batch );
+            return;
+        }
+
+        for ( final Entry entry : batch )
+        {
+            notifyListener ( entry );
+        }
+    }
+
+    /**
+     * Write each event in its own transaction, so that a single broken event
+     * does not prevent all other events of the batch from being written
+     * <p>
+     * If several events in a row fail, the database is most likely not
+     * available at all and the remaining events are handed over to the
+     * failure handler without trying.
+     * </p>
+     */
+    private void writeSingle ( final List<Entry> batch )
+    {
+        int consecutiveFailures = 0;
+
+        for ( final Entry entry : batch )
+        {
+            if ( consecutiveFailures >= MAX_CONSECUTIVE_FAILURES )
+            {
+                this.statistics.failed ( 1 );
+                this.failureHandler.failed ( entry.event );
+                continue;
+            }
+
+            final long start = System.nanoTime ();
+            try
+            {
+                this.storageDao.storeEvent ( entry.event );
+                this.statistics.committed ( 1, System.nanoTime () - start );
+                consecutiveFailures = 0;
+            }
+            catch ( final Exception e )
+            {
+                consecutiveFailures++;
+                failed ( entry, e );
+                continue;
+            }
+            notifyListener ( entry );
+        }
+    }
+
+    private void failed ( final Entry entry, final Exception e )
+    {
+        this.statistics.failed ( 1 );
+        logger.error ( "Exception occured ({}) while saving Event to database: {}", e, entry.event );
+        logger.info ( "Exception was", e );
+        this.failureHandler.failed ( entry.event );
+    }
+
+    private void notifyListener ( final Entry entry )
+    {
+        if ( entry.listener == null )
+        {
+            return;
+        }
+
+        try
+        {
+            entry.listener.notify ( entry.event );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to notify store listener", e );
+        }
+    }
+
+    /**
+     * Dispose the writer
+     * <p>
+     * Waits until all queued events are written.
+     * </p>
+     */
+    public void dispose ()
+    {
+        this.disposed = true;
+
+        try
+        {
+            this.thread.join ();
+        }
+        catch ( final InterruptedException e )
+        {
+            logger.warn ( "Interrupted while waiting for the event writer", e );
+            Thread.currentThread ().interrupt ();
+        }
+
+        this.statistics.unregister ();
+    }
+}
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.server.storage.jdbc;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statistics of the event writer
+ */
+public class EventWriterStatistics implements EventWriterStatisticsMXBean
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( EventWriterStatistics.class );
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private ObjectName name;
+
+    private int queueSize;
+
+    private int maximumQueueSize;
+
+    private long commitCount;
+
+    private long eventCount;
+
+    private long failedEventCount;
+
+    private long rejectedEventCount;
+
+    private long lastLatency;
+
+    private long totalLatency;
+
+    private long maximumLatency;
+
+    synchronized void queued ( final int delta )
+    {
+        this.queueSize += delta;
+        this.maximumQueueSize = Math.max ( this.maximumQueueSize, this.queueSize );
+    }
+
+    synchronized void committed ( final int events, final long latency )
+    {
+        this.commitCount++;
+        this.eventCount += events;
+        this.lastLatency = latency;
+        this.totalLatency += latency;
+        this.maximumLatency = Math.max ( this.maximumLatency, latency );
+    }
+
+    synchronized void failed ( final int events )
+    {
+        this.failedEventCount += events;
+    }
+
+    synchronized void rejected ()
+    {
+        this.rejectedEventCount++;
+    }
+
+    @Override
+    public synchronized int getQueueSize ()
+    {
+        return this.queueSize;
+    }
+
+    @Override
+    public synchronized int getMaximumQueueSize ()
+    {
+        return this.maximumQueueSize;
+    }
+
+    @Override
+    public synchronized long getCommitCount ()
+    {
+        return this.commitCount;
+    }
+
+    @Override
+    public synchronized long getEventCount ()
+    {
+        return this.eventCount;
+    }
+
+    @Override
+    public synchronized long getFailedEventCount ()
+    {
+        return this.failedEventCount;
+    }
+
+    @Override
+    public synchronized long getRejectedEventCount ()
+    {
+        return this.rejectedEventCount;
+    }
+
+    @Override
+    public synchronized double getAverageBatchSize ()
+    {
+        if ( this.commitCount == 0 )
+        {
+            return 0.0;
+        }
+        return (double)this.eventCount / this.commitCount;
+    }
+
+    @Override
+    public synchronized double getLastCommitLatency ()
+    {
+        return this.lastLatency / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getAverageCommitLatency ()
+    {
+        if ( this.commitCount == 0 )
+        {
+            return 0.0;
+        }
+        return this.totalLatency / NANOS_PER_MILLI / this.commitCount;
+    }
+
+    @Override
+    public synchronized double getMaximumCommitLatency ()
+    {
+        return this.maximumLatency / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized void resetStatistics ()
+    {
+        this.maximumQueueSize = this.queueSize;
+        this.commitCount = 0;
+        this.eventCount = 0;
+        this.failedEventCount = 0;
+        this.rejectedEventCount = 0;
+        this.lastLatency = 0;
+        this.totalLatency = 0;
+        this.maximumLatency = 0;
+    }
+
+    public void register ( final String instance )
+    {
+        try
+        {
+            final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer ();
+            final ObjectName name = new ObjectName ( "org.eclipse.scada.ae.server.storage.jdbc", "writer", ObjectName.quote ( instance ) );
+            mbs.registerMBean ( this, name );
+            this.name = name;
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to register MXBean", e );
+        }
+    }
+
+    public void unregister ()
+    {
+        if ( this.name == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer ().unregisterMBean ( this.name );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to unregister MXBean", e );
+        }
+        this.name = null;
+    }
+}
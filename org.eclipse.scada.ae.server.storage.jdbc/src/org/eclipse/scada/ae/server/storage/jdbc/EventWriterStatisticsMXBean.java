@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.server.storage.jdbc;
+
+public interface EventWriterStatisticsMXBean
+{
+    /**
+     * @return the number of events and comment updates waiting to be written
+     */
+    public int getQueueSize ();
+
+    /**
+     * @return the maximum number of events and comment updates which were
+     *         waiting to be written
+     */
+    public int getMaximumQueueSize ();
+
+    /**
+     * @return the number of committed transactions
+     */
+    public long getCommitCount ();
+
+    /**
+     * @return the number of events written
+     */
+    public long getEventCount ();
+
+    /**
+     * @return the number of events which could not be written
+     */
+    public long getFailedEventCount ();
+
+    /**
+     * @return the number of events which had to wait for free space in the
+     *         queue longer than allowed
+     */
+    public long getRejectedEventCount ();
+
+    /**
+     * @return the average number of events per transaction
+     */
+    public double getAverageBatchSize ();
+
+    /**
+     * @return the duration of the last commit in milliseconds, including
+     *         executing the statements
+     */
+    public double getLastCommitLatency ();
+
+    /**
+     * @return the average commit duration in milliseconds
+     */
+    public double getAverageCommitLatency ();
+
+    /**
+     * @return the maximum commit duration in milliseconds
+     */
+    public double getMaximumCommitLatency ();
+
+    public void resetStatistics ();
+}
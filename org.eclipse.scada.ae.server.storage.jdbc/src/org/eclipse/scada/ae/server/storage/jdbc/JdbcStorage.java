@@ -7,24 +7,25 @@
  *
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - write events in groups
+ *     IBH SYSTEMS GmbH - keep unwritten events in a journal
+ *     IBH SYSTEMS GmbH - write comment updates after their events
+ *     IBH SYSTEMS GmbH - show the dead letters of the journal
  *******************************************************************************/
 package org.eclipse.scada.ae.server.storage.jdbc;
 
-import java.util.HashSet;
+import java.io.File;
 import java.util.List;
-import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.scada.ae.Event;
 import org.eclipse.scada.ae.Event.Fields;
 import org.eclipse.scada.ae.server.storage.BaseStorage;
 import org.eclipse.scada.ae.server.storage.Query;
 import org.eclipse.scada.ae.server.storage.StoreListener;
-import org.eclipse.scada.utils.collection.BoundedPriorityQueueSet;
 import org.eclipse.scada.utils.concurrent.ScheduledExportedExecutorService;
 import org.eclipse.scada.utils.filter.FilterParser;
 import org.slf4j.Logger;
@@ -34,91 +35,75 @@ public class JdbcStorage extends BaseStorage
 {
     private static final Logger logger = LoggerFactory.getLogger ( JdbcStorage.class );
 
-    private ScheduledExecutorService executor;
+    private static final int JOURNAL_REPLAY_BATCH_SIZE = Integer.getInteger ( "org.eclipse.scada.ae.server.storage.jdbc.journal.replayBatchSize", 500 );
+
+    private static final long JOURNAL_REPLAY_PERIOD = Long.getLong ( "org.eclipse.scada.ae.server.storage.jdbc.journal.replayPeriodSeconds", 10 );
 
-    private final AtomicInteger queueSize = new AtomicInteger ( 0 );
+    private ScheduledExecutorService executor;
 
     private final StorageDao jdbcStorageDao;
 
     private final List<JdbcQuery> openQueries = new CopyOnWriteArrayList<JdbcQuery> ();
 
-    private final BoundedPriorityQueueSet<Event> errorQueue = new BoundedPriorityQueueSet<Event> ( 1000 );
+    private final String instance;
+
+    private final File journalDirectory;
+
+    private EventWriter writer;
+
+    private EventJournal journal;
 
     public JdbcStorage ( final StorageDao jdbcStorageDao )
+    {
+        this ( jdbcStorageDao, "default" );
+    }
+
+    public JdbcStorage ( final StorageDao jdbcStorageDao, final String instance )
+    {
+        this ( jdbcStorageDao, instance, null );
+    }
+
+    /**
+     * Create a new storage
+     *
+     * @param journalDirectory
+     *            the directory of the journal for events which could not be
+     *            written, may be <code>null</code> to use the default location
+     */
+    public JdbcStorage ( final StorageDao jdbcStorageDao, final String instance, final File journalDirectory )
     {
         this.jdbcStorageDao = jdbcStorageDao;
+        this.instance = instance;
+        this.journalDirectory = journalDirectory;
     }
 
     @Override
     public Event store ( final Event event, final StoreListener listener )
     {
-        this.queueSize.incrementAndGet ();
         final Event eventToStore = createEvent ( event );
         logger.debug ( "Save Event to database: {}", event );
-        this.executor.submit ( new Runnable () {
-            @Override
-            public void run ()
-            {
-                try
-                {
-                    JdbcStorage.this.jdbcStorageDao.storeEvent ( eventToStore );
-                    JdbcStorage.this.queueSize.decrementAndGet ();
-                    if ( listener != null )
-                    {
-                        listener.notify ( eventToStore );
-                    }
-                    logger.debug ( "Event saved to database - remaining in queue: {}, event: {}", JdbcStorage.this.queueSize.get (), event );
-                }
-                catch ( final Exception e )
-                {
-                    JdbcStorage.this.queueSize.decrementAndGet ();
-                    JdbcStorage.this.errorQueue.offer ( eventToStore );
-                    logger.error ( "Exception occured ({}) while saving Event to database: {}", e, event );
-                    logger.info ( "Exception was", e );
-                }
-            }
-        } );
+        this.writer.store ( eventToStore, listener );
         return eventToStore;
     }
 
-    private void drainErrorQueue ()
+    private void replayJournal ()
     {
-        final int size = this.errorQueue.size ();
-        final Set<Event> eventsNotSaved = new HashSet<Event> ();
-        for ( int i = 0; i < size; i++ )
-        {
-            final int ii = i;
-            final Event event = this.errorQueue.poll ();
-            if ( event != null )
+        final long count = this.journal.replay ( JOURNAL_REPLAY_BATCH_SIZE, new EventJournal.Replayer () {
+
+            @Override
+            public void replay ( final List<Event> events ) throws Exception
             {
-                this.executor.submit ( new Runnable () {
-                    @Override
-                    public void run ()
-                    {
-                        try
-                        {
-                            final Event existingEvent = JdbcStorage.this.jdbcStorageDao.loadEvent ( event.getId () );
-                            if ( existingEvent == null )
-                            {
-                                JdbcStorage.this.jdbcStorageDao.storeEvent ( event );
-                                logger.debug ( "Event saved to database which could not be saved before - remaining in queue: {}, event: {}", size - ii, event );
-                            }
-                        }
-                        catch ( final Exception e )
-                        {
-                            eventsNotSaved.add ( event );
-                            logger.error ( "Exception occured ({}) while saving Event to database: {}", e, event );
-                            logger.info ( "Exception was", e );
-                        }
-                    }
-                } );
+                final int stored = JdbcStorage.this.jdbcStorageDao.storeEventsIfAbsent ( events );
+                logger.debug ( "Replayed {} events from the journal, {} were already stored", events.size (), events.size () - stored );
             }
-        }
-        // add to queue again
-        for ( final Event event : eventsNotSaved )
+        } );
+
+        if ( count > 0 )
         {
-            this.errorQueue.offer ( event );
+            logger.info ( "Replayed {} events from the journal - remaining: {}", count, this.journal.size () );
         }
+
+        this.journal.force ();
     }
 
     @Override
@@ -131,31 +116,10 @@ public class JdbcStorage extends BaseStorage
     @Override
     public Event update ( final UUID id, final String comment, final StoreListener listener ) throws Exception
     {
-        this.queueSize.incrementAndGet ();
         logger.debug ( "Update of comment on event {} with comment '{}'", id, comment );
         final Event event = Event.create ().event ( this.jdbcStorageDao.loadEvent ( id ) ).attribute ( Fields.COMMENT, comment ).build ();
-        this.executor.submit ( new Runnable () {
-            @Override
-            public void run ()
-            {
-                try
-                {
-                    JdbcStorage.this.jdbcStorageDao.updateComment ( id, comment );
-                    logger.debug ( "Comment saved to database - remaining queue: {}, event: {}", JdbcStorage.this.queueSize.get (), event );
-                    JdbcStorage.this.queueSize.decrementAndGet ();
-                    if ( listener != null )
-                    {
-                        listener.notify ( event );
-                    }
-                }
-                catch ( final Exception e )
-                {
-                    JdbcStorage.this.queueSize.decrementAndGet ();
-                    logger.error ( "Exception occured ({}) while saving Comment to database: {}", e, event );
-                    logger.info ( "Exception was", e );
-                }
-            }
-        } );
+        // queued with the events, so that the update runs after the insert
+        this.writer.updateComment ( id, comment, event, listener );
         return event;
     }
 
@@ -168,14 +132,41 @@ public class JdbcStorage extends BaseStorage
     {
         logger.info ( "jdbcStorageDAO instanciated" );
         this.executor = new ScheduledExportedExecutorService ( getClass ().getCanonicalName (), 1 );
+
+        final File directory = makeJournalDirectory ();
+        logger.info ( "Using event journal: {}", directory );
+        this.journal = new EventJournal ( directory, Integer.getInteger ( "org.eclipse.scada.ae.server.storage.jdbc.journal.segmentSize", 16 * 1024 * 1024 ), Long.getLong ( "org.eclipse.scada.ae.server.storage.jdbc.journal.maxSize", 1024L * 1024L * 1024L ) );
+
+        this.writer = new EventWriter ( this.jdbcStorageDao, new EventWriter.FailureHandler () {
+
+            @Override
+            public void failed ( final Event event )
+            {
+                JdbcStorage.this.journal.append ( event );
+            }
+        }, this.instance, Integer.getInteger ( "org.eclipse.scada.ae.server.storage.jdbc.writer.queueCapacity", 100000 ), Integer.getInteger ( "org.eclipse.scada.ae.server.storage.jdbc.writer.batchSize", 500 ), Long.getLong ( "org.eclipse.scada.ae.server.storage.jdbc.writer.maxDelay", 20 ), Long.getLong ( "org.eclipse.scada.ae.server.storage.jdbc.writer.enqueueTimeout", 1000 ) );
         // try to store events which could not be stored before
-        this.executor.scheduleAtFixedRate ( new Runnable () {
+        this.executor.scheduleWithFixedDelay ( new Runnable () {
             @Override
             public void run ()
             {
-                drainErrorQueue ();
+                replayJournal ();
             }
-        }, 10000, 10000, TimeUnit.SECONDS );
+        }, JOURNAL_REPLAY_PERIOD, JOURNAL_REPLAY_PERIOD, TimeUnit.SECONDS );
+    }
+
+    private File makeJournalDirectory ()
+    {
+        final String directory = System.getProperty ( "org.eclipse.scada.ae.server.storage.jdbc.journal.directory" );
+        if ( directory != null && !directory.isEmpty () )
+        {
+            return new File ( directory, this.instance );
+        }
+        if ( this.journalDirectory != null )
+        {
+            return this.journalDirectory;
+        }
+        return new File ( new File ( System.getProperty ( "user.home" ), ".eclipse.scada.ae.journal" ), this.instance );
     }
 
     /**
@@ -183,6 +174,9 @@ public class JdbcStorage extends BaseStorage
      */
     public void dispose ()
     {
+        // write all pending events
+        this.writer.dispose ();
+
         final List<Runnable> openTasks = this.executor.shutdownNow ();
         final int numOfOpenTasks = openTasks.size ();
         if ( numOfOpenTasks > 0 )
@@ -197,6 +191,9 @@ public class JdbcStorage extends BaseStorage
             }
         }
 
+        // events failed while shutting down remain in the journal
+        this.journal.dispose ();
+
         this.jdbcStorageDao.dispose ();
 
         logger.info ( "jdbcStorageDAO destroyed" );
@@ -212,7 +209,11 @@ public class JdbcStorage extends BaseStorage
     public void showQueueSize ()
     {
         // should be called by the OSGi console
-        System.out.println ( "Storage queue size: " + this.queueSize.get () );
+        System.out.println ( "Event writer queue size (events and comment updates): " + this.writer.getStatistics ().getQueueSize () );
+        System.out.println ( "Event writer average commit latency: " + this.writer.getStatistics ().getAverageCommitLatency () + " ms" );
+        System.out.println ( "Event journal size: " + this.journal.size () );
+        System.out.println ( "Event journal dropped events: " + this.journal.getDroppedCount () );
+        System.out.println ( "Event journal dead letters: " + this.journal.getDeadLetterCount () );
     }
 
 }
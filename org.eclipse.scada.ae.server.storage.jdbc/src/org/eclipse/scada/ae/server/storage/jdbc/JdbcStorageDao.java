@@ -8,10 +8,12 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - add login timeout
+ *     IBH SYSTEMS GmbH - store events in batches
  *******************************************************************************/
 package org.eclipse.scada.ae.server.storage.jdbc;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Properties;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -69,12 +71,12 @@ public class JdbcStorageDao extends AbstractJdbcStorageDao
     }
 
     @Override
-    protected void performStoreEvent ( final Event event, final ConnectionContext connectionContext ) throws SQLException, Exception
+    protected void performStoreEvents ( final Collection<Event> events, final ConnectionContext connectionContext ) throws SQLException, Exception
     {
-        super.performStoreEvent ( event, connectionContext );
+        super.performStoreEvents ( events, connectionContext );
         if ( isReplication () )
         {
-            storeReplicationEvent ( event, connectionContext.getConnection () );
+            storeReplicationEvents ( events, connectionContext.getConnection () );
         }
     }
 }
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.server.storage.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.CRC32;
+
+/**
+ * One memory mapped file of the event journal
+ * <p>
+ * The segment starts with a header, followed by the records. The header
+ * contains the position of the first record which was not read yet, so that
+ * reading continues there after a restart. Each record
+ * consists of its length, a checksum of the data and the data itself. The
+ * length is written last, so a record which was not written completely is
+ * treated as the end of the segment. A length of zero marks the end of the
+ * written records, since new files are filled with zeros.
+ * </p>
+ * <p>
+ * Appending and reading may happen from different threads, but must be
+ * serialized by the caller.
+ * </p>
+ */
+class JournalSegment
+{
+    private static final int MAGIC = 0x41454A32;
+
+    private static final int READ_POSITION_OFFSET = 8;
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final File file;
+
+    private final long index;
+
+    private MappedByteBuffer buffer;
+
+    private int writePosition;
+
+    private int readPosition;
+
+    private int count;
+
+    private JournalSegment ( final File file, final long index, final MappedByteBuffer buffer )
+    {
+        this.file = file;
+        this.index = index;
+        this.buffer = buffer;
+    }
+
+    public static JournalSegment create ( final File file, final long index, final int size ) throws IOException
+    {
+        final JournalSegment segment = new JournalSegment ( file, index, map ( file, size ) );
+        segment.buffer.putInt ( 0, MAGIC );
+        segment.buffer.putInt ( 4, size );
+        segment.buffer.putInt ( READ_POSITION_OFFSET, HEADER_SIZE );
+        segment.writePosition = HEADER_SIZE;
+        segment.readPosition = HEADER_SIZE;
+        return segment;
+    }
+
+    public static JournalSegment open ( final File file, final long index ) throws IOException
+    {
+        final JournalSegment segment = new JournalSegment ( file, index, map ( file, (int)file.length () ) );
+        if ( segment.buffer.capacity () < HEADER_SIZE || segment.buffer.getInt ( 0 ) != MAGIC )
+        {
+            segment.close ();
+            throw new IOException ( String.format ( "'%s' is not a journal segment", file ) );
+        }
+        segment.scan ();
+        return segment;
+    }
+
+    private static MappedByteBuffer map ( final File file, final int size ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile ( file, "rw" );
+        try
+        {
+            // the mapping stays valid after closing the file
+            return raf.getChannel ().map ( MapMode.READ_WRITE, 0, size );
+        }
+        finally
+        {
+            raf.close ();
+        }
+    }
+
+    /**
+     * Find the end of the valid records and the records not read yet
+     */
+    private void scan ()
+    {
+        final int storedReadPosition = this.buffer.getInt ( READ_POSITION_OFFSET );
+
+        int position = HEADER_SIZE;
+        int count = 0;
+        int readPosition = -1;
+        int unread = 0;
+
+        while ( position + RECORD_HEADER_SIZE <= this.buffer.capacity () )
+        {
+            if ( position == storedReadPosition )
+            {
+                readPosition = position;
+                unread = count;
+            }
+
+            final int length = this.buffer.getInt ( position );
+            if ( length <= 0 || position + RECORD_HEADER_SIZE + length > this.buffer.capacity () )
+            {
+                break;
+            }
+
+            if ( checksum ( get ( position + RECORD_HEADER_SIZE, length ) ) != this.buffer.getInt ( position + 4 ) )
+            {
+                // incomplete record
+                break;
+            }
+
+            position += RECORD_HEADER_SIZE + length;
+            count++;
+        }
+
+        this.writePosition = position;
+
+        if ( storedReadPosition == position )
+        {
+            // everything was read
+            this.readPosition = position;
+            this.count = 0;
+        }
+        else if ( readPosition >= 0 )
+        {
+            this.readPosition = readPosition;
+            this.count = count - unread;
+        }
+        else
+        {
+            // not at a record boundary, read everything again
+            this.readPosition = HEADER_SIZE;
+            this.count = count;
+        }
+    }
+
+    private static int checksum ( final byte[] data )
+    {
+        final CRC32 crc = new CRC32 ();
+        crc.update ( data );
+        return (int)crc.getValue ();
+    }
+
+    private byte[] get ( final int offset, final int length )
+    {
+        final ByteBuffer b = this.buffer.duplicate ();
+        b.position ( offset );
+        final byte[] data = new byte[length];
+        b.get ( data );
+        return data;
+    }
+
+    public static int getMaximumRecordSize ( final int segmentSize )
+    {
+        return segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE;
+    }
+
+    public File getFile ()
+    {
+        return this.file;
+    }
+
+    public long getIndex ()
+    {
+        return this.index;
+    }
+
+    /**
+     * @return the number of records which were not read yet
+     */
+    public int getCount ()
+    {
+        return this.count;
+    }
+
+    public int getReadPosition ()
+    {
+        return this.readPosition;
+    }
+
+    public boolean isFullyRead ()
+    {
+        return this.readPosition >= this.writePosition;
+    }
+
+    /**
+     * Append a record
+     *
+     * @return <code>true</code> if the record was written,
+     *         <code>false</code> if the segment is full
+     */
+    public boolean append ( final byte[] data )
+    {
+        final int position = this.writePosition;
+        if ( position + RECORD_HEADER_SIZE + data.length > this.buffer.capacity () )
+        {
+            return false;
+        }
+
+        final ByteBuffer b = this.buffer.duplicate ();
+        b.position ( position + RECORD_HEADER_SIZE );
+        b.put ( data );
+
+        this.buffer.putInt ( position + 4, checksum ( data ) );
+
+        // the length marks the record as complete
+        this.buffer.putInt ( position, data.length );
+
+        this.writePosition = position + RECORD_HEADER_SIZE + data.length;
+        this.count++;
+        return true;
+    }
+
+    /**
+     * Read the record at the position
+     *
+     * @return the data of the record or <code>null</code> if there is no
+     *         record at this position
+     */
+    public byte[] read ( final int position )
+    {
+        if ( position >= this.writePosition )
+        {
+            return null;
+        }
+
+        return get ( position + RECORD_HEADER_SIZE, this.buffer.getInt ( position ) );
+    }
+
+    public int next ( final int position )
+    {
+        return position + RECORD_HEADER_SIZE + this.buffer.getInt ( position );
+    }
+
+    /**
+     * Mark records as read
+     *
+     * @param position
+     *            the position following the last record read
+     * @param records
+     *            the number of records read
+     */
+    public void markRead ( final int position, final int records )
+    {
+        this.readPosition = position;
+        this.count -= records;
+
+        if ( this.buffer != null )
+        {
+            this.buffer.putInt ( READ_POSITION_OFFSET, position );
+        }
+    }
+
+    public void force ()
+    {
+        if ( this.buffer != null )
+        {
+            this.buffer.force ();
+        }
+    }
+
+    public void close ()
+    {
+        force ();
+        // the buffer gets unmapped by the garbage collector
+        this.buffer = null;
+    }
+
+    public boolean delete ()
+    {
+        this.buffer = null;
+        return this.file.delete ();
+    }
+}
@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - store events in batches
  *******************************************************************************/
 package org.eclipse.scada.ae.server.storage.jdbc;
 
@@ -23,6 +24,22 @@ public interface StorageDao
 
     public void storeEvent ( Event event ) throws Exception;
 
+    /**
+     * Store events in one transaction
+     */
+    public void storeEvents ( Collection<Event> events ) throws Exception;
+
+    /**
+     * Store all events which are not already stored, in one transaction
+     * <p>
+     * The existing events are found with one bulk query, so this can be used
+     * to write events which might have been written before.
+     * </p>
+     *
+     * @return the number of events actually written
+     */
+    public int storeEventsIfAbsent ( Collection<Event> events ) throws Exception;
+
     public void updateComment ( UUID id, String comment ) throws Exception;
 
     public Event loadEvent ( UUID id ) throws SQLException;
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.server.storage.memory;
+
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.eclipse.scada.ae.Event;
+import org.eclipse.scada.core.Variant;
+
+/**
+ * An index of the events by the string value of one attribute
+ * <p>
+ * Each value maps to the events having this value, in the natural order of
+ * the events. Events having a value which is not a string cannot be found by
+ * string equality reliably, so the index will not be used as long as such
+ * events exist.
+ * </p>
+ * <p>
+ * Modifications must be serialized by the caller, lookups may run
+ * concurrently.
+ * </p>
+ */
+class AttributeIndex
+{
+    private final String attribute;
+
+    private final ConcurrentMap<String, NavigableSet<Event>> entries = new ConcurrentHashMap<String, NavigableSet<Event>> ();
+
+    private volatile int otherCount;
+
+    public AttributeIndex ( final String attribute )
+    {
+        this.attribute = attribute;
+    }
+
+    public String getAttribute ()
+    {
+        return this.attribute;
+    }
+
+    public void add ( final Event event )
+    {
+        final Variant value = event.getAttributes ().get ( this.attribute );
+        if ( value == null )
+        {
+            return;
+        }
+
+        if ( !value.isString () )
+        {
+            this.otherCount++;
+            return;
+        }
+
+        final String key = value.asString ( null );
+        NavigableSet<Event> events = this.entries.get ( key );
+        if ( events == null )
+        {
+            events = new ConcurrentSkipListSet<Event> ();
+            this.entries.put ( key, events );
+        }
+        events.add ( event );
+    }
+
+    public void remove ( final Event event )
+    {
+        final Variant value = event.getAttributes ().get ( this.attribute );
+        if ( value == null )
+        {
+            return;
+        }
+
+        if ( !value.isString () )
+        {
+            this.otherCount--;
+            return;
+        }
+
+        final String key = value.asString ( null );
+        final NavigableSet<Event> events = this.entries.get ( key );
+        if ( events != null )
+        {
+            events.remove ( event );
+            if ( events.isEmpty () )
+            {
+                this.entries.remove ( key );
+            }
+        }
+    }
+
+    /**
+     * Find all events with the string value
+     *
+     * @param value
+     *            the value to look up
+     * @return the events having this value, or <code>null</code> if the index
+     *         cannot answer the lookup
+     */
+    public NavigableSet<Event> lookup ( final String value )
+    {
+        if ( this.otherCount > 0 )
+        {
+            return null;
+        }
+
+        final NavigableSet<Event> events = this.entries.get ( value );
+        return events == null ? new TreeSet<Event> () : events;
+    }
+}
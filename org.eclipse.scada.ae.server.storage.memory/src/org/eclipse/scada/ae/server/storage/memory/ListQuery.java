@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2012 TH4 SYSTEMS GmbH and others.
+ * Copyright (c) 2009, 2014 TH4 SYSTEMS GmbH and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - iterate lazily over the candidate events
  *******************************************************************************/
 package org.eclipse.scada.ae.server.storage.memory;
 
@@ -16,7 +17,7 @@ import java.util.List;
 
 import org.eclipse.scada.ae.Event;
 import org.eclipse.scada.ae.filter.EventMatcher;
-import org.eclipse.scada.ae.filter.internal.EventMatcherImpl;
+import org.eclipse.scada.ae.filter.internal.EventFilterCompiler;
 import org.eclipse.scada.ae.server.storage.Query;
 import org.eclipse.scada.utils.filter.FilterParseException;
 
@@ -31,7 +32,24 @@ public class ListQuery implements Query
 
     public ListQuery ( final List<Event> events, final String filter ) throws FilterParseException
     {
-        this.eventMatcher = new EventMatcherImpl ( filter );
+        this ( events, EventFilterCompiler.compile ( filter ) );
+    }
+
+    /**
+     * Create a query iterating lazily over the events
+     * <p>
+     * The events are not copied, so the iteration must tolerate concurrent
+     * modifications.
+     * </p>
+     *
+     * @param events
+     *            the candidate events, in the order they should be returned
+     * @param eventMatcher
+     *            the matcher every returned event must match
+     */
+    public ListQuery ( final Iterable<Event> events, final EventMatcher eventMatcher )
+    {
+        this.eventMatcher = eventMatcher;
         this.iterator = events.iterator ();
     }
 
@@ -8,38 +8,134 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - bug fix, possible NPE
+ *     IBH SYSTEMS GmbH - indexes, lazy queries and eviction
  *******************************************************************************/
 package org.eclipse.scada.ae.server.storage.memory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.scada.ae.Event;
+import org.eclipse.scada.ae.filter.EventMatcher;
+import org.eclipse.scada.ae.filter.internal.EventFilterCompiler;
 import org.eclipse.scada.ae.server.storage.BaseStorage;
 import org.eclipse.scada.ae.server.storage.Query;
 import org.eclipse.scada.ae.server.storage.StoreListener;
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.VariantEditor;
+import org.eclipse.scada.utils.filter.Assertion;
+import org.eclipse.scada.utils.filter.Filter;
+import org.eclipse.scada.utils.filter.FilterAssertion;
+import org.eclipse.scada.utils.filter.FilterExpression;
+import org.eclipse.scada.utils.filter.FilterParser;
+import org.eclipse.scada.utils.filter.Operator;
+import org.eclipse.scada.utils.propertyeditors.DateEditor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A storage keeping the events in memory
+ * <p>
+ * The events are kept in their natural order, which is ordered by source
+ * timestamp. Additionally the events are indexed by id and, optionally, by
+ * the string value of some attributes. Queries use these indexes to narrow
+ * the candidates and iterate lazily over them, without copying the events.
+ * </p>
+ * <p>
+ * The storage may be limited by the number of events and by the age of the
+ * source timestamp. When the limit is exceeded the oldest events get removed
+ * while storing new events.
+ * </p>
+ */
 public class MemoryStorage extends BaseStorage
 {
 
     private final static Logger logger = LoggerFactory.getLogger ( MemoryStorage.class );
 
-    private final SortedSet<Event> events = new TreeSet<Event> ();
+    private static final int DEFAULT_MAX_SIZE = Integer.getInteger ( "org.eclipse.scada.ae.server.storage.memory.maxSize", 0 );
+
+    private static final long DEFAULT_MAX_AGE = Long.getLong ( "org.eclipse.scada.ae.server.storage.memory.maxAge", 0 );
+
+    private static final String DEFAULT_INDEXES = System.getProperty ( "org.eclipse.scada.ae.server.storage.memory.indexes", "monitorType,item" );
+
+    private static final UUID MIN_ID = new UUID ( Long.MIN_VALUE, Long.MIN_VALUE );
+
+    private static final UUID MAX_ID = new UUID ( Long.MAX_VALUE, Long.MAX_VALUE );
+
+    private final NavigableSet<Event> events = new ConcurrentSkipListSet<Event> ();
+
+    private final ConcurrentMap<UUID, Event> idIndex = new ConcurrentHashMap<UUID, Event> ();
+
+    private final AtomicInteger size = new AtomicInteger ();
+
+    private final List<AttributeIndex> attributeIndexes = new ArrayList<AttributeIndex> ();
+
+    private final int maxSize;
+
+    private final long maxAge;
 
     public MemoryStorage ()
     {
+        this ( DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE, splitIndexes ( DEFAULT_INDEXES ) );
+    }
+
+    /**
+     * Create a new memory storage
+     *
+     * @param maxSize
+     *            the maximum number of events, zero or less for no limit
+     * @param maxAge
+     *            the maximum age of the source timestamp in milliseconds,
+     *            zero or less for no limit
+     * @param indexedAttributes
+     *            the attributes which should be indexed, may be
+     *            <code>null</code>
+     */
+    public MemoryStorage ( final int maxSize, final long maxAge, final Collection<String> indexedAttributes )
+    {
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+
+        if ( indexedAttributes != null )
+        {
+            for ( final String attribute : indexedAttributes )
+            {
+                this.attributeIndexes.add ( new AttributeIndex ( attribute ) );
+            }
+        }
+    }
+
+    private static Collection<String> splitIndexes ( final String indexes )
+    {
+        final List<String> result = new LinkedList<String> ();
+        for ( final String attribute : indexes.split ( "," ) )
+        {
+            final String name = attribute.trim ();
+            if ( !name.isEmpty () )
+            {
+                result.add ( name );
+            }
+        }
+        return result;
     }
 
     @Override
-    public synchronized Query query ( final String filter ) throws Exception
+    public Query query ( final String filter ) throws Exception
     {
-        return new ListQuery ( new ArrayList<Event> ( this.events ), filter );
+        final Filter parsedFilter = new FilterParser ( filter ).getFilter ();
+        final EventMatcher eventMatcher = EventFilterCompiler.compile ( parsedFilter );
+        return new ListQuery ( findCandidates ( parsedFilter ), eventMatcher );
     }
 
     @Override
@@ -49,7 +145,8 @@ public class MemoryStorage extends BaseStorage
         final Event storedEvent = createEvent ( event );
         synchronized ( this )
         {
-            this.events.add ( storedEvent );
+            add ( storedEvent );
+            evict ();
         }
         if ( listener != null )
         {
@@ -66,22 +163,317 @@ public class MemoryStorage extends BaseStorage
     @Override
     public synchronized Event update ( final UUID id, final String comment, final StoreListener listener ) throws Exception
     {
-        Event event = null;
-        for ( final Event found : this.events )
+        final Event event = this.idIndex.get ( id );
+        if ( event == null )
+        {
+            return null;
+        }
+
+        remove ( event );
+        final Event updatedEvent = Event.create ().event ( event ).attribute ( Event.Fields.COMMENT, comment ).build ();
+        add ( updatedEvent );
+
+        if ( listener != null )
         {
-            if ( found.getId ().equals ( event ) )
+            listener.notify ( updatedEvent );
+        }
+        return updatedEvent;
+    }
+
+    /**
+     * Add an event to all indexes
+     * <p>
+     * Must be called while holding the lock
+     * </p>
+     */
+    private void add ( final Event event )
+    {
+        if ( !this.events.add ( event ) )
+        {
+            return;
+        }
+
+        this.size.incrementAndGet ();
+        this.idIndex.put ( event.getId (), event );
+        for ( final AttributeIndex index : this.attributeIndexes )
+        {
+            index.add ( event );
+        }
+    }
+
+    /**
+     * Remove an event from all indexes
+     * <p>
+     * Must be called while holding the lock
+     * </p>
+     */
+    private void remove ( final Event event )
+    {
+        if ( !this.events.remove ( event ) )
+        {
+            return;
+        }
+
+        this.size.decrementAndGet ();
+        this.idIndex.remove ( event.getId () );
+        for ( final AttributeIndex index : this.attributeIndexes )
+        {
+            index.remove ( event );
+        }
+    }
+
+    /**
+     * Remove the oldest events until the limits are met
+     * <p>
+     * Must be called while holding the lock
+     * </p>
+     */
+    private void evict ()
+    {
+        if ( this.maxSize > 0 )
+        {
+            while ( this.size.get () > this.maxSize )
             {
-                event = found;
-                break;
+                remove ( this.events.first () );
             }
         }
-        if ( event == null )
+
+        if ( this.maxAge > 0 )
+        {
+            final long limit = System.currentTimeMillis () - this.maxAge;
+            while ( !this.events.isEmpty () )
+            {
+                final Event event = this.events.first ();
+                if ( event.getSourceTimestamp ().getTime () >= limit )
+                {
+                    break;
+                }
+                remove ( event );
+            }
+        }
+    }
+
+    /**
+     * Find the candidates for a filter
+     * <p>
+     * The candidates are a super set of the events matching the filter. Only
+     * assertions which must hold for the whole filter are used, everything
+     * else is left to the event matcher.
+     * </p>
+     */
+    private Iterable<Event> findCandidates ( final Filter filter )
+    {
+        final List<FilterAssertion> assertions = new LinkedList<FilterAssertion> ();
+        collectAssertions ( filter, assertions );
+
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        NavigableSet<Event> candidates = this.events;
+
+        for ( final FilterAssertion assertion : assertions )
+        {
+            final String attribute = assertion.getAttribute ();
+
+            if ( "id".equals ( attribute ) && assertion.getAssertion () == Assertion.EQUALITY )
+            {
+                final UUID id = parseId ( assertion.getValue () );
+                if ( id != null )
+                {
+                    final Event event = this.idIndex.get ( id );
+                    return event == null ? Collections.<Event> emptyList () : Collections.singletonList ( event );
+                }
+            }
+            else if ( "sourceTimestamp".equals ( attribute ) )
+            {
+                final Long timestamp = parseTimestamp ( assertion.getValue () );
+                if ( timestamp == null )
+                {
+                    continue;
+                }
+
+                switch ( assertion.getAssertion () )
+                {
+                    case EQUALITY:
+                        from = Math.max ( from, timestamp );
+                        to = Math.min ( to, timestamp );
+                        break;
+                    case GREATEREQ:
+                        from = Math.max ( from, timestamp );
+                        break;
+                    case GREATERTHAN:
+                        if ( timestamp == Long.MAX_VALUE )
+                        {
+                            return Collections.emptyList ();
+                        }
+                        from = Math.max ( from, timestamp + 1 );
+                        break;
+                    case LESSEQ:
+                        to = Math.min ( to, timestamp );
+                        break;
+                    case LESSTHAN:
+                        if ( timestamp == Long.MIN_VALUE )
+                        {
+                            return Collections.emptyList ();
+                        }
+                        to = Math.min ( to, timestamp - 1 );
+                        break;
+                    default:
+                        break;
+                }
+            }
+            else if ( candidates == this.events && assertion.getAssertion () == Assertion.EQUALITY )
+            {
+                final AttributeIndex index = findIndex ( attribute );
+                final String value = parseString ( assertion.getValue () );
+                if ( index != null && value != null )
+                {
+                    final NavigableSet<Event> indexed = index.lookup ( value );
+                    if ( indexed != null )
+                    {
+                        candidates = indexed;
+                    }
+                }
+            }
+        }
+
+        if ( from > to )
+        {
+            return Collections.emptyList ();
+        }
+        if ( from != Long.MIN_VALUE || to != Long.MAX_VALUE )
+        {
+            return candidates.subSet ( makeProbe ( from, false ), true, makeProbe ( to, true ), true );
+        }
+        return candidates;
+    }
+
+    private static void collectAssertions ( final Filter filter, final List<FilterAssertion> assertions )
+    {
+        if ( filter == null )
+        {
+            return;
+        }
+
+        if ( filter.isAssertion () )
+        {
+            assertions.add ( (FilterAssertion)filter );
+        }
+        else if ( filter.isExpression () )
+        {
+            final FilterExpression expression = (FilterExpression)filter;
+            if ( expression.getOperator () == Operator.AND )
+            {
+                for ( final Filter child : expression.getFilterSet () )
+                {
+                    collectAssertions ( child, assertions );
+                }
+            }
+        }
+    }
+
+    private AttributeIndex findIndex ( final String attribute )
+    {
+        for ( final AttributeIndex index : this.attributeIndexes )
+        {
+            if ( index.getAttribute ().equals ( attribute ) )
+            {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create an event which sorts before or after all events with the same
+     * source timestamp
+     */
+    private static Event makeProbe ( final long timestamp, final boolean after )
+    {
+        final Event.EventBuilder builder = Event.create ().sourceTimestamp ( new Date ( timestamp ) );
+        if ( after )
+        {
+            builder.entryTimestamp ( new Date ( Long.MAX_VALUE ) ).id ( MAX_ID );
+        }
+        else
+        {
+            builder.entryTimestamp ( new Date ( Long.MIN_VALUE ) ).id ( MIN_ID );
+        }
+        return builder.build ();
+    }
+
+    private static UUID parseId ( final Object value )
+    {
+        if ( value instanceof UUID )
+        {
+            return (UUID)value;
+        }
+        if ( value instanceof String )
+        {
+            try
+            {
+                return UUID.fromString ( (String)value );
+            }
+            catch ( final RuntimeException e )
+            {
+                // leave it to the matcher
+            }
+        }
+        return null;
+    }
+
+    private static Long parseTimestamp ( final Object value )
+    {
+        if ( value instanceof Date )
+        {
+            return ( (Date)value ).getTime ();
+        }
+        if ( value instanceof String )
+        {
+            try
+            {
+                final DateEditor editor = new DateEditor ();
+                editor.setAsText ( (String)value );
+                final Object result = editor.getValue ();
+                if ( result instanceof Date )
+                {
+                    return ( (Date)result ).getTime ();
+                }
+            }
+            catch ( final RuntimeException e )
+            {
+                // leave it to the matcher
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse the value the same way the event matcher does
+     *
+     * @return the string value, or <code>null</code> if the value is not
+     *         parsed to a string
+     */
+    private static String parseString ( final Object value )
+    {
+        if ( ! ( value instanceof String ) )
         {
             return null;
         }
-        this.events.remove ( event );
-        final Event updatedEvent = Event.create ().event ( event ).attribute ( Event.Fields.COMMENT, comment ).build ();
-        this.events.add ( updatedEvent );
-        return updatedEvent;
+
+        try
+        {
+            final VariantEditor editor = new VariantEditor ();
+            editor.setAsText ( (String)value );
+            final Object result = editor.getValue ();
+            if ( result instanceof Variant && ( (Variant)result ).isString () )
+            {
+                return ( (Variant)result ).asString ( null );
+            }
+        }
+        catch ( final RuntimeException e )
+        {
+            // leave it to the matcher
+        }
+        return null;
     }
 }
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.slave.pull;
+
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkedTransferTest
+{
+    private static final long START = 1400000000000L;
+
+    private ReplicationTable local;
+
+    private ReplicationTable remote;
+
+    private SiteStatistics statistics;
+
+    @Before
+    public void setup ()
+    {
+        this.local = new ReplicationTable ();
+        this.remote = new ReplicationTable ();
+        this.statistics = new SiteStatistics ();
+    }
+
+    /**
+     * Add remote entries, three of them share each timestamp
+     */
+    private void addRemote ( final int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            this.remote.add ( new ReplicationTable.Row ( String.format ( "id-%03d", count - i ), START + i / 3 * 1000, "data" + i ) );
+        }
+    }
+
+    private ChunkedTransfer createTransfer ( final int chunkSize )
+    {
+        return new ChunkedTransfer ( this.local.createConnection (), this.remote.createConnection (), "", "", chunkSize );
+    }
+
+    @Test
+    public void testTransferAll () throws SQLException
+    {
+        addRemote ( 25 );
+
+        final ChunkedTransfer transfer = createTransfer ( 10 );
+        Assert.assertEquals ( 10, transfer.transferChunk ( this.statistics ) );
+        Assert.assertEquals ( 10, transfer.transferChunk ( this.statistics ) );
+        Assert.assertEquals ( 5, transfer.transferChunk ( this.statistics ) );
+        Assert.assertEquals ( 0, transfer.transferChunk ( this.statistics ) );
+
+        Assert.assertEquals ( 25, this.local.getRows ().size () );
+        Assert.assertTrue ( this.remote.getRows ().isEmpty () );
+        Assert.assertEquals ( "data0", this.local.getRows ().get ( "id-025" ).getData () );
+
+        // each chunk commits on both sides
+        Assert.assertEquals ( 3, this.local.getCommits () );
+        Assert.assertEquals ( 3, this.remote.getCommits () );
+
+        Assert.assertEquals ( 3, this.statistics.getChunkCount () );
+        Assert.assertEquals ( 25, this.statistics.getTransferredCount () );
+    }
+
+    /**
+     * Entries which already exist locally are not inserted again, but still
+     * deleted remotely
+     */
+    @Test
+    public void testExistingEntries () throws SQLException
+    {
+        addRemote ( 5 );
+        this.local.add ( new ReplicationTable.Row ( "id-002", START, "old" ) );
+
+        final ChunkedTransfer transfer = createTransfer ( 10 );
+        Assert.assertEquals ( 5, transfer.transferChunk ( this.statistics ) );
+        Assert.assertEquals ( 0, transfer.transferChunk ( this.statistics ) );
+
+        Assert.assertEquals ( 5, this.local.getRows ().size () );
+        Assert.assertEquals ( "old", this.local.getRows ().get ( "id-002" ).getData () );
+        Assert.assertTrue ( this.remote.getRows ().isEmpty () );
+    }
+
+    /**
+     * A chunk which was committed locally but not deleted remotely is
+     * transferred again without duplicates
+     */
+    @Test
+    public void testRetryAfterFailedDelete () throws SQLException
+    {
+        addRemote ( 12 );
+        this.remote.setFailDelete ( true );
+
+        try
+        {
+            createTransfer ( 5 ).transferChunk ( this.statistics );
+            Assert.fail ( "Delete must fail" );
+        }
+        catch ( final SQLException e )
+        {
+        }
+
+        Assert.assertEquals ( 5, this.local.getRows ().size () );
+        Assert.assertEquals ( 12, this.remote.getRows ().size () );
+
+        final ChunkedTransfer transfer = createTransfer ( 5 );
+        int total = 0;
+        int count;
+        while ( ( count = transfer.transferChunk ( this.statistics ) ) > 0 )
+        {
+            total += count;
+        }
+
+        Assert.assertEquals ( 12, total );
+        Assert.assertEquals ( 12, this.local.getRows ().size () );
+        Assert.assertTrue ( this.remote.getRows ().isEmpty () );
+    }
+
+    /**
+     * The lag is only reset by a run which transferred all entries
+     */
+    @Test
+    public void testLag () throws SQLException
+    {
+        addRemote ( 10 );
+
+        final ChunkedTransfer transfer = createTransfer ( 4 );
+        transfer.transferChunk ( this.statistics );
+
+        final long lag = this.statistics.getLag ();
+        Assert.assertTrue ( lag > 0 );
+
+        this.statistics.completed ( 4, 1000, false );
+        Assert.assertTrue ( this.statistics.getLag () >= lag );
+
+        this.statistics.completed ( 10, 1000, true );
+        Assert.assertEquals ( 0, this.statistics.getLag () );
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.slave.pull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PullManagerTest
+{
+    private ExecutorService executor;
+
+    @Before
+    public void setup ()
+    {
+        this.executor = Executors.newFixedThreadPool ( 2 );
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.executor.shutdownNow ();
+    }
+
+    private static Site createSite ( final String id, final long delay )
+    {
+        return new Site ( id, "driver", new Properties (), "", delay, null, null, 100 );
+    }
+
+    private static class RecordingProcessor implements PullManager.SiteProcessor
+    {
+        protected final List<String> processed = Collections.synchronizedList ( new ArrayList<String> () );
+
+        @Override
+        public boolean isAborted ()
+        {
+            return false;
+        }
+
+        @Override
+        public void process ( final Site site )
+        {
+            this.processed.add ( site.getId () );
+        }
+    }
+
+    /**
+     * Two sites must run at the same time, otherwise the barrier breaks
+     */
+    @Test
+    public void testParallel ()
+    {
+        final CyclicBarrier barrier = new CyclicBarrier ( 2 );
+        final RecordingProcessor processor = new RecordingProcessor () {
+
+            @Override
+            public void process ( final Site site )
+            {
+                try
+                {
+                    barrier.await ( 5, TimeUnit.SECONDS );
+                    super.process ( site );
+                }
+                catch ( final Exception e )
+                {
+                    throw new RuntimeException ( e );
+                }
+            }
+        };
+
+        PullManager.processDueSites ( this.executor, new Site[] { createSite ( "a", 0 ), createSite ( "b", 0 ) }, processor );
+
+        // returns after all sites are completed
+        Assert.assertEquals ( 2, processor.processed.size () );
+    }
+
+    @Test
+    public void testNotDue ()
+    {
+        final Site site = createSite ( "a", 60000 );
+        site.setLastProcess ( System.currentTimeMillis () );
+
+        final RecordingProcessor processor = new RecordingProcessor ();
+        PullManager.processDueSites ( this.executor, new Site[] { site, createSite ( "b", 0 ) }, processor );
+
+        Assert.assertEquals ( Collections.singletonList ( "b" ), processor.processed );
+    }
+
+    /**
+     * A failing site does not affect the others and is delayed as well
+     */
+    @Test
+    public void testFailingSite ()
+    {
+        final Site failing = createSite ( "a", 60000 );
+        final RecordingProcessor processor = new RecordingProcessor () {
+
+            @Override
+            public void process ( final Site site )
+            {
+                if ( site == failing )
+                {
+                    throw new IllegalStateException ( "Site failed" );
+                }
+                super.process ( site );
+            }
+        };
+
+        PullManager.processDueSites ( this.executor, new Site[] { failing, createSite ( "b", 0 ), createSite ( "c", 0 ) }, processor );
+
+        Assert.assertEquals ( 2, processor.processed.size () );
+        Assert.assertFalse ( failing.isDue () );
+    }
+
+    /**
+     * No more sites are started after an abort
+     */
+    @Test
+    public void testAbort ()
+    {
+        final RecordingProcessor processor = new RecordingProcessor () {
+
+            private int checks;
+
+            @Override
+            public boolean isAborted ()
+            {
+                // abort after the first site was started
+                return this.checks++ > 0;
+            }
+        };
+
+        final Site second = createSite ( "b", 0 );
+        PullManager.processDueSites ( this.executor, new Site[] { createSite ( "a", 0 ), second }, processor );
+
+        Assert.assertEquals ( Collections.singletonList ( "a" ), processor.processed );
+        Assert.assertTrue ( second.isDue () );
+    }
+}
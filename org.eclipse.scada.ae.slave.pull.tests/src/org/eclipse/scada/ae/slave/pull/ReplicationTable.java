@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.slave.pull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-memory OPENSCADA_AE_REP table behind a JDBC connection
+ * <p>
+ * Only the statements used by {@link ChunkedTransfer} are supported. Changes
+ * are applied immediately, IDs are unique like a primary key.
+ * </p>
+ */
+public class ReplicationTable
+{
+    public static class Row
+    {
+        private final String id;
+
+        private final Timestamp timestamp;
+
+        private final Object data;
+
+        public Row ( final String id, final long timestamp, final Object data )
+        {
+            this.id = id;
+            this.timestamp = new Timestamp ( timestamp );
+            this.data = data;
+        }
+
+        public String getId ()
+        {
+            return this.id;
+        }
+
+        public Object getData ()
+        {
+            return this.data;
+        }
+    }
+
+    private static final Comparator<Row> KEY_ORDER = new Comparator<Row> () {
+
+        @Override
+        public int compare ( final Row o1, final Row o2 )
+        {
+            final int result = o1.timestamp.compareTo ( o2.timestamp );
+            if ( result != 0 )
+            {
+                return result;
+            }
+            return o1.id.compareTo ( o2.id );
+        }
+    };
+
+    private final Map<String, Row> rows = new TreeMap<String, Row> ();
+
+    private int commits;
+
+    private int selects;
+
+    private boolean failDelete;
+
+    public void add ( final Row row )
+    {
+        this.rows.put ( row.getId (), row );
+    }
+
+    public Map<String, Row> getRows ()
+    {
+        return this.rows;
+    }
+
+    public int getCommits ()
+    {
+        return this.commits;
+    }
+
+    public int getSelects ()
+    {
+        return this.selects;
+    }
+
+    /**
+     * Let the next delete statement fail
+     */
+    public void setFailDelete ( final boolean failDelete )
+    {
+        this.failDelete = failDelete;
+    }
+
+    public Connection createConnection ()
+    {
+        return (Connection)Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { Connection.class }, new InvocationHandler () {
+
+            @Override
+            public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+            {
+                if ( method.getName ().equals ( "prepareStatement" ) )
+                {
+                    return createStatement ( (String)args[0] );
+                }
+                if ( method.getName ().equals ( "commit" ) )
+                {
+                    ReplicationTable.this.commits++;
+                    return null;
+                }
+                return defaultValue ( method );
+            }
+        } );
+    }
+
+    private PreparedStatement createStatement ( final String sql )
+    {
+        final Map<Integer, Object> parameters = new HashMap<Integer, Object> ();
+        final List<Map<Integer, Object>> batch = new ArrayList<Map<Integer, Object>> ();
+        final int[] maxRows = new int[1];
+
+        return (PreparedStatement)Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { PreparedStatement.class }, new InvocationHandler () {
+
+            @Override
+            public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+            {
+                final String name = method.getName ();
+                if ( name.startsWith ( "set" ) && args.length == 2 && args[0] instanceof Integer )
+                {
+                    parameters.put ( (Integer)args[0], args[1] );
+                    return null;
+                }
+                if ( name.equals ( "setMaxRows" ) )
+                {
+                    maxRows[0] = (Integer)args[0];
+                    return null;
+                }
+                if ( name.equals ( "addBatch" ) )
+                {
+                    batch.add ( new HashMap<Integer, Object> ( parameters ) );
+                    return null;
+                }
+                if ( name.equals ( "executeBatch" ) )
+                {
+                    for ( final Map<Integer, Object> entry : batch )
+                    {
+                        insert ( entry );
+                    }
+                    final int[] result = new int[batch.size ()];
+                    batch.clear ();
+                    return result;
+                }
+                if ( name.equals ( "executeUpdate" ) )
+                {
+                    return executeUpdate ( sql, parameters );
+                }
+                if ( name.equals ( "executeQuery" ) )
+                {
+                    return createResultSet ( executeQuery ( sql, parameters, maxRows[0] ) );
+                }
+                return defaultValue ( method );
+            }
+        } );
+    }
+
+    private void insert ( final Map<Integer, Object> parameters ) throws SQLException
+    {
+        final String id = (String)parameters.get ( 1 );
+        if ( this.rows.containsKey ( id ) )
+        {
+            throw new SQLException ( "Duplicate key: " + id );
+        }
+        this.rows.put ( id, new Row ( id, ( (Timestamp)parameters.get ( 2 ) ).getTime (), parameters.get ( 4 ) ) );
+    }
+
+    private int executeUpdate ( final String sql, final Map<Integer, Object> parameters ) throws SQLException
+    {
+        if ( !sql.startsWith ( "DELETE FROM OPENSCADA_AE_REP WHERE ID IN (" ) )
+        {
+            throw new SQLException ( "Unsupported statement: " + sql );
+        }
+
+        if ( this.failDelete )
+        {
+            this.failDelete = false;
+            throw new SQLException ( "Delete failed" );
+        }
+
+        int count = 0;
+        for ( final Object id : parameters.values () )
+        {
+            if ( this.rows.remove ( id ) != null )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<Row> executeQuery ( final String sql, final Map<Integer, Object> parameters, final int maxRows ) throws SQLException
+    {
+        this.selects++;
+
+        final List<Row> result = new ArrayList<Row> ();
+
+        if ( sql.startsWith ( "SELECT ID FROM OPENSCADA_AE_REP WHERE ID IN (" ) )
+        {
+            for ( final Object id : parameters.values () )
+            {
+                final Row row = this.rows.get ( id );
+                if ( row != null )
+                {
+                    result.add ( row );
+                }
+            }
+            return result;
+        }
+
+        if ( !sql.startsWith ( "SELECT ID, ENTRY_TIMESTAMP, NODE_ID, DATA FROM OPENSCADA_AE_REP" ) || !sql.endsWith ( " ORDER BY ENTRY_TIMESTAMP, ID" ) )
+        {
+            throw new SQLException ( "Unsupported statement: " + sql );
+        }
+
+        final List<Row> sorted = new ArrayList<Row> ( this.rows.values () );
+        Collections.sort ( sorted, KEY_ORDER );
+
+        final Iterator<Row> i = sorted.iterator ();
+        while ( i.hasNext () && ( maxRows <= 0 || result.size () < maxRows ) )
+        {
+            final Row row = i.next ();
+            if ( sql.contains ( "WHERE ENTRY_TIMESTAMP > ? OR ( ENTRY_TIMESTAMP = ? AND ID > ? )" ) )
+            {
+                final Timestamp timestamp = (Timestamp)parameters.get ( 1 );
+                final String id = (String)parameters.get ( 3 );
+                if ( ! ( row.timestamp.after ( timestamp ) || row.timestamp.equals ( timestamp ) && row.id.compareTo ( id ) > 0 ) )
+                {
+                    continue;
+                }
+            }
+            result.add ( row );
+        }
+        return result;
+    }
+
+    private ResultSet createResultSet ( final List<Row> rows )
+    {
+        final Iterator<Row> i = rows.iterator ();
+        final Row[] current = new Row[1];
+
+        return (ResultSet)Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { ResultSet.class }, new InvocationHandler () {
+
+            @Override
+            public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+            {
+                final String name = method.getName ();
+                if ( name.equals ( "next" ) )
+                {
+                    current[0] = i.hasNext () ? i.next () : null;
+                    return current[0] != null;
+                }
+                if ( name.equals ( "getString" ) || name.equals ( "getTimestamp" ) || name.equals ( "getObject" ) )
+                {
+                    switch ( (Integer)args[0] )
+                    {
+                        case 1:
+                            return current[0].id;
+                        case 2:
+                            return current[0].timestamp;
+                        case 3:
+                            return "node";
+                        default:
+                            return current[0].data;
+                    }
+                }
+                return defaultValue ( method );
+            }
+        } );
+    }
+
+    private static Object defaultValue ( final Method method )
+    {
+        final Class<?> type = method.getReturnType ();
+        if ( type == boolean.class )
+        {
+            return false;
+        }
+        if ( type == int.class )
+        {
+            return 0;
+        }
+        if ( type == long.class )
+        {
+            return 0L;
+        }
+        return null;
+    }
+}
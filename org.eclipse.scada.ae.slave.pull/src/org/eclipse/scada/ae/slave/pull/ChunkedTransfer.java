@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.slave.pull;
+
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transfer the replication entries of one site in chunks
+ * <p>
+ * Each chunk is read from the remote site in the order of
+ * <code>ENTRY_TIMESTAMP</code> and <code>ID</code>, starting after the last
+ * entry of the previous chunk. The entries which are not yet present are
+ * inserted locally in one batch and committed, then the entries are deleted
+ * at the remote site in one statement per group of IDs and committed.
+ * </p>
+ * <p>
+ * Since the local commit happens before the remote delete, a failure in
+ * between causes the chunk to be transferred again with the next run. This
+ * is safe since existing entries are skipped.
+ * </p>
+ */
+class ChunkedTransfer
+{
+    private final static Logger logger = LoggerFactory.getLogger ( ChunkedTransfer.class );
+
+    /**
+     * The maximum number of IDs in one "IN" clause
+     */
+    private static final int IN_SIZE = 100;
+
+    private static class Entry
+    {
+        private final String id;
+
+        private final Timestamp entryTimestamp;
+
+        private final Object nodeId;
+
+        private final Object data;
+
+        public Entry ( final String id, final Timestamp entryTimestamp, final Object nodeId, final Object data )
+        {
+            this.id = id;
+            this.entryTimestamp = entryTimestamp;
+            this.nodeId = nodeId;
+            this.data = data;
+        }
+    }
+
+    private final Connection local;
+
+    private final Connection remote;
+
+    private final String localSchema;
+
+    private final String remoteSchema;
+
+    private final int chunkSize;
+
+    private Timestamp lastTimestamp;
+
+    private String lastId;
+
+    public ChunkedTransfer ( final Connection local, final Connection remote, final String localSchema, final String remoteSchema, final int chunkSize )
+    {
+        this.local = local;
+        this.remote = remote;
+        this.localSchema = localSchema;
+        this.remoteSchema = remoteSchema;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Transfer the next chunk
+     *
+     * @return the number of entries processed, zero if there are no more
+     *         entries
+     */
+    public int transferChunk ( final SiteStatistics statistics ) throws SQLException
+    {
+        final List<Entry> entries = readChunk ();
+        if ( entries.isEmpty () )
+        {
+            return 0;
+        }
+
+        final Entry first = entries.get ( 0 );
+        final Entry last = entries.get ( entries.size () - 1 );
+
+        final int inserted = insertLocal ( entries );
+        this.local.commit ();
+
+        deleteRemote ( entries );
+        this.remote.commit ();
+
+        this.lastTimestamp = last.entryTimestamp;
+        this.lastId = last.id;
+
+        statistics.chunk ( entries.size (), first.entryTimestamp == null ? System.currentTimeMillis () : first.entryTimestamp.getTime () );
+        logger.debug ( "Transferred chunk of {} entries ({} new)", entries.size (), inserted );
+
+        return entries.size ();
+    }
+
+    private List<Entry> readChunk () throws SQLException
+    {
+        final StringBuilder sql = new StringBuilder ( String.format ( "SELECT ID, ENTRY_TIMESTAMP, NODE_ID, DATA FROM %sOPENSCADA_AE_REP", this.remoteSchema ) );
+        if ( this.lastId != null )
+        {
+            sql.append ( " WHERE ENTRY_TIMESTAMP > ? OR ( ENTRY_TIMESTAMP = ? AND ID > ? )" );
+        }
+        sql.append ( " ORDER BY ENTRY_TIMESTAMP, ID" );
+
+        final List<Entry> result = new ArrayList<Entry> ( this.chunkSize );
+
+        final PreparedStatement stmt = this.remote.prepareStatement ( sql.toString (), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+        try
+        {
+            stmt.setMaxRows ( this.chunkSize );
+            stmt.setFetchSize ( this.chunkSize );
+
+            if ( this.lastId != null )
+            {
+                stmt.setTimestamp ( 1, this.lastTimestamp );
+                stmt.setTimestamp ( 2, this.lastTimestamp );
+                stmt.setString ( 3, this.lastId );
+            }
+
+            final ResultSet rs = stmt.executeQuery ();
+            try
+            {
+                while ( rs.next () && result.size () < this.chunkSize )
+                {
+                    result.add ( new Entry ( rs.getString ( 1 ), rs.getTimestamp ( 2 ), rs.getObject ( 3 ), readData ( rs.getObject ( 4 ) ) ) );
+                }
+            }
+            finally
+            {
+                rs.close ();
+            }
+        }
+        finally
+        {
+            stmt.close ();
+        }
+
+        return result;
+    }
+
+    /**
+     * Detach the data from the remote connection
+     */
+    private static Object readData ( final Object data ) throws SQLException
+    {
+        if ( data instanceof Blob )
+        {
+            final Blob blob = (Blob)data;
+            return blob.getBytes ( 1, (int)blob.length () );
+        }
+        return data;
+    }
+
+    private int insertLocal ( final List<Entry> entries ) throws SQLException
+    {
+        final Set<String> existing = findLocal ( entries );
+
+        final PreparedStatement stmt = this.local.prepareStatement ( String.format ( "INSERT INTO %sOPENSCADA_AE_REP ( ID, ENTRY_TIMESTAMP, NODE_ID, DATA ) VALUES ( ?, ?, ?, ? )", this.localSchema ) );
+        try
+        {
+            int count = 0;
+            for ( final Entry entry : entries )
+            {
+                if ( !existing.add ( entry.id ) )
+                {
+                    continue;
+                }
+
+                stmt.setString ( 1, entry.id );
+                stmt.setTimestamp ( 2, entry.entryTimestamp );
+                stmt.setObject ( 3, entry.nodeId );
+                stmt.setObject ( 4, entry.data );
+                stmt.addBatch ();
+                count++;
+            }
+
+            if ( count > 0 )
+            {
+                stmt.executeBatch ();
+            }
+            return count;
+        }
+        finally
+        {
+            stmt.close ();
+        }
+    }
+
+    private Set<String> findLocal ( final List<Entry> entries ) throws SQLException
+    {
+        final Set<String> result = new HashSet<String> ( entries.size () );
+
+        for ( int i = 0; i < entries.size (); i += IN_SIZE )
+        {
+            final List<Entry> group = entries.subList ( i, Math.min ( entries.size (), i + IN_SIZE ) );
+
+            final PreparedStatement stmt = this.local.prepareStatement ( String.format ( "SELECT ID FROM %sOPENSCADA_AE_REP WHERE ID IN (%s)", this.localSchema, makePlaceholders ( group.size () ) ) );
+            try
+            {
+                setIds ( stmt, group );
+                final ResultSet rs = stmt.executeQuery ();
+                try
+                {
+                    while ( rs.next () )
+                    {
+                        result.add ( rs.getString ( 1 ) );
+                    }
+                }
+                finally
+                {
+                    rs.close ();
+                }
+            }
+            finally
+            {
+                stmt.close ();
+            }
+        }
+
+        return result;
+    }
+
+    private void deleteRemote ( final List<Entry> entries ) throws SQLException
+    {
+        for ( int i = 0; i < entries.size (); i += IN_SIZE )
+        {
+            final List<Entry> group = entries.subList ( i, Math.min ( entries.size (), i + IN_SIZE ) );
+
+            final PreparedStatement stmt = this.remote.prepareStatement ( String.format ( "DELETE FROM %sOPENSCADA_AE_REP WHERE ID IN (%s)", this.remoteSchema, makePlaceholders ( group.size () ) ) );
+            try
+            {
+                setIds ( stmt, group );
+                stmt.executeUpdate ();
+            }
+            finally
+            {
+                stmt.close ();
+            }
+        }
+    }
+
+    private static void setIds ( final PreparedStatement stmt, final List<Entry> entries ) throws SQLException
+    {
+        int i = 1;
+        for ( final Entry entry : entries )
+        {
+            stmt.setString ( i++, entry.id );
+        }
+    }
+
+    private static String makePlaceholders ( final int count )
+    {
+        final StringBuilder sb = new StringBuilder ();
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( i > 0 )
+            {
+                sb.append ( ", " );
+            }
+            sb.append ( '?' );
+        }
+        return sb.toString ();
+    }
+}
@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - chunked and parallel transfer, statistics
  *******************************************************************************/
 package org.eclipse.scada.ae.slave.pull;
 
@@ -22,10 +23,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.scada.ca.ConfigurationDataHelper;
 import org.eclipse.scada.ca.ConfigurationFactory;
 import org.eclipse.scada.sec.UserInformation;
+import org.eclipse.scada.utils.concurrent.NamedThreadFactory;
 import org.eclipse.scada.utils.osgi.jdbc.DataSourceConnectionAccessor;
 import org.eclipse.scada.utils.osgi.jdbc.DataSourceFactoryTracker;
 import org.eclipse.scada.utils.osgi.jdbc.DataSourceHelper;
@@ -46,6 +52,10 @@ public class PullManager implements ConfigurationFactory
 
     public static final String FACTORY_ID = "org.eclipse.scada.ae.slave.pull";
 
+    private static final int DEFAULT_CHUNK_SIZE = Integer.getInteger ( "org.eclipse.scada.ae.slave.pull.chunkSize", 1000 );
+
+    private static final int PARALLEL_SITES = Integer.getInteger ( "org.eclipse.scada.ae.slave.pull.parallelSites", 4 );
+
     private final List<Site> sites = new ArrayList<Site> ();
 
     private volatile boolean needRefresh;
@@ -60,6 +70,10 @@ public class PullManager implements ConfigurationFactory
 
     private final DataSourceFactoryTracker tracker;
 
+    private final ExecutorService executor;
+
+    private final Map<String, SiteStatistics> statistics = new HashMap<String, SiteStatistics> ();
+
     public PullManager () throws InvalidSyntaxException
     {
         final String driver = DataSourceHelper.getDriver ( SPECIFIC_PREFIX, DataSourceHelper.DEFAULT_PREFIX );
@@ -73,6 +87,8 @@ public class PullManager implements ConfigurationFactory
 
         this.tracker.open ();
 
+        this.executor = Executors.newFixedThreadPool ( Math.max ( 1, PARALLEL_SITES ), new NamedThreadFactory ( "org.eclipse.scada.ae.slave.pull.Transfer" ) );
+
         this.thread = new Thread ( "org.eclipse.scada.ae.slave.pull.Worker" ) {
             @Override
             public void run ()
@@ -134,7 +150,32 @@ public class PullManager implements ConfigurationFactory
 
             // close the local tracer
             this.tracker.close ();
+
+            this.executor.shutdown ();
+
+            disposeStatistics ();
+        }
+    }
+
+    private synchronized void disposeStatistics ()
+    {
+        for ( final SiteStatistics statistics : this.statistics.values () )
+        {
+            statistics.unregister ();
         }
+        this.statistics.clear ();
+    }
+
+    private synchronized SiteStatistics getStatistics ( final String siteId )
+    {
+        SiteStatistics statistics = this.statistics.get ( siteId );
+        if ( statistics == null )
+        {
+            statistics = new SiteStatistics ();
+            statistics.register ( siteId );
+            this.statistics.put ( siteId, statistics );
+        }
+        return statistics;
     }
 
     private void disposeTrackers ()
@@ -224,7 +265,7 @@ public class PullManager implements ConfigurationFactory
         return nextSite.nextStart ();
     }
 
-    public void runOnce () throws SQLException
+    public void runOnce ()
     {
         final DataSourceFactory localFactory = this.tracker.getService ();
         if ( localFactory == null )
@@ -234,28 +275,10 @@ public class PullManager implements ConfigurationFactory
 
         final Properties properties = DataSourceHelper.getDataSourceProperties ( SPECIFIC_PREFIX, DataSourceHelper.DEFAULT_PREFIX );
 
-        logger.debug ( "Opening database connection for local: {}", properties );
-
-        final DataSourceConnectionAccessor accessor = new DataSourceConnectionAccessor ( localFactory, properties );
-        try
-        {
-            accessor.doWithConnection ( new CommonConnectionTask<Void> () {
-                @Override
-                protected Void performTask ( final ConnectionContext connectionContext ) throws Exception
-                {
-                    processSites ( connectionContext );
-                    return null;
-                }
-            } );
-
-        }
-        finally
-        {
-            accessor.dispose ();
-        }
+        processSites ( localFactory, properties );
     }
 
-    private void processSites ( final ConnectionContext localContext )
+    private void processSites ( final DataSourceFactory localFactory, final Properties localProperties )
     {
         final Site[] sites;
 
@@ -277,29 +300,94 @@ public class PullManager implements ConfigurationFactory
             updateTrackers ( sites );
         }
 
-        // process sites
+        // process sites in parallel, each with its own connections
+        processDueSites ( this.executor, sites, new SiteProcessor () {
+
+            @Override
+            public boolean isAborted ()
+            {
+                return PullManager.this.needRefresh || !PullManager.this.running;
+            }
+
+            @Override
+            public void process ( final Site site )
+            {
+                processSite ( site, localFactory, localProperties );
+            }
+        } );
+    }
+
+    /**
+     * Processes a single site
+     */
+    interface SiteProcessor
+    {
+        /**
+         * @return <code>true</code> if no more sites should be started
+         */
+        public boolean isAborted ();
+
+        public void process ( Site site );
+    }
+
+    /**
+     * Process all due sites in parallel and wait until all of them are
+     * completed
+     * <p>
+     * A site is marked as processed when it is started, so a failing site is
+     * delayed like a successful one. Failures are logged and don't affect
+     * other sites.
+     * </p>
+     *
+     * @param executor
+     *            the executor running the sites
+     * @param sites
+     *            the sites to check
+     * @param processor
+     *            the processor
+     */
+    static void processDueSites ( final ExecutorService executor, final Site[] sites, final SiteProcessor processor )
+    {
+        final Map<Site, Future<?>> tasks = new HashMap<Site, Future<?>> ();
         for ( final Site site : sites )
         {
-            if ( this.needRefresh || !this.running )
+            if ( processor.isAborted () )
             {
                 // early abort
-                return;
+                break;
             }
+            if ( site.isDue () )
+            {
+                /* we mark it as processed first since we also delay
+                 * the site if the transfer was not successful. Otherwise
+                 * we would only try to re-process the broken site.
+                 */
+                site.markProcessed ();
+                tasks.put ( site, executor.submit ( new Runnable () {
+
+                    @Override
+                    public void run ()
+                    {
+                        processor.process ( site );
+                    }
+                } ) );
+            }
+        }
+
+        // wait for all sites to complete
+        for ( final Map.Entry<Site, Future<?>> entry : tasks.entrySet () )
+        {
             try
             {
-                if ( site.isDue () )
-                {
-                    /* we mark it as processed first since we also delay
-                     * the site if the transfer was not successful. Otherwise
-                     * we would only try to re-process the broken site.
-                     */
-                    site.markProcessed ();
-                    processSite ( site, localContext );
-                }
+                entry.getValue ().get ();
+            }
+            catch ( final InterruptedException e )
+            {
+                logger.warn ( "Interrupted while waiting for site: " + entry.getKey ().getId (), e );
             }
-            catch ( final Exception e )
+            catch ( final ExecutionException e )
             {
-                logger.warn ( "Failed to process site: " + site.getId (), e );
+                logger.warn ( "Failed to process site: " + entry.getKey ().getId (), e.getCause () );
             }
         }
     }
@@ -393,52 +481,131 @@ public class PullManager implements ConfigurationFactory
         return null;
     }
 
-    private void processSite ( final Site site, final ConnectionContext localContext ) throws Exception
+    private void processSite ( final Site site, final DataSourceFactory localFactory, final Properties localProperties )
     {
         logger.info ( "Processing site: {}", site.getId () );
 
-        final DataSourceFactoryTracker tracker = this.dataSourceFactoryTrackers.get ( site.getDriverName () );
-        if ( tracker == null )
-        {
-            throw new IllegalStateException ( "Site is configured but has not data source factory tracker" );
-        }
-
-        final DataSourceFactory factory = tracker.getService ();
-        if ( factory == null )
-        {
-            throw new IllegalStateException ( String.format ( "Site's driver could not be found - %s", site.getDriverName () ) );
-        }
+        final SiteStatistics statistics = getStatistics ( site.getId () );
+        final long start = System.nanoTime ();
+        final long[] count = new long[1];
+        final boolean[] drained = new boolean[] { true };
 
-        final DataSourceConnectionAccessor accessor = new DataSourceConnectionAccessor ( factory, site.getProperties () );
         try
         {
-            accessor.doWithConnection ( new CommonConnectionTask<Void> () {
+            final DataSourceFactoryTracker tracker = this.dataSourceFactoryTrackers.get ( site.getDriverName () );
+            if ( tracker == null )
+            {
+                throw new IllegalStateException ( "Site is configured but has not data source factory tracker" );
+            }
+
+            final DataSourceFactory factory = tracker.getService ();
+            if ( factory == null )
+            {
+                throw new IllegalStateException ( String.format ( "Site's driver could not be found - %s", site.getDriverName () ) );
+            }
+
+            logger.debug ( "Opening database connection for local: {}", localProperties );
 
-                @Override
-                protected Void performTask ( final ConnectionContext context ) throws Exception
+            final DataSourceConnectionAccessor localAccessor = new DataSourceConnectionAccessor ( localFactory, localProperties );
+            try
+            {
+                final DataSourceConnectionAccessor accessor = new DataSourceConnectionAccessor ( factory, site.getProperties () );
+                try
                 {
-                    transferSite ( site, localContext, context );
-                    return null;
+                    localAccessor.doWithConnection ( new CommonConnectionTask<Void> () {
+
+                        @Override
+                        protected Void performTask ( final ConnectionContext localContext ) throws Exception
+                        {
+                            return accessor.doWithConnection ( new CommonConnectionTask<Void> () {
+
+                                @Override
+                                protected Void performTask ( final ConnectionContext context ) throws Exception
+                                {
+                                    if ( site.getChunkSize () > 0 && site.getCustomSelectSql () == null && site.getCustomDeleteSql () == null )
+                                    {
+                                        drained[0] = transferSiteChunked ( site, localContext, context, statistics, count );
+                                    }
+                                    else
+                                    {
+                                        count[0] = transferSite ( site, localContext, context );
+                                    }
+                                    return null;
+                                }
+                            } );
+                        }
+                    } );
                 }
-            } );
+                finally
+                {
+                    accessor.dispose ();
+                }
+            }
+            finally
+            {
+                localAccessor.dispose ();
+            }
         }
-        finally
+        catch ( final RuntimeException e )
+        {
+            statistics.failed ( count[0], System.nanoTime () - start, e );
+            throw e;
+        }
+        catch ( final Exception e )
+        {
+            statistics.failed ( count[0], System.nanoTime () - start, e );
+            throw new RuntimeException ( e );
+        }
+
+        statistics.completed ( count[0], System.nanoTime () - start, drained[0] );
+        logger.info ( "Transferred {} entries from site {}", count[0], site.getId () );
+    }
+
+    /**
+     * Transfer the entries of a site in chunks, committing each chunk
+     *
+     * @return <code>true</code> if all entries were transferred,
+     *         <code>false</code> if the transfer was stopped early
+     */
+    protected boolean transferSiteChunked ( final Site site, final ConnectionContext localContext, final ConnectionContext context, final SiteStatistics statistics, final long[] count ) throws SQLException
+    {
+        localContext.setAutoCommit ( false );
+        context.setAutoCommit ( false );
+
+        final ChunkedTransfer transfer = new ChunkedTransfer ( localContext.getConnection (), context.getConnection (), getSchema (), getSiteSchema ( site ), site.getChunkSize () );
+
+        int transferred;
+        while ( ( transferred = transfer.transferChunk ( statistics ) ) > 0 )
         {
-            accessor.dispose ();
+            count[0] += transferred;
+            if ( this.needRefresh || !this.running )
+            {
+                logger.info ( "Configuration data was refreshed. Stopping transfer after {} entries", count[0] );
+                return false;
+            }
         }
+        return true;
     }
 
-    protected void transferSite ( final Site site, final ConnectionContext localContext, final ConnectionContext context ) throws SQLException
+    /**
+     * Transfer all entries of a site in one transaction
+     *
+     * @return the number of entries transferred
+     */
+    protected int transferSite ( final Site site, final ConnectionContext localContext, final ConnectionContext context ) throws SQLException
     {
         localContext.setAutoCommit ( false );
         context.setAutoCommit ( false );
 
+        final int[] count = new int[1];
+
         context.query ( new RowCallback () {
 
             @Override
             public void processRow ( final ResultSet resultSet ) throws SQLException
             {
                 transferEntry ( site, localContext, context, resultSet );
+                count[0]++;
                 if ( PullManager.this.needRefresh )
                 {
                     throw new RuntimeException ( "Configuration data was refreshed. We abort..." );
@@ -451,6 +618,8 @@ public class PullManager implements ConfigurationFactory
         logger.info ( "Starting commit ... global ... " );
         context.commit ();
         logger.info ( "Comitted" );
+
+        return count[0];
     }
 
     protected void transferEntry ( final Site site, final ConnectionContext localContext, final ConnectionContext context, final ResultSet resultSet ) throws SQLException
@@ -531,7 +700,9 @@ public class PullManager implements ConfigurationFactory
         final String customSelectSql = cfg.getString ( "customSelectSql", null );
         final String customDeleteSql = cfg.getString ( "customDeleteSql", null );
 
-        return new Site ( configurationId, driverName, jdbcProperties, schema, delay, customSelectSql, customDeleteSql );
+        final int chunkSize = cfg.getInteger ( "chunkSize", DEFAULT_CHUNK_SIZE );
+
+        return new Site ( configurationId, driverName, jdbcProperties, schema, delay, customSelectSql, customDeleteSql, chunkSize );
     }
 
     @Override
@@ -539,6 +710,12 @@ public class PullManager implements ConfigurationFactory
     {
         performDelete ( configurationId );
 
+        final SiteStatistics statistics = this.statistics.remove ( configurationId );
+        if ( statistics != null )
+        {
+            statistics.unregister ();
+        }
+
         this.needRefresh = true;
 
         // signal that the configuration was changed
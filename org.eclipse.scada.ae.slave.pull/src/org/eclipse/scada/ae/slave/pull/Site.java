@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - chunked transfer
  *******************************************************************************/
 package org.eclipse.scada.ae.slave.pull;
 
@@ -22,7 +23,7 @@ public class Site
 
     private final long delay;
 
-    private long lastProcess;
+    private volatile long lastProcess;
 
     private final String schema;
 
@@ -30,7 +31,9 @@ public class Site
 
     private final String customDeleteSql;
 
-    public Site ( final String id, final String driverName, final Properties properties, final String schema, final long delay, final String customSelectSql, final String customDeleteSql )
+    private final int chunkSize;
+
+    public Site ( final String id, final String driverName, final Properties properties, final String schema, final long delay, final String customSelectSql, final String customDeleteSql, final int chunkSize )
     {
         this.id = id;
         this.driverName = driverName;
@@ -39,6 +42,16 @@ public class Site
         this.delay = delay;
         this.customSelectSql = customSelectSql;
         this.customDeleteSql = customDeleteSql;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the number of entries transferred in one transaction, zero or
+     *         less to transfer all entries in one transaction
+     */
+    public int getChunkSize ()
+    {
+        return this.chunkSize;
     }
 
     public String getCustomDeleteSql ()
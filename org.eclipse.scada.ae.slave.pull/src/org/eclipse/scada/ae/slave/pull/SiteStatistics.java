@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.slave.pull;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transfer statistics of one site
+ */
+public class SiteStatistics implements SiteStatisticsMXBean
+{
+    private final static Logger logger = LoggerFactory.getLogger ( SiteStatistics.class );
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private ObjectName name;
+
+    private long transferredCount;
+
+    private long chunkCount;
+
+    private long failedCount;
+
+    private long lastRunCount;
+
+    private long lastRunDuration;
+
+    private long lag;
+
+    private long lastSuccess;
+
+    private String lastError;
+
+    synchronized void chunk ( final int entries, final long oldestEntry )
+    {
+        this.chunkCount++;
+        this.transferredCount += entries;
+        this.lag = Math.max ( 0, System.currentTimeMillis () - oldestEntry );
+    }
+
+    /**
+     * A run completed without errors
+     *
+     * @param drained
+     *            <code>true</code> if the run transferred all entries of the
+     *            site, otherwise the lag of the last chunk is kept
+     */
+    synchronized void completed ( final long entries, final long duration, final boolean drained )
+    {
+        this.lastRunCount = entries;
+        this.lastRunDuration = duration;
+        this.lastSuccess = System.currentTimeMillis ();
+        this.lastError = null;
+        if ( drained )
+        {
+            // nothing left at the remote site
+            this.lag = 0;
+        }
+    }
+
+    synchronized void failed ( final long entries, final long duration, final Throwable error )
+    {
+        this.failedCount++;
+        this.lastRunCount = entries;
+        this.lastRunDuration = duration;
+        this.lastError = error.toString ();
+    }
+
+    @Override
+    public synchronized long getTransferredCount ()
+    {
+        return this.transferredCount;
+    }
+
+    @Override
+    public synchronized long getChunkCount ()
+    {
+        return this.chunkCount;
+    }
+
+    @Override
+    public synchronized long getFailedCount ()
+    {
+        return this.failedCount;
+    }
+
+    @Override
+    public synchronized long getLastRunCount ()
+    {
+        return this.lastRunCount;
+    }
+
+    @Override
+    public synchronized double getLastRunDuration ()
+    {
+        return this.lastRunDuration / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getLastRunThroughput ()
+    {
+        if ( this.lastRunDuration <= 0 )
+        {
+            return 0.0;
+        }
+        return this.lastRunCount / ( this.lastRunDuration / NANOS_PER_MILLI / 1000.0 );
+    }
+
+    @Override
+    public synchronized long getLag ()
+    {
+        return this.lag;
+    }
+
+    @Override
+    public synchronized long getLastSuccess ()
+    {
+        return this.lastSuccess;
+    }
+
+    @Override
+    public synchronized String getLastError ()
+    {
+        return this.lastError;
+    }
+
+    @Override
+    public synchronized void resetStatistics ()
+    {
+        this.transferredCount = 0;
+        this.chunkCount = 0;
+        this.failedCount = 0;
+        this.lastRunCount = 0;
+        this.lastRunDuration = 0;
+        this.lastError = null;
+    }
+
+    public void register ( final String siteId )
+    {
+        try
+        {
+            final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer ();
+            final ObjectName name = new ObjectName ( "org.eclipse.scada.ae.slave.pull", "site", ObjectName.quote ( siteId ) );
+            mbs.registerMBean ( this, name );
+            this.name = name;
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to register MXBean", e );
+        }
+    }
+
+    public void unregister ()
+    {
+        if ( this.name == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer ().unregisterMBean ( this.name );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to unregister MXBean", e );
+        }
+        this.name = null;
+    }
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae.slave.pull;
+
+public interface SiteStatisticsMXBean
+{
+    /**
+     * @return the number of entries transferred since the start
+     */
+    public long getTransferredCount ();
+
+    /**
+     * @return the number of committed chunks
+     */
+    public long getChunkCount ();
+
+    /**
+     * @return the number of failed transfer runs
+     */
+    public long getFailedCount ();
+
+    /**
+     * @return the number of entries transferred by the last run
+     */
+    public long getLastRunCount ();
+
+    /**
+     * @return the duration of the last run in milliseconds
+     */
+    public double getLastRunDuration ();
+
+    /**
+     * @return the number of entries per second transferred by the last run
+     */
+    public double getLastRunThroughput ();
+
+    /**
+     * @return the age in milliseconds of the oldest entry which was still
+     *         waiting at the remote site when it was last checked
+     */
+    public long getLag ();
+
+    /**
+     * @return the time of the last successful run in milliseconds since the
+     *         epoch
+     */
+    public long getLastSuccess ();
+
+    /**
+     * @return the message of the last error, or <code>null</code>
+     */
+    public String getLastError ();
+
+    public void resetStatistics ();
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2014 TH4 SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     TH4 SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.eclipse.scada.ae.Event.EventBuilder;
+import org.eclipse.scada.ae.Event.Fields;
+import org.eclipse.scada.ae.filter.EventMatcher;
+import org.eclipse.scada.ae.filter.internal.EventFilterCompiler;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventFilterCompilerTest
+{
+    private Event makeEvent ()
+    {
+        final EventBuilder eb = Event.create ().id ( new UUID ( 0, 1 ) ).sourceTimestamp ( new Date () ).entryTimestamp ( new Date () );
+        eb.attribute ( Fields.MONITOR_TYPE, "R-L" );
+        eb.attribute ( Fields.MESSAGE, "Hello World" );
+        return eb.build ();
+    }
+
+    @Test
+    public void testReuse ()
+    {
+        final EventMatcher matcher = EventFilterCompiler.compile ( "(message=*ll*rl*)" );
+        final Event event = makeEvent ();
+        for ( int i = 0; i < 10; i++ )
+        {
+            Assert.assertTrue ( matcher.matches ( event ) );
+        }
+    }
+
+    @Test
+    public void testNot ()
+    {
+        Assert.assertFalse ( EventFilterCompiler.compile ( "(!(monitorType=R-L))" ).matches ( makeEvent () ) );
+        Assert.assertTrue ( EventFilterCompiler.compile ( "(!(monitorType=R-HH))" ).matches ( makeEvent () ) );
+    }
+
+    @Test
+    public void testMissingAttribute ()
+    {
+        Assert.assertFalse ( EventFilterCompiler.compile ( "(item=*)" ).matches ( makeEvent () ) );
+        Assert.assertFalse ( EventFilterCompiler.compile ( "(item=foo*)" ).matches ( makeEvent () ) );
+        Assert.assertFalse ( EventFilterCompiler.compile ( "(item=foo)" ).matches ( makeEvent () ) );
+    }
+
+    @Test
+    public void testMissingAttributeInvalidAssertion ()
+    {
+        // the assertion is invalid, but the attribute is missing anyway
+        Assert.assertFalse ( EventFilterCompiler.compile ( "(item~=foo)" ).matches ( makeEvent () ) );
+        Assert.assertFalse ( EventFilterCompiler.compile ( "(item>=foo)" ).matches ( makeEvent () ) );
+        Assert.assertTrue ( EventFilterCompiler.compile ( "(!(item~=foo))" ).matches ( makeEvent () ) );
+    }
+
+    @Test
+    public void testShortCircuit ()
+    {
+        // the second assertion is invalid, but must not be evaluated
+        Assert.assertFalse ( EventFilterCompiler.compile ( "(&(monitorType=R-HH)(id~=foo))" ).matches ( makeEvent () ) );
+        Assert.assertTrue ( EventFilterCompiler.compile ( "(|(monitorType=R-L)(id~=foo))" ).matches ( makeEvent () ) );
+    }
+
+    @Test ( expected = IllegalArgumentException.class )
+    public void testApproximateFailsOnMatch ()
+    {
+        final EventMatcher matcher = EventFilterCompiler.compile ( "(id~=foo)" );
+        matcher.matches ( makeEvent () );
+    }
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.eclipse.scada.ae.Event.Fields;
+import org.eclipse.scada.ae.server.storage.jdbc.EventJournal;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventJournalTest
+{
+    private File directory;
+
+    @Before
+    public void setup () throws IOException
+    {
+        this.directory = File.createTempFile ( "journal", "" );
+        this.directory.delete ();
+    }
+
+    @After
+    public void cleanup ()
+    {
+        final File[] files = this.directory.listFiles ();
+        if ( files != null )
+        {
+            for ( final File file : files )
+            {
+                file.delete ();
+            }
+        }
+        this.directory.delete ();
+    }
+
+    private static Event makeEvent ( final int i )
+    {
+        return Event.create ().id ( UUID.randomUUID () ).sourceTimestamp ( new Date ( i ) ).entryTimestamp ( new Date ( i ) ).attribute ( Fields.MESSAGE, "Event " + i ).build ();
+    }
+
+    private static class RecordingReplayer implements EventJournal.Replayer
+    {
+        private final List<Event> events = new ArrayList<Event> ();
+
+        private int batches;
+
+        @Override
+        public void replay ( final List<Event> events ) throws Exception
+        {
+            this.batches++;
+            this.events.addAll ( events );
+        }
+    }
+
+    @Test
+    public void testReplayAfterRestart () throws Exception
+    {
+        final List<Event> events = new ArrayList<Event> ();
+
+        EventJournal journal = new EventJournal ( this.directory, 64 * 1024, 16 * 1024 * 1024 );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            final Event event = makeEvent ( i );
+            events.add ( event );
+            journal.append ( event );
+        }
+        Assert.assertEquals ( 1000, journal.size () );
+        journal.dispose ();
+
+        journal = new EventJournal ( this.directory, 64 * 1024, 16 * 1024 * 1024 );
+        Assert.assertEquals ( 1000, journal.size () );
+
+        // a failing replay keeps all events
+        final long failed = journal.replay ( 100, new EventJournal.Replayer () {
+
+            @Override
+            public void replay ( final List<Event> events ) throws Exception
+            {
+                throw new Exception ( "Database unavailable" );
+            }
+        } );
+        Assert.assertEquals ( 0, failed );
+        Assert.assertEquals ( 1000, journal.size () );
+
+        final RecordingReplayer replayer = new RecordingReplayer ();
+        Assert.assertEquals ( 1000, journal.replay ( 100, replayer ) );
+        Assert.assertEquals ( 0, journal.size () );
+        Assert.assertTrue ( replayer.batches >= 10 );
+        Assert.assertEquals ( events, replayer.events );
+
+        // all segments are deleted
+        journal.dispose ();
+        Assert.assertEquals ( 0, this.directory.listFiles ().length );
+    }
+
+    @Test
+    public void testDropOldest () throws Exception
+    {
+        final EventJournal journal = new EventJournal ( this.directory, 16 * 1024, 64 * 1024 );
+        for ( int i = 0; i < 10000; i++ )
+        {
+            journal.append ( makeEvent ( i ) );
+        }
+
+        Assert.assertTrue ( journal.getDroppedCount () > 0 );
+        Assert.assertEquals ( 10000, journal.size () + journal.getDroppedCount () );
+        Assert.assertTrue ( this.directory.listFiles ().length <= 4 );
+
+        final RecordingReplayer replayer = new RecordingReplayer ();
+        journal.replay ( 500, replayer );
+
+        // the newest events are kept
+        Assert.assertEquals ( "Event 9999", replayer.events.get ( replayer.events.size () - 1 ).getField ( Fields.MESSAGE ).asString ( null ) );
+        journal.dispose ();
+    }
+
+    /**
+     * Fails every batch containing an event with the message "poison"
+     */
+    private static class PoisonReplayer extends RecordingReplayer
+    {
+        @Override
+        public void replay ( final List<Event> events ) throws Exception
+        {
+            for ( final Event event : events )
+            {
+                if ( "poison".equals ( event.getField ( Fields.MESSAGE ).asString ( null ) ) )
+                {
+                    throw new Exception ( "Poison event" );
+                }
+            }
+            super.replay ( events );
+        }
+    }
+
+    private static Event makePoisonEvent ()
+    {
+        return Event.create ().id ( UUID.randomUUID () ).sourceTimestamp ( new Date () ).entryTimestamp ( new Date () ).attribute ( Fields.MESSAGE, "poison" ).build ();
+    }
+
+    private int countFiles ( final String suffix )
+    {
+        int result = 0;
+        for ( final File file : this.directory.listFiles () )
+        {
+            if ( file.getName ().endsWith ( suffix ) )
+            {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testPoisonEvent () throws Exception
+    {
+        final EventJournal journal = new EventJournal ( this.directory, 64 * 1024, 16 * 1024 * 1024 );
+
+        final List<Event> events = new ArrayList<Event> ();
+        journal.append ( makePoisonEvent () );
+        for ( int i = 0; i < 100; i++ )
+        {
+            final Event event = makeEvent ( i );
+            events.add ( event );
+            journal.append ( event );
+        }
+
+        final RecordingReplayer replayer = new PoisonReplayer ();
+        Assert.assertEquals ( 100, journal.replay ( 10, replayer ) );
+
+        // the poison event does not block the others
+        Assert.assertEquals ( events, replayer.events );
+        Assert.assertEquals ( 0, journal.size () );
+        Assert.assertEquals ( 1, journal.getDeadLetterCount () );
+        Assert.assertEquals ( 0, journal.getDroppedCount () );
+
+        journal.dispose ();
+
+        // the dead letter is kept
+        Assert.assertEquals ( 0, countFiles ( ".journal" ) );
+        Assert.assertEquals ( 1, countFiles ( ".deadletter" ) );
+    }
+
+    @Test
+    public void testPoisonEventAtEnd () throws Exception
+    {
+        final EventJournal journal = new EventJournal ( this.directory, 64 * 1024, 16 * 1024 * 1024 );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            journal.append ( makeEvent ( i ) );
+        }
+        journal.append ( makePoisonEvent () );
+
+        final RecordingReplayer replayer = new PoisonReplayer ();
+        Assert.assertEquals ( 5, journal.replay ( 10, replayer ) );
+
+        // nothing proves the database is available after the poison event
+        Assert.assertEquals ( 1, journal.size () );
+        Assert.assertEquals ( 0, journal.getDeadLetterCount () );
+
+        journal.append ( makeEvent ( 5 ) );
+        Assert.assertEquals ( 1, journal.replay ( 10, replayer ) );
+
+        Assert.assertEquals ( 6, replayer.events.size () );
+        Assert.assertEquals ( 0, journal.size () );
+        Assert.assertEquals ( 1, journal.getDeadLetterCount () );
+
+        journal.dispose ();
+    }
+
+    @Test
+    public void testDatabaseUnavailable () throws Exception
+    {
+        final EventJournal journal = new EventJournal ( this.directory, 64 * 1024, 16 * 1024 * 1024 );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            journal.append ( makeEvent ( i ) );
+        }
+
+        final int[] calls = new int[1];
+        Assert.assertEquals ( 0, journal.replay ( 500, new EventJournal.Replayer () {
+
+            @Override
+            public void replay ( final List<Event> events ) throws Exception
+            {
+                calls[0]++;
+                throw new Exception ( "Database unavailable" );
+            }
+        } ) );
+
+        // no event is moved to the dead letters and it gives up early
+        Assert.assertEquals ( 1000, journal.size () );
+        Assert.assertEquals ( 0, journal.getDeadLetterCount () );
+        Assert.assertTrue ( "Calls: " + calls[0], calls[0] < 20 );
+
+        journal.dispose ();
+    }
+
+    @Test
+    public void testReadPositionAfterRestart () throws Exception
+    {
+        final List<Event> events = new ArrayList<Event> ();
+
+        EventJournal journal = new EventJournal ( this.directory, 64 * 1024, 16 * 1024 * 1024 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            final Event event = makeEvent ( i );
+            events.add ( event );
+            journal.append ( event );
+        }
+
+        // the database fails after 50 events
+        final RecordingReplayer first = new RecordingReplayer ();
+        Assert.assertEquals ( 50, journal.replay ( 10, new EventJournal.Replayer () {
+
+            @Override
+            public void replay ( final List<Event> events ) throws Exception
+            {
+                if ( first.events.size () >= 50 )
+                {
+                    throw new Exception ( "Database unavailable" );
+                }
+                first.replay ( events );
+            }
+        } ) );
+        Assert.assertEquals ( 50, journal.size () );
+        journal.force ();
+        journal.dispose ();
+
+        journal = new EventJournal ( this.directory, 64 * 1024, 16 * 1024 * 1024 );
+        Assert.assertEquals ( 50, journal.size () );
+
+        final RecordingReplayer second = new RecordingReplayer ();
+        Assert.assertEquals ( 50, journal.replay ( 10, second ) );
+        Assert.assertEquals ( events.subList ( 50, 100 ), second.events );
+
+        journal.dispose ();
+    }
+}
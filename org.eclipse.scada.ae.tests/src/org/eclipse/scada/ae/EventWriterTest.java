@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.eclipse.scada.ae.server.storage.StoreListener;
+import org.eclipse.scada.ae.server.storage.jdbc.EventWriter;
+import org.eclipse.scada.ae.server.storage.jdbc.StorageDao;
+import org.eclipse.scada.utils.filter.Filter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventWriterTest
+{
+    private static class MockStorageDao implements StorageDao
+    {
+        private final List<Integer> batches = new CopyOnWriteArrayList<Integer> ();
+
+        private final List<Event> stored = new CopyOnWriteArrayList<Event> ();
+
+        /**
+         * For each comment update, whether the event was stored before
+         */
+        private final List<Boolean> comments = new CopyOnWriteArrayList<Boolean> ();
+
+        private final CountDownLatch release = new CountDownLatch ( 1 );
+
+        private volatile Event broken;
+
+        @Override
+        public void storeEvent ( final Event event ) throws Exception
+        {
+            if ( event == this.broken )
+            {
+                throw new SQLException ( "Broken event" );
+            }
+            this.batches.add ( 1 );
+            this.stored.add ( event );
+        }
+
+        @Override
+        public void storeEvents ( final Collection<Event> events ) throws Exception
+        {
+            this.release.await ();
+            if ( events.contains ( this.broken ) )
+            {
+                throw new SQLException ( "Broken batch" );
+            }
+            this.batches.add ( events.size () );
+            this.stored.addAll ( events );
+        }
+
+        @Override
+        public int storeEventsIfAbsent ( final Collection<Event> events ) throws Exception
+        {
+            storeEvents ( events );
+            return events.size ();
+        }
+
+        @Override
+        public void updateComment ( final UUID id, final String comment ) throws Exception
+        {
+            boolean found = false;
+            for ( final Event event : this.stored )
+            {
+                found |= event.getId ().equals ( id );
+            }
+            this.comments.add ( found );
+        }
+
+        @Override
+        public Event loadEvent ( final UUID id ) throws SQLException
+        {
+            return null;
+        }
+
+        @Override
+        public ResultSet queryEvents ( final Filter filter ) throws SQLException
+        {
+            return null;
+        }
+
+        @Override
+        public boolean toEventList ( final ResultSet rs, final Collection<Event> events, final boolean isBeforeFirst, final long count ) throws SQLException
+        {
+            return false;
+        }
+
+        @Override
+        public void dispose ()
+        {
+        }
+
+        @Override
+        public void cleanupArchive ()
+        {
+        }
+    }
+
+    private static class RecordingHandler implements StoreListener, EventWriter.FailureHandler
+    {
+        private final List<Event> notified = new CopyOnWriteArrayList<Event> ();
+
+        private final List<Event> failed = new CopyOnWriteArrayList<Event> ();
+
+        @Override
+        public void notify ( final Event event )
+        {
+            this.notified.add ( event );
+        }
+
+        @Override
+        public void failed ( final Event event )
+        {
+            this.failed.add ( event );
+        }
+    }
+
+    private static Event makeEvent ( final int i )
+    {
+        return Event.create ().id ( UUID.randomUUID () ).sourceTimestamp ( new Date ( i ) ).entryTimestamp ( new Date ( i ) ).build ();
+    }
+
+    @Test
+    public void testGroupCommit () throws Exception
+    {
+        final MockStorageDao dao = new MockStorageDao ();
+        final RecordingHandler handler = new RecordingHandler ();
+        final EventWriter writer = new EventWriter ( dao, handler, "testGroupCommit", 1000, 50, 0, 1000 );
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            writer.store ( makeEvent ( i ), handler );
+        }
+
+        // listeners are only called after the commit
+        Assert.assertEquals ( 0, handler.notified.size () );
+
+        dao.release.countDown ();
+        writer.dispose ();
+
+        Assert.assertEquals ( 200, dao.stored.size () );
+        Assert.assertEquals ( 200, handler.notified.size () );
+        Assert.assertEquals ( 0, handler.failed.size () );
+
+        for ( final Integer size : dao.batches )
+        {
+            Assert.assertTrue ( size <= 50 );
+        }
+        Assert.assertTrue ( dao.batches.size () < 200 );
+        Assert.assertEquals ( 200, writer.getStatistics ().getEventCount () );
+    }
+
+    @Test
+    public void testBrokenEvent () throws Exception
+    {
+        final MockStorageDao dao = new MockStorageDao ();
+        final RecordingHandler handler = new RecordingHandler ();
+        final EventWriter writer = new EventWriter ( dao, handler, "testBrokenEvent", 1000, 50, 0, 1000 );
+
+        final Event broken = makeEvent ( 5 );
+        dao.broken = broken;
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            writer.store ( i == 5 ? broken : makeEvent ( i ), handler );
+        }
+
+        dao.release.countDown ();
+        writer.dispose ();
+
+        Assert.assertEquals ( 9, dao.stored.size () );
+        Assert.assertEquals ( 9, handler.notified.size () );
+        Assert.assertEquals ( 1, handler.failed.size () );
+        Assert.assertSame ( broken, handler.failed.get ( 0 ) );
+        Assert.assertEquals ( 1, writer.getStatistics ().getFailedEventCount () );
+    }
+
+    @Test
+    public void testCommentAfterInsert () throws Exception
+    {
+        final MockStorageDao dao = new MockStorageDao ();
+        final RecordingHandler handler = new RecordingHandler ();
+        final EventWriter writer = new EventWriter ( dao, handler, "testCommentAfterInsert", 1000, 50, 100, 1000 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            final Event event = makeEvent ( i );
+            writer.store ( event, handler );
+            // the update must not overtake the insert, which is still queued
+            writer.updateComment ( event.getId (), "comment", event, handler );
+        }
+
+        dao.release.countDown ();
+        writer.dispose ();
+
+        Assert.assertEquals ( 10, dao.stored.size () );
+        Assert.assertEquals ( 10, dao.comments.size () );
+        Assert.assertFalse ( dao.comments.contains ( Boolean.FALSE ) );
+        Assert.assertEquals ( 20, handler.notified.size () );
+        Assert.assertEquals ( 0, writer.getStatistics ().getQueueSize () );
+    }
+}
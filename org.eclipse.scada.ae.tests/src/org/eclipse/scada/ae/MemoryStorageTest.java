@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ae;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.eclipse.scada.ae.server.storage.Query;
+import org.eclipse.scada.ae.server.storage.memory.MemoryStorage;
+import org.eclipse.scada.core.Variant;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryStorageTest
+{
+    private static Event makeEvent ( final long timestamp, final String item, final Object monitorType )
+    {
+        return Event.create ().sourceTimestamp ( new Date ( timestamp ) ).attribute ( Event.Fields.ITEM, item ).attribute ( Event.Fields.MONITOR_TYPE, monitorType ).build ();
+    }
+
+    private static List<Event> queryAll ( final MemoryStorage storage, final String filter ) throws Exception
+    {
+        final Query query = storage.query ( filter );
+        final List<Event> result = new LinkedList<Event> ();
+        while ( query.hasMore () )
+        {
+            result.addAll ( query.getNext ( 2 ) );
+        }
+        query.dispose ();
+        return result;
+    }
+
+    private static MemoryStorage makeStorage ( final int maxSize )
+    {
+        final MemoryStorage storage = new MemoryStorage ( maxSize, 0, Arrays.asList ( "item", "monitorType" ) );
+        for ( int i = 0; i < 10; i++ )
+        {
+            storage.store ( makeEvent ( 1000 + i, "item" + i % 3, i % 2 == 0 ? "LL" : "HH" ) );
+        }
+        return storage;
+    }
+
+    @Test
+    public void testIndexedQuery () throws Exception
+    {
+        final MemoryStorage storage = makeStorage ( 0 );
+
+        final List<Event> result = queryAll ( storage, "(&(item=item1)(monitorType=HH))" );
+        Assert.assertEquals ( 2, result.size () );
+        Assert.assertEquals ( 1001, result.get ( 0 ).getSourceTimestamp ().getTime () );
+        Assert.assertEquals ( 1007, result.get ( 1 ).getSourceTimestamp ().getTime () );
+
+        Assert.assertEquals ( 0, queryAll ( storage, "(item=unknown)" ).size () );
+        Assert.assertEquals ( 6, queryAll ( storage, "(|(item=item1)(item=item2))" ).size () );
+        Assert.assertEquals ( 6, queryAll ( storage, "(!(item=item0))" ).size () );
+    }
+
+    @Test
+    public void testIdAndUpdate () throws Exception
+    {
+        final MemoryStorage storage = makeStorage ( 0 );
+
+        final Event event = queryAll ( storage, "(item=item2)" ).get ( 0 );
+
+        final Event updated = storage.update ( event.getId (), "checked" );
+        Assert.assertNotNull ( updated );
+        Assert.assertEquals ( Variant.valueOf ( "checked" ), updated.getField ( Event.Fields.COMMENT ) );
+
+        final List<Event> result = queryAll ( storage, "(id=" + event.getId () + ")" );
+        Assert.assertEquals ( 1, result.size () );
+        Assert.assertEquals ( Variant.valueOf ( "checked" ), result.get ( 0 ).getField ( Event.Fields.COMMENT ) );
+        Assert.assertEquals ( 10, storage.getEvents ().size () );
+    }
+
+    @Test
+    public void testEviction () throws Exception
+    {
+        final MemoryStorage storage = makeStorage ( 4 );
+
+        final List<Event> result = queryAll ( storage, "" );
+        Assert.assertEquals ( 4, result.size () );
+        Assert.assertEquals ( 1006, result.get ( 0 ).getSourceTimestamp ().getTime () );
+
+        Assert.assertEquals ( 2, queryAll ( storage, "(item=item0)" ).size () );
+    }
+
+    @Test
+    public void testNonStringValues () throws Exception
+    {
+        final MemoryStorage storage = makeStorage ( 0 );
+        storage.store ( makeEvent ( 2000, "item0", 42 ) );
+
+        // a non string value disables the index, the results must stay the same
+        Assert.assertEquals ( 5, queryAll ( storage, "(monitorType=LL)" ).size () );
+        Assert.assertEquals ( 2, queryAll ( storage, "(&(monitorType=LL)(item=item0))" ).size () );
+    }
+}
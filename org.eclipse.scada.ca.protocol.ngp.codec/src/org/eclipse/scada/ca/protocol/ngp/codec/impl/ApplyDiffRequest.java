@@ -101,8 +101,7 @@ public class ApplyDiffRequest implements BinaryMessageCodec
     {
         final org.eclipse.scada.ca.data.message.ApplyDiffRequest value = (org.eclipse.scada.ca.data.message.ApplyDiffRequest)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -95,8 +95,7 @@ public class GetConfigurationRequest implements BinaryMessageCodec
     {
         final org.eclipse.scada.ca.data.message.GetConfigurationRequest value = (org.eclipse.scada.ca.data.message.GetConfigurationRequest)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -83,8 +83,7 @@ public class GetFactoriesRequest implements BinaryMessageCodec
     {
         final org.eclipse.scada.ca.data.message.GetFactoriesRequest value = (org.eclipse.scada.ca.data.message.GetFactoriesRequest)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -89,8 +89,7 @@ public class GetFactoriesResponse implements BinaryMessageCodec
     {
         final org.eclipse.scada.ca.data.message.GetFactoriesResponse value = (org.eclipse.scada.ca.data.message.GetFactoriesResponse)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -89,8 +89,7 @@ public class GetFactoryWithDataRequest implements BinaryMessageCodec
     {
         final org.eclipse.scada.ca.data.message.GetFactoryWithDataRequest value = (org.eclipse.scada.ca.data.message.GetFactoryWithDataRequest)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
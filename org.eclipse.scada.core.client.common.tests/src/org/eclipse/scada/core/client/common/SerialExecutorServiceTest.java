@@ -0,0 +1,529 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.core.client.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the serial executor on a shared scheduler with more than one thread
+ */
+public class SerialExecutorServiceTest
+{
+    private static final long TIMEOUT = 5000;
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    private SerialExecutorService executor;
+
+    @Before
+    public void setup ()
+    {
+        this.scheduler = new ScheduledThreadPoolExecutor ( 4 );
+        this.executor = new SerialExecutorService ( this.scheduler );
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        this.executor.shutdownNow ();
+        this.scheduler.shutdownNow ();
+        this.scheduler.awaitTermination ( TIMEOUT, TimeUnit.MILLISECONDS );
+    }
+
+    private static void await ( final CountDownLatch latch ) throws InterruptedException
+    {
+        Assert.assertTrue ( "Timed out", latch.await ( TIMEOUT, TimeUnit.MILLISECONDS ) );
+    }
+
+    /**
+     * Records the order of tasks and checks they never run concurrently
+     */
+    private static class Recorder
+    {
+        private final List<Integer> order = Collections.synchronizedList ( new ArrayList<Integer> () );
+
+        private final AtomicInteger active = new AtomicInteger ();
+
+        private volatile boolean concurrent;
+
+        public Runnable makeTask ( final int id, final CountDownLatch latch )
+        {
+            return new Runnable () {
+                @Override
+                public void run ()
+                {
+                    if ( Recorder.this.active.incrementAndGet () > 1 )
+                    {
+                        Recorder.this.concurrent = true;
+                    }
+                    Thread.yield ();
+                    Recorder.this.order.add ( id );
+                    Recorder.this.active.decrementAndGet ();
+                    latch.countDown ();
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testOrder () throws Exception
+    {
+        final int count = 1000;
+        final Recorder recorder = new Recorder ();
+        final CountDownLatch latch = new CountDownLatch ( count );
+
+        for ( int i = 0; i < count; i++ )
+        {
+            this.executor.execute ( recorder.makeTask ( i, latch ) );
+        }
+        await ( latch );
+
+        Assert.assertFalse ( "Tasks ran concurrently", recorder.concurrent );
+        for ( int i = 0; i < count; i++ )
+        {
+            Assert.assertEquals ( i, (int)recorder.order.get ( i ) );
+        }
+
+        // the counter is updated after the task
+        waitForExecutedTasks ( count );
+        Assert.assertEquals ( 0, this.executor.getQueueSize () );
+        // the thread is given back after each batch
+        Assert.assertTrue ( this.executor.getDispatches () >= count / 16 );
+    }
+
+    private void waitForExecutedTasks ( final long count ) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis () + TIMEOUT;
+        while ( this.executor.getExecutedTasks () < count && System.currentTimeMillis () < end )
+        {
+            Thread.sleep ( 10 );
+        }
+        Assert.assertEquals ( count, this.executor.getExecutedTasks () );
+    }
+
+    @Test
+    public void testOrderFromManyThreads () throws Exception
+    {
+        final int threads = 4;
+        final int count = 250;
+        final Recorder recorder = new Recorder ();
+        final CountDownLatch latch = new CountDownLatch ( threads * count );
+
+        final List<Thread> submitters = new ArrayList<Thread> ();
+        for ( int t = 0; t < threads; t++ )
+        {
+            final int offset = t * count;
+            submitters.add ( new Thread () {
+                @Override
+                public void run ()
+                {
+                    for ( int i = 0; i < count; i++ )
+                    {
+                        SerialExecutorServiceTest.this.executor.execute ( recorder.makeTask ( offset + i, latch ) );
+                    }
+                }
+            } );
+        }
+        for ( final Thread thread : submitters )
+        {
+            thread.start ();
+        }
+        await ( latch );
+
+        Assert.assertFalse ( "Tasks ran concurrently", recorder.concurrent );
+
+        // the tasks of each submitter keep their order
+        final int[] last = new int[threads];
+        for ( int t = 0; t < threads; t++ )
+        {
+            last[t] = t * count - 1;
+        }
+        for ( final int id : recorder.order )
+        {
+            Assert.assertEquals ( last[id / count] + 1, id );
+            last[id / count] = id;
+        }
+    }
+
+    /**
+     * Two serial executors on the same scheduler run in parallel
+     */
+    @Test
+    public void testParallelExecutors () throws Exception
+    {
+        final SerialExecutorService other = new SerialExecutorService ( this.scheduler );
+        try
+        {
+            final CountDownLatch started = new CountDownLatch ( 1 );
+            final CountDownLatch done = new CountDownLatch ( 1 );
+
+            // blocks this executor until the other one ran
+            this.executor.execute ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                    started.countDown ();
+                    try
+                    {
+                        done.await ( TIMEOUT, TimeUnit.MILLISECONDS );
+                    }
+                    catch ( final InterruptedException e )
+                    {
+                    }
+                }
+            } );
+            await ( started );
+
+            other.execute ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                    done.countDown ();
+                }
+            } );
+            await ( done );
+        }
+        finally
+        {
+            other.shutdown ();
+        }
+    }
+
+    @Test
+    public void testFailingTask () throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch ( 2 );
+        final Runnable task = new Runnable () {
+            @Override
+            public void run ()
+            {
+                latch.countDown ();
+            }
+        };
+
+        this.executor.execute ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                throw new RuntimeException ( "Test" );
+            }
+        } );
+        this.executor.execute ( task );
+        this.executor.execute ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                throw new Error ( "Test" );
+            }
+        } );
+        this.executor.execute ( task );
+
+        // the tasks after the error still run
+        await ( latch );
+
+        // and the executor is not stuck in the running state
+        final CountDownLatch later = new CountDownLatch ( 1 );
+        Thread.sleep ( 50 );
+        this.executor.execute ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                later.countDown ();
+            }
+        } );
+        await ( later );
+    }
+
+    @Test
+    public void testSchedule () throws Exception
+    {
+        final long start = System.nanoTime ();
+        final ScheduledFuture<String> future = this.executor.schedule ( new Callable<String> () {
+            @Override
+            public String call () throws Exception
+            {
+                return "result";
+            }
+        }, 50, TimeUnit.MILLISECONDS );
+
+        Assert.assertTrue ( future.getDelay ( TimeUnit.MILLISECONDS ) > 0 );
+        Assert.assertEquals ( "result", future.get ( TIMEOUT, TimeUnit.MILLISECONDS ) );
+        Assert.assertTrue ( System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos ( 50 ) );
+        Assert.assertTrue ( future.isDone () );
+    }
+
+    @Test
+    public void testFixedRate () throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger ();
+        final CountDownLatch latch = new CountDownLatch ( 5 );
+
+        final long start = System.nanoTime ();
+        final ScheduledFuture<?> future = this.executor.scheduleAtFixedRate ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                runs.incrementAndGet ();
+                latch.countDown ();
+            }
+        }, 0, 20, TimeUnit.MILLISECONDS );
+
+        await ( latch );
+        // five runs starting at 0 ms take at least four periods
+        Assert.assertTrue ( System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos ( 4 * 20 ) );
+
+        Assert.assertTrue ( future.cancel ( false ) );
+        Assert.assertTrue ( future.isCancelled () );
+
+        final int count = runs.get ();
+        Thread.sleep ( 100 );
+        Assert.assertEquals ( count, runs.get () );
+    }
+
+    @Test
+    public void testFixedDelay () throws Exception
+    {
+        final List<Long> starts = Collections.synchronizedList ( new ArrayList<Long> () );
+        final CountDownLatch latch = new CountDownLatch ( 4 );
+
+        final ScheduledFuture<?> future = this.executor.scheduleWithFixedDelay ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                starts.add ( System.nanoTime () );
+                try
+                {
+                    Thread.sleep ( 20 );
+                }
+                catch ( final InterruptedException e )
+                {
+                }
+                latch.countDown ();
+            }
+        }, 0, 20, TimeUnit.MILLISECONDS );
+
+        await ( latch );
+        future.cancel ( false );
+
+        // the delay starts after the run, so runs are at least run time plus delay apart
+        for ( int i = 1; i < 4; i++ )
+        {
+            Assert.assertTrue ( starts.get ( i ) - starts.get ( i - 1 ) >= TimeUnit.MILLISECONDS.toNanos ( 40 ) );
+        }
+    }
+
+    @Test
+    public void testFailingPeriodicTask () throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger ();
+
+        final ScheduledFuture<?> future = this.executor.scheduleAtFixedRate ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                runs.incrementAndGet ();
+                throw new RuntimeException ( "Test" );
+            }
+        }, 0, 10, TimeUnit.MILLISECONDS );
+
+        // a failure suppresses later runs
+        Thread.sleep ( 100 );
+        Assert.assertEquals ( 1, runs.get () );
+        Assert.assertTrue ( future.isDone () );
+    }
+
+    @Test
+    public void testCancel () throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger ();
+        final Runnable task = new Runnable () {
+            @Override
+            public void run ()
+            {
+                runs.incrementAndGet ();
+            }
+        };
+
+        final ScheduledFuture<?> delayed = this.executor.schedule ( task, 50, TimeUnit.MILLISECONDS );
+        final ScheduledFuture<?> periodic = this.executor.scheduleWithFixedDelay ( task, 50, 10, TimeUnit.MILLISECONDS );
+
+        Assert.assertTrue ( delayed.cancel ( false ) );
+        Assert.assertTrue ( periodic.cancel ( false ) );
+        Assert.assertFalse ( delayed.cancel ( false ) );
+
+        Thread.sleep ( 150 );
+        Assert.assertEquals ( 0, runs.get () );
+        Assert.assertTrue ( delayed.isCancelled () );
+        Assert.assertTrue ( periodic.isCancelled () );
+    }
+
+    @Test
+    public void testShutdown () throws Exception
+    {
+        final CountDownLatch block = new CountDownLatch ( 1 );
+        final AtomicInteger runs = new AtomicInteger ();
+
+        this.executor.execute ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                try
+                {
+                    block.await ( TIMEOUT, TimeUnit.MILLISECONDS );
+                }
+                catch ( final InterruptedException e )
+                {
+                }
+            }
+        } );
+        final Runnable task = new Runnable () {
+            @Override
+            public void run ()
+            {
+                runs.incrementAndGet ();
+            }
+        };
+        this.executor.execute ( task );
+        final ScheduledFuture<?> delayed = this.executor.schedule ( task, 20, TimeUnit.MILLISECONDS );
+        final ScheduledFuture<?> periodic = this.executor.scheduleAtFixedRate ( task, 100, 10, TimeUnit.MILLISECONDS );
+
+        this.executor.shutdown ();
+        Assert.assertTrue ( this.executor.isShutdown () );
+        Assert.assertFalse ( this.executor.isTerminated () );
+
+        try
+        {
+            this.executor.execute ( task );
+            Assert.fail ( "Must be rejected" );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+            // expected
+        }
+        try
+        {
+            this.executor.schedule ( task, 0, TimeUnit.MILLISECONDS );
+            Assert.fail ( "Must be rejected" );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+            // expected
+        }
+
+        block.countDown ();
+
+        // queued and delayed tasks still run
+        delayed.get ( TIMEOUT, TimeUnit.MILLISECONDS );
+        Assert.assertEquals ( 2, runs.get () );
+
+        // periodic tasks stop
+        final long end = System.currentTimeMillis () + TIMEOUT;
+        while ( !periodic.isCancelled () && System.currentTimeMillis () < end )
+        {
+            Thread.sleep ( 10 );
+        }
+        Assert.assertTrue ( periodic.isCancelled () );
+        Assert.assertEquals ( 2, runs.get () );
+
+        Assert.assertTrue ( this.executor.awaitTermination ( TIMEOUT, TimeUnit.MILLISECONDS ) );
+        Assert.assertTrue ( this.executor.isTerminated () );
+
+        // the shared scheduler is not affected
+        Assert.assertFalse ( this.scheduler.isShutdown () );
+    }
+
+    @Test
+    public void testShutdownNow () throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch ( 1 );
+        final CountDownLatch block = new CountDownLatch ( 1 );
+        final AtomicInteger runs = new AtomicInteger ();
+
+        this.executor.execute ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                started.countDown ();
+                try
+                {
+                    block.await ( TIMEOUT, TimeUnit.MILLISECONDS );
+                }
+                catch ( final InterruptedException e )
+                {
+                }
+            }
+        } );
+        await ( started );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            this.executor.execute ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                    runs.incrementAndGet ();
+                }
+            } );
+        }
+
+        final List<Runnable> pending = this.executor.shutdownNow ();
+        Assert.assertEquals ( 3, pending.size () );
+
+        // still running the blocked task
+        Assert.assertFalse ( this.executor.awaitTermination ( 50, TimeUnit.MILLISECONDS ) );
+
+        block.countDown ();
+        Assert.assertTrue ( this.executor.awaitTermination ( TIMEOUT, TimeUnit.MILLISECONDS ) );
+        Assert.assertEquals ( 0, runs.get () );
+    }
+
+    /**
+     * A scheduler which rejects the executor must not leave it stuck
+     */
+    @Test
+    public void testSchedulerShutdown () throws Exception
+    {
+        this.scheduler.shutdown ();
+
+        try
+        {
+            this.executor.execute ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                }
+            } );
+            Assert.fail ( "Must be rejected" );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+            // expected
+        }
+
+        Assert.assertEquals ( 0, this.executor.getQueueSize () );
+        this.executor.shutdown ();
+        Assert.assertTrue ( this.executor.isTerminated () );
+    }
+}
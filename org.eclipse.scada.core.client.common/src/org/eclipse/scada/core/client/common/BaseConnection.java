@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - add shared connection runtime
  *******************************************************************************/
 package org.eclipse.scada.core.client.common;
 
@@ -25,25 +26,96 @@ import org.eclipse.scada.utils.concurrent.NamedThreadFactory;
 
 public class BaseConnection implements StatisticsProvider
 {
+    private static final Object STATS_EXECUTOR_THREADS = new Object ();
+
+    private static final Object STATS_EXECUTOR_TASKS = new Object ();
+
+    private static final Object STATS_EXECUTOR_DISPATCHES = new Object ();
+
+    private static final Object STATS_EXECUTOR_QUEUE = new Object ();
+
     protected final ConnectionInformation connectionInformation;
 
     protected final ScheduledExecutorService executor;
 
+    private final ConnectionRuntime runtime;
+
+    private boolean runtimeReleased;
+
     private volatile Map<String, String> sessionProperties = Collections.emptyMap ();
 
     protected final StatisticsImpl statistics;
 
     public BaseConnection ( final ConnectionInformation connectionInformation )
+    {
+        this ( connectionInformation, null );
+    }
+
+    /**
+     * Create a new connection
+     *
+     * @param connectionInformation
+     *            the connection information
+     * @param runtime
+     *            the shared runtime to use for the executor of this
+     *            connection, if <code>null</code> the connection will use its
+     *            own thread. The runtime is released when the connection is
+     *            disposed, so subclasses must dispose everything using the
+     *            runtime before calling {@link #dispose()}.
+     */
+    protected BaseConnection ( final ConnectionInformation connectionInformation, final ConnectionRuntime runtime )
     {
         this.connectionInformation = connectionInformation;
-        this.executor = Executors.newSingleThreadScheduledExecutor ( new NamedThreadFactory ( connectionInformation.toMaskedString () ) );
+        this.runtime = runtime;
+
+        if ( runtime != null )
+        {
+            this.executor = runtime.createExecutor ();
+        }
+        else
+        {
+            this.executor = Executors.newSingleThreadScheduledExecutor ( new NamedThreadFactory ( connectionInformation.toMaskedString () ) );
+        }
 
         this.statistics = new StatisticsImpl ();
+
+        this.statistics.setLabel ( STATS_EXECUTOR_THREADS, "Threads running the connection executor" );
+        if ( this.executor instanceof SerialExecutorService )
+        {
+            this.statistics.setLabel ( STATS_EXECUTOR_TASKS, "Tasks run by the connection executor" );
+            this.statistics.setLabel ( STATS_EXECUTOR_DISPATCHES, "Context switches of the connection executor" );
+            this.statistics.setLabel ( STATS_EXECUTOR_QUEUE, "Queued tasks of the connection executor" );
+        }
+        else
+        {
+            this.statistics.setCurrentValue ( STATS_EXECUTOR_THREADS, 1 );
+        }
     }
 
     public void dispose ()
     {
         this.executor.shutdown ();
+
+        synchronized ( this )
+        {
+            if ( this.runtime != null && !this.runtimeReleased )
+            {
+                // pending tasks still run, the scheduler shuts down gracefully
+                this.runtimeReleased = true;
+                this.runtime.release ();
+            }
+        }
+    }
+
+    /**
+     * Get the shared runtime
+     *
+     * @return the runtime, or <code>null</code> if the connection does not
+     *         use the shared runtime
+     */
+    protected ConnectionRuntime getRuntime ()
+    {
+        return this.runtime;
     }
 
     public ConnectionInformation getConnectionInformation ()
@@ -64,6 +136,15 @@ public class BaseConnection implements StatisticsProvider
     @Override
     public Collection<StatisticEntry> getStatistics ()
     {
+        if ( this.executor instanceof SerialExecutorService )
+        {
+            // pull the values, instead of updating the statistics with each task
+            final SerialExecutorService executor = (SerialExecutorService)this.executor;
+            this.statistics.setCurrentValue ( STATS_EXECUTOR_THREADS, this.runtime.getSchedulerThreads () );
+            this.statistics.setCurrentValue ( STATS_EXECUTOR_TASKS, executor.getExecutedTasks () );
+            this.statistics.setCurrentValue ( STATS_EXECUTOR_DISPATCHES, executor.getDispatches () );
+            this.statistics.setCurrentValue ( STATS_EXECUTOR_QUEUE, executor.getQueueSize () );
+        }
         return this.statistics.getEntries ();
     }
 }
@@ -9,6 +9,7 @@
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - add dispose to filter chain, add address cache flag
+ *     IBH SYSTEMS GmbH - add shared connection runtime, lookup on a separate pool
  *******************************************************************************/
 package org.eclipse.scada.core.client.common;
 
@@ -17,6 +18,8 @@ import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.net.ssl.SSLSession;
 
@@ -97,12 +100,27 @@ public abstract class ClientBaseConnection extends BaseConnection implements Con
 
     public ClientBaseConnection ( final IoHandlerFactory handlerFactory, final IoLoggerFilterChainBuilder chainBuilder, final ConnectionInformation connectionInformation ) throws Exception
     {
-        this ( handlerFactory, chainBuilder, connectionInformation, null );
+        this ( handlerFactory, chainBuilder, connectionInformation, null, null );
     }
 
+    /**
+     * Create a new connection using the shared connection runtime
+     * <p>
+     * Unless the shared runtime is disabled, the connection runs its tasks on
+     * the shared scheduler. If no processor is provided, the processors of the
+     * shared runtime are used as well.
+     * </p>
+     *
+     * @see ConnectionRuntime
+     */
     protected ClientBaseConnection ( final IoHandlerFactory handlerFactory, final IoLoggerFilterChainBuilder chainBuilder, final ConnectionInformation connectionInformation, final IoProcessor<NioSession> processor ) throws Exception
     {
-        super ( connectionInformation );
+        this ( handlerFactory, chainBuilder, connectionInformation, processor, ConnectionRuntime.acquireDefault () );
+    }
+
+    private ClientBaseConnection ( final IoHandlerFactory handlerFactory, final IoLoggerFilterChainBuilder chainBuilder, final ConnectionInformation connectionInformation, final IoProcessor<NioSession> processor, final ConnectionRuntime runtime ) throws Exception
+    {
+        super ( connectionInformation, runtime );
 
         this.stateNotifier = new StateNotifier ( this.executor, this );
 
@@ -112,6 +130,10 @@ public abstract class ClientBaseConnection extends BaseConnection implements Con
         {
             this.connector = new NioSocketConnector ( processor );
         }
+        else if ( runtime != null )
+        {
+            this.connector = new NioSocketConnector ( runtime.getProcessor () );
+        }
         else
         {
             this.connector = new NioSocketConnector ();
@@ -433,11 +455,16 @@ public abstract class ClientBaseConnection extends BaseConnection implements Con
     {
         setState ( ConnectionState.LOOKUP, null );
 
-        this.executor.execute ( new Runnable () {
+        // the lookup blocks, so it must not run on the shared scheduler
+        final ConnectionRuntime runtime = getRuntime ();
+        final Executor lookupExecutor = runtime != null ? runtime.getLookupExecutor () : this.executor;
+
+        final String host = this.connectionInformation.getTarget ();
+        lookupExecutor.execute ( new Runnable () {
             @Override
             public void run ()
             {
-                performLookup ( ClientBaseConnection.this.connectionInformation.getTarget () );
+                performLookup ( host );
             }
         } );
     }
@@ -446,14 +473,41 @@ public abstract class ClientBaseConnection extends BaseConnection implements Con
     {
         logger.info ( "Beginning lookup of '{}'", host );
 
-        final InetAddress address;
+        InetAddress address = null;
+        Throwable error = null;
         try
         {
             address = InetAddress.getByName ( host );
         }
         catch ( final Throwable e )
         {
-            endLookup ( null, e );
+            error = e;
+        }
+
+        // continue on the executor of the connection
+        final InetAddress result = address;
+        final Throwable resultError = error;
+        try
+        {
+            this.executor.execute ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                    completeLookup ( result, resultError );
+                }
+            } );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+            logger.info ( "Connection got disposed during the lookup of '{}'", host );
+        }
+    }
+
+    private void completeLookup ( final InetAddress address, final Throwable error )
+    {
+        if ( error != null )
+        {
+            endLookup ( null, error );
             return;
         }
 
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.core.client.common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.service.IoProcessor;
+import org.apache.mina.core.service.SimpleIoProcessorPool;
+import org.apache.mina.transport.socket.nio.NioProcessor;
+import org.apache.mina.transport.socket.nio.NioSession;
+import org.eclipse.scada.utils.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The threads shared by all client connections
+ * <p>
+ * The runtime provides a pool of socket processors and a scheduler, both of a
+ * fixed size. Each connection gets its own executor on top of the shared
+ * scheduler, which runs the tasks of the connection in order, like a single
+ * threaded executor would do. So the number of threads does not grow with the
+ * number of connections.
+ * </p>
+ * <p>
+ * Blocking work, like resolving host names, must not run on the shared
+ * scheduler, since it would block the connections sharing the thread. It runs
+ * on a separate, bounded pool of lookup threads instead.
+ * </p>
+ * <p>
+ * There is only one instance at a time. It is created by the first call to
+ * {@link #acquire()} and disposed when the last user called
+ * {@link #release()}.
+ * </p>
+ */
+public final class ConnectionRuntime
+{
+    private final static Logger logger = LoggerFactory.getLogger ( ConnectionRuntime.class );
+
+    private static final int PROCESSORS = Integer.getInteger ( "org.eclipse.scada.core.client.common.runtime.processors", Runtime.getRuntime ().availableProcessors () + 1 );
+
+    private static final int SCHEDULER_THREADS = Integer.getInteger ( "org.eclipse.scada.core.client.common.runtime.schedulerThreads", Runtime.getRuntime ().availableProcessors () );
+
+    private static final int LOOKUP_THREADS = Integer.getInteger ( "org.eclipse.scada.core.client.common.runtime.lookupThreads", 4 );
+
+    private static final boolean DISABLED = Boolean.getBoolean ( "org.eclipse.scada.core.client.common.runtime.disabled" );
+
+    private static ConnectionRuntime instance;
+
+    private static int references;
+
+    private final IoProcessor<NioSession> processor;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final ThreadPoolExecutor lookupExecutor;
+
+    private ConnectionRuntime ()
+    {
+        logger.info ( "Creating shared connection runtime - processors: {}, scheduler threads: {}, lookup threads: {}", new Object[] { PROCESSORS, SCHEDULER_THREADS, LOOKUP_THREADS } );
+
+        this.processor = new SimpleIoProcessorPool<NioSession> ( NioProcessor.class, PROCESSORS );
+        this.scheduler = new ScheduledThreadPoolExecutor ( SCHEDULER_THREADS, new NamedThreadFactory ( "org.eclipse.scada.core.client.common.ConnectionRuntime" ) );
+        this.lookupExecutor = new ThreadPoolExecutor ( LOOKUP_THREADS, LOOKUP_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable> (), new NamedThreadFactory ( "org.eclipse.scada.core.client.common.ConnectionRuntime/lookup" ) );
+        this.lookupExecutor.allowCoreThreadTimeOut ( true );
+    }
+
+    /**
+     * Get the shared runtime
+     * <p>
+     * Each call has to be matched with a call to {@link #release()}.
+     * </p>
+     */
+    public static synchronized ConnectionRuntime acquire ()
+    {
+        if ( instance == null )
+        {
+            instance = new ConnectionRuntime ();
+        }
+        references++;
+        return instance;
+    }
+
+    /**
+     * Get the shared runtime, unless it is disabled by the system property
+     * <code>org.eclipse.scada.core.client.common.runtime.disabled</code>
+     *
+     * @return the shared runtime, or <code>null</code> if it is disabled
+     */
+    public static ConnectionRuntime acquireDefault ()
+    {
+        if ( DISABLED )
+        {
+            return null;
+        }
+        return acquire ();
+    }
+
+    /**
+     * Release the runtime acquired before
+     */
+    public void release ()
+    {
+        synchronized ( ConnectionRuntime.class )
+        {
+            if ( instance != this )
+            {
+                logger.warn ( "Released a runtime which is not active" );
+                return;
+            }
+
+            references--;
+            if ( references > 0 )
+            {
+                return;
+            }
+
+            instance = null;
+        }
+
+        logger.info ( "Disposing shared connection runtime" );
+
+        this.scheduler.shutdown ();
+        this.lookupExecutor.shutdown ();
+        this.processor.dispose ();
+    }
+
+    public IoProcessor<NioSession> getProcessor ()
+    {
+        return this.processor;
+    }
+
+    /**
+     * Get the executor for blocking lookups
+     * <p>
+     * The executor has a limited number of threads, which are only kept while
+     * there are lookups to run. Results must be handed back to the executor
+     * of the connection.
+     * </p>
+     */
+    public Executor getLookupExecutor ()
+    {
+        return this.lookupExecutor;
+    }
+
+    /**
+     * Create a new executor for a connection
+     * <p>
+     * The executor has to be shut down when it is no longer needed. This does
+     * not affect the runtime.
+     * </p>
+     */
+    public ScheduledExecutorService createExecutor ()
+    {
+        return new SerialExecutorService ( this.scheduler );
+    }
+
+    /**
+     * @return the number of threads running in the shared scheduler
+     */
+    public int getSchedulerThreads ()
+    {
+        return this.scheduler.getPoolSize ();
+    }
+
+    /**
+     * @return the number of socket processors
+     */
+    public int getProcessors ()
+    {
+        return PROCESSORS;
+    }
+}
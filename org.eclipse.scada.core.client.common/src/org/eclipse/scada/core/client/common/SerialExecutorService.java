@@ -0,0 +1,452 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.core.client.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A scheduled executor running its tasks one after the other on a shared
+ * scheduler
+ * <p>
+ * The tasks of one serial executor are executed in the order they became due
+ * and never concurrently, just like with a single threaded executor. Different
+ * serial executors sharing the same scheduler run in parallel. After
+ * processing a few tasks the executor gives the thread back, so that a busy
+ * executor cannot starve the others.
+ * </p>
+ * <p>
+ * Shutting down the executor does not affect the shared scheduler. Delayed
+ * tasks which are already scheduled still run, periodic tasks stop.
+ * </p>
+ */
+class SerialExecutorService extends AbstractExecutorService implements ScheduledExecutorService
+{
+    private final static Logger logger = LoggerFactory.getLogger ( SerialExecutorService.class );
+
+    private static final int BATCH_SIZE = 16;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Deque<Runnable> tasks = new ArrayDeque<Runnable> ();
+
+    private boolean running;
+
+    private boolean shutdown;
+
+    private final AtomicLong executedTasks = new AtomicLong ();
+
+    private final AtomicLong dispatches = new AtomicLong ();
+
+    private final Runnable processor = new Runnable () {
+
+        @Override
+        public void run ()
+        {
+            processTasks ();
+        }
+    };
+
+    public SerialExecutorService ( final ScheduledExecutorService scheduler )
+    {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the number of tasks which were run
+     */
+    public long getExecutedTasks ()
+    {
+        return this.executedTasks.get ();
+    }
+
+    /**
+     * @return the number of times the executor had to be handed to a thread
+     *         of the shared scheduler
+     */
+    public long getDispatches ()
+    {
+        return this.dispatches.get ();
+    }
+
+    public synchronized int getQueueSize ()
+    {
+        return this.tasks.size ();
+    }
+
+    @Override
+    public void execute ( final Runnable command )
+    {
+        synchronized ( this )
+        {
+            if ( this.shutdown )
+            {
+                throw new RejectedExecutionException ( "Executor is shut down" );
+            }
+        }
+        enqueue ( command );
+    }
+
+    /**
+     * Queue a task, even if the executor is shut down
+     */
+    private void enqueue ( final Runnable command )
+    {
+        synchronized ( this )
+        {
+            this.tasks.add ( command );
+            if ( this.running )
+            {
+                return;
+            }
+            this.running = true;
+        }
+
+        dispatch ();
+    }
+
+    private void dispatch ()
+    {
+        try
+        {
+            this.dispatches.incrementAndGet ();
+            this.scheduler.execute ( this.processor );
+        }
+        catch ( final RuntimeException e )
+        {
+            synchronized ( this )
+            {
+                this.tasks.clear ();
+                this.running = false;
+                notifyAll ();
+            }
+            throw e;
+        }
+    }
+
+    private void processTasks ()
+    {
+        boolean idle = false;
+        try
+        {
+            idle = runBatch ();
+        }
+        finally
+        {
+            // also when a task threw an error, which must not leave the executor marked as running
+            if ( !idle )
+            {
+                continueProcessing ();
+            }
+        }
+    }
+
+    /**
+     * Run a batch of tasks
+     *
+     * @return <code>true</code> if the queue ran empty and the executor is no
+     *         longer running
+     */
+    private boolean runBatch ()
+    {
+        for ( int i = 0; i < BATCH_SIZE; i++ )
+        {
+            final Runnable task;
+            synchronized ( this )
+            {
+                task = this.tasks.poll ();
+                if ( task == null )
+                {
+                    this.running = false;
+                    notifyAll ();
+                    return true;
+                }
+            }
+
+            try
+            {
+                task.run ();
+            }
+            catch ( final RuntimeException e )
+            {
+                logger.warn ( "Failed to run task", e );
+            }
+            finally
+            {
+                this.executedTasks.incrementAndGet ();
+            }
+        }
+        return false;
+    }
+
+    private void continueProcessing ()
+    {
+        synchronized ( this )
+        {
+            if ( this.tasks.isEmpty () )
+            {
+                this.running = false;
+                notifyAll ();
+                return;
+            }
+        }
+
+        // give others a chance
+        try
+        {
+            dispatch ();
+        }
+        catch ( final RuntimeException e )
+        {
+            logger.warn ( "Failed to continue processing, dropping pending tasks", e );
+        }
+    }
+
+    private abstract class ScheduledTask<V> extends FutureTask<V> implements ScheduledFuture<V>
+    {
+        private volatile ScheduledFuture<?> trigger;
+
+        public ScheduledTask ( final Callable<V> callable )
+        {
+            super ( callable );
+        }
+
+        public ScheduledTask ( final Runnable runnable )
+        {
+            super ( runnable, null );
+        }
+
+        protected final Runnable makeTrigger ()
+        {
+            return new Runnable () {
+                @Override
+                public void run ()
+                {
+                    enqueue ( ScheduledTask.this );
+                }
+            };
+        }
+
+        protected void setTrigger ( final ScheduledFuture<?> trigger )
+        {
+            this.trigger = trigger;
+        }
+
+        @Override
+        public long getDelay ( final TimeUnit unit )
+        {
+            final ScheduledFuture<?> trigger = this.trigger;
+            return trigger == null ? 0 : trigger.getDelay ( unit );
+        }
+
+        @Override
+        public int compareTo ( final Delayed o )
+        {
+            return Long.compare ( getDelay ( TimeUnit.NANOSECONDS ), o.getDelay ( TimeUnit.NANOSECONDS ) );
+        }
+
+        @Override
+        public boolean cancel ( final boolean mayInterruptIfRunning )
+        {
+            final boolean result = super.cancel ( mayInterruptIfRunning );
+            final ScheduledFuture<?> trigger = this.trigger;
+            if ( trigger != null )
+            {
+                trigger.cancel ( false );
+            }
+            return result;
+        }
+    }
+
+    private class DelayedTask<V> extends ScheduledTask<V>
+    {
+        public DelayedTask ( final Callable<V> callable )
+        {
+            super ( callable );
+        }
+
+        public void start ( final long delay, final TimeUnit unit )
+        {
+            setTrigger ( SerialExecutorService.this.scheduler.schedule ( makeTrigger (), delay, unit ) );
+        }
+    }
+
+    private class PeriodicTask extends ScheduledTask<Void>
+    {
+        private final long period;
+
+        private final boolean fixedRate;
+
+        public PeriodicTask ( final Runnable command, final long period, final boolean fixedRate )
+        {
+            super ( command );
+            this.period = period;
+            this.fixedRate = fixedRate;
+        }
+
+        public void start ( final long initialDelay, final TimeUnit unit )
+        {
+            if ( this.fixedRate )
+            {
+                setTrigger ( SerialExecutorService.this.scheduler.scheduleAtFixedRate ( makeTrigger (), initialDelay, this.period, unit ) );
+            }
+            else
+            {
+                setTrigger ( SerialExecutorService.this.scheduler.schedule ( makeTrigger (), initialDelay, unit ) );
+            }
+        }
+
+        @Override
+        public void run ()
+        {
+            if ( isShutdown () )
+            {
+                cancel ( false );
+                return;
+            }
+
+            if ( !runAndReset () )
+            {
+                // failed or cancelled
+                cancel ( false );
+                return;
+            }
+
+            if ( !this.fixedRate )
+            {
+                // the delay starts after the execution
+                try
+                {
+                    setTrigger ( SerialExecutorService.this.scheduler.schedule ( makeTrigger (), this.period, TimeUnit.NANOSECONDS ) );
+                }
+                catch ( final RejectedExecutionException e )
+                {
+                    cancel ( false );
+                }
+            }
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule ( final Runnable command, final long delay, final TimeUnit unit )
+    {
+        return schedule ( Executors.callable ( command ), delay, unit );
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule ( final Callable<V> callable, final long delay, final TimeUnit unit )
+    {
+        checkShutdown ();
+
+        final DelayedTask<V> task = new DelayedTask<V> ( callable );
+        task.start ( delay, unit );
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate ( final Runnable command, final long initialDelay, final long period, final TimeUnit unit )
+    {
+        checkShutdown ();
+
+        if ( period <= 0 )
+        {
+            throw new IllegalArgumentException ( "Period must be greater than zero" );
+        }
+
+        final PeriodicTask task = new PeriodicTask ( command, period, true );
+        task.start ( initialDelay, unit );
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay ( final Runnable command, final long initialDelay, final long delay, final TimeUnit unit )
+    {
+        checkShutdown ();
+
+        if ( delay <= 0 )
+        {
+            throw new IllegalArgumentException ( "Delay must be greater than zero" );
+        }
+
+        final PeriodicTask task = new PeriodicTask ( command, unit.toNanos ( delay ), false );
+        task.start ( initialDelay, unit );
+        return task;
+    }
+
+    private synchronized void checkShutdown ()
+    {
+        if ( this.shutdown )
+        {
+            throw new RejectedExecutionException ( "Executor is shut down" );
+        }
+    }
+
+    @Override
+    public synchronized void shutdown ()
+    {
+        this.shutdown = true;
+        notifyAll ();
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow ()
+    {
+        this.shutdown = true;
+        final List<Runnable> result = new ArrayList<Runnable> ( this.tasks );
+        this.tasks.clear ();
+        notifyAll ();
+        return result;
+    }
+
+    @Override
+    public synchronized boolean isShutdown ()
+    {
+        return this.shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated ()
+    {
+        return this.shutdown && !this.running && this.tasks.isEmpty ();
+    }
+
+    @Override
+    public synchronized boolean awaitTermination ( final long timeout, final TimeUnit unit ) throws InterruptedException
+    {
+        final long end = System.nanoTime () + unit.toNanos ( timeout );
+
+        while ( !isTerminated () )
+        {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis ( end - System.nanoTime () );
+            if ( remaining <= 0 )
+            {
+                return false;
+            }
+            wait ( remaining );
+        }
+        return true;
+    }
+}
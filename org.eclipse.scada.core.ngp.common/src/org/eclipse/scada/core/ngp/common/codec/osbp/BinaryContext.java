@@ -24,6 +24,12 @@ public interface BinaryContext
 
     public String getProtocolIdPart ();
 
+    // message buffers
+
+    public IoBuffer allocateMessageBuffer ( int messageCode );
+
+    public void messageEncoded ( int messageCode, IoBuffer data );
+
     // string
 
     public void encodeString ( IoBuffer buffer, byte fieldNumber, String data ) throws Exception;
@@ -52,6 +58,10 @@ public interface BinaryContext
 
     public Set<Integer> decodeIntSet ( IoBuffer buffer ) throws Exception;
 
+    public void encodeIntArray ( IoBuffer buffer, byte fieldNumber, int[] data ) throws Exception;
+
+    public int[] decodeIntArray ( IoBuffer buffer ) throws Exception;
+
     // long
 
     public void encodeLong ( IoBuffer buffer, byte fieldNumber, Long data ) throws Exception;
@@ -68,6 +78,10 @@ public interface BinaryContext
 
     public Set<Long> decodeLongSet ( IoBuffer buffer ) throws Exception;
 
+    public void encodeLongArray ( IoBuffer buffer, byte fieldNumber, long[] data ) throws Exception;
+
+    public long[] decodeLongArray ( IoBuffer buffer ) throws Exception;
+
     // boolean
 
     public void encodeBoolean ( IoBuffer buffer, byte fieldNumber, Boolean data ) throws Exception;
@@ -84,6 +98,10 @@ public interface BinaryContext
 
     public Set<Boolean> decodeBooleanSet ( IoBuffer buffer ) throws Exception;
 
+    public void encodeBooleanArray ( IoBuffer buffer, byte fieldNumber, boolean[] data ) throws Exception;
+
+    public boolean[] decodeBooleanArray ( IoBuffer buffer ) throws Exception;
+
     // double
 
     public void encodeDouble ( IoBuffer buffer, byte fieldNumber, Double data ) throws Exception;
@@ -100,6 +118,10 @@ public interface BinaryContext
 
     public Set<Double> decodeDoubleSet ( IoBuffer buffer ) throws Exception;
 
+    public void encodeDoubleArray ( IoBuffer buffer, byte fieldNumber, double[] data ) throws Exception;
+
+    public double[] decodeDoubleArray ( IoBuffer buffer ) throws Exception;
+
     // variant
 
     public void encodeVariant ( IoBuffer buffer, byte fieldNumber, Variant data ) throws Exception;
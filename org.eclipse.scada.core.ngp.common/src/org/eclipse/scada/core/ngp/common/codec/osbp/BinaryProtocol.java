@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - implement security callback system
+ *     IBH SYSTEMS GmbH - record encoded message sizes
  *******************************************************************************/
 
 
@@ -93,7 +94,10 @@ public class BinaryProtocol implements MessageProtocol, MessageEncoder, MessageD
             throw new IllegalArgumentException ( String.format ( "Message class is unknown. Unable to encode: %s", message.getClass () ) );
         }
 
-        return new DataMessage ( codec.encodeMessage ( this.context, message ) );
+        final IoBuffer data = codec.encodeMessage ( this.context, message );
+        this.context.messageEncoded ( codec.getMessageCode (), data );
+
+        return new DataMessage ( data );
     }
 
 }
@@ -8,7 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - implement security callback system
- *     IBH SYSTEMS GmbH - bug fixing
+ *     IBH SYSTEMS GmbH - bug fixing, primitive array codecs, message buffer allocation
  *******************************************************************************/
 
 package org.eclipse.scada.core.ngp.common.codec.osbp;
@@ -38,6 +38,9 @@ import com.google.common.collect.Interner;
  * Field numbers are written by the context but read by the protocol.
  * Therefore all encode methods put the field number but the decode
  * methods won't read them since are already read.
+ *
+ * Primitive arrays use the same wire format as the collections of the
+ * same type, so both sides can choose the representation independently.
  */
 public class DefaultBinaryContext implements BinaryContext
 {
@@ -128,11 +131,19 @@ public class DefaultBinaryContext implements BinaryContext
 
     private final Interner<String> stringInterner;
 
-    public DefaultBinaryContext ( final Charset charset, final Interner<String> stringInterner )
+    private final MessageBufferAllocator bufferAllocator;
+
+    public DefaultBinaryContext ( final Charset charset, final Interner<String> stringInterner, final MessageBufferAllocator bufferAllocator )
     {
         this.encoder = charset.newEncoder ();
         this.decoder = charset.newDecoder ();
         this.stringInterner = stringInterner == null ? InternerHelper.makeNoOpInterner () : stringInterner;
+        this.bufferAllocator = bufferAllocator == null ? new MessageBufferAllocator () : bufferAllocator;
+    }
+
+    public DefaultBinaryContext ( final Charset charset, final Interner<String> stringInterner )
+    {
+        this ( charset, stringInterner, null );
     }
 
     public DefaultBinaryContext ()
@@ -146,6 +157,18 @@ public class DefaultBinaryContext implements BinaryContext
         return "osbp.v2";
     }
 
+    @Override
+    public IoBuffer allocateMessageBuffer ( final int messageCode )
+    {
+        return this.bufferAllocator.allocate ( messageCode );
+    }
+
+    @Override
+    public void messageEncoded ( final int messageCode, final IoBuffer data )
+    {
+        this.bufferAllocator.encoded ( messageCode, data.remaining () );
+    }
+
     private byte checkType ( final IoBuffer buffer, final byte expectedType, final boolean allowNull ) throws Exception
     {
         final byte type = buffer.get ();
@@ -358,6 +381,46 @@ public class DefaultBinaryContext implements BinaryContext
         return decodeLongCollection ( buffer, ALLOC_LONG_SET );
     }
 
+    @Override
+    public void encodeLongArray ( final IoBuffer buffer, final byte fieldNumber, final long[] data ) throws Exception
+    {
+        buffer.put ( fieldNumber );
+        if ( data != null )
+        {
+            buffer.put ( TYPE_LONG_LIST );
+            buffer.putInt ( data.length );
+            for ( int i = 0; i < data.length; i++ )
+            {
+                buffer.putLong ( data[i] );
+            }
+        }
+        else
+        {
+            buffer.put ( TYPE_NULL );
+        }
+    }
+
+    @Override
+    public long[] decodeLongArray ( final IoBuffer buffer ) throws Exception
+    {
+        final byte type = checkType ( buffer, TYPE_LONG_LIST, true );
+
+        if ( type == TYPE_NULL )
+        {
+            return null;
+        }
+        else
+        {
+            final int items = buffer.getInt ();
+            final long[] result = new long[items];
+            for ( int i = 0; i < items; i++ )
+            {
+                result[i] = buffer.getLong ();
+            }
+            return result;
+        }
+    }
+
     // int
 
     @Override
@@ -461,6 +524,46 @@ public class DefaultBinaryContext implements BinaryContext
         return decodeIntCollection ( buffer, ALLOC_INT_SET );
     }
 
+    @Override
+    public void encodeIntArray ( final IoBuffer buffer, final byte fieldNumber, final int[] data ) throws Exception
+    {
+        buffer.put ( fieldNumber );
+        if ( data != null )
+        {
+            buffer.put ( TYPE_INT_LIST );
+            buffer.putInt ( data.length );
+            for ( int i = 0; i < data.length; i++ )
+            {
+                buffer.putInt ( data[i] );
+            }
+        }
+        else
+        {
+            buffer.put ( TYPE_NULL );
+        }
+    }
+
+    @Override
+    public int[] decodeIntArray ( final IoBuffer buffer ) throws Exception
+    {
+        final byte type = checkType ( buffer, TYPE_INT_LIST, true );
+
+        if ( type == TYPE_NULL )
+        {
+            return null;
+        }
+        else
+        {
+            final int items = buffer.getInt ();
+            final int[] result = new int[items];
+            for ( int i = 0; i < items; i++ )
+            {
+                result[i] = buffer.getInt ();
+            }
+            return result;
+        }
+    }
+
     // boolean
 
     @Override
@@ -566,6 +669,46 @@ public class DefaultBinaryContext implements BinaryContext
         return decodeBooleanCollection ( buffer, ALLOC_BOOLEAN_SET );
     }
 
+    @Override
+    public void encodeBooleanArray ( final IoBuffer buffer, final byte fieldNumber, final boolean[] data ) throws Exception
+    {
+        buffer.put ( fieldNumber );
+        if ( data != null )
+        {
+            buffer.put ( TYPE_BOOLEAN_LIST );
+            buffer.putInt ( data.length );
+            for ( int i = 0; i < data.length; i++ )
+            {
+                buffer.put ( data[i] ? (byte)0xFF : (byte)0x00 );
+            }
+        }
+        else
+        {
+            buffer.put ( TYPE_NULL );
+        }
+    }
+
+    @Override
+    public boolean[] decodeBooleanArray ( final IoBuffer buffer ) throws Exception
+    {
+        final byte type = checkType ( buffer, TYPE_BOOLEAN_LIST, true );
+
+        if ( type == TYPE_NULL )
+        {
+            return null;
+        }
+        else
+        {
+            final int items = buffer.getInt ();
+            final boolean[] result = new boolean[items];
+            for ( int i = 0; i < items; i++ )
+            {
+                result[i] = buffer.get () != (byte)0x00;
+            }
+            return result;
+        }
+    }
+
     // double
 
     @Override
@@ -669,6 +812,46 @@ public class DefaultBinaryContext implements BinaryContext
         return decodeDoubleCollection ( buffer, ALLOC_DOUBLE_SET );
     }
 
+    @Override
+    public void encodeDoubleArray ( final IoBuffer buffer, final byte fieldNumber, final double[] data ) throws Exception
+    {
+        buffer.put ( fieldNumber );
+        if ( data != null )
+        {
+            buffer.put ( TYPE_DOUBLE_LIST );
+            buffer.putInt ( data.length );
+            for ( int i = 0; i < data.length; i++ )
+            {
+                buffer.putDouble ( data[i] );
+            }
+        }
+        else
+        {
+            buffer.put ( TYPE_NULL );
+        }
+    }
+
+    @Override
+    public double[] decodeDoubleArray ( final IoBuffer buffer ) throws Exception
+    {
+        final byte type = checkType ( buffer, TYPE_DOUBLE_LIST, true );
+
+        if ( type == TYPE_NULL )
+        {
+            return null;
+        }
+        else
+        {
+            final int items = buffer.getInt ();
+            final double[] result = new double[items];
+            for ( int i = 0; i < items; i++ )
+            {
+                result[i] = buffer.getDouble ();
+            }
+            return result;
+        }
+    }
+
     // variant
 
     private void inlineEncodeVariant ( final IoBuffer buffer, final Variant variant ) throws Exception
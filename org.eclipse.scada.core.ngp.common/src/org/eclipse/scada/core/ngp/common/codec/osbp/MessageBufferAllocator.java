@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.core.ngp.common.codec.osbp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Allocates the buffers for encoding messages
+ * <p>
+ * The allocator remembers the encoded size of each message type and allocates
+ * new buffers with that size, so that the buffer does not have to grow (and
+ * be copied) while the message gets encoded. The estimate follows larger
+ * messages immediately and shrinks slowly when messages get smaller again.
+ * </p>
+ */
+public class MessageBufferAllocator
+{
+    private static final int MIN_SIZE = Integer.getInteger ( "org.eclipse.scada.core.ngp.common.codec.osbp.minBufferSize", 64 );
+
+    private static final int MAX_SIZE = Integer.getInteger ( "org.eclipse.scada.core.ngp.common.codec.osbp.maxBufferSize", 1024 * 1024 );
+
+    private static final boolean DIRECT = Boolean.getBoolean ( "org.eclipse.scada.core.ngp.common.codec.osbp.directBuffers" );
+
+    private final ConcurrentMap<Integer, AtomicInteger> estimates = new ConcurrentHashMap<Integer, AtomicInteger> ();
+
+    private final boolean direct;
+
+    public MessageBufferAllocator ( final boolean direct )
+    {
+        this.direct = direct;
+    }
+
+    public MessageBufferAllocator ()
+    {
+        this ( DIRECT );
+    }
+
+    /**
+     * Allocate a new buffer for encoding a message
+     *
+     * @param messageCode
+     *            the code of the message to encode
+     * @return a new, auto expanding buffer
+     */
+    public IoBuffer allocate ( final int messageCode )
+    {
+        final AtomicInteger estimate = this.estimates.get ( messageCode );
+
+        final IoBuffer data = IoBuffer.allocate ( estimate == null ? MIN_SIZE : estimate.get (), this.direct );
+        data.setAutoExpand ( true );
+        return data;
+    }
+
+    /**
+     * Record the size of an encoded message
+     *
+     * @param messageCode
+     *            the code of the encoded message
+     * @param size
+     *            the number of bytes the message took
+     */
+    public void encoded ( final int messageCode, final int size )
+    {
+        AtomicInteger estimate = this.estimates.get ( messageCode );
+        if ( estimate == null )
+        {
+            final AtomicInteger newEstimate = new AtomicInteger ( MIN_SIZE );
+            estimate = this.estimates.putIfAbsent ( messageCode, newEstimate );
+            if ( estimate == null )
+            {
+                estimate = newEstimate;
+            }
+        }
+
+        final int target = Math.max ( MIN_SIZE, Math.min ( MAX_SIZE, size ) );
+
+        while ( true )
+        {
+            final int current = estimate.get ();
+
+            final int next;
+            if ( target >= current )
+            {
+                next = target;
+            }
+            else
+            {
+                // decay by one eighth of the difference
+                next = current - Math.max ( 1, ( current - target ) / 8 );
+            }
+
+            if ( next == current || estimate.compareAndSet ( current, next ) )
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the current estimate for a message type
+     *
+     * @param messageCode
+     *            the message code
+     * @return the number of bytes a new buffer for this message type will
+     *         have
+     */
+    public int getEstimate ( final int messageCode )
+    {
+        final AtomicInteger estimate = this.estimates.get ( messageCode );
+        return estimate == null ? MIN_SIZE : estimate.get ();
+    }
+}
@@ -15,4 +15,10 @@ public interface Features
     public static final String FEATURE_SESSION_PRIVILEGES = "feature.core.session.privileges";
 
     public static final String FEATURE_CALLBACKS = "feature.core.callbacks";
+
+    /**
+     * The client is able to receive multiple DA item data updates in one
+     * batch message
+     */
+    public static final String FEATURE_DA_BATCH_UPDATES = "feature.da.updates.batch";
 }
@@ -89,8 +89,7 @@ public class CreateSession implements BinaryMessageCodec
     {
         final org.eclipse.scada.core.data.message.CreateSession value = (org.eclipse.scada.core.data.message.CreateSession)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -101,8 +101,7 @@ public class RequestCallbacks implements BinaryMessageCodec
     {
         final org.eclipse.scada.core.data.message.RequestCallbacks value = (org.eclipse.scada.core.data.message.RequestCallbacks)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -95,8 +95,7 @@ public class RespondCallbacks implements BinaryMessageCodec
     {
         final org.eclipse.scada.core.data.message.RespondCallbacks value = (org.eclipse.scada.core.data.message.RespondCallbacks)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
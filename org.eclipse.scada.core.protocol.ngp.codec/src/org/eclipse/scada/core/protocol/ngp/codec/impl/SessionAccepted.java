@@ -83,8 +83,7 @@ public class SessionAccepted implements BinaryMessageCodec
     {
         final org.eclipse.scada.core.data.message.SessionAccepted value = (org.eclipse.scada.core.data.message.SessionAccepted)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
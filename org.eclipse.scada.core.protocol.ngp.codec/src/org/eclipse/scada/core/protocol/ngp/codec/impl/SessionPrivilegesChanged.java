@@ -83,8 +83,7 @@ public class SessionPrivilegesChanged implements BinaryMessageCodec
     {
         final org.eclipse.scada.core.data.message.SessionPrivilegesChanged value = (org.eclipse.scada.core.data.message.SessionPrivilegesChanged)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -83,8 +83,7 @@ public class SessionRejected implements BinaryMessageCodec
     {
         final org.eclipse.scada.core.data.message.SessionRejected value = (org.eclipse.scada.core.data.message.SessionRejected)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
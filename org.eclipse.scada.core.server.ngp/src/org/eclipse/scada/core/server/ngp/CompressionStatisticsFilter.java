@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.core.server.ngp;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.filterchain.IoFilterChain.Entry;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.filter.compression.CompressionFilter;
+import org.eclipse.scada.utils.stats.StatisticsImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the effect of the stream compression of a session
+ * <p>
+ * One instance is placed on each side of the compression filter which was
+ * negotiated by the message channel. The outer one sees the uncompressed data
+ * and the inner one the compressed data. The time between passing both filters
+ * is the time spent for compressing or decompressing.
+ * </p>
+ */
+public class CompressionStatisticsFilter extends IoFilterAdapter
+{
+    private final static Logger logger = LoggerFactory.getLogger ( CompressionStatisticsFilter.class );
+
+    private static final Object STATS_BYTES_WRITTEN_UNCOMPRESSED = new Object ();
+
+    private static final Object STATS_BYTES_WRITTEN_SAVED = new Object ();
+
+    private static final Object STATS_COMPRESSION_TIME = new Object ();
+
+    private static final Object STATS_BYTES_RECEIVED_UNCOMPRESSED = new Object ();
+
+    private static final Object STATS_BYTES_RECEIVED_SAVED = new Object ();
+
+    private static final Object STATS_DECOMPRESSION_TIME = new Object ();
+
+    /**
+     * The start of the current compression or decompression, filters are
+     * called by the thread which writes or receives the data
+     */
+    private static final ThreadLocal<long[]> START = new ThreadLocal<long[]> () {
+        @Override
+        protected long[] initialValue ()
+        {
+            return new long[2];
+        }
+    };
+
+    private static final int WRITE = 0;
+
+    private static final int RECEIVE = 1;
+
+    private final StatisticsImpl statistics;
+
+    private final boolean compressed;
+
+    private CompressionStatisticsFilter ( final StatisticsImpl statistics, final boolean compressed )
+    {
+        this.statistics = statistics;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Add the statistics filters to the session if the session uses
+     * compression
+     * <p>
+     * Must be called after the message channel completed the handshake,
+     * since the compression filter is added during the handshake.
+     * </p>
+     *
+     * @param session
+     *            the session to check
+     * @param statistics
+     *            the statistics to record to
+     * @return <code>true</code> if the session uses compression
+     */
+    public static boolean install ( final IoSession session, final StatisticsImpl statistics )
+    {
+        final IoFilterChain chain = session.getFilterChain ();
+
+        final Entry entry = chain.getEntry ( CompressionFilter.class );
+        if ( entry == null )
+        {
+            logger.debug ( "Session {} is not compressed", session );
+            return false;
+        }
+
+        logger.debug ( "Recording compression statistics for session {}", session );
+
+        statistics.setLabel ( STATS_BYTES_WRITTEN_UNCOMPRESSED, "Bytes written before compression" );
+        statistics.setLabel ( STATS_BYTES_WRITTEN_SAVED, "Bytes saved by compression when writing" );
+        statistics.setLabel ( STATS_COMPRESSION_TIME, "Compression time (ms)" );
+        statistics.setLabel ( STATS_BYTES_RECEIVED_UNCOMPRESSED, "Bytes received after decompression" );
+        statistics.setLabel ( STATS_BYTES_RECEIVED_SAVED, "Bytes saved by compression when receiving" );
+        statistics.setLabel ( STATS_DECOMPRESSION_TIME, "Decompression time (ms)" );
+
+        // the head of the chain is the network side
+        chain.addBefore ( entry.getName (), entry.getName () + ".stats.compressed", new CompressionStatisticsFilter ( statistics, true ) );
+        chain.addAfter ( entry.getName (), entry.getName () + ".stats.uncompressed", new CompressionStatisticsFilter ( statistics, false ) );
+
+        return true;
+    }
+
+    @Override
+    public void filterWrite ( final NextFilter nextFilter, final IoSession session, final WriteRequest writeRequest ) throws Exception
+    {
+        final Object message = writeRequest.getMessage ();
+        if ( message instanceof IoBuffer )
+        {
+            final int size = ( (IoBuffer)message ).remaining ();
+            final long[] start = START.get ();
+
+            if ( this.compressed )
+            {
+                if ( start[WRITE] != 0 )
+                {
+                    this.statistics.changeCurrentValue ( STATS_COMPRESSION_TIME, ( System.nanoTime () - start[WRITE] ) / 1000000.0 );
+                    start[WRITE] = 0;
+                }
+                this.statistics.changeCurrentValue ( STATS_BYTES_WRITTEN_SAVED, -size );
+            }
+            else
+            {
+                this.statistics.changeCurrentValue ( STATS_BYTES_WRITTEN_UNCOMPRESSED, size );
+                this.statistics.changeCurrentValue ( STATS_BYTES_WRITTEN_SAVED, size );
+                start[WRITE] = System.nanoTime ();
+            }
+        }
+
+        nextFilter.filterWrite ( session, writeRequest );
+    }
+
+    @Override
+    public void messageReceived ( final NextFilter nextFilter, final IoSession session, final Object message ) throws Exception
+    {
+        if ( message instanceof IoBuffer )
+        {
+            final int size = ( (IoBuffer)message ).remaining ();
+            final long[] start = START.get ();
+
+            if ( this.compressed )
+            {
+                this.statistics.changeCurrentValue ( STATS_BYTES_RECEIVED_SAVED, -size );
+                start[RECEIVE] = System.nanoTime ();
+            }
+            else
+            {
+                if ( start[RECEIVE] != 0 )
+                {
+                    this.statistics.changeCurrentValue ( STATS_DECOMPRESSION_TIME, ( System.nanoTime () - start[RECEIVE] ) / 1000000.0 );
+                    start[RECEIVE] = 0;
+                }
+                this.statistics.changeCurrentValue ( STATS_BYTES_RECEIVED_UNCOMPRESSED, size );
+                this.statistics.changeCurrentValue ( STATS_BYTES_RECEIVED_SAVED, size );
+            }
+        }
+
+        nextFilter.messageReceived ( session, message );
+    }
+}
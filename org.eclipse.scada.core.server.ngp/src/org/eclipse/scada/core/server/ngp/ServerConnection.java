@@ -9,6 +9,7 @@
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - record closing state to allow lingering close
+ *     IBH SYSTEMS GmbH - record compression statistics
  *******************************************************************************/
 package org.eclipse.scada.core.server.ngp;
 
@@ -47,6 +48,8 @@ public abstract class ServerConnection
 
     private final AtomicBoolean closing = new AtomicBoolean ( false );
 
+    private boolean handshakeCompleted;
+
     public ServerConnection ( final IoSession session )
     {
         logger.info ( "Creating new server connection: {}", session );
@@ -133,9 +136,25 @@ public abstract class ServerConnection
         logger.trace ( "Message received: {}", message );
 
         this.statistics.changeCurrentValue ( STATS_MESSAGES_RECEIVED, 1 );
+
+        if ( !this.handshakeCompleted )
+        {
+            // the first message is only received after the handshake
+            this.handshakeCompleted = true;
+            handleHandshakeCompleted ();
+        }
+
         messageReceived ( message );
     }
 
+    private void handleHandshakeCompleted ()
+    {
+        if ( !Boolean.getBoolean ( "org.eclipse.scada.core.server.ngp.disableCompressionStats" ) )
+        {
+            CompressionStatisticsFilter.install ( this.session, this.statistics );
+        }
+    }
+
     public SSLSession getSslSession ()
     {
         final IoSession session = this.session;
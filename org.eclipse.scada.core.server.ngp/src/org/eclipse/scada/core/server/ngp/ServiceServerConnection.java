@@ -116,6 +116,8 @@ public abstract class ServiceServerConnection<T extends Session, S extends Servi
             this.enableCallbacks = message.getProperties ().containsKey ( Features.FEATURE_CALLBACKS );
             logger.info ( "Enable callbacks: {}", this.enableCallbacks ); //$NON-NLS-1$
 
+            handleFeatures ( message.getProperties () );
+
             this.logonInProgress = true;
 
             final CallbackHandler callbackHandler;
@@ -152,6 +154,20 @@ public abstract class ServiceServerConnection<T extends Session, S extends Servi
         }
     }
 
+    /**
+     * Check the session properties for features the client announced
+     * <p>
+     * Called once when the client requests a session, before the session is
+     * created.
+     * </p>
+     *
+     * @param properties
+     *            the properties of the create session request
+     */
+    protected void handleFeatures ( final Map<String, String> properties )
+    {
+    }
+
     private CallbackHandler createCallbackHandlerFromMessage ( final CreateSession message )
     {
         if ( message.getProperties ().containsKey ( "user" ) && message.getProperties ().containsKey ( "password" ) )
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.core.subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.scada.core.data.SubscriptionState;
+
+/**
+ * Compare the subscribe/unsubscribe throughput of the
+ * {@link SubscriptionManager} and the {@link ConcurrentSubscriptionManager}
+ * <p>
+ * This is not run as part of the unit tests. Run the main method from the
+ * IDE, passing the number of threads, topics and rounds as optional arguments.
+ * </p>
+ */
+public class SubscriptionManagerBenchmark
+{
+    private static interface Target
+    {
+        public void subscribe ( String topic, SubscriptionListener<String> listener ) throws Exception;
+
+        public void unsubscribe ( String topic, SubscriptionListener<String> listener );
+    }
+
+    private static class Listener implements SubscriptionListener<String>
+    {
+        @Override
+        public void updateStatus ( final String topic, final SubscriptionState subscriptionState )
+        {
+        }
+    }
+
+    private static Target makeSynchronized ()
+    {
+        final SubscriptionManager<String> manager = new SubscriptionManager<String> ();
+        return new Target () {
+
+            @Override
+            public void subscribe ( final String topic, final SubscriptionListener<String> listener ) throws Exception
+            {
+                manager.subscribe ( topic, listener );
+            }
+
+            @Override
+            public void unsubscribe ( final String topic, final SubscriptionListener<String> listener )
+            {
+                manager.unsubscribe ( topic, listener );
+            }
+        };
+    }
+
+    private static Target makeConcurrent ()
+    {
+        final ConcurrentSubscriptionManager<String> manager = new ConcurrentSubscriptionManager<String> ();
+        return new Target () {
+
+            @Override
+            public void subscribe ( final String topic, final SubscriptionListener<String> listener ) throws Exception
+            {
+                manager.subscribe ( topic, listener );
+            }
+
+            @Override
+            public void unsubscribe ( final String topic, final SubscriptionListener<String> listener )
+            {
+                manager.unsubscribe ( topic, listener );
+            }
+        };
+    }
+
+    /**
+     * Run one round
+     *
+     * @return the number of operations per second
+     */
+    private static double run ( final Target target, final int threads, final String[] topics ) throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool ( threads );
+        try
+        {
+            final CountDownLatch start = new CountDownLatch ( 1 );
+            final List<Future<Void>> futures = new ArrayList<Future<Void>> ( threads );
+
+            for ( int i = 0; i < threads; i++ )
+            {
+                futures.add ( executor.submit ( new Callable<Void> () {
+
+                    @Override
+                    public Void call () throws Exception
+                    {
+                        final Listener listener = new Listener ();
+                        start.await ();
+                        for ( final String topic : topics )
+                        {
+                            target.subscribe ( topic, listener );
+                        }
+                        for ( final String topic : topics )
+                        {
+                            target.unsubscribe ( topic, listener );
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+
+            final long begin = System.nanoTime ();
+            start.countDown ();
+            for ( final Future<Void> future : futures )
+            {
+                future.get ();
+            }
+            final long duration = System.nanoTime () - begin;
+
+            return 2.0 * threads * topics.length / ( duration / 1_000_000_000.0 );
+        }
+        finally
+        {
+            executor.shutdown ();
+        }
+    }
+
+    private static void measure ( final String name, final Target target, final int threads, final String[] topics, final int rounds ) throws Exception
+    {
+        // warm up
+        for ( int i = 0; i < Math.max ( 1, rounds / 2 ); i++ )
+        {
+            run ( target, threads, topics );
+        }
+
+        double sum = 0;
+        for ( int i = 0; i < rounds; i++ )
+        {
+            sum += run ( target, threads, topics );
+        }
+
+        System.out.format ( "%-15s threads: %3d, topics: %7d - %,15.0f ops/s%n", name, threads, topics.length, sum / rounds );
+    }
+
+    public static void main ( final String[] args ) throws Exception
+    {
+        final int threads = args.length > 0 ? Integer.parseInt ( args[0] ) : Runtime.getRuntime ().availableProcessors ();
+        final int numberOfTopics = args.length > 1 ? Integer.parseInt ( args[1] ) : 200_000;
+        final int rounds = args.length > 2 ? Integer.parseInt ( args[2] ) : 10;
+
+        final String[] topics = new String[numberOfTopics];
+        for ( int i = 0; i < numberOfTopics; i++ )
+        {
+            topics[i] = "item." + i;
+        }
+
+        for ( final int t : new int[] { 1, threads } )
+        {
+            measure ( "synchronized", makeSynchronized (), t, topics, rounds );
+            measure ( "concurrent", makeConcurrent (), t, topics, rounds );
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.core.subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.scada.core.data.SubscriptionState;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ConcurrentSubscriptionManager}
+ */
+public class Test3
+{
+    private static class CountingManager extends ConcurrentSubscriptionManager<String>
+    {
+        private final AtomicInteger added = new AtomicInteger ();
+
+        private final AtomicInteger removed = new AtomicInteger ();
+
+        @Override
+        protected void topicSubscriptionAdded ( final String topic )
+        {
+            this.added.incrementAndGet ();
+        }
+
+        @Override
+        protected void topicSubscriptionRemoved ( final String topic )
+        {
+            this.removed.incrementAndGet ();
+        }
+    }
+
+    /**
+     * Perform a subscribe/set/unset/unsubscribe sequence
+     */
+    @Test
+    public void test1 () throws Exception
+    {
+        final CountingManager manager = new CountingManager ();
+        final SubscriptionRecorder<String> recorder = new SubscriptionRecorder<String> ();
+        final SubscriptionSourceTestImpl<String> source = new SubscriptionSourceTestImpl<String> ();
+
+        manager.subscribe ( "", recorder );
+        manager.setSource ( "", source );
+        Assert.assertTrue ( manager.getAllGrantedTopics ().isEmpty () );
+        manager.setSource ( "", null );
+        Assert.assertEquals ( 1, manager.getAllGrantedTopics ().size () );
+        manager.unsubscribe ( "", recorder );
+
+        Assert.assertArrayEquals ( "Events are not the same", new Object[] { new SubscriptionStateEvent ( SubscriptionState.GRANTED ), new SubscriptionStateEvent ( SubscriptionState.CONNECTED ), new SubscriptionSourceEvent<String> ( true, source ), new SubscriptionSourceEvent<String> ( false, source ), new SubscriptionStateEvent ( SubscriptionState.GRANTED ), new SubscriptionStateEvent ( SubscriptionState.DISCONNECTED ) }, recorder.getList ().toArray ( new Object[0] ) );
+
+        Assert.assertEquals ( "Number of subscriptions does not match", 0, manager.getSubscriptionCount () );
+        Assert.assertEquals ( 1, manager.added.get () );
+        Assert.assertEquals ( 1, manager.removed.get () );
+    }
+
+    /**
+     * Subscribe and unsubscribe the same topics from many threads
+     */
+    @Test
+    public void test2 () throws Exception
+    {
+        final CountingManager manager = new CountingManager ();
+        final int threads = 8;
+        final int topics = 16;
+        final int iterations = 10000;
+
+        final ExecutorService executor = Executors.newFixedThreadPool ( threads );
+        try
+        {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>> ();
+            for ( int i = 0; i < threads; i++ )
+            {
+                futures.add ( executor.submit ( new Callable<Void> () {
+
+                    @Override
+                    public Void call () throws Exception
+                    {
+                        final SubscriptionListener<String> listener = new SubscriptionListener<String> () {
+
+                            @Override
+                            public void updateStatus ( final String topic, final SubscriptionState subscriptionState )
+                            {
+                            }
+                        };
+                        for ( int j = 0; j < iterations; j++ )
+                        {
+                            final String topic = "topic" + j % topics;
+                            manager.subscribe ( topic, listener );
+                            manager.unsubscribe ( topic, listener );
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            for ( final Future<Void> future : futures )
+            {
+                future.get ();
+            }
+        }
+        finally
+        {
+            executor.shutdown ();
+        }
+
+        Assert.assertEquals ( "Number of subscriptions does not match", 0, manager.getSubscriptionCount () );
+        Assert.assertEquals ( "Added and removed events must match", manager.added.get (), manager.removed.get () );
+    }
+}
@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.core.subscription;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Manage subscriptions concurrently.
+ * <p>
+ * This implementation provides the same functionality as the
+ * {@link SubscriptionManager}, but does not use a single monitor for all
+ * topics. Subscriptions are held in a concurrent map and each topic is locked
+ * on its own. So operations on different topics can run in parallel.
+ * </p>
+ * <p>
+ * The life cycle of a topic (creating the subscription, attaching listeners
+ * and sources, calling {@link #topicSubscriptionAdded(Object)} and
+ * {@link #topicSubscriptionRemoved(Object)} and removing the empty
+ * subscription) is atomic per topic. The two callbacks are called while
+ * holding the lock of the topic, but may be called concurrently for different
+ * topics.
+ * </p>
+ *
+ * @param T
+ *            the type of the topic
+ */
+public class ConcurrentSubscriptionManager<T>
+{
+    private static final class Entry<T>
+    {
+        private final Subscription<T> subscription;
+
+        /**
+         * Set when the entry was removed from the map. Guarded by the monitor
+         * of the entry.
+         */
+        private boolean disposed;
+
+        public Entry ( final T topic )
+        {
+            this.subscription = new Subscription<T> ( topic );
+        }
+    }
+
+    private final ConcurrentMap<T, Entry<T>> subscriptions = new ConcurrentHashMap<T, Entry<T>> ();
+
+    private final SubscriptionValidator<T> validator;
+
+    public ConcurrentSubscriptionManager ( final SubscriptionValidator<T> validator )
+    {
+        this.validator = validator;
+    }
+
+    public ConcurrentSubscriptionManager ()
+    {
+        this.validator = null;
+    }
+
+    /**
+     * Get the entry of a topic, creating a new one if there is none
+     */
+    private Entry<T> getOrCreate ( final T topic )
+    {
+        Entry<T> entry = this.subscriptions.get ( topic );
+        if ( entry == null )
+        {
+            final Entry<T> newEntry = new Entry<T> ( topic );
+            entry = this.subscriptions.putIfAbsent ( topic, newEntry );
+            if ( entry == null )
+            {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Remove the entry if it is empty
+     * <p>
+     * Must be called while holding the lock of the entry
+     * </p>
+     */
+    private void checkRemove ( final T topic, final Entry<T> entry )
+    {
+        if ( entry.subscription.isEmpty () )
+        {
+            entry.disposed = true;
+            this.subscriptions.remove ( topic, entry );
+        }
+    }
+
+    /**
+     * Unsubscribe from all subscriptions that the listener has subscribed to
+     *
+     * @param listener
+     *            the listener to unsubscribe
+     */
+    public void unsubscribeAll ( final SubscriptionListener<T> listener )
+    {
+        for ( final Map.Entry<T, Entry<T>> mapEntry : this.subscriptions.entrySet () )
+        {
+            unsubscribe ( mapEntry.getKey (), mapEntry.getValue (), listener );
+        }
+    }
+
+    /**
+     * Subscribe to a topic.
+     *
+     * @param topic
+     *            The topic to which the subscription should be made
+     * @param listener
+     *            The listener which will receive the events
+     * @throws ValidationException
+     *             thrown if the subscription cannot be established (e.g. the
+     *             topic is invalid)
+     */
+    public void subscribe ( final T topic, final SubscriptionListener<T> listener ) throws ValidationException
+    {
+        subscribe ( topic, listener, null );
+    }
+
+    /**
+     * Subscribe to a topic with a hint
+     *
+     * @param topic
+     *            The topic to which the subscription should be made
+     * @param listener
+     *            The listener which will receive the events
+     * @param hint
+     *            The hint is specific to the topic
+     * @throws ValidationException
+     *             thrown if the subscription cannot be established (e.g. the
+     *             topic is invalid)
+     */
+    public void subscribe ( final T topic, final SubscriptionListener<T> listener, final Object hint ) throws ValidationException
+    {
+        // If we have a validator then do validate
+        if ( this.validator != null )
+        {
+            if ( !this.validator.validate ( listener, topic ) )
+            {
+                throw new ValidationException ();
+            }
+        }
+
+        while ( true )
+        {
+            final Entry<T> entry = getOrCreate ( topic );
+            synchronized ( entry )
+            {
+                if ( entry.disposed )
+                {
+                    // removed in the meantime, try again
+                    continue;
+                }
+
+                final Subscription<T> s = entry.subscription;
+                final boolean wasSubscribed = s.isSubscribed ();
+
+                s.subscribe ( listener, hint );
+
+                if ( !wasSubscribed && s.isSubscribed () )
+                {
+                    topicSubscriptionAdded ( topic );
+                }
+                return;
+            }
+        }
+    }
+
+    public void unsubscribe ( final T topic, final SubscriptionListener<T> listener )
+    {
+        final Entry<T> entry = this.subscriptions.get ( topic );
+        if ( entry == null )
+        {
+            return;
+        }
+
+        unsubscribe ( topic, entry, listener );
+    }
+
+    private void unsubscribe ( final T topic, final Entry<T> entry, final SubscriptionListener<T> listener )
+    {
+        synchronized ( entry )
+        {
+            if ( entry.disposed )
+            {
+                // an entry gets only disposed when it is empty
+                return;
+            }
+
+            final Subscription<T> s = entry.subscription;
+            final boolean wasSubscribed = s.isSubscribed ();
+
+            s.unsubscribe ( listener );
+
+            if ( wasSubscribed && !s.isSubscribed () )
+            {
+                topicSubscriptionRemoved ( topic );
+            }
+
+            // if the subscription is empty we can erase it
+            checkRemove ( topic, entry );
+        }
+    }
+
+    /**
+     * Gets called when somebody subscribed to a topic that was not subscribed
+     * before
+     *
+     * @param topic
+     *            the topic
+     */
+    protected void topicSubscriptionAdded ( final T topic )
+    {
+    }
+
+    /**
+     * Get called when somebody unsubscribed from a topic and it was the last
+     * subscription
+     *
+     * @param topic
+     *            the topic
+     */
+    protected void topicSubscriptionRemoved ( final T topic )
+    {
+    }
+
+    /**
+     * Set a source for a topic.
+     * This will cause all granted subscriptions to switch to connected for this
+     * source
+     *
+     * @param topic
+     *            the topic
+     * @param source
+     *            the source to set
+     */
+    public void setSource ( final T topic, final SubscriptionSource<T> source )
+    {
+        while ( true )
+        {
+            final Entry<T> entry;
+            if ( source == null )
+            {
+                entry = this.subscriptions.get ( topic );
+                if ( entry == null )
+                {
+                    return;
+                }
+            }
+            else
+            {
+                entry = getOrCreate ( topic );
+            }
+
+            synchronized ( entry )
+            {
+                if ( entry.disposed )
+                {
+                    if ( source == null )
+                    {
+                        // nothing to reset
+                        return;
+                    }
+                    continue;
+                }
+
+                entry.subscription.setSource ( source );
+
+                checkRemove ( topic, entry );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the number of subscriptions currently registered
+     *
+     * @return the number of subscriptions
+     */
+    public int getSubscriptionCount ()
+    {
+        return this.subscriptions.size ();
+    }
+
+    /**
+     * Get all topics whose subscription is in granted state.
+     * <p>
+     * The result is not an atomic snapshot of all topics, but reflects the
+     * state of each topic at the time it was visited.
+     * </p>
+     *
+     * @return The list of topics whose subscription is in granted state.
+     */
+    public Set<T> getAllGrantedTopics ()
+    {
+        final Set<T> topicList = new HashSet<T> ();
+
+        for ( final Map.Entry<T, Entry<T>> entry : this.subscriptions.entrySet () )
+        {
+            if ( entry.getValue ().subscription.isGranted () )
+            {
+                topicList.add ( entry.getKey () );
+            }
+        }
+
+        return topicList;
+    }
+}
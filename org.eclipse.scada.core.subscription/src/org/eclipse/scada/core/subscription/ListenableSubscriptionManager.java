@@ -15,24 +15,36 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Listen to the active subscriptions
+ * A subscription manager which notifies listeners about topics being
+ * subscribed and unsubscribed
  * <p>
- * All events are emitted from the domain of the executor
+ * Topic changes of different topics are processed concurrently. Adding a
+ * manager listener is exclusive to topic changes, so that the initial set of
+ * topics reported to a new listener is consistent with the following change
+ * notifications.
  * </p>
- * 
- * @param <T>
- *            The topic type
  */
-public class ListenableSubscriptionManager<T> extends SubscriptionManager<T>
+public class ListenableSubscriptionManager<T> extends ConcurrentSubscriptionManager<T>
 {
     private final Executor executor;
 
-    private final Set<SubscriptionManagerListener<T>> listeners = new HashSet<> ();
+    private final Set<SubscriptionManagerListener<T>> listeners = new CopyOnWriteArraySet<> ();
 
-    private final Set<T> cache = new HashSet<> ();
+    private final Set<T> cache = Collections.newSetFromMap ( new ConcurrentHashMap<T, Boolean> () );
+
+    /**
+     * Topic changes acquire the read lock, changes to the listener set acquire
+     * the write lock
+     */
+    private final ReadWriteLock listenerLock = new ReentrantReadWriteLock ();
 
     public ListenableSubscriptionManager ( final Executor executor )
     {
@@ -50,18 +62,27 @@ public class ListenableSubscriptionManager<T> extends SubscriptionManager<T>
     {
         super.topicSubscriptionAdded ( topic );
 
-        if ( this.cache.add ( topic ) )
+        final Lock lock = this.listenerLock.readLock ();
+        lock.lock ();
+        try
         {
-            final List<SubscriptionManagerListener<T>> listeners = new ArrayList<> ( this.listeners );
+            if ( this.cache.add ( topic ) )
+            {
+                final List<SubscriptionManagerListener<T>> listeners = new ArrayList<> ( this.listeners );
 
-            this.executor.execute ( new Runnable () {
+                this.executor.execute ( new Runnable () {
 
-                @Override
-                public void run ()
-                {
-                    fireAdded ( listeners, Collections.singleton ( topic ) );
-                }
-            } );
+                    @Override
+                    public void run ()
+                    {
+                        fireAdded ( listeners, Collections.singleton ( topic ) );
+                    }
+                } );
+            }
+        }
+        finally
+        {
+            lock.unlock ();
         }
     }
 
@@ -70,18 +91,27 @@ public class ListenableSubscriptionManager<T> extends SubscriptionManager<T>
     {
         super.topicSubscriptionRemoved ( topic );
 
-        if ( this.cache.remove ( topic ) )
+        final Lock lock = this.listenerLock.readLock ();
+        lock.lock ();
+        try
         {
-            final List<SubscriptionManagerListener<T>> listeners = new ArrayList<> ( this.listeners );
+            if ( this.cache.remove ( topic ) )
+            {
+                final List<SubscriptionManagerListener<T>> listeners = new ArrayList<> ( this.listeners );
 
-            this.executor.execute ( new Runnable () {
+                this.executor.execute ( new Runnable () {
 
-                @Override
-                public void run ()
-                {
-                    fireRemoved ( listeners, Collections.singleton ( topic ) );
-                }
-            } );
+                    @Override
+                    public void run ()
+                    {
+                        fireRemoved ( listeners, Collections.singleton ( topic ) );
+                    }
+                } );
+            }
+        }
+        finally
+        {
+            lock.unlock ();
         }
     }
 
@@ -96,26 +126,44 @@ public class ListenableSubscriptionManager<T> extends SubscriptionManager<T>
      * @param listener
      *            the listener to add
      */
-    public synchronized void addManagerListener ( final SubscriptionManagerListener<T> listener )
+    public void addManagerListener ( final SubscriptionManagerListener<T> listener )
     {
-        if ( this.listeners.add ( listener ) )
+        final Lock lock = this.listenerLock.writeLock ();
+        lock.lock ();
+        try
         {
-            final List<SubscriptionManagerListener<T>> listeners = new ArrayList<> ( this.listeners );
-            final Set<T> cache = new HashSet<> ( this.cache );
-            this.executor.execute ( new Runnable () {
-
-                @Override
-                public void run ()
-                {
-                    fireAdded ( listeners, cache );
-                }
-            } );
+            if ( this.listeners.add ( listener ) )
+            {
+                final List<SubscriptionManagerListener<T>> listeners = new ArrayList<> ( this.listeners );
+                final Set<T> cache = new HashSet<> ( this.cache );
+                this.executor.execute ( new Runnable () {
+
+                    @Override
+                    public void run ()
+                    {
+                        fireAdded ( listeners, cache );
+                    }
+                } );
+            }
+        }
+        finally
+        {
+            lock.unlock ();
         }
     }
 
-    public synchronized void removeManagerListener ( final SubscriptionManagerListener<T> listener )
+    public void removeManagerListener ( final SubscriptionManagerListener<T> listener )
     {
-        this.listeners.remove ( listener );
+        final Lock lock = this.listenerLock.writeLock ();
+        lock.lock ();
+        try
+        {
+            this.listeners.remove ( listener );
+        }
+        finally
+        {
+            lock.unlock ();
+        }
     }
 
     protected void fireAdded ( final List<SubscriptionManagerListener<T>> listeners, final Set<T> topic )
@@ -146,14 +194,23 @@ public class ListenableSubscriptionManager<T> extends SubscriptionManager<T>
         }
     }
 
-    public synchronized Set<T> getAllSubscribedTopics ()
+    public Set<T> getAllSubscribedTopics ()
     {
         return new HashSet<> ( this.cache );
     }
 
-    public synchronized void dispose ()
+    public void dispose ()
     {
-        this.cache.clear ();
-        this.listeners.clear ();
+        final Lock lock = this.listenerLock.writeLock ();
+        lock.lock ();
+        try
+        {
+            this.cache.clear ();
+            this.listeners.clear ();
+        }
+        finally
+        {
+            lock.unlock ();
+        }
     }
 }
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.buffer.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.data.SubscriptionState;
+import org.eclipse.scada.da.datasource.data.DataItemValueLight;
+import org.eclipse.scada.da.datasource.data.DataItemValueRange;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ValueLogTest
+{
+    private static final String NODE_ID = "org.eclipse.scada.da.buffer/source1/60000";
+
+    private File directory;
+
+    @Before
+    public void setup () throws IOException
+    {
+        this.directory = File.createTempFile ( "values", "" );
+        this.directory.delete ();
+        this.directory.mkdirs ();
+    }
+
+    @After
+    public void cleanup ()
+    {
+        final File[] files = this.directory.listFiles ();
+        if ( files != null )
+        {
+            for ( final File file : files )
+            {
+                file.delete ();
+            }
+        }
+        this.directory.delete ();
+    }
+
+    private static List<DataItemValueLight> makeValues ( final long now )
+    {
+        return Arrays.asList ( //
+                new DataItemValueLight ( Variant.NULL, SubscriptionState.DISCONNECTED, now - 9000, false, false ), //
+                new DataItemValueLight ( Variant.valueOf ( true ), SubscriptionState.CONNECTED, now - 8000, true, false ), //
+                new DataItemValueLight ( Variant.valueOf ( 42 ), SubscriptionState.CONNECTED, now - 7000, false, true ), //
+                new DataItemValueLight ( Variant.valueOf ( Long.MAX_VALUE ), SubscriptionState.GRANTED, now - 6000, true, true ), //
+                new DataItemValueLight ( Variant.valueOf ( 1.5 ), SubscriptionState.CONNECTED, now - 5000, false, false ), //
+                new DataItemValueLight ( Variant.valueOf ( Double.NaN ), SubscriptionState.CONNECTED, now - 4000, false, false ), //
+                new DataItemValueLight ( Variant.valueOf ( "" ), SubscriptionState.CONNECTED, now - 3000, false, false ), //
+                new DataItemValueLight ( Variant.valueOf ( "\u00e4\u20ac\u0000x" ), SubscriptionState.CONNECTED, now - 2000, false, false ) //
+        );
+    }
+
+    private static void assertValues ( final List<DataItemValueLight> expected, final List<DataItemValueLight> actual )
+    {
+        Assert.assertEquals ( expected, actual );
+
+        // equals does not check the flags
+        for ( int i = 0; i < expected.size (); i++ )
+        {
+            Assert.assertEquals ( expected.get ( i ).isManual (), actual.get ( i ).isManual () );
+            Assert.assertEquals ( expected.get ( i ).isError (), actual.get ( i ).isError () );
+        }
+    }
+
+    private static void cut ( final File file, final long length ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile ( file, "rw" );
+        try
+        {
+            raf.setLength ( raf.length () - length );
+        }
+        finally
+        {
+            raf.close ();
+        }
+    }
+
+    @Test
+    public void testMissingFile () throws Exception
+    {
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+
+        Assert.assertFalse ( log.exists () );
+        Assert.assertTrue ( log.load ().isEmpty () );
+        Assert.assertFalse ( log.getFile ().exists () );
+    }
+
+    @Test
+    public void testFileName () throws Exception
+    {
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+
+        // the node id must not create sub directories
+        Assert.assertEquals ( this.directory, log.getFile ().getParentFile () );
+        Assert.assertEquals ( "org.eclipse.scada.da.buffer%2Fsource1%2F60000.values", log.getFile ().getName () );
+    }
+
+    @Test
+    public void testWriteReopen () throws Exception
+    {
+        final List<DataItemValueLight> values = makeValues ( 100000 );
+
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+        for ( final DataItemValueLight value : values )
+        {
+            Assert.assertFalse ( log.append ( value ) );
+        }
+        log.close ();
+
+        Assert.assertTrue ( log.exists () );
+
+        final ValueLog reopened = new ValueLog ( this.directory, NODE_ID, 100 );
+        assertValues ( values, reopened.load () );
+
+        // appending after reopening continues the file
+        final DataItemValueLight value = new DataItemValueLight ( Variant.valueOf ( 2.5 ), SubscriptionState.CONNECTED, 100000, false, false );
+        reopened.append ( value );
+        reopened.close ();
+
+        final List<DataItemValueLight> result = new ValueLog ( this.directory, NODE_ID, 100 ).load ();
+        Assert.assertEquals ( values.size () + 1, result.size () );
+        Assert.assertEquals ( value, result.get ( values.size () ) );
+    }
+
+    @Test
+    public void testFileFormat () throws Exception
+    {
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+        log.append ( new DataItemValueLight ( Variant.valueOf ( 1.5 ), SubscriptionState.CONNECTED, 1234L, true, false ) );
+        log.append ( new DataItemValueLight ( Variant.valueOf ( "ab" ), SubscriptionState.GRANTED, 1235L, false, true ) );
+        log.close ();
+
+        // magic, two fixed headers, a double and a string
+        Assert.assertEquals ( 4 + 11 + 8 + 11 + 2 + 2, log.getFile ().length () );
+
+        final DataInputStream in = new DataInputStream ( new FileInputStream ( log.getFile () ) );
+        try
+        {
+            Assert.assertEquals ( 0x44424C31, in.readInt () );
+
+            Assert.assertEquals ( 1234L, in.readLong () );
+            Assert.assertEquals ( SubscriptionState.CONNECTED.ordinal (), in.readByte () );
+            Assert.assertEquals ( 1, in.readByte () ); // manual
+            Assert.assertEquals ( 3, in.readByte () ); // double
+            Assert.assertEquals ( 1.5, in.readDouble (), 0.0 );
+
+            Assert.assertEquals ( 1235L, in.readLong () );
+            Assert.assertEquals ( SubscriptionState.GRANTED.ordinal (), in.readByte () );
+            Assert.assertEquals ( 2, in.readByte () ); // error
+            Assert.assertEquals ( 4, in.readByte () ); // string
+            Assert.assertEquals ( "ab", in.readUTF () );
+
+            Assert.assertEquals ( -1, in.read () );
+        }
+        finally
+        {
+            in.close ();
+        }
+    }
+
+    @Test
+    public void testTruncatedRecord () throws Exception
+    {
+        final List<DataItemValueLight> values = makeValues ( 100000 );
+
+        // the last record is a string of 11 + 2 + 8 bytes, cut it at every position
+        for ( int cut = 1; cut < 21; cut++ )
+        {
+            final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+            for ( final DataItemValueLight value : values )
+            {
+                log.append ( value );
+            }
+            log.close ();
+
+            final long length = log.getFile ().length ();
+            cut ( log.getFile (), cut );
+
+            final ValueLog reopened = new ValueLog ( this.directory, NODE_ID, 100 );
+            assertValues ( values.subList ( 0, values.size () - 1 ), reopened.load () );
+
+            // the incomplete record was removed
+            Assert.assertEquals ( length - 21, log.getFile ().length () );
+
+            // new records are appended after the last complete one
+            reopened.append ( values.get ( values.size () - 1 ) );
+            reopened.close ();
+            assertValues ( values, new ValueLog ( this.directory, NODE_ID, 100 ).load () );
+
+            log.getFile ().delete ();
+        }
+    }
+
+    @Test
+    public void testTruncatedHeader () throws Exception
+    {
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+        final DataItemValueLight value = new DataItemValueLight ( Variant.valueOf ( 1 ), SubscriptionState.CONNECTED, 1000L, false, false );
+        log.append ( value );
+        log.close ();
+
+        // only a part of the magic number was written
+        cut ( log.getFile (), log.getFile ().length () - 2 );
+
+        final ValueLog reopened = new ValueLog ( this.directory, NODE_ID, 100 );
+        Assert.assertTrue ( reopened.load ().isEmpty () );
+        Assert.assertEquals ( 0, log.getFile ().length () );
+
+        // the header gets written again
+        reopened.append ( value );
+        reopened.close ();
+        Assert.assertEquals ( Arrays.asList ( value ), new ValueLog ( this.directory, NODE_ID, 100 ).load () );
+    }
+
+    @Test ( expected = IOException.class )
+    public void testInvalidFile () throws Exception
+    {
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+
+        final FileOutputStream out = new FileOutputStream ( log.getFile () );
+        try
+        {
+            out.write ( new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 } );
+        }
+        finally
+        {
+            out.close ();
+        }
+
+        log.load ();
+    }
+
+    @Test
+    public void testCompaction () throws Exception
+    {
+        final List<DataItemValueLight> values = makeValues ( 100000 );
+
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 3 );
+        Assert.assertFalse ( log.append ( values.get ( 0 ) ) );
+        Assert.assertFalse ( log.append ( values.get ( 1 ) ) );
+        Assert.assertTrue ( log.append ( values.get ( 2 ) ) );
+        Assert.assertTrue ( log.append ( values.get ( 3 ) ) );
+
+        final long length = log.getFile ().length ();
+
+        log.compact ( values.subList ( 2, 4 ) );
+
+        Assert.assertTrue ( log.getFile ().length () < length );
+        Assert.assertArrayEquals ( new String[] { log.getFile ().getName () }, this.directory.list () );
+
+        // the compacted values count towards the next compaction
+        Assert.assertTrue ( log.append ( values.get ( 4 ) ) );
+        log.close ();
+
+        assertValues ( values.subList ( 2, 5 ), new ValueLog ( this.directory, NODE_ID, 3 ).load () );
+    }
+
+    @Test
+    public void testCompactionAfterLoad () throws Exception
+    {
+        final List<DataItemValueLight> values = makeValues ( 100000 );
+
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 5 );
+        for ( final DataItemValueLight value : values.subList ( 0, 4 ) )
+        {
+            log.append ( value );
+        }
+        log.close ();
+
+        // the loaded values count towards the compaction
+        final ValueLog reopened = new ValueLog ( this.directory, NODE_ID, 5 );
+        reopened.load ();
+        Assert.assertTrue ( reopened.append ( values.get ( 4 ) ) );
+        reopened.close ();
+    }
+
+    @Test
+    public void testCompactEmpty () throws Exception
+    {
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+        log.compact ( makeValues ( 100000 ) );
+        Assert.assertEquals ( 8, log.load ().size () );
+
+        log.compact ( Arrays.<DataItemValueLight> asList () );
+        Assert.assertTrue ( log.exists () );
+        Assert.assertTrue ( log.load ().isEmpty () );
+    }
+
+    /**
+     * Migrate the values of the data node to the value log, like the buffered
+     * data source does if no value log exists yet
+     */
+    @SuppressWarnings ( "unchecked" )
+    @Test
+    public void testMigration () throws Exception
+    {
+        final long now = System.currentTimeMillis ();
+
+        // the content of the data node, as written by the old persistence
+        final DataItemValueRange oldRange = new DataItemValueRange ( 60000 );
+        oldRange.add ( new DataItemValueLight ( Variant.valueOf ( 0.0 ), SubscriptionState.CONNECTED, 0, false, false ) );
+        for ( final DataItemValueLight value : makeValues ( now ) )
+        {
+            oldRange.add ( value );
+        }
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        final ObjectOutputStream oos = new ObjectOutputStream ( bos );
+        oos.writeObject ( new TreeSet<DataItemValueLight> ( BufferedDataSourceImpl.makeValuesToPersist ( oldRange ) ) );
+        oos.close ();
+
+        // load the data node
+        final SortedSet<DataItemValueLight> initialValues = (SortedSet<DataItemValueLight>)new ObjectInputStream ( new ByteArrayInputStream ( bos.toByteArray () ) ).readObject ();
+        final DataItemValueRange range = new DataItemValueRange ( 60000 );
+        range.add ( new DataItemValueLight ( Variant.NULL, SubscriptionState.CONNECTED, 0, false, false ) );
+        for ( final DataItemValueLight value : initialValues )
+        {
+            range.add ( value );
+        }
+
+        final ValueLog log = new ValueLog ( this.directory, NODE_ID, 100 );
+        Assert.assertFalse ( log.exists () );
+        log.compact ( BufferedDataSourceImpl.makeValuesToPersist ( range ) );
+        Assert.assertTrue ( log.exists () );
+
+        // load the value log after a restart
+        final DataItemValueRange restored = new DataItemValueRange ( 60000 );
+        restored.add ( new DataItemValueLight ( Variant.NULL, SubscriptionState.CONNECTED, 0, false, false ) );
+        for ( final DataItemValueLight value : new ValueLog ( this.directory, NODE_ID, 100 ).load () )
+        {
+            restored.add ( value );
+        }
+
+        Assert.assertEquals ( oldRange.getFirstValue (), restored.getFirstValue () );
+        assertValues ( oldRange.getValues (), restored.getValues () );
+    }
+}
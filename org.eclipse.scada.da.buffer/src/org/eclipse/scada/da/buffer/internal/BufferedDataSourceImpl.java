@@ -7,11 +7,16 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - append only value log
  *******************************************************************************/
 package org.eclipse.scada.da.buffer.internal;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
@@ -31,7 +36,6 @@ import org.eclipse.scada.da.datasource.DataSource;
 import org.eclipse.scada.da.datasource.DataSourceListener;
 import org.eclipse.scada.da.datasource.data.DataItemValueLight;
 import org.eclipse.scada.da.datasource.data.DataItemValueRange;
-import org.eclipse.scada.da.datasource.data.DataItemValueRange.DataItemValueRangeState;
 import org.eclipse.scada.ds.DataListener;
 import org.eclipse.scada.ds.DataNode;
 import org.eclipse.scada.ds.DataNodeTracker;
@@ -47,6 +51,8 @@ public class BufferedDataSourceImpl implements BufferedDataSource, DataListener,
 {
     private final static Logger logger = LoggerFactory.getLogger ( BufferedDataSourceImpl.class );
 
+    private static final int COMPACT_THRESHOLD = Integer.getInteger ( "org.eclipse.scada.da.buffer.valueLog.compactThreshold", 10000 );
+
     private final BundleContext context;
 
     private final ScheduledExecutorService scheduler;
@@ -87,9 +93,16 @@ public class BufferedDataSourceImpl implements BufferedDataSource, DataListener,
 
     private DataSource dataSource;
 
-    public BufferedDataSourceImpl ( final BundleContext context, final ScheduledExecutorService scheduler, final ObjectPoolTracker<DataSource> poolTracker, final DataNodeTracker dataNodeTracker, final String configurationId, final ObjectPoolImpl<BufferedDataSource> objectPool )
+    private final File valueLogDirectory;
+
+    private ValueLog valueLog;
+
+    private boolean compactionPending;
+
+    public BufferedDataSourceImpl ( final BundleContext context, final ScheduledExecutorService scheduler, final ObjectPoolTracker<DataSource> poolTracker, final DataNodeTracker dataNodeTracker, final String configurationId, final ObjectPoolImpl<BufferedDataSource> objectPool, final File valueLogDirectory )
     {
         this.context = context;
+        this.valueLogDirectory = valueLogDirectory;
         this.scheduler = scheduler;
         this.poolTracker = poolTracker;
         this.dataNodeTracker = dataNodeTracker;
@@ -121,6 +134,16 @@ public class BufferedDataSourceImpl implements BufferedDataSource, DataListener,
 
         this.nodeId = cfg.getString ( "node.id", "org.eclipse.scada.da.buffer/" + this.dataSourceId + "/" + this.range );
 
+        if ( this.valueLog != null )
+        {
+            this.valueLog.close ();
+            this.valueLog = null;
+        }
+        if ( this.persistence != Persistence.NONE && this.valueLogDirectory != null )
+        {
+            this.valueLog = new ValueLog ( this.valueLogDirectory, this.nodeId, COMPACT_THRESHOLD );
+        }
+
         // check regularly for any change in status
         this.triggerFuture = this.scheduler.scheduleAtFixedRate ( new Runnable () {
             @Override
@@ -147,8 +170,24 @@ public class BufferedDataSourceImpl implements BufferedDataSource, DataListener,
             }
         } );
         this.dataSourceTracker.open ();
-        if ( this.persistence != Persistence.REQUIRED )
+        if ( this.valueLog != null && this.valueLog.exists () )
         {
+            if ( this.persistence != Persistence.REQUIRED )
+            {
+                addService ();
+            }
+            // load in the background, so that startup is not blocked by reading all buffers
+            this.scheduler.submit ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                    loadValueLog ();
+                }
+            } );
+        }
+        else if ( this.persistence != Persistence.REQUIRED )
+        {
+            // values which were not yet migrated to the value log are read from the data node
             this.dataNodeTracker.addListener ( this.nodeId, this );
             addService ();
         }
@@ -176,9 +215,101 @@ public class BufferedDataSourceImpl implements BufferedDataSource, DataListener,
         }
     }
 
+    private void loadValueLog ()
+    {
+        final ValueLog valueLog = this.valueLog;
+        if ( valueLog == null )
+        {
+            return;
+        }
+
+        try
+        {
+            final List<DataItemValueLight> values = valueLog.load ();
+            logger.debug ( "Loaded {} values from {}", values.size (), valueLog.getFile () );
+            for ( final DataItemValueLight dataItemValue : values )
+            {
+                this.valueRange.add ( dataItemValue );
+            }
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "could not load old persistent values", e );
+        }
+
+        this.initialPersistentValuesLoaded = true;
+        if ( this.persistence == Persistence.REQUIRED )
+        {
+            addService ();
+        }
+
+        sendUpdate ( false );
+    }
+
+    private void compactValueLog ()
+    {
+        final ValueLog valueLog = this.valueLog;
+        if ( valueLog == null )
+        {
+            return;
+        }
+
+        synchronized ( this )
+        {
+            this.compactionPending = false;
+        }
+
+        try
+        {
+            // take the values while holding the log, so that no value gets appended in between
+            synchronized ( valueLog )
+            {
+                valueLog.compact ( makeValuesToPersist ( this.valueRange ) );
+            }
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to compact value log", e );
+        }
+    }
+
+    /**
+     * Make the values to persist, the first value followed by the values in
+     * the range
+     */
+    static List<DataItemValueLight> makeValuesToPersist ( final DataItemValueRange valueRange )
+    {
+        final List<DataItemValueLight> entries = valueRange.getValues ();
+        final List<DataItemValueLight> values = new ArrayList<DataItemValueLight> ( entries.size () + 1 );
+        values.add ( valueRange.getFirstValue () );
+        values.addAll ( entries );
+        return values;
+    }
+
+    private synchronized void scheduleCompaction ()
+    {
+        if ( this.compactionPending )
+        {
+            return;
+        }
+        this.compactionPending = true;
+
+        this.scheduler.submit ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                compactValueLog ();
+            }
+        } );
+    }
+
     public void dispose ()
     {
         removeService ();
+        if ( this.valueLog != null )
+        {
+            this.valueLog.close ();
+        }
         setDataSource ( null );
         if ( this.dataNodeTracker != null )
         {
@@ -218,6 +349,11 @@ public class BufferedDataSourceImpl implements BufferedDataSource, DataListener,
             {
                 addService ();
             }
+            if ( this.valueLog != null && initialValues != null )
+            {
+                // migrate the values to the value log
+                scheduleCompaction ();
+            }
         }
         catch ( final Exception e )
         {
@@ -237,14 +373,27 @@ public class BufferedDataSourceImpl implements BufferedDataSource, DataListener,
     {
         logger.debug ( "State changed - value: {}", value );
 
-        this.valueRange.add ( DataItemValueLight.valueOf ( value ) );
-        if ( this.persistence != Persistence.NONE )
+        final DataItemValueLight valueLight = DataItemValueLight.valueOf ( value );
+        this.valueRange.add ( valueLight );
+        if ( this.valueLog != null )
+        {
+            logger.trace ( "Appending update" );
+            try
+            {
+                if ( this.valueLog.append ( valueLight ) )
+                {
+                    scheduleCompaction ();
+                }
+            }
+            catch ( final IOException e )
+            {
+                logger.warn ( "Failed to append value", e );
+            }
+        }
+        else if ( this.persistence != Persistence.NONE )
         {
             logger.trace ( "Storing update" );
-            final DataItemValueRangeState state = this.valueRange.getState ();
-            final TreeSet<DataItemValueLight> valuesToPersist = new TreeSet<DataItemValueLight> ();
-            valuesToPersist.add ( state.getFirstValue () );
-            valuesToPersist.addAll ( state.getValues () );
+            final TreeSet<DataItemValueLight> valuesToPersist = new TreeSet<DataItemValueLight> ( makeValuesToPersist ( this.valueRange ) );
             this.dataNodeTracker.write ( new DataNode ( this.nodeId, valuesToPersist ) );
         }
 
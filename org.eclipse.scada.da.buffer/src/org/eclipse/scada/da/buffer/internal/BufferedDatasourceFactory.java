@@ -7,9 +7,11 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - append only value log
  *******************************************************************************/
 package org.eclipse.scada.da.buffer.internal;
 
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -43,6 +45,8 @@ public class BufferedDatasourceFactory extends AbstractServiceConfigurationFacto
 
     private DataNodeTracker dataNodeTracker;
 
+    private final File valueLogDirectory;
+
     public BufferedDatasourceFactory ( final BundleContext context, final ScheduledExecutorService executor ) throws InvalidSyntaxException
     {
         super ( context );
@@ -57,6 +61,36 @@ public class BufferedDatasourceFactory extends AbstractServiceConfigurationFacto
 
         this.dataNodeTracker = new DataNodeTracker ( context );
         this.dataNodeTracker.open ();
+
+        this.valueLogDirectory = makeValueLogDirectory ( context );
+        logger.info ( "Storing buffered values in: {}", this.valueLogDirectory );
+    }
+
+    /**
+     * @return the directory for the value logs or <code>null</code> if the
+     *         values are stored in data nodes
+     */
+    private static File makeValueLogDirectory ( final BundleContext context )
+    {
+        if ( !Boolean.parseBoolean ( System.getProperty ( "org.eclipse.scada.da.buffer.valueLog", "true" ) ) )
+        {
+            return null;
+        }
+
+        final String directory = System.getProperty ( "org.eclipse.scada.da.buffer.valueLog.directory" );
+        final File result = directory != null && !directory.isEmpty () ? new File ( directory ) : context.getDataFile ( "values" );
+        if ( result == null )
+        {
+            return null;
+        }
+
+        if ( !result.isDirectory () && !result.mkdirs () )
+        {
+            logger.warn ( "Unable to create value log directory: {}", result );
+            return null;
+        }
+
+        return result;
     }
 
     @Override
@@ -74,7 +108,7 @@ public class BufferedDatasourceFactory extends AbstractServiceConfigurationFacto
     {
         logger.debug ( "Creating new change counter source: {}", configurationId );
 
-        final BufferedDataSourceImpl source = new BufferedDataSourceImpl ( this.context, this.executor, this.poolTracker, this.dataNodeTracker, configurationId, objectPool );
+        final BufferedDataSourceImpl source = new BufferedDataSourceImpl ( this.context, this.executor, this.poolTracker, this.dataNodeTracker, configurationId, this.objectPool, this.valueLogDirectory );
         source.update ( parameters );
 
         return new Entry<BufferedDataSource> ( configurationId, source );
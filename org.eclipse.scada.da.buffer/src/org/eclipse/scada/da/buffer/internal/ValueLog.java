@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.buffer.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.VariantType;
+import org.eclipse.scada.core.data.SubscriptionState;
+import org.eclipse.scada.da.datasource.data.DataItemValueLight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append only file of buffered values
+ * <p>
+ * Each value is stored as a fixed size record of the timestamp, the state and
+ * the value as primitive number. Only strings use a variable size. New values
+ * are appended, the file gets rewritten with the current values only after a
+ * number of values were appended.
+ * </p>
+ * <p>
+ * A record which was not written completely, e.g. because of a crash, is
+ * discarded when the file is read.
+ * </p>
+ */
+class ValueLog
+{
+    private final static Logger logger = LoggerFactory.getLogger ( ValueLog.class );
+
+    private static final int MAGIC = 0x44424C31;
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_BOOLEAN = 1;
+
+    private static final byte TYPE_LONG = 2;
+
+    private static final byte TYPE_DOUBLE = 3;
+
+    private static final byte TYPE_STRING = 4;
+
+    private static final byte TYPE_INTEGER = 5;
+
+    private static final byte FLAG_MANUAL = 1;
+
+    private static final byte FLAG_ERROR = 2;
+
+    private static final SubscriptionState[] STATES = SubscriptionState.values ();
+
+    private final File file;
+
+    private final int compactThreshold;
+
+    private DataOutputStream out;
+
+    private int appended;
+
+    public ValueLog ( final File directory, final String nodeId, final int compactThreshold )
+    {
+        this.file = new File ( directory, encode ( nodeId ) + ".values" );
+        this.compactThreshold = compactThreshold;
+    }
+
+    private static String encode ( final String nodeId )
+    {
+        try
+        {
+            return URLEncoder.encode ( nodeId, "UTF-8" );
+        }
+        catch ( final UnsupportedEncodingException e )
+        {
+            // UTF-8 is always present
+            throw new RuntimeException ( e );
+        }
+    }
+
+    public File getFile ()
+    {
+        return this.file;
+    }
+
+    public boolean exists ()
+    {
+        return this.file.isFile ();
+    }
+
+    /**
+     * Read all values
+     * <p>
+     * An incomplete record at the end of the file is cut off.
+     * </p>
+     */
+    public synchronized List<DataItemValueLight> load () throws IOException
+    {
+        final List<DataItemValueLight> result = new ArrayList<DataItemValueLight> ();
+
+        if ( !this.file.isFile () )
+        {
+            return result;
+        }
+
+        long validLength = 0;
+
+        final DataInputStream in = new DataInputStream ( new BufferedInputStream ( new FileInputStream ( this.file ) ) );
+        try
+        {
+            if ( in.readInt () != MAGIC )
+            {
+                throw new IOException ( String.format ( "'%s' is not a value log", this.file ) );
+            }
+            validLength = 4;
+
+            for ( ;; )
+            {
+                final long timestamp = in.readLong ();
+                final byte state = in.readByte ();
+                final byte flags = in.readByte ();
+                final byte type = in.readByte ();
+                final Variant value;
+                int length = 8 + 3;
+                switch ( type )
+                {
+                    case TYPE_NULL:
+                        value = Variant.NULL;
+                        break;
+                    case TYPE_BOOLEAN:
+                        value = Variant.valueOf ( in.readBoolean () );
+                        length += 1;
+                        break;
+                    case TYPE_INTEGER:
+                        value = Variant.valueOf ( in.readInt () );
+                        length += 4;
+                        break;
+                    case TYPE_LONG:
+                        value = Variant.valueOf ( in.readLong () );
+                        length += 8;
+                        break;
+                    case TYPE_DOUBLE:
+                        value = Variant.valueOf ( in.readDouble () );
+                        length += 8;
+                        break;
+                    case TYPE_STRING:
+                        final String str = in.readUTF ();
+                        value = Variant.valueOf ( str );
+                        length += 2 + modifiedUtfLength ( str );
+                        break;
+                    default:
+                        throw new IOException ( String.format ( "Invalid value type %s in '%s'", type, this.file ) );
+                }
+
+                if ( state < 0 || state >= STATES.length )
+                {
+                    throw new IOException ( String.format ( "Invalid subscription state %s in '%s'", state, this.file ) );
+                }
+
+                result.add ( new DataItemValueLight ( value, STATES[state], timestamp, ( flags & FLAG_MANUAL ) != 0, ( flags & FLAG_ERROR ) != 0 ) );
+                validLength += length;
+            }
+        }
+        catch ( final EOFException e )
+        {
+            // end of file
+        }
+        finally
+        {
+            in.close ();
+        }
+
+        if ( validLength < this.file.length () )
+        {
+            logger.info ( "Discarding incomplete record in {}", this.file );
+            truncate ( validLength );
+        }
+
+        this.appended = result.size ();
+
+        return result;
+    }
+
+    private void truncate ( final long length ) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile ( this.file, "rw" );
+        try
+        {
+            raf.setLength ( length );
+        }
+        finally
+        {
+            raf.close ();
+        }
+    }
+
+    private static int modifiedUtfLength ( final String str )
+    {
+        int result = 0;
+        for ( int i = 0; i < str.length (); i++ )
+        {
+            final char c = str.charAt ( i );
+            if ( c >= 0x0001 && c <= 0x007F )
+            {
+                result += 1;
+            }
+            else if ( c > 0x07FF )
+            {
+                result += 3;
+            }
+            else
+            {
+                result += 2;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Append a value
+     *
+     * @return <code>true</code> if the file should be compacted
+     */
+    public synchronized boolean append ( final DataItemValueLight value ) throws IOException
+    {
+        if ( this.out == null )
+        {
+            final boolean exists = this.file.isFile () && this.file.length () > 0;
+            this.out = new DataOutputStream ( new BufferedOutputStream ( new FileOutputStream ( this.file, true ) ) );
+            if ( !exists )
+            {
+                this.out.writeInt ( MAGIC );
+            }
+        }
+
+        write ( this.out, value );
+        this.out.flush ();
+
+        this.appended++;
+        return this.appended >= this.compactThreshold;
+    }
+
+    /**
+     * Replace the content of the file with the provided values
+     */
+    public synchronized void compact ( final Collection<DataItemValueLight> values ) throws IOException
+    {
+        close ();
+
+        final File tmp = new File ( this.file.getParentFile (), this.file.getName () + ".tmp" );
+        final DataOutputStream out = new DataOutputStream ( new BufferedOutputStream ( new FileOutputStream ( tmp ) ) );
+        try
+        {
+            out.writeInt ( MAGIC );
+            for ( final DataItemValueLight value : values )
+            {
+                write ( out, value );
+            }
+        }
+        finally
+        {
+            out.close ();
+        }
+
+        if ( !tmp.renameTo ( this.file ) )
+        {
+            // some platforms can't replace files by renaming
+            this.file.delete ();
+            if ( !tmp.renameTo ( this.file ) )
+            {
+                throw new IOException ( String.format ( "Failed to replace '%s'", this.file ) );
+            }
+        }
+
+        this.appended = values.size ();
+        logger.debug ( "Compacted {} to {} values", this.file, values.size () );
+    }
+
+    private static void write ( final DataOutputStream out, final DataItemValueLight value ) throws IOException
+    {
+        out.writeLong ( value.getTimestamp () );
+        out.writeByte ( value.getSubscriptionState ().ordinal () );
+        out.writeByte ( ( value.isManual () ? FLAG_MANUAL : 0 ) | ( value.isError () ? FLAG_ERROR : 0 ) );
+
+        final Variant v = value.getValue ();
+        final VariantType type = v == null ? VariantType.NULL : v.getType ();
+        switch ( type )
+        {
+            case BOOLEAN:
+                out.writeByte ( TYPE_BOOLEAN );
+                out.writeBoolean ( v.asBoolean () );
+                break;
+            case INT32:
+                out.writeByte ( TYPE_INTEGER );
+                out.writeInt ( v.asInteger ( 0 ) );
+                break;
+            case INT64:
+                out.writeByte ( TYPE_LONG );
+                out.writeLong ( v.asLong ( 0L ) );
+                break;
+            case DOUBLE:
+                out.writeByte ( TYPE_DOUBLE );
+                out.writeDouble ( v.asDouble ( 0.0 ) );
+                break;
+            case STRING:
+                out.writeByte ( TYPE_STRING );
+                out.writeUTF ( v.asString ( "" ) );
+                break;
+            default:
+                out.writeByte ( TYPE_NULL );
+                break;
+        }
+    }
+
+    public synchronized void close ()
+    {
+        if ( this.out == null )
+        {
+            return;
+        }
+
+        try
+        {
+            this.out.close ();
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to close value log", e );
+        }
+        this.out = null;
+    }
+}
@@ -9,9 +9,11 @@
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - allow shared socket connectors
+ *     IBH SYSTEMS GmbH - receive batched item data updates
  *******************************************************************************/
 package org.eclipse.scada.da.client.ngp;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -34,6 +36,7 @@ import org.eclipse.scada.core.data.OperationParameters;
 import org.eclipse.scada.core.data.Request;
 import org.eclipse.scada.core.data.ResponseMessage;
 import org.eclipse.scada.core.data.UserInformation;
+import org.eclipse.scada.core.ngp.Features;
 import org.eclipse.scada.da.client.BrowseOperationCallback;
 import org.eclipse.scada.da.client.Connection;
 import org.eclipse.scada.da.client.FolderListener;
@@ -49,10 +52,12 @@ import org.eclipse.scada.da.core.WriteResult;
 import org.eclipse.scada.da.core.browser.Entry;
 import org.eclipse.scada.da.data.AttributeWriteResultEntry;
 import org.eclipse.scada.da.data.BrowserEntry;
+import org.eclipse.scada.da.data.ItemDataUpdateEntry;
 import org.eclipse.scada.da.data.message.BrowseFolder;
 import org.eclipse.scada.da.data.message.BrowseResult;
 import org.eclipse.scada.da.data.message.FolderDataUpdate;
 import org.eclipse.scada.da.data.message.ItemDataUpdate;
+import org.eclipse.scada.da.data.message.ItemDataUpdateBatch;
 import org.eclipse.scada.da.data.message.ItemStateUpdate;
 import org.eclipse.scada.da.data.message.StartWriteAttributes;
 import org.eclipse.scada.da.data.message.StartWriteValue;
@@ -335,6 +340,16 @@ public class ConnectionImpl extends ConnectionBaseImpl implements Connection
         return this.itemListeners.put ( itemId, listener );
     }
 
+    @Override
+    protected Map<String, String> makeProperties ()
+    {
+        final Map<String, String> result = super.makeProperties ();
+
+        result.put ( Features.FEATURE_DA_BATCH_UPDATES, "true" ); //$NON-NLS-1$
+
+        return result;
+    }
+
     @Override
     protected synchronized void handleMessage ( final Object message )
     {
@@ -342,6 +357,10 @@ public class ConnectionImpl extends ConnectionBaseImpl implements Connection
         {
             handleItemDataUpdate ( (ItemDataUpdate)message );
         }
+        else if ( message instanceof ItemDataUpdateBatch )
+        {
+            handleItemDataUpdateBatch ( (ItemDataUpdateBatch)message );
+        }
         else if ( message instanceof FolderDataUpdate )
         {
             handleFolderDataUpdate ( (FolderDataUpdate)message );
@@ -387,6 +406,55 @@ public class ConnectionImpl extends ConnectionBaseImpl implements Connection
         }
     }
 
+    private void handleItemDataUpdateBatch ( final ItemDataUpdateBatch message )
+    {
+        final List<ItemDataUpdateEntry> updates = message.getUpdates ();
+        if ( updates == null || updates.isEmpty () )
+        {
+            return;
+        }
+
+        // resolve the listeners now, since they may change until the runnable gets executed
+
+        final List<ItemUpdateListener> listeners = new ArrayList<ItemUpdateListener> ( updates.size () );
+        boolean found = false;
+        for ( final ItemDataUpdateEntry entry : updates )
+        {
+            final ItemUpdateListener listener = this.itemListeners.get ( entry.getItemId () );
+            listeners.add ( listener );
+            found |= listener != null;
+        }
+
+        if ( !found )
+        {
+            return;
+        }
+
+        this.executor.execute ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                int i = 0;
+                for ( final ItemDataUpdateEntry entry : updates )
+                {
+                    final ItemUpdateListener listener = listeners.get ( i++ );
+                    if ( listener == null )
+                    {
+                        continue;
+                    }
+                    try
+                    {
+                        listener.notifyDataChange ( entry.getValue (), makeAttributes ( entry.getAddedOrUpdated (), entry.getRemoved () ), entry.isCacheValue () );
+                    }
+                    catch ( final Exception e )
+                    {
+                        logger.warn ( "Failed to notify data change", e );
+                    }
+                }
+            }
+        } );
+    }
+
     private void handleItemStateUpdate ( final ItemStateUpdate message )
     {
         final ItemUpdateListener listener = this.itemListeners.get ( message.getItemId () );
@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - allow shared socket connectors
+ *     IBH SYSTEMS GmbH - use the shared connection runtime
  *******************************************************************************/
 package org.eclipse.scada.da.client.ngp.internal;
 
@@ -15,10 +16,9 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 
 import org.apache.mina.core.service.IoProcessor;
-import org.apache.mina.core.service.SimpleIoProcessorPool;
-import org.apache.mina.transport.socket.nio.NioProcessor;
 import org.apache.mina.transport.socket.nio.NioSession;
 import org.eclipse.scada.core.client.DriverFactory;
+import org.eclipse.scada.core.client.common.ConnectionRuntime;
 import org.eclipse.scada.da.client.ngp.DriverFactoryImpl;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -38,6 +38,8 @@ public class Activator implements BundleActivator
 
     private ServiceRegistration<org.eclipse.scada.core.client.DriverFactory> handle;
 
+    private ConnectionRuntime runtime;
+
     private IoProcessor<NioSession> processor;
 
     @Override
@@ -47,7 +49,8 @@ public class Activator implements BundleActivator
 
         if ( !Boolean.getBoolean ( "org.eclipse.scada.core.client.ngp.disableSharedProcessor" ) )
         {
-            this.processor = new SimpleIoProcessorPool<> ( NioProcessor.class );
+            this.runtime = ConnectionRuntime.acquire ();
+            this.processor = this.runtime.getProcessor ();
         }
         this.factory = new DriverFactoryImpl ( this.processor );
 
@@ -68,9 +71,11 @@ public class Activator implements BundleActivator
     public void stop ( final BundleContext context ) throws Exception
     {
         this.handle.unregister ();
-        if ( this.processor != null )
+        if ( this.runtime != null )
         {
-            this.processor.dispose ();
+            this.runtime.release ();
+            this.runtime = null;
+            this.processor = null;
         }
         this.factory = null;
         Activator.instance = null;
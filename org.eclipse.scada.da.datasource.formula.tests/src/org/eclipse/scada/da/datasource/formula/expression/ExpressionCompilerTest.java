@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.formula.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpressionCompilerTest
+{
+    private static Map<String, Type> makeTypes ()
+    {
+        final Map<String, Type> types = new HashMap<String, Type> ();
+        types.put ( "a", Type.NUMBER );
+        types.put ( "b", Type.NUMBER );
+        types.put ( "c", Type.NUMBER );
+        types.put ( "x", Type.BOOLEAN );
+        types.put ( "y", Type.BOOLEAN );
+        return types;
+    }
+
+    /**
+     * Compile and evaluate an expression
+     *
+     * @param values
+     *            the values of the variables, the numbers <code>a, b, c</code>
+     *            and the booleans <code>x, y</code>
+     */
+    private static Object evaluate ( final String expression, final Object... values ) throws ExpressionException
+    {
+        final CompiledExpression compiled = ExpressionCompiler.compile ( expression, makeTypes () );
+        return compiled.evaluate ( fillSlots ( compiled, values ) );
+    }
+
+    static Slots fillSlots ( final CompiledExpression compiled, final Object... values )
+    {
+        final String[] names = new String[] { "a", "b", "c", "x", "y" };
+
+        final Slots slots = compiled.createSlots ();
+        for ( int i = 0; i < compiled.getVariableCount (); i++ )
+        {
+            Object value = null;
+            for ( int j = 0; j < names.length && j < values.length; j++ )
+            {
+                if ( names[j].equals ( compiled.getVariableName ( i ) ) )
+                {
+                    value = values[j];
+                }
+            }
+            if ( compiled.getVariableType ( i ) == Type.BOOLEAN )
+            {
+                slots.setBoolean ( i, value == null ? false : (Boolean)value );
+            }
+            else
+            {
+                slots.setNumber ( i, value == null ? 0.0 : ( (Number)value ).doubleValue () );
+            }
+        }
+        return slots;
+    }
+
+    private static void assertNumber ( final double expected, final String expression, final Object... values ) throws ExpressionException
+    {
+        final Object result = evaluate ( expression, values );
+        Assert.assertTrue ( expression, result instanceof Double );
+        Assert.assertEquals ( expression, expected, (Double)result, 0.0 );
+    }
+
+    private static void assertBoolean ( final boolean expected, final String expression, final Object... values ) throws ExpressionException
+    {
+        final Object result = evaluate ( expression, values );
+        Assert.assertTrue ( expression, result instanceof Boolean );
+        Assert.assertEquals ( expression, expected, result );
+    }
+
+    private static void assertInvalid ( final String expression )
+    {
+        try
+        {
+            ExpressionCompiler.compile ( expression, makeTypes () );
+            Assert.fail ( String.format ( "'%s' must be rejected", expression ) );
+        }
+        catch ( final ExpressionException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLiterals () throws Exception
+    {
+        assertNumber ( 42.0, "42" );
+        assertNumber ( 1.5, "1.5" );
+        assertNumber ( 0.5, ".5" );
+        assertNumber ( 1500.0, "1.5e3" );
+        assertNumber ( 1500.0, "1.5E+3" );
+        assertNumber ( 0.015, "1.5e-2" );
+        assertBoolean ( true, "true" );
+        assertBoolean ( false, "false" );
+        assertNumber ( 42.0, " \t42\n " );
+    }
+
+    @Test
+    public void testPrecedence () throws Exception
+    {
+        assertNumber ( 7.0, "1 + 2 * 3" );
+        assertNumber ( 9.0, "(1 + 2) * 3" );
+        assertNumber ( 5.0, "1 + 8 / 2" );
+        assertNumber ( 3.0, "1 + 8 % 3" );
+        assertNumber ( 6.0, "-2 * -3" );
+        assertNumber ( -4.0, "-(1 + 3)" );
+        assertNumber ( 2.0, "1 - -1" );
+        assertNumber ( 1.0, "+ +1" );
+        assertBoolean ( true, "1 + 2 < 4" );
+        assertBoolean ( true, "1 < 2 == 3 < 4" );
+        assertBoolean ( false, "!true && false" );
+        assertBoolean ( true, "!false && true" );
+        assertBoolean ( true, "true || false && false" );
+        assertBoolean ( false, "(true || false) && false" );
+        assertBoolean ( true, "1 == 1 && 2 != 3" );
+        assertNumber ( 3.0, "1 < 2 ? 3 : 4" );
+        assertNumber ( 4.0, "true && false ? 3 : 4" );
+        assertNumber ( 2.0, "1 + 1 > 3 || 1 < 2 ? 2 : 3" );
+    }
+
+    @Test
+    public void testAssociativity () throws Exception
+    {
+        assertNumber ( 3.0, "10 - 4 - 3" );
+        assertNumber ( 1.0, "12 / 4 / 3" );
+        assertNumber ( 2.0, "12 % 7 % 3" );
+        assertBoolean ( true, "1 == 1 == true" );
+        // the conditional is right associative
+        assertNumber ( 2.0, "false ? 1 : true ? 2 : 3" );
+        assertNumber ( 1.0, "true ? 1 : false ? 2 : 3" );
+        assertNumber ( 2.0, "true ? false ? 1 : 2 : 3" );
+    }
+
+    @Test
+    public void testVariables () throws Exception
+    {
+        assertNumber ( 7.0, "a + b * c", 1.0, 2.0, 3.0 );
+        assertNumber ( 4.0, "a * a", 2.0 );
+        assertBoolean ( true, "x && !y", 0, 0, 0, true, false );
+        assertNumber ( 2.0, "x ? a : b", 1.0, 2.0, 0, false );
+        assertBoolean ( true, "x == (a > b)", 2.0, 1.0, 0, true );
+
+        final CompiledExpression compiled = ExpressionCompiler.compile ( "b + a * b > 0 && y", makeTypes () );
+        Assert.assertEquals ( Type.BOOLEAN, compiled.getType () );
+        // one slot per variable, in the order of the first use, unused variables have none
+        Assert.assertEquals ( 3, compiled.getVariableCount () );
+        Assert.assertEquals ( "b", compiled.getVariableName ( 0 ) );
+        Assert.assertEquals ( "a", compiled.getVariableName ( 1 ) );
+        Assert.assertEquals ( "y", compiled.getVariableName ( 2 ) );
+        Assert.assertEquals ( Type.NUMBER, compiled.getVariableType ( 0 ) );
+        Assert.assertEquals ( Type.BOOLEAN, compiled.getVariableType ( 2 ) );
+        Assert.assertEquals ( "b + a * b > 0 && y", compiled.getExpression () );
+
+        // the slots can be reused
+        final Slots slots = compiled.createSlots ();
+        slots.setNumber ( 0, 1.0 );
+        slots.setNumber ( 1, 1.0 );
+        slots.setBoolean ( 2, true );
+        Assert.assertEquals ( true, compiled.evaluate ( slots ) );
+        slots.setNumber ( 0, -1.0 );
+        Assert.assertEquals ( false, compiled.evaluate ( slots ) );
+    }
+
+    @Test
+    public void testFunctions () throws Exception
+    {
+        assertNumber ( 2.0, "abs(-2)" );
+        assertNumber ( 2.0, "Math.abs(-2)" );
+        assertNumber ( 3.0, "sqrt(9)" );
+        assertNumber ( -2.0, "floor(-1.5)" );
+        assertNumber ( -1.0, "ceil(-1.5)" );
+        assertNumber ( 3.0, "round(2.5)" );
+        assertNumber ( -2.0, "round(-2.5)" );
+        assertNumber ( 1.0, "exp(0)" );
+        assertNumber ( 0.0, "log(1)" );
+        assertNumber ( 0.0, "sin(0)" );
+        assertNumber ( 1.0, "cos(0)" );
+        assertNumber ( 0.0, "tan(0)" );
+        assertNumber ( 1024.0, "Math.pow(2, 10)" );
+        assertNumber ( 1.0, "min(3, 1, 2)" );
+        assertNumber ( 3.0, "max(3, 1, 2)" );
+        assertNumber ( 5.0, "max(a)", 5.0 );
+        assertNumber ( 4.0, "max(a, b > 0 ? b : 4)", 1.0, -1.0 );
+        assertNumber ( 5.0, "1 + abs(min(a, b)) * 2", 1.0, -2.0 );
+    }
+
+    /**
+     * Arithmetic and comparison with NaN and infinity, the compiler has no
+     * <code>null</code>, missing values must be passed in as NaN
+     */
+    @Test
+    public void testNaN () throws Exception
+    {
+        Assert.assertTrue ( Double.isNaN ( (Double)evaluate ( "0 / 0" ) ) );
+        Assert.assertTrue ( Double.isNaN ( (Double)evaluate ( "a % 0", 1.0 ) ) );
+        Assert.assertTrue ( Double.isNaN ( (Double)evaluate ( "a + 1", Double.NaN ) ) );
+        Assert.assertTrue ( Double.isNaN ( (Double)evaluate ( "max(1, a)", Double.NaN ) ) );
+        Assert.assertTrue ( Double.isNaN ( (Double)evaluate ( "sqrt(-1)" ) ) );
+        assertNumber ( Double.POSITIVE_INFINITY, "1 / 0" );
+        assertNumber ( Double.NEGATIVE_INFINITY, "-1 / a", 0.0 );
+
+        // no comparison with NaN is true, except "!="
+        assertBoolean ( false, "a == a", Double.NaN );
+        assertBoolean ( true, "a != a", Double.NaN );
+        assertBoolean ( false, "a < 1", Double.NaN );
+        assertBoolean ( false, "a >= 1", Double.NaN );
+        assertBoolean ( true, "!(a < 1)", Double.NaN );
+        assertNumber ( 2.0, "a > 0 ? 1 : 2", Double.NaN );
+    }
+
+    @Test
+    public void testConstantFolding () throws Exception
+    {
+        for ( final String expression : new String[] { "1 + 2 * 3", "max(1, 2) > 1 ? -1 : 1", "!true || 1 == 1", "abs(-1);true" } )
+        {
+            final CompiledExpression compiled = ExpressionCompiler.compile ( expression, makeTypes () );
+            Assert.assertEquals ( 0, compiled.getVariableCount () );
+        }
+
+        // folded constants keep their value
+        assertNumber ( 0.1 + 0.2, "0.1 + 0.2" );
+        Assert.assertEquals ( Double.doubleToLongBits ( -0.0 ), Double.doubleToLongBits ( (Double)evaluate ( "-0" ) ) );
+
+        // partially constant expressions
+        assertNumber ( 10.0, "a * (2 + 3)", 2.0 );
+        assertBoolean ( true, "x || 1 < 2", 0, 0, 0, false );
+    }
+
+    @Test
+    public void testStatements () throws Exception
+    {
+        assertNumber ( 1.0, "1;" );
+        assertNumber ( 1.0, "1;;" );
+        assertNumber ( 1.0, ";1" );
+        assertNumber ( 2.0, "1; 2" );
+        assertNumber ( 2.0, "1; 2;" );
+        assertBoolean ( true, "1; true" );
+        assertNumber ( 2.0, "x; b", 1.0, 2.0, 0, true );
+
+        // the variables of all statements are checked and get a slot
+        final CompiledExpression compiled = ExpressionCompiler.compile ( "a; b", makeTypes () );
+        Assert.assertEquals ( 2, compiled.getVariableCount () );
+        assertInvalid ( "unknown; a" );
+        assertInvalid ( "true + 1; a" );
+    }
+
+    /**
+     * The types are checked at compile time, anything JavaScript would coerce
+     * is rejected
+     */
+    @Test
+    public void testTypes () throws Exception
+    {
+        Assert.assertEquals ( Type.NUMBER, ExpressionCompiler.compile ( "a", makeTypes () ).getType () );
+        Assert.assertEquals ( Type.BOOLEAN, ExpressionCompiler.compile ( "a > 1", makeTypes () ).getType () );
+        Assert.assertEquals ( Type.BOOLEAN, ExpressionCompiler.compile ( "a > 1 ? x : y", makeTypes () ).getType () );
+
+        assertInvalid ( "true + 1" );
+        assertInvalid ( "x + a" );
+        assertInvalid ( "x * 2" );
+        assertInvalid ( "-x" );
+        assertInvalid ( "+true" );
+        assertInvalid ( "!a" );
+        assertInvalid ( "a && x" );
+        assertInvalid ( "x || 1" );
+        assertInvalid ( "a == x" );
+        assertInvalid ( "true != 1" );
+        assertInvalid ( "x < y" );
+        assertInvalid ( "1 < 2 < 3" );
+        assertInvalid ( "a ? 1 : 2" );
+        assertInvalid ( "x ? 1 : false" );
+        assertInvalid ( "abs(x)" );
+        assertInvalid ( "max(1, true)" );
+    }
+
+    @Test
+    public void testErrors () throws Exception
+    {
+        assertInvalid ( "" );
+        assertInvalid ( " " );
+        assertInvalid ( ";" );
+        assertInvalid ( "1 +" );
+        assertInvalid ( "(1" );
+        assertInvalid ( "1)" );
+        assertInvalid ( "()" );
+        assertInvalid ( "1 2" );
+        assertInvalid ( "a b" );
+        assertInvalid ( "1 ? 2" );
+        assertInvalid ( "true ? 1 2" );
+        assertInvalid ( "1..2" );
+        assertInvalid ( "1.2.3" );
+        assertInvalid ( "1e" );
+        assertInvalid ( "0x10" );
+        assertInvalid ( "'a'" );
+        assertInvalid ( "\"a\"" );
+        assertInvalid ( "a = 1" );
+        assertInvalid ( "a & b" );
+        assertInvalid ( "a | b" );
+        assertInvalid ( "a++" );
+        assertInvalid ( "++a" );
+        assertInvalid ( "--1" );
+        assertInvalid ( "a--b" );
+        assertInvalid ( "null" );
+        assertInvalid ( "undefined" );
+        assertInvalid ( "NaN" );
+        assertInvalid ( "Math.PI" );
+        assertInvalid ( "unknown" );
+        assertInvalid ( "unknown(1)" );
+        assertInvalid ( "Math.unknown(1)" );
+        assertInvalid ( "abs()" );
+        assertInvalid ( "abs(1, 2)" );
+        assertInvalid ( "pow(1)" );
+        assertInvalid ( "min()" );
+        assertInvalid ( "max(1,)" );
+        assertInvalid ( "abs" );
+        // no automatic semicolon insertion
+        assertInvalid ( "1\n2" );
+    }
+
+    @Test
+    public void testErrorMessage ()
+    {
+        try
+        {
+            ExpressionCompiler.compile ( "1 + unknown", makeTypes () );
+            Assert.fail ();
+        }
+        catch ( final ExpressionException e )
+        {
+            Assert.assertTrue ( e.getMessage (), e.getMessage ().contains ( "'unknown'" ) );
+            Assert.assertTrue ( e.getMessage (), e.getMessage ().contains ( "'1 + unknown'" ) );
+        }
+    }
+
+    @Test ( expected = ExpressionException.class )
+    public void testNull () throws Exception
+    {
+        ExpressionCompiler.compile ( null, makeTypes () );
+    }
+}
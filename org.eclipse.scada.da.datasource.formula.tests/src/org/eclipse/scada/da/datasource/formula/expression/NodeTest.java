@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.formula.expression;
+
+import org.eclipse.scada.da.datasource.formula.expression.Node.ArithmeticOperator;
+import org.eclipse.scada.da.datasource.formula.expression.Node.CompareOperator;
+import org.eclipse.scada.da.datasource.formula.expression.Node.Function;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Evaluate the expression nodes directly, without the compiler and its
+ * constant folding
+ */
+public class NodeTest
+{
+    private static final Slots NO_SLOTS = new Slots ( 0 );
+
+    /**
+     * A node which must not be evaluated
+     */
+    private static class FailingNode extends Node
+    {
+        public FailingNode ()
+        {
+            super ( Type.BOOLEAN );
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            throw new AssertionError ( "Must not be evaluated" );
+        }
+    }
+
+    private static Node number ( final double value )
+    {
+        return new Node.NumberConstant ( value );
+    }
+
+    private static Node bool ( final boolean value )
+    {
+        return new Node.BooleanConstant ( value );
+    }
+
+    private static double call ( final Function function, final double... arguments )
+    {
+        final Node[] nodes = new Node[arguments.length];
+        for ( int i = 0; i < arguments.length; i++ )
+        {
+            nodes[i] = number ( arguments[i] );
+        }
+        return new Node.Call ( function, nodes ).evaluateNumber ( NO_SLOTS );
+    }
+
+    private static double arithmetic ( final ArithmeticOperator operator, final double left, final double right )
+    {
+        return new Node.Arithmetic ( operator, number ( left ), number ( right ) ).evaluateNumber ( NO_SLOTS );
+    }
+
+    private static boolean compare ( final CompareOperator operator, final double left, final double right )
+    {
+        return new Node.CompareNumbers ( operator, number ( left ), number ( right ) ).evaluateBoolean ( NO_SLOTS );
+    }
+
+    /**
+     * Assert the value including the sign of zero
+     */
+    private static void assertExact ( final double expected, final double actual )
+    {
+        Assert.assertEquals ( Double.doubleToLongBits ( expected ), Double.doubleToLongBits ( actual ) );
+    }
+
+    @Test
+    public void testArithmetic ()
+    {
+        Assert.assertEquals ( 5.0, arithmetic ( ArithmeticOperator.ADD, 2.0, 3.0 ), 0.0 );
+        Assert.assertEquals ( -1.0, arithmetic ( ArithmeticOperator.SUBTRACT, 2.0, 3.0 ), 0.0 );
+        Assert.assertEquals ( 6.0, arithmetic ( ArithmeticOperator.MULTIPLY, 2.0, 3.0 ), 0.0 );
+        Assert.assertEquals ( 1.5, arithmetic ( ArithmeticOperator.DIVIDE, 3.0, 2.0 ), 0.0 );
+        Assert.assertEquals ( Double.POSITIVE_INFINITY, arithmetic ( ArithmeticOperator.DIVIDE, 1.0, 0.0 ), 0.0 );
+        Assert.assertEquals ( Double.NEGATIVE_INFINITY, arithmetic ( ArithmeticOperator.DIVIDE, 1.0, -0.0 ), 0.0 );
+
+        // the remainder has the sign of the dividend, like in JavaScript
+        Assert.assertEquals ( -2.0, arithmetic ( ArithmeticOperator.REMAINDER, -5.0, 3.0 ), 0.0 );
+        Assert.assertEquals ( 2.0, arithmetic ( ArithmeticOperator.REMAINDER, 5.0, -3.0 ), 0.0 );
+        Assert.assertEquals ( 0.5, arithmetic ( ArithmeticOperator.REMAINDER, 5.5, 1.0 ), 0.0 );
+        Assert.assertTrue ( Double.isNaN ( arithmetic ( ArithmeticOperator.REMAINDER, 1.0, 0.0 ) ) );
+
+        for ( final ArithmeticOperator operator : ArithmeticOperator.values () )
+        {
+            Assert.assertTrue ( operator.name (), Double.isNaN ( arithmetic ( operator, Double.NaN, 1.0 ) ) );
+            Assert.assertTrue ( operator.name (), Double.isNaN ( arithmetic ( operator, 1.0, Double.NaN ) ) );
+        }
+
+        assertExact ( -0.0, new Node.Negate ( number ( 0.0 ) ).evaluateNumber ( NO_SLOTS ) );
+        assertExact ( 1.0, new Node.Negate ( number ( -1.0 ) ).evaluateNumber ( NO_SLOTS ) );
+    }
+
+    @Test
+    public void testCompareNumbers ()
+    {
+        Assert.assertTrue ( compare ( CompareOperator.LESS, 1.0, 2.0 ) );
+        Assert.assertFalse ( compare ( CompareOperator.LESS, 2.0, 2.0 ) );
+        Assert.assertTrue ( compare ( CompareOperator.LESS_EQUAL, 2.0, 2.0 ) );
+        Assert.assertFalse ( compare ( CompareOperator.LESS_EQUAL, 3.0, 2.0 ) );
+        Assert.assertTrue ( compare ( CompareOperator.GREATER, 3.0, 2.0 ) );
+        Assert.assertFalse ( compare ( CompareOperator.GREATER, 2.0, 2.0 ) );
+        Assert.assertTrue ( compare ( CompareOperator.GREATER_EQUAL, 2.0, 2.0 ) );
+        Assert.assertFalse ( compare ( CompareOperator.GREATER_EQUAL, 1.0, 2.0 ) );
+        Assert.assertTrue ( compare ( CompareOperator.EQUAL, 2.0, 2.0 ) );
+        Assert.assertFalse ( compare ( CompareOperator.EQUAL, 1.0, 2.0 ) );
+        Assert.assertTrue ( compare ( CompareOperator.NOT_EQUAL, 1.0, 2.0 ) );
+        Assert.assertFalse ( compare ( CompareOperator.NOT_EQUAL, 2.0, 2.0 ) );
+
+        // zero is equal to negative zero
+        Assert.assertTrue ( compare ( CompareOperator.EQUAL, 0.0, -0.0 ) );
+        Assert.assertFalse ( compare ( CompareOperator.LESS, -0.0, 0.0 ) );
+
+        Assert.assertTrue ( compare ( CompareOperator.EQUAL, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY ) );
+        Assert.assertTrue ( compare ( CompareOperator.LESS, Double.NEGATIVE_INFINITY, -Double.MAX_VALUE ) );
+    }
+
+    @Test
+    public void testCompareNaN ()
+    {
+        for ( final CompareOperator operator : CompareOperator.values () )
+        {
+            final boolean expected = operator == CompareOperator.NOT_EQUAL;
+            Assert.assertEquals ( operator.name (), expected, compare ( operator, Double.NaN, 1.0 ) );
+            Assert.assertEquals ( operator.name (), expected, compare ( operator, 1.0, Double.NaN ) );
+            Assert.assertEquals ( operator.name (), expected, compare ( operator, Double.NaN, Double.NaN ) );
+        }
+    }
+
+    @Test
+    public void testBooleans ()
+    {
+        for ( final boolean a : new boolean[] { false, true } )
+        {
+            for ( final boolean b : new boolean[] { false, true } )
+            {
+                Assert.assertEquals ( a == b, new Node.CompareBooleans ( true, bool ( a ), bool ( b ) ).evaluateBoolean ( NO_SLOTS ) );
+                Assert.assertEquals ( a != b, new Node.CompareBooleans ( false, bool ( a ), bool ( b ) ).evaluateBoolean ( NO_SLOTS ) );
+                Assert.assertEquals ( a && b, new Node.And ( bool ( a ), bool ( b ) ).evaluateBoolean ( NO_SLOTS ) );
+                Assert.assertEquals ( a || b, new Node.Or ( bool ( a ), bool ( b ) ).evaluateBoolean ( NO_SLOTS ) );
+            }
+            Assert.assertEquals ( !a, new Node.Not ( bool ( a ) ).evaluateBoolean ( NO_SLOTS ) );
+        }
+    }
+
+    @Test
+    public void testShortCircuit ()
+    {
+        Assert.assertFalse ( new Node.And ( bool ( false ), new FailingNode () ).evaluateBoolean ( NO_SLOTS ) );
+        Assert.assertTrue ( new Node.Or ( bool ( true ), new FailingNode () ).evaluateBoolean ( NO_SLOTS ) );
+        Assert.assertTrue ( new Node.Conditional ( bool ( true ), bool ( true ), new FailingNode () ).evaluateBoolean ( NO_SLOTS ) );
+        Assert.assertTrue ( new Node.Conditional ( bool ( false ), new FailingNode (), bool ( true ) ).evaluateBoolean ( NO_SLOTS ) );
+    }
+
+    @Test
+    public void testConditional ()
+    {
+        final Node number = new Node.Conditional ( bool ( false ), number ( 1.0 ), number ( 2.0 ) );
+        Assert.assertEquals ( Type.NUMBER, number.getType () );
+        Assert.assertEquals ( 2.0, number.evaluateNumber ( NO_SLOTS ), 0.0 );
+
+        final Node bool = new Node.Conditional ( bool ( true ), bool ( false ), bool ( true ) );
+        Assert.assertEquals ( Type.BOOLEAN, bool.getType () );
+        Assert.assertFalse ( bool.evaluateBoolean ( NO_SLOTS ) );
+    }
+
+    @Test
+    public void testVariables ()
+    {
+        final Slots slots = new Slots ( 2 );
+        slots.setNumber ( 0, 1.5 );
+        slots.setBoolean ( 1, true );
+
+        final Node number = new Node.NumberVariable ( 0 );
+        final Node bool = new Node.BooleanVariable ( 1 );
+        Assert.assertEquals ( 1.5, number.evaluateNumber ( slots ), 0.0 );
+        Assert.assertTrue ( bool.evaluateBoolean ( slots ) );
+
+        slots.setNumber ( 0, -2.0 );
+        slots.setBoolean ( 1, false );
+        Assert.assertEquals ( -2.0, number.evaluateNumber ( slots ), 0.0 );
+        Assert.assertFalse ( bool.evaluateBoolean ( slots ) );
+    }
+
+    @Test
+    public void testIsConstant ()
+    {
+        final Node variable = new Node.NumberVariable ( 0 );
+        final Node bool = new Node.BooleanVariable ( 0 );
+
+        Assert.assertTrue ( number ( 1.0 ).isConstant () );
+        Assert.assertTrue ( bool ( true ).isConstant () );
+        Assert.assertFalse ( variable.isConstant () );
+        Assert.assertFalse ( bool.isConstant () );
+
+        Assert.assertTrue ( new Node.Arithmetic ( ArithmeticOperator.ADD, number ( 1.0 ), number ( 2.0 ) ).isConstant () );
+        Assert.assertFalse ( new Node.Arithmetic ( ArithmeticOperator.ADD, number ( 1.0 ), variable ).isConstant () );
+        Assert.assertFalse ( new Node.Arithmetic ( ArithmeticOperator.ADD, variable, number ( 1.0 ) ).isConstant () );
+        Assert.assertFalse ( new Node.Negate ( variable ).isConstant () );
+        Assert.assertFalse ( new Node.CompareNumbers ( CompareOperator.LESS, variable, number ( 1.0 ) ).isConstant () );
+        Assert.assertFalse ( new Node.CompareBooleans ( true, bool ( true ), bool ).isConstant () );
+        Assert.assertFalse ( new Node.Not ( bool ).isConstant () );
+        Assert.assertFalse ( new Node.And ( bool, bool ( true ) ).isConstant () );
+        Assert.assertFalse ( new Node.Or ( bool ( true ), bool ).isConstant () );
+        Assert.assertFalse ( new Node.Conditional ( bool, number ( 1.0 ), number ( 2.0 ) ).isConstant () );
+        Assert.assertFalse ( new Node.Conditional ( bool ( true ), number ( 1.0 ), variable ).isConstant () );
+        Assert.assertTrue ( new Node.Call ( Function.MAX, new Node[] { number ( 1.0 ), number ( 2.0 ) } ).isConstant () );
+        Assert.assertFalse ( new Node.Call ( Function.MAX, new Node[] { number ( 1.0 ), variable } ).isConstant () );
+    }
+
+    @Test ( expected = IllegalStateException.class )
+    public void testNumberAsBoolean ()
+    {
+        number ( 1.0 ).evaluateBoolean ( NO_SLOTS );
+    }
+
+    @Test ( expected = IllegalStateException.class )
+    public void testBooleanAsNumber ()
+    {
+        bool ( true ).evaluateNumber ( NO_SLOTS );
+    }
+
+    @Test
+    public void testFunctions ()
+    {
+        Assert.assertEquals ( 1.5, call ( Function.ABS, -1.5 ), 0.0 );
+        Assert.assertEquals ( 1.5, call ( Function.SQRT, 2.25 ), 0.0 );
+        Assert.assertEquals ( -2.0, call ( Function.FLOOR, -1.5 ), 0.0 );
+        Assert.assertEquals ( -1.0, call ( Function.CEIL, -1.5 ), 0.0 );
+        Assert.assertEquals ( Math.E, call ( Function.EXP, 1.0 ), 0.0 );
+        Assert.assertEquals ( 1.0, call ( Function.LOG, Math.E ), 0.0 );
+        Assert.assertEquals ( 1.0, call ( Function.SIN, Math.PI / 2 ), 0.0 );
+        Assert.assertEquals ( -1.0, call ( Function.COS, Math.PI ), 0.0 );
+        Assert.assertEquals ( 1.0, call ( Function.TAN, Math.PI / 4 ), 1e-15 );
+        Assert.assertEquals ( Double.NEGATIVE_INFINITY, call ( Function.LOG, 0.0 ), 0.0 );
+        Assert.assertTrue ( Double.isNaN ( call ( Function.LOG, -1.0 ) ) );
+
+        for ( final Function function : Function.values () )
+        {
+            Assert.assertTrue ( function.name (), function.getMinArguments () >= 1 );
+            Assert.assertTrue ( function.name (), function.getMaxArguments () >= function.getMinArguments () );
+        }
+    }
+
+    /**
+     * <code>Math.round</code> must round like the script engine, Java's
+     * returns a long, which has no negative zero and a smaller range
+     */
+    @Test
+    public void testRound ()
+    {
+        assertExact ( 3.0, call ( Function.ROUND, 2.5 ) );
+        assertExact ( 2.0, call ( Function.ROUND, 2.4999 ) );
+        assertExact ( -2.0, call ( Function.ROUND, -2.5 ) );
+        assertExact ( -3.0, call ( Function.ROUND, -2.5001 ) );
+        assertExact ( 1.0, call ( Function.ROUND, 0.5 ) );
+
+        // the script engine adds 0.5, which rounds this up
+        assertExact ( 1.0, call ( Function.ROUND, 0.49999999999999994 ) );
+        assertExact ( -0.0, call ( Function.ROUND, -0.49999999999999994 ) );
+
+        // adding 0.5 would round these to even
+        assertExact ( 4503599627370497.0, call ( Function.ROUND, 4503599627370497.0 ) );
+        assertExact ( -4503599627370497.0, call ( Function.ROUND, -4503599627370497.0 ) );
+
+        // the sign of zero is kept
+        assertExact ( -0.0, call ( Function.ROUND, -0.4 ) );
+        assertExact ( -0.0, call ( Function.ROUND, -0.5 ) );
+        assertExact ( -0.0, call ( Function.ROUND, -0.0 ) );
+        assertExact ( 0.0, call ( Function.ROUND, 0.4 ) );
+
+        // out of the range of a long
+        assertExact ( 1e300, call ( Function.ROUND, 1e300 ) );
+        assertExact ( -1e300, call ( Function.ROUND, -1e300 ) );
+        assertExact ( Double.POSITIVE_INFINITY, call ( Function.ROUND, Double.POSITIVE_INFINITY ) );
+        assertExact ( Double.NEGATIVE_INFINITY, call ( Function.ROUND, Double.NEGATIVE_INFINITY ) );
+        Assert.assertTrue ( Double.isNaN ( call ( Function.ROUND, Double.NaN ) ) );
+    }
+
+    @Test
+    public void testPow ()
+    {
+        assertExact ( 1024.0, call ( Function.POW, 2.0, 10.0 ) );
+        assertExact ( 0.5, call ( Function.POW, 2.0, -1.0 ) );
+        assertExact ( 1.0, call ( Function.POW, Double.NaN, 0.0 ) );
+        Assert.assertTrue ( Double.isNaN ( call ( Function.POW, -8.0, 1.0 / 3.0 ) ) );
+        Assert.assertTrue ( Double.isNaN ( call ( Function.POW, Double.NaN, 1.0 ) ) );
+
+        // Java returns 1.0 for these, JavaScript NaN
+        Assert.assertTrue ( Double.isNaN ( call ( Function.POW, 1.0, Double.POSITIVE_INFINITY ) ) );
+        Assert.assertTrue ( Double.isNaN ( call ( Function.POW, 1.0, Double.NEGATIVE_INFINITY ) ) );
+        Assert.assertTrue ( Double.isNaN ( call ( Function.POW, -1.0, Double.POSITIVE_INFINITY ) ) );
+        Assert.assertTrue ( Double.isNaN ( call ( Function.POW, 1.0, Double.NaN ) ) );
+    }
+
+    @Test
+    public void testMinMax ()
+    {
+        assertExact ( 1.0, call ( Function.MIN, 1.0 ) );
+        assertExact ( 1.0, call ( Function.MIN, 3.0, 1.0, 2.0 ) );
+        assertExact ( 3.0, call ( Function.MAX, 3.0, 1.0, 2.0 ) );
+        assertExact ( -0.0, call ( Function.MIN, 0.0, -0.0 ) );
+        assertExact ( 0.0, call ( Function.MAX, -0.0, 0.0 ) );
+
+        // any NaN makes the result NaN
+        Assert.assertTrue ( Double.isNaN ( call ( Function.MIN, 1.0, Double.NaN, 0.0 ) ) );
+        Assert.assertTrue ( Double.isNaN ( call ( Function.MAX, Double.NaN, 1.0 ) ) );
+    }
+}
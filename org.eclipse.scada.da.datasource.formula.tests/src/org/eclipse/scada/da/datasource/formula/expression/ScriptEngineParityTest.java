@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.formula.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compare the results of compiled expressions with the JavaScript engine
+ * <p>
+ * The formula data source uses the compiler instead of the script engine
+ * whenever it accepts a formula, so both must give the same results. The test
+ * is skipped if the JVM has no JavaScript engine.
+ * </p>
+ */
+public class ScriptEngineParityTest
+{
+    private static final String[] FORMULAS = new String[] { //
+    "a + b", "a - b", "a * b", "a / b", "a % b", "-a", "+a", "- -a", //
+    "a + b * 2", "(a + b) * 2", "a - b - 1", "a / b / 2", "2 * a % 3", //
+    "a < b", "a <= b", "a > b", "a >= b", "a == b", "a != b", "a === b", "a !== b", //
+    // not "a == a", the engine finds a NaN binding equal to itself
+    "!(a < b)", "a < b == b > a", //
+    "x && y", "x || y", "!x", "x == y", "x != y", "x === !y", "!x && y || x && !y", //
+    "x ? a : b", "a > b ? a : b", "x ? y ? 1 : 2 : 3", "x ? a > 0 : y", "a > 0 && x ? -a : a < 0 || y ? b : 0", //
+    "abs(a)", "Math.sqrt(a)", "floor(a)", "ceil(a)", "round(a)", "Math.round(a * 10) / 10", //
+    "exp(a)", "log(a)", "sin(a)", "cos(a)", "tan(a)", //
+    "pow(a, b)", "Math.pow(a, 2)", "pow(2, a)", //
+    "min(a, b)", "max(a, b)", "min(a)", "max(a, b, 0)", "Math.min(a, -b, 1)", //
+    "1; a", "a; b;", "x; a + b", //
+    "1 + 2 * 3", "0.1 + 0.2", "1 / 0", "0 / 0", "-0", "1e300 * 1e10", ".5 + 1.5e-3", //
+    };
+
+    private static final double[] NUMBERS = new double[] { 0.0, -0.0, 1.0, -1.0, 2.5, -2.5, 0.5, -0.5, 0.49999999999999994, 3.7, 1e300, -1e-300, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+    private static final boolean[] BOOLEANS = new boolean[] { false, true };
+
+    private ScriptEngine engine;
+
+    @Before
+    public void setup ()
+    {
+        this.engine = new ScriptEngineManager ().getEngineByName ( "JavaScript" );
+    }
+
+    private static Map<String, Type> makeTypes ()
+    {
+        final Map<String, Type> types = new HashMap<String, Type> ();
+        types.put ( "a", Type.NUMBER );
+        types.put ( "b", Type.NUMBER );
+        types.put ( "x", Type.BOOLEAN );
+        types.put ( "y", Type.BOOLEAN );
+        return types;
+    }
+
+    /**
+     * Compare two results, numbers must be equal including the sign of zero
+     */
+    private static void assertSame ( final String message, final Object expected, final Object actual )
+    {
+        if ( expected instanceof Boolean )
+        {
+            Assert.assertEquals ( message, expected, actual );
+            return;
+        }
+
+        Assert.assertTrue ( message, expected instanceof Number );
+        Assert.assertTrue ( message, actual instanceof Double );
+
+        final double e = ( (Number)expected ).doubleValue ();
+        final double a = (Double)actual;
+        if ( expected instanceof Double )
+        {
+            Assert.assertTrue ( String.format ( "%s: expected %s but was %s", message, e, a ), Double.compare ( e, a ) == 0 );
+        }
+        else
+        {
+            // the engine may return integer results as integers, which have no negative zero
+            Assert.assertTrue ( String.format ( "%s: expected %s but was %s", message, e, a ), e == a );
+        }
+    }
+
+    @Test
+    public void testParity () throws Exception
+    {
+        Assume.assumeNotNull ( this.engine );
+        Assume.assumeTrue ( this.engine instanceof Compilable );
+
+        for ( final String formula : FORMULAS )
+        {
+            final CompiledExpression compiled = ExpressionCompiler.compile ( formula, makeTypes () );
+            final Slots slots = compiled.createSlots ();
+
+            // the functions are only defined on the Math object
+            final CompiledScript script = ( (Compilable)this.engine ).compile ( "with ( Math ) { " + formula + " }" );
+
+            for ( final double a : NUMBERS )
+            {
+                for ( final double b : NUMBERS )
+                {
+                    for ( final boolean x : BOOLEANS )
+                    {
+                        for ( final boolean y : BOOLEANS )
+                        {
+                            final Bindings bindings = this.engine.createBindings ();
+                            bindings.put ( "a", a );
+                            bindings.put ( "b", b );
+                            bindings.put ( "x", x );
+                            bindings.put ( "y", y );
+                            final Object expected = script.eval ( bindings );
+
+                            for ( int i = 0; i < compiled.getVariableCount (); i++ )
+                            {
+                                final String name = compiled.getVariableName ( i );
+                                if ( compiled.getVariableType ( i ) == Type.BOOLEAN )
+                                {
+                                    slots.setBoolean ( i, "x".equals ( name ) ? x : y );
+                                }
+                                else
+                                {
+                                    slots.setNumber ( i, "a".equals ( name ) ? a : b );
+                                }
+                            }
+                            final Object actual = compiled.evaluate ( slots );
+
+                            assertSame ( String.format ( "%s with a=%s, b=%s, x=%s, y=%s", formula, a, b, x, y ), expected, actual );
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
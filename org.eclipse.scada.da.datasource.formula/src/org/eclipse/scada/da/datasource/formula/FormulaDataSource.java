@@ -9,6 +9,7 @@
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - fix bug 433409
+ *     IBH SYSTEMS GmbH - add compiled expression language
  *******************************************************************************/
 package org.eclipse.scada.da.datasource.formula;
 
@@ -47,6 +48,11 @@ import org.eclipse.scada.da.datasource.DataSourceHandler;
 import org.eclipse.scada.da.datasource.SingleDataSourceTracker;
 import org.eclipse.scada.da.datasource.SingleDataSourceTracker.ServiceListener;
 import org.eclipse.scada.da.datasource.base.AbstractMultiSourceDataSource;
+import org.eclipse.scada.da.datasource.formula.expression.CompiledExpression;
+import org.eclipse.scada.da.datasource.formula.expression.ExpressionCompiler;
+import org.eclipse.scada.da.datasource.formula.expression.ExpressionException;
+import org.eclipse.scada.da.datasource.formula.expression.Slots;
+import org.eclipse.scada.da.datasource.formula.expression.Type;
 import org.eclipse.scada.utils.concurrent.AbstractFuture;
 import org.eclipse.scada.utils.concurrent.FutureListener;
 import org.eclipse.scada.utils.concurrent.InstantErrorFuture;
@@ -61,6 +67,15 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A datasource that calculates based on input and/or output formula
+ * <p>
+ * Formulas are evaluated by a script engine. If the language is set to
+ * {@value #LANGUAGE_EXPRESSION} formulas are compiled by the
+ * {@link ExpressionCompiler} instead, which evaluates plain arithmetic and
+ * boolean formulas without the script engine. Formulas which the compiler
+ * does not support are still evaluated by the script engine. With compiled
+ * expressions an input without a numeric value causes an error instead of
+ * being passed to the formula as <code>null</code>.
+ * </p>
  * 
  * @author Jens Reimann
  */
@@ -68,6 +83,12 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
 {
     private static final String DEFAULT_ENGINE_NAME = System.getProperty ( "org.eclipse.scada.da.datasource.formula.defaultScriptEngine", "JavaScript" );
 
+    public static final String LANGUAGE_SCRIPT = "script";
+
+    public static final String LANGUAGE_EXPRESSION = "expression";
+
+    private static final String DEFAULT_LANGUAGE = System.getProperty ( "org.eclipse.scada.da.datasource.formula.defaultLanguage", LANGUAGE_SCRIPT );
+
     final static Logger logger = LoggerFactory.getLogger ( FormulaDataSource.class );
 
     private final ScheduledExecutorService executor;
@@ -102,6 +123,14 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
 
     private final ObjectPoolTracker<DataSource> poolTracker;
 
+    private CompiledExpression inputExpression;
+
+    private Slots inputSlots;
+
+    private CompiledExpression outputExpression;
+
+    private Slots outputSlots;
+
     public FormulaDataSource ( final BundleContext context, final ObjectPoolTracker<DataSource> poolTracker, final ScheduledExecutorService executor )
     {
         super ( poolTracker );
@@ -221,6 +250,10 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
 
         synchronized ( this )
         {
+            if ( this.outputExpression != null )
+            {
+                return processWriteExpression ( writeValue, outputDataSource, operationParameters );
+            }
 
             final Serializable writeValueObject = writeValue.as ( this.outputDatasourceType );
             logger.debug ( "Converted write value from '{}' to '{}'", writeValue, writeValueObject );
@@ -275,6 +308,30 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
         }
     }
 
+    private NotifyFuture<WriteResult> processWriteExpression ( final Variant writeValue, final DataSource outputDataSource, final OperationParameters operationParameters ) throws Exception
+    {
+        final Map<String, DataSourceHandler> sources = getSourcesCopy ();
+
+        int error = 0;
+        for ( final DataSourceHandler handler : sources.values () )
+        {
+            if ( handler.getValue ().isError () )
+            {
+                error++;
+            }
+        }
+
+        if ( error > 0 )
+        {
+            throw new OperationException ( String.format ( "Failed to write. %s input(s) are in 'error' state", error ) );
+        }
+
+        final Object o = evaluate ( this.outputExpression, this.outputSlots, sources, writeValue );
+        logger.debug ( "Result of output expression: {}", o );
+
+        return outputDataSource.startWriteValue ( Variant.valueOf ( o ), operationParameters );
+    }
+
     public synchronized void update ( final Map<String, String> parameters ) throws Exception
     {
         final ClassLoader currentClassLoader = Thread.currentThread ().getContextClassLoader ();
@@ -291,6 +348,7 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
             this.outputDatasourceType = getType ( cfg.getString ( "outputDatasource.type", null ) );
             setOutputDataSource ( cfg.getString ( "outputDatasource.id", null ) );
             this.writeValueName = cfg.getString ( "writeValueName", "writeValue" );
+            setExpressions ( cfg );
 
             handleChange ( getSourcesCopy () );
         }
@@ -373,11 +431,11 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
 
             final Compilable compilable = (Compilable)this.scriptEngine;
 
-            if ( this.inputFormula != null && this.inputFormula.isEmpty () )
+            if ( this.inputFormula != null && !this.inputFormula.isEmpty () )
             {
                 this.inputScript = compilable.compile ( this.inputFormula );
             }
-            if ( this.outputFormula != null && this.outputFormula.isEmpty () )
+            if ( this.outputFormula != null && !this.outputFormula.isEmpty () )
             {
                 this.outputScript = compilable.compile ( this.outputFormula );
             }
@@ -385,6 +443,119 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
 
     }
 
+    private void setExpressions ( final ConfigurationDataHelper cfg )
+    {
+        this.inputExpression = null;
+        this.inputSlots = null;
+        this.outputExpression = null;
+        this.outputSlots = null;
+
+        String language = cfg.getString ( "language", DEFAULT_LANGUAGE );
+        if ( language.isEmpty () )
+        {
+            language = DEFAULT_LANGUAGE;
+        }
+
+        if ( LANGUAGE_SCRIPT.equals ( language ) )
+        {
+            return;
+        }
+        if ( !LANGUAGE_EXPRESSION.equals ( language ) )
+        {
+            throw new IllegalArgumentException ( String.format ( "'%s' is not a valid formula language", language ) );
+        }
+
+        final Map<String, Type> types = new HashMap<String, Type> ();
+        for ( final String name : cfg.getPrefixed ( "datasource." ).keySet () )
+        {
+            types.put ( name, makeType ( getType ( cfg.getString ( "datasourceType." + name, null ) ) ) );
+        }
+
+        this.inputExpression = compileExpression ( this.inputFormula, types );
+        if ( this.inputExpression != null )
+        {
+            this.inputSlots = this.inputExpression.createSlots ();
+        }
+
+        types.put ( this.writeValueName, makeType ( this.outputDatasourceType ) );
+        this.outputExpression = compileExpression ( this.outputFormula, types );
+        if ( this.outputExpression != null )
+        {
+            this.outputSlots = this.outputExpression.createSlots ();
+        }
+    }
+
+    private static Type makeType ( final VariantType type )
+    {
+        return type == VariantType.BOOLEAN ? Type.BOOLEAN : Type.NUMBER;
+    }
+
+    /**
+     * Compile an expression
+     * 
+     * @return the compiled expression or <code>null</code> if the formula has
+     *         to be evaluated by the script engine
+     */
+    private static CompiledExpression compileExpression ( final String formula, final Map<String, Type> types )
+    {
+        if ( formula == null || formula.isEmpty () )
+        {
+            return null;
+        }
+
+        try
+        {
+            return ExpressionCompiler.compile ( formula, types );
+        }
+        catch ( final ExpressionException e )
+        {
+            logger.info ( "Formula is not supported by the expression compiler, falling back to script engine: {}", e.getMessage () );
+            return null;
+        }
+    }
+
+    /**
+     * Evaluate a compiled expression
+     * 
+     * @param writeValue
+     *            the value to write, or <code>null</code> when evaluating the
+     *            input formula
+     */
+    private Object evaluate ( final CompiledExpression expression, final Slots slots, final Map<String, DataSourceHandler> sources, final Variant writeValue )
+    {
+        for ( int i = 0; i < expression.getVariableCount (); i++ )
+        {
+            final String name = expression.getVariableName ( i );
+
+            final Variant value;
+            if ( writeValue != null && name.equals ( this.writeValueName ) )
+            {
+                value = writeValue;
+            }
+            else
+            {
+                final DataSourceHandler handler = sources.get ( name );
+                value = handler == null ? null : handler.getValue ().getValue ();
+            }
+
+            if ( expression.getVariableType ( i ) == Type.BOOLEAN )
+            {
+                slots.setBoolean ( i, value != null && value.asBoolean () );
+            }
+            else
+            {
+                final Double number = value == null ? null : value.asDouble ( null );
+                if ( number == null )
+                {
+                    throw new IllegalArgumentException ( String.format ( "Value of '%s' is not a number: %s", name, value ) );
+                }
+                slots.setNumber ( i, number );
+            }
+        }
+
+        return expression.evaluate ( slots );
+    }
+
     private static void incMap ( final String key, final Map<String, Integer> map )
     {
         Integer value = map.get ( key );
@@ -411,6 +582,14 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
         try
         {
             final Map<String, Integer> flags = new HashMap<String, Integer> ( 4 );
+
+            if ( this.inputExpression != null )
+            {
+                gatherData ( sources, flags, null );
+                setResult ( evaluate ( this.inputExpression, this.inputSlots, sources, null ), flags );
+                return;
+            }
+
             final Map<String, Object> values = new HashMap<String, Object> ( sources.size () );
 
             gatherData ( sources, flags, values );
@@ -456,6 +635,11 @@ public class FormulaDataSource extends AbstractMultiSourceDataSource
                 incMap ( "manual", flags );
             }
 
+            if ( values == null )
+            {
+                continue;
+            }
+
             final Variant variantValue = value.getValue ();
 
             if ( variantValue != null )
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.formula.expression;
+
+/**
+ * An expression compiled by {@link ExpressionCompiler}
+ * <p>
+ * Instances are immutable and may be evaluated concurrently, as long as each
+ * thread uses its own {@link Slots}.
+ * </p>
+ */
+public class CompiledExpression
+{
+    private final String expression;
+
+    private final Node root;
+
+    private final String[] variableNames;
+
+    private final Type[] variableTypes;
+
+    CompiledExpression ( final String expression, final Node root, final String[] variableNames, final Type[] variableTypes )
+    {
+        this.expression = expression;
+        this.root = root;
+        this.variableNames = variableNames;
+        this.variableTypes = variableTypes;
+    }
+
+    public String getExpression ()
+    {
+        return this.expression;
+    }
+
+    public Type getType ()
+    {
+        return this.root.getType ();
+    }
+
+    public int getVariableCount ()
+    {
+        return this.variableNames.length;
+    }
+
+    public String getVariableName ( final int index )
+    {
+        return this.variableNames[index];
+    }
+
+    public Type getVariableType ( final int index )
+    {
+        return this.variableTypes[index];
+    }
+
+    public Slots createSlots ()
+    {
+        return new Slots ( this.variableNames.length );
+    }
+
+    /**
+     * Evaluate the expression
+     *
+     * @return the result, either a {@link Double} or a {@link Boolean}
+     */
+    public Object evaluate ( final Slots slots )
+    {
+        if ( this.root.getType () == Type.BOOLEAN )
+        {
+            return this.root.evaluateBoolean ( slots );
+        }
+        else
+        {
+            return this.root.evaluateNumber ( slots );
+        }
+    }
+
+    @Override
+    public String toString ()
+    {
+        return this.expression;
+    }
+}
@@ -0,0 +1,598 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.formula.expression;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.scada.da.datasource.formula.expression.Node.ArithmeticOperator;
+import org.eclipse.scada.da.datasource.formula.expression.Node.CompareOperator;
+import org.eclipse.scada.da.datasource.formula.expression.Node.Function;
+
+/**
+ * Compiles simple formulas to a typed expression tree
+ * <p>
+ * The supported language is the arithmetic and boolean subset of JavaScript:
+ * number and boolean literals, variables, the operators
+ * <code>+ - * / % &lt; &lt;= &gt; &gt;= == != === !== &amp;&amp; || ! ?:</code>
+ * , parentheses and the functions <code>abs, sqrt, floor, ceil, round, exp,
+ * log, sin, cos, tan, pow, min, max</code> with or without the
+ * <code>Math.</code> prefix. Statements may be separated by <code>;</code>.
+ * A formula evaluates to the same result as with the JavaScript engine.
+ * </p>
+ * <p>
+ * Unlike JavaScript types are checked at compile time. Arithmetic and
+ * comparison operators require numbers, logical operators require booleans.
+ * Anything else, e.g. strings, assignments or unknown variables, is rejected
+ * with an {@link ExpressionException}, so the caller can fall back to a
+ * script engine.
+ * </p>
+ */
+public final class ExpressionCompiler
+{
+    private static final Map<String, Function> FUNCTIONS = new HashMap<String, Function> ();
+
+    static
+    {
+        for ( final Function function : Function.values () )
+        {
+            final String name = function.name ().toLowerCase ();
+            FUNCTIONS.put ( name, function );
+            FUNCTIONS.put ( "Math." + name, function );
+        }
+    }
+
+    /**
+     * The operators, longer ones first
+     * <p>
+     * Increment and decrement are not supported, but must not be read as two
+     * signs.
+     * </p>
+     */
+    private static final String[] OPERATORS = new String[] { "===", "!==", "==", "!=", "<=", ">=", "&&", "||", "++", "--", "+", "-", "*", "/", "%", "<", ">", "!", "(", ")", ",", "?", ":", ";" };
+
+    private static final Slots NO_SLOTS = new Slots ( 0 );
+
+    private enum TokenType
+    {
+        NUMBER,
+        IDENTIFIER,
+        OPERATOR,
+        END;
+    }
+
+    private final String expression;
+
+    private final Map<String, Type> variableTypes;
+
+    private final Map<String, Integer> variables = new LinkedHashMap<String, Integer> ();
+
+    private int position;
+
+    private TokenType tokenType;
+
+    private String token;
+
+    private ExpressionCompiler ( final String expression, final Map<String, Type> variableTypes )
+    {
+        this.expression = expression;
+        this.variableTypes = variableTypes;
+    }
+
+    /**
+     * Compile an expression
+     *
+     * @param expression
+     *            the expression
+     * @param variableTypes
+     *            the variables which may be used by the expression, and their
+     *            types
+     * @return the compiled expression, never <code>null</code>
+     * @throws ExpressionException
+     *             if the expression is invalid or not supported
+     */
+    public static CompiledExpression compile ( final String expression, final Map<String, Type> variableTypes ) throws ExpressionException
+    {
+        if ( expression == null )
+        {
+            throw new ExpressionException ( "Expression must not be null" );
+        }
+        return new ExpressionCompiler ( expression, variableTypes ).compile ();
+    }
+
+    private CompiledExpression compile () throws ExpressionException
+    {
+        next ();
+        final Node root = parseStatements ();
+
+        final String[] names = this.variables.keySet ().toArray ( new String[this.variables.size ()] );
+        final Type[] types = new Type[names.length];
+        for ( int i = 0; i < names.length; i++ )
+        {
+            types[i] = this.variableTypes.get ( names[i] );
+        }
+
+        return new CompiledExpression ( this.expression, root, names, types );
+    }
+
+    // parser
+
+    /**
+     * Parse statements separated by <code>;</code>
+     * <p>
+     * Like the result of a script the result is the value of the last
+     * statement. Statements have no side effects, so the others are only
+     * checked.
+     * </p>
+     */
+    private Node parseStatements () throws ExpressionException
+    {
+        Node result = null;
+        while ( this.tokenType != TokenType.END )
+        {
+            if ( isOperator ( ";" ) )
+            {
+                // empty statement
+                next ();
+                continue;
+            }
+
+            result = parseConditional ();
+            if ( this.tokenType != TokenType.END )
+            {
+                expect ( ";" );
+            }
+        }
+
+        if ( result == null )
+        {
+            throw error ( "Empty expression" );
+        }
+        return result;
+    }
+
+    private Node parseConditional () throws ExpressionException
+    {
+        final Node condition = parseOr ();
+        if ( !isOperator ( "?" ) )
+        {
+            return condition;
+        }
+        next ();
+
+        final Node whenTrue = parseConditional ();
+        expect ( ":" );
+        final Node whenFalse = parseConditional ();
+
+        requireType ( condition, Type.BOOLEAN, "?" );
+        if ( whenTrue.getType () != whenFalse.getType () )
+        {
+            throw error ( "Both branches of '?' must have the same type" );
+        }
+        return fold ( new Node.Conditional ( condition, whenTrue, whenFalse ) );
+    }
+
+    private Node parseOr () throws ExpressionException
+    {
+        Node result = parseAnd ();
+        while ( isOperator ( "||" ) )
+        {
+            next ();
+            final Node right = parseAnd ();
+            requireType ( result, Type.BOOLEAN, "||" );
+            requireType ( right, Type.BOOLEAN, "||" );
+            result = fold ( new Node.Or ( result, right ) );
+        }
+        return result;
+    }
+
+    private Node parseAnd () throws ExpressionException
+    {
+        Node result = parseEquality ();
+        while ( isOperator ( "&&" ) )
+        {
+            next ();
+            final Node right = parseEquality ();
+            requireType ( result, Type.BOOLEAN, "&&" );
+            requireType ( right, Type.BOOLEAN, "&&" );
+            result = fold ( new Node.And ( result, right ) );
+        }
+        return result;
+    }
+
+    private Node parseEquality () throws ExpressionException
+    {
+        Node result = parseRelational ();
+        while ( isOperator ( "==" ) || isOperator ( "!=" ) || isOperator ( "===" ) || isOperator ( "!==" ) )
+        {
+            final String operator = this.token;
+            next ();
+            final Node right = parseRelational ();
+
+            if ( result.getType () != right.getType () )
+            {
+                throw error ( "Operands of '%s' must have the same type", operator );
+            }
+
+            final boolean equal = operator.charAt ( 0 ) == '=';
+            if ( result.getType () == Type.BOOLEAN )
+            {
+                result = fold ( new Node.CompareBooleans ( equal, result, right ) );
+            }
+            else
+            {
+                result = fold ( new Node.CompareNumbers ( equal ? CompareOperator.EQUAL : CompareOperator.NOT_EQUAL, result, right ) );
+            }
+        }
+        return result;
+    }
+
+    private Node parseRelational () throws ExpressionException
+    {
+        Node result = parseAdditive ();
+        for ( ;; )
+        {
+            final CompareOperator operator;
+            if ( isOperator ( "<" ) )
+            {
+                operator = CompareOperator.LESS;
+            }
+            else if ( isOperator ( "<=" ) )
+            {
+                operator = CompareOperator.LESS_EQUAL;
+            }
+            else if ( isOperator ( ">" ) )
+            {
+                operator = CompareOperator.GREATER;
+            }
+            else if ( isOperator ( ">=" ) )
+            {
+                operator = CompareOperator.GREATER_EQUAL;
+            }
+            else
+            {
+                return result;
+            }
+
+            final String token = this.token;
+            next ();
+            final Node right = parseAdditive ();
+            requireType ( result, Type.NUMBER, token );
+            requireType ( right, Type.NUMBER, token );
+            result = fold ( new Node.CompareNumbers ( operator, result, right ) );
+        }
+    }
+
+    private Node parseAdditive () throws ExpressionException
+    {
+        Node result = parseMultiplicative ();
+        for ( ;; )
+        {
+            final ArithmeticOperator operator;
+            if ( isOperator ( "+" ) )
+            {
+                operator = ArithmeticOperator.ADD;
+            }
+            else if ( isOperator ( "-" ) )
+            {
+                operator = ArithmeticOperator.SUBTRACT;
+            }
+            else
+            {
+                return result;
+            }
+            result = parseArithmetic ( operator, result, false );
+        }
+    }
+
+    private Node parseMultiplicative () throws ExpressionException
+    {
+        Node result = parseUnary ();
+        for ( ;; )
+        {
+            final ArithmeticOperator operator;
+            if ( isOperator ( "*" ) )
+            {
+                operator = ArithmeticOperator.MULTIPLY;
+            }
+            else if ( isOperator ( "/" ) )
+            {
+                operator = ArithmeticOperator.DIVIDE;
+            }
+            else if ( isOperator ( "%" ) )
+            {
+                operator = ArithmeticOperator.REMAINDER;
+            }
+            else
+            {
+                return result;
+            }
+            result = parseArithmetic ( operator, result, true );
+        }
+    }
+
+    private Node parseArithmetic ( final ArithmeticOperator operator, final Node left, final boolean multiplicative ) throws ExpressionException
+    {
+        final String token = this.token;
+        next ();
+        final Node right = multiplicative ? parseUnary () : parseMultiplicative ();
+        // "+" on other types would be string concatenation
+        requireType ( left, Type.NUMBER, token );
+        requireType ( right, Type.NUMBER, token );
+        return fold ( new Node.Arithmetic ( operator, left, right ) );
+    }
+
+    private Node parseUnary () throws ExpressionException
+    {
+        if ( isOperator ( "-" ) )
+        {
+            next ();
+            final Node value = parseUnary ();
+            requireType ( value, Type.NUMBER, "-" );
+            return fold ( new Node.Negate ( value ) );
+        }
+        else if ( isOperator ( "+" ) )
+        {
+            next ();
+            final Node value = parseUnary ();
+            requireType ( value, Type.NUMBER, "+" );
+            return value;
+        }
+        else if ( isOperator ( "!" ) )
+        {
+            next ();
+            final Node value = parseUnary ();
+            requireType ( value, Type.BOOLEAN, "!" );
+            return fold ( new Node.Not ( value ) );
+        }
+        return parsePrimary ();
+    }
+
+    private Node parsePrimary () throws ExpressionException
+    {
+        if ( this.tokenType == TokenType.NUMBER )
+        {
+            final Node result = new Node.NumberConstant ( Double.parseDouble ( this.token ) );
+            next ();
+            return result;
+        }
+
+        if ( isOperator ( "(" ) )
+        {
+            next ();
+            final Node result = parseConditional ();
+            expect ( ")" );
+            return result;
+        }
+
+        if ( this.tokenType == TokenType.IDENTIFIER )
+        {
+            final String name = this.token;
+            next ();
+
+            if ( isOperator ( "(" ) )
+            {
+                return parseCall ( name );
+            }
+            else if ( "true".equals ( name ) )
+            {
+                return new Node.BooleanConstant ( true );
+            }
+            else if ( "false".equals ( name ) )
+            {
+                return new Node.BooleanConstant ( false );
+            }
+            else
+            {
+                return makeVariable ( name );
+            }
+        }
+
+        if ( this.tokenType == TokenType.END )
+        {
+            throw error ( "Unexpected end of expression" );
+        }
+        throw error ( "Unexpected '%s'", this.token );
+    }
+
+    private Node parseCall ( final String name ) throws ExpressionException
+    {
+        final Function function = FUNCTIONS.get ( name );
+        if ( function == null )
+        {
+            throw error ( "Unknown function '%s'", name );
+        }
+
+        expect ( "(" );
+
+        final List<Node> arguments = new ArrayList<Node> ();
+        if ( !isOperator ( ")" ) )
+        {
+            for ( ;; )
+            {
+                final Node argument = parseConditional ();
+                requireType ( argument, Type.NUMBER, name );
+                arguments.add ( argument );
+                if ( !isOperator ( "," ) )
+                {
+                    break;
+                }
+                next ();
+            }
+        }
+        expect ( ")" );
+
+        if ( arguments.size () < function.getMinArguments () || arguments.size () > function.getMaxArguments () )
+        {
+            throw error ( "Wrong number of arguments for '%s': %s", name, arguments.size () );
+        }
+
+        return fold ( new Node.Call ( function, arguments.toArray ( new Node[arguments.size ()] ) ) );
+    }
+
+    private Node makeVariable ( final String name ) throws ExpressionException
+    {
+        final Type type = this.variableTypes.get ( name );
+        if ( type == null )
+        {
+            throw error ( "Unknown variable '%s'", name );
+        }
+
+        Integer index = this.variables.get ( name );
+        if ( index == null )
+        {
+            index = this.variables.size ();
+            this.variables.put ( name, index );
+        }
+
+        if ( type == Type.BOOLEAN )
+        {
+            return new Node.BooleanVariable ( index );
+        }
+        else
+        {
+            return new Node.NumberVariable ( index );
+        }
+    }
+
+    /**
+     * Replace nodes which don't depend on variables by their value
+     */
+    private static Node fold ( final Node node )
+    {
+        if ( !node.isConstant () )
+        {
+            return node;
+        }
+
+        if ( node.getType () == Type.BOOLEAN )
+        {
+            return new Node.BooleanConstant ( node.evaluateBoolean ( NO_SLOTS ) );
+        }
+        else
+        {
+            return new Node.NumberConstant ( node.evaluateNumber ( NO_SLOTS ) );
+        }
+    }
+
+    private void requireType ( final Node node, final Type type, final String operator ) throws ExpressionException
+    {
+        if ( node.getType () != type )
+        {
+            throw error ( "'%s' requires an operand of type %s but found %s", operator, type, node.getType () );
+        }
+    }
+
+    private void expect ( final String operator ) throws ExpressionException
+    {
+        if ( !isOperator ( operator ) )
+        {
+            throw error ( "Expected '%s' but found '%s'", operator, this.tokenType == TokenType.END ? "end of expression" : this.token );
+        }
+        next ();
+    }
+
+    private boolean isOperator ( final String operator )
+    {
+        return this.tokenType == TokenType.OPERATOR && operator.equals ( this.token );
+    }
+
+    private ExpressionException error ( final String format, final Object... args )
+    {
+        return new ExpressionException ( String.format ( "%s (at position %s of '%s')", String.format ( format, args ), this.position, this.expression ) );
+    }
+
+    // tokenizer
+
+    private void next () throws ExpressionException
+    {
+        final String s = this.expression;
+        final int len = s.length ();
+
+        while ( this.position < len && Character.isWhitespace ( s.charAt ( this.position ) ) )
+        {
+            this.position++;
+        }
+
+        if ( this.position >= len )
+        {
+            this.tokenType = TokenType.END;
+            this.token = null;
+            return;
+        }
+
+        final int start = this.position;
+        final char c = s.charAt ( start );
+
+        if ( Character.isDigit ( c ) || c == '.' && start + 1 < len && Character.isDigit ( s.charAt ( start + 1 ) ) )
+        {
+            int i = start;
+            while ( i < len && ( Character.isDigit ( s.charAt ( i ) ) || s.charAt ( i ) == '.' ) )
+            {
+                i++;
+            }
+            if ( i < len && ( s.charAt ( i ) == 'e' || s.charAt ( i ) == 'E' ) )
+            {
+                i++;
+                if ( i < len && ( s.charAt ( i ) == '+' || s.charAt ( i ) == '-' ) )
+                {
+                    i++;
+                }
+                while ( i < len && Character.isDigit ( s.charAt ( i ) ) )
+                {
+                    i++;
+                }
+            }
+            this.tokenType = TokenType.NUMBER;
+            this.token = s.substring ( start, i );
+            this.position = i;
+
+            try
+            {
+                Double.parseDouble ( this.token );
+            }
+            catch ( final NumberFormatException e )
+            {
+                throw error ( "Invalid number '%s'", this.token );
+            }
+            return;
+        }
+
+        if ( Character.isJavaIdentifierStart ( c ) )
+        {
+            int i = start + 1;
+            while ( i < len && ( Character.isJavaIdentifierPart ( s.charAt ( i ) ) || s.charAt ( i ) == '.' ) )
+            {
+                i++;
+            }
+            this.tokenType = TokenType.IDENTIFIER;
+            this.token = s.substring ( start, i );
+            this.position = i;
+            return;
+        }
+
+        for ( final String operator : OPERATORS )
+        {
+            if ( s.startsWith ( operator, start ) )
+            {
+                this.tokenType = TokenType.OPERATOR;
+                this.token = operator;
+                this.position += operator.length ();
+                return;
+            }
+        }
+
+        throw error ( "Unsupported character '%s'", c );
+    }
+}
@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.formula.expression;
+
+/**
+ * Thrown if an expression is invalid or uses features which are not supported
+ * by the expression compiler
+ */
+public class ExpressionException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    public ExpressionException ( final String message )
+    {
+        super ( message );
+    }
+}
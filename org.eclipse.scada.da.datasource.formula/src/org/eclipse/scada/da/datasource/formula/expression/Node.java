@@ -0,0 +1,540 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.formula.expression;
+
+/**
+ * A node of the typed expression tree
+ * <p>
+ * The type of each node is known when the tree is built, so a node is only
+ * ever evaluated with the method matching its type.
+ * </p>
+ */
+abstract class Node
+{
+    private final Type type;
+
+    protected Node ( final Type type )
+    {
+        this.type = type;
+    }
+
+    public Type getType ()
+    {
+        return this.type;
+    }
+
+    /**
+     * @return <code>true</code> if the node does not depend on any variable
+     */
+    public abstract boolean isConstant ();
+
+    public double evaluateNumber ( final Slots slots )
+    {
+        throw new IllegalStateException ( String.format ( "Node of type %s is not a number", this.type ) );
+    }
+
+    public boolean evaluateBoolean ( final Slots slots )
+    {
+        throw new IllegalStateException ( String.format ( "Node of type %s is not a boolean", this.type ) );
+    }
+
+    static final class NumberConstant extends Node
+    {
+        private final double value;
+
+        public NumberConstant ( final double value )
+        {
+            super ( Type.NUMBER );
+            this.value = value;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return true;
+        }
+
+        @Override
+        public double evaluateNumber ( final Slots slots )
+        {
+            return this.value;
+        }
+    }
+
+    static final class BooleanConstant extends Node
+    {
+        private final boolean value;
+
+        public BooleanConstant ( final boolean value )
+        {
+            super ( Type.BOOLEAN );
+            this.value = value;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            return this.value;
+        }
+    }
+
+    static final class NumberVariable extends Node
+    {
+        private final int index;
+
+        public NumberVariable ( final int index )
+        {
+            super ( Type.NUMBER );
+            this.index = index;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return false;
+        }
+
+        @Override
+        public double evaluateNumber ( final Slots slots )
+        {
+            return slots.numbers[this.index];
+        }
+    }
+
+    static final class BooleanVariable extends Node
+    {
+        private final int index;
+
+        public BooleanVariable ( final int index )
+        {
+            super ( Type.BOOLEAN );
+            this.index = index;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            return slots.booleans[this.index];
+        }
+    }
+
+    enum ArithmeticOperator
+    {
+        ADD,
+        SUBTRACT,
+        MULTIPLY,
+        DIVIDE,
+        REMAINDER;
+    }
+
+    static final class Arithmetic extends Node
+    {
+        private final ArithmeticOperator operator;
+
+        private final Node left;
+
+        private final Node right;
+
+        public Arithmetic ( final ArithmeticOperator operator, final Node left, final Node right )
+        {
+            super ( Type.NUMBER );
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return this.left.isConstant () && this.right.isConstant ();
+        }
+
+        @Override
+        public double evaluateNumber ( final Slots slots )
+        {
+            final double l = this.left.evaluateNumber ( slots );
+            final double r = this.right.evaluateNumber ( slots );
+            switch ( this.operator )
+            {
+                case ADD:
+                    return l + r;
+                case SUBTRACT:
+                    return l - r;
+                case MULTIPLY:
+                    return l * r;
+                case DIVIDE:
+                    return l / r;
+                case REMAINDER:
+                    return l % r;
+            }
+            throw new IllegalStateException ( String.format ( "Unknown operator: %s", this.operator ) );
+        }
+    }
+
+    static final class Negate extends Node
+    {
+        private final Node value;
+
+        public Negate ( final Node value )
+        {
+            super ( Type.NUMBER );
+            this.value = value;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return this.value.isConstant ();
+        }
+
+        @Override
+        public double evaluateNumber ( final Slots slots )
+        {
+            return -this.value.evaluateNumber ( slots );
+        }
+    }
+
+    enum CompareOperator
+    {
+        LESS,
+        LESS_EQUAL,
+        GREATER,
+        GREATER_EQUAL,
+        EQUAL,
+        NOT_EQUAL;
+    }
+
+    static final class CompareNumbers extends Node
+    {
+        private final CompareOperator operator;
+
+        private final Node left;
+
+        private final Node right;
+
+        public CompareNumbers ( final CompareOperator operator, final Node left, final Node right )
+        {
+            super ( Type.BOOLEAN );
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return this.left.isConstant () && this.right.isConstant ();
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            final double l = this.left.evaluateNumber ( slots );
+            final double r = this.right.evaluateNumber ( slots );
+            switch ( this.operator )
+            {
+                case LESS:
+                    return l < r;
+                case LESS_EQUAL:
+                    return l <= r;
+                case GREATER:
+                    return l > r;
+                case GREATER_EQUAL:
+                    return l >= r;
+                case EQUAL:
+                    return l == r;
+                case NOT_EQUAL:
+                    return l != r;
+            }
+            throw new IllegalStateException ( String.format ( "Unknown operator: %s", this.operator ) );
+        }
+    }
+
+    static final class CompareBooleans extends Node
+    {
+        private final boolean equal;
+
+        private final Node left;
+
+        private final Node right;
+
+        public CompareBooleans ( final boolean equal, final Node left, final Node right )
+        {
+            super ( Type.BOOLEAN );
+            this.equal = equal;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return this.left.isConstant () && this.right.isConstant ();
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            return ( this.left.evaluateBoolean ( slots ) == this.right.evaluateBoolean ( slots ) ) == this.equal;
+        }
+    }
+
+    static final class Not extends Node
+    {
+        private final Node value;
+
+        public Not ( final Node value )
+        {
+            super ( Type.BOOLEAN );
+            this.value = value;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return this.value.isConstant ();
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            return !this.value.evaluateBoolean ( slots );
+        }
+    }
+
+    static final class And extends Node
+    {
+        private final Node left;
+
+        private final Node right;
+
+        public And ( final Node left, final Node right )
+        {
+            super ( Type.BOOLEAN );
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return this.left.isConstant () && this.right.isConstant ();
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            return this.left.evaluateBoolean ( slots ) && this.right.evaluateBoolean ( slots );
+        }
+    }
+
+    static final class Or extends Node
+    {
+        private final Node left;
+
+        private final Node right;
+
+        public Or ( final Node left, final Node right )
+        {
+            super ( Type.BOOLEAN );
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return this.left.isConstant () && this.right.isConstant ();
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            return this.left.evaluateBoolean ( slots ) || this.right.evaluateBoolean ( slots );
+        }
+    }
+
+    static final class Conditional extends Node
+    {
+        private final Node condition;
+
+        private final Node whenTrue;
+
+        private final Node whenFalse;
+
+        public Conditional ( final Node condition, final Node whenTrue, final Node whenFalse )
+        {
+            super ( whenTrue.getType () );
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            return this.condition.isConstant () && this.whenTrue.isConstant () && this.whenFalse.isConstant ();
+        }
+
+        @Override
+        public double evaluateNumber ( final Slots slots )
+        {
+            return this.condition.evaluateBoolean ( slots ) ? this.whenTrue.evaluateNumber ( slots ) : this.whenFalse.evaluateNumber ( slots );
+        }
+
+        @Override
+        public boolean evaluateBoolean ( final Slots slots )
+        {
+            return this.condition.evaluateBoolean ( slots ) ? this.whenTrue.evaluateBoolean ( slots ) : this.whenFalse.evaluateBoolean ( slots );
+        }
+    }
+
+    enum Function
+    {
+        ABS ( 1, 1 ),
+        SQRT ( 1, 1 ),
+        FLOOR ( 1, 1 ),
+        CEIL ( 1, 1 ),
+        ROUND ( 1, 1 ),
+        EXP ( 1, 1 ),
+        LOG ( 1, 1 ),
+        SIN ( 1, 1 ),
+        COS ( 1, 1 ),
+        TAN ( 1, 1 ),
+        POW ( 2, 2 ),
+        MIN ( 1, Integer.MAX_VALUE ),
+        MAX ( 1, Integer.MAX_VALUE );
+
+        private final int minArguments;
+
+        private final int maxArguments;
+
+        private Function ( final int minArguments, final int maxArguments )
+        {
+            this.minArguments = minArguments;
+            this.maxArguments = maxArguments;
+        }
+
+        public int getMinArguments ()
+        {
+            return this.minArguments;
+        }
+
+        public int getMaxArguments ()
+        {
+            return this.maxArguments;
+        }
+    }
+
+    static final class Call extends Node
+    {
+        private final Function function;
+
+        private final Node[] arguments;
+
+        public Call ( final Function function, final Node[] arguments )
+        {
+            super ( Type.NUMBER );
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public boolean isConstant ()
+        {
+            for ( final Node argument : this.arguments )
+            {
+                if ( !argument.isConstant () )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public double evaluateNumber ( final Slots slots )
+        {
+            final double a = this.arguments[0].evaluateNumber ( slots );
+            switch ( this.function )
+            {
+                case ABS:
+                    return Math.abs ( a );
+                case SQRT:
+                    return Math.sqrt ( a );
+                case FLOOR:
+                    return Math.floor ( a );
+                case CEIL:
+                    return Math.ceil ( a );
+                case ROUND:
+                {
+                    // same as the script engine: round half up by adding 0.5, keep the sign of zero and leave values which can't have a fraction
+                    if ( Double.isNaN ( a ) || Math.abs ( a ) >= 0x1p52 )
+                    {
+                        return a;
+                    }
+                    return Math.copySign ( Math.floor ( a + 0.5 ), a );
+                }
+                case EXP:
+                    return Math.exp ( a );
+                case LOG:
+                    return Math.log ( a );
+                case SIN:
+                    return Math.sin ( a );
+                case COS:
+                    return Math.cos ( a );
+                case TAN:
+                    return Math.tan ( a );
+                case POW:
+                {
+                    final double b = this.arguments[1].evaluateNumber ( slots );
+                    if ( Math.abs ( a ) == 1.0 && Double.isInfinite ( b ) )
+                    {
+                        // JavaScript differs from Java here
+                        return Double.NaN;
+                    }
+                    return Math.pow ( a, b );
+                }
+                case MIN:
+                {
+                    double result = a;
+                    for ( int i = 1; i < this.arguments.length; i++ )
+                    {
+                        result = Math.min ( result, this.arguments[i].evaluateNumber ( slots ) );
+                    }
+                    return result;
+                }
+                case MAX:
+                {
+                    double result = a;
+                    for ( int i = 1; i < this.arguments.length; i++ )
+                    {
+                        result = Math.max ( result, this.arguments[i].evaluateNumber ( slots ) );
+                    }
+                    return result;
+                }
+            }
+            throw new IllegalStateException ( String.format ( "Unknown function: %s", this.function ) );
+        }
+    }
+}
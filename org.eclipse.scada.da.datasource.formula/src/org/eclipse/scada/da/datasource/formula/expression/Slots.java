@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.formula.expression;
+
+/**
+ * The variable values of one evaluation of a {@link CompiledExpression}
+ * <p>
+ * Each variable has a fixed slot index, assigned by the compiler. Values are
+ * stored as primitives, so setting them does not allocate.
+ * </p>
+ */
+public class Slots
+{
+    final double[] numbers;
+
+    final boolean[] booleans;
+
+    Slots ( final int size )
+    {
+        this.numbers = new double[size];
+        this.booleans = new boolean[size];
+    }
+
+    public void setNumber ( final int index, final double value )
+    {
+        this.numbers[index] = value;
+    }
+
+    public void setBoolean ( final int index, final boolean value )
+    {
+        this.booleans[index] = value;
+    }
+}
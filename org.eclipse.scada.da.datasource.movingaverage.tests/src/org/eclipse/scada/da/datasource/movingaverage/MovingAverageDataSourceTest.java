@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.movingaverage;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.data.SubscriptionState;
+import org.eclipse.scada.da.datasource.data.DataItemValueLight;
+import org.eclipse.scada.da.datasource.data.DataItemValueRange;
+import org.eclipse.scada.da.datasource.data.DataItemValueRange.DataItemValueRangeState;
+import org.eclipse.scada.da.datasource.movingaverage.MovingAverageDataSource.AverageValues;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the averages calculated from the running aggregates against iterating
+ * over all values of the range
+ */
+public class MovingAverageDataSourceTest
+{
+    private static final long RANGE = 60000;
+
+    private static final double DELTA = 1e-6;
+
+    /**
+     * Calculate the averages by iterating over all values, like the moving
+     * average did before the value range had running aggregates
+     */
+    private static AverageValues calculateFull ( final DataItemValueRangeState state, final long range, final long nullRange )
+    {
+        final AverageValues average = new AverageValues ();
+        if ( state.getSize () == 0 )
+        {
+            if ( state.getFirstValue ().hasValue () )
+            {
+                average.min = state.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.max = state.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.arithmetic = state.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.median = state.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.weighted = state.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.deviationArithmetic = 0.0;
+                average.deviationWeighted = 0.0;
+            }
+            return average;
+        }
+
+        final LinkedList<Double> values = new LinkedList<Double> ();
+
+        DataItemValueLight lastValue = new DataItemValueLight ( state.getFirstValue ().getValue (), state.getFirstValue ().getSubscriptionState (), state.getOldestPossibleTimestamp (), state.getFirstValue ().isManual (), state.getFirstValue ().isError () );
+        final Iterator<DataItemValueLight> it = state.getValues ().iterator ();
+        for ( int i = 0; i < state.getSize () + 1; i++ )
+        {
+            final long currentRange;
+            final DataItemValueLight next;
+            if ( i < state.getSize () )
+            {
+                next = it.next ();
+                currentRange = next.getTimestamp () - lastValue.getTimestamp ();
+            }
+            else
+            {
+                next = null;
+                currentRange = state.getOldestPossibleTimestamp () + range - lastValue.getTimestamp ();
+            }
+
+            final Variant value = lastValue.getValue ();
+            if ( !value.isNumber () )
+            {
+                average.nullRange += currentRange;
+            }
+            else
+            {
+                final double d = value.asDouble ( 0.0 );
+                average.min = average.min == null ? d : Math.min ( average.min, d );
+                average.max = average.max == null ? d : Math.max ( average.max, d );
+                average.arithmetic = ( average.arithmetic == null ? 0.0 : average.arithmetic ) + d;
+                average.weighted = ( average.weighted == null ? 0.0 : average.weighted ) + d * currentRange;
+                values.add ( d );
+            }
+            if ( lastValue.isManual () )
+            {
+                average.manualRange += currentRange;
+            }
+            if ( lastValue.isError () )
+            {
+                average.errorRange += currentRange;
+            }
+            // intentional change: this counted the connected values before
+            if ( lastValue.getSubscriptionState () == SubscriptionState.DISCONNECTED )
+            {
+                average.disconnectedRange += currentRange;
+            }
+
+            lastValue = next;
+        }
+
+        if ( !values.isEmpty () )
+        {
+            average.arithmetic = average.arithmetic / values.size ();
+            average.weighted = average.weighted / range;
+
+            double da = 0.0;
+            double dw = 0.0;
+            for ( final double v : values )
+            {
+                da += Math.pow ( v - average.arithmetic, 2.0 );
+                dw += Math.pow ( v - average.weighted, 2.0 );
+            }
+            average.deviationArithmetic = Math.sqrt ( da / values.size () );
+            average.deviationWeighted = Math.sqrt ( dw / values.size () );
+
+            // intentional change: this took the middle of the values in time order before
+            Collections.sort ( values );
+            average.median = values.get ( values.size () / 2 );
+        }
+
+        if ( average.nullRange >= nullRange )
+        {
+            average.arithmetic = null;
+            average.median = null;
+            average.weighted = null;
+            average.deviationArithmetic = null;
+            average.deviationWeighted = null;
+        }
+
+        return average;
+    }
+
+    private static void assertEquals ( final Double expected, final Double actual )
+    {
+        if ( expected == null )
+        {
+            Assert.assertNull ( actual );
+        }
+        else
+        {
+            Assert.assertNotNull ( actual );
+            Assert.assertEquals ( expected, actual, DELTA );
+        }
+    }
+
+    private static void assertAverages ( final AverageValues expected, final AverageValues actual )
+    {
+        assertEquals ( expected.min, actual.min );
+        assertEquals ( expected.max, actual.max );
+        assertEquals ( expected.arithmetic, actual.arithmetic );
+        assertEquals ( expected.median, actual.median );
+        assertEquals ( expected.weighted, actual.weighted );
+        assertEquals ( expected.deviationArithmetic, actual.deviationArithmetic );
+        assertEquals ( expected.deviationWeighted, actual.deviationWeighted );
+        Assert.assertEquals ( expected.nullRange, actual.nullRange );
+        Assert.assertEquals ( expected.manualRange, actual.manualRange );
+        Assert.assertEquals ( expected.errorRange, actual.errorRange );
+        Assert.assertEquals ( expected.disconnectedRange, actual.disconnectedRange );
+    }
+
+    private static void assertFullRecompute ( final DataItemValueRange range, final long nullRange )
+    {
+        // both are taken from the same range, the range is only moved when adding values or checking it
+        final AverageValues expected = calculateFull ( range.getState (), range.getRange (), nullRange );
+        final AverageValues actual = MovingAverageDataSource.calculate ( range.getAggregates (), range.getRange (), nullRange );
+        assertAverages ( expected, actual );
+    }
+
+    private static DataItemValueLight makeValue ( final long timestamp, final double value )
+    {
+        return new DataItemValueLight ( Variant.valueOf ( value ), SubscriptionState.CONNECTED, timestamp, false, false );
+    }
+
+    @Test
+    public void testNoValueInRange ()
+    {
+        final DataItemValueRange range = new DataItemValueRange ( RANGE );
+        range.add ( makeValue ( System.currentTimeMillis () - 2 * RANGE, 42.0 ) );
+
+        final AverageValues average = MovingAverageDataSource.calculate ( range.getAggregates (), RANGE, RANGE );
+
+        assertEquals ( 42.0, average.min );
+        assertEquals ( 42.0, average.median );
+        assertEquals ( 42.0, average.weighted );
+        assertEquals ( 0.0, average.deviationArithmetic );
+        assertFullRecompute ( range, RANGE );
+    }
+
+    @Test
+    public void testAverages ()
+    {
+        final long now = System.currentTimeMillis ();
+
+        final DataItemValueRange range = new DataItemValueRange ( RANGE );
+        range.add ( makeValue ( now - 2 * RANGE, 1.0 ) );
+        range.add ( makeValue ( now - RANGE / 2, 3.0 ) );
+        range.add ( makeValue ( now - RANGE / 4, 8.0 ) );
+
+        final AverageValues average = MovingAverageDataSource.calculate ( range.getAggregates (), RANGE, RANGE );
+
+        assertEquals ( 1.0, average.min );
+        assertEquals ( 8.0, average.max );
+        assertEquals ( 4.0, average.arithmetic );
+        assertEquals ( 3.0, average.median );
+        Assert.assertEquals ( 0, average.nullRange );
+        Assert.assertEquals ( 0, average.disconnectedRange );
+        assertFullRecompute ( range, RANGE );
+    }
+
+    @Test
+    public void testNullRange ()
+    {
+        final long now = System.currentTimeMillis ();
+
+        final DataItemValueRange range = new DataItemValueRange ( RANGE );
+        range.add ( makeValue ( now - 2 * RANGE, 1.0 ) );
+        range.add ( new DataItemValueLight ( Variant.NULL, SubscriptionState.CONNECTED, now - RANGE / 2, false, false ) );
+
+        // the null value was active too long
+        final AverageValues average = MovingAverageDataSource.calculate ( range.getAggregates (), RANGE, RANGE / 4 );
+        assertEquals ( 1.0, average.min );
+        assertEquals ( null, average.arithmetic );
+        assertEquals ( null, average.median );
+        assertEquals ( null, average.weighted );
+        assertFullRecompute ( range, RANGE / 4 );
+
+        // the null value is acceptable
+        Assert.assertNotNull ( MovingAverageDataSource.calculate ( range.getAggregates (), RANGE, RANGE ).arithmetic );
+        assertFullRecompute ( range, RANGE );
+    }
+
+    /**
+     * The disconnected range only counts disconnected values
+     * <p>
+     * This is an intentional change, before the connected values were counted
+     * and connected sources were reported as disconnected.
+     * </p>
+     */
+    @Test
+    public void testDisconnectedRange ()
+    {
+        final long now = System.currentTimeMillis ();
+
+        final DataItemValueRange range = new DataItemValueRange ( RANGE );
+        range.add ( makeValue ( now - 2 * RANGE, 1.0 ) );
+        range.add ( makeValue ( now - RANGE / 2, 2.0 ) );
+
+        Assert.assertEquals ( 0, MovingAverageDataSource.calculate ( range.getAggregates (), RANGE, RANGE ).disconnectedRange );
+
+        range.add ( new DataItemValueLight ( Variant.NULL, SubscriptionState.DISCONNECTED, now - RANGE / 4, false, false ) );
+
+        final AverageValues average = MovingAverageDataSource.calculate ( range.getAggregates (), RANGE, RANGE );
+        // the range ends when it was last moved, which is a bit later than now
+        Assert.assertTrue ( average.disconnectedRange >= RANGE / 4 );
+        Assert.assertTrue ( average.disconnectedRange < RANGE / 2 );
+        assertFullRecompute ( range, RANGE );
+    }
+
+    /**
+     * Feed random values, including values which drop out of the range, and
+     * compare the averages after each value
+     */
+    @Test
+    public void testFullRecompute ()
+    {
+        final Random r = new Random ( 0 );
+
+        final DataItemValueRange range = new DataItemValueRange ( RANGE );
+
+        long timestamp = System.currentTimeMillis () - 3 * RANGE;
+        for ( int i = 0; i < 5000; i++ )
+        {
+            timestamp += r.nextInt ( (int) ( 5 * RANGE / 5000 ) );
+
+            final Variant value;
+            switch ( r.nextInt ( 8 ) )
+            {
+                case 0:
+                    value = Variant.NULL;
+                    break;
+                case 1:
+                    value = Variant.valueOf ( r.nextInt ( 100 ) );
+                    break;
+                default:
+                    value = Variant.valueOf ( r.nextGaussian () * 10.0 );
+                    break;
+            }
+            final SubscriptionState state = r.nextInt ( 10 ) == 0 ? SubscriptionState.DISCONNECTED : SubscriptionState.CONNECTED;
+
+            range.add ( new DataItemValueLight ( value, state, timestamp, r.nextInt ( 10 ) == 0, r.nextInt ( 10 ) == 0 ) );
+
+            assertFullRecompute ( range, RANGE / 10 );
+            assertFullRecompute ( range, RANGE );
+        }
+    }
+}
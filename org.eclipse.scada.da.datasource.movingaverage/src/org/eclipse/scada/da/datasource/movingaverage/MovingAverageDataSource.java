@@ -8,13 +8,12 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jürgen Rose - additional work
+ *     IBH SYSTEMS GmbH - use running aggregates of the value range
  *******************************************************************************/
 package org.eclipse.scada.da.datasource.movingaverage;
 
 import java.util.Dictionary;
 import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -32,6 +31,7 @@ import org.eclipse.scada.da.datasource.SingleDataSourceTracker.ServiceListener;
 import org.eclipse.scada.da.datasource.base.DataInputSource;
 import org.eclipse.scada.da.datasource.data.DataItemValueLight;
 import org.eclipse.scada.da.datasource.data.DataItemValueRange;
+import org.eclipse.scada.da.datasource.data.ValueRangeAggregates;
 import org.eclipse.scada.utils.osgi.pool.ObjectPoolImpl;
 import org.eclipse.scada.utils.osgi.pool.ObjectPoolTracker;
 import org.osgi.framework.InvalidSyntaxException;
@@ -226,76 +226,57 @@ public class MovingAverageDataSource implements DataSourceListener
 
     private void updateValues ()
     {
-        final DataItemValueRange.DataItemValueRangeState state = this.valueRange.getState ();
+        updateAverage ( calculate ( this.valueRange.getAggregates (), this.valueRange.getRange (), this.nullrange * 1000 ) );
+    }
+
+    /**
+     * Calculate the averages of a value range
+     *
+     * @param range
+     *            the length of the range in milliseconds
+     * @param nullRange
+     *            the time in milliseconds non-numeric values may be active
+     *            before the averages get invalid
+     */
+    static AverageValues calculate ( final ValueRangeAggregates aggregates, final long range, final long nullRange )
+    {
         final AverageValues average = new AverageValues ();
-        if ( state.getSize () == 0 )
+        if ( aggregates.getSize () == 0 )
         {
             // we don't have values fitting within time frame, just use last available
-            if ( state.getFirstValue ().hasValue () )
+            if ( aggregates.getFirstValue ().hasValue () )
             {
-                average.min = state.getFirstValue ().getValue ().asDouble ( 0.0 );
-                average.max = state.getFirstValue ().getValue ().asDouble ( 0.0 );
-                average.arithmetic = state.getFirstValue ().getValue ().asDouble ( 0.0 );
-                average.median = state.getFirstValue ().getValue ().asDouble ( 0.0 );
-                average.weighted = state.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.min = aggregates.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.max = aggregates.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.arithmetic = aggregates.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.median = aggregates.getFirstValue ().getValue ().asDouble ( 0.0 );
+                average.weighted = aggregates.getFirstValue ().getValue ().asDouble ( 0.0 );
                 average.deviationArithmetic = 0.0;
                 average.deviationWeighted = 0.0;
             }
         }
         else
         {
-            // ok, so we have at least one value in our list (could still be null)
-            DataItemValueLight lastValue = new DataItemValueLight ( state.getFirstValue ().getValue (), state.getFirstValue ().getSubscriptionState (), state.getOldestPossibleTimestamp (), state.getFirstValue ().isManual (), state.getFirstValue ().isError () );
-            final Iterator<DataItemValueLight> it = state.getValues ().iterator (); // it is a set, so we have to use an iterator
-            for ( int i = 0; i < state.getSize () + 1; i++ )
-            {
-                if ( i < state.getSize () )
-                {
-                    final DataItemValueLight divl = it.next ();
-                    final long currentRange = divl.getTimestamp () - lastValue.getTimestamp ();
-                    calculateForRange ( average, currentRange, lastValue.getValue (), lastValue.isManual (), lastValue.isError (), lastValue.getSubscriptionState () != SubscriptionState.DISCONNECTED );
-                    lastValue = divl;
-                }
-                else
-                {
-                    final long currentRange = state.getOldestPossibleTimestamp () + this.valueRange.getRange () - lastValue.getTimestamp ();
-                    calculateForRange ( average, currentRange, lastValue.getValue (), lastValue.isManual (), lastValue.isError (), lastValue.getSubscriptionState () != SubscriptionState.DISCONNECTED );
-                }
-            }
+            // the aggregates include the value active at the start of the range
+            average.min = aggregates.getMin ();
+            average.max = aggregates.getMax ();
+            average.arithmetic = aggregates.getArithmetic ();
+            average.median = aggregates.getMedian ();
 
-            // now calculate actual arithmetic average
-            if ( average.values.size () > 0 )
+            if ( aggregates.getCount () > 0 )
             {
-                average.arithmetic = average.arithmetic / average.values.size ();
+                average.weighted = aggregates.getWeightedSum () / range;
+                average.deviationArithmetic = aggregates.getDeviation ( average.arithmetic );
+                average.deviationWeighted = aggregates.getDeviation ( average.weighted );
             }
 
-            // now get median
-            if ( average.values.size () > 0 )
-            {
-                average.median = average.values.get ( average.values.size () / 2 );
-            }
-            // calculate actual weighted value
-            if ( average.weighted != null )
-            {
-                average.weighted = average.weighted / this.valueRange.getRange ();
-            }
-
-            // calculate deviation
-            if ( !average.values.isEmpty () )
-            {
-                double da = 0.0;
-                double dw = 0.0;
-                for ( final double v : average.values )
-                {
-                    da += Math.pow ( v - average.arithmetic, 2.0 );
-                    dw += Math.pow ( v - average.weighted, 2.0 );
-                }
-                average.deviationArithmetic = Math.sqrt ( da / average.values.size () );
-                average.deviationWeighted = Math.sqrt ( dw / average.values.size () );
-            }
+            average.nullRange = aggregates.getNullRange ();
+            average.manualRange = aggregates.getManualRange ();
+            average.errorRange = aggregates.getErrorRange ();
+            average.disconnectedRange = aggregates.getDisconnectedRange ();
 
             // handle null range
-            if ( average.nullRange >= this.nullrange * 1000 )
+            if ( average.nullRange >= nullRange )
             {
                 average.arithmetic = null;
                 average.median = null;
@@ -305,7 +286,7 @@ public class MovingAverageDataSource implements DataSourceListener
             }
         }
 
-        updateAverage ( average );
+        return average;
     }
 
     private void updateAverage ( final AverageValues average )
@@ -363,41 +344,6 @@ public class MovingAverageDataSource implements DataSourceListener
         }
     }
 
-    private void calculateForRange ( final AverageValues average, final long currentRange, final Variant value, final boolean isManual, final boolean isError, final boolean isDisconnected )
-    {
-        if ( !value.isNumber () )
-        {
-            average.nullRange += currentRange;
-        }
-        else
-        {
-            final double d = value.asDouble ( 0.0 );
-
-            average.min = average.min == null ? d : average.min;
-            average.max = average.max == null ? d : average.max;
-            average.arithmetic = average.arithmetic == null ? 0.0 : average.arithmetic;
-            average.weighted = average.weighted == null ? 0.0 : average.weighted;
-
-            average.min = d < average.min ? d : average.min;
-            average.max = d > average.max ? d : average.max;
-            average.arithmetic += d;
-            average.values.add ( d );
-            average.weighted += d * currentRange;
-        }
-        if ( isManual )
-        {
-            average.manualRange += currentRange;
-        }
-        if ( isError )
-        {
-            average.errorRange += currentRange;
-        }
-        if ( isDisconnected )
-        {
-            average.disconnectedRange += currentRange;
-        }
-    }
-
     private void updateDataSource () throws InvalidSyntaxException
     {
         logger.debug ( "updateDataSource ()" );
@@ -435,7 +381,7 @@ public class MovingAverageDataSource implements DataSourceListener
         }
     }
 
-    private class AverageValues
+    static class AverageValues
     {
         public Double min;
 
@@ -458,7 +404,5 @@ public class MovingAverageDataSource implements DataSourceListener
         public long errorRange = 0;
 
         public long disconnectedRange = 0;
-
-        public LinkedList<Double> values = new LinkedList<Double> ();
     }
 }
@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.data.SubscriptionState;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the running aggregates against calculating everything from scratch
+ */
+public class ValueRingBufferTest
+{
+    private static final double DELTA = 1e-6;
+
+    /**
+     * Keeps the values like the value range did before the ring buffer, and
+     * calculates the aggregates by iterating over all values
+     */
+    private static class Reference
+    {
+        private final SortedSet<DataItemValueLight> values = new TreeSet<DataItemValueLight> ( DataItemValueLight.timestampComparator );
+
+        private DataItemValueLight first = DataItemValueLight.DISCONNECTED;
+
+        public void add ( final DataItemValueLight value )
+        {
+            this.values.add ( value );
+        }
+
+        public void removeOlderThan ( final long timestamp )
+        {
+            final Iterator<DataItemValueLight> i = this.values.iterator ();
+            while ( i.hasNext () )
+            {
+                final DataItemValueLight value = i.next ();
+                if ( value.getTimestamp () >= timestamp )
+                {
+                    break;
+                }
+                // intentional change: the newest value removed becomes the first value, not the largest one
+                this.first = value;
+                i.remove ();
+            }
+        }
+
+        public ValueRangeAggregates aggregate ( final long start, final long end )
+        {
+            final List<Double> numbers = new ArrayList<Double> ();
+            double sum = 0.0;
+            double sumOfSquares = 0.0;
+            Double min = null;
+            Double max = null;
+            double weightedSum = 0.0;
+            long nullRange = 0;
+            long manualRange = 0;
+            long errorRange = 0;
+            long disconnectedRange = 0;
+
+            final List<DataItemValueLight> all = new ArrayList<DataItemValueLight> ();
+            all.add ( this.first );
+            all.addAll ( this.values );
+
+            for ( int i = 0; i < all.size (); i++ )
+            {
+                final DataItemValueLight value = all.get ( i );
+                final long from = i == 0 ? start : value.getTimestamp ();
+                final long to = i + 1 < all.size () ? all.get ( i + 1 ).getTimestamp () : end;
+                final long duration = to - from;
+
+                if ( value.getValue ().isNumber () )
+                {
+                    final double d = value.getValue ().asDouble ( 0.0 );
+                    numbers.add ( d );
+                    sum += d;
+                    sumOfSquares += d * d;
+                    min = min == null ? d : Math.min ( min, d );
+                    max = max == null ? d : Math.max ( max, d );
+                    weightedSum += d * duration;
+                }
+                else
+                {
+                    nullRange += duration;
+                }
+                if ( value.isManual () )
+                {
+                    manualRange += duration;
+                }
+                if ( value.isError () )
+                {
+                    errorRange += duration;
+                }
+                // intentional change: this counted the connected values before
+                if ( value.getSubscriptionState () == SubscriptionState.DISCONNECTED )
+                {
+                    disconnectedRange += duration;
+                }
+            }
+
+            // intentional change: this took the middle of the values in time order before
+            Collections.sort ( numbers );
+            final Double median = numbers.isEmpty () ? null : numbers.get ( numbers.size () / 2 );
+
+            return new ValueRangeAggregates ( start, this.values.size (), this.first, numbers.size (), sum, sumOfSquares, min, max, median, weightedSum, nullRange, manualRange, errorRange, disconnectedRange );
+        }
+    }
+
+    private static DataItemValueLight makeValue ( final long timestamp, final double value )
+    {
+        return new DataItemValueLight ( Variant.valueOf ( value ), SubscriptionState.CONNECTED, timestamp, false, false );
+    }
+
+    private static DataItemValueLight makeRandomValue ( final Random r, final long timestamp )
+    {
+        final Variant value;
+        switch ( r.nextInt ( 10 ) )
+        {
+            case 0:
+                value = Variant.NULL;
+                break;
+            case 1:
+                value = Variant.valueOf ( "foo" );
+                break;
+            case 2:
+                value = Variant.valueOf ( r.nextInt ( 5 ) );
+                break;
+            default:
+                // few distinct values, so that the sorted values contain duplicates
+                value = Variant.valueOf ( r.nextInt ( 50 ) / 4.0 - 5.0 );
+                break;
+        }
+        final SubscriptionState state = r.nextInt ( 10 ) == 0 ? SubscriptionState.DISCONNECTED : SubscriptionState.CONNECTED;
+        return new DataItemValueLight ( value, state, timestamp, r.nextInt ( 8 ) == 0, r.nextInt ( 8 ) == 0 );
+    }
+
+    private static void assertAggregates ( final ValueRangeAggregates expected, final ValueRangeAggregates actual )
+    {
+        Assert.assertEquals ( expected.getOldestPossibleTimestamp (), actual.getOldestPossibleTimestamp () );
+        Assert.assertEquals ( expected.getSize (), actual.getSize () );
+        Assert.assertEquals ( expected.getFirstValue (), actual.getFirstValue () );
+        Assert.assertEquals ( expected.getCount (), actual.getCount () );
+        Assert.assertEquals ( expected.getSum (), actual.getSum (), DELTA );
+        Assert.assertEquals ( expected.getSumOfSquares (), actual.getSumOfSquares (), DELTA );
+        Assert.assertEquals ( expected.getMin (), actual.getMin () );
+        Assert.assertEquals ( expected.getMax (), actual.getMax () );
+        Assert.assertEquals ( expected.getMedian (), actual.getMedian () );
+        Assert.assertEquals ( expected.getWeightedSum (), actual.getWeightedSum (), DELTA );
+        Assert.assertEquals ( expected.getNullRange (), actual.getNullRange () );
+        Assert.assertEquals ( expected.getManualRange (), actual.getManualRange () );
+        Assert.assertEquals ( expected.getErrorRange (), actual.getErrorRange () );
+        Assert.assertEquals ( expected.getDisconnectedRange (), actual.getDisconnectedRange () );
+    }
+
+    @Test
+    public void testEmpty ()
+    {
+        final ValueRingBuffer buffer = new ValueRingBuffer ();
+
+        final ValueRangeAggregates aggregates = buffer.aggregate ( 1000, 2000 );
+
+        Assert.assertEquals ( 0, aggregates.getSize () );
+        Assert.assertEquals ( 0, aggregates.getCount () );
+        Assert.assertNull ( aggregates.getMin () );
+        Assert.assertNull ( aggregates.getMedian () );
+        Assert.assertNull ( aggregates.getArithmetic () );
+        Assert.assertNull ( aggregates.getDeviation ( 0.0 ) );
+        // without any value the source is disconnected for the whole range
+        Assert.assertEquals ( 1000, aggregates.getNullRange () );
+        Assert.assertEquals ( 1000, aggregates.getDisconnectedRange () );
+    }
+
+    @Test
+    public void testAggregates ()
+    {
+        final ValueRingBuffer buffer = new ValueRingBuffer ();
+        buffer.setPrevious ( makeValue ( 0, 4.0 ) );
+        buffer.add ( makeValue ( 1000, 2.0 ) );
+        buffer.add ( new DataItemValueLight ( Variant.NULL, SubscriptionState.CONNECTED, 2000, true, false ) );
+        buffer.add ( makeValue ( 3000, 6.0 ) );
+
+        final ValueRangeAggregates aggregates = buffer.aggregate ( 500, 4500 );
+
+        Assert.assertEquals ( 3, aggregates.getSize () );
+        Assert.assertEquals ( 3, aggregates.getCount () );
+        Assert.assertEquals ( 12.0, aggregates.getSum (), 0.0 );
+        Assert.assertEquals ( 4.0, aggregates.getArithmetic (), 0.0 );
+        Assert.assertEquals ( 2.0, aggregates.getMin (), 0.0 );
+        Assert.assertEquals ( 6.0, aggregates.getMax (), 0.0 );
+        Assert.assertEquals ( 4.0, aggregates.getMedian (), 0.0 );
+        Assert.assertEquals ( Math.sqrt ( 8.0 / 3.0 ), aggregates.getDeviation ( 4.0 ), DELTA );
+        // 4.0 from 500, 2.0 from 1000, null from 2000, 6.0 from 3000 until 4500
+        Assert.assertEquals ( 4.0 * 500 + 2.0 * 1000 + 6.0 * 1500, aggregates.getWeightedSum (), 0.0 );
+        Assert.assertEquals ( 1000, aggregates.getNullRange () );
+        Assert.assertEquals ( 1000, aggregates.getManualRange () );
+        Assert.assertEquals ( 0, aggregates.getErrorRange () );
+        Assert.assertEquals ( 0, aggregates.getDisconnectedRange () );
+    }
+
+    @Test
+    public void testEviction ()
+    {
+        final ValueRingBuffer buffer = new ValueRingBuffer ();
+        for ( int i = 0; i < 10; i++ )
+        {
+            buffer.add ( makeValue ( i * 1000, i ) );
+        }
+
+        buffer.removeOlderThan ( 4500 );
+
+        Assert.assertEquals ( 5, buffer.size () );
+        Assert.assertEquals ( 5000, buffer.getFirstTimestamp () );
+        Assert.assertEquals ( makeValue ( 4000, 4.0 ), buffer.getPrevious () );
+
+        final ValueRangeAggregates aggregates = buffer.aggregate ( 4500, 10000 );
+        Assert.assertEquals ( 6, aggregates.getCount () );
+        Assert.assertEquals ( 4.0, aggregates.getMin (), 0.0 );
+        Assert.assertEquals ( 9.0, aggregates.getMax (), 0.0 );
+        Assert.assertEquals ( 4.0 * 500 + ( 5.0 + 6.0 + 7.0 + 8.0 ) * 1000 + 9.0 * 1000, aggregates.getWeightedSum (), 0.0 );
+
+        // removing everything keeps the last value
+        buffer.removeOlderThan ( 20000 );
+        Assert.assertEquals ( 0, buffer.size () );
+        Assert.assertEquals ( makeValue ( 9000, 9.0 ), buffer.getPrevious () );
+        Assert.assertEquals ( 9.0 * 1000, buffer.aggregate ( 20000, 21000 ).getWeightedSum (), 0.0 );
+    }
+
+    /**
+     * The first value is the newest value which dropped out of the range
+     * <p>
+     * This is an intentional change, the value range used to take the largest
+     * value of the dropped ones.
+     * </p>
+     */
+    @Test
+    public void testFirstValueIsNewestRemoved ()
+    {
+        final ValueRingBuffer buffer = new ValueRingBuffer ();
+        buffer.add ( makeValue ( 1000, 5.0 ) );
+        buffer.add ( makeValue ( 2000, 1.0 ) );
+        buffer.add ( makeValue ( 3000, 2.0 ) );
+
+        buffer.removeOlderThan ( 2500 );
+
+        Assert.assertEquals ( makeValue ( 2000, 1.0 ), buffer.getPrevious () );
+    }
+
+    /**
+     * The median is the middle of the values sorted by value
+     * <p>
+     * This is an intentional change, the moving average used to take the
+     * middle of the values in time order.
+     * </p>
+     */
+    @Test
+    public void testMedianOfSortedValues ()
+    {
+        final ValueRingBuffer buffer = new ValueRingBuffer ();
+        for ( final double d : new double[] { 3.0, 1.0, 2.0, 5.0, 4.0 } )
+        {
+            buffer.add ( makeValue ( 1000 + buffer.size () * 1000, d ) );
+        }
+
+        Assert.assertEquals ( 3.0, buffer.aggregate ( 0, 10000 ).getMedian (), 0.0 );
+
+        // the upper one of the middle values, including the first value
+        buffer.setPrevious ( makeValue ( 0, 0.0 ) );
+        Assert.assertEquals ( 3.0, buffer.aggregate ( 0, 10000 ).getMedian (), 0.0 );
+        buffer.setPrevious ( makeValue ( 0, 10.0 ) );
+        Assert.assertEquals ( 4.0, buffer.aggregate ( 0, 10000 ).getMedian (), 0.0 );
+    }
+
+    /**
+     * The disconnected range is the time disconnected values were active
+     * <p>
+     * This is an intentional change, the moving average used to count the
+     * time connected values were active.
+     * </p>
+     */
+    @Test
+    public void testDisconnectedRange ()
+    {
+        final ValueRingBuffer buffer = new ValueRingBuffer ();
+        buffer.setPrevious ( makeValue ( 0, 1.0 ) );
+        buffer.add ( new DataItemValueLight ( Variant.NULL, SubscriptionState.DISCONNECTED, 1000, false, false ) );
+        buffer.add ( makeValue ( 4000, 1.0 ) );
+
+        Assert.assertEquals ( 3000, buffer.aggregate ( 0, 5000 ).getDisconnectedRange () );
+    }
+
+    @Test
+    public void testOutOfOrder ()
+    {
+        final ValueRingBuffer buffer = new ValueRingBuffer ();
+        buffer.add ( makeValue ( 1000, 1.0 ) );
+        buffer.add ( makeValue ( 3000, 3.0 ) );
+        buffer.add ( makeValue ( 2000, 2.0 ) );
+        // duplicates are ignored
+        buffer.add ( makeValue ( 3000, 3.0 ) );
+        buffer.add ( makeValue ( 2000, 2.0 ) );
+
+        Assert.assertEquals ( Arrays.asList ( makeValue ( 1000, 1.0 ), makeValue ( 2000, 2.0 ), makeValue ( 3000, 3.0 ) ), buffer.getEntries () );
+        Assert.assertEquals ( 1000 * 1.0 + 1000 * 2.0 + 1000 * 3.0, buffer.aggregate ( 1000, 4000 ).getWeightedSum (), 0.0 );
+        Assert.assertEquals ( 2.0, buffer.aggregate ( 1000, 4000 ).getMedian (), 0.0 );
+    }
+
+    /**
+     * Feed random values, drop old ones like a moving range and compare the
+     * aggregates after each step
+     */
+    @Test
+    public void testFullRecompute ()
+    {
+        final long range = 10000;
+        final Random r = new Random ( 0 );
+
+        final ValueRingBuffer buffer = new ValueRingBuffer ();
+        final Reference reference = new Reference ();
+
+        long now = 0;
+        for ( int i = 0; i < 20000; i++ )
+        {
+            // change the pace from time to time, so that the buffer grows and shrinks
+            now += ( i / 2000 ) % 2 == 0 ? r.nextInt ( 20 ) : r.nextInt ( 1000 );
+
+            // some values arrive late, some twice
+            final long timestamp = r.nextInt ( 20 ) == 0 ? now - r.nextInt ( (int)range ) : now;
+            final DataItemValueLight value = makeRandomValue ( r, timestamp );
+
+            // the value range starts with the first value it receives
+            if ( buffer.getPrevious () == DataItemValueLight.DISCONNECTED )
+            {
+                buffer.setPrevious ( value );
+                reference.first = value;
+            }
+
+            buffer.add ( value );
+            reference.add ( value );
+
+            final long start = now - range;
+            buffer.removeOlderThan ( start );
+            reference.removeOlderThan ( start );
+
+            Assert.assertEquals ( new ArrayList<DataItemValueLight> ( reference.values ), buffer.getEntries () );
+            assertAggregates ( reference.aggregate ( start, now ), buffer.aggregate ( start, now ) );
+        }
+    }
+}
@@ -8,10 +8,12 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - some bug fixes
+ *     IBH SYSTEMS GmbH - keep values in a ring buffer with running aggregates
  *******************************************************************************/
 package org.eclipse.scada.da.datasource.data;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
@@ -20,9 +22,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DataItemValueRange
 {
-    private DataItemValueLight firstValue = DataItemValueLight.DISCONNECTED;
-
-    private final SortedSet<DataItemValueLight> values = new TreeSet<DataItemValueLight> ( DataItemValueLight.timestampComparator ); // 
+    private final ValueRingBuffer values = new ValueRingBuffer ();
 
     private final long rangeOrAlignment; // timespan to hold values since oldestPossibleTimestamp
 
@@ -67,9 +67,9 @@ public class DataItemValueRange
         lock.writeLock ().lock ();
         try
         {
-            if ( DataItemValueRange.this.firstValue == DataItemValueLight.DISCONNECTED )
+            if ( DataItemValueRange.this.values.getPrevious () == DataItemValueLight.DISCONNECTED )
             {
-                DataItemValueRange.this.firstValue = dataItemValue;
+                DataItemValueRange.this.values.setPrevious ( dataItemValue );
             }
             DataItemValueRange.this.values.add ( dataItemValue );
             checkRangeInternal ( calculateOldestTimestamp ( System.currentTimeMillis () ) );
@@ -99,7 +99,7 @@ public class DataItemValueRange
         lock.readLock ().lock ();
         try
         {
-            return new DataItemValueRangeInfo ( DataItemValueRange.this.oldestPossibleTimestamp, DataItemValueRange.this.values.size (), DataItemValueRange.this.firstValue );
+            return new DataItemValueRangeInfo ( DataItemValueRange.this.oldestPossibleTimestamp, DataItemValueRange.this.values.size (), DataItemValueRange.this.values.getPrevious () );
         }
         finally
         {
@@ -112,7 +112,9 @@ public class DataItemValueRange
         lock.readLock ().lock ();
         try
         {
-            return new DataItemValueRangeState ( DataItemValueRange.this.oldestPossibleTimestamp, DataItemValueRange.this.values.size (), DataItemValueRange.this.firstValue, new TreeSet<DataItemValueLight> ( DataItemValueRange.this.values ) );
+            final SortedSet<DataItemValueLight> values = new TreeSet<DataItemValueLight> ( DataItemValueLight.timestampComparator );
+            values.addAll ( DataItemValueRange.this.values.getEntries () );
+            return new DataItemValueRangeState ( DataItemValueRange.this.oldestPossibleTimestamp, DataItemValueRange.this.values.size (), DataItemValueRange.this.values.getPrevious (), values );
         }
         finally
         {
@@ -120,31 +122,87 @@ public class DataItemValueRange
         }
     }
 
-    public long getRange ()
+    /**
+     * Get the values in time order
+     * <p>
+     * This is cheaper than {@link #getState()} if only the values are needed.
+     * </p>
+     *
+     * @return a copy of the values within the range, not including the first
+     *         value
+     */
+    public List<DataItemValueLight> getValues ()
     {
-        return this.rangeOrAlignment;
+        lock.readLock ().lock ();
+        try
+        {
+            return DataItemValueRange.this.values.getEntries ();
+        }
+        finally
+        {
+            lock.readLock ().unlock ();
+        }
     }
 
-    public TimeUnit getAbsolute ()
+    /**
+     * @return the first value, which was active before the range began
+     */
+    public DataItemValueLight getFirstValue ()
     {
-        return this.absolute;
+        lock.readLock ().lock ();
+        try
+        {
+            return DataItemValueRange.this.values.getPrevious ();
+        }
+        finally
+        {
+            lock.readLock ().unlock ();
+        }
     }
 
-    private int checkRangeInternal ( final long oldestPossibleTimestamp )
+    /**
+     * Get the aggregates of the range, without iterating over the values
+     * <p>
+     * The range ends at the time the range was last checked for relative
+     * ranges, or now for aligned ranges.
+     * </p>
+     */
+    public ValueRangeAggregates getAggregates ()
     {
-        final TreeSet<DataItemValueLight> toRemove = new TreeSet<DataItemValueLight> ();
-        for ( final DataItemValueLight dataItemValueLight : this.values )
+        lock.readLock ().lock ();
+        try
         {
-            if ( dataItemValueLight.getTimestamp () < oldestPossibleTimestamp )
+            final long end;
+            if ( this.absolute == null )
             {
-                toRemove.add ( dataItemValueLight );
+                end = DataItemValueRange.this.oldestPossibleTimestamp + this.rangeOrAlignment;
             }
+            else
+            {
+                end = Math.max ( DataItemValueRange.this.oldestPossibleTimestamp, System.currentTimeMillis () );
+            }
+            return DataItemValueRange.this.values.aggregate ( DataItemValueRange.this.oldestPossibleTimestamp, end );
         }
-        if ( !toRemove.isEmpty () )
+        finally
         {
-            this.firstValue = toRemove.last ();
-            this.values.removeAll ( toRemove );
+            lock.readLock ().unlock ();
         }
+    }
+
+    public long getRange ()
+    {
+        return this.rangeOrAlignment;
+    }
+
+    public TimeUnit getAbsolute ()
+    {
+        return this.absolute;
+    }
+
+    private int checkRangeInternal ( final long oldestPossibleTimestamp )
+    {
+        // the newest value removed becomes the first value, it was active when the range began
+        this.values.removeOlderThan ( oldestPossibleTimestamp );
         this.oldestPossibleTimestamp = oldestPossibleTimestamp;
         return this.values.size ();
     }
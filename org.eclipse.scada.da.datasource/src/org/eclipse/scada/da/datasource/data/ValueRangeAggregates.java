@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.data;
+
+/**
+ * Aggregated values of a {@link DataItemValueRange}
+ * <p>
+ * The range starts with the value which was active before the range began,
+ * followed by all values within the range. Each value is active until the
+ * next value, the last value until the end of the range. Counting aggregates
+ * (count, sum, minimum, maximum, median) include each numeric value once,
+ * durations are the sum of the time the matching values were active.
+ * </p>
+ */
+public class ValueRangeAggregates
+{
+    private final long oldestPossibleTimestamp;
+
+    private final int size;
+
+    private final DataItemValueLight firstValue;
+
+    private final int count;
+
+    private final double sum;
+
+    private final double sumOfSquares;
+
+    private final Double min;
+
+    private final Double max;
+
+    private final Double median;
+
+    private final double weightedSum;
+
+    private final long nullRange;
+
+    private final long manualRange;
+
+    private final long errorRange;
+
+    private final long disconnectedRange;
+
+    public ValueRangeAggregates ( final long oldestPossibleTimestamp, final int size, final DataItemValueLight firstValue, final int count, final double sum, final double sumOfSquares, final Double min, final Double max, final Double median, final double weightedSum, final long nullRange, final long manualRange, final long errorRange, final long disconnectedRange )
+    {
+        this.oldestPossibleTimestamp = oldestPossibleTimestamp;
+        this.size = size;
+        this.firstValue = firstValue;
+        this.count = count;
+        this.sum = sum;
+        this.sumOfSquares = sumOfSquares;
+        this.min = min;
+        this.max = max;
+        this.median = median;
+        this.weightedSum = weightedSum;
+        this.nullRange = nullRange;
+        this.manualRange = manualRange;
+        this.errorRange = errorRange;
+        this.disconnectedRange = disconnectedRange;
+    }
+
+    public long getOldestPossibleTimestamp ()
+    {
+        return this.oldestPossibleTimestamp;
+    }
+
+    /**
+     * @return the number of values within the range, not including the first
+     *         value
+     */
+    public int getSize ()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return the value which was active before the range began
+     */
+    public DataItemValueLight getFirstValue ()
+    {
+        return this.firstValue;
+    }
+
+    /**
+     * @return the number of numeric values
+     */
+    public int getCount ()
+    {
+        return this.count;
+    }
+
+    public double getSum ()
+    {
+        return this.sum;
+    }
+
+    public double getSumOfSquares ()
+    {
+        return this.sumOfSquares;
+    }
+
+    /**
+     * @return the smallest numeric value or <code>null</code> if there is none
+     */
+    public Double getMin ()
+    {
+        return this.min;
+    }
+
+    /**
+     * @return the largest numeric value or <code>null</code> if there is none
+     */
+    public Double getMax ()
+    {
+        return this.max;
+    }
+
+    /**
+     * @return the middle of the numeric values sorted by value, the upper
+     *         one of the two middle values for an even count, or
+     *         <code>null</code> if there is none
+     */
+    public Double getMedian ()
+    {
+        return this.median;
+    }
+
+    /**
+     * @return the arithmetic mean of the numeric values or <code>null</code>
+     *         if there is none
+     */
+    public Double getArithmetic ()
+    {
+        if ( this.count == 0 )
+        {
+            return null;
+        }
+        return this.sum / this.count;
+    }
+
+    /**
+     * @return the sum of each numeric value multiplied with the time it was
+     *         active
+     */
+    public double getWeightedSum ()
+    {
+        return this.weightedSum;
+    }
+
+    /**
+     * Get the standard deviation of the numeric values from a reference value
+     *
+     * @return the deviation or <code>null</code> if there are no numeric
+     *         values
+     */
+    public Double getDeviation ( final double reference )
+    {
+        if ( this.count == 0 )
+        {
+            return null;
+        }
+        // sum ( ( v - r )^2 ) = sum ( v^2 ) - 2 * r * sum ( v ) + n * r^2
+        final double squares = this.sumOfSquares - 2.0 * reference * this.sum + this.count * reference * reference;
+        return Math.sqrt ( Math.max ( 0.0, squares ) / this.count );
+    }
+
+    /**
+     * @return the time in milliseconds non-numeric values were active
+     */
+    public long getNullRange ()
+    {
+        return this.nullRange;
+    }
+
+    /**
+     * @return the time in milliseconds manual values were active
+     */
+    public long getManualRange ()
+    {
+        return this.manualRange;
+    }
+
+    /**
+     * @return the time in milliseconds error values were active
+     */
+    public long getErrorRange ()
+    {
+        return this.errorRange;
+    }
+
+    /**
+     * @return the time in milliseconds the source was disconnected
+     */
+    public long getDisconnectedRange ()
+    {
+        return this.disconnectedRange;
+    }
+}
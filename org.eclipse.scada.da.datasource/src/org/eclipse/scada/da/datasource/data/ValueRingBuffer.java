@@ -0,0 +1,603 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.datasource.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.scada.core.data.SubscriptionState;
+
+/**
+ * A time ordered ring buffer of values with running aggregates
+ * <p>
+ * Timestamps, numeric values and flags are kept in primitive arrays. Values
+ * get appended at the end and removed from the start. Sum, sum of squares and
+ * the durations of the closed segments between two values are updated with
+ * each change. Minimum and maximum are tracked with monotonic queues and the
+ * numeric values are also kept in a sorted array for the median. So appending
+ * and removing is O(1) amortized, except for updating the sorted array which
+ * is a binary search and a primitive array copy.
+ * </p>
+ * <p>
+ * A value which is older than the last value is inserted by rebuilding the
+ * buffer. This is expected to happen rarely.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+class ValueRingBuffer
+{
+    private static final byte FLAG_NUMBER = 1;
+
+    private static final byte FLAG_MANUAL = 2;
+
+    private static final byte FLAG_ERROR = 4;
+
+    private static final byte FLAG_DISCONNECTED = 8;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private DataItemValueLight[] entries = new DataItemValueLight[INITIAL_CAPACITY];
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+
+    private double[] numbers = new double[INITIAL_CAPACITY];
+
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+
+    private int head;
+
+    private int size;
+
+    /**
+     * The sequence number of the entry at the head
+     */
+    private long headSequence;
+
+    /**
+     * Sequence numbers of the numeric entries with increasing values
+     */
+    private final SequenceQueue minQueue = new SequenceQueue ();
+
+    /**
+     * Sequence numbers of the numeric entries with decreasing values
+     */
+    private final SequenceQueue maxQueue = new SequenceQueue ();
+
+    private double[] sorted = new double[INITIAL_CAPACITY];
+
+    private int count;
+
+    private double sum;
+
+    private double sumOfSquares;
+
+    /*
+     * the aggregates of the closed segments, from each entry to the next one
+     */
+
+    private double weightedSum;
+
+    private long nullRange;
+
+    private long manualRange;
+
+    private long errorRange;
+
+    private long disconnectedRange;
+
+    /**
+     * The number of changes since the sums were last calculated from scratch
+     */
+    private int changes;
+
+    private DataItemValueLight previous = DataItemValueLight.DISCONNECTED;
+
+    /**
+     * A queue of sequence numbers
+     */
+    private static class SequenceQueue
+    {
+        private long[] data = new long[INITIAL_CAPACITY];
+
+        private int head;
+
+        private int size;
+
+        public boolean isEmpty ()
+        {
+            return this.size == 0;
+        }
+
+        public long first ()
+        {
+            return this.data[this.head];
+        }
+
+        public long last ()
+        {
+            return this.data[( this.head + this.size - 1 ) % this.data.length];
+        }
+
+        public void removeFirst ()
+        {
+            this.head = ( this.head + 1 ) % this.data.length;
+            this.size--;
+        }
+
+        public void removeLast ()
+        {
+            this.size--;
+        }
+
+        public void add ( final long sequence )
+        {
+            if ( this.size == this.data.length )
+            {
+                final long[] newData = new long[this.data.length * 2];
+                for ( int i = 0; i < this.size; i++ )
+                {
+                    newData[i] = this.data[( this.head + i ) % this.data.length];
+                }
+                this.data = newData;
+                this.head = 0;
+            }
+            this.data[( this.head + this.size ) % this.data.length] = sequence;
+            this.size++;
+        }
+
+        public void clear ()
+        {
+            this.head = 0;
+            this.size = 0;
+        }
+    }
+
+    public int size ()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return the last entry which was removed
+     */
+    public DataItemValueLight getPrevious ()
+    {
+        return this.previous;
+    }
+
+    public void setPrevious ( final DataItemValueLight previous )
+    {
+        this.previous = previous;
+    }
+
+    /**
+     * @return the timestamp of the first entry, the buffer must not be empty
+     */
+    public long getFirstTimestamp ()
+    {
+        return this.timestamps[this.head];
+    }
+
+    private int index ( final int offset )
+    {
+        return ( this.head + offset ) % this.entries.length;
+    }
+
+    private int indexOfSequence ( final long sequence )
+    {
+        return index ( (int) ( sequence - this.headSequence ) );
+    }
+
+    /**
+     * @return a copy of all entries in time order
+     */
+    public List<DataItemValueLight> getEntries ()
+    {
+        final List<DataItemValueLight> result = new ArrayList<DataItemValueLight> ( this.size );
+        for ( int i = 0; i < this.size; i++ )
+        {
+            result.add ( this.entries[index ( i )] );
+        }
+        return result;
+    }
+
+    public void add ( final DataItemValueLight value )
+    {
+        if ( this.size > 0 )
+        {
+            final int c = DataItemValueLight.timestampComparator.compare ( value, this.entries[index ( this.size - 1 )] );
+            if ( c == 0 )
+            {
+                // duplicate
+                return;
+            }
+            if ( c < 0 )
+            {
+                insert ( value );
+                return;
+            }
+        }
+
+        append ( value );
+        checkRebuild ();
+    }
+
+    /**
+     * Insert a value which is not newer than the last value
+     */
+    private void insert ( final DataItemValueLight value )
+    {
+        final List<DataItemValueLight> values = getEntries ();
+
+        final int pos = Collections.binarySearch ( values, value, DataItemValueLight.timestampComparator );
+        if ( pos >= 0 )
+        {
+            // duplicate
+            return;
+        }
+        values.add ( -pos - 1, value );
+
+        rebuild ( values );
+    }
+
+    private void rebuild ( final List<DataItemValueLight> values )
+    {
+        clear ();
+        for ( final DataItemValueLight value : values )
+        {
+            append ( value );
+        }
+    }
+
+    /**
+     * Calculate the sums from scratch from time to time, so that rounding
+     * errors of subtracting removed values don't add up
+     */
+    private void checkRebuild ()
+    {
+        this.changes++;
+        if ( this.changes > Math.max ( 1024, this.size * 4 ) )
+        {
+            rebuild ( getEntries () );
+        }
+    }
+
+    private void clear ()
+    {
+        Arrays.fill ( this.entries, null );
+        this.head = 0;
+        this.size = 0;
+        this.minQueue.clear ();
+        this.maxQueue.clear ();
+        this.count = 0;
+        this.sum = 0.0;
+        this.sumOfSquares = 0.0;
+        this.weightedSum = 0.0;
+        this.nullRange = 0;
+        this.manualRange = 0;
+        this.errorRange = 0;
+        this.disconnectedRange = 0;
+        this.changes = 0;
+    }
+
+    private void append ( final DataItemValueLight value )
+    {
+        if ( this.size == this.entries.length )
+        {
+            grow ();
+        }
+
+        if ( this.size > 0 )
+        {
+            // the segment of the last entry is now closed
+            final int last = index ( this.size - 1 );
+            addSegment ( last, value.getTimestamp () - this.timestamps[last], 1 );
+        }
+
+        final int idx = index ( this.size );
+        final long sequence = this.headSequence + this.size;
+
+        this.entries[idx] = value;
+        this.timestamps[idx] = value.getTimestamp ();
+        this.flags[idx] = makeFlags ( value );
+        this.size++;
+
+        if ( ( this.flags[idx] & FLAG_NUMBER ) != 0 )
+        {
+            final double d = value.getValue ().asDouble ( 0.0 );
+            this.numbers[idx] = d;
+
+            this.count++;
+            this.sum += d;
+            this.sumOfSquares += d * d;
+            addSorted ( d );
+
+            while ( !this.minQueue.isEmpty () && this.numbers[indexOfSequence ( this.minQueue.last () )] > d )
+            {
+                this.minQueue.removeLast ();
+            }
+            this.minQueue.add ( sequence );
+
+            while ( !this.maxQueue.isEmpty () && this.numbers[indexOfSequence ( this.maxQueue.last () )] < d )
+            {
+                this.maxQueue.removeLast ();
+            }
+            this.maxQueue.add ( sequence );
+        }
+    }
+
+    private void grow ()
+    {
+        final int capacity = this.entries.length * 2;
+
+        final DataItemValueLight[] newEntries = new DataItemValueLight[capacity];
+        final long[] newTimestamps = new long[capacity];
+        final double[] newNumbers = new double[capacity];
+        final byte[] newFlags = new byte[capacity];
+
+        for ( int i = 0; i < this.size; i++ )
+        {
+            final int idx = index ( i );
+            newEntries[i] = this.entries[idx];
+            newTimestamps[i] = this.timestamps[idx];
+            newNumbers[i] = this.numbers[idx];
+            newFlags[i] = this.flags[idx];
+        }
+
+        this.entries = newEntries;
+        this.timestamps = newTimestamps;
+        this.numbers = newNumbers;
+        this.flags = newFlags;
+        this.head = 0;
+    }
+
+    private static byte makeFlags ( final DataItemValueLight value )
+    {
+        byte result = 0;
+        if ( value.getValue ().isNumber () )
+        {
+            result |= FLAG_NUMBER;
+        }
+        if ( value.isManual () )
+        {
+            result |= FLAG_MANUAL;
+        }
+        if ( value.isError () )
+        {
+            result |= FLAG_ERROR;
+        }
+        if ( value.getSubscriptionState () == SubscriptionState.DISCONNECTED )
+        {
+            result |= FLAG_DISCONNECTED;
+        }
+        return result;
+    }
+
+    private void addSegment ( final int idx, final long duration, final int sign )
+    {
+        final byte f = this.flags[idx];
+        if ( ( f & FLAG_NUMBER ) != 0 )
+        {
+            this.weightedSum += sign * this.numbers[idx] * duration;
+        }
+        else
+        {
+            this.nullRange += sign * duration;
+        }
+        if ( ( f & FLAG_MANUAL ) != 0 )
+        {
+            this.manualRange += sign * duration;
+        }
+        if ( ( f & FLAG_ERROR ) != 0 )
+        {
+            this.errorRange += sign * duration;
+        }
+        if ( ( f & FLAG_DISCONNECTED ) != 0 )
+        {
+            this.disconnectedRange += sign * duration;
+        }
+    }
+
+    /**
+     * Remove all entries older than the timestamp
+     * <p>
+     * The last entry removed becomes the previous entry.
+     * </p>
+     */
+    public void removeOlderThan ( final long timestamp )
+    {
+        boolean removed = false;
+        while ( this.size > 0 && this.timestamps[this.head] < timestamp )
+        {
+            removeFirst ();
+            removed = true;
+        }
+
+        if ( this.size == 0 )
+        {
+            // start with exact sums again
+            clear ();
+        }
+        else if ( removed )
+        {
+            checkRebuild ();
+        }
+    }
+
+    private void removeFirst ()
+    {
+        final int idx = this.head;
+
+        if ( this.size > 1 )
+        {
+            addSegment ( idx, this.timestamps[index ( 1 )] - this.timestamps[idx], -1 );
+        }
+
+        if ( ( this.flags[idx] & FLAG_NUMBER ) != 0 )
+        {
+            final double d = this.numbers[idx];
+            this.count--;
+            this.sum -= d;
+            this.sumOfSquares -= d * d;
+            removeSorted ( d );
+
+            if ( !this.minQueue.isEmpty () && this.minQueue.first () == this.headSequence )
+            {
+                this.minQueue.removeFirst ();
+            }
+            if ( !this.maxQueue.isEmpty () && this.maxQueue.first () == this.headSequence )
+            {
+                this.maxQueue.removeFirst ();
+            }
+        }
+
+        this.previous = this.entries[idx];
+        this.entries[idx] = null;
+        this.head = ( this.head + 1 ) % this.entries.length;
+        this.headSequence++;
+        this.size--;
+    }
+
+    private void addSorted ( final double d )
+    {
+        if ( this.count > this.sorted.length )
+        {
+            this.sorted = Arrays.copyOf ( this.sorted, this.sorted.length * 2 );
+        }
+
+        // count was already increased
+        final int n = this.count - 1;
+        int pos = Arrays.binarySearch ( this.sorted, 0, n, d );
+        if ( pos < 0 )
+        {
+            pos = -pos - 1;
+        }
+        System.arraycopy ( this.sorted, pos, this.sorted, pos + 1, n - pos );
+        this.sorted[pos] = d;
+    }
+
+    private void removeSorted ( final double d )
+    {
+        // count was already decreased
+        final int n = this.count + 1;
+        final int pos = Arrays.binarySearch ( this.sorted, 0, n, d );
+        if ( pos < 0 )
+        {
+            throw new IllegalStateException ( "Value missing in sorted array" );
+        }
+        System.arraycopy ( this.sorted, pos + 1, this.sorted, pos, n - pos - 1 );
+    }
+
+    /**
+     * Calculate the aggregates of the range
+     *
+     * @param start
+     *            the start of the range, the previous entry is active from
+     *            here on
+     * @param end
+     *            the end of the range, the last entry is active until here
+     */
+    public ValueRangeAggregates aggregate ( final long start, final long end )
+    {
+        final DataItemValueLight first = this.previous;
+        final byte firstFlags = makeFlags ( first );
+        final boolean firstIsNumber = ( firstFlags & FLAG_NUMBER ) != 0;
+        final double firstNumber = firstIsNumber ? first.getValue ().asDouble ( 0.0 ) : 0.0;
+
+        int count = this.count;
+        double sum = this.sum;
+        double sumOfSquares = this.sumOfSquares;
+        double weightedSum = this.weightedSum;
+        final long[] ranges = new long[] { this.nullRange, this.manualRange, this.errorRange, this.disconnectedRange };
+
+        Double min = this.minQueue.isEmpty () ? null : this.numbers[indexOfSequence ( this.minQueue.first () )];
+        Double max = this.maxQueue.isEmpty () ? null : this.numbers[indexOfSequence ( this.maxQueue.first () )];
+        Double median = this.count == 0 ? null : this.sorted[this.count / 2];
+
+        // the previous value is active from the start to the first entry
+        final long firstDuration = ( this.size > 0 ? this.timestamps[this.head] : end ) - start;
+        if ( firstIsNumber )
+        {
+            count++;
+            sum += firstNumber;
+            sumOfSquares += firstNumber * firstNumber;
+            weightedSum += firstNumber * firstDuration;
+            min = min == null ? firstNumber : Math.min ( min, firstNumber );
+            max = max == null ? firstNumber : Math.max ( max, firstNumber );
+            median = select ( count / 2, firstNumber );
+        }
+        addRanges ( ranges, firstFlags, firstDuration );
+
+        // the last entry is active until the end
+        if ( this.size > 0 )
+        {
+            final int last = index ( this.size - 1 );
+            final long lastDuration = end - this.timestamps[last];
+            if ( ( this.flags[last] & FLAG_NUMBER ) != 0 )
+            {
+                weightedSum += this.numbers[last] * lastDuration;
+            }
+            addRanges ( ranges, this.flags[last], lastDuration );
+        }
+
+        return new ValueRangeAggregates ( start, this.size, first, count, sum, sumOfSquares, min, max, median, weightedSum, ranges[0], ranges[1], ranges[2], ranges[3] );
+    }
+
+    private static void addRanges ( final long[] ranges, final byte flags, final long duration )
+    {
+        if ( ( flags & FLAG_NUMBER ) == 0 )
+        {
+            ranges[0] += duration;
+        }
+        if ( ( flags & FLAG_MANUAL ) != 0 )
+        {
+            ranges[1] += duration;
+        }
+        if ( ( flags & FLAG_ERROR ) != 0 )
+        {
+            ranges[2] += duration;
+        }
+        if ( ( flags & FLAG_DISCONNECTED ) != 0 )
+        {
+            ranges[3] += duration;
+        }
+    }
+
+    /**
+     * Select the k-th smallest value of the sorted values plus one additional
+     * value
+     */
+    private double select ( final int k, final double additional )
+    {
+        int pos = Arrays.binarySearch ( this.sorted, 0, this.count, additional );
+        if ( pos < 0 )
+        {
+            pos = -pos - 1;
+        }
+
+        if ( k < pos )
+        {
+            return this.sorted[k];
+        }
+        else if ( k == pos )
+        {
+            return additional;
+        }
+        else
+        {
+            return this.sorted[k - 1];
+        }
+    }
+}
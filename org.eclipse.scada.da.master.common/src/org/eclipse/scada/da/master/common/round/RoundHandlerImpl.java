@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - prepare attribute values on update
  *******************************************************************************/
 package org.eclipse.scada.da.master.common.round;
 
@@ -44,6 +45,10 @@ public class RoundHandlerImpl extends AbstractCommonHandlerImpl
 
     private String error = null;
 
+    private Variant typeValue = null;
+
+    private Variant errorValue = null;
+
     private final String attrValueOriginal;
 
     private final String attrActive;
@@ -123,6 +128,9 @@ public class RoundHandlerImpl extends AbstractCommonHandlerImpl
             this.error = e.getMessage ();
         }
 
+        this.typeValue = Variant.valueOf ( this.type.toString () );
+        this.errorValue = this.error == null ? null : Variant.valueOf ( this.error );
+
         reprocess ();
     }
 
@@ -131,11 +139,11 @@ public class RoundHandlerImpl extends AbstractCommonHandlerImpl
         builder.setAttribute ( this.attrActive, this.active ? Variant.TRUE : Variant.FALSE );
         if ( this.type != null && this.type != RoundType.NONE )
         {
-            builder.setAttribute ( this.attrType, Variant.valueOf ( this.type.toString () ) );
+            builder.setAttribute ( this.attrType, this.typeValue );
         }
-        if ( this.error != null )
+        if ( this.errorValue != null )
         {
-            builder.setAttribute ( this.attrError, Variant.valueOf ( this.error ) );
+            builder.setAttribute ( this.attrError, this.errorValue );
         }
     }
 
@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - prepare attribute values on update
  *******************************************************************************/
 package org.eclipse.scada.da.master.common.scale;
 
@@ -36,6 +37,10 @@ public class ScaleHandlerImpl extends AbstractCommonHandlerImpl
 
     private double offset = 0.0;
 
+    private Variant factorValue = Variant.valueOf ( this.factor );
+
+    private Variant offsetValue = Variant.valueOf ( this.offset );
+
     private final String attrActive;
 
     private final String attrFactor;
@@ -90,6 +95,8 @@ public class ScaleHandlerImpl extends AbstractCommonHandlerImpl
         this.factor = cfg.getDouble ( "factor", 1 ); //$NON-NLS-1$
         this.offset = cfg.getDouble ( "offset", 0 ); //$NON-NLS-1$
         this.active = cfg.getBoolean ( "active", false ); //$NON-NLS-1$
+        this.factorValue = Variant.valueOf ( this.factor );
+        this.offsetValue = Variant.valueOf ( this.offset );
 
         reprocess ();
     }
@@ -97,8 +104,8 @@ public class ScaleHandlerImpl extends AbstractCommonHandlerImpl
     protected void injectAttributes ( final Builder builder )
     {
         builder.setAttribute ( this.attrActive, this.active ? Variant.TRUE : Variant.FALSE );
-        builder.setAttribute ( this.attrFactor, Variant.valueOf ( this.factor ) );
-        builder.setAttribute ( this.attrOffset, Variant.valueOf ( this.offset ) );
+        builder.setAttribute ( this.attrFactor, this.factorValue );
+        builder.setAttribute ( this.attrOffset, this.offsetValue );
     }
 
     @Override
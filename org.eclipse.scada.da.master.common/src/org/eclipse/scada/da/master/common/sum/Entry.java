@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - prepare attribute names
  *******************************************************************************/
 package org.eclipse.scada.da.master.common.sum;
 
@@ -33,6 +34,18 @@ public class Entry
 
     private final String contextAttribute;
 
+    private final String debugCountName;
+
+    private final String itemsName;
+
+    private final String debugItemsName;
+
+    private final String beforeName;
+
+    private final String afterName;
+
+    private final String countName;
+
     private final String prefix;
 
     private final boolean debug;
@@ -48,6 +61,12 @@ public class Entry
         this.attributeName = String.format ( "%s.%s", this.prefix, this.tag );
         this.attributeCountName = this.attributeName + ".count";
         this.contextAttribute = this.tag + ".set";
+        this.debugCountName = String.format ( "%s.%s.count", this.prefix, this.tag );
+        this.itemsName = this.tag + ".items";
+        this.debugItemsName = String.format ( "%s.%s.items", this.prefix, this.tag );
+        this.beforeName = this.prefix + ".before";
+        this.afterName = this.prefix + ".after";
+        this.countName = this.tag + ".count";
 
         this.suffix = suffix == null ? "." + tag : suffix;
         this.pattern = makePattern ( pattern );
@@ -68,13 +87,13 @@ public class Entry
         sourceValue = builder.getAttributes ().remove ( this.attributeCountName );
         if ( sourceValue != null && this.debug )
         {
-            builder.setAttribute ( String.format ( "%s.%s.count", this.prefix, this.tag ), sourceValue );
+            builder.setAttribute ( this.debugCountName, sourceValue );
         }
 
-        sourceValue = builder.getAttributes ().remove ( this.tag + ".items" );
+        sourceValue = builder.getAttributes ().remove ( this.itemsName );
         if ( sourceValue != null && this.debug )
         {
-            builder.setAttribute ( String.format ( "%s.%s.items", this.prefix, this.tag ), sourceValue );
+            builder.setAttribute ( this.debugItemsName, sourceValue );
         }
     }
 
@@ -84,7 +103,7 @@ public class Entry
 
         if ( this.debug )
         {
-            builder.setAttribute ( this.prefix + ".before", Variant.valueOf ( StringHelper.join ( this.contextSet, "," ) ) );
+            builder.setAttribute ( this.beforeName, Variant.valueOf ( StringHelper.join ( this.contextSet, "," ) ) );
         }
 
         this.matches = 0;
@@ -106,13 +125,13 @@ public class Entry
     {
         if ( this.debug )
         {
-            builder.setAttribute ( this.prefix + ".after", Variant.valueOf ( StringHelper.join ( this.contextSet, "," ) ) );
+            builder.setAttribute ( this.afterName, Variant.valueOf ( StringHelper.join ( this.contextSet, "," ) ) );
         }
 
-        builder.setAttribute ( this.tag, Variant.valueOf ( this.matches != 0 ) );
+        builder.setAttribute ( this.tag, this.matches != 0 ? Variant.TRUE : Variant.FALSE );
         if ( this.debug )
         {
-            builder.setAttribute ( this.tag + ".count", Variant.valueOf ( this.matches ) );
+            builder.setAttribute ( this.countName, Variant.valueOf ( this.matches ) );
         }
 
         this.contextSet = null;
@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - re-use context and value
  *******************************************************************************/
 package org.eclipse.scada.da.master;
 
@@ -19,11 +20,13 @@ public interface MasterItemHandler
     /**
      * Called when data changed or the handler chain changed.
      * <p>
-     * The call gets a context object provided which each handler can use to store context information of one calculation run. Each calculation run gets a fresh new context. The context is intended to
+     * The call gets a context object provided which each handler can use to store context information of one calculation run. Each calculation run starts with an empty context. The context is intended to
      * pass data from one handler to the next.
      * </p>
      * <p>
      * Although the value parameter is a mutable type, the handler may only make changes inside the dataUpdate method.
+     * The context and the value are re-used for the next calculation run, so the handler must not keep a reference to
+     * either of them.
      * </p>
      * 
      * @param context
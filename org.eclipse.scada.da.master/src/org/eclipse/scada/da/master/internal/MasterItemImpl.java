@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2013 TH4 SYSTEMS GmbH and others.
+ * Copyright (c) 2009, 2014 TH4 SYSTEMS GmbH and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -8,10 +8,10 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - precompiled handler chain
  *******************************************************************************/
 package org.eclipse.scada.da.master.internal;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -192,6 +192,34 @@ public class MasterItemImpl extends AbstractDataSourceHandler implements MasterI
 
     private final List<HandlerEntry> itemHandler = new LinkedList<HandlerEntry> ();
 
+    private static final MasterItemHandler[] EMPTY_CHAIN = new MasterItemHandler[0];
+
+    /**
+     * The handlers in order of priority
+     * <p>
+     * This is rebuilt when a handler is added or removed, so that processing
+     * does not need to copy the handler list.
+     * </p>
+     */
+    private volatile MasterItemHandler[] handlerChain = EMPTY_CHAIN;
+
+    /**
+     * The context which is passed through the handler chain, cleared before
+     * each run
+     */
+    private final Map<String, Object> processContext = new HashMap<String, Object> ();
+
+    /**
+     * The builder which is passed through the handler chain, reset before each
+     * run
+     */
+    private final DataItemValue.Builder processBuilder = new Builder ();
+
+    /**
+     * The attribute map of the builder, reused for each run
+     */
+    private final Map<String, Variant> processAttributes = new HashMap<String, Variant> ();
+
     private final Executor executor;
 
     private String dataSourceId;
@@ -241,6 +269,7 @@ public class MasterItemImpl extends AbstractDataSourceHandler implements MasterI
         synchronized ( this.itemHandler )
         {
             this.itemHandler.clear ();
+            rebuildChain ();
         }
         super.dispose ();
     }
@@ -260,6 +289,7 @@ public class MasterItemImpl extends AbstractDataSourceHandler implements MasterI
 
             this.itemHandler.add ( entry );
             Collections.sort ( this.itemHandler );
+            rebuildChain ();
 
             logger.debug ( "Added handler: {}/{}", new Object[] { handler, priority } );
         }
@@ -362,6 +392,7 @@ public class MasterItemImpl extends AbstractDataSourceHandler implements MasterI
 
             if ( this.itemHandler.remove ( new HandlerEntry ( handler, 0 ) ) )
             {
+                rebuildChain ();
                 logger.debug ( "Removed handler: {}", handler );
                 reprocess ();
             }
@@ -370,33 +401,84 @@ public class MasterItemImpl extends AbstractDataSourceHandler implements MasterI
         }
     }
 
-    protected DataItemValue processHandler ( DataItemValue value )
+    /**
+     * Rebuild the handler chain from the list of handlers
+     * <p>
+     * Must be called while holding the lock of {@link #itemHandler}
+     * </p>
+     */
+    private void rebuildChain ()
     {
-        logger.debug ( "Processing handlers" );
-
-        final ArrayList<HandlerEntry> handler;
-        synchronized ( this.itemHandler )
+        final MasterItemHandler[] chain = new MasterItemHandler[this.itemHandler.size ()];
+        int i = 0;
+        for ( final HandlerEntry entry : this.itemHandler )
         {
-            handler = new ArrayList<HandlerEntry> ( this.itemHandler );
+            chain[i++] = entry.getHandler ();
         }
+        this.handlerChain = chain;
+    }
 
-        final Map<String, Object> context = new HashMap<String, Object> ();
+    /**
+     * Run the value through the handler chain
+     * <p>
+     * All handlers work on the same builder and context, which are reused for
+     * each run. Only the final value is built. This must only be called from
+     * {@link #handleProcess()}, which is synchronized.
+     * </p>
+     */
+    protected DataItemValue processHandler ( final DataItemValue value )
+    {
+        logger.debug ( "Processing handlers" );
+
+        final MasterItemHandler[] chain = this.handlerChain;
+
+        final Map<String, Object> context = this.processContext;
+        context.clear ();
 
-        final DataItemValue.Builder builder = new Builder ( value );
+        final Builder builder = resetBuilder ( value );
 
-        for ( final HandlerEntry entry : handler )
+        for ( final MasterItemHandler handler : chain )
         {
-            logger.debug ( "Process: {} -> {}", new Object[] { entry.getPriority (), entry.getHandler () } );
-            entry.getHandler ().dataUpdate ( context, builder );
+            handler.dataUpdate ( context, builder );
         }
 
         if ( this.debug )
         {
-            builder.setAttribute ( "master.debug.handlerCount", Variant.valueOf ( handler.size () ) );
-            value = builder.build ();
+            builder.setAttribute ( "master.debug.handlerCount", Variant.valueOf ( chain.length ) );
         }
 
-        return builder.build ();
+        final DataItemValue result = builder.build ();
+
+        // don't keep references to the handler data until the next run
+        context.clear ();
+        this.processAttributes.clear ();
+
+        return result;
+    }
+
+    private Builder resetBuilder ( final DataItemValue value )
+    {
+        final Builder builder = this.processBuilder;
+
+        this.processAttributes.clear ();
+        if ( value != null )
+        {
+            this.processAttributes.putAll ( value.getAttributes () );
+            builder.setValue ( value.getValue () );
+            builder.setSubscriptionState ( value.getSubscriptionState () );
+            builder.setSubscriptionError ( value.getSubscriptionError () );
+        }
+        else
+        {
+            builder.setValue ( Variant.NULL );
+            builder.setSubscriptionState ( SubscriptionState.DISCONNECTED );
+            builder.setSubscriptionError ( null );
+        }
+
+        // a handler may have replaced the map during the last run
+        builder.setAttributes ( this.processAttributes );
+
+        return builder;
     }
 
     @Override
@@ -520,18 +602,14 @@ public class MasterItemImpl extends AbstractDataSourceHandler implements MasterI
 
     private WriteRequestResult preProcessWrite ( final WriteRequest writeRequest )
     {
-        final HandlerEntry[] handlers;
-        synchronized ( this.itemHandler )
-        {
-            handlers = this.itemHandler.toArray ( new HandlerEntry[this.itemHandler.size ()] );
-        }
+        final MasterItemHandler[] handlers = this.handlerChain;
 
         WriteRequest request = writeRequest;
         WriteRequestResult finalResult = new WriteRequestResult ( writeRequest.getValue (), writeRequest.getAttributes (), null );
         for ( int i = handlers.length; i > 0; i-- )
         {
-            final HandlerEntry handler = handlers[i - 1];
-            final WriteRequestResult nextResult = handler.getHandler ().processWrite ( request );
+            final MasterItemHandler handler = handlers[i - 1];
+            final WriteRequestResult nextResult = handler.processWrite ( request );
 
             if ( nextResult != null )
             {
@@ -73,6 +73,7 @@ public final class ProtocolFactory
         codecs.add ( new org.eclipse.scada.da.protocol.ngp.codec.impl.UnsubscibeItem () );
         codecs.add ( new org.eclipse.scada.da.protocol.ngp.codec.impl.ItemDataUpdate () );
         codecs.add ( new org.eclipse.scada.da.protocol.ngp.codec.impl.ItemStateUpdate () );
+        codecs.add ( new org.eclipse.scada.da.protocol.ngp.codec.impl.ItemDataUpdateBatch () );
         codecs.add ( new org.eclipse.scada.da.protocol.ngp.codec.impl.StartWriteValue () );
         codecs.add ( new org.eclipse.scada.da.protocol.ngp.codec.impl.WriteValueResult () );
         codecs.add ( new org.eclipse.scada.da.protocol.ngp.codec.impl.StartWriteAttributes () );
@@ -303,4 +303,150 @@ public final class Structures
         return decodeBrowserEntryCollection ( context, data, ALLOC_BROWSERENTRY_SET, allowNull );
     }
 
+    private static final ArrayListAllocator<org.eclipse.scada.da.data.ItemDataUpdateEntry> ALLOC_ITEMDATAUPDATEENTRY_LIST = new ArrayListAllocator<org.eclipse.scada.da.data.ItemDataUpdateEntry> ();
+
+    private static final HashSetAllocator<org.eclipse.scada.da.data.ItemDataUpdateEntry> ALLOC_ITEMDATAUPDATEENTRY_SET = new HashSetAllocator<org.eclipse.scada.da.data.ItemDataUpdateEntry> ();
+
+    protected static void inlineEncodeItemDataUpdateEntry ( final BinaryContext context, final IoBuffer data, final org.eclipse.scada.da.data.ItemDataUpdateEntry value ) throws Exception
+    {
+        // number of fields
+        data.put ( (byte)5 );
+
+        // encode attributes
+        context.encodeString ( data, (byte)1, value.getItemId () );
+        context.encodeVariant ( data, (byte)2, value.getValue () );
+        context.encodeVariantMap ( data, (byte)3, value.getAddedOrUpdated () );
+        context.encodeStringCollection ( data, (byte)4, value.getRemoved () );
+        context.encodePrimitiveBoolean ( data, (byte)5, value.isCacheValue () );
+
+    }
+
+    protected static org.eclipse.scada.da.data.ItemDataUpdateEntry inlindeDecodeItemDataUpdateEntry ( final BinaryContext _context, final IoBuffer _data ) throws Exception
+    {
+        // number of fields
+        final byte numberOfFields = _data.get ();
+
+        // decode attributes
+
+        String itemId = null;
+        org.eclipse.scada.core.Variant value = null;
+        java.util.Map<String, org.eclipse.scada.core.Variant> addedOrUpdated = null;
+        java.util.Set<String> removed = null;
+        boolean cacheValue = false;
+
+        logger.trace ( "Decoding {} fields", numberOfFields );
+
+        for ( int i = 0; i < numberOfFields; i++ )
+        {
+
+            final byte fieldNumber = _data.get ();
+            switch ( fieldNumber )
+            {
+                case 1:
+                {
+                    itemId = _context.decodeString ( _data );
+                }
+                    break;
+                case 2:
+                {
+                    value = _context.decodeVariant ( _data );
+                }
+                    break;
+                case 3:
+                {
+                    addedOrUpdated = _context.decodeVariantMap ( _data );
+                }
+                    break;
+                case 4:
+                {
+                    removed = _context.decodeStringSet ( _data );
+                }
+                    break;
+                case 5:
+                {
+                    cacheValue = _context.decodePrimitiveBoolean ( _data );
+                }
+                    break;
+                default:
+                    logger.warn ( "Received unknown field number: {}", fieldNumber );
+                    break;
+            }
+
+        }
+
+        // create object
+        return new org.eclipse.scada.da.data.ItemDataUpdateEntry ( itemId, value, addedOrUpdated, removed, cacheValue );
+    }
+
+    public static void encodeItemDataUpdateEntry ( final BinaryContext context, final IoBuffer data, final byte fieldNumber, final org.eclipse.scada.da.data.ItemDataUpdateEntry value ) throws Exception
+    {
+        context.beginWriteStructure ( data, fieldNumber, value == null );
+
+        if ( value != null )
+        {
+            inlineEncodeItemDataUpdateEntry ( context, data, value );
+        }
+    }
+
+    public static void encodeCollectionItemDataUpdateEntry ( final BinaryContext context, final IoBuffer data, final byte fieldNumber, final Collection<org.eclipse.scada.da.data.ItemDataUpdateEntry> values ) throws Exception
+    {
+        context.beginWriteStructureList ( data, fieldNumber, values );
+
+        if ( values == null )
+        {
+            return;
+        }
+
+        for ( final org.eclipse.scada.da.data.ItemDataUpdateEntry entry : values )
+        {
+            inlineEncodeItemDataUpdateEntry ( context, data, entry );
+        }
+    }
+
+    public static org.eclipse.scada.da.data.ItemDataUpdateEntry decodeItemDataUpdateEntry ( final BinaryContext context, final IoBuffer data, final boolean allowNull ) throws Exception
+    {
+        final boolean isNull = context.beginReadStructure ( data, allowNull );
+
+        if ( isNull )
+        {
+            return null;
+        }
+
+        return inlindeDecodeItemDataUpdateEntry ( context, data );
+    }
+
+    protected static void fillItemDataUpdateEntryCollection ( final BinaryContext context, final IoBuffer data, final int items, final Collection<org.eclipse.scada.da.data.ItemDataUpdateEntry> values ) throws Exception
+    {
+        for ( int i = 0; i < items; i++ )
+        {
+            values.add ( inlindeDecodeItemDataUpdateEntry ( context, data ) );
+        }
+    }
+
+    protected static <T extends Collection<org.eclipse.scada.da.data.ItemDataUpdateEntry>> T decodeItemDataUpdateEntryCollection ( final BinaryContext context, final IoBuffer data, final CollectionAllocator<org.eclipse.scada.da.data.ItemDataUpdateEntry, T> allactor, final boolean allowNull ) throws Exception
+    {
+        final Integer len = context.beginReadStructureList ( data, allowNull );
+
+        if ( len == null )
+        {
+            return null;
+        }
+        else
+        {
+            final T result = allactor.allocate ( len );
+            fillItemDataUpdateEntryCollection ( context, data, len, result );
+            return result;
+        }
+    }
+
+    public static List<org.eclipse.scada.da.data.ItemDataUpdateEntry> decodeListItemDataUpdateEntry ( final BinaryContext context, final IoBuffer data, final boolean allowNull ) throws Exception
+    {
+        return decodeItemDataUpdateEntryCollection ( context, data, ALLOC_ITEMDATAUPDATEENTRY_LIST, allowNull );
+    }
+
+    public static Set<org.eclipse.scada.da.data.ItemDataUpdateEntry> decodeSetItemDataUpdateEntry ( final BinaryContext context, final IoBuffer data, final boolean allowNull ) throws Exception
+    {
+        return decodeItemDataUpdateEntryCollection ( context, data, ALLOC_ITEMDATAUPDATEENTRY_SET, allowNull );
+    }
+
 }
@@ -89,8 +89,7 @@ public class BrowseFolder implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.BrowseFolder value = (org.eclipse.scada.da.data.message.BrowseFolder)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
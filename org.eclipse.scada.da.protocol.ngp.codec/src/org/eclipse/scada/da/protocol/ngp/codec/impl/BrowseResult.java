@@ -95,8 +95,7 @@ public class BrowseResult implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.BrowseResult value = (org.eclipse.scada.da.data.message.BrowseResult)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -101,8 +101,7 @@ public class FolderDataUpdate implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.FolderDataUpdate value = (org.eclipse.scada.da.data.message.FolderDataUpdate)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
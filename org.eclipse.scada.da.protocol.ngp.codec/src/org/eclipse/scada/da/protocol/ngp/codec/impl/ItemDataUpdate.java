@@ -107,8 +107,7 @@ public class ItemDataUpdate implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.ItemDataUpdate value = (org.eclipse.scada.da.data.message.ItemDataUpdate)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
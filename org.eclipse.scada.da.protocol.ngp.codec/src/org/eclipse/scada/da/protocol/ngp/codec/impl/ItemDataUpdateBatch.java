@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2013 TH4 SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     Jens Reimann - implement security callback system
+ *******************************************************************************/
+package org.eclipse.scada.da.protocol.ngp.codec.impl;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.core.ngp.common.codec.osbp.BinaryContext;
+import org.eclipse.scada.core.ngp.common.codec.osbp.BinaryMessageCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ItemDataUpdateBatch implements BinaryMessageCodec
+{
+    private final static Logger logger = LoggerFactory.getLogger ( ItemDataUpdateBatch.class );
+
+    public static final int MESSAGE_CODE = 4101;
+
+    @Override
+    public int getMessageCode ()
+    {
+        return MESSAGE_CODE;
+    }
+
+    @Override
+    public Class<?> getMessageClass ()
+    {
+        return org.eclipse.scada.da.data.message.ItemDataUpdateBatch.class;
+    }
+
+    @Override
+    public org.eclipse.scada.da.data.message.ItemDataUpdateBatch decodeMessage ( final BinaryContext _context, final IoBuffer _data ) throws Exception
+    {
+        // message code
+        {
+            final int messageCode = _data.getInt ();
+
+            if ( messageCode != MESSAGE_CODE )
+            {
+                throw new IllegalStateException ( String.format ( "Expected messageCode %s but found %s", MESSAGE_CODE, messageCode ) );
+            }
+        }
+
+        final byte numberOfFields = _data.get ();
+
+        // decode attributes
+
+        java.util.List<org.eclipse.scada.da.data.ItemDataUpdateEntry> updates = null;
+
+        logger.trace ( "Decoding {} fields", numberOfFields );
+
+        for ( int i = 0; i < numberOfFields; i++ )
+        {
+
+            final byte fieldNumber = _data.get ();
+            switch ( fieldNumber )
+            {
+                case 1:
+                {
+                    updates = org.eclipse.scada.da.protocol.ngp.codec.Structures.decodeListItemDataUpdateEntry ( _context, _data, true );
+                }
+                    break;
+                default:
+                    logger.warn ( "Received unknown field number: {}", fieldNumber );
+                    break;
+            }
+
+        }
+
+        // create object
+        return new org.eclipse.scada.da.data.message.ItemDataUpdateBatch ( updates );
+    }
+
+    @Override
+    public IoBuffer encodeMessage ( final BinaryContext context, final Object objectMessage ) throws Exception
+    {
+        final org.eclipse.scada.da.data.message.ItemDataUpdateBatch value = (org.eclipse.scada.da.data.message.ItemDataUpdateBatch)objectMessage;
+
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
+
+        // encode message base
+        data.putInt ( MESSAGE_CODE );
+
+        // number of fields 
+        data.put ( (byte)1 );
+
+        // encode attributes
+        org.eclipse.scada.da.protocol.ngp.codec.Structures.encodeCollectionItemDataUpdateEntry ( context, data, (byte)1, value.getUpdates () );
+
+        data.flip ();
+        return data;
+    }
+
+}
@@ -107,8 +107,7 @@ public class StartWriteAttributes implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.StartWriteAttributes value = (org.eclipse.scada.da.data.message.StartWriteAttributes)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
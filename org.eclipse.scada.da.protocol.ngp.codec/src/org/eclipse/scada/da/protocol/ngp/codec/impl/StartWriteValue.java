@@ -107,8 +107,7 @@ public class StartWriteValue implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.StartWriteValue value = (org.eclipse.scada.da.data.message.StartWriteValue)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -83,8 +83,7 @@ public class SubscribeItem implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.SubscribeItem value = (org.eclipse.scada.da.data.message.SubscribeItem)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -83,8 +83,7 @@ public class UnsubscibeItem implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.UnsubscibeItem value = (org.eclipse.scada.da.data.message.UnsubscibeItem)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -95,8 +95,7 @@ public class WriteAttributesResult implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.WriteAttributesResult value = (org.eclipse.scada.da.data.message.WriteAttributesResult)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
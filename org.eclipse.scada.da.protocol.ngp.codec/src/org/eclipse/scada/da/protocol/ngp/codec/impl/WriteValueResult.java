@@ -89,8 +89,7 @@ public class WriteValueResult implements BinaryMessageCodec
     {
         final org.eclipse.scada.da.data.message.WriteValueResult value = (org.eclipse.scada.da.data.message.WriteValueResult)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.common.io;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.mina.core.session.IoSession;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobManagerTest
+{
+    /**
+     * A block which wants to be read a number of times
+     */
+    private static class TestBlock implements PollRequest
+    {
+        private final String name;
+
+        private final long priority;
+
+        private final long timeout;
+
+        private int pending;
+
+        private final List<Object> messages = new ArrayList<Object> ();
+
+        private int timeouts;
+
+        public TestBlock ( final String name, final long priority, final long timeout, final int pending )
+        {
+            this.name = name;
+            this.priority = priority;
+            this.timeout = timeout;
+            this.pending = pending;
+        }
+
+        @Override
+        public Object createPollRequest ()
+        {
+            this.pending--;
+            return this.name;
+        }
+
+        @Override
+        public long getPollRequestTimeout ()
+        {
+            return this.timeout;
+        }
+
+        @Override
+        public boolean handleMessage ( final Object message )
+        {
+            this.messages.add ( message );
+            return true;
+        }
+
+        @Override
+        public void handleFailure ( final Throwable e )
+        {
+        }
+
+        @Override
+        public void handleDisconnect ()
+        {
+        }
+
+        @Override
+        public void handleTimeout ()
+        {
+            this.timeouts++;
+        }
+
+        @Override
+        public Long updatePriority ( final long now )
+        {
+            return this.pending > 0 ? this.priority : null;
+        }
+
+        @Override
+        public void dispose ()
+        {
+        }
+
+        @Override
+        public String toString ()
+        {
+            return this.name;
+        }
+    }
+
+    /**
+     * The requests written to the session
+     */
+    private final List<Object> written = new ArrayList<Object> ();
+
+    private JobManager jobManager;
+
+    @Before
+    public void setup ()
+    {
+        // ticks are triggered by the test
+        this.jobManager = new JobManager ( (ScheduledExecutorService)Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { ScheduledExecutorService.class }, new InvocationHandler () {
+
+            @Override
+            public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+            {
+                return Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { ScheduledFuture.class }, new InvocationHandler () {
+
+                    @Override
+                    public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+                    {
+                        return method.getReturnType () == boolean.class ? true : null;
+                    }
+                } );
+            }
+        } ) );
+
+        this.jobManager.setSession ( (IoSession)Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { IoSession.class }, new InvocationHandler () {
+
+            @Override
+            public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+            {
+                if ( method.getName ().equals ( "write" ) )
+                {
+                    JobManagerTest.this.written.add ( args[0] );
+                }
+                return null;
+            }
+        } ) );
+    }
+
+    @Test
+    public void testSingleInFlight ()
+    {
+        final TestBlock a = new TestBlock ( "a", 2, 0, 1 );
+        final TestBlock b = new TestBlock ( "b", 1, 0, 1 );
+        this.jobManager.addBlock ( "a", a );
+        this.jobManager.addBlock ( "b", b );
+
+        this.jobManager.tick ();
+        Assert.assertEquals ( Arrays.asList ( "a" ), this.written );
+
+        this.jobManager.messageReceived ( "reply-a" );
+        Assert.assertEquals ( Arrays.asList ( "a", "b" ), this.written );
+        Assert.assertEquals ( Arrays.asList ( "reply-a" ), a.messages );
+    }
+
+    /**
+     * Several requests are sent at once, the replies are matched by their
+     * order
+     */
+    @Test
+    public void testInOrderReplies ()
+    {
+        this.jobManager.setMaxInFlight ( 3 );
+
+        final TestBlock a = new TestBlock ( "a", 3, 0, 1 );
+        final TestBlock b = new TestBlock ( "b", 2, 0, 1 );
+        final TestBlock c = new TestBlock ( "c", 1, 0, 1 );
+        this.jobManager.addBlock ( "a", a );
+        this.jobManager.addBlock ( "b", b );
+        this.jobManager.addBlock ( "c", c );
+
+        this.jobManager.tick ();
+        Assert.assertEquals ( Arrays.asList ( "a", "b", "c" ), this.written );
+
+        this.jobManager.messageReceived ( "reply-1" );
+        this.jobManager.messageReceived ( "reply-2" );
+        this.jobManager.messageReceived ( "reply-3" );
+
+        Assert.assertEquals ( Arrays.asList ( "reply-1" ), a.messages );
+        Assert.assertEquals ( Arrays.asList ( "reply-2" ), b.messages );
+        Assert.assertEquals ( Arrays.asList ( "reply-3" ), c.messages );
+    }
+
+    /**
+     * A reply frees a slot for the next request, a block is never read twice
+     * at the same time
+     */
+    @Test
+    public void testRefill ()
+    {
+        this.jobManager.setMaxInFlight ( 2 );
+
+        final TestBlock a = new TestBlock ( "a", 3, 0, 2 );
+        final TestBlock b = new TestBlock ( "b", 2, 0, 1 );
+        final TestBlock c = new TestBlock ( "c", 1, 0, 1 );
+        this.jobManager.addBlock ( "a", a );
+        this.jobManager.addBlock ( "b", b );
+        this.jobManager.addBlock ( "c", c );
+
+        this.jobManager.tick ();
+        Assert.assertEquals ( Arrays.asList ( "a", "b" ), this.written );
+
+        // "a" is still due, but already being read
+        this.jobManager.tick ();
+        Assert.assertEquals ( Arrays.asList ( "a", "b" ), this.written );
+
+        this.jobManager.messageReceived ( "reply-a" );
+        Assert.assertEquals ( Arrays.asList ( "a", "b", "a" ), this.written );
+
+        this.jobManager.messageReceived ( "reply-b" );
+        Assert.assertEquals ( Arrays.asList ( "a", "b", "a", "c" ), this.written );
+
+        this.jobManager.messageReceived ( "reply-a2" );
+        this.jobManager.messageReceived ( "reply-c" );
+
+        Assert.assertEquals ( Arrays.asList ( "reply-a", "reply-a2" ), a.messages );
+        Assert.assertEquals ( Arrays.asList ( "reply-b" ), b.messages );
+        Assert.assertEquals ( Arrays.asList ( "reply-c" ), c.messages );
+    }
+
+    /**
+     * A missing reply times out all requests in flight, since later replies
+     * cannot be matched anymore
+     */
+    @Test
+    public void testTimeout () throws InterruptedException
+    {
+        this.jobManager.setMaxInFlight ( 3 );
+
+        final TestBlock a = new TestBlock ( "a", 3, 1, 1 );
+        final TestBlock b = new TestBlock ( "b", 2, 0, 1 );
+        final TestBlock c = new TestBlock ( "c", 1, 0, 2 );
+        this.jobManager.addBlock ( "a", a );
+        this.jobManager.addBlock ( "b", b );
+        this.jobManager.addBlock ( "c", c );
+
+        this.jobManager.tick ();
+        Assert.assertEquals ( Arrays.asList ( "a", "b", "c" ), this.written );
+
+        Thread.sleep ( 10 );
+        this.jobManager.tick ();
+
+        Assert.assertEquals ( 1, a.timeouts );
+        Assert.assertEquals ( 1, b.timeouts );
+        Assert.assertEquals ( 1, c.timeouts );
+
+        // the block which is still due is read again
+        Assert.assertEquals ( Arrays.asList ( "a", "b", "c", "c" ), this.written );
+
+        this.jobManager.messageReceived ( "reply-c" );
+        Assert.assertEquals ( Arrays.asList ( "reply-c" ), c.messages );
+        Assert.assertTrue ( a.messages.isEmpty () );
+        Assert.assertTrue ( b.messages.isEmpty () );
+    }
+
+    /**
+     * Only the oldest request times out the requests in flight
+     */
+    @Test
+    public void testNoTimeout () throws InterruptedException
+    {
+        this.jobManager.setMaxInFlight ( 2 );
+
+        final TestBlock a = new TestBlock ( "a", 2, 0, 1 );
+        final TestBlock b = new TestBlock ( "b", 1, 1, 1 );
+        this.jobManager.addBlock ( "a", a );
+        this.jobManager.addBlock ( "b", b );
+
+        this.jobManager.tick ();
+        Thread.sleep ( 10 );
+        this.jobManager.tick ();
+
+        Assert.assertEquals ( 0, a.timeouts );
+        Assert.assertEquals ( 0, b.timeouts );
+
+        this.jobManager.messageReceived ( "reply-a" );
+        this.jobManager.messageReceived ( "reply-b" );
+        Assert.assertEquals ( Arrays.asList ( "reply-a" ), a.messages );
+        Assert.assertEquals ( Arrays.asList ( "reply-b" ), b.messages );
+    }
+}
@@ -7,12 +7,22 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - pipelining and merging of poll requests
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.io;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -24,6 +34,21 @@ import org.eclipse.scada.utils.concurrent.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Runs the poll and write requests of a connection device
+ * <p>
+ * Write requests are sent first, then the poll request which is due the
+ * longest. By default only one request is sent at a time. If the device
+ * protocol allows it, up to {@link #setMaxInFlight(int)} requests are sent
+ * without waiting for the reply. In any case the device must reply in the
+ * order of the requests, since replies are matched to the requests by their
+ * order.
+ * </p>
+ * <p>
+ * Implementations may read several blocks with one request by overriding
+ * {@link #mergeRequests(PollRequest, List)}.
+ * </p>
+ */
 public class JobManager
 {
     private final static Logger logger = LoggerFactory.getLogger ( JobManager.class );
@@ -36,7 +61,17 @@ public class JobManager
 
     private ScheduledFuture<?> job;
 
-    private Job currentJob;
+    /**
+     * The jobs which were sent and wait for their reply, oldest first
+     */
+    private final Deque<Job> activeJobs = new ArrayDeque<Job> ();
+
+    /**
+     * The blocks which are read by one of the active jobs
+     */
+    private final Set<PollRequest> activeBlocks = new HashSet<PollRequest> ();
+
+    private int maxInFlight = 1;
 
     private final Queue<Job> writeQueue = new ConcurrentLinkedQueue<Job> ();
 
@@ -76,10 +111,24 @@ public class JobManager
     {
         private final PollRequest block;
 
-        public ReadJob ( final PollRequest block )
+        private final Collection<PollRequest> blocks;
+
+        /**
+         * @param block
+         *            the request to send
+         * @param blocks
+         *            the registered blocks which are read by the request
+         */
+        public ReadJob ( final PollRequest block, final Collection<PollRequest> blocks )
         {
             super ( block.getPollRequestTimeout () );
             this.block = block;
+            this.blocks = blocks;
+        }
+
+        public Collection<PollRequest> getBlocks ()
+        {
+            return this.blocks;
         }
 
         @Override
@@ -167,6 +216,19 @@ public class JobManager
         this.createdExector = null;
     }
 
+    /**
+     * Set the maximum number of requests which are sent without waiting for
+     * the reply
+     *
+     * @param maxInFlight
+     *            the maximum number of requests, values less than one are
+     *            treated as one
+     */
+    public synchronized void setMaxInFlight ( final int maxInFlight )
+    {
+        this.maxInFlight = Math.max ( 1, maxInFlight );
+    }
+
     public synchronized void setSession ( final IoSession session )
     {
         logger.debug ( "Setting session: {}", session );
@@ -175,7 +237,8 @@ public class JobManager
         setTimerState ( session != null );
         if ( session == null )
         {
-            this.currentJob = null;
+            this.activeJobs.clear ();
+            this.activeBlocks.clear ();
             // discard write requests
             this.writeQueue.clear ();
             // handle data disconnect
@@ -215,18 +278,21 @@ public class JobManager
 
     public synchronized void messageReceived ( final Object message )
     {
-        logger.trace ( "messageReceived - currentJob: {}, message: {}", this.currentJob, message );
+        logger.trace ( "messageReceived - activeJobs: {}, message: {}", this.activeJobs, message );
+
+        // replies arrive in the order of the requests
+        final Job job = this.activeJobs.poll ();
 
-        if ( this.currentJob != null )
+        if ( job != null )
         {
             try
             {
-                this.currentJob.handleMessage ( message );
+                job.handleMessage ( message );
             }
             finally
             {
-                this.currentJob = null;
-                startNextJob ();
+                jobCompleted ( job );
+                startNextJobs ();
             }
         }
         else
@@ -237,115 +303,223 @@ public class JobManager
 
     protected synchronized void tick ()
     {
-        if ( this.currentJob != null )
+        if ( !this.activeJobs.isEmpty () )
         {
-            logger.trace ( "Ticked with current job" );
+            logger.trace ( "Ticked with active jobs" );
             if ( isCurrentJobTimeout () )
             {
                 handleTimeout ();
+                return;
             }
-            return;
         }
 
-        logger.debug ( "No job active when ticking... adding job!" );
-        startNextJob ();
-        logger.debug ( "New job: {}", this.currentJob );
+        startNextJobs ();
     }
 
+    /**
+     * Check if the oldest active job timed out
+     */
     protected boolean isCurrentJobTimeout ()
     {
-        return this.currentJob.getTimeoutTime () > 0 && this.currentJob.getTimeoutTime () < System.currentTimeMillis ();
+        final Job job = this.activeJobs.peek ();
+        return job != null && job.getTimeoutTime () > 0 && job.getTimeoutTime () < System.currentTimeMillis ();
     }
 
     private void handleTimeout ()
     {
-        logger.debug ( "Job timed out: {}", this.currentJob );
+        logger.debug ( "Job timed out: {}", this.activeJobs.peek () );
+
+        /*
+         * Once a reply is missing we cannot tell which reply belongs to
+         * which request anymore, so all active jobs time out
+         */
 
-        this.currentJob.handleTimeout ();
-        this.currentJob = null;
+        final List<Job> jobs = new ArrayList<Job> ( this.activeJobs );
+        this.activeJobs.clear ();
 
-        startNextJob ();
+        for ( final Job job : jobs )
+        {
+            job.handleTimeout ();
+            jobCompleted ( job );
+        }
+
+        startNextJobs ();
     }
 
-    public void handleException ( final Throwable e )
+    public synchronized void handleException ( final Throwable e )
     {
-        logger.debug ( "Job exception: {}", this.currentJob );
+        final Job job = this.activeJobs.poll ();
+
+        logger.debug ( "Job exception: {}", job );
 
-        this.currentJob.handleException ( e );
-        this.currentJob = null;
+        if ( job != null )
+        {
+            job.handleException ( e );
+            jobCompleted ( job );
+        }
 
-        startNextJob ();
+        startNextJobs ();
     }
 
-    private void startNextJob ()
+    private void jobCompleted ( final Job job )
     {
-        this.currentJob = getNextWriteJob ();
-        if ( this.currentJob == null )
+        if ( job instanceof ReadJob )
         {
-            this.currentJob = getNextReadJob ();
+            this.activeBlocks.removeAll ( ( (ReadJob)job ).getBlocks () );
         }
+    }
+
+    /**
+     * Start jobs until the maximum number of active jobs is reached
+     */
+    private void startNextJobs ()
+    {
+        while ( this.activeJobs.size () < this.maxInFlight )
+        {
+            Job job = getNextWriteJob ();
+            if ( job == null )
+            {
+                job = getNextReadJob ();
+            }
+
+            logger.debug ( "Next job: {}", job );
+
+            if ( job == null )
+            {
+                return;
+            }
+
+            this.activeJobs.add ( job );
+            job.start ( this.session );
+        }
+    }
+
+    private static class Candidate
+    {
+        private final PollRequest request;
 
-        logger.debug ( "Next job: {}", this.currentJob );
+        private final long priority;
 
-        if ( this.currentJob != null )
+        public Candidate ( final PollRequest request, final long priority )
         {
-            this.currentJob.start ( this.session );
+            this.request = request;
+            this.priority = priority;
         }
     }
 
+    private static final Comparator<Candidate> PRIORITY_COMPARATOR = new Comparator<Candidate> () {
+
+        @Override
+        public int compare ( final Candidate o1, final Candidate o2 )
+        {
+            // highest priority first
+            return Long.compare ( o2.priority, o1.priority );
+        }
+    };
+
     /**
      * Get the next read job
-     * 
+     *
      * @return the next read job or <code>null</code> if no blocks need to be
      *         refreshed
      */
     private Job getNextReadJob ()
     {
+        final List<PollRequest> candidates = findPollRequests ( System.currentTimeMillis () );
 
-        final long now = System.currentTimeMillis ();
-
-        final PollRequest request = findNextBestPollRequest ( now );
-
-        if ( request != null )
+        if ( candidates.isEmpty () )
         {
-            return new ReadJob ( request );
+            return null;
         }
-        else
+
+        final PollRequest request = candidates.remove ( 0 );
+
+        final List<PollRequest> remaining = new ArrayList<PollRequest> ( candidates );
+        final PollRequest pollRequest = mergeRequests ( request, remaining );
+
+        final List<PollRequest> blocks = new ArrayList<PollRequest> ( 1 + candidates.size () - remaining.size () );
+        blocks.add ( request );
+        if ( remaining.size () != candidates.size () )
         {
-            return null;
+            for ( final PollRequest candidate : candidates )
+            {
+                if ( !remaining.contains ( candidate ) )
+                {
+                    blocks.add ( candidate );
+                }
+            }
         }
+
+        this.activeBlocks.addAll ( blocks );
+
+        return new ReadJob ( pollRequest, blocks );
     }
 
-    private PollRequest findNextBestPollRequest ( final long now )
+    /**
+     * Find all blocks which want to be refreshed and are not being read right
+     * now
+     * <p>
+     * The priority of a block is the time it is overdue, so the result is
+     * ordered by the deadline of the blocks, earliest first.
+     * </p>
+     */
+    private List<PollRequest> findPollRequests ( final long now )
     {
-        PollRequest nextRequest = null;
-        long nextPriority = 0;
+        final List<Candidate> candidates = new ArrayList<Candidate> ( this.blocks.size () );
+
         for ( final PollRequest request : this.blocks.values () )
         {
+            if ( this.activeBlocks.contains ( request ) )
+            {
+                continue;
+            }
+
             final Long priority = request.updatePriority ( now );
 
             logger.trace ( "Checking request: {} - {}", priority, request );
 
-            if ( priority == null )
+            if ( priority != null )
             {
-                continue;
+                candidates.add ( new Candidate ( request, priority ) );
             }
+        }
 
-            if ( nextRequest == null )
-            {
-                logger.trace ( "First request" );
-                nextRequest = request;
-                nextPriority = priority;
-            }
-            else if ( priority > nextPriority )
-            {
-                logger.trace ( "Better request" );
-                nextRequest = request;
-                nextPriority = priority;
-            }
+        if ( candidates.isEmpty () )
+        {
+            return Collections.emptyList ();
+        }
+
+        Collections.sort ( candidates, PRIORITY_COMPARATOR );
+
+        final List<PollRequest> result = new ArrayList<PollRequest> ( candidates.size () );
+        for ( final Candidate candidate : candidates )
+        {
+            result.add ( candidate.request );
         }
+        return result;
+    }
 
-        return nextRequest;
+    /**
+     * Merge other blocks into the request which will be sent next
+     * <p>
+     * The default implementation does not merge requests.
+     * </p>
+     * <p>
+     * Implementations must remove the blocks they merged from the list of
+     * candidates. The returned request is responsible for passing the reply,
+     * failures and timeouts to all merged blocks.
+     * </p>
+     *
+     * @param request
+     *            the block which is due next
+     * @param candidates
+     *            the other blocks which want to be refreshed, ordered by
+     *            their deadline
+     * @return the request to send
+     */
+    protected PollRequest mergeRequests ( final PollRequest request, final List<PollRequest> candidates )
+    {
+        return request;
     }
 
     /**
@@ -406,6 +580,7 @@ public class JobManager
         final PollRequest oldBlock = this.blocks.remove ( id );
         if ( oldBlock != null )
         {
+            this.activeBlocks.remove ( oldBlock );
             logger.debug ( "Dispose bock: {}", id );
             oldBlock.dispose ();
         }
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.common.memory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.da.server.common.AttributeMode;
+import org.eclipse.scada.da.server.common.DataItem;
+import org.eclipse.scada.utils.osgi.pool.ManageableObjectPool;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+public class AbstractRequestBlockTest
+{
+    private static final Executor EXECUTOR = new Executor () {
+
+        @Override
+        public void execute ( final Runnable command )
+        {
+            command.run ();
+        }
+    };
+
+    /**
+     * Returns <code>null</code> for all methods, except for service
+     * registrations
+     */
+    private static final InvocationHandler NULL_HANDLER = new InvocationHandler () {
+
+        @Override
+        public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+        {
+            if ( method.getName ().equals ( "registerService" ) )
+            {
+                return Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { ServiceRegistration.class }, this );
+            }
+            return null;
+        }
+    };
+
+    private static class TestBlock extends AbstractRequestBlock
+    {
+        public TestBlock ()
+        {
+            super ( (BundleContext)Proxy.newProxyInstance ( TestBlock.class.getClassLoader (), new Class<?>[] { BundleContext.class }, NULL_HANDLER ), EXECUTOR, "test", "variables", "block", false, 1000, 4, 0, false );
+        }
+
+        @Override
+        public Object createPollRequest ()
+        {
+            return null;
+        }
+
+        @Override
+        public long getPollRequestTimeout ()
+        {
+            return 0;
+        }
+
+        @Override
+        public boolean handleMessage ( final Object message )
+        {
+            return false;
+        }
+
+        @Override
+        public void writeBit ( final int blockAddress, final int subIndex, final boolean value )
+        {
+        }
+
+        @Override
+        public void writeData ( final int blockAddress, final byte[] data )
+        {
+        }
+
+        @Override
+        public int getStartAddress ()
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * A variable which records the values published to its item
+     */
+    private static class TestVariable extends Int16Variable
+    {
+        private final List<Variant> values = new ArrayList<Variant> ();
+
+        @SuppressWarnings ( "unchecked" )
+        public TestVariable ( final String name, final int index )
+        {
+            super ( name, index, ByteOrder.BIG_ENDIAN, EXECUTOR, (ManageableObjectPool<DataItem>)Proxy.newProxyInstance ( TestVariable.class.getClassLoader (), new Class<?>[] { ManageableObjectPool.class }, NULL_HANDLER ) );
+        }
+
+        @Override
+        public void start ( final String parentName, final BundleContext context, final MemoryRequestBlock block, final int offset )
+        {
+            super.start ( parentName, context, block, offset );
+
+            this.item = new MemoryDeviceDataitem ( this.item.getInformation ().getName (), EXECUTOR, this ) {
+
+                @Override
+                public synchronized void updateData ( final Variant value, final Map<String, Variant> attributes, final AttributeMode mode )
+                {
+                    TestVariable.this.values.add ( value );
+                    super.updateData ( value, attributes, mode );
+                }
+            };
+        }
+    }
+
+    private TestBlock block;
+
+    private TestVariable var1;
+
+    private TestVariable var2;
+
+    @Before
+    public void setup ()
+    {
+        this.block = new TestBlock ();
+        this.var1 = new TestVariable ( "var1", 0 );
+        this.var2 = new TestVariable ( "var2", 2 );
+        this.block.setVariables ( new Variable[] { this.var1, this.var2 } );
+    }
+
+    private static IoBuffer data ( final int value1, final int value2 )
+    {
+        final IoBuffer data = IoBuffer.allocate ( 4 );
+        data.putShort ( (short)value1 );
+        data.putShort ( (short)value2 );
+        data.flip ();
+        return data;
+    }
+
+    private static List<Variant> values ( final int... values )
+    {
+        final List<Variant> result = new ArrayList<Variant> ();
+        for ( final int value : values )
+        {
+            result.add ( Variant.valueOf ( value ) );
+        }
+        return result;
+    }
+
+    @Test
+    public void testUnchanged ()
+    {
+        this.block.handleData ( data ( 1, 2 ) );
+        this.block.handleData ( data ( 1, 2 ) );
+
+        Assert.assertEquals ( values ( 1 ), this.var1.values );
+        Assert.assertEquals ( values ( 2 ), this.var2.values );
+    }
+
+    /**
+     * Only the variable whose bytes changed is updated
+     */
+    @Test
+    public void testSingleChange ()
+    {
+        this.block.handleData ( data ( 1, 2 ) );
+        this.block.handleData ( data ( 1, 3 ) );
+
+        Assert.assertEquals ( values ( 1 ), this.var1.values );
+        Assert.assertEquals ( values ( 2, 3 ), this.var2.values );
+    }
+
+    /**
+     * Changes inside the deadband are suppressed, the deadband is relative to
+     * the last published value
+     */
+    @Test
+    public void testDeadband ()
+    {
+        this.var2.setDeadband ( 5 );
+
+        this.block.handleData ( data ( 1, 10 ) );
+        this.block.handleData ( data ( 1, 14 ) );
+        this.block.handleData ( data ( 1, 6 ) );
+        this.block.handleData ( data ( 1, 16 ) );
+
+        Assert.assertEquals ( values ( 10, 16 ), this.var2.values );
+    }
+
+    /**
+     * After a timeout the same data is published again
+     */
+    @Test
+    public void testTimeout ()
+    {
+        this.block.handleData ( data ( 1, 2 ) );
+        this.block.handleTimeout ();
+        this.block.handleData ( data ( 1, 2 ) );
+
+        Assert.assertEquals ( Arrays.asList ( Variant.valueOf ( 1 ), Variant.NULL, Variant.valueOf ( 1 ) ), this.var1.values );
+        Assert.assertEquals ( Arrays.asList ( Variant.valueOf ( 2 ), Variant.NULL, Variant.valueOf ( 2 ) ), this.var2.values );
+    }
+}
@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - provide the size for change detection
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.memory;
 
@@ -45,6 +46,13 @@ public abstract class AbstractAccessorVariable<T> extends ScalarVariable
 
     protected abstract T getValue ( Variant value );
 
+    @Override
+    protected int getSize ()
+    {
+        // all accessors have a fixed size
+        return this.accessor.getBufferSize ( null );
+    }
+
     @Override
     protected NotifyFuture<WriteResult> handleWrite ( final Variant value )
     {
@@ -7,9 +7,12 @@
  *
  * Contributors:
  *     Jens Reimann - initial API and implementation
+ *     IBH SYSTEMS GmbH - record the achieved poll period
+ *     IBH SYSTEMS GmbH - only update variables whose data changed
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.memory;
 
+import java.util.BitSet;
 import java.util.concurrent.Executor;
 
 import org.apache.commons.collections.buffer.CircularFifoBuffer;
@@ -43,13 +46,19 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
 
         private final DataItemInputChained sizeItem;
 
+        private final DataItemInputChained periodItem;
+
         private final DataItemInputChained timeoutStateItem;
 
         private final DataItemInputChained checksumErrorsItem;
 
+        private final DataItemInputChained periodRatioItem;
+
+        private final long period;
+
         private long checksumErrors;
 
-        public Statistics ( final DataItemFactory itemFactory, final int size )
+        public Statistics ( final DataItemFactory itemFactory, final int size, final long period )
         {
             this.stateItem = itemFactory.createInput ( "state", null );
             this.timeoutStateItem = itemFactory.createInput ( "timeout", null );
@@ -57,10 +66,15 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
             this.lastTimeDiffItem = itemFactory.createInput ( "lastDiff", null );
             this.avgDiffItem = itemFactory.createInput ( "avgDiff", null );
             this.checksumErrorsItem = itemFactory.createInput ( "checksumErrors", null );
+            this.periodRatioItem = itemFactory.createInput ( "periodRatio", null );
 
             this.sizeItem = itemFactory.createInput ( "size", null );
             this.sizeItem.updateData ( Variant.valueOf ( size ), null, null );
 
+            this.period = period;
+            this.periodItem = itemFactory.createInput ( "period", null );
+            this.periodItem.updateData ( Variant.valueOf ( period ), null, null );
+
             this.lastUpdate = System.currentTimeMillis ();
             this.diffBuffer = new CircularFifoBuffer ( 20 );
         }
@@ -120,6 +134,12 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
             }
             final double avgDiff = (double)sum / (double)this.diffBuffer.size ();
             this.avgDiffItem.updateData ( Variant.valueOf ( avgDiff ), null, null );
+
+            // the achieved period compared to the configured one, greater than 1.0 means the device cannot keep up
+            if ( this.period > 0 )
+            {
+                this.periodRatioItem.updateData ( Variant.valueOf ( avgDiff / this.period ), null, null );
+            }
         }
     }
 
@@ -151,6 +171,19 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
 
     private final boolean eager;
 
+    /**
+     * The data of the last update, <code>null</code> if all variables have to
+     * be updated with the next data
+     */
+    private byte[] lastData;
+
+    /**
+     * A buffer for the next data, swapped with {@link #lastData}
+     */
+    private byte[] nextData;
+
+    private final BitSet changes = new BitSet ();
+
     public AbstractRequestBlock ( final BundleContext context, final Executor executor, final String mainTypeName, final String variablePrefix, final String blockPrefix, final boolean enableStatistics, final long period, final int requestSize, final long timeoutQuietPeriod, final boolean eager )
     {
         this.context = context;
@@ -167,7 +200,7 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
 
         if ( enableStatistics )
         {
-            this.statistics = new Statistics ( this.blockItemFactory, requestSize );
+            this.statistics = new Statistics ( this.blockItemFactory, requestSize, period );
         }
         else
         {
@@ -227,6 +260,8 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
             return;
         }
 
+        this.lastData = null;
+
         if ( this.variables != null )
         {
             for ( final Variable reg : this.variables )
@@ -237,7 +272,7 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
     }
 
     @Override
-    public void handleTimeout ()
+    public synchronized void handleTimeout ()
     {
         if ( this.disposed )
         {
@@ -246,7 +281,11 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
 
         this.lastAction = System.currentTimeMillis ();
         this.timeout = true;
-        this.statistics.timeout ();
+        this.lastData = null;
+        if ( this.statistics != null )
+        {
+            this.statistics.timeout ();
+        }
 
         if ( this.variables != null )
         {
@@ -266,6 +305,7 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
         }
 
         this.lastAction = System.currentTimeMillis ();
+        this.lastData = null;
 
         recordUpdate ( true );
 
@@ -339,6 +379,7 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
 
         // set new
         this.variables = variables;
+        this.lastData = null;
         if ( this.variables != null )
         {
             for ( final Variable var : this.variables )
@@ -384,6 +425,7 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
         }
 
         recordUpdate ( true );
+        this.lastData = null;
 
         logger.debug ( "Handle error update - variables: {}", new Object[] { this.variables } );
 
@@ -397,6 +439,14 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
 
     }
 
+    /**
+     * Handle new data of the block
+     * <p>
+     * The data is compared to the data of the last update. If nothing
+     * changed, the variables are not updated at all. Otherwise variables
+     * which support it only get updated if their bytes changed.
+     * </p>
+     */
     public synchronized void handleData ( final IoBuffer data )
     {
         if ( this.disposed )
@@ -407,25 +457,104 @@ public abstract class AbstractRequestBlock implements PollRequest, MemoryRequest
 
         recordUpdate ( false );
 
+        if ( !detectChanges ( data ) )
+        {
+            logger.trace ( "Data did not change" );
+            return;
+        }
+
         logger.debug ( "Handle data update - variables: {}", new Object[] { this.variables } );
 
         if ( this.variables != null )
         {
+            // null if all variables must be updated
+            final BitSet changes = this.lastData != null ? this.changes : null;
+
+            boolean failed = false;
+
             final Variant timestamp = Variant.valueOf ( System.currentTimeMillis () );
             for ( final Variable reg : this.variables )
             {
                 try
                 {
-                    reg.handleData ( data, timestamp );
+                    if ( changes != null && reg instanceof ChangeDetectingVariable )
+                    {
+                        ( (ChangeDetectingVariable)reg ).handleData ( data, timestamp, changes );
+                    }
+                    else
+                    {
+                        reg.handleData ( data, timestamp );
+                    }
                 }
                 catch ( final Exception e )
                 {
                     logger.warn ( "Failed in block {}", this.blockPrefix );
                     logger.warn ( "Failed to handle register", e );
                     reg.handleFailure ( e );
+                    failed = true;
                 }
             }
+
+            if ( failed )
+            {
+                // don't skip the failed variables next time
+                this.lastData = null;
+                return;
+            }
+        }
+
+        swapData ();
+    }
+
+    /**
+     * Compare the new data to the data of the last update
+     * <p>
+     * The data is copied to {@link #nextData} and the indexes of the changed
+     * bytes are recorded in {@link #changes}.
+     * </p>
+     *
+     * @return <code>true</code> if the data changed, or there is no previous
+     *         data to compare to
+     */
+    private boolean detectChanges ( final IoBuffer data )
+    {
+        final int size = data.limit ();
+
+        if ( this.nextData == null || this.nextData.length != size )
+        {
+            this.nextData = new byte[size];
+        }
+
+        for ( int i = 0; i < size; i++ )
+        {
+            this.nextData[i] = data.get ( i );
         }
+
+        this.changes.clear ();
+
+        final byte[] lastData = this.lastData;
+        if ( lastData == null || lastData.length != size )
+        {
+            this.lastData = null;
+            return true;
+        }
+
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( lastData[i] != this.nextData[i] )
+            {
+                this.changes.set ( i );
+            }
+        }
+
+        return !this.changes.isEmpty ();
+    }
+
+    private void swapData ()
+    {
+        final byte[] data = this.lastData;
+        this.lastData = this.nextData;
+        this.nextData = data;
     }
 
     /**
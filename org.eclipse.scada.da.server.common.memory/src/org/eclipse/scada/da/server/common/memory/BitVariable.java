@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - refactor for generic memory devices
+ *     IBH SYSTEMS GmbH - provide the size for change detection
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.memory;
 
@@ -42,6 +43,12 @@ public class BitVariable extends ScalarVariable
         return Variant.valueOf ( flag );
     }
 
+    @Override
+    protected int getSize ()
+    {
+        return 1;
+    }
+
     @Override
     protected Variant makeGlobalIndexValue ()
     {
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.common.memory;
+
+import java.util.BitSet;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.core.Variant;
+
+/**
+ * A variable which can skip the update if its bytes did not change
+ */
+public interface ChangeDetectingVariable extends Variable
+{
+    /**
+     * Handle new data of the block
+     * <p>
+     * The variable may ignore the data if none of the bytes it is using
+     * changed.
+     * </p>
+     *
+     * @param data
+     *            the data of the block
+     * @param timestamp
+     *            the timestamp of the data
+     * @param changes
+     *            the indexes of the bytes in <code>data</code> which changed
+     *            since the previous call
+     */
+    public void handleData ( IoBuffer data, Variant timestamp, BitSet changes );
+}
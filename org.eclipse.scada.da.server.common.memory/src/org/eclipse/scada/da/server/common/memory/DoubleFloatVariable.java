@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - refactor for generic memory devices
+ *     IBH SYSTEMS GmbH - provide the size for change detection
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.memory;
 
@@ -54,6 +55,12 @@ public class DoubleFloatVariable extends ScalarVariable
         }
     }
 
+    @Override
+    protected int getSize ()
+    {
+        return 8;
+    }
+
     @Override
     protected Variant extractValue ( final IoBuffer data, final Map<String, Variant> attributes )
     {
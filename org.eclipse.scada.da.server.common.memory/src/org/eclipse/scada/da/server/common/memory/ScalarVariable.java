@@ -8,9 +8,11 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - refactor for generic memory devices, bug fixes
+ *     IBH SYSTEMS GmbH - skip unchanged values, add deadband
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.memory;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -31,7 +33,7 @@ import org.eclipse.scada.utils.concurrent.NotifyFuture;
 import org.eclipse.scada.utils.osgi.pool.ManageableObjectPool;
 import org.osgi.framework.BundleContext;
 
-public abstract class ScalarVariable implements Variable
+public abstract class ScalarVariable implements ChangeDetectingVariable
 {
     private final String name;
 
@@ -49,6 +51,16 @@ public abstract class ScalarVariable implements Variable
 
     private final ManageableObjectPool<DataItem> itemPool;
 
+    private double deadband;
+
+    /**
+     * The last value which was published from data, <code>null</code> if
+     * there is none
+     */
+    private Variant lastValue;
+
+    private Map<String, Variant> lastAttributes;
+
     public ScalarVariable ( final String name, final int index, final Executor executor, final ManageableObjectPool<DataItem> itemPool, final Attribute... attributes )
     {
         this.name = name;
@@ -58,9 +70,42 @@ public abstract class ScalarVariable implements Variable
         this.itemPool = itemPool;
     }
 
+    /**
+     * Set the deadband of the value
+     * <p>
+     * A new numeric value is only published if it differs from the last
+     * published value by more than the deadband, or if an attribute changed.
+     * </p>
+     *
+     * @param deadband
+     *            the deadband, zero or less disables the deadband
+     */
+    public void setDeadband ( final double deadband )
+    {
+        this.deadband = deadband;
+    }
+
+    /**
+     * Get the number of bytes the value is read from
+     *
+     * @return the number of bytes, or <code>-1</code> if unknown
+     */
+    protected int getSize ()
+    {
+        return -1;
+    }
+
+    private void resetLastValue ()
+    {
+        this.lastValue = null;
+        this.lastAttributes = null;
+    }
+
     @Override
     public void handleError ( final int errorCode )
     {
+        resetLastValue ();
+
         final Map<String, Variant> attributes = new HashMap<String, Variant> ();
 
         for ( final Attribute attr : this.attributes )
@@ -77,6 +122,8 @@ public abstract class ScalarVariable implements Variable
     @Override
     public void handleDisconnect ()
     {
+        resetLastValue ();
+
         final Map<String, Variant> attributes = new HashMap<String, Variant> ();
 
         for ( final Attribute attr : this.attributes )
@@ -96,6 +143,8 @@ public abstract class ScalarVariable implements Variable
     @Override
     public void handleFailure ( final Throwable e )
     {
+        resetLastValue ();
+
         final Map<String, Variant> attributes = new HashMap<String, Variant> ();
 
         for ( final Attribute attr : this.attributes )
@@ -162,10 +211,40 @@ public abstract class ScalarVariable implements Variable
         }
 
         this.item = null;
+        resetLastValue ();
     }
 
     protected abstract Variant extractValue ( IoBuffer data, Map<String, Variant> attributes );
 
+    @Override
+    public void handleData ( final IoBuffer data, final Variant timestamp, final BitSet changes )
+    {
+        if ( isChanged ( changes ) )
+        {
+            handleData ( data, timestamp );
+        }
+    }
+
+    /**
+     * Check if the bytes of the variable changed
+     * <p>
+     * The byte ranges of attributes are not known, so variables with
+     * attributes are always treated as changed.
+     * </p>
+     */
+    private boolean isChanged ( final BitSet changes )
+    {
+        final int size = getSize ();
+        if ( this.lastValue == null || size <= 0 || this.attributes.length > 0 )
+        {
+            return true;
+        }
+
+        final int start = toAddress ( this.index );
+        final int next = changes.nextSetBit ( start );
+        return next >= 0 && next < start + size;
+    }
+
     @Override
     public void handleData ( final IoBuffer data, final Variant timestamp )
     {
@@ -180,9 +259,42 @@ public abstract class ScalarVariable implements Variable
 
         attributes.put ( "globalIndex", makeGlobalIndexValue () );
 
+        if ( isInDeadband ( value ) && attributes.equals ( this.lastAttributes ) )
+        {
+            return;
+        }
+
+        this.lastValue = value;
+        this.lastAttributes = attributes;
+
         this.item.updateData ( value, attributes, AttributeMode.SET );
     }
 
+    private boolean isInDeadband ( final Variant value )
+    {
+        if ( this.lastValue == null )
+        {
+            return false;
+        }
+        if ( this.lastValue.equals ( value ) )
+        {
+            return true;
+        }
+        if ( this.deadband <= 0 )
+        {
+            return false;
+        }
+
+        final Double current = value.asDouble ( null );
+        final Double last = this.lastValue.asDouble ( null );
+        if ( current == null || last == null )
+        {
+            return false;
+        }
+
+        return Math.abs ( current - last ) <= this.deadband;
+    }
+
     protected Variant makeGlobalIndexValue ()
     {
         return Variant.valueOf ( this.offset + this.index );
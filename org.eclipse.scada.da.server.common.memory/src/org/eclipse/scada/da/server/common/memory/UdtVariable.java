@@ -8,14 +8,17 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - refactor for generic memory devices
+ *     IBH SYSTEMS GmbH - pass on the changed bytes
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.memory;
 
+import java.util.BitSet;
+
 import org.apache.mina.core.buffer.IoBuffer;
 import org.eclipse.scada.core.Variant;
 import org.osgi.framework.BundleContext;
 
-public class UdtVariable implements Variable
+public class UdtVariable implements ChangeDetectingVariable
 {
     private final String name;
 
@@ -43,6 +46,22 @@ public class UdtVariable implements Variable
         }
     }
 
+    @Override
+    public void handleData ( final IoBuffer data, final Variant timestamp, final BitSet changes )
+    {
+        for ( final Variable var : this.variables )
+        {
+            if ( var instanceof ChangeDetectingVariable )
+            {
+                ( (ChangeDetectingVariable)var ).handleData ( data, timestamp, changes );
+            }
+            else
+            {
+                var.handleData ( data, timestamp );
+            }
+        }
+    }
+
     @Override
     public void handleError ( final int errorCode )
     {
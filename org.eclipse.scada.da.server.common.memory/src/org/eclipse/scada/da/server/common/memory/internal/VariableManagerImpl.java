@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - refactor for generic memory devices
+ *     IBH SYSTEMS GmbH - add deadband
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.memory.internal;
 
@@ -44,6 +45,7 @@ import org.eclipse.scada.da.server.common.memory.Int64Attribute;
 import org.eclipse.scada.da.server.common.memory.Int64Variable;
 import org.eclipse.scada.da.server.common.memory.Int8Attribute;
 import org.eclipse.scada.da.server.common.memory.Int8Variable;
+import org.eclipse.scada.da.server.common.memory.ScalarVariable;
 import org.eclipse.scada.da.server.common.memory.TriBitAttribute;
 import org.eclipse.scada.da.server.common.memory.UdtVariable;
 import org.eclipse.scada.da.server.common.memory.Variable;
@@ -116,6 +118,8 @@ public class VariableManagerImpl implements VariableManager, ConfigurationFactor
 
         private final TypeEntry[] attributes;
 
+        private double deadband;
+
         public TypeEntry ( final String name, final String typeName, final int index )
         {
             this.name = name;
@@ -195,6 +199,16 @@ public class VariableManagerImpl implements VariableManager, ConfigurationFactor
             }
         }
 
+        public double getDeadband ()
+        {
+            return this.deadband;
+        }
+
+        public void setDeadband ( final double deadband )
+        {
+            this.deadband = deadband;
+        }
+
         public ByteOrder getOrder ()
         {
             return this.order;
@@ -351,34 +365,34 @@ public class VariableManagerImpl implements VariableManager, ConfigurationFactor
                         result.add ( new BitVariable ( entry.getName (), entry.getIndex (), entry.getSubIndex (), this.executor, this.itemPool, createAttributes ( entry ) ) );
                         break;
                     case UINT8:
-                        result.add ( new ByteVariable ( entry.getName (), entry.getIndex (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new ByteVariable ( entry.getName (), entry.getIndex (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case FLOAT:
-                        result.add ( new FloatVariable ( entry.getName (), entry.getIndex (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new FloatVariable ( entry.getName (), entry.getIndex (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case UINT16:
-                        result.add ( new WordVariable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new WordVariable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case UINT32:
-                        result.add ( new DoubleIntegerVariable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new DoubleIntegerVariable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case UDT:
                         result.add ( new UdtVariable ( entry.getName (), entry.getIndex (), createVariables ( entry.getTypeName () ) ) );
                         break;
                     case INT8:
-                        result.add ( new Int8Variable ( entry.getName (), entry.getIndex (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new Int8Variable ( entry.getName (), entry.getIndex (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case INT16:
-                        result.add ( new Int16Variable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new Int16Variable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case INT32:
-                        result.add ( new Int32Variable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new Int32Variable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case INT64:
-                        result.add ( new Int64Variable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new Int64Variable ( entry.getName (), entry.getIndex (), entry.getOrder (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case DOUBLE:
-                        result.add ( new DoubleFloatVariable ( entry.getName (), entry.getIndex (), this.executor, this.itemPool, createAttributes ( entry ) ) );
+                        result.add ( applyDeadband ( new DoubleFloatVariable ( entry.getName (), entry.getIndex (), this.executor, this.itemPool, createAttributes ( entry ) ), entry ) );
                         break;
                     case TRIBIT:
                         throw new IllegalArgumentException ( String.format ( "TRIBIT variables are not supported right now" ) );
@@ -388,6 +402,12 @@ public class VariableManagerImpl implements VariableManager, ConfigurationFactor
         }
     }
 
+    private static Variable applyDeadband ( final ScalarVariable variable, final TypeEntry entry )
+    {
+        variable.setDeadband ( entry.getDeadband () );
+        return variable;
+    }
+
     private Attribute[] createAttributes ( final TypeEntry entry )
     {
         logger.debug ( "Creating attributes for {}", entry );
@@ -443,7 +463,7 @@ public class VariableManagerImpl implements VariableManager, ConfigurationFactor
 
     private Collection<TypeEntry> parseConfig ( final Map<String, String> properties )
     {
-        final Collection<TypeEntry> result = new LinkedList<TypeEntry> ();
+        final LinkedList<TypeEntry> result = new LinkedList<TypeEntry> ();
 
         for ( final Map.Entry<String, String> entry : properties.entrySet () )
         {
@@ -456,7 +476,14 @@ public class VariableManagerImpl implements VariableManager, ConfigurationFactor
             final String varName = key.substring ( "variable.".length () );
             final String toks[] = entry.getValue ().split ( ":" );
 
+            final int size = result.size ();
             parseType ( properties, result, varName, toks[0], makeArgs ( toks, 1 ), false );
+
+            final String deadband = properties.get ( "deadband." + varName );
+            if ( deadband != null && result.size () > size )
+            {
+                result.getLast ().setDeadband ( Double.parseDouble ( deadband ) );
+            }
         }
 
         return result;
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.scada.da.server.common;
 
+import org.eclipse.scada.da.server.common.impl.OrderedExecutorTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
@@ -17,7 +18,8 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith ( Suite.class )
 @SuiteClasses ( {
         BrowserTest1.class,
-        BrowserTest2.class
+        BrowserTest2.class,
+        OrderedExecutorTest.class
 } )
 public class AllTests
 {
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.common.impl;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OrderedExecutorTest
+{
+    /**
+     * An executor which only runs its tasks when asked to
+     */
+    private static class ManualExecutor implements Executor
+    {
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable> ();
+
+        private boolean reject;
+
+        @Override
+        public void execute ( final Runnable command )
+        {
+            if ( this.reject )
+            {
+                throw new RejectedExecutionException ();
+            }
+            this.tasks.add ( command );
+        }
+
+        public void runAll ()
+        {
+            Runnable task;
+            while ( ( task = this.tasks.poll () ) != null )
+            {
+                task.run ();
+            }
+        }
+    }
+
+    private static Runnable record ( final List<Integer> result, final int value )
+    {
+        return new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                result.add ( value );
+            }
+        };
+    }
+
+    @Test
+    public void testOrder ()
+    {
+        final ManualExecutor executor = new ManualExecutor ();
+        final OrderedExecutor ordered = new OrderedExecutor ( executor );
+        final List<Integer> result = new LinkedList<Integer> ();
+
+        Assert.assertTrue ( ordered.isIdle () );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            ordered.execute ( record ( result, i ) );
+        }
+
+        // only one processor is queued at a time
+        Assert.assertEquals ( 1, executor.tasks.size () );
+        Assert.assertFalse ( ordered.isIdle () );
+
+        executor.runAll ();
+
+        Assert.assertEquals ( 100, result.size () );
+        for ( int i = 0; i < 100; i++ )
+        {
+            Assert.assertEquals ( Integer.valueOf ( i ), result.get ( i ) );
+        }
+        Assert.assertTrue ( ordered.isIdle () );
+    }
+
+    @Test
+    public void testFailingTask ()
+    {
+        final ManualExecutor executor = new ManualExecutor ();
+        final OrderedExecutor ordered = new OrderedExecutor ( executor );
+        final List<Integer> result = new LinkedList<Integer> ();
+
+        ordered.execute ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                throw new IllegalStateException ();
+            }
+        } );
+        ordered.execute ( record ( result, 1 ) );
+
+        executor.runAll ();
+
+        Assert.assertEquals ( 1, result.size () );
+        Assert.assertTrue ( ordered.isIdle () );
+    }
+
+    @Test
+    public void testRejected ()
+    {
+        final ManualExecutor executor = new ManualExecutor ();
+        final OrderedExecutor ordered = new OrderedExecutor ( executor );
+        final List<Integer> result = new LinkedList<Integer> ();
+
+        executor.reject = true;
+        try
+        {
+            ordered.execute ( record ( result, 1 ) );
+            Assert.fail ( "Task must be rejected" );
+        }
+        catch ( final RejectedExecutionException e )
+        {
+        }
+
+        // the executor must be usable again
+        Assert.assertTrue ( ordered.isIdle () );
+
+        executor.reject = false;
+        ordered.execute ( record ( result, 2 ) );
+        executor.runAll ();
+
+        Assert.assertEquals ( 1, result.size () );
+        Assert.assertEquals ( Integer.valueOf ( 2 ), result.get ( 0 ) );
+        Assert.assertTrue ( ordered.isIdle () );
+    }
+}
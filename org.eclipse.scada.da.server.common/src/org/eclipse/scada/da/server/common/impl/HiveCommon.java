@@ -10,6 +10,7 @@
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - clean up subscription manager, change shutdown handling
  *     IBH SYSTEMS GmbH - add context information
+ *     IBH SYSTEMS GmbH - concurrent item registry, ordered operation executors
  *******************************************************************************/
 package org.eclipse.scada.da.server.common.impl;
 
@@ -19,6 +20,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
@@ -27,7 +30,6 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -88,7 +90,18 @@ import org.slf4j.LoggerFactory;
  *  super.performStart ();
  *  registerItem ( "abc", … );
  * }
- * </code>
+ * </code> <h1>Concurrency</h1>
+ * <p>
+ * Items are held in a concurrent map, looking up items does not lock.
+ * Registering and unregistering an item is serialized per item id.
+ * </p>
+ * <p>
+ * Operations are executed on a pool of threads, configured by the system
+ * property <code>org.eclipse.scada.da.server.common.operationThreads</code>
+ * (defaults to one). The executor returned by
+ * {@link #getOperationService(String)} runs the operations of one item in
+ * order, operations of different items may run in parallel.
+ * </p>
  */
 public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> implements Hive
 {
@@ -96,11 +109,21 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
 
     private final Set<SessionCommon> sessions = new HashSet<SessionCommon> ();
 
-    private final Map<String, DataItem> itemMap = new HashMap<String, DataItem> ( 1000 );
+    private static final int OPERATION_THREADS = Integer.getInteger ( "org.eclipse.scada.da.server.common.operationThreads", 1 );
 
-    private Lock itemMapReadLock;
+    private static final int ITEM_LOCKS = 64;
 
-    private Lock itemMapWriteLock;
+    private final ConcurrentMap<String, DataItem> itemMap = new ConcurrentHashMap<String, DataItem> ( 1000 );
+
+    /**
+     * Locks for registering and unregistering items, selected by the item id
+     */
+    private final Object[] itemLocks = new Object[ITEM_LOCKS];
+
+    /**
+     * Locks of items currently created by a factory
+     */
+    private final ConcurrentMap<String, Object> creationLocks = new ConcurrentHashMap<String, Object> ();
 
     private HiveBrowserCommon browser;
 
@@ -110,6 +133,10 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
 
     private volatile ExecutorService operationService;
 
+    private final OrderedExecutor defaultOperationExecutor;
+
+    private final ConcurrentMap<String, OrderedExecutor> itemOperationExecutors = new ConcurrentHashMap<String, OrderedExecutor> ();
+
     private final List<DataItemFactory> factoryList = new CopyOnWriteArrayList<DataItemFactory> ();
 
     private ListenableSubscriptionManager<String> itemSubscriptionManager;
@@ -145,10 +172,12 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
 
     public HiveCommon ()
     {
-        final ReentrantReadWriteLock itemMapLock = new ReentrantReadWriteLock ( Boolean.getBoolean ( "org.eclipse.scada.da.server.common.fairItemMapLock" ) );
+        for ( int i = 0; i < this.itemLocks.length; i++ )
+        {
+            this.itemLocks[i] = new Object ();
+        }
 
-        this.itemMapReadLock = itemMapLock.readLock ();
-        this.itemMapWriteLock = itemMapLock.writeLock ();
+        this.defaultOperationExecutor = new OrderedExecutor ( makeOperationServiceExecutor () );
 
         this.subscriptionValidator = new SubscriptionValidator<String> () {
 
@@ -184,8 +213,8 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
             return;
         }
 
-        this.operationService = Executors.newFixedThreadPool ( 1, new NamedThreadFactory ( "HiveCommon/" + getHiveId () ) );
-        this.itemSubscriptionManager = new ListenableSubscriptionManager<String> ( this.operationService, this.subscriptionValidator );
+        this.operationService = Executors.newFixedThreadPool ( Math.max ( 1, OPERATION_THREADS ), new NamedThreadFactory ( "HiveCommon/" + getHiveId () ) );
+        this.itemSubscriptionManager = new ListenableSubscriptionManager<String> ( this.defaultOperationExecutor, this.subscriptionValidator );
 
         if ( this.autoEnableStats && this.rootFolder instanceof FolderCommon )
         {
@@ -209,15 +238,8 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
 
         disableStats ();
 
-        try
-        {
-            this.itemMapWriteLock.lock ();
-            this.itemMap.clear ();
-        }
-        finally
-        {
-            this.itemMapWriteLock.unlock ();
-        }
+        this.itemMap.clear ();
+        this.itemOperationExecutors.clear ();
 
         this.browserLock.writeLock ().lock ();
         try
@@ -551,17 +573,12 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
 
         checkRunning ();
 
-        try
-        {
-            this.itemMapWriteLock.lock ();
-
-            final String id = item.getInformation ().getName ();
+        final String id = item.getInformation ().getName ();
 
-            if ( !this.itemMap.containsKey ( id ) )
+        synchronized ( getItemLock ( id ) )
+        {
+            if ( this.itemMap.putIfAbsent ( id, item ) == null )
             {
-                // first add internally ...
-                this.itemMap.put ( id, item );
-
                 if ( this.statisticsGenerator != null )
                 {
                     this.statisticsGenerator.itemRegistered ( item );
@@ -573,14 +590,15 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
             }
 
             // add new topic to the new item subscription manager
-            this.itemSubscriptionManager.setSource ( id, new DataItemSubscriptionSource ( getOperationService (), item, this.statisticsGenerator ) );
-        }
-        finally
-        {
-            this.itemMapWriteLock.unlock ();
+            this.itemSubscriptionManager.setSource ( id, new DataItemSubscriptionSource ( getOperationService ( id ), item, this.statisticsGenerator ) );
         }
     }
 
+    private Object getItemLock ( final String id )
+    {
+        return this.itemLocks[ ( id.hashCode () & Integer.MAX_VALUE ) % this.itemLocks.length];
+    }
+
     private Executor getOperationServiceInstance ()
     {
         checkRunning ();
@@ -588,7 +606,7 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
         return this.operationService;
     }
 
-    public Executor getOperationService ()
+    private Executor makeOperationServiceExecutor ()
     {
         return new Executor () {
             @Override
@@ -604,6 +622,53 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
         };
     }
 
+    /**
+     * Get the default operation executor
+     * <p>
+     * All operations executed by this executor run in order, one after the
+     * other. Items should prefer {@link #getOperationService(String)}.
+     * </p>
+     *
+     * @return the default operation executor
+     */
+    public Executor getOperationService ()
+    {
+        return this.defaultOperationExecutor;
+    }
+
+    /**
+     * Get the operation executor of an item
+     * <p>
+     * The operations of one item run in order, one after the other. Operations
+     * of different items may run in parallel, if the hive is configured with
+     * more than one operation thread.
+     * </p>
+     *
+     * @param itemId
+     *            the id of the item
+     * @return the operation executor of the item
+     */
+    public Executor getOperationService ( final String itemId )
+    {
+        if ( OPERATION_THREADS <= 1 || itemId == null )
+        {
+            // keep the order of all operations, as there is only one thread anyway
+            return this.defaultOperationExecutor;
+        }
+
+        OrderedExecutor executor = this.itemOperationExecutors.get ( itemId );
+        if ( executor == null )
+        {
+            final OrderedExecutor newExecutor = new OrderedExecutor ( makeOperationServiceExecutor () );
+            executor = this.itemOperationExecutors.putIfAbsent ( itemId, newExecutor );
+            if ( executor == null )
+            {
+                executor = newExecutor;
+            }
+        }
+        return executor;
+    }
+
     /**
      * Remove an item from the hive.
      *
@@ -620,14 +685,12 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
             return;
         }
 
-        try
-        {
-            this.itemMapWriteLock.lock ();
+        final String id = item.getInformation ().getName ();
 
-            final String id = item.getInformation ().getName ();
-            if ( this.itemMap.containsKey ( id ) )
+        synchronized ( getItemLock ( id ) )
+        {
+            if ( this.itemMap.remove ( id ) != null )
             {
-                this.itemMap.remove ( id );
                 if ( this.statisticsGenerator != null )
                 {
                     this.statisticsGenerator.itemUnregistered ( item );
@@ -636,10 +699,13 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
 
             // remove the source from the manager
             this.itemSubscriptionManager.setSource ( id, null );
-        }
-        finally
-        {
-            this.itemMapWriteLock.unlock ();
+
+            // drop the operation executor, unless operations are still pending
+            final OrderedExecutor executor = this.itemOperationExecutors.get ( id );
+            if ( executor != null && executor.isIdle () )
+            {
+                this.itemOperationExecutors.remove ( id, executor );
+            }
         }
     }
 
@@ -647,21 +713,37 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
     {
         logger.debug ( "FactoryCreate - itemId: {}", id );
 
-        /* locking the factory list so that no one else can perform the creation process until we are done */
-        synchronized ( this.factoryList )
+        final Object newLock = new Object ();
+        final Object oldLock = this.creationLocks.putIfAbsent ( id, newLock );
+        final Object lock = oldLock != null ? oldLock : newLock;
+
+        /* locking the item id so that no one else can perform the creation process of the same item until we are done */
+        synchronized ( lock )
         {
-            for ( final DataItemFactory factory : this.factoryList )
+            try
             {
-                if ( factory.canCreate ( id ) )
+                if ( lookupItem ( id ) != null )
                 {
-                    // we let the factory create the item
-                    factory.create ( id );
-                    // only try one factory
+                    // created in the meantime
                     return;
                 }
+
+                for ( final DataItemFactory factory : this.factoryList )
+                {
+                    if ( factory.canCreate ( id ) )
+                    {
+                        // we let the factory create the item
+                        factory.create ( id );
+                        // only try one factory
+                        return;
+                    }
+                }
+            }
+            finally
+            {
+                this.creationLocks.remove ( id, lock );
             }
         }
-
     }
 
     /**
@@ -696,14 +778,11 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
             }
         }
 
-        synchronized ( this.factoryList )
+        for ( final DataItemFactory factory : this.factoryList )
         {
-            for ( final DataItemFactory factory : this.factoryList )
+            if ( factory.canCreate ( id ) )
             {
-                if ( factory.canCreate ( id ) )
-                {
-                    return true;
-                }
+                return true;
             }
         }
         return false;
@@ -711,15 +790,7 @@ public abstract class HiveCommon extends ServiceCommon<Session, SessionCommon> i
 
     public DataItem lookupItem ( final String id )
     {
-        try
-        {
-            this.itemMapReadLock.lock ();
-            return this.itemMap.get ( id );
-        }
-        finally
-        {
-            this.itemMapReadLock.unlock ();
-        }
+        return this.itemMap.get ( id );
     }
 
     protected DataItem retrieveItem ( final String id )
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.common.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An executor running its tasks one after the other on a shared executor
+ * <p>
+ * The tasks of one ordered executor are executed in the order they were
+ * submitted and never concurrently. Different ordered executors sharing the
+ * same executor run in parallel. After processing a few tasks the executor
+ * gives the thread back, so that a busy executor cannot starve the others.
+ * </p>
+ */
+class OrderedExecutor implements Executor
+{
+    private final static Logger logger = LoggerFactory.getLogger ( OrderedExecutor.class );
+
+    private static final int BATCH_SIZE = 16;
+
+    private final Executor executor;
+
+    private final Deque<Runnable> tasks = new ArrayDeque<Runnable> ();
+
+    private boolean running;
+
+    private final Runnable processor = new Runnable () {
+
+        @Override
+        public void run ()
+        {
+            processTasks ();
+        }
+    };
+
+    public OrderedExecutor ( final Executor executor )
+    {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute ( final Runnable command )
+    {
+        synchronized ( this )
+        {
+            this.tasks.add ( command );
+            if ( this.running )
+            {
+                return;
+            }
+            this.running = true;
+        }
+
+        try
+        {
+            this.executor.execute ( this.processor );
+        }
+        catch ( final RuntimeException e )
+        {
+            final int dropped;
+            synchronized ( this )
+            {
+                /*
+                 * other callers may have queued tasks in the meantime, since
+                 * they saw us running. Nobody will process them, so they are
+                 * dropped together with our own task.
+                 */
+                dropped = this.tasks.size () - 1;
+                this.tasks.clear ();
+                this.running = false;
+            }
+            if ( dropped > 0 )
+            {
+                logger.warn ( "Failed to start operations, dropping {} other pending task(s)", dropped );
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Check if the executor has nothing to do
+     *
+     * @return <code>true</code> if no task is running or queued
+     */
+    public synchronized boolean isIdle ()
+    {
+        return !this.running && this.tasks.isEmpty ();
+    }
+
+    private void processTasks ()
+    {
+        for ( int i = 0; i < BATCH_SIZE; i++ )
+        {
+            final Runnable task;
+            synchronized ( this )
+            {
+                task = this.tasks.poll ();
+                if ( task == null )
+                {
+                    this.running = false;
+                    return;
+                }
+            }
+
+            try
+            {
+                task.run ();
+            }
+            catch ( final RuntimeException e )
+            {
+                logger.warn ( "Failed to run operation", e );
+            }
+        }
+
+        synchronized ( this )
+        {
+            if ( this.tasks.isEmpty () )
+            {
+                this.running = false;
+                return;
+            }
+        }
+
+        // give others a chance
+        try
+        {
+            this.executor.execute ( this.processor );
+        }
+        catch ( final RuntimeException e )
+        {
+            logger.warn ( "Failed to continue operations, dropping pending tasks", e );
+            synchronized ( this )
+            {
+                this.tasks.clear ();
+                this.running = false;
+            }
+        }
+    }
+}
@@ -54,7 +54,8 @@ public class ComponentItemFactory
 
     public DataItemInputChained createInput ( final String localId, final Map<String, Variant> attributes )
     {
-        final DataItemInputChained item = new DataItemInputChained ( new DataItemInformationBase ( makeId ( localId ), EnumSet.of ( IODirection.INPUT ) ), this.hive.getOperationService () );
+        final String id = makeId ( localId );
+        final DataItemInputChained item = new DataItemInputChained ( new DataItemInformationBase ( id, EnumSet.of ( IODirection.INPUT ) ), this.hive.getOperationService ( id ) );
 
         final org.eclipse.scada.da.server.browser.common.query.ItemDescriptor desc = new org.eclipse.scada.da.server.browser.common.query.ItemDescriptor ( item, attributes );
         this.hive.registerItem ( item );
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.dave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.da.server.common.io.PollRequest;
+import org.eclipse.scada.protocol.dave.DaveReadRequest.Request;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DaveJobManagerTest
+{
+    private static final byte AREA_DB = (byte)0x84;
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static final long NOW = 1000000000L;
+
+    private static class TestBlock implements MergeableBlock
+    {
+        private final Request request;
+
+        public TestBlock ( final byte area, final int block, final int start, final int count )
+        {
+            this.request = new Request ( area, (short)block, (short)start, (short)count );
+        }
+
+        @Override
+        public Request getRequest ()
+        {
+            return this.request;
+        }
+
+        @Override
+        public void handleData ( final IoBuffer data )
+        {
+        }
+
+        @Override
+        public Object createPollRequest ()
+        {
+            return null;
+        }
+
+        @Override
+        public long getPollRequestTimeout ()
+        {
+            return 0;
+        }
+
+        @Override
+        public boolean handleMessage ( final Object message )
+        {
+            return false;
+        }
+
+        @Override
+        public void handleFailure ( final Throwable e )
+        {
+        }
+
+        @Override
+        public void handleDisconnect ()
+        {
+        }
+
+        @Override
+        public void handleTimeout ()
+        {
+        }
+
+        @Override
+        public Long updatePriority ( final long now )
+        {
+            return null;
+        }
+
+        @Override
+        public void dispose ()
+        {
+        }
+    }
+
+    private DaveJobManager jobManager;
+
+    @Before
+    public void setup ()
+    {
+        this.jobManager = new DaveJobManager ( "DaveJobManagerTest" );
+        this.jobManager.setMaxReadSize ( 100 );
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.jobManager.dispose ();
+    }
+
+    private static TestBlock block ( final int start, final int count )
+    {
+        return new TestBlock ( AREA_DB, 1, start, count );
+    }
+
+    private PollRequest merge ( final PollRequest request, final List<PollRequest> candidates, final long now )
+    {
+        return this.jobManager.mergeRequests ( request, candidates, now );
+    }
+
+    /**
+     * Assert that the request is a merged request for the range and the
+     * blocks
+     */
+    private static void assertMerged ( final PollRequest result, final int start, final int count, final MergeableBlock... blocks )
+    {
+        Assert.assertTrue ( result instanceof DaveMergedRequest );
+
+        final DaveMergedRequest merged = (DaveMergedRequest)result;
+        Assert.assertEquals ( start, merged.getRequest ().getStart () );
+        Assert.assertEquals ( count, merged.getRequest ().getCount () );
+        Assert.assertEquals ( AREA_DB, merged.getRequest ().getArea () );
+        Assert.assertEquals ( 1, merged.getRequest ().getBlock () );
+        Assert.assertEquals ( Arrays.asList ( blocks ), merged.getBlocks () );
+    }
+
+    @Test
+    public void testAdjacent ()
+    {
+        final TestBlock b1 = block ( 0, 10 );
+        final TestBlock b2 = block ( 10, 10 );
+        final TestBlock b3 = block ( 20, 10 );
+
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( b2, b3 ) );
+        assertMerged ( merge ( b1, candidates, NOW ), 0, 30, b1, b2, b3 );
+        Assert.assertTrue ( candidates.isEmpty () );
+    }
+
+    @Test
+    public void testGap ()
+    {
+        final TestBlock b1 = block ( 0, 10 );
+        final TestBlock b2 = block ( 11, 10 );
+
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( b2 ) );
+        Assert.assertSame ( b1, merge ( b1, candidates, NOW ) );
+        Assert.assertEquals ( Arrays.asList ( b2 ), candidates );
+    }
+
+    @Test
+    public void testOverlap ()
+    {
+        final TestBlock b1 = block ( 10, 10 );
+        final TestBlock b2 = block ( 5, 10 );
+        final TestBlock b3 = block ( 12, 2 );
+
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( b2, b3 ) );
+        assertMerged ( merge ( b1, candidates, NOW ), 5, 15, b1, b2, b3 );
+    }
+
+    /**
+     * A merged block can close the gap to a block which was checked before
+     */
+    @Test
+    public void testClosingGap ()
+    {
+        final TestBlock b1 = block ( 0, 10 );
+        final TestBlock b2 = block ( 20, 10 );
+        final TestBlock b3 = block ( 10, 10 );
+
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( b2, b3 ) );
+        assertMerged ( merge ( b1, candidates, NOW ), 0, 30, b1, b3, b2 );
+    }
+
+    @Test
+    public void testMaxReadSize ()
+    {
+        this.jobManager.setMaxReadSize ( 20 );
+
+        final TestBlock b1 = block ( 0, 10 );
+        final TestBlock b2 = block ( 10, 10 );
+        final TestBlock b3 = block ( 20, 10 );
+
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( b2, b3 ) );
+        assertMerged ( merge ( b1, candidates, NOW ), 0, 20, b1, b2 );
+        Assert.assertEquals ( Arrays.asList ( b3 ), candidates );
+    }
+
+    @Test
+    public void testMergingDisabled ()
+    {
+        this.jobManager.setMaxReadSize ( 0 );
+
+        final TestBlock b1 = block ( 0, 10 );
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( block ( 10, 10 ) ) );
+        Assert.assertSame ( b1, merge ( b1, candidates, NOW ) );
+        Assert.assertEquals ( 1, candidates.size () );
+    }
+
+    @Test
+    public void testDifferentDataBlock ()
+    {
+        final TestBlock b1 = block ( 0, 10 );
+        final TestBlock b2 = new TestBlock ( AREA_DB, 2, 10, 10 );
+        final TestBlock b3 = new TestBlock ( (byte)0x83, 1, 10, 10 );
+
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( b2, b3 ) );
+        Assert.assertSame ( b1, merge ( b1, candidates, NOW ) );
+        Assert.assertEquals ( 2, candidates.size () );
+    }
+
+    /**
+     * Counters and timers are never merged, neither as the request nor as a
+     * candidate
+     */
+    @Test
+    public void testCountersAndTimers ()
+    {
+        for ( int area = 0x1C; area <= 0x1F; area++ )
+        {
+            final TestBlock b1 = new TestBlock ( (byte)area, 0, 0, 10 );
+            final TestBlock b2 = new TestBlock ( (byte)area, 0, 10, 10 );
+
+            final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( b2 ) );
+            Assert.assertSame ( b1, merge ( b1, candidates, NOW ) );
+            Assert.assertEquals ( 1, candidates.size () );
+        }
+    }
+
+    @Test
+    public void testOtherRequests ()
+    {
+        final TestBlock b1 = block ( 0, 10 );
+        final PollRequest other = new DaveMergedRequest ( this.jobManager, new Request ( AREA_DB, (short)1, (short)10, (short)10 ), Collections.<MergeableBlock> emptyList () );
+
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( other ) );
+        Assert.assertSame ( b1, merge ( b1, candidates, NOW ) );
+        Assert.assertSame ( other, merge ( other, new ArrayList<PollRequest> ( Arrays.<PollRequest> asList ( b1 ) ), NOW ) );
+    }
+
+    /**
+     * Blocks of a failed merged request are read separately for one minute,
+     * doubled with every further failure
+     */
+    @Test
+    public void testBackoff ()
+    {
+        final TestBlock b1 = block ( 0, 10 );
+        final TestBlock b2 = block ( 10, 10 );
+        final List<MergeableBlock> blocks = Arrays.<MergeableBlock> asList ( b1, b2 );
+
+        this.jobManager.disableMerging ( blocks, NOW );
+
+        Assert.assertSame ( b1, merge ( b1, new ArrayList<PollRequest> ( Arrays.asList ( b2 ) ), NOW + MINUTE - 1 ) );
+        assertMerged ( merge ( b1, new ArrayList<PollRequest> ( Arrays.asList ( b2 ) ), NOW + MINUTE ), 0, 20, b1, b2 );
+
+        // fails again
+        this.jobManager.disableMerging ( blocks, NOW + MINUTE );
+
+        Assert.assertSame ( b1, merge ( b1, new ArrayList<PollRequest> ( Arrays.asList ( b2 ) ), NOW + 3 * MINUTE - 1 ) );
+        assertMerged ( merge ( b1, new ArrayList<PollRequest> ( Arrays.asList ( b2 ) ), NOW + 3 * MINUTE ), 0, 20, b1, b2 );
+
+        // a successful request resets the delay
+        this.jobManager.enableMerging ( blocks );
+        this.jobManager.disableMerging ( blocks, NOW + 3 * MINUTE );
+
+        assertMerged ( merge ( b1, new ArrayList<PollRequest> ( Arrays.asList ( b2 ) ), NOW + 4 * MINUTE ), 0, 20, b1, b2 );
+    }
+
+    /**
+     * A block which is excluded from merging does not prevent merging the
+     * others
+     */
+    @Test
+    public void testBackoffCandidate ()
+    {
+        final TestBlock b1 = block ( 0, 10 );
+        final TestBlock b2 = block ( 10, 10 );
+        final TestBlock b3 = block ( 5, 10 );
+
+        this.jobManager.disableMerging ( Arrays.<MergeableBlock> asList ( b2 ), NOW );
+
+        final List<PollRequest> candidates = new ArrayList<PollRequest> ( Arrays.asList ( b2, b3 ) );
+        assertMerged ( merge ( b1, candidates, NOW ), 0, 15, b1, b3 );
+        Assert.assertEquals ( Arrays.asList ( b2 ), candidates );
+    }
+
+    @Test
+    public void testBackoffLimit ()
+    {
+        final TestBlock b1 = block ( 0, 10 );
+        final TestBlock b2 = block ( 10, 10 );
+        final List<MergeableBlock> blocks = Arrays.<MergeableBlock> asList ( b1, b2 );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            this.jobManager.disableMerging ( blocks, NOW );
+        }
+
+        Assert.assertSame ( b1, merge ( b1, new ArrayList<PollRequest> ( Arrays.asList ( b2 ) ), NOW + 60 * MINUTE - 1 ) );
+        assertMerged ( merge ( b1, new ArrayList<PollRequest> ( Arrays.asList ( b2 ) ), NOW + 60 * MINUTE ), 0, 20, b1, b2 );
+    }
+}
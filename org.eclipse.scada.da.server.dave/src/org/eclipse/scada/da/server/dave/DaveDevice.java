@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - additional work
+ *     IBH SYSTEMS GmbH - configure pipelining and merging of requests
  *******************************************************************************/
 package org.eclipse.scada.da.server.dave;
 
@@ -96,6 +97,11 @@ public class DaveDevice extends AbstractConnectionDevice
         this.slot = Byte.valueOf ( properties.get ( "slot" ) );
         this.readTimeout = getTimeout ( properties, "readTimeout", 5000/*ms*/);
 
+        // requests sent without waiting for the reply, must not exceed what the PLC negotiated
+        this.jobManager.setMaxInFlight ( getInteger ( properties, "maxInFlight", 1 ) );
+        // maximum bytes read by one merged request, must fit into one PDU
+        this.jobManager.setMaxReadSize ( getInteger ( properties, "maxReadSize", 200 ) );
+
         final Map<String, Variant> attributes = new HashMap<String, Variant> ();
         attributes.put ( "host", Variant.valueOf ( properties.get ( "host" ) ) );
         attributes.put ( "port", Variant.valueOf ( properties.get ( "port" ) ) );
@@ -107,6 +113,16 @@ public class DaveDevice extends AbstractConnectionDevice
         super.configure ( properties );
     }
 
+    private static int getInteger ( final Map<String, String> properties, final String key, final int defaultValue )
+    {
+        final String value = properties.get ( key );
+        if ( value == null )
+        {
+            return defaultValue;
+        }
+        return Integer.valueOf ( value );
+    }
+
     @Override
     protected void configureConnector ( final NioSocketConnector connector )
     {
@@ -8,16 +8,204 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - additional work
+ *     IBH SYSTEMS GmbH - merge adjacent read requests
  *******************************************************************************/
 package org.eclipse.scada.da.server.dave;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 import org.eclipse.scada.da.server.common.io.JobManager;
+import org.eclipse.scada.da.server.common.io.PollRequest;
+import org.eclipse.scada.protocol.dave.DaveReadRequest.Request;
 
 public class DaveJobManager extends JobManager
 {
+    /**
+     * Counters and timers are addressed by element, not by byte
+     */
+    private static final Set<Integer> UNMERGEABLE_AREAS = new HashSet<Integer> ( Arrays.asList ( 0x1C, 0x1D, 0x1E, 0x1F ) );
+
+    /**
+     * How long blocks are read separately after a merged request failed, in
+     * milliseconds. Doubled with every further failure, up to
+     * {@link #MAX_MERGE_RETRY_DELAY}.
+     */
+    private static final long MERGE_RETRY_DELAY = 60 * 1000;
+
+    private static final long MAX_MERGE_RETRY_DELAY = 60 * 60 * 1000;
+
+    private static class MergeBackoff
+    {
+        private long delay;
+
+        private long retryTime;
+    }
+
+    /**
+     * Blocks for which a merged request failed
+     */
+    private final Map<MergeableBlock, MergeBackoff> unmergeable = new WeakHashMap<MergeableBlock, MergeBackoff> ();
+
+    private int maxReadSize;
+
     public DaveJobManager ( final DaveDevice device )
     {
-        super ( "DaveJobManager/" + device.getId () );
+        this ( "DaveJobManager/" + device.getId () );
+    }
+
+    DaveJobManager ( final String threadName )
+    {
+        super ( threadName );
+    }
+
+    /**
+     * Set the maximum number of bytes which are read by one merged request
+     *
+     * @param maxReadSize
+     *            the maximum size, zero disables merging
+     */
+    public synchronized void setMaxReadSize ( final int maxReadSize )
+    {
+        this.maxReadSize = maxReadSize;
+    }
+
+    /**
+     * A merged request failed, read its blocks separately for a while
+     * <p>
+     * The failure may be temporary, so merging is tried again later. If it
+     * keeps failing, the blocks are read separately for longer each time.
+     * </p>
+     */
+    void disableMerging ( final Collection<MergeableBlock> blocks )
+    {
+        disableMerging ( blocks, System.currentTimeMillis () );
+    }
+
+    synchronized void disableMerging ( final Collection<MergeableBlock> blocks, final long now )
+    {
+        for ( final MergeableBlock block : blocks )
+        {
+            MergeBackoff backoff = this.unmergeable.get ( block );
+            if ( backoff == null )
+            {
+                backoff = new MergeBackoff ();
+                backoff.delay = MERGE_RETRY_DELAY;
+                this.unmergeable.put ( block, backoff );
+            }
+            else
+            {
+                backoff.delay = Math.min ( backoff.delay * 2, MAX_MERGE_RETRY_DELAY );
+            }
+            backoff.retryTime = now + backoff.delay;
+        }
     }
 
+    /**
+     * A merged request succeeded, forget earlier failures of its blocks
+     */
+    synchronized void enableMerging ( final Collection<MergeableBlock> blocks )
+    {
+        for ( final MergeableBlock block : blocks )
+        {
+            this.unmergeable.remove ( block );
+        }
+    }
+
+    private boolean isMergeable ( final PollRequest request, final long now )
+    {
+        if ( ! ( request instanceof MergeableBlock ) )
+        {
+            return false;
+        }
+        final MergeBackoff backoff = this.unmergeable.get ( request );
+        if ( backoff != null && backoff.retryTime > now )
+        {
+            return false;
+        }
+        return !UNMERGEABLE_AREAS.contains ( (int) ( (MergeableBlock)request ).getRequest ().getArea () );
+    }
+
+    /**
+     * Merge blocks of the same data block which are adjacent or overlap with
+     * the block which is due
+     */
+    @Override
+    protected PollRequest mergeRequests ( final PollRequest request, final List<PollRequest> candidates )
+    {
+        return mergeRequests ( request, candidates, System.currentTimeMillis () );
+    }
+
+    PollRequest mergeRequests ( final PollRequest request, final List<PollRequest> candidates, final long now )
+    {
+        if ( this.maxReadSize <= 0 || !isMergeable ( request, now ) )
+        {
+            return request;
+        }
+
+        final Request first = ( (MergeableBlock)request ).getRequest ();
+
+        int start = first.getStart ();
+        int end = start + first.getCount ();
+
+        final List<MergeableBlock> blocks = new LinkedList<MergeableBlock> ();
+        blocks.add ( (MergeableBlock)request );
+
+        // every merged block may make further blocks adjacent
+        boolean merged;
+        do
+        {
+            merged = false;
+
+            for ( final Iterator<PollRequest> i = candidates.iterator (); i.hasNext (); )
+            {
+                final PollRequest candidate = i.next ();
+                if ( !isMergeable ( candidate, now ) )
+                {
+                    continue;
+                }
+
+                final Request other = ( (MergeableBlock)candidate ).getRequest ();
+                if ( other.getArea () != first.getArea () || other.getBlock () != first.getBlock () )
+                {
+                    continue;
+                }
+
+                final int otherStart = other.getStart ();
+                final int otherEnd = otherStart + other.getCount ();
+                if ( otherEnd < start || otherStart > end )
+                {
+                    // there is a gap
+                    continue;
+                }
+
+                final int newStart = Math.min ( start, otherStart );
+                final int newEnd = Math.max ( end, otherEnd );
+                if ( newEnd - newStart > this.maxReadSize )
+                {
+                    continue;
+                }
+
+                start = newStart;
+                end = newEnd;
+                blocks.add ( (MergeableBlock)candidate );
+                i.remove ();
+                merged = true;
+            }
+        } while ( merged );
+
+        if ( blocks.size () == 1 )
+        {
+            return request;
+        }
+
+        return new DaveMergedRequest ( this, new Request ( first.getArea (), first.getBlock (), (short)start, (short) ( end - start ) ), blocks );
+    }
 }
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.dave;
+
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.da.server.common.io.PollRequest;
+import org.eclipse.scada.protocol.dave.DaveReadRequest;
+import org.eclipse.scada.protocol.dave.DaveReadRequest.Request;
+import org.eclipse.scada.protocol.dave.DaveReadResult;
+import org.eclipse.scada.protocol.dave.DaveReadResult.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the address range of several adjacent blocks with one request
+ * <p>
+ * The data of the reply is split up and passed to the blocks. If the device
+ * replies with an error, the blocks are excluded from merging for a while
+ * and will be read on their own, so that a block with an invalid range does
+ * not affect its neighbors.
+ * </p>
+ */
+public class DaveMergedRequest implements PollRequest
+{
+    private final static Logger logger = LoggerFactory.getLogger ( DaveMergedRequest.class );
+
+    private final DaveJobManager jobManager;
+
+    private final Request request;
+
+    private final List<MergeableBlock> blocks;
+
+    public DaveMergedRequest ( final DaveJobManager jobManager, final Request request, final List<MergeableBlock> blocks )
+    {
+        this.jobManager = jobManager;
+        this.request = request;
+        this.blocks = blocks;
+    }
+
+    Request getRequest ()
+    {
+        return this.request;
+    }
+
+    List<MergeableBlock> getBlocks ()
+    {
+        return this.blocks;
+    }
+
+    @Override
+    public Object createPollRequest ()
+    {
+        final DaveReadRequest request = new DaveReadRequest ();
+        request.addRequest ( this.request );
+        return request;
+    }
+
+    @Override
+    public long getPollRequestTimeout ()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean handleMessage ( final Object message )
+    {
+        if ( ! ( message instanceof DaveReadResult ) )
+        {
+            return false;
+        }
+
+        // we should have exactly one reply
+        for ( final Result result : ( (DaveReadResult)message ).getResult () )
+        {
+            if ( result.isError () )
+            {
+                logger.info ( "Merged request {} failed with {}, reading blocks separately", this.request, result.getError () );
+                this.jobManager.disableMerging ( this.blocks );
+            }
+            else
+            {
+                this.jobManager.enableMerging ( this.blocks );
+                handleData ( result.getData () );
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private void handleData ( final IoBuffer data )
+    {
+        for ( final MergeableBlock block : this.blocks )
+        {
+            final Request request = block.getRequest ();
+            try
+            {
+                final IoBuffer slice = data.getSlice ( request.getStart () - this.request.getStart (), request.getCount () );
+                slice.order ( data.order () );
+                block.handleData ( slice );
+            }
+            catch ( final IndexOutOfBoundsException e )
+            {
+                logger.warn ( "Reply is too short for block: {}", block );
+                block.handleFailure ( e );
+            }
+        }
+    }
+
+    @Override
+    public void handleFailure ( final Throwable e )
+    {
+        for ( final MergeableBlock block : this.blocks )
+        {
+            block.handleFailure ( e );
+        }
+    }
+
+    @Override
+    public void handleDisconnect ()
+    {
+        // the job manager notifies the blocks directly
+    }
+
+    @Override
+    public void handleTimeout ()
+    {
+        for ( final MergeableBlock block : this.blocks )
+        {
+            block.handleTimeout ();
+        }
+    }
+
+    @Override
+    public Long updatePriority ( final long now )
+    {
+        // never scheduled on its own
+        return null;
+    }
+
+    @Override
+    public void dispose ()
+    {
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "[MergedRequest - %s, blocks: %s]", this.request, this.blocks );
+    }
+}
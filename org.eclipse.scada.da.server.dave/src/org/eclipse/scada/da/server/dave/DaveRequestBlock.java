@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - additional work, bug fixes
+ *     IBH SYSTEMS GmbH - merge adjacent read requests
  *******************************************************************************/
 package org.eclipse.scada.da.server.dave;
 
@@ -20,7 +21,7 @@ import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DaveRequestBlock extends AbstractRequestBlock
+public class DaveRequestBlock extends AbstractRequestBlock implements MergeableBlock
 {
     private final static Logger logger = LoggerFactory.getLogger ( DaveRequestBlock.class );
 
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.dave;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.da.server.common.io.PollRequest;
+import org.eclipse.scada.protocol.dave.DaveReadRequest.Request;
+
+/**
+ * A block which can be read as part of a {@link DaveMergedRequest}
+ */
+interface MergeableBlock extends PollRequest
+{
+    public Request getRequest ();
+
+    /**
+     * Handle the part of a merged reply which belongs to this block
+     */
+    public void handleData ( IoBuffer data );
+}
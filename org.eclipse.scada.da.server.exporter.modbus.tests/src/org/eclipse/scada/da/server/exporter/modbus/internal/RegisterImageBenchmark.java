@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.exporter.modbus.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.da.client.DataItemValue;
+import org.eclipse.scada.da.server.exporter.modbus.io.IntegerType;
+import org.eclipse.scada.da.server.exporter.modbus.io.SourceDefinition;
+
+/**
+ * Measure the reads per second of the {@link RegisterImage} while values are
+ * updated concurrently
+ * <p>
+ * This is not run as part of the unit tests. Run the main method from the
+ * IDE, passing the number of reader threads, the number of items, the updates
+ * per second and the duration in seconds as optional arguments.
+ * </p>
+ */
+public class RegisterImageBenchmark
+{
+    public static void main ( final String[] args ) throws Exception
+    {
+        final int readers = args.length > 0 ? Integer.parseInt ( args[0] ) : 4;
+        final int items = args.length > 1 ? Integer.parseInt ( args[1] ) : 2000;
+        final int updatesPerSecond = args.length > 2 ? Integer.parseInt ( args[2] ) : 50000;
+        final int seconds = args.length > 3 ? Integer.parseInt ( args[3] ) : 10;
+
+        final List<SourceDefinition> definitions = new ArrayList<> ( items );
+        for ( int i = 0; i < items; i++ )
+        {
+            definitions.add ( new SourceDefinition ( "item" + i, i * IntegerType.LENGTH, IntegerType.INSTANCE ) );
+        }
+
+        // modbus addresses cover at most 64k registers
+        final int size = Math.min ( items * IntegerType.LENGTH, 0xFFFF * 2 );
+
+        final RegisterImage image = new RegisterImage ();
+        image.reset ( size, definitions.subList ( 0, size / IntegerType.LENGTH ), Collections.<String, DataItemValue> emptyMap () );
+
+        final AtomicBoolean running = new AtomicBoolean ( true );
+        final AtomicLong reads = new AtomicLong ();
+        final AtomicLong updates = new AtomicLong ();
+
+        final List<Thread> threads = new ArrayList<> ();
+
+        for ( int i = 0; i < readers; i++ )
+        {
+            threads.add ( new Thread ( "Reader/" + i ) {
+                @Override
+                public void run ()
+                {
+                    final Random r = new Random ();
+                    long count = 0;
+                    long sum = 0;
+                    while ( running.get () )
+                    {
+                        // read the maximum of 125 registers, like a modbus master would do
+                        final int length = Math.min ( 250, size );
+                        final int offset = r.nextInt ( size - length + 1 ) & ~1;
+                        final IoBuffer data = image.read ( offset, length );
+                        sum += data.get ( 0 );
+                        count++;
+                    }
+                    reads.addAndGet ( count );
+                    if ( sum == 42 )
+                    {
+                        // don't let the reads be optimized away
+                        System.out.print ( "" );
+                    }
+                }
+            } );
+        }
+
+        threads.add ( new Thread ( "Updater" ) {
+            @Override
+            public void run ()
+            {
+                final Random r = new Random ();
+                final int count = size / IntegerType.LENGTH;
+                final int batch = Math.max ( 1, updatesPerSecond / 100 );
+                while ( running.get () )
+                {
+                    // simulate the batch delay of the memory block
+                    for ( int i = 0; i < batch; i++ )
+                    {
+                        image.update ( definitions.get ( r.nextInt ( count ) ), RegisterImageTest.makeValue ( r.nextInt () ) );
+                    }
+                    updates.addAndGet ( image.flush () );
+                    try
+                    {
+                        Thread.sleep ( 10 );
+                    }
+                    catch ( final InterruptedException e )
+                    {
+                        return;
+                    }
+                }
+            }
+        } );
+
+        final long start = System.nanoTime ();
+        for ( final Thread thread : threads )
+        {
+            thread.start ();
+        }
+
+        Thread.sleep ( seconds * 1000L );
+        running.set ( false );
+
+        for ( final Thread thread : threads )
+        {
+            thread.join ();
+        }
+        final double duration = ( System.nanoTime () - start ) / 1_000_000_000.0;
+
+        System.out.println ( String.format ( "Readers: %s, items: %s, image: %s bytes", readers, items, size ) );
+        System.out.println ( String.format ( "Reads: %.0f/s", reads.get () / duration ) );
+        System.out.println ( String.format ( "Updates applied: %.0f/s in %s flushes", updates.get () / duration, image.getFlushCount () ) );
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.exporter.modbus.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.data.SubscriptionState;
+import org.eclipse.scada.da.client.DataItemValue;
+import org.eclipse.scada.da.server.exporter.modbus.io.AbstractSourceType;
+import org.eclipse.scada.da.server.exporter.modbus.io.IntegerType;
+import org.eclipse.scada.da.server.exporter.modbus.io.SourceDefinition;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RegisterImageTest
+{
+    private static final SourceDefinition DEF1 = new SourceDefinition ( "item1", 0, IntegerType.INSTANCE );
+
+    private static final SourceDefinition DEF2 = new SourceDefinition ( "item2", IntegerType.LENGTH, IntegerType.INSTANCE );
+
+    private RegisterImage image;
+
+    static DataItemValue makeValue ( final int value )
+    {
+        return new DataItemValue.Builder ().setValue ( Variant.valueOf ( value ) ).setSubscriptionState ( SubscriptionState.CONNECTED ).build ();
+    }
+
+    private int readValue ( final SourceDefinition definition )
+    {
+        final IoBuffer data = this.image.read ( definition.getOffset () + AbstractSourceType.COMMON_HEADER, 4 );
+        return data.getInt ();
+    }
+
+    @Before
+    public void setup ()
+    {
+        this.image = new RegisterImage ();
+
+        final Map<String, DataItemValue> values = new HashMap<> ();
+        values.put ( "item1", makeValue ( 1 ) );
+        values.put ( "item2", makeValue ( 2 ) );
+        this.image.reset ( 2 * IntegerType.LENGTH, Arrays.asList ( DEF1, DEF2 ), values );
+    }
+
+    @Test
+    public void testRead ()
+    {
+        Assert.assertEquals ( 2 * IntegerType.LENGTH, this.image.getSize () );
+        Assert.assertEquals ( 1, readValue ( DEF1 ) );
+        Assert.assertEquals ( 2, readValue ( DEF2 ) );
+
+        final IoBuffer data = this.image.read ( 0, 4 );
+        Assert.assertEquals ( 0, data.position () );
+        Assert.assertEquals ( 4, data.remaining () );
+        Assert.assertTrue ( data.isReadOnly () );
+    }
+
+    @Test
+    public void testReadOutOfRange ()
+    {
+        Assert.assertNull ( this.image.read ( 0, 0 ) );
+        Assert.assertNull ( this.image.read ( -2, 4 ) );
+        Assert.assertNull ( this.image.read ( 2 * IntegerType.LENGTH - 2, 4 ) );
+    }
+
+    @Test
+    public void testBatchedUpdate ()
+    {
+        final IoBuffer before = this.image.read ( AbstractSourceType.COMMON_HEADER, 4 );
+
+        Assert.assertTrue ( this.image.update ( DEF1, makeValue ( 10 ) ) );
+        Assert.assertFalse ( this.image.update ( DEF1, makeValue ( 11 ) ) );
+        Assert.assertFalse ( this.image.update ( DEF2, makeValue ( 20 ) ) );
+        Assert.assertEquals ( 2, this.image.getPendingCount () );
+
+        // not visible before the flush
+        Assert.assertEquals ( 1, readValue ( DEF1 ) );
+
+        Assert.assertEquals ( 2, this.image.flush () );
+        Assert.assertEquals ( 0, this.image.flush () );
+        Assert.assertEquals ( 1, this.image.getFlushCount () );
+
+        Assert.assertEquals ( 11, readValue ( DEF1 ) );
+        Assert.assertEquals ( 20, readValue ( DEF2 ) );
+
+        // a view taken before stays unchanged
+        Assert.assertEquals ( 1, before.getInt () );
+    }
+
+    @Test
+    public void testResetDropsRemovedDefinitions ()
+    {
+        this.image.update ( DEF2, makeValue ( 20 ) );
+        this.image.reset ( IntegerType.LENGTH, Collections.singletonList ( DEF1 ), Collections.singletonMap ( "item1", makeValue ( 5 ) ) );
+
+        Assert.assertEquals ( 0, this.image.getPendingCount () );
+        Assert.assertEquals ( IntegerType.LENGTH, this.image.getSize () );
+        Assert.assertEquals ( 5, readValue ( DEF1 ) );
+    }
+
+    /**
+     * An update which arrives after its definition was removed must not block
+     * later flushes
+     */
+    @Test
+    public void testUpdateAfterReset ()
+    {
+        this.image.reset ( IntegerType.LENGTH, Collections.singletonList ( DEF1 ), Collections.singletonMap ( "item1", makeValue ( 5 ) ) );
+
+        // DEF2 is outside of the new image
+        Assert.assertFalse ( this.image.update ( DEF2, makeValue ( 20 ) ) );
+        Assert.assertEquals ( 0, this.image.getPendingCount () );
+
+        Assert.assertTrue ( this.image.update ( DEF1, makeValue ( 6 ) ) );
+        Assert.assertEquals ( 1, this.image.flush () );
+        Assert.assertEquals ( 6, readValue ( DEF1 ) );
+    }
+
+    /**
+     * A definition which cannot be rendered does not stop other updates and
+     * does not stay pending
+     */
+    @Test
+    public void testFailingRender ()
+    {
+        final Map<String, DataItemValue> values = new HashMap<> ();
+        values.put ( "item1", makeValue ( 1 ) );
+        values.put ( "item2", makeValue ( 2 ) );
+
+        // DEF2 does not fit into the image
+        this.image.reset ( IntegerType.LENGTH, Arrays.asList ( DEF1, DEF2 ), values );
+        Assert.assertEquals ( 1, readValue ( DEF1 ) );
+
+        Assert.assertTrue ( this.image.update ( DEF2, makeValue ( 20 ) ) );
+        Assert.assertFalse ( this.image.update ( DEF1, makeValue ( 10 ) ) );
+        Assert.assertEquals ( 2, this.image.flush () );
+        Assert.assertEquals ( 0, this.image.getPendingCount () );
+        Assert.assertEquals ( 10, readValue ( DEF1 ) );
+
+        // the next update requests a flush again
+        Assert.assertTrue ( this.image.update ( DEF1, makeValue ( 11 ) ) );
+        Assert.assertEquals ( 1, this.image.flush () );
+        Assert.assertEquals ( 11, readValue ( DEF1 ) );
+    }
+}
@@ -8,6 +8,7 @@
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - more data types
+ *     IBH SYSTEMS GmbH - reply with views of the memory block
  *******************************************************************************/
 package org.eclipse.scada.da.server.exporter.modbus;
 
@@ -430,10 +431,14 @@ public abstract class ModbusExport
         }
     }
 
+    /**
+     * Create a reply message
+     *
+     * @param data
+     *            the data, ready for reading
+     */
     protected Object makeData ( final BaseMessage message, final IoBuffer data )
     {
-        data.flip ();
-
         logger.trace ( "Create data message - data: {}", data ); //$NON-NLS-1$
         return new ReadResponse ( message.getTransactionId (), message.getUnitIdentifier (), message.getFunctionCode (), data );
     }
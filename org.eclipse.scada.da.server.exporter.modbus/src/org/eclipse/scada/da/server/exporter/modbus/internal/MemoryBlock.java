@@ -7,19 +7,20 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - lock free reads from a register image
  *******************************************************************************/
 package org.eclipse.scada.da.server.exporter.modbus.internal;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.eclipse.scada.core.Variant;
@@ -31,21 +32,42 @@ import org.eclipse.scada.da.server.exporter.modbus.io.SourceDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * The memory of a modbus export
+ * <p>
+ * Reads are served from a {@link RegisterImage} without locking or copying.
+ * Value changes are collected and applied to the image in batches. The delay
+ * of a batch can be set using the system property {@value #PROP_BATCH_DELAY}
+ * in milliseconds.
+ * </p>
+ */
 public class MemoryBlock
 {
     private final static Logger logger = LoggerFactory.getLogger ( MemoryBlock.class );
 
+    private static final String PROP_BATCH_DELAY = "org.eclipse.scada.da.server.exporter.modbus.batchDelay";
+
+    private static final long BATCH_DELAY = Long.getLong ( PROP_BATCH_DELAY, 10 );
+
     private final SingleSubscriptionManager manager;
 
+    private final ScheduledExecutorService executor;
+
     private final Map<SourceDefinition, Listener> definitions = new HashMap<> ();
 
-    private IoBuffer buffer = IoBuffer.allocate ( 0 );
+    private final RegisterImage image = new RegisterImage ();
 
-    private final Lock readLock;
+    private volatile Map<Integer, SourceDefinition> writeMap = Collections.emptyMap ();
 
-    private final Lock writeLock;
+    private final Runnable flushRunnable = new Runnable () {
 
-    private final Map<Integer, SourceDefinition> writeMap = new TreeMap<> ();
+        @Override
+        public void run ()
+        {
+            final int count = MemoryBlock.this.image.flush ();
+            logger.trace ( "Applied {} updates", count );
+        }
+    };
 
     /**
      * Create a new memory block
@@ -61,81 +83,37 @@ public class MemoryBlock
      */
     public MemoryBlock ( final ScheduledExecutorService executor, final HiveSource hiveSource, final Properties properties, final String logName )
     {
-        final ReadWriteLock lock = new ReentrantReadWriteLock ();
-        this.readLock = lock.readLock ();
-        this.writeLock = lock.writeLock ();
+        this.executor = executor;
 
         this.manager = new SingleSubscriptionManager ( executor, hiveSource, properties, logName );
         this.manager.start ();
     }
 
-    public void dispose ()
+    public synchronized void dispose ()
     {
-        this.writeLock.lock ();
-        try
-        {
-            this.manager.stop ();
-            this.buffer = IoBuffer.allocate ( 0 );
-        }
-        finally
-        {
-            this.writeLock.unlock ();
-        }
+        this.manager.stop ();
+        this.image.reset ( 0, Collections.<SourceDefinition> emptyList (), Collections.<String, DataItemValue> emptyMap () );
+        this.writeMap = Collections.emptyMap ();
     }
 
+    /**
+     * Read data from the memory
+     * <p>
+     * The result is a read-only view of the memory, which does not change
+     * when values are updated later on.
+     * </p>
+     * 
+     * @return the data, ready for reading, or <code>null</code> if the range is
+     *         outside of the memory
+     */
     public IoBuffer readData ( final int offset, final int length )
     {
-        this.readLock.lock ();
-        try
-        {
-            return performRead ( offset, length );
-        }
-        finally
-        {
-            this.readLock.unlock ();
-        }
-    }
-
-    private IoBuffer performRead ( final int offset, final int length )
-    {
-        logger.debug ( "Perform read - offset: {}, length: {}, capacity: {}", offset, length, this.buffer.capacity () );
-
-        if ( length == 0 )
-        {
-            return null;
-        }
+        logger.debug ( "Perform read - offset: {}, length: {}", offset, length );
 
-        if ( offset < 0 )
-        {
-            return null;
-        }
-
-        if ( offset + length > this.buffer.capacity () )
-        {
-            return null;
-        }
-
-        final IoBuffer result = IoBuffer.allocate ( length );
-
-        result.put ( this.buffer.getSlice ( offset, length ) );
-
-        return result;
+        return this.image.read ( offset, length );
     }
 
     public int write ( final int address, final IoBuffer value )
-    {
-        this.readLock.lock ();
-        try
-        {
-            return performWrite ( address, value );
-        }
-        finally
-        {
-            this.readLock.unlock ();
-        }
-    }
-
-    private int performWrite ( final int address, final IoBuffer value )
     {
         final int startAddress = address * 2;
 
@@ -164,117 +142,92 @@ public class MemoryBlock
         return 0;
     }
 
-    public void setConfiguration ( final List<SourceDefinition> definitions )
+    public synchronized void setConfiguration ( final List<SourceDefinition> definitions )
     {
-        this.writeLock.lock ();
+        logger.debug ( "Setting definitions: {}", definitions );
+        logger.debug ( "Current definitions: {}", this.definitions );
 
-        try
-        {
-            logger.debug ( "Setting definitions: {}", definitions );
-            logger.debug ( "Current definitions: {}", this.definitions );
+        final List<SourceDefinition> newDefs = new ArrayList<> ( definitions );
+        newDefs.removeAll ( this.definitions.keySet () );
 
-            final List<SourceDefinition> newDefs = new ArrayList<> ( definitions );
-            newDefs.removeAll ( this.definitions.values () );
+        final List<SourceDefinition> oldDefs = new ArrayList<> ( this.definitions.keySet () );
+        oldDefs.removeAll ( definitions );
 
-            final List<SourceDefinition> oldDefs = new ArrayList<> ( this.definitions.keySet () );
-            oldDefs.removeAll ( definitions );
+        logger.debug ( "Remove definitions: {}", oldDefs );
+        logger.debug ( "Add definitions: {}", newDefs );
 
-            logger.debug ( "Remove definitions: {}", oldDefs );
-            logger.debug ( "Add definitions: {}", newDefs );
+        // destroy old
 
-            // destroy old
+        for ( final SourceDefinition def : oldDefs )
+        {
+            logger.debug ( "Remove: {}", def );
+            final Listener listener = this.definitions.remove ( def );
+            this.manager.removeListener ( def.getItemId (), listener );
+        }
 
-            for ( final SourceDefinition def : oldDefs )
-            {
-                logger.debug ( "Remove: {}", def );
-                final Listener listener = this.definitions.remove ( def );
-                this.manager.removeListener ( def.getItemId (), listener );
+        // build new
 
-                for ( int i = def.getOffset (); i < def.getOffset () + def.getType ().getLength (); i++ )
+        for ( final SourceDefinition def : newDefs )
+        {
+            logger.debug ( "Add: {}", def );
+            final Listener listener = new Listener () {
+                @Override
+                public void stateChanged ( final String itemId, final DataItemValue value )
                 {
-                    this.writeMap.remove ( i );
+                    logger.trace ( "stateChanged - itemId: {}, value: {}, definition: {}", itemId, value, def );
+                    handleStateChange ( def, value );
                 }
-            }
+            };
 
-            // build new
+            this.manager.addListener ( def.getItemId (), listener );
+            this.definitions.put ( def, listener );
+        }
 
-            for ( final SourceDefinition def : newDefs )
+        final Map<Integer, SourceDefinition> writeMap = new TreeMap<> ();
+        for ( final SourceDefinition def : this.definitions.keySet () )
+        {
+            for ( int i = def.getOffset (); i < def.getOffset () + def.getType ().getLength (); i++ )
             {
-                logger.debug ( "Add: {}", def );
-                final Listener listener = new Listener () {
-                    @Override
-                    public void stateChanged ( final String itemId, final DataItemValue value )
-                    {
-                        logger.trace ( "stateChanged - itemId: {}, value: {}, definition: {}", itemId, value, def );
-                        handleStateChange ( def, value );
-                    }
-                };
-
-                for ( int i = def.getOffset (); i < def.getOffset () + def.getType ().getLength (); i++ )
-                {
-                    this.writeMap.put ( i, def );
-                }
-
-                this.manager.addListener ( def.getItemId (), listener );
-                this.definitions.put ( def, listener );
+                writeMap.put ( i, def );
             }
+        }
+        this.writeMap = writeMap;
 
-            // get current state
-            final Map<String, DataItemValue> cache = this.manager.getCacheCopy ();
-
-            if ( !definitions.isEmpty () )
-            {
-                // get expected size
-                int maxOffset = -1;
-                int maxOffsetLength = 0;
-                for ( final SourceDefinition def : definitions )
-                {
-                    if ( def.getOffset () > maxOffset )
-                    {
-                        maxOffset = def.getOffset ();
-                        maxOffsetLength = def.getType ().getLength ();
-                    }
-                }
-
-                // create new buffer and allow to expand
-                final IoBuffer buffer = IoBuffer.allocate ( maxOffset + maxOffsetLength );
-                buffer.setAutoExpand ( false );
-                logger.debug ( "Buffer: {}", buffer );
-                logger.debug ( "Limit: {}", buffer.limit () );
+        // get current state
+        final Map<String, DataItemValue> cache = this.manager.getCacheCopy ();
 
-                // render current state
-                for ( final SourceDefinition def : definitions )
-                {
-                    final DataItemValue value = cache.get ( def.getItemId () );
-                    logger.debug ( "Render value - def: {}, value: {}", def, value );
-                    def.getType ().render ( buffer, def.getOffset (), value );
-                }
-
-                this.buffer = buffer;
-            }
-            else
+        // get expected size
+        int maxOffset = -1;
+        int maxOffsetLength = 0;
+        for ( final SourceDefinition def : definitions )
+        {
+            if ( def.getOffset () > maxOffset )
             {
-                this.buffer = IoBuffer.allocate ( 0 );
+                maxOffset = def.getOffset ();
+                maxOffsetLength = def.getType ().getLength ();
             }
         }
-        finally
-        {
-            this.writeLock.unlock ();
-        }
+
+        // render current state
+        final int size = definitions.isEmpty () ? 0 : maxOffset + maxOffsetLength;
+        this.image.reset ( size, definitions, cache );
+        logger.debug ( "Image size: {}", this.image.getSize () );
     }
 
     protected void handleStateChange ( final SourceDefinition definition, final DataItemValue value )
     {
         logger.trace ( "Value change - definition: {}, value: {}", definition, value );
 
-        this.writeLock.lock ();
-        try
-        {
-            definition.getType ().render ( this.buffer, definition.getOffset (), value );
-        }
-        finally
+        if ( this.image.update ( definition, value ) )
         {
-            this.writeLock.unlock ();
+            try
+            {
+                this.executor.schedule ( this.flushRunnable, BATCH_DELAY, TimeUnit.MILLISECONDS );
+            }
+            catch ( final RejectedExecutionException e )
+            {
+                logger.debug ( "Failed to schedule update", e );
+            }
         }
     }
 
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.exporter.modbus.internal;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.da.client.DataItemValue;
+import org.eclipse.scada.da.server.exporter.modbus.io.SourceDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The register memory of a modbus export
+ * <p>
+ * The current image is never modified once it is published, so readers get
+ * read-only views of it without locking or copying. Value updates are
+ * collected and applied in one batch to a copy of the current image, which
+ * then replaces it. Readers which still hold a view of the old image keep
+ * seeing a consistent state.
+ * </p>
+ */
+public class RegisterImage
+{
+    private final static Logger logger = LoggerFactory.getLogger ( RegisterImage.class );
+
+    private volatile IoBuffer image = IoBuffer.allocate ( 0 );
+
+    /**
+     * The definitions of the current image
+     */
+    private Set<SourceDefinition> definitions = new HashSet<> ();
+
+    /**
+     * The updates waiting for the next flush, only the latest value of each
+     * definition is kept
+     */
+    private final Map<SourceDefinition, DataItemValue> pending = new LinkedHashMap<> ();
+
+    private long flushes;
+
+    /**
+     * Get a view of the image
+     *
+     * @param offset
+     *            the byte offset
+     * @param length
+     *            the number of bytes
+     * @return a read-only buffer of <code>length</code> bytes, ready for
+     *         reading, or <code>null</code> if the range is empty or outside of
+     *         the image
+     */
+    public IoBuffer read ( final int offset, final int length )
+    {
+        final IoBuffer image = this.image;
+
+        if ( length <= 0 || offset < 0 || offset + length > image.capacity () )
+        {
+            return null;
+        }
+
+        // the duplicate has its own position and limit, the image is not touched
+        final IoBuffer view = image.asReadOnlyBuffer ();
+        view.limit ( offset + length );
+        view.position ( offset );
+        return view.slice ();
+    }
+
+    public int getSize ()
+    {
+        return this.image.capacity ();
+    }
+
+    /**
+     * Queue a value update
+     * <p>
+     * Updates for definitions which are not part of the current image are
+     * ignored. They may arrive late, after the definition was removed by
+     * {@link #reset(int, Collection, Map)}.
+     * </p>
+     *
+     * @return <code>true</code> if this is the first update since the last
+     *         flush, and a flush needs to be scheduled
+     */
+    public synchronized boolean update ( final SourceDefinition definition, final DataItemValue value )
+    {
+        if ( !this.definitions.contains ( definition ) )
+        {
+            logger.debug ( "Ignoring update for unknown definition: {}", definition );
+            return false;
+        }
+
+        final boolean first = this.pending.isEmpty ();
+        this.pending.put ( definition, value );
+        return first;
+    }
+
+    /**
+     * Apply all pending updates and publish the new image
+     *
+     * @return the number of updates applied
+     */
+    public synchronized int flush ()
+    {
+        if ( this.pending.isEmpty () )
+        {
+            return 0;
+        }
+
+        final int result = this.pending.size ();
+
+        try
+        {
+            final IoBuffer current = this.image;
+            final IoBuffer next = IoBuffer.allocate ( current.capacity () );
+            next.setAutoExpand ( false );
+            next.put ( current.asReadOnlyBuffer ().clear () );
+            next.clear ();
+
+            for ( final Map.Entry<SourceDefinition, DataItemValue> entry : this.pending.entrySet () )
+            {
+                render ( next, entry.getKey (), entry.getValue () );
+            }
+
+            this.image = next;
+            this.flushes++;
+        }
+        finally
+        {
+            // never keep failed updates, update() would not request another flush
+            this.pending.clear ();
+        }
+
+        return result;
+    }
+
+    /**
+     * Replace the image with a new one of the provided size
+     *
+     * @param size
+     *            the size of the new image in bytes
+     * @param definitions
+     *            all definitions of the new image
+     * @param values
+     *            the current values of the items, by item id
+     */
+    public synchronized void reset ( final int size, final Collection<SourceDefinition> definitions, final Map<String, DataItemValue> values )
+    {
+        final IoBuffer next = IoBuffer.allocate ( size );
+        next.setAutoExpand ( false );
+
+        for ( final SourceDefinition definition : definitions )
+        {
+            render ( next, definition, values.get ( definition.getItemId () ) );
+        }
+
+        // pending updates are newer than the current values, but may belong to removed definitions
+        this.definitions = new HashSet<> ( definitions );
+        this.pending.keySet ().retainAll ( this.definitions );
+        for ( final Map.Entry<SourceDefinition, DataItemValue> entry : this.pending.entrySet () )
+        {
+            render ( next, entry.getKey (), entry.getValue () );
+        }
+        this.pending.clear ();
+
+        this.image = next;
+    }
+
+    /**
+     * Render a value into the image
+     * <p>
+     * A failure is logged and only affects the value of this definition.
+     * </p>
+     */
+    private static void render ( final IoBuffer buffer, final SourceDefinition definition, final DataItemValue value )
+    {
+        try
+        {
+            definition.getType ().render ( buffer, definition.getOffset (), value );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( String.format ( "Failed to render value of %s", definition ), e );
+        }
+    }
+
+    public synchronized int getPendingCount ()
+    {
+        return this.pending.size ();
+    }
+
+    public synchronized long getFlushCount ()
+    {
+        return this.flushes;
+    }
+}
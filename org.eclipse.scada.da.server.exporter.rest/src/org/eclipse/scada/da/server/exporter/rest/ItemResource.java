@@ -7,15 +7,22 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - add bulk reads and polling for changes
  *******************************************************************************/
 package org.eclipse.scada.da.server.exporter.rest;
 
+import java.util.List;
 import java.util.Map;
 
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
 
 import org.eclipse.scada.core.Variant;
 import org.eclipse.scada.da.client.DataItemValue;
@@ -31,6 +38,95 @@ public interface ItemResource
             @PathParam ( "itemId" )
             final String itemId );
 
+    /**
+     * Read the values of multiple items
+     * <p>
+     * Items are selected by a list of item ids, a regular expression on the
+     * item id, or both. If neither is provided, all items of the context are
+     * returned. Unknown items are left out.
+     * </p>
+     */
+    @GET
+    @Path ( "/{contextId}/items" )
+    public ItemValues readAll (
+            @PathParam ( "contextId" )
+            final String contextId,
+            @QueryParam ( "item" )
+            final List<String> itemIds,
+            @QueryParam ( "pattern" )
+            final String pattern );
+
+    /**
+     * Read the values of multiple items
+     * <p>
+     * Same as {@link #readAll(String, List, String)}, but takes the parameters
+     * as form data, which allows requesting a large number of items.
+     * </p>
+     */
+    @POST
+    @Path ( "/{contextId}/items" )
+    @Consumes ( MediaType.APPLICATION_FORM_URLENCODED )
+    public ItemValues readAllForm (
+            @PathParam ( "contextId" )
+            final String contextId,
+            @FormParam ( "item" )
+            final List<String> itemIds,
+            @FormParam ( "pattern" )
+            final String pattern );
+
+    /**
+     * Wait for changes of multiple items
+     * <p>
+     * The request blocks until one of the selected items changed after the
+     * sequence number <code>since</code>, or the timeout expired. Only the
+     * latest value of each changed item is returned. The sequence number of
+     * the result has to be passed to the next call.
+     * </p>
+     * <p>
+     * Starting with a sequence number of <code>0</code>, or one the server
+     * does not know, returns the full state of the selected items.
+     * </p>
+     */
+    @GET
+    @Path ( "/{contextId}/items/changes" )
+    public ItemValues readChanges (
+            @PathParam ( "contextId" )
+            final String contextId,
+            @QueryParam ( "item" )
+            final List<String> itemIds,
+            @QueryParam ( "pattern" )
+            final String pattern,
+            @QueryParam ( "since" )
+            @DefaultValue ( "0" )
+            final long since,
+            @QueryParam ( "timeout" )
+            @DefaultValue ( "-1" )
+            final long timeout );
+
+    /**
+     * Wait for changes of multiple items
+     * <p>
+     * Same as {@link #readChanges(String, List, String, long, long)}, but takes
+     * the parameters as form data.
+     * </p>
+     */
+    @POST
+    @Path ( "/{contextId}/items/changes" )
+    @Consumes ( MediaType.APPLICATION_FORM_URLENCODED )
+    public ItemValues readChangesForm (
+            @PathParam ( "contextId" )
+            final String contextId,
+            @FormParam ( "item" )
+            final List<String> itemIds,
+            @FormParam ( "pattern" )
+            final String pattern,
+            @FormParam ( "since" )
+            @DefaultValue ( "0" )
+            final long since,
+            @FormParam ( "timeout" )
+            @DefaultValue ( "-1" )
+            final long timeout );
+
     @POST
     @Path ( "/{contextId}/item/value/{itemId}" )
     public WriteResult write (
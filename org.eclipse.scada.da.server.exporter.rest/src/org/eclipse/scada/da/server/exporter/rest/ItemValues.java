@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.exporter.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.scada.da.client.DataItemValue;
+
+/**
+ * The values of multiple items
+ * <p>
+ * The sequence number marks the state of the context the values were taken
+ * from. Passing it back as <code>since</code> parameter when polling for
+ * changes returns only the values which changed after this state.
+ * </p>
+ * <p>
+ * If <code>full</code> is <code>true</code>, the values are the complete
+ * state of the requested items and replace all previously received values.
+ * Otherwise only the changed items are contained.
+ * </p>
+ */
+public class ItemValues
+{
+    private long sequence;
+
+    private boolean full;
+
+    private Map<String, DataItemValue> values = new HashMap<> ();
+
+    public ItemValues ()
+    {
+    }
+
+    public ItemValues ( final long sequence, final boolean full, final Map<String, DataItemValue> values )
+    {
+        this.sequence = sequence;
+        this.full = full;
+        this.values = values;
+    }
+
+    public void setSequence ( final long sequence )
+    {
+        this.sequence = sequence;
+    }
+
+    public long getSequence ()
+    {
+        return this.sequence;
+    }
+
+    public void setFull ( final boolean full )
+    {
+        this.full = full;
+    }
+
+    public boolean isFull ()
+    {
+        return this.full;
+    }
+
+    public void setValues ( final Map<String, DataItemValue> values )
+    {
+        this.values = values;
+    }
+
+    public Map<String, DataItemValue> getValues ()
+    {
+        return this.values;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "[sequence: %s, full: %s, values: %s]", this.sequence, this.full, this.values );
+    }
+}
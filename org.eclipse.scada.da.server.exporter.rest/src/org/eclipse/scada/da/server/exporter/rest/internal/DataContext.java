@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - add bulk reads and polling for changes
  *******************************************************************************/
 package org.eclipse.scada.da.server.exporter.rest.internal;
 
@@ -21,18 +22,35 @@ import org.eclipse.scada.da.core.WriteAttributeResults;
 import org.eclipse.scada.da.core.WriteResult;
 import org.eclipse.scada.da.server.exporter.common.AggregatingSubscriptionManager;
 import org.eclipse.scada.da.server.exporter.common.HiveSource;
+import org.eclipse.scada.da.server.exporter.rest.ItemValues;
 import org.eclipse.scada.utils.concurrent.NotifyFuture;
 
 public class DataContext
 {
     private final AggregatingSubscriptionManager subscriptionManager;
 
+    private final ValueTracker tracker = new ValueTracker ();
+
     public DataContext ( final ScheduledExecutorService executor, final HiveSource hiveSource, final Map<String, String> properties, final String logName )
     {
         final ConfigurationDataHelper cfg = new ConfigurationDataHelper ( properties );
 
         final Properties hiveProperties = cfg.getPrefixedProperties ( "hive." );
-        this.subscriptionManager = new AggregatingSubscriptionManager ( executor, hiveSource, hiveProperties, logName );
+        this.subscriptionManager = new AggregatingSubscriptionManager ( executor, hiveSource, hiveProperties, logName ) {
+            @Override
+            protected void putState ( final String itemId, final DataItemValue value )
+            {
+                super.putState ( itemId, value );
+                DataContext.this.tracker.put ( itemId, value );
+            }
+
+            @Override
+            protected void clearCache ()
+            {
+                super.clearCache ();
+                DataContext.this.tracker.clear ();
+            }
+        };
 
         this.subscriptionManager.start ();
 
@@ -44,6 +62,24 @@ public class DataContext
         return this.subscriptionManager.getCacheValue ( itemId );
     }
 
+    /**
+     * Get the current values of all matching items
+     */
+    public ItemValues getValues ( final ItemFilter filter )
+    {
+        return this.tracker.read ( filter );
+    }
+
+    /**
+     * Wait for changes of the matching items
+     *
+     * @see ValueTracker#waitForChanges(ItemFilter, long, long)
+     */
+    public ItemValues waitForChanges ( final ItemFilter filter, final long since, final long timeout ) throws InterruptedException
+    {
+        return this.tracker.waitForChanges ( filter, since, timeout );
+    }
+
     public NotifyFuture<WriteResult> writeValue ( final String itemId, final Variant value )
     {
         return this.subscriptionManager.writeValue ( itemId, value, null, null );
@@ -57,6 +93,8 @@ public class DataContext
     public void dispose ()
     {
         this.subscriptionManager.stop ();
+        // wake up all waiting clients
+        this.tracker.dispose ();
     }
 
 }
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.exporter.rest.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Select items by id or by a regular expression
+ * <p>
+ * An item matches if its id is one of the provided ids or if it matches the
+ * pattern. If neither ids nor a pattern are provided, all items match.
+ * </p>
+ */
+public class ItemFilter
+{
+    private final Set<String> itemIds;
+
+    private final Pattern pattern;
+
+    public ItemFilter ( final Collection<String> itemIds, final Pattern pattern )
+    {
+        this.itemIds = itemIds == null ? Collections.<String> emptySet () : new HashSet<> ( itemIds );
+        this.pattern = pattern;
+    }
+
+    public Set<String> getItemIds ()
+    {
+        return this.itemIds;
+    }
+
+    /**
+     * @return <code>true</code> if only the explicitly listed items can match
+     */
+    public boolean isExplicit ()
+    {
+        return this.pattern == null && !this.itemIds.isEmpty ();
+    }
+
+    public boolean matches ( final String itemId )
+    {
+        if ( this.pattern == null && this.itemIds.isEmpty () )
+        {
+            return true;
+        }
+
+        if ( this.itemIds.contains ( itemId ) )
+        {
+            return true;
+        }
+
+        return this.pattern != null && this.pattern.matcher ( itemId ).matches ();
+    }
+}
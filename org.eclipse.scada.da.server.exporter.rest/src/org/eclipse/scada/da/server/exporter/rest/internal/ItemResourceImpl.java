@@ -7,12 +7,16 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - add bulk reads and polling for changes
  *******************************************************************************/
 package org.eclipse.scada.da.server.exporter.rest.internal;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
@@ -24,6 +28,7 @@ import org.eclipse.scada.da.client.DataItemValue;
 import org.eclipse.scada.da.core.WriteAttributeResult;
 import org.eclipse.scada.da.core.WriteAttributeResults;
 import org.eclipse.scada.da.server.exporter.rest.ItemResource;
+import org.eclipse.scada.da.server.exporter.rest.ItemValues;
 import org.eclipse.scada.da.server.exporter.rest.WriteResult;
 import org.eclipse.scada.utils.ExceptionHelper;
 import org.eclipse.scada.utils.concurrent.NotifyFuture;
@@ -34,6 +39,11 @@ public class ItemResourceImpl implements ItemResource
 {
     private final static Logger logger = LoggerFactory.getLogger ( ItemResourceImpl.class );
 
+    /**
+     * The maximum time a request waits for changes
+     */
+    private static final long MAX_POLL_TIMEOUT = Long.getLong ( "org.eclipse.scada.da.server.exporter.rest.maxPollTimeout", 30_000 );
+
     private DataContextProvider provider;
 
     public void setProvider ( final DataContextProvider provider )
@@ -66,6 +76,87 @@ public class ItemResourceImpl implements ItemResource
         return value;
     }
 
+    @Override
+    public ItemValues readAll ( final String contextId, final List<String> itemIds, final String pattern )
+    {
+        logger.trace ( "Reading all - contextId: {}, itemIds: {}, pattern: {}", contextId, itemIds, pattern );
+
+        final DataContext context = getContext ( contextId );
+
+        final ItemValues result = context.getValues ( makeFilter ( itemIds, pattern ) );
+
+        logger.trace ( "Result: {} items", result.getValues ().size () );
+
+        return result;
+    }
+
+    @Override
+    public ItemValues readAllForm ( final String contextId, final List<String> itemIds, final String pattern )
+    {
+        return readAll ( contextId, itemIds, pattern );
+    }
+
+    @Override
+    public ItemValues readChanges ( final String contextId, final List<String> itemIds, final String pattern, final long since, final long timeout )
+    {
+        logger.trace ( "Reading changes - contextId: {}, itemIds: {}, pattern: {}, since: {}, timeout: {}", contextId, itemIds, pattern, since, timeout );
+
+        final DataContext context = getContext ( contextId );
+
+        final long waitTime = timeout < 0 || timeout > MAX_POLL_TIMEOUT ? MAX_POLL_TIMEOUT : timeout;
+
+        final ItemFilter filter = makeFilter ( itemIds, pattern );
+
+        try
+        {
+            final ItemValues result = context.waitForChanges ( filter, since, waitTime );
+            logger.trace ( "Result: {} items, sequence: {}", result.getValues ().size (), result.getSequence () );
+            return result;
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread ().interrupt ();
+            throw new WebApplicationException ( Status.SERVICE_UNAVAILABLE );
+        }
+    }
+
+    @Override
+    public ItemValues readChangesForm ( final String contextId, final List<String> itemIds, final String pattern, final long since, final long timeout )
+    {
+        return readChanges ( contextId, itemIds, pattern, since, timeout );
+    }
+
+    private DataContext getContext ( final String contextId )
+    {
+        final DataContext context = this.provider.getContext ( contextId );
+
+        if ( context == null )
+        {
+            logger.trace ( "Context not found" );
+            throw new WebApplicationException ( Status.NOT_FOUND );
+        }
+
+        return context;
+    }
+
+    private static ItemFilter makeFilter ( final List<String> itemIds, final String pattern )
+    {
+        if ( pattern == null || pattern.isEmpty () )
+        {
+            return new ItemFilter ( itemIds, null );
+        }
+
+        try
+        {
+            return new ItemFilter ( itemIds, Pattern.compile ( pattern ) );
+        }
+        catch ( final PatternSyntaxException e )
+        {
+            logger.trace ( "Invalid pattern", e );
+            throw new WebApplicationException ( Response.status ( Status.BAD_REQUEST ).entity ( e.getMessage () ).build () );
+        }
+    }
+
     @Override
     public WriteResult write ( final String contextId, final String itemId, final Variant value )
     {
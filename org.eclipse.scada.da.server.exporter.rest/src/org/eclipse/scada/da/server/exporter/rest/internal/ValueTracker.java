@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.exporter.rest.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.scada.da.client.DataItemValue;
+import org.eclipse.scada.da.server.exporter.rest.ItemValues;
+
+/**
+ * Track the values of a data context with a change sequence number
+ * <p>
+ * Every change increments the sequence number of the tracker and is recorded
+ * as the last change of its item. Clients poll with the sequence number of
+ * their last result and get the current value of each item that changed since
+ * then. So all changes which happened in between two polls are coalesced to
+ * one value per item, without keeping any state per client.
+ * </p>
+ */
+public class ValueTracker
+{
+    private static class Entry
+    {
+        private final DataItemValue value;
+
+        private final long sequence;
+
+        public Entry ( final DataItemValue value, final long sequence )
+        {
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<> ();
+
+    /**
+     * The item ids by the sequence number of their last change
+     */
+    private final TreeMap<Long, String> changes = new TreeMap<> ();
+
+    private long sequence;
+
+    /**
+     * The sequence number of the last change which removed items
+     * <p>
+     * Clients which did not see this change need a full update.
+     * </p>
+     */
+    private long resetSequence;
+
+    private boolean disposed;
+
+    public synchronized void put ( final String itemId, final DataItemValue value )
+    {
+        this.sequence++;
+
+        final Entry old;
+        if ( value == null )
+        {
+            old = this.entries.remove ( itemId );
+            this.resetSequence = this.sequence;
+        }
+        else
+        {
+            old = this.entries.put ( itemId, new Entry ( value, this.sequence ) );
+            this.changes.put ( this.sequence, itemId );
+        }
+
+        if ( old != null )
+        {
+            this.changes.remove ( old.sequence );
+        }
+
+        notifyAll ();
+    }
+
+    public synchronized void clear ()
+    {
+        this.sequence++;
+        this.resetSequence = this.sequence;
+        this.entries.clear ();
+        this.changes.clear ();
+
+        notifyAll ();
+    }
+
+    public synchronized void dispose ()
+    {
+        this.disposed = true;
+        clear ();
+    }
+
+    /**
+     * Get the current values of all matching items
+     */
+    public synchronized ItemValues read ( final ItemFilter filter )
+    {
+        final Map<String, DataItemValue> values = new HashMap<> ();
+
+        if ( filter.isExplicit () )
+        {
+            // no need to go through all items
+            for ( final String itemId : filter.getItemIds () )
+            {
+                final Entry entry = this.entries.get ( itemId );
+                if ( entry != null )
+                {
+                    values.put ( itemId, entry.value );
+                }
+            }
+        }
+        else
+        {
+            for ( final Map.Entry<String, Entry> entry : this.entries.entrySet () )
+            {
+                if ( filter.matches ( entry.getKey () ) )
+                {
+                    values.put ( entry.getKey (), entry.getValue ().value );
+                }
+            }
+        }
+
+        return new ItemValues ( this.sequence, true, values );
+    }
+
+    /**
+     * Wait for changes of the matching items
+     *
+     * @param filter
+     *            the items to check
+     * @param since
+     *            the sequence number of the last result the client received
+     * @param timeout
+     *            the maximum time to wait in milliseconds
+     * @return the changed items, which may be empty if nothing changed before
+     *         the timeout. If the client missed a change which removed items,
+     *         or the sequence number is unknown to this tracker, the current
+     *         state of all matching items is returned.
+     * @throws InterruptedException
+     *             if the thread got interrupted while waiting
+     */
+    public synchronized ItemValues waitForChanges ( final ItemFilter filter, final long since, final long timeout ) throws InterruptedException
+    {
+        final long end = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos ( timeout );
+
+        long checked = since;
+        while ( true )
+        {
+            if ( needsFullUpdate ( since ) )
+            {
+                return read ( filter );
+            }
+
+            /*
+             * only check the changes we did not see in the last iteration,
+             * none of the older ones matched, and items which changed again
+             * moved to a newer sequence number
+             */
+            final Map<String, DataItemValue> values = collectChanges ( filter, checked );
+            if ( !values.isEmpty () )
+            {
+                return new ItemValues ( this.sequence, false, values );
+            }
+            checked = this.sequence;
+
+            final long remaining = TimeUnit.NANOSECONDS.toMillis ( end - System.nanoTime () );
+            if ( this.disposed || remaining <= 0 )
+            {
+                return new ItemValues ( this.sequence, false, values );
+            }
+
+            wait ( remaining );
+        }
+    }
+
+    private boolean needsFullUpdate ( final long since )
+    {
+        return since < this.resetSequence || since > this.sequence;
+    }
+
+    private Map<String, DataItemValue> collectChanges ( final ItemFilter filter, final long since )
+    {
+        final Map<String, DataItemValue> result = new HashMap<> ();
+
+        for ( final String itemId : this.changes.tailMap ( since, false ).values () )
+        {
+            if ( filter.matches ( itemId ) )
+            {
+                result.put ( itemId, this.entries.get ( itemId ).value );
+            }
+        }
+
+        return result;
+    }
+}
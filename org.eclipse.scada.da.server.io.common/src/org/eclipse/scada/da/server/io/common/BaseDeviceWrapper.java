@@ -150,7 +150,7 @@ public abstract class BaseDeviceWrapper implements ConnectionListener
      */
     protected DataItemInputChained createInput ( final String itemName )
     {
-        final DataItemInputChained item = new DataItemInputChained ( getItemId ( itemName ), this.hive.getOperationService () );
+        final DataItemInputChained item = new DataItemInputChained ( getItemId ( itemName ), this.hive.getOperationService ( getItemId ( itemName ) ) );
         this.hive.registerItem ( item );
         this.baseFolder.add ( itemName, item, new MapBuilder<String, Variant> ().getMap () );
         return item;
@@ -165,7 +165,7 @@ public abstract class BaseDeviceWrapper implements ConnectionListener
      */
     protected DataItemCommand createCommand ( final String itemName )
     {
-        final DataItemCommand item = new DataItemCommand ( getItemId ( itemName ), this.hive.getOperationService () );
+        final DataItemCommand item = new DataItemCommand ( getItemId ( itemName ), this.hive.getOperationService ( getItemId ( itemName ) ) );
         this.hive.registerItem ( item );
         this.baseFolder.add ( itemName, item, new MapBuilder<String, Variant> ().getMap () );
         return item;
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.ngp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.ngp.Features;
+import org.eclipse.scada.da.data.ItemDataUpdateEntry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataUpdateBatcherTest
+{
+    private static final long TIMEOUT = 5000;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Everything sent, the item ids of the batches and the state messages
+     */
+    private final List<String> sent = Collections.synchronizedList ( new ArrayList<String> () );
+
+    private final DataUpdateBatcher.Sender sender = new DataUpdateBatcher.Sender () {
+
+        @Override
+        public void send ( final List<ItemDataUpdateEntry> entries )
+        {
+            final StringBuilder sb = new StringBuilder ();
+            for ( final ItemDataUpdateEntry entry : entries )
+            {
+                sb.append ( entry.getItemId () );
+            }
+            DataUpdateBatcherTest.this.sent.add ( sb.toString () );
+        }
+    };
+
+    @Before
+    public void setup ()
+    {
+        this.executor = new ScheduledThreadPoolExecutor ( 1 );
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.executor.shutdownNow ();
+    }
+
+    private static ItemDataUpdateEntry makeEntry ( final String itemId )
+    {
+        return new ItemDataUpdateEntry ( itemId, Variant.valueOf ( 1 ), null, null, false );
+    }
+
+    private Runnable makeState ( final String state )
+    {
+        return new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                DataUpdateBatcherTest.this.sent.add ( state );
+            }
+        };
+    }
+
+    private void waitForSent ( final int count ) throws InterruptedException
+    {
+        final long end = System.currentTimeMillis () + TIMEOUT;
+        while ( this.sent.size () < count && System.currentTimeMillis () < end )
+        {
+            Thread.sleep ( 5 );
+        }
+        Assert.assertEquals ( count, this.sent.size () );
+    }
+
+    @Test
+    public void testMaxSize ()
+    {
+        final DataUpdateBatcher batcher = new DataUpdateBatcher ( this.executor, TIMEOUT, 3, this.sender );
+
+        for ( final String id : new String[] { "a", "b", "c", "d", "e", "f", "g" } )
+        {
+            batcher.add ( makeEntry ( id ) );
+        }
+
+        // full batches are sent at once, without waiting for the delay
+        Assert.assertEquals ( Arrays.asList ( "abc", "def" ), this.sent );
+
+        batcher.flush ();
+        Assert.assertEquals ( Arrays.asList ( "abc", "def", "g" ), this.sent );
+    }
+
+    @Test
+    public void testMaxDelay () throws Exception
+    {
+        final DataUpdateBatcher batcher = new DataUpdateBatcher ( this.executor, 50, 1000, this.sender );
+
+        final long start = System.nanoTime ();
+        batcher.add ( makeEntry ( "a" ) );
+        batcher.add ( makeEntry ( "b" ) );
+        Assert.assertTrue ( this.sent.isEmpty () );
+
+        waitForSent ( 1 );
+        Assert.assertTrue ( System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos ( 50 ) );
+        Assert.assertEquals ( "ab", this.sent.get ( 0 ) );
+
+        // the next entry starts a new delay
+        batcher.add ( makeEntry ( "c" ) );
+        waitForSent ( 2 );
+        Assert.assertEquals ( "c", this.sent.get ( 1 ) );
+
+        // nothing else is sent
+        Thread.sleep ( 100 );
+        Assert.assertEquals ( 2, this.sent.size () );
+    }
+
+    @Test
+    public void testStateOrder ()
+    {
+        final DataUpdateBatcher batcher = new DataUpdateBatcher ( this.executor, TIMEOUT, 1000, this.sender );
+
+        batcher.add ( makeEntry ( "a" ) );
+        batcher.add ( makeEntry ( "b" ) );
+        batcher.flush ( makeState ( "S1" ) );
+        batcher.flush ( makeState ( "S2" ) );
+        batcher.add ( makeEntry ( "c" ) );
+        batcher.flush ();
+
+        // pending entries go first, an empty batch is not sent
+        Assert.assertEquals ( Arrays.asList ( "ab", "S1", "S2", "c" ), this.sent );
+    }
+
+    /**
+     * An entry added while the state is sent must not slip in before it
+     */
+    @Test
+    public void testConcurrentStateOrder () throws Exception
+    {
+        final DataUpdateBatcher batcher = new DataUpdateBatcher ( this.executor, TIMEOUT, 1000, this.sender );
+        batcher.add ( makeEntry ( "a" ) );
+
+        final Thread adder = new Thread () {
+
+            @Override
+            public void run ()
+            {
+                batcher.add ( makeEntry ( "b" ) );
+                batcher.flush ();
+            }
+        };
+
+        batcher.flush ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                adder.start ();
+                try
+                {
+                    // the adder waits for the lock
+                    adder.join ( 100 );
+                }
+                catch ( final InterruptedException e )
+                {
+                }
+                Assert.assertTrue ( adder.isAlive () );
+                DataUpdateBatcherTest.this.sent.add ( "S" );
+            }
+        } );
+
+        adder.join ( TIMEOUT );
+        Assert.assertEquals ( Arrays.asList ( "a", "S", "b" ), this.sent );
+    }
+
+    @Test
+    public void testDispose () throws Exception
+    {
+        final DataUpdateBatcher batcher = new DataUpdateBatcher ( this.executor, 20, 2, this.sender );
+
+        batcher.add ( makeEntry ( "a" ) );
+        batcher.dispose ();
+        batcher.add ( makeEntry ( "b" ) );
+        batcher.add ( makeEntry ( "c" ) );
+
+        Thread.sleep ( 100 );
+        Assert.assertTrue ( this.sent.isEmpty () );
+    }
+
+    @Test
+    public void testEnabled ()
+    {
+        final Map<String, String> features = new HashMap<String, String> ();
+        features.put ( Features.FEATURE_DA_BATCH_UPDATES, "true" );
+        final Map<String, String> noFeatures = new HashMap<String, String> ();
+
+        Assert.assertTrue ( DataUpdateBatcher.isEnabled ( this.executor, 10, 1000, features ) );
+
+        // the client does not announce the feature
+        Assert.assertFalse ( DataUpdateBatcher.isEnabled ( this.executor, 10, 1000, noFeatures ) );
+
+        // disabled on the server
+        Assert.assertFalse ( DataUpdateBatcher.isEnabled ( null, 10, 1000, features ) );
+        Assert.assertFalse ( DataUpdateBatcher.isEnabled ( this.executor, 0, 1000, features ) );
+        Assert.assertFalse ( DataUpdateBatcher.isEnabled ( this.executor, 10, 1, features ) );
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.da.server.ngp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.scada.core.ngp.Features;
+import org.eclipse.scada.da.data.ItemDataUpdateEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects item data updates of one session and hands them over as a batch
+ * <p>
+ * A batch is flushed when it reaches the maximum size or when the maximum
+ * delay after adding the first entry expired, whichever comes first. The
+ * order of the entries is preserved. Other messages of the session which must
+ * keep their order with the entries are sent using {@link #flush(Runnable)}.
+ * </p>
+ */
+class DataUpdateBatcher
+{
+    private final static Logger logger = LoggerFactory.getLogger ( DataUpdateBatcher.class );
+
+    public interface Sender
+    {
+        public void send ( List<ItemDataUpdateEntry> entries );
+    }
+
+    private final ScheduledExecutorService executor;
+
+    private final long maxDelay;
+
+    private final int maxSize;
+
+    private final Sender sender;
+
+    private List<ItemDataUpdateEntry> entries;
+
+    private ScheduledFuture<?> flushJob;
+
+    private boolean disposed;
+
+    private final Runnable flushRunnable = new Runnable () {
+
+        @Override
+        public void run ()
+        {
+            flush ();
+        }
+    };
+
+    public DataUpdateBatcher ( final ScheduledExecutorService executor, final long maxDelay, final int maxSize, final Sender sender )
+    {
+        this.executor = executor;
+        this.maxDelay = maxDelay;
+        this.maxSize = Math.max ( 1, maxSize );
+        this.sender = sender;
+    }
+
+    /**
+     * Check if batching is enabled for a session
+     *
+     * @param properties
+     *            the features announced by the client
+     * @return <code>true</code> if batching is configured and the client
+     *         supports it
+     */
+    public static boolean isEnabled ( final ScheduledExecutorService executor, final long maxDelay, final int maxSize, final Map<String, String> properties )
+    {
+        return executor != null && maxDelay > 0 && maxSize > 1 && properties.containsKey ( Features.FEATURE_DA_BATCH_UPDATES );
+    }
+
+    public synchronized void add ( final ItemDataUpdateEntry entry )
+    {
+        if ( this.disposed )
+        {
+            return;
+        }
+
+        if ( this.entries == null )
+        {
+            this.entries = new ArrayList<ItemDataUpdateEntry> ( Math.min ( this.maxSize, 64 ) );
+        }
+
+        this.entries.add ( entry );
+
+        if ( this.entries.size () >= this.maxSize )
+        {
+            flush ();
+        }
+        else if ( this.flushJob == null )
+        {
+            this.flushJob = this.executor.schedule ( this.flushRunnable, this.maxDelay, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Send all pending entries now
+     */
+    public synchronized void flush ()
+    {
+        if ( this.flushJob != null )
+        {
+            this.flushJob.cancel ( false );
+            this.flushJob = null;
+        }
+
+        if ( this.entries == null || this.entries.isEmpty () )
+        {
+            return;
+        }
+
+        final List<ItemDataUpdateEntry> entries = this.entries;
+        this.entries = null;
+
+        logger.trace ( "Flushing {} entries", entries.size () );
+
+        // send while holding the lock, so that batches cannot overtake each other
+        this.sender.send ( entries );
+    }
+
+    /**
+     * Send all pending entries, then send another message
+     * <p>
+     * Both happen while holding the lock, so the message can neither overtake
+     * the pending entries nor be overtaken by entries added meanwhile.
+     * </p>
+     *
+     * @param sendMessage
+     *            sends the message
+     */
+    public synchronized void flush ( final Runnable sendMessage )
+    {
+        flush ();
+        sendMessage.run ();
+    }
+
+    public synchronized void dispose ()
+    {
+        this.disposed = true;
+
+        if ( this.flushJob != null )
+        {
+            this.flushJob.cancel ( false );
+            this.flushJob = null;
+        }
+
+        this.entries = null;
+    }
+}
@@ -12,28 +12,44 @@ package org.eclipse.scada.da.server.ngp;
 
 import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.mina.core.session.IoSession;
 import org.eclipse.scada.core.server.ngp.ServerBase;
 import org.eclipse.scada.core.server.ngp.ServerConnection;
 import org.eclipse.scada.da.core.server.Hive;
 import org.eclipse.scada.protocol.ngp.common.ProtocolConfigurationFactory;
+import org.eclipse.scada.utils.concurrent.ScheduledExportedExecutorService;
 
 public class Server extends ServerBase
 {
 
+    private static final long BATCH_MAX_DELAY = Long.getLong ( "org.eclipse.scada.da.server.ngp.batchUpdates.maxDelay", 10 );
+
+    private static final int BATCH_MAX_SIZE = Integer.getInteger ( "org.eclipse.scada.da.server.ngp.batchUpdates.maxSize", 1000 );
+
     private final Hive service;
 
+    private final ScheduledExecutorService batchExecutor;
+
     public Server ( final Collection<InetSocketAddress> addresses, final ProtocolConfigurationFactory protocolConfigurationFactory, final Hive service ) throws Exception
     {
         super ( addresses, protocolConfigurationFactory );
         this.service = service;
+        this.batchExecutor = new ScheduledExportedExecutorService ( "org.eclipse.scada.da.server.ngp.batchUpdates", 1 );
     }
 
     @Override
     public ServerConnection createNewConnection ( final IoSession session )
     {
-        return new ServerConnectionImpl ( session, this.service );
+        return new ServerConnectionImpl ( session, this.service, this.batchExecutor, BATCH_MAX_DELAY, BATCH_MAX_SIZE );
+    }
+
+    @Override
+    public void dispose ()
+    {
+        super.dispose ();
+        this.batchExecutor.shutdown ();
     }
 
 }
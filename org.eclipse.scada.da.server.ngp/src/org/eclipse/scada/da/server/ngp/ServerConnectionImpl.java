@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - batch item data updates
  *******************************************************************************/
 package org.eclipse.scada.da.server.ngp;
 
@@ -18,6 +19,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.mina.core.session.IoSession;
 import org.eclipse.scada.core.Variant;
@@ -39,10 +41,12 @@ import org.eclipse.scada.da.core.server.browser.FolderListener;
 import org.eclipse.scada.da.data.AttributeWriteResultEntry;
 import org.eclipse.scada.da.data.BrowserEntry;
 import org.eclipse.scada.da.data.FolderEntryType;
+import org.eclipse.scada.da.data.ItemDataUpdateEntry;
 import org.eclipse.scada.da.data.message.BrowseFolder;
 import org.eclipse.scada.da.data.message.BrowseResult;
 import org.eclipse.scada.da.data.message.FolderDataUpdate;
 import org.eclipse.scada.da.data.message.ItemDataUpdate;
+import org.eclipse.scada.da.data.message.ItemDataUpdateBatch;
 import org.eclipse.scada.da.data.message.ItemStateUpdate;
 import org.eclipse.scada.da.data.message.StartWriteAttributes;
 import org.eclipse.scada.da.data.message.StartWriteValue;
@@ -89,9 +93,74 @@ public class ServerConnectionImpl extends ServiceServerConnection<Session, Hive>
 
     };
 
+    private final ScheduledExecutorService batchExecutor;
+
+    private final long batchMaxDelay;
+
+    private final int batchMaxSize;
+
+    private volatile DataUpdateBatcher batcher;
+
     public ServerConnectionImpl ( final IoSession session, final Hive service )
+    {
+        this ( session, service, null, 0, 0 );
+    }
+
+    /**
+     * Create a new server connection
+     *
+     * @param session
+     *            the network session
+     * @param service
+     *            the hive
+     * @param batchExecutor
+     *            the executor used for flushing batched data updates, may be
+     *            <code>null</code> to disable batching
+     * @param batchMaxDelay
+     *            the maximum time in milliseconds a data update is held back
+     *            in order to batch it with others, zero or less disables
+     *            batching
+     * @param batchMaxSize
+     *            the maximum number of data updates in one batch
+     */
+    public ServerConnectionImpl ( final IoSession session, final Hive service, final ScheduledExecutorService batchExecutor, final long batchMaxDelay, final int batchMaxSize )
     {
         super ( session, service );
+        this.batchExecutor = batchExecutor;
+        this.batchMaxDelay = batchMaxDelay;
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    @Override
+    protected void handleFeatures ( final Map<String, String> properties )
+    {
+        super.handleFeatures ( properties );
+
+        final boolean batch = DataUpdateBatcher.isEnabled ( this.batchExecutor, this.batchMaxDelay, this.batchMaxSize, properties );
+        logger.info ( "Enable batch updates: {}", batch ); //$NON-NLS-1$
+
+        if ( batch && this.batcher == null )
+        {
+            this.batcher = new DataUpdateBatcher ( this.batchExecutor, this.batchMaxDelay, this.batchMaxSize, new DataUpdateBatcher.Sender () {
+
+                @Override
+                public void send ( final List<ItemDataUpdateEntry> entries )
+                {
+                    sendMessage ( new ItemDataUpdateBatch ( entries ) );
+                }
+            } );
+        }
+    }
+
+    @Override
+    public void dispose ()
+    {
+        final DataUpdateBatcher batcher = this.batcher;
+        if ( batcher != null )
+        {
+            batcher.dispose ();
+        }
+        super.dispose ();
     }
 
     private static List<BrowserEntry> convertEntries ( final Collection<Entry> added )
@@ -134,12 +203,44 @@ public class ServerConnectionImpl extends ServiceServerConnection<Session, Hive>
     protected void handleDataChanged ( final String itemId, final Variant value, final Map<String, Variant> attributes, final boolean cache )
     {
         final AttributesTransport transport = new AttributesTransport ( attributes );
-        sendMessage ( new ItemDataUpdate ( itemId, value, transport.getAddedOrUpdated (), transport.getRemoved (), cache ) );
+
+        final DataUpdateBatcher batcher = this.batcher;
+        if ( batcher != null )
+        {
+            batcher.add ( new ItemDataUpdateEntry ( itemId, value, transport.getAddedOrUpdated (), transport.getRemoved (), cache ) );
+        }
+        else
+        {
+            sendMessage ( new ItemDataUpdate ( itemId, value, transport.getAddedOrUpdated (), transport.getRemoved (), cache ) );
+        }
     }
 
     protected void handleSubscriptionChanged ( final String itemId, final SubscriptionState subscriptionState )
     {
-        sendMessage ( new ItemStateUpdate ( itemId, subscriptionState, null ) );
+        sendStateUpdate ( new ItemStateUpdate ( itemId, subscriptionState, null ) );
+    }
+
+    /**
+     * Send a state update in order with the data updates
+     */
+    private void sendStateUpdate ( final ItemStateUpdate message )
+    {
+        final DataUpdateBatcher batcher = this.batcher;
+        if ( batcher == null )
+        {
+            sendMessage ( message );
+            return;
+        }
+
+        // data updates must neither be overtaken by nor slip in before the state update
+        batcher.flush ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                sendMessage ( message );
+            }
+        } );
     }
 
     protected void handleFolderChanged ( final Location location, final Collection<Entry> added, final Set<String> removed, final boolean full )
@@ -362,7 +463,7 @@ public class ServerConnectionImpl extends ServiceServerConnection<Session, Hive>
         catch ( final Exception e )
         {
             logger.warn ( "Failed to unsubscribe", e );
-            sendMessage ( new ItemStateUpdate ( message.getItemId (), SubscriptionState.DISCONNECTED, new ErrorInformation ( 0x01L, e.getMessage (), ExceptionHelper.formatted ( e ) ) ) );
+            sendStateUpdate ( new ItemStateUpdate ( message.getItemId (), SubscriptionState.DISCONNECTED, new ErrorInformation ( 0x01L, e.getMessage (), ExceptionHelper.formatted ( e ) ) ) );
         }
     }
 
@@ -375,7 +476,7 @@ public class ServerConnectionImpl extends ServiceServerConnection<Session, Hive>
         catch ( final Exception e )
         {
             logger.warn ( "Failed to subscribe", e );
-            sendMessage ( new ItemStateUpdate ( message.getItemId (), SubscriptionState.DISCONNECTED, new ErrorInformation ( 0x01L, e.getMessage (), ExceptionHelper.formatted ( e ) ) ) );
+            sendStateUpdate ( new ItemStateUpdate ( message.getItemId (), SubscriptionState.DISCONNECTED, new ErrorInformation ( 0x01L, e.getMessage (), ExceptionHelper.formatted ( e ) ) ) );
         }
     }
 
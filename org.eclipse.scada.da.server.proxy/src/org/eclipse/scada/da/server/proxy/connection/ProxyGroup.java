@@ -324,7 +324,7 @@ public class ProxyGroup implements LifecycleAware
                 // create actual item
                 final ProxyValueHolder pvh = new ProxyValueHolder ( this.hive.getSeparator (), getPrefix (), getCurrentConnection (), id );
                 final ProxyWriteHandler pwh = new ProxyWriteHandlerImpl ( this.hive.getSeparator (), getPrefix (), getSubConnections (), getCurrentConnection (), id );
-                item = new ProxyDataItem ( id, pvh, pwh, this.hive.getOperationService () );
+                item = new ProxyDataItem ( id, pvh, pwh, this.hive.getOperationService ( id ) );
                 this.registeredItems.put ( id, item );
 
                 setUpItem ( item, id );
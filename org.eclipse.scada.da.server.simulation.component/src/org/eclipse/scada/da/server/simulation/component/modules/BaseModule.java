@@ -61,7 +61,7 @@ public class BaseModule
             }
         }
 
-        final DataItemInputChained item = new DataItemInputChained ( id, this.hive.getOperationService () );
+        final DataItemInputChained item = new DataItemInputChained ( id, this.hive.getOperationService ( id ) );
         this.items.put ( name, item );
         this.hive.registerItem ( item );
 
@@ -87,7 +87,7 @@ public class BaseModule
             }
         }
 
-        final DataItemCommand item = new DataItemCommand ( id, this.hive.getOperationService () );
+        final DataItemCommand item = new DataItemCommand ( id, this.hive.getOperationService ( id ) );
         this.items.put ( name, item );
         this.hive.registerItem ( item );
 
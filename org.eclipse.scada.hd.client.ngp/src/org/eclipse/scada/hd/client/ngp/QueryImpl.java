@@ -10,9 +10,11 @@
  *******************************************************************************/
 package org.eclipse.scada.hd.client.ngp;
 
+import java.util.AbstractList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
@@ -29,6 +31,31 @@ public class QueryImpl implements Query
 {
     private final static Logger logger = LoggerFactory.getLogger ( QueryImpl.class );
 
+    /**
+     * A read only list view on the received values
+     */
+    private static class DoubleArrayList extends AbstractList<Double> implements RandomAccess
+    {
+        private final double[] values;
+
+        public DoubleArrayList ( final double[] values )
+        {
+            this.values = values;
+        }
+
+        @Override
+        public Double get ( final int index )
+        {
+            return this.values[index];
+        }
+
+        @Override
+        public int size ()
+        {
+            return this.values.length;
+        }
+    }
+
     private final Executor executor;
 
     private final String itemId;
@@ -180,7 +207,7 @@ public class QueryImpl implements Query
 
             for ( final ValueEntry entry : values )
             {
-                valueMap.put ( entry.getValueType (), entry.getValues () );
+                valueMap.put ( entry.getValueType (), entry.getValues () == null ? null : new DoubleArrayList ( entry.getValues () ) );
             }
 
             fireDataChange ( this.listener, index, valueMap, valueInformation );
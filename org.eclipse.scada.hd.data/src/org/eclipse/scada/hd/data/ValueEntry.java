@@ -8,14 +8,26 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - implement security callback system
+ *     IBH SYSTEMS GmbH - use a primitive array for the values
  *******************************************************************************/
 package org.eclipse.scada.hd.data;
 
+/**
+ * A series of values of one type
+ * <p>
+ * <em>Note:</em> this class and the ValueEntry codec in the Structures class
+ * of <code>org.eclipse.scada.hd.protocol.ngp.codec</code> are adapted by hand.
+ * The protocol model defines the values as an ordered list of floats, but
+ * they are held as <code>double[]</code> to avoid boxing each value. The wire
+ * format is the same for both. When the code is generated again from the
+ * model, the changes must be applied again.
+ * </p>
+ */
 public class ValueEntry implements java.io.Serializable
 {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    public ValueEntry ( final String valueType, final java.util.List<Double> values )
+    public ValueEntry ( final String valueType, final double[] values )
     {
         this.valueType = valueType;
         this.values = values;
@@ -31,9 +43,9 @@ public class ValueEntry implements java.io.Serializable
         return this.valueType;
     }
 
-    private final java.util.List<Double> values;
+    private final double[] values;
 
-    public java.util.List<Double> getValues ()
+    public double[] getValues ()
     {
         return this.values;
     }
@@ -41,6 +53,6 @@ public class ValueEntry implements java.io.Serializable
     @Override
     public String toString ()
     {
-        return "[ValueEntry - " + "valueType: " + this.valueType + ", " + "values: " + this.values + "]";
+        return "[ValueEntry - " + "valueType: " + this.valueType + ", " + "values: " + java.util.Arrays.toString ( this.values ) + "]";
     }
 }
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.exporter.http.server.internal;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.scada.hd.Query;
+import org.eclipse.scada.hd.QueryListener;
+import org.eclipse.scada.hd.QueryState;
+import org.eclipse.scada.hd.data.ValueInformation;
+import org.eclipse.scada.hd.exporter.http.DataPoint;
+import org.eclipse.scada.hd.server.Service;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryCacheTest
+{
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * Records the queries created by the cache
+     */
+    private static class FakeService implements InvocationHandler
+    {
+        private final List<QueryListener> listeners = Collections.synchronizedList ( new ArrayList<QueryListener> () );
+
+        private final List<Boolean> closed = Collections.synchronizedList ( new ArrayList<Boolean> () );
+
+        public Service createService ()
+        {
+            return (Service)Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { Service.class }, this );
+        }
+
+        @Override
+        public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+        {
+            if ( !method.getName ().equals ( "createQuery" ) )
+            {
+                throw new UnsupportedOperationException ( method.getName () );
+            }
+
+            final int index = this.listeners.size ();
+            this.listeners.add ( (QueryListener)args[3] );
+            this.closed.add ( false );
+
+            return Proxy.newProxyInstance ( getClass ().getClassLoader (), new Class<?>[] { Query.class }, new InvocationHandler () {
+
+                @Override
+                public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable
+                {
+                    if ( method.getName ().equals ( "close" ) )
+                    {
+                        FakeService.this.closed.set ( index, true );
+                    }
+                    return null;
+                }
+            } );
+        }
+    }
+
+    private final QueryKey key = new QueryKey ( "item", 0, 4000, 4 );
+
+    private FakeService service;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup ()
+    {
+        this.service = new FakeService ();
+        this.executor = Executors.newCachedThreadPool ();
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.executor.shutdownNow ();
+    }
+
+    private static void sendData ( final QueryListener listener, final int index, final int count )
+    {
+        final List<Double> values = new ArrayList<Double> ();
+        final List<ValueInformation> information = new ArrayList<ValueInformation> ();
+        for ( int i = index; i < index + count; i++ )
+        {
+            values.add ( (double)i );
+            information.add ( new ValueInformation ( 1.0, 0.0, i * 1000, ( i + 1 ) * 1000, 1 ) );
+        }
+        listener.updateData ( index, Collections.singletonMap ( "AVG", values ), information );
+    }
+
+    private static List<Double> read ( final CachedQuery query ) throws Exception
+    {
+        final List<Double> result = new ArrayList<Double> ();
+        query.read ( "AVG", TIMEOUT, new StreamingHttpExporter.Receiver () {
+
+            @Override
+            public void dataPoint ( final DataPoint dataPoint ) throws IOException
+            {
+                result.add ( dataPoint.getValue () );
+            }
+        } );
+        return result;
+    }
+
+    private Future<List<Double>> startRead ( final CachedQuery query )
+    {
+        return this.executor.submit ( new Callable<List<Double>> () {
+
+            @Override
+            public List<Double> call () throws Exception
+            {
+                return read ( query );
+            }
+        } );
+    }
+
+    private static void assertFails ( final Future<List<Double>> reader ) throws Exception
+    {
+        try
+        {
+            reader.get ( TIMEOUT, TimeUnit.MILLISECONDS );
+            Assert.fail ( "Reading must fail" );
+        }
+        catch ( final ExecutionException e )
+        {
+            Assert.assertTrue ( e.getCause () instanceof ExecutionException );
+        }
+    }
+
+    /**
+     * Requests for the same data share one query and get the data while it is
+     * loading
+     */
+    @Test
+    public void testSharedLoading () throws Exception
+    {
+        final QueryCache cache = new QueryCache ( this.service.createService (), 10, 60000 );
+
+        final CachedQuery query = cache.get ( null, this.key );
+        Assert.assertSame ( query, cache.get ( null, this.key ) );
+        Assert.assertEquals ( 1, this.service.listeners.size () );
+
+        final Future<List<Double>> reader1 = startRead ( query );
+        final Future<List<Double>> reader2 = startRead ( query );
+
+        final QueryListener listener = this.service.listeners.get ( 0 );
+        sendData ( listener, 0, 2 );
+        sendData ( listener, 2, 2 );
+        listener.updateState ( QueryState.COMPLETE );
+
+        final List<Double> expected = Arrays.asList ( 0.0, 1.0, 2.0, 3.0 );
+        Assert.assertEquals ( expected, reader1.get ( TIMEOUT, TimeUnit.MILLISECONDS ) );
+        Assert.assertEquals ( expected, reader2.get ( TIMEOUT, TimeUnit.MILLISECONDS ) );
+        Assert.assertEquals ( expected, read ( cache.get ( null, this.key ) ) );
+    }
+
+    /**
+     * A change after the query completed removes the entry, but the complete
+     * data can still be read
+     */
+    @Test
+    public void testInvalidateAfterComplete () throws Exception
+    {
+        final QueryCache cache = new QueryCache ( this.service.createService (), 10, 60000 );
+
+        final CachedQuery query = cache.get ( null, this.key );
+        final QueryListener listener = this.service.listeners.get ( 0 );
+        sendData ( listener, 0, 4 );
+        listener.updateState ( QueryState.COMPLETE );
+
+        // the storage changed
+        sendData ( listener, 3, 1 );
+
+        Assert.assertTrue ( query.isInvalid () );
+        Assert.assertTrue ( this.service.closed.get ( 0 ) );
+        Assert.assertEquals ( Arrays.asList ( 0.0, 1.0, 2.0, 3.0 ), read ( query ) );
+
+        Assert.assertNotSame ( query, cache.get ( null, this.key ) );
+        Assert.assertEquals ( 2, this.service.listeners.size () );
+    }
+
+    /**
+     * Readers of a query which disconnects while loading fail instead of
+     * getting partial data
+     */
+    @Test
+    public void testDisconnectWhileLoading () throws Exception
+    {
+        final QueryCache cache = new QueryCache ( this.service.createService (), 10, 60000 );
+
+        final CachedQuery query = cache.get ( null, this.key );
+        final Future<List<Double>> reader = startRead ( query );
+
+        final QueryListener listener = this.service.listeners.get ( 0 );
+        sendData ( listener, 0, 2 );
+        listener.updateState ( QueryState.DISCONNECTED );
+
+        assertFails ( reader );
+        Assert.assertFalse ( query.isComplete () );
+        Assert.assertNotSame ( query, cache.get ( null, this.key ) );
+    }
+
+    /**
+     * Completed entries are evicted when the cache is full, loading entries are
+     * kept
+     */
+    @Test
+    public void testEviction () throws Exception
+    {
+        final QueryCache cache = new QueryCache ( this.service.createService (), 2, 60000 );
+
+        final CachedQuery loading = cache.get ( null, new QueryKey ( "loading", 0, 4000, 4 ) );
+
+        final CachedQuery complete = cache.get ( null, this.key );
+        sendData ( this.service.listeners.get ( 1 ), 0, 4 );
+        this.service.listeners.get ( 1 ).updateState ( QueryState.COMPLETE );
+
+        // a third entry evicts the complete one
+        cache.get ( null, new QueryKey ( "other", 0, 4000, 4 ) );
+
+        Assert.assertTrue ( complete.isInvalid () );
+        Assert.assertEquals ( Arrays.asList ( 0.0, 1.0, 2.0, 3.0 ), read ( complete ) );
+
+        Assert.assertFalse ( loading.isInvalid () );
+        Assert.assertSame ( loading, cache.get ( null, new QueryKey ( "loading", 0, 4000, 4 ) ) );
+    }
+
+    /**
+     * Readers of an entry which expires while loading fail
+     */
+    @Test
+    public void testExpireWhileLoading () throws Exception
+    {
+        final QueryCache cache = new QueryCache ( this.service.createService (), 10, 1 );
+
+        final CachedQuery query = cache.get ( null, this.key );
+        final Future<List<Double>> reader = startRead ( query );
+        sendData ( this.service.listeners.get ( 0 ), 0, 2 );
+
+        Thread.sleep ( 10 );
+
+        // purges the expired entry
+        Assert.assertNotSame ( query, cache.get ( null, this.key ) );
+
+        assertFails ( reader );
+        Assert.assertTrue ( this.service.closed.get ( 0 ) );
+    }
+}
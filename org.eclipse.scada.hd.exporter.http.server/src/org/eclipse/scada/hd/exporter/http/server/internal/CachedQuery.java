@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.exporter.http.server.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.scada.hd.Query;
+import org.eclipse.scada.hd.QueryListener;
+import org.eclipse.scada.hd.QueryState;
+import org.eclipse.scada.hd.data.QueryParameters;
+import org.eclipse.scada.hd.data.ValueInformation;
+import org.eclipse.scada.hd.exporter.http.DataPoint;
+import org.eclipse.scada.hd.exporter.http.server.internal.StreamingHttpExporter.Receiver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The result of a query, shared by all requests for the same data
+ * <p>
+ * The query is kept open with data updates enabled. Once the query is
+ * complete, any further update means that the storage changed, so the result
+ * is invalidated and removed from the cache. A complete result is not
+ * modified anymore, so requests which are still reading it get a consistent
+ * result. Requests reading a result which is invalidated before it is
+ * complete fail instead of getting partial data.
+ * </p>
+ */
+public class CachedQuery implements QueryListener
+{
+    private final static Logger logger = LoggerFactory.getLogger ( CachedQuery.class );
+
+    private final QueryKey key;
+
+    private final QueryCache cache;
+
+    private final long created;
+
+    private Query query;
+
+    private int size;
+
+    private ValueInformation[] information;
+
+    private final Map<String, Double[]> values = new HashMap<String, Double[]> ();
+
+    /**
+     * The query loaded all data
+     */
+    private boolean complete;
+
+    /**
+     * The result is no longer up to date and will not be changed anymore
+     */
+    private boolean invalid;
+
+    private Throwable error;
+
+    public CachedQuery ( final QueryKey key, final QueryCache cache )
+    {
+        this.key = key;
+        this.cache = cache;
+        this.created = System.currentTimeMillis ();
+        this.size = key.getNumberOfEntries ();
+        this.information = new ValueInformation[this.size];
+    }
+
+    public QueryKey getKey ()
+    {
+        return this.key;
+    }
+
+    public long getCreated ()
+    {
+        return this.created;
+    }
+
+    public synchronized boolean isComplete ()
+    {
+        return this.complete;
+    }
+
+    public synchronized boolean isInvalid ()
+    {
+        return this.invalid;
+    }
+
+    public void setQuery ( final Query query )
+    {
+        final boolean close;
+        synchronized ( this )
+        {
+            this.query = query;
+            close = this.invalid;
+        }
+
+        if ( close )
+        {
+            // got invalidated while the query was being created
+            query.close ();
+        }
+    }
+
+    /**
+     * Mark the query as failed
+     * <p>
+     * All waiting readers will fail with the provided error.
+     * </p>
+     */
+    public synchronized void fail ( final Throwable error )
+    {
+        this.error = error;
+        this.invalid = true;
+        notifyAll ();
+    }
+
+    /**
+     * Invalidate the result and close the query
+     * <p>
+     * If the result is complete it stays available for the readers, otherwise
+     * the readers fail.
+     * </p>
+     */
+    public void close ()
+    {
+        final Query query;
+        synchronized ( this )
+        {
+            this.invalid = true;
+            if ( !this.complete && this.error == null )
+            {
+                this.error = new IllegalStateException ( String.format ( "Query was closed before it was complete: %s", this.key ) );
+            }
+            notifyAll ();
+
+            query = this.query;
+            this.query = null;
+        }
+
+        if ( query != null )
+        {
+            query.close ();
+        }
+    }
+
+    private void invalidate ()
+    {
+        logger.debug ( "Invalidating query: {}", this.key );
+        this.cache.invalidate ( this );
+        close ();
+    }
+
+    @Override
+    public void updateParameters ( final QueryParameters parameters, final Set<String> valueTypes )
+    {
+        synchronized ( this )
+        {
+            if ( this.invalid )
+            {
+                return;
+            }
+
+            if ( !this.complete )
+            {
+                resize ( parameters.getNumberOfEntries () );
+                return;
+            }
+        }
+
+        invalidate ();
+    }
+
+    private void resize ( final int size )
+    {
+        if ( size == this.size || size < 0 )
+        {
+            return;
+        }
+
+        final ValueInformation[] information = new ValueInformation[size];
+        System.arraycopy ( this.information, 0, information, 0, Math.min ( size, this.size ) );
+        this.information = information;
+
+        for ( final Map.Entry<String, Double[]> entry : this.values.entrySet () )
+        {
+            final Double[] data = new Double[size];
+            System.arraycopy ( entry.getValue (), 0, data, 0, Math.min ( size, this.size ) );
+            entry.setValue ( data );
+        }
+
+        this.size = size;
+    }
+
+    @Override
+    public void updateData ( final int index, final Map<String, List<Double>> values, final List<ValueInformation> valueInformation )
+    {
+        synchronized ( this )
+        {
+            if ( this.invalid )
+            {
+                return;
+            }
+
+            if ( !this.complete )
+            {
+                putData ( index, values, valueInformation );
+                notifyAll ();
+                return;
+            }
+        }
+
+        // the storage changed after we loaded the data
+        invalidate ();
+    }
+
+    private void putData ( final int index, final Map<String, List<Double>> values, final List<ValueInformation> valueInformation )
+    {
+        final int count = Math.min ( valueInformation.size (), this.size - index );
+
+        for ( final Map.Entry<String, List<Double>> entry : values.entrySet () )
+        {
+            Double[] data = this.values.get ( entry.getKey () );
+            if ( data == null )
+            {
+                data = new Double[this.size];
+                this.values.put ( entry.getKey (), data );
+            }
+
+            final List<Double> list = entry.getValue ();
+            for ( int i = 0; i < count; i++ )
+            {
+                data[index + i] = list.get ( i );
+            }
+        }
+
+        // set the information last, it marks the entry as available
+        for ( int i = 0; i < count; i++ )
+        {
+            this.information[index + i] = valueInformation.get ( i );
+        }
+    }
+
+    @Override
+    public void updateState ( final QueryState state )
+    {
+        logger.debug ( "Query state: {} -> {}", this.key, state );
+
+        synchronized ( this )
+        {
+            if ( this.invalid )
+            {
+                return;
+            }
+
+            if ( state == QueryState.COMPLETE && !this.complete )
+            {
+                this.complete = true;
+                notifyAll ();
+                return;
+            }
+
+            if ( state != QueryState.DISCONNECTED && !this.complete )
+            {
+                return;
+            }
+        }
+
+        // disconnected, or loading again after being complete
+        invalidate ();
+    }
+
+    /**
+     * Pass all data points of a value type to the receiver
+     * <p>
+     * Data points are passed in order, as soon as they are available. Entries
+     * for which the query did not provide any data are skipped.
+     * </p>
+     *
+     * @param timeout
+     *            the time in milliseconds to wait for the query to complete
+     */
+    public void read ( final String type, final long timeout, final Receiver receiver ) throws IOException, InterruptedException, ExecutionException, TimeoutException
+    {
+        final long end = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos ( timeout );
+
+        final List<DataPoint> chunk = new ArrayList<DataPoint> ();
+
+        int index = 0;
+        while ( true )
+        {
+            synchronized ( this )
+            {
+                index = waitForData ( index, end );
+                if ( index < 0 )
+                {
+                    return;
+                }
+
+                final Double[] data = this.values.get ( type );
+
+                // take all consecutive entries which are available
+                while ( index < this.size && this.information[index] != null )
+                {
+                    chunk.add ( makeDataPoint ( this.information[index], data == null ? null : data[index] ) );
+                    index++;
+                }
+            }
+
+            // pass on outside the lock
+            for ( final DataPoint dataPoint : chunk )
+            {
+                receiver.dataPoint ( dataPoint );
+            }
+            chunk.clear ();
+        }
+    }
+
+    /**
+     * Wait until the entry at or after the index is available
+     *
+     * @return the index of the next available entry, or <code>-1</code> if
+     *         there are no more entries
+     */
+    private int waitForData ( int index, final long end ) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        while ( true )
+        {
+            if ( this.error != null )
+            {
+                throw new ExecutionException ( this.error );
+            }
+
+            if ( this.complete )
+            {
+                // skip missing entries
+                while ( index < this.size && this.information[index] == null )
+                {
+                    index++;
+                }
+                return index < this.size ? index : -1;
+            }
+
+            if ( index < this.size && this.information[index] != null )
+            {
+                return index;
+            }
+
+            final long remaining = TimeUnit.NANOSECONDS.toMillis ( end - System.nanoTime () );
+            if ( remaining <= 0 )
+            {
+                throw new TimeoutException ();
+            }
+            wait ( remaining );
+        }
+    }
+
+    private static DataPoint makeDataPoint ( final ValueInformation vi, final Double value )
+    {
+        final DataPoint dp = new DataPoint ();
+        dp.setQuality ( vi.getQuality () );
+        dp.setManual ( vi.getManualPercentage () );
+        dp.setTimestamp ( new Date ( vi.getStartTimestamp () ) );
+        dp.setValue ( value );
+        return dp;
+    }
+}
@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - stream query results
  *******************************************************************************/
 package org.eclipse.scada.hd.exporter.http.server.internal;
 
@@ -21,6 +22,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.scada.hd.exporter.http.DataPoint;
 import org.eclipse.scada.hd.exporter.http.HttpExporter;
 import org.eclipse.scada.hd.exporter.http.Utils;
 
@@ -122,13 +124,60 @@ public class JsonServlet extends HttpServlet
         final Date from = requiredDate ( request, "from" );
         final Date to = requiredDate ( request, "to" );
         final Integer number = requiredInteger ( request, "no" );
+        final HttpExporter exporter = this.exporter.get ();
+        if ( exporter instanceof StreamingHttpExporter )
+        {
+            streamData ( response, (StreamingHttpExporter)exporter, itemId, type, from, to, number );
+            return;
+        }
+
         final PrintWriter pw = new PrintWriter ( response.getOutputStream () );
         try
         {
-            pw.println ( Utils.gson.toJson ( this.exporter.get ().getData ( itemId, type, from, to, number ) ) );
+            pw.println ( Utils.gson.toJson ( exporter.getData ( itemId, type, from, to, number ) ) );
+        }
+        catch ( final Exception e )
+        {
+            throw new ServletException ( e );
+        }
+        pw.close ();
+    }
+
+    /**
+     * Write the data points as JSON array while they are loaded
+     */
+    private void streamData ( final HttpServletResponse response, final StreamingHttpExporter exporter, final String itemId, final String type, final Date from, final Date to, final Integer number ) throws IOException, ServletException
+    {
+        final PrintWriter pw = new PrintWriter ( response.getOutputStream () );
+        try
+        {
+            pw.print ( '[' );
+            exporter.streamData ( itemId, type, from, to, number, new StreamingHttpExporter.Receiver () {
+
+                private int count;
+
+                @Override
+                public void dataPoint ( final DataPoint dataPoint ) throws IOException
+                {
+                    if ( this.count > 0 )
+                    {
+                        pw.print ( ',' );
+                    }
+                    Utils.gson.toJson ( dataPoint, DataPoint.class, pw );
+
+                    // checking flushes the writer, so only check from time to time
+                    if ( ++this.count % 100 == 0 && pw.checkError () )
+                    {
+                        // stop loading data for a client which is gone
+                        throw new IOException ( "Failed to write response" );
+                    }
+                }
+            } );
+            pw.println ( ']' );
         }
         catch ( final Exception e )
         {
+            // if the response is already committed this will abort the connection
             throw new ServletException ( e );
         }
         pw.close ();
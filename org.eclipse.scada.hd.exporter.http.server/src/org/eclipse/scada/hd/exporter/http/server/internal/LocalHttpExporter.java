@@ -10,30 +10,23 @@
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - some bugfixes and modifications
  *     IBH SYSTEMS GmbH - add additional context information
+ *     IBH SYSTEMS GmbH - share and stream query results
  *******************************************************************************/
 package org.eclipse.scada.hd.exporter.http.server.internal;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.eclipse.scada.hd.Query;
-import org.eclipse.scada.hd.QueryListener;
-import org.eclipse.scada.hd.QueryState;
-import org.eclipse.scada.hd.data.QueryParameters;
-import org.eclipse.scada.hd.data.ValueInformation;
 import org.eclipse.scada.hd.exporter.http.DataPoint;
-import org.eclipse.scada.hd.exporter.http.HttpExporter;
 import org.eclipse.scada.hd.server.Service;
 import org.eclipse.scada.hd.server.Session;
 import org.eclipse.scada.sec.callback.PropertiesCredentialsCallback;
-import org.eclipse.scada.utils.concurrent.AbstractFuture;
 
 /*
  * create session only on first request
@@ -43,88 +36,50 @@ import org.eclipse.scada.utils.concurrent.AbstractFuture;
  * the first request would fail, then it is possible to try it at a
  * later time and then it could work correctly
  */
-public class LocalHttpExporter implements HttpExporter
+public class LocalHttpExporter implements StreamingHttpExporter
 {
-    private class QueryFuture extends AbstractFuture<List<DataPoint>> implements QueryListener
-    {
-        final List<DataPoint> result = new ArrayList<DataPoint> ();
-
-        final String type;
-
-        public QueryFuture ( final String type )
-        {
-            this.type = type;
-        }
-
-        @Override
-        public void updateData ( final int index, final Map<String, List<Double>> values, final List<ValueInformation> valueInformation )
-        {
-            int i = 0;
-            for ( final ValueInformation vi : valueInformation )
-            {
-                final DataPoint dp = new DataPoint ();
-                dp.setQuality ( vi.getQuality () );
-                dp.setManual ( vi.getManualPercentage () );
-                dp.setTimestamp ( new Date ( vi.getStartTimestamp () ) );
-                dp.setValue ( values.get ( this.type ).get ( i ) );
-                this.result.add ( dp );
-                i++;
-            }
-        }
+    private static final long QUERY_TIMEOUT = TimeUnit.SECONDS.toMillis ( 30 );
 
-        @Override
-        public void updateParameters ( final QueryParameters parameters, final Set<String> valueTypes )
-        {
-        }
+    private static final int CACHE_MAX_ENTRIES = Integer.getInteger ( "org.eclipse.scada.hd.exporter.http.server.cache.maxEntries", 100 );
 
-        @Override
-        public void updateState ( final QueryState state )
-        {
-            if ( state == QueryState.COMPLETE || state == QueryState.DISCONNECTED )
-            {
-                setResult ( this.result );
-            }
-        }
-    }
+    private static final long CACHE_MAX_AGE = Long.getLong ( "org.eclipse.scada.hd.exporter.http.server.cache.maxAge", 60 * 1000 );
 
     private final Service hdService;
 
-    private Session session = null;
+    private volatile Session session = null;
 
     private final Lock lock;
 
+    private final QueryCache cache;
+
     public LocalHttpExporter ( final Service hdService ) throws Exception
     {
         this.hdService = hdService;
         this.lock = new ReentrantLock ( true );
+        this.cache = new QueryCache ( hdService, CACHE_MAX_ENTRIES, CACHE_MAX_AGE );
     }
 
     @Override
-    public List<DataPoint> getData ( final String item, final String type, final Date from, final Date to, final Integer number )
+    public List<DataPoint> getData ( final String item, final String type, final Date from, final Date to, final Integer number ) throws Exception
     {
-        tryCreateSession ();
-
-        final QueryParameters parameters = new QueryParameters ( from.getTime (), to.getTime (), number );
-        QueryFuture queryFuture = new QueryFuture ( type );
-        Query q = null;
-        try
-        {
-            q = this.hdService.createQuery ( this.session, item, parameters, queryFuture, false );
-            return queryFuture.get ( 30, TimeUnit.SECONDS );
-        }
-        catch ( final Exception e )
-        {
-            throw new RuntimeException ( e );
-        }
-        finally
-        {
-            queryFuture = null;
-            if ( q != null )
+        final List<DataPoint> result = new ArrayList<DataPoint> ();
+        streamData ( item, type, from, to, number, new Receiver () {
+            @Override
+            public void dataPoint ( final DataPoint dataPoint ) throws IOException
             {
-                q.close ();
-                q = null;
+                result.add ( dataPoint );
             }
-        }
+        } );
+        return result;
+    }
+
+    @Override
+    public void streamData ( final String item, final String type, final Date from, final Date to, final Integer number, final Receiver receiver ) throws Exception
+    {
+        tryCreateSession ();
+
+        final CachedQuery query = this.cache.get ( this.session, new QueryKey ( item, from.getTime (), to.getTime (), number ) );
+        query.read ( type, QUERY_TIMEOUT, receiver );
     }
 
     private void tryCreateSession ()
@@ -169,6 +124,8 @@ public class LocalHttpExporter implements HttpExporter
     @Override
     public void dispose () throws Exception
     {
+        this.cache.dispose ();
+
         if ( this.session != null && this.hdService != null )
         {
             this.hdService.closeSession ( this.session );
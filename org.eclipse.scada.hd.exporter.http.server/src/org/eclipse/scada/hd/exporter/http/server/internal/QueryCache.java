@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.exporter.http.server.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.eclipse.scada.hd.Query;
+import org.eclipse.scada.hd.data.QueryParameters;
+import org.eclipse.scada.hd.server.Service;
+import org.eclipse.scada.hd.server.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of query results shared by all requests
+ * <p>
+ * Entries are removed when the storage reports a change of the data, when
+ * they get older than the maximum age, or when they are the least recently
+ * used entry and the cache is full. Entries which are still loading are not
+ * evicted, but they do expire. Requests still reading an entry which is
+ * removed before it is complete fail.
+ * </p>
+ */
+public class QueryCache
+{
+    private final static Logger logger = LoggerFactory.getLogger ( QueryCache.class );
+
+    private final Service service;
+
+    private final int maxEntries;
+
+    private final long maxAge;
+
+    private final LinkedHashMap<QueryKey, CachedQuery> entries = new LinkedHashMap<QueryKey, CachedQuery> ( 16, 0.75f, true );
+
+    private boolean disposed;
+
+    /**
+     * @param maxEntries
+     *            the maximum number of completed queries to keep
+     * @param maxAge
+     *            the maximum time in milliseconds a result is used
+     */
+    public QueryCache ( final Service service, final int maxEntries, final long maxAge )
+    {
+        this.service = service;
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Get the result for a query
+     * <p>
+     * If there is no valid result in the cache, a new query is started.
+     * </p>
+     */
+    public CachedQuery get ( final Session session, final QueryKey key ) throws Exception
+    {
+        final CachedQuery current;
+        final CachedQuery entry;
+        final List<CachedQuery> removed = new ArrayList<CachedQuery> ();
+
+        synchronized ( this )
+        {
+            if ( this.disposed )
+            {
+                throw new IllegalStateException ( "Query cache is disposed" );
+            }
+
+            purge ( removed );
+
+            current = this.entries.get ( key );
+            if ( current == null )
+            {
+                logger.debug ( "Cache miss: {}", key );
+                entry = new CachedQuery ( key, this );
+                this.entries.put ( key, entry );
+            }
+            else
+            {
+                logger.trace ( "Cache hit: {}", key );
+                entry = null;
+            }
+        }
+
+        closeAll ( removed );
+
+        if ( current != null )
+        {
+            return current;
+        }
+
+        // create the query outside the lock, others requesting the same data will wait on the entry
+        try
+        {
+            final Query query = this.service.createQuery ( session, key.getItemId (), new QueryParameters ( key.getStartTimestamp (), key.getEndTimestamp (), key.getNumberOfEntries () ), entry, true );
+            entry.setQuery ( query );
+        }
+        catch ( final Exception e )
+        {
+            invalidate ( entry );
+            entry.fail ( e );
+            throw e;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Remove invalid and expired entries, and evict completed entries if there
+     * are too many
+     */
+    private void purge ( final List<CachedQuery> removed )
+    {
+        final long expireBefore = System.currentTimeMillis () - this.maxAge;
+
+        int size = this.entries.size ();
+
+        // the iteration order is from the least recently used to the most recently used
+        final Iterator<CachedQuery> i = this.entries.values ().iterator ();
+        while ( i.hasNext () )
+        {
+            final CachedQuery entry = i.next ();
+            if ( entry.isInvalid () || entry.getCreated () < expireBefore || size >= this.maxEntries && entry.isComplete () )
+            {
+                i.remove ();
+                removed.add ( entry );
+                size--;
+            }
+        }
+    }
+
+    private static void closeAll ( final List<CachedQuery> entries )
+    {
+        for ( final CachedQuery entry : entries )
+        {
+            entry.close ();
+        }
+    }
+
+    /**
+     * Remove the entry from the cache, if it still is the current entry for
+     * its key
+     */
+    public synchronized void invalidate ( final CachedQuery entry )
+    {
+        if ( this.entries.get ( entry.getKey () ) == entry )
+        {
+            this.entries.remove ( entry.getKey () );
+        }
+    }
+
+    public void dispose ()
+    {
+        final List<CachedQuery> removed;
+
+        synchronized ( this )
+        {
+            this.disposed = true;
+            removed = new ArrayList<CachedQuery> ( this.entries.values () );
+            this.entries.clear ();
+        }
+
+        closeAll ( removed );
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.exporter.http.server.internal;
+
+/**
+ * The key of a cached query
+ * <p>
+ * The value type is not part of the key since one query delivers the values of
+ * all types.
+ * </p>
+ */
+public class QueryKey
+{
+    private final String itemId;
+
+    private final long startTimestamp;
+
+    private final long endTimestamp;
+
+    private final int numberOfEntries;
+
+    public QueryKey ( final String itemId, final long startTimestamp, final long endTimestamp, final int numberOfEntries )
+    {
+        this.itemId = itemId;
+        this.startTimestamp = startTimestamp;
+        this.endTimestamp = endTimestamp;
+        this.numberOfEntries = numberOfEntries;
+    }
+
+    public String getItemId ()
+    {
+        return this.itemId;
+    }
+
+    public long getStartTimestamp ()
+    {
+        return this.startTimestamp;
+    }
+
+    public long getEndTimestamp ()
+    {
+        return this.endTimestamp;
+    }
+
+    public int getNumberOfEntries ()
+    {
+        return this.numberOfEntries;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ( this.itemId == null ? 0 : this.itemId.hashCode () );
+        result = prime * result + (int) ( this.startTimestamp ^ this.startTimestamp >>> 32 );
+        result = prime * result + (int) ( this.endTimestamp ^ this.endTimestamp >>> 32 );
+        result = prime * result + this.numberOfEntries;
+        return result;
+    }
+
+    @Override
+    public boolean equals ( final Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( obj == null )
+        {
+            return false;
+        }
+        if ( getClass () != obj.getClass () )
+        {
+            return false;
+        }
+        final QueryKey other = (QueryKey)obj;
+        if ( this.itemId == null )
+        {
+            if ( other.itemId != null )
+            {
+                return false;
+            }
+        }
+        else if ( !this.itemId.equals ( other.itemId ) )
+        {
+            return false;
+        }
+        return this.startTimestamp == other.startTimestamp && this.endTimestamp == other.endTimestamp && this.numberOfEntries == other.numberOfEntries;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "[itemId: %s, start: %tc, end: %tc, entries: %s]", this.itemId, this.startTimestamp, this.endTimestamp, this.numberOfEntries );
+    }
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.exporter.http.server.internal;
+
+import java.io.IOException;
+import java.util.Date;
+
+import org.eclipse.scada.hd.exporter.http.DataPoint;
+import org.eclipse.scada.hd.exporter.http.HttpExporter;
+
+/**
+ * An exporter which can hand out data points while they are being loaded
+ */
+public interface StreamingHttpExporter extends HttpExporter
+{
+    public interface Receiver
+    {
+        public void dataPoint ( DataPoint dataPoint ) throws IOException;
+    }
+
+    /**
+     * Stream the data points of a query in the order of their timestamps
+     * <p>
+     * The method returns after the last data point was passed to the receiver.
+     * </p>
+     */
+    public void streamData ( String item, String type, Date from, Date to, Integer number, Receiver receiver ) throws Exception;
+}
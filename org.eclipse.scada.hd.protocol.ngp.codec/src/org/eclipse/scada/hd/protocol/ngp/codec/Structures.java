@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - implement security callback system
+ *     IBH SYSTEMS GmbH - encode values of ValueEntry as primitive array
  *******************************************************************************/
 package org.eclipse.scada.hd.protocol.ngp.codec;
 
@@ -446,7 +447,8 @@ public final class Structures
 
         // encode attributes
         context.encodeString ( data, (byte)1, value.getValueType () );
-        context.encodeDoubleCollection ( data, (byte)2, value.getValues () );
+        // NOTE: hand written, the model defines a list, see ValueEntry
+        context.encodeDoubleArray ( data, (byte)2, value.getValues () );
 
     }
 
@@ -458,7 +460,7 @@ public final class Structures
         // decode attributes
 
         String valueType = null;
-        java.util.List<Double> values = null;
+        double[] values = null;
 
         logger.trace ( "Decoding {} fields", numberOfFields );
 
@@ -475,7 +477,8 @@ public final class Structures
                     break;
                 case 2:
                 {
-                    values = _context.decodeDoubleList ( _data );
+                    // NOTE: hand written, the model defines a list, see ValueEntry
+                    values = _context.decodeDoubleArray ( _data );
                 }
                     break;
                 default:
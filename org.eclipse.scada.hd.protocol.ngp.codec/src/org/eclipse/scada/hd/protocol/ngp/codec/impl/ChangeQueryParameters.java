@@ -89,8 +89,7 @@ public class ChangeQueryParameters implements BinaryMessageCodec
     {
         final org.eclipse.scada.hd.data.message.ChangeQueryParameters value = (org.eclipse.scada.hd.data.message.ChangeQueryParameters)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
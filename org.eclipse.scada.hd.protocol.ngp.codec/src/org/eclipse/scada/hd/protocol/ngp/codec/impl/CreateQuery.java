@@ -107,8 +107,7 @@ public class CreateQuery implements BinaryMessageCodec
     {
         final org.eclipse.scada.hd.data.message.CreateQuery value = (org.eclipse.scada.hd.data.message.CreateQuery)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -89,8 +89,7 @@ public class CreateQueryFailure implements BinaryMessageCodec
     {
         final org.eclipse.scada.hd.data.message.CreateQueryFailure value = (org.eclipse.scada.hd.data.message.CreateQueryFailure)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
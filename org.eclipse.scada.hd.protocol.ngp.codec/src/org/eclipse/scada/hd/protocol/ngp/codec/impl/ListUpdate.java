@@ -95,8 +95,7 @@ public class ListUpdate implements BinaryMessageCodec
     {
         final org.eclipse.scada.hd.data.message.ListUpdate value = (org.eclipse.scada.hd.data.message.ListUpdate)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
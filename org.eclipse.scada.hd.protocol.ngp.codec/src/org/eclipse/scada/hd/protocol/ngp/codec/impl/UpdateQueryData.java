@@ -101,8 +101,7 @@ public class UpdateQueryData implements BinaryMessageCodec
     {
         final org.eclipse.scada.hd.data.message.UpdateQueryData value = (org.eclipse.scada.hd.data.message.UpdateQueryData)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
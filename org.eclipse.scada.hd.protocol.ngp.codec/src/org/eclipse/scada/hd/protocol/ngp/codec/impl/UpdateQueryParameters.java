@@ -95,8 +95,7 @@ public class UpdateQueryParameters implements BinaryMessageCodec
     {
         final org.eclipse.scada.hd.data.message.UpdateQueryParameters value = (org.eclipse.scada.hd.data.message.UpdateQueryParameters)objectMessage;
 
-        final IoBuffer data = IoBuffer.allocate ( 64 );
-        data.setAutoExpand ( true );
+        final IoBuffer data = context.allocateMessageBuffer ( MESSAGE_CODE );
 
         // encode message base
         data.putInt ( MESSAGE_CODE );
@@ -270,7 +270,7 @@ public class ServerConnectionImpl extends ServiceServerConnection<Session, Servi
 
             if ( len < getMaxDataSize () )
             {
-                sendQueryDataPacket ( queryId, index, values, valueInformation );
+                sendQueryDataPacket ( queryId, index, values, 0, len, valueInformation );
             }
             else
             {
@@ -287,15 +287,7 @@ public class ServerConnectionImpl extends ServiceServerConnection<Session, Servi
                     // copy vi
                     final List<ValueInformation> vi = new ArrayList<ValueInformation> ( valueInformation.subList ( count, count + size ) );
 
-                    // copy values
-                    final Map<String, List<Double>> v = new HashMap<String, List<Double>> ();
-                    for ( final Map.Entry<String, List<Double>> entry : values.entrySet () )
-                    {
-                        final List<Double> vs = new ArrayList<Double> ( entry.getValue ().subList ( count, count + size ) );
-                        v.put ( entry.getKey (), vs );
-                    }
-
-                    sendQueryDataPacket ( queryId, count, v, vi );
+                    sendQueryDataPacket ( queryId, count, values, count, size, vi );
 
                     count += getMaxDataSize ();
                 } while ( count < len );
@@ -303,17 +295,30 @@ public class ServerConnectionImpl extends ServiceServerConnection<Session, Servi
         }
     }
 
-    private void sendQueryDataPacket ( final long queryId, final int index, final Map<String, List<Double>> values, final List<ValueInformation> valueInformation )
+    private void sendQueryDataPacket ( final long queryId, final int index, final Map<String, List<Double>> values, final int offset, final int size, final List<ValueInformation> valueInformation )
     {
-        final List<ValueEntry> data = new ArrayList<ValueEntry> ();
+        final List<ValueEntry> data = new ArrayList<ValueEntry> ( values.size () );
         for ( final Map.Entry<String, List<Double>> entry : values.entrySet () )
         {
-            data.add ( new ValueEntry ( entry.getKey (), entry.getValue () ) );
+            data.add ( new ValueEntry ( entry.getKey (), toArray ( entry.getValue (), offset, size ) ) );
         }
 
         sendMessage ( new UpdateQueryData ( queryId, index, valueInformation, data ) );
     }
 
+    private static double[] toArray ( final List<Double> values, final int offset, final int size )
+    {
+        final double[] result = new double[size];
+
+        int i = 0;
+        for ( final Double value : values.subList ( offset, offset + size ) )
+        {
+            result[i++] = value == null ? Double.NaN : value;
+        }
+
+        return result;
+    }
+
     public synchronized void sendQueryParameters ( final long queryId, final QueryParameters parameters, final Set<String> valueTypes )
     {
         logger.debug ( "Sending query parameters: {} / {} / {}", new Object[] { queryId, parameters, valueTypes } );
@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.common;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.scada.hd.data.QueryParameters;
+import org.eclipse.scada.hd.data.ValueInformation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AggregateTest
+{
+    /**
+     * A start at a minute boundary
+     */
+    private static final long START = 1_399_999_980_000L;
+
+    private static final long MINUTE = 60_000L;
+
+    @Test
+    public void testSimple ()
+    {
+        final Aggregate aggregate = new Aggregate ( 0, 100 );
+        aggregate.next ( 1.0, -10, false, false );
+        aggregate.next ( 3.0, 50, true, false );
+        aggregate.complete ();
+
+        Assert.assertEquals ( 2.0, aggregate.getAverage (), 0.0001 );
+        Assert.assertEquals ( 1.0, aggregate.getMin (), 0.0 );
+        Assert.assertEquals ( 3.0, aggregate.getMax (), 0.0 );
+        Assert.assertEquals ( 0.5, aggregate.getQuality (), 0.0001 );
+        Assert.assertEquals ( 1, aggregate.getEntryCount () );
+        Assert.assertEquals ( 3.0, aggregate.getLastValue (), 0.0 );
+    }
+
+    @Test
+    public void testMerge ()
+    {
+        final Aggregate all = new Aggregate ( 0, 200 );
+        final Aggregate first = new Aggregate ( 0, 100 );
+
+        final double[] values = new double[] { 1.0, 5.0, 2.0, 8.0, 3.0, 4.0, 7.0, 6.0 };
+        for ( int i = 0; i < 4; i++ )
+        {
+            all.next ( values[i], i * 25, false, false );
+            first.next ( values[i], i * 25, false, false );
+        }
+        first.complete ();
+
+        final Aggregate second = new Aggregate ( 100, 200 );
+        second.init ( first );
+        for ( int i = 4; i < values.length; i++ )
+        {
+            all.next ( values[i], i * 25, false, false );
+            second.next ( values[i], i * 25, false, false );
+        }
+        all.complete ();
+        second.complete ();
+
+        first.merge ( second );
+
+        Assert.assertEquals ( all.getAverage (), first.getAverage (), 0.0001 );
+        Assert.assertEquals ( all.getStdDev (), first.getStdDev (), 0.0001 );
+        Assert.assertEquals ( all.getMin (), first.getMin (), 0.0 );
+        Assert.assertEquals ( all.getMax (), first.getMax (), 0.0 );
+        Assert.assertEquals ( all.getEntryCount (), first.getEntryCount () );
+    }
+
+    /**
+     * Merging the aggregates of a split range must give the same result as
+     * one aggregate of the range, no matter where the range is split
+     */
+    @Test
+    public void testMergeSplit ()
+    {
+        final Random r = new Random ( 0 );
+
+        final Aggregate all = new Aggregate ( 0, 10 * MINUTE );
+        final Aggregate merged = new Aggregate ( 0, 0 );
+        Aggregate current = new Aggregate ( 0, 7_000 );
+
+        all.next ( 0.0, -1000, false, false );
+        current.next ( 0.0, -1000, false, false );
+
+        for ( long t = 0; t < 10 * MINUTE; t += 7_000 + r.nextInt ( 5_000 ) )
+        {
+            final double value = r.nextDouble () * 100.0;
+            while ( t >= current.getEnd () )
+            {
+                current.complete ();
+                merged.merge ( current );
+                final Aggregate next = new Aggregate ( current.getEnd (), Math.min ( 10 * MINUTE, current.getEnd () + 1_000 + r.nextInt ( 20_000 ) ) );
+                next.init ( current );
+                current = next;
+            }
+            all.next ( value, t, false, false );
+            current.next ( value, t, false, false );
+        }
+        while ( current.getEnd () < 10 * MINUTE )
+        {
+            current.complete ();
+            merged.merge ( current );
+            final Aggregate next = new Aggregate ( current.getEnd (), 10 * MINUTE );
+            next.init ( current );
+            current = next;
+        }
+        current.complete ();
+        merged.merge ( current );
+        all.complete ();
+
+        Assert.assertEquals ( all.getAverage (), merged.getAverage (), 0.000001 );
+        Assert.assertEquals ( all.getStdDev (), merged.getStdDev (), 0.000001 );
+        Assert.assertEquals ( all.getMin (), merged.getMin (), 0.0 );
+        Assert.assertEquals ( all.getMax (), merged.getMax (), 0.0 );
+        Assert.assertEquals ( all.getEntryCount (), merged.getEntryCount () );
+    }
+
+    /**
+     * Rendering minute aggregates must give the same result as rendering the
+     * raw values, when the cells are aligned to the aggregates
+     */
+    @Test
+    public void testRenderAggregates ()
+    {
+        assertRenderAggregates ( new QueryParameters ( START, START + 120 * MINUTE, 12 ) );
+    }
+
+    /**
+     * A 1 day query with 1000 entries has cells of 86.4 seconds, the cells are
+     * filled with one full minute and partial minutes at the edges
+     */
+    @Test
+    public void testRenderUnalignedPeriod ()
+    {
+        assertRenderAggregates ( new QueryParameters ( START, START + 24 * 60 * MINUTE, 1000 ) );
+    }
+
+    /**
+     * Cells which don't start at a minute boundary
+     */
+    @Test
+    public void testRenderUnalignedStart ()
+    {
+        assertRenderAggregates ( new QueryParameters ( START + 30_000, START + 30_000 + 120 * MINUTE, 12 ) );
+    }
+
+    /**
+     * A period which does not divide into whole milliseconds
+     */
+    @Test
+    public void testRenderFractionalPeriod ()
+    {
+        assertRenderAggregates ( new QueryParameters ( START + 1_234, START + 1_234 + 100 * MINUTE + 17, 7 ) );
+    }
+
+    @Test
+    public void testCellBoundaries ()
+    {
+        final QueryParameters parameters = new QueryParameters ( START, START + 1_000, 3 );
+        final long[] cells = QueryBuffer.getCellBoundaries ( parameters );
+        Assert.assertArrayEquals ( new long[] { START, START + 333, START + 666, START + 1_000 }, cells );
+    }
+
+    /**
+     * An aggregate spanning more than one cell is ignored
+     */
+    @Test
+    public void testIgnoreCrossingAggregate ()
+    {
+        final TestQueryBuffer buffer = new TestQueryBuffer ( new Date ( START ), new Date ( START + 24 * 60 * MINUTE ), 1000 );
+
+        // the second minute crosses the boundary of the first cell at 86.4s
+        final Aggregate aggregate = new Aggregate ( START + MINUTE, START + 2 * MINUTE );
+        aggregate.next ( 1.0, START + MINUTE, false, false );
+        aggregate.complete ();
+
+        buffer.insertAggregate ( aggregate );
+        buffer.complete ();
+
+        Assert.assertTrue ( buffer.getData ().get ( QueryDataBuffer.AVG )[1].isNaN () );
+        Assert.assertEquals ( 0, buffer.getInformation ()[1].getSourceValues () );
+    }
+
+    /**
+     * Split the cells into full minutes and the partial minutes at their
+     * edges, the same way the storage uses an aggregation level
+     *
+     * @return the boundaries of the segments
+     */
+    private static List<Long> makeSegments ( final QueryParameters parameters, final long width )
+    {
+        final List<Long> result = new ArrayList<> ();
+
+        final long[] cells = QueryBuffer.getCellBoundaries ( parameters );
+        for ( int i = 0; i + 1 < cells.length; i++ )
+        {
+            result.add ( cells[i] );
+            long bucket = cells[i] - cells[i] % width + width;
+            while ( bucket < cells[i + 1] )
+            {
+                result.add ( bucket );
+                bucket += width;
+            }
+        }
+        result.add ( cells[cells.length - 1] );
+
+        return result;
+    }
+
+    /**
+     * Render random values
+     *
+     * @param segments
+     *            the boundaries of the aggregates to render, or
+     *            <code>null</code> to render the raw values
+     */
+    private static TestQueryBuffer render ( final QueryParameters parameters, final List<Long> segments )
+    {
+        final Date start = new Date ( parameters.getStartTimestamp () );
+        final Date end = new Date ( parameters.getEndTimestamp () );
+
+        final TestQueryBuffer buffer = new TestQueryBuffer ( start, end, parameters.getNumberOfEntries () );
+
+        final Random r = new Random ( 0 );
+
+        if ( segments == null )
+        {
+            buffer.insertData ( 0.0, new Date ( start.getTime () - 1000 ), false, false );
+            for ( long t = start.getTime (); t < end.getTime (); t += 7_000 + r.nextInt ( 5_000 ) )
+            {
+                final double value = r.nextDouble () * 100.0;
+                final boolean error = r.nextInt ( 10 ) == 0;
+                buffer.insertData ( value, new Date ( t ), error, false );
+            }
+            buffer.complete ();
+            return buffer;
+        }
+
+        int segment = 0;
+        Aggregate current = new Aggregate ( segments.get ( 0 ), segments.get ( 1 ) );
+        current.next ( 0.0, start.getTime () - 1000, false, false );
+
+        for ( long t = start.getTime (); t < end.getTime (); t += 7_000 + r.nextInt ( 5_000 ) )
+        {
+            final double value = r.nextDouble () * 100.0;
+            final boolean error = r.nextInt ( 10 ) == 0;
+
+            while ( t >= current.getEnd () )
+            {
+                current.complete ();
+                buffer.insertAggregate ( current );
+                segment++;
+                final Aggregate next = new Aggregate ( segments.get ( segment ), segments.get ( segment + 1 ) );
+                next.init ( current );
+                current = next;
+            }
+
+            current.next ( value, t, error, false );
+        }
+        current.complete ();
+        buffer.insertAggregate ( current );
+
+        for ( segment++; segment + 1 < segments.size (); segment++ )
+        {
+            final Aggregate next = new Aggregate ( segments.get ( segment ), segments.get ( segment + 1 ) );
+            next.init ( current );
+            next.complete ();
+            buffer.insertAggregate ( next );
+            current = next;
+        }
+
+        buffer.complete ();
+        return buffer;
+    }
+
+    /**
+     * Render random values from the raw values and from minute aggregates and
+     * compare the results
+     * <p>
+     * The raw rendering counts the last interval of a cell twice for the
+     * standard deviation, so the deviation is compared with one aggregate per
+     * cell instead.
+     * </p>
+     */
+    private void assertRenderAggregates ( final QueryParameters parameters )
+    {
+        final TestQueryBuffer raw = render ( parameters, null );
+        // a width longer than any cell gives one aggregate per cell
+        final TestQueryBuffer cells = render ( parameters, makeSegments ( parameters, Long.MAX_VALUE / 2 ) );
+        final TestQueryBuffer aggregated = render ( parameters, makeSegments ( parameters, MINUTE ) );
+
+        final ValueInformation[] rawInfo = raw.getInformation ();
+        final ValueInformation[] aggInfo = aggregated.getInformation ();
+
+        for ( int i = 0; i < parameters.getNumberOfEntries (); i++ )
+        {
+            Assert.assertEquals ( "Entries#" + i, rawInfo[i].getSourceValues (), aggInfo[i].getSourceValues () );
+            Assert.assertEquals ( rawInfo[i].getQuality (), aggInfo[i].getQuality (), 0.0001 );
+            for ( final String type : new String[] { QueryDataBuffer.AVG, QueryDataBuffer.MIN, QueryDataBuffer.MAX } )
+            {
+                assertValue ( type + "#" + i, raw.getData ().get ( type )[i], aggregated.getData ().get ( type )[i], 0.001 );
+            }
+
+            final Double stdDev = cells.getData ().get ( QueryDataBuffer.STDDEV )[i];
+            assertValue ( "STDDEV#" + i, stdDev, aggregated.getData ().get ( QueryDataBuffer.STDDEV )[i], 0.000001 );
+        }
+    }
+
+    private static void assertValue ( final String message, final Double expected, final Double actual, final double delta )
+    {
+        if ( expected == null || actual == null || expected.isNaN () || actual.isNaN () )
+        {
+            Assert.assertEquals ( message, expected, actual );
+        }
+        else
+        {
+            Assert.assertEquals ( message, expected, actual, delta );
+        }
+    }
+}
@@ -127,6 +127,11 @@ public class TestQueryBuffer
         this.queryBuffer.insertData ( value, timestamp, error, manual );
     }
 
+    public void insertAggregate ( final Aggregate aggregate )
+    {
+        this.queryBuffer.insertAggregate ( aggregate );
+    }
+
     public void close ()
     {
         this.queryBuffer.close ();
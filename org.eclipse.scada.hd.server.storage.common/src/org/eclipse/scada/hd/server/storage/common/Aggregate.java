@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.common;
+
+/**
+ * A mergeable summary of the values of a time range
+ * <p>
+ * The aggregate uses the same semantics as the rendering of the
+ * {@link QueryBuffer}: values are weighted by the time they were active, a
+ * value is active until the next value which is not <code>NaN</code>, and the
+ * value active at the start of the range counts for minimum and maximum.
+ * </p>
+ * <p>
+ * Values must be fed in timestamp order using
+ * {@link #next(double, long, boolean, boolean)}, values before the start of
+ * the range only set the initial state. After the last value
+ * {@link #complete()} must be called. Two adjacent aggregates can be combined
+ * using {@link #merge(Aggregate)}.
+ * </p>
+ * <p>
+ * The mean and the variance are combined using the parallel algorithm found
+ * at <a href=
+ * "http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Parallel_algorithm"
+ * >Algorithms for calculating variance</a>.
+ * </p>
+ */
+public class Aggregate
+{
+    private final long start;
+
+    private long end;
+
+    /**
+     * the current position in time
+     */
+    private long position;
+
+    private double value = Double.NaN;
+
+    private boolean hasState;
+
+    private boolean error;
+
+    private boolean manual;
+
+    private long valueWeight;
+
+    private double mean;
+
+    private double m2;
+
+    private long increments;
+
+    /**
+     * the value active at the start was set before the start
+     */
+    private boolean initialValue;
+
+    /**
+     * the first increment continues the value active before the start
+     */
+    private boolean continued;
+
+    private long stateWeight;
+
+    private double qualitySum;
+
+    private double manualSum;
+
+    private double min = Double.NaN;
+
+    private double max = Double.NaN;
+
+    private long entryCount;
+
+    private boolean completed;
+
+    public Aggregate ( final long start, final long end )
+    {
+        this.start = start;
+        this.end = end;
+        this.position = start;
+    }
+
+    public long getStart ()
+    {
+        return this.start;
+    }
+
+    public long getEnd ()
+    {
+        return this.end;
+    }
+
+    /**
+     * Initialize the aggregate with the state active at the start
+     *
+     * @param value
+     *            the last value which was not <code>NaN</code>
+     * @param error
+     *            the error flag of the last entry
+     * @param manual
+     *            the manual flag of the last entry
+     */
+    public void init ( final double value, final boolean error, final boolean manual )
+    {
+        this.value = value;
+        this.error = error;
+        this.manual = manual;
+        this.hasState = true;
+        this.initialValue = !Double.isNaN ( value );
+        applyMinMax ( value );
+    }
+
+    /**
+     * Initialize the aggregate with the state active at the end of the
+     * provided aggregate
+     */
+    public void init ( final Aggregate previous )
+    {
+        if ( previous != null && previous.hasState )
+        {
+            init ( previous.value, previous.error, previous.manual );
+        }
+    }
+
+    public void next ( final double value, final long timestamp, final boolean error, final boolean manual )
+    {
+        if ( timestamp < this.start )
+        {
+            if ( !Double.isNaN ( value ) )
+            {
+                this.value = value;
+                this.initialValue = true;
+            }
+            this.error = error;
+            this.manual = manual;
+            this.hasState = true;
+            return;
+        }
+
+        if ( timestamp >= this.end )
+        {
+            return;
+        }
+
+        if ( this.position == this.start && this.entryCount == 0 )
+        {
+            // the state before the first value in range counts for min/max
+            applyMinMax ( this.value );
+        }
+
+        advance ( timestamp );
+
+        if ( !Double.isNaN ( value ) )
+        {
+            this.value = value;
+            this.initialValue = false;
+            this.entryCount++;
+            applyMinMax ( value );
+        }
+        this.error = error;
+        this.manual = manual;
+        this.hasState = true;
+    }
+
+    /**
+     * Complete the aggregate up to its end
+     */
+    public void complete ()
+    {
+        if ( this.completed )
+        {
+            return;
+        }
+
+        if ( this.position == this.start && this.entryCount == 0 )
+        {
+            applyMinMax ( this.value );
+        }
+
+        advance ( this.end );
+        this.completed = true;
+    }
+
+    /**
+     * Merge a following aggregate into this one
+     * <p>
+     * After the merge this aggregate covers both ranges and has the end state
+     * of the other aggregate.
+     * </p>
+     *
+     * @param other
+     *            the aggregate following this one
+     */
+    public void merge ( final Aggregate other )
+    {
+        complete ();
+        other.complete ();
+
+        final long weight = this.valueWeight + other.valueWeight;
+        if ( weight > 0 )
+        {
+            final double delta = other.mean - this.mean;
+            this.mean = this.mean + delta * other.valueWeight / weight;
+            this.m2 = this.m2 + other.m2 + delta * delta * ( (double)this.valueWeight * (double)other.valueWeight / weight );
+        }
+        this.valueWeight = weight;
+        this.increments += other.increments;
+        if ( this.increments == other.increments )
+        {
+            this.continued = other.continued;
+        }
+        else if ( other.continued && !Double.isNaN ( this.value ) )
+        {
+            // the value spanning the boundary is one increment, as when rendering without aggregates
+            this.increments--;
+        }
+
+        this.stateWeight += other.stateWeight;
+        this.qualitySum += other.qualitySum;
+        this.manualSum += other.manualSum;
+
+        applyMinMax ( other.min );
+        applyMinMax ( other.max );
+
+        this.entryCount += other.entryCount;
+
+        if ( other.hasState )
+        {
+            this.value = other.value;
+            this.error = other.error;
+            this.manual = other.manual;
+            this.hasState = true;
+        }
+
+        this.end = Math.max ( this.end, other.end );
+        this.position = this.end;
+    }
+
+    private void advance ( final long timestamp )
+    {
+        final long offset = timestamp - this.position;
+        if ( offset <= 0 )
+        {
+            return;
+        }
+
+        if ( !Double.isNaN ( this.value ) )
+        {
+            // weighted incremental variance, same as the RunningAverage
+            final long weight = this.valueWeight + offset;
+            final double delta = this.value - this.mean;
+            final double r = delta * offset / weight;
+            this.mean = this.mean + r;
+            this.m2 = this.m2 + this.valueWeight * delta * r;
+            this.valueWeight = weight;
+            if ( this.increments == 0 )
+            {
+                this.continued = this.position == this.start && this.initialValue;
+            }
+            this.increments++;
+        }
+
+        if ( this.hasState )
+        {
+            this.stateWeight += offset;
+            if ( !this.error )
+            {
+                this.qualitySum += offset;
+            }
+            if ( this.manual )
+            {
+                this.manualSum += offset;
+            }
+        }
+
+        this.position = timestamp;
+    }
+
+    private void applyMinMax ( final double value )
+    {
+        if ( Double.isNaN ( value ) )
+        {
+            return;
+        }
+        if ( Double.isNaN ( this.min ) || Double.compare ( value, this.min ) < 0 )
+        {
+            this.min = value;
+        }
+        if ( Double.isNaN ( this.max ) || Double.compare ( value, this.max ) > 0 )
+        {
+            this.max = value;
+        }
+    }
+
+    public double getAverage ()
+    {
+        if ( this.valueWeight <= 0 )
+        {
+            return Double.NaN;
+        }
+        return this.mean;
+    }
+
+    public double getStdDev ()
+    {
+        if ( this.valueWeight <= 0 )
+        {
+            return Double.NaN;
+        }
+        if ( this.increments < 2 )
+        {
+            return 0.0;
+        }
+        final double variance = this.m2 / this.valueWeight * this.increments / ( this.increments - 1 );
+        return Math.sqrt ( Math.max ( 0.0, variance ) );
+    }
+
+    public double getQuality ()
+    {
+        if ( this.stateWeight <= 0 )
+        {
+            return Double.NaN;
+        }
+        return this.qualitySum / this.stateWeight;
+    }
+
+    public double getManual ()
+    {
+        if ( this.stateWeight <= 0 )
+        {
+            return Double.NaN;
+        }
+        return this.manualSum / this.stateWeight;
+    }
+
+    public double getMin ()
+    {
+        return this.min;
+    }
+
+    public double getMax ()
+    {
+        return this.max;
+    }
+
+    public long getEntryCount ()
+    {
+        return this.entryCount;
+    }
+
+    /**
+     * @return <code>true</code> if there is a state at the end of the
+     *         aggregate
+     */
+    public boolean hasState ()
+    {
+        return this.hasState;
+    }
+
+    /**
+     * @return the last value which was not <code>NaN</code>
+     */
+    public double getLastValue ()
+    {
+        return this.value;
+    }
+
+    public boolean isLastError ()
+    {
+        return this.error;
+    }
+
+    public boolean isLastManual ()
+    {
+        return this.manual;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return String.format ( "[start: %tc, end: %tc, avg: %s, min: %s, max: %s, count: %s]", this.start, this.end, getAverage (), this.min, this.max, this.entryCount );
+    }
+}
@@ -0,0 +1,24 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.common;
+
+public interface AggregateVisitor
+{
+    /**
+     * Receive the next aggregate
+     *
+     * @param aggregate
+     *            the aggregate, in ascending order of time
+     * @return <code>true</code> to continue, <code>false</code> to abort the
+     *         run
+     */
+    public boolean aggregate ( Aggregate aggregate );
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.common;
+
+import org.eclipse.scada.hd.data.QueryParameters;
+
+/**
+ * A value source which can provide pre-aggregated data
+ */
+public interface AggregatingValueSourceManager extends ValueSourceManager
+{
+    /**
+     * Check if the query can be served with aggregates
+     *
+     * @param parameters
+     *            the query parameters
+     * @return <code>true</code> if the aggregates are fine enough for the
+     *         requested number of entries
+     */
+    public boolean canAggregate ( QueryParameters parameters );
+
+    /**
+     * Visit aggregates
+     *
+     * @param parameters
+     *            the parameters to visit
+     * @param visitor
+     *            the visitor
+     * @return <code>true</code> if the run was complete, <code>false</code> if
+     *         is was aborted by the visitor
+     */
+    public boolean visitAggregates ( QueryParameters parameters, AggregateVisitor visitor );
+}
@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - render pre-aggregated data
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.common;
 
@@ -128,11 +129,28 @@ public class QueryBuffer extends QueryDataBuffer
 
         private long entryCount;
 
+        private Aggregate aggregate;
+
         public Data ( final Date start, final Date end )
         {
             super ( start, end );
         }
 
+        public void addAggregate ( final Aggregate aggregate )
+        {
+            if ( this.aggregate == null )
+            {
+                // never modify the provided aggregate, it may be shared
+                this.aggregate = new Aggregate ( aggregate.getStart (), aggregate.getStart () );
+            }
+            this.aggregate.merge ( aggregate );
+        }
+
+        public Aggregate getAggregate ()
+        {
+            return this.aggregate;
+        }
+
         public void add ( final Entry entry )
         {
             if ( !entry.getTimestamp ().before ( this.start ) && entry.getTimestamp ().before ( this.end ) )
@@ -149,6 +167,10 @@ public class QueryBuffer extends QueryDataBuffer
         @Override
         public long getEntryCount ()
         {
+            if ( this.aggregate != null )
+            {
+                return this.entryCount + this.aggregate.getEntryCount ();
+            }
             return this.entryCount;
         }
 
@@ -257,6 +279,107 @@ public class QueryBuffer extends QueryDataBuffer
         }
     }
 
+    /**
+     * Get the boundaries of the cells of a query
+     * <p>
+     * The boundaries are calculated the same way the cells of the buffer are
+     * created. Cell <code>i</code> starts at index <code>i</code> and ends at
+     * index <code>i + 1</code> of the result.
+     * </p>
+     *
+     * @param parameters
+     *            the query parameters
+     * @return the boundaries, one more than the number of entries
+     */
+    public static long[] getCellBoundaries ( final QueryParameters parameters )
+    {
+        final int entries = Math.max ( 0, parameters.getNumberOfEntries () );
+        final long start = parameters.getStartTimestamp ();
+        final long[] result = new long[entries + 1];
+
+        // same arithmetic as fillDataCells
+        final double period = (double) ( parameters.getEndTimestamp () - start ) / (double)entries;
+        double counter = 0;
+        result[0] = start;
+        for ( int i = 0; i < entries; i++ )
+        {
+            result[i + 1] = (long) ( start + ( counter + period ) );
+            counter += period;
+        }
+        return result;
+    }
+
+    /**
+     * Insert pre-aggregated data when loading
+     * <p>
+     * The aggregate is assigned to the cell containing its start. It must not
+     * span more than one cell, see {@link #getCellBoundaries(QueryParameters)}
+     * . The aggregates of a cell must be inserted in order and must cover the
+     * cell without gaps, starting at the start of the cell.
+     * </p>
+     */
+    public synchronized void insertAggregate ( final Aggregate aggregate )
+    {
+        logger.debug ( "Received new aggregate: {}", aggregate );
+
+        if ( this.parameters == null )
+        {
+            throw new IllegalStateException ( "Received data before parameter update" );
+        }
+
+        if ( aggregate.getEnd () <= this.parameters.getStartTimestamp () || aggregate.getStart () > this.parameters.getEndTimestamp () )
+        {
+            return;
+        }
+
+        final int i = findCell ( aggregate.getStart () );
+        if ( i < 0 )
+        {
+            return;
+        }
+
+        if ( aggregate.getEnd () > this.data[i].getEnd ().getTime () )
+        {
+            logger.warn ( "Ignoring aggregate {} which spans more than one cell", aggregate );
+            return;
+        }
+
+        this.data[i].addAggregate ( aggregate );
+    }
+
+    /**
+     * Find the cell containing the timestamp
+     * <p>
+     * The index is calculated like {@link #getDataIndex(Date)}, but corrected
+     * by the actual cell boundaries, which may differ by rounding.
+     * </p>
+     *
+     * @return the index or <code>-1</code> if no cell contains the timestamp
+     */
+    private int findCell ( final long timestamp )
+    {
+        int i = Math.min ( getDataIndex ( new Date ( timestamp ) ), this.data.length - 1 );
+        if ( i < 0 )
+        {
+            return -1;
+        }
+
+        while ( i > 0 && timestamp < this.data[i].getStart ().getTime () )
+        {
+            i--;
+        }
+        while ( i < this.data.length - 1 && timestamp >= this.data[i].getEnd ().getTime () )
+        {
+            i++;
+        }
+
+        if ( timestamp < this.data[i].getStart ().getTime () || timestamp >= this.data[i].getEnd ().getTime () )
+        {
+            return -1;
+        }
+        return i;
+    }
+
     /**
      * Render buffer from provided start index to the end of the buffer
      * 
@@ -301,6 +424,33 @@ public class QueryBuffer extends QueryDataBuffer
 
         for ( int i = startIndex; i < endIndex; i++ )
         {
+            if ( this.data[i].getAggregate () != null )
+            {
+                final Aggregate aggregate = renderAggregate ( this.data[i] );
+                final long end = this.data[i].getEnd ().getTime ();
+
+                this.data[i].setAverage ( aggregate.getAverage () );
+                this.data[i].setStdDev ( aggregate.getStdDev () );
+                this.data[i].setQuality ( aggregate.getQuality () );
+                this.data[i].setManual ( aggregate.getManual () );
+                this.data[i].setMin ( aggregate.getMin () );
+                this.data[i].setMax ( aggregate.getMax () );
+
+                // carry the final state over to the next cell
+                if ( aggregate.hasState () )
+                {
+                    quality.next ( aggregate.isLastError () ? 0.0 : 1.0, end );
+                    manual.next ( aggregate.isLastManual () ? 1.0 : 0.0, end );
+                    if ( !Double.isNaN ( aggregate.getLastValue () ) )
+                    {
+                        avg.next ( aggregate.getLastValue (), end );
+                        currentEntry = new Entry ( aggregate.getLastValue (), new Date ( end ), aggregate.isLastError (), aggregate.isLastManual () );
+                        min = max = currentEntry.getValue ();
+                    }
+                }
+                continue;
+            }
+
             // reset to start of cell
             avg.step ( this.data[i].getStart ().getTime () );
             quality.step ( this.data[i].getStart ().getTime () );
@@ -343,6 +493,35 @@ public class QueryBuffer extends QueryDataBuffer
         notifyData ( startIndex, endIndex );
     }
 
+    /**
+     * Combine the aggregate of a cell with the raw entries following it
+     */
+    private Aggregate renderAggregate ( final Data data )
+    {
+        final Aggregate result = new Aggregate ( data.getAggregate ().getStart (), data.getAggregate ().getStart () );
+        result.merge ( data.getAggregate () );
+
+        final long rawStart = Math.max ( result.getEnd (), data.getStart ().getTime () );
+        final long end = data.getEnd ().getTime ();
+
+        if ( rawStart < end )
+        {
+            final Aggregate raw = new Aggregate ( rawStart, end );
+            raw.init ( result );
+            for ( final Entry entry : data.getEntries () )
+            {
+                if ( entry.getTimestamp ().getTime () >= rawStart )
+                {
+                    raw.next ( entry.getValue (), entry.getTimestamp ().getTime (), entry.isError (), entry.isManual () );
+                }
+            }
+            raw.complete ();
+            result.merge ( raw );
+        }
+
+        return result;
+    }
+
     protected Entry findPreviousEntry ( final int i )
     {
         if ( i <= 0 )
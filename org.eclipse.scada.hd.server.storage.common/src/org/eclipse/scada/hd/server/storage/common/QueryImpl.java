@@ -9,11 +9,12 @@
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - fixing bug #430172
+ *     IBH SYSTEMS GmbH - allow plain executors for loading, load aggregates
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.common;
 
 import java.util.Date;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -31,7 +32,7 @@ public class QueryImpl implements Query
 
     private final ValueSourceManager storage;
 
-    private final ExecutorService executor;
+    private final Executor executor;
 
     private final QueryListener listener;
 
@@ -106,7 +107,8 @@ public class QueryImpl implements Query
      * @param storage
      *            the value source manager
      * @param executor
-     *            a single threaded executor for posting events
+     *            the executor used for loading data, must not run two loads
+     *            of this query in parallel
      * @param eventExecutor
      * @param parameters
      *            the initial query parameters
@@ -121,7 +123,7 @@ public class QueryImpl implements Query
      *            an optional fixed end date after which all query data is
      *            invalid
      */
-    public QueryImpl ( final ValueSourceManager storage, final ScheduledExecutorService executor, final ScheduledExecutorService eventExecutor, final QueryParameters parameters, final QueryListener listener, final boolean updateData, final Date fixedStartDate, final Date fixedEndDate )
+    public QueryImpl ( final ValueSourceManager storage, final Executor executor, final ScheduledExecutorService eventExecutor, final QueryParameters parameters, final QueryListener listener, final boolean updateData, final Date fixedStartDate, final Date fixedEndDate )
     {
         this.storage = storage;
         this.executor = executor;
@@ -276,7 +278,7 @@ public class QueryImpl implements Query
     {
         logger.info ( "Starting load" );
 
-        this.executor.submit ( new Runnable () {
+        this.executor.execute ( new Runnable () {
             @Override
             public void run ()
             {
@@ -327,20 +329,43 @@ public class QueryImpl implements Query
             logger.debug ( "Processing: {}", current );
 
             this.buffer.changeParameters ( current.getParameters () );
-            final boolean complete = this.storage.visit ( current.getParameters (), new ValueVisitor () {
-
-                @Override
-                public boolean value ( final double value, final Date date, final boolean error, final boolean manual )
-                {
-                    QueryImpl.this.buffer.insertData ( value, date, error, manual );
-                    final boolean result = shouldContinue ( current.getParameters () );
-                    if ( !result )
+
+            final boolean complete;
+            if ( this.storage instanceof AggregatingValueSourceManager && ( (AggregatingValueSourceManager)this.storage ).canAggregate ( current.getParameters () ) )
+            {
+                logger.debug ( "Loading aggregates" );
+                complete = ( (AggregatingValueSourceManager)this.storage ).visitAggregates ( current.getParameters (), new AggregateVisitor () {
+
+                    @Override
+                    public boolean aggregate ( final Aggregate aggregate )
                     {
-                        logger.info ( "Requesting early stop" );
+                        QueryImpl.this.buffer.insertAggregate ( aggregate );
+                        final boolean result = shouldContinue ( current.getParameters () );
+                        if ( !result )
+                        {
+                            logger.info ( "Requesting early stop" );
+                        }
+                        return result;
                     }
-                    return result;
-                }
-            } );
+                } );
+            }
+            else
+            {
+                complete = this.storage.visit ( current.getParameters (), new ValueVisitor () {
+
+                    @Override
+                    public boolean value ( final double value, final Date date, final boolean error, final boolean manual )
+                    {
+                        QueryImpl.this.buffer.insertData ( value, date, error, manual );
+                        final boolean result = shouldContinue ( current.getParameters () );
+                        if ( !result )
+                        {
+                            logger.info ( "Requesting early stop" );
+                        }
+                        return result;
+                    }
+                } );
+            }
 
             if ( complete )
             {
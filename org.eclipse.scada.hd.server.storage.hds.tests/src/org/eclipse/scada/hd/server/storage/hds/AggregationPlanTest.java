@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.hds;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.scada.hd.data.QueryParameters;
+import org.eclipse.scada.hd.server.storage.common.QueryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AggregationPlanTest
+{
+    private static final long MINUTE = 60_000L;
+
+    private static final long HOUR = 60 * MINUTE;
+
+    private static final long DAY = 24 * HOUR;
+
+    /**
+     * Not at a boundary of any level
+     */
+    private static final long START = 1_400_000_012_345L;
+
+    private final AggregationLevel days = new AggregationLevel ( DAY, 100 );
+
+    private final AggregationLevel hours = new AggregationLevel ( HOUR, 100 );
+
+    private final AggregationLevel minutes = new AggregationLevel ( MINUTE, 100 );
+
+    private final List<AggregationLevel> levels = Arrays.asList ( this.days, this.hours, this.minutes );
+
+    /**
+     * Sum up the time covered by the segments of a level
+     */
+    private static long covered ( final List<AggregationPlan.Segment> segments, final AggregationLevel level )
+    {
+        long result = 0;
+        for ( final AggregationPlan.Segment segment : segments )
+        {
+            if ( segment.getLevel () == level )
+            {
+                result += segment.getEnd () - segment.getStart ();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The segments must cover the query without gaps, must not cross cells
+     * and level segments must match their buckets
+     */
+    private static void assertSegments ( final QueryParameters parameters, final List<AggregationPlan.Segment> segments )
+    {
+        final long[] cells = QueryBuffer.getCellBoundaries ( parameters );
+
+        int cell = 0;
+        long position = parameters.getStartTimestamp ();
+        for ( final AggregationPlan.Segment segment : segments )
+        {
+            Assert.assertEquals ( position, segment.getStart () );
+            Assert.assertTrue ( segment.getStart () < segment.getEnd () );
+
+            while ( segment.getStart () >= cells[cell + 1] )
+            {
+                cell++;
+            }
+            Assert.assertTrue ( "Segment crosses cell: " + segment, segment.getEnd () <= cells[cell + 1] );
+
+            if ( segment.getLevel () != null )
+            {
+                Assert.assertEquals ( segment.getLevel ().getStart ( segment.getIndex () ), segment.getStart () );
+                Assert.assertEquals ( segment.getLevel ().getStart ( segment.getIndex () + 1 ), segment.getEnd () );
+            }
+
+            position = segment.getEnd ();
+        }
+        Assert.assertEquals ( cells[cells.length - 1], position );
+    }
+
+    /**
+     * One year with 1000 entries gives cells of 31536 seconds, which do not
+     * line up with any level. The cells are still filled mostly with hours.
+     */
+    @Test
+    public void testYear ()
+    {
+        final QueryParameters parameters = new QueryParameters ( START, START + 365 * DAY, 1000 );
+        final List<AggregationPlan.Segment> segments = new AggregationPlan ( this.levels, parameters ).getSegments ();
+
+        assertSegments ( parameters, segments );
+
+        final long span = parameters.getEndTimestamp () - parameters.getStartTimestamp ();
+
+        // days are longer than the cells
+        Assert.assertEquals ( 0, covered ( segments, this.days ) );
+
+        // at least 7 of the 8.76 hours of each cell come from hour buckets
+        Assert.assertTrue ( covered ( segments, this.hours ) > span * 7 / 9 );
+
+        // only partial minutes at the edges of the cells are read from the native values
+        Assert.assertTrue ( covered ( segments, null ) <= 1000 * 2 * MINUTE );
+    }
+
+    /**
+     * One day with 1000 entries gives cells of 86.4 seconds, each one gets a
+     * full minute at most
+     */
+    @Test
+    public void testDay ()
+    {
+        final QueryParameters parameters = new QueryParameters ( START, START + DAY, 1000 );
+        final List<AggregationPlan.Segment> segments = new AggregationPlan ( this.levels, parameters ).getSegments ();
+
+        assertSegments ( parameters, segments );
+
+        Assert.assertEquals ( 0, covered ( segments, this.hours ) );
+        Assert.assertTrue ( covered ( segments, this.minutes ) > 0 );
+    }
+
+    /**
+     * Aligned cells are filled with buckets only
+     */
+    @Test
+    public void testAligned ()
+    {
+        final long start = this.days.getStart ( this.days.index ( START ) );
+        final QueryParameters parameters = new QueryParameters ( start, start + 10 * DAY, 10 );
+        final List<AggregationPlan.Segment> segments = new AggregationPlan ( this.levels, parameters ).getSegments ();
+
+        assertSegments ( parameters, segments );
+
+        Assert.assertEquals ( 10, segments.size () );
+        Assert.assertEquals ( 10 * DAY, covered ( segments, this.days ) );
+    }
+
+    /**
+     * Without levels everything is read from the native values
+     */
+    @Test
+    public void testNoLevels ()
+    {
+        final QueryParameters parameters = new QueryParameters ( START, START + DAY, 7 );
+        final List<AggregationPlan.Segment> segments = new AggregationPlan ( Arrays.<AggregationLevel> asList (), parameters ).getSegments ();
+
+        assertSegments ( parameters, segments );
+
+        Assert.assertEquals ( 7, segments.size () );
+    }
+}
@@ -8,14 +8,19 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - parallel query scheduling, aggregation levels
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.hds;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -34,8 +39,10 @@ import org.eclipse.scada.hd.QueryListener;
 import org.eclipse.scada.hd.data.HistoricalItemInformation;
 import org.eclipse.scada.hd.data.QueryParameters;
 import org.eclipse.scada.hd.server.common.HistoricalItem;
+import org.eclipse.scada.hd.server.storage.common.Aggregate;
+import org.eclipse.scada.hd.server.storage.common.AggregateVisitor;
+import org.eclipse.scada.hd.server.storage.common.AggregatingValueSourceManager;
 import org.eclipse.scada.hd.server.storage.common.QueryImpl;
-import org.eclipse.scada.hd.server.storage.common.ValueSourceManager;
 import org.eclipse.scada.hds.DataFilePool;
 import org.eclipse.scada.hds.DataStoreAccesor;
 import org.eclipse.scada.hds.DataStoreListener;
@@ -44,7 +51,7 @@ import org.eclipse.scada.utils.concurrent.FutureTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public abstract class AbstractStorageImpl implements HistoricalItem, ValueSourceManager
+public abstract class AbstractStorageImpl implements HistoricalItem, AggregatingValueSourceManager
 {
 
     private final static Logger logger = LoggerFactory.getLogger ( AbstractStorageImpl.class );
@@ -63,9 +70,11 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
 
     private boolean disposed;
 
-    private final ScheduledExecutorService queryExecutor;
+    private final QueryScheduler queryScheduler;
 
-    private final Set<QueryImpl> queries = new HashSet<QueryImpl> ();
+    private final QueryStatistics queryStatistics = new QueryStatistics ();
+
+    private final Map<QueryImpl, QueryScheduler.Lane> queries = new HashMap<QueryImpl, QueryScheduler.Lane> ();
 
     private final Set<Future<?>> jobs = new CopyOnWriteArraySet<Future<?>> ();
 
@@ -75,26 +84,75 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
 
     private final ScheduledExecutorService eventExecutor;
 
-    public AbstractStorageImpl ( final File file, final DataFilePool pool, final ScheduledExecutorService queryExecutor, final ScheduledExecutorService eventExecutor ) throws Exception
+    /**
+     * Aggregation levels, ordered from coarse to fine
+     */
+    private final List<AggregationLevel> levels;
+
+    private final boolean useNaNs = Boolean.getBoolean ( "org.eclipse.scada.hd.server.storage.hds.useNaNs" );
+
+    public AbstractStorageImpl ( final File file, final DataFilePool pool, final QueryScheduler queryScheduler, final ScheduledExecutorService eventExecutor ) throws Exception
     {
         this.file = file;
 
-        this.queryExecutor = queryExecutor;
+        this.queryScheduler = queryScheduler;
         this.eventExecutor = eventExecutor;
 
         final Properties p = new Properties ();
         p.loadFromXML ( new FileInputStream ( new File ( file, "settings.xml" ) ) );
         this.id = p.getProperty ( "id" );
 
+        this.levels = createLevels ( System.getProperty ( "org.eclipse.scada.hd.server.storage.hds.aggregationLevels", "" ), Integer.getInteger ( "org.eclipse.scada.hd.server.storage.hds.aggregationCacheSize", 10000 ) );
+
         this.nativeLevel = new DataStoreAccesor ( new File ( file, "native" ), pool );
         this.nativeLevel.addListener ( new DataStoreListener () {
 
             @Override
             public void storeChanged ( final Date start, final Date end )
             {
+                invalidateLevels ( start.getTime () );
                 handleStoreChanged ( start, end );
             }
         } );
+
+        this.queryStatistics.register ( this.id );
+    }
+
+    private static List<AggregationLevel> createLevels ( final String widths, final int cacheSize )
+    {
+        final List<AggregationLevel> result = new ArrayList<AggregationLevel> ();
+
+        for ( final String width : widths.split ( "," ) )
+        {
+            if ( width.trim ().isEmpty () )
+            {
+                continue;
+            }
+
+            try
+            {
+                final long value = Long.parseLong ( width.trim () );
+                if ( value > 0 )
+                {
+                    result.add ( new AggregationLevel ( value, cacheSize ) );
+                }
+            }
+            catch ( final NumberFormatException e )
+            {
+                logger.warn ( "Invalid aggregation level: {}", width );
+            }
+        }
+
+        Collections.sort ( result, new Comparator<AggregationLevel> () {
+
+            @Override
+            public int compare ( final AggregationLevel o1, final AggregationLevel o2 )
+            {
+                return Long.compare ( o2.getWidth (), o1.getWidth () );
+            }
+        } );
+
+        return result;
     }
 
     protected void addJob ( final FutureTask<Void> task )
@@ -116,6 +174,16 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
         }
     }
 
+    /**
+     * Get the query statistics of this storage
+     *
+     * @return the query statistics, never <code>null</code>
+     */
+    public QueryStatisticsMXBean getQueryStatistics ()
+    {
+        return this.queryStatistics;
+    }
+
     public StorageInformation getStorageInformation ()
     {
         final StorageConfiguration configuration = new StorageConfiguration ( this.nativeLevel.getTimeSlice (), this.nativeLevel.getCount () );
@@ -131,21 +199,21 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
         return info;
     }
 
-    protected static interface QueryRunnable
+    private static interface QueryRunnable
     {
-        public void run ( final QueryImpl query ) throws Exception;
+        public void run ( final QueryImpl query, final QueryScheduler.Lane lane ) throws Exception;
     }
 
-    protected void runOnQuery ( final QueryRunnable runnable )
+    private void runOnQuery ( final QueryRunnable runnable )
     {
         this.readLock.lock ();
         try
         {
-            for ( final QueryImpl query : this.queries )
+            for ( final Map.Entry<QueryImpl, QueryScheduler.Lane> entry : this.queries.entrySet () )
             {
                 try
                 {
-                    runnable.run ( query );
+                    runnable.run ( entry.getKey (), entry.getValue () );
                 }
                 catch ( final Exception e )
                 {
@@ -166,11 +234,11 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
         runOnQuery ( new QueryRunnable () {
 
             @Override
-            public void run ( final QueryImpl query ) throws Exception
+            public void run ( final QueryImpl query, final QueryScheduler.Lane lane ) throws Exception
             {
                 if ( query.isUpdateData () )
                 {
-                    AbstractStorageImpl.this.queryExecutor.execute ( new Runnable () {
+                    lane.executeLive ( new Runnable () {
                         @Override
                         public void run ()
                         {
@@ -184,14 +252,16 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
 
     protected void notifyData ( final double value, final Date timestamp, final boolean error, final boolean manual )
     {
+        invalidateLevels ( timestamp.getTime () );
+
         runOnQuery ( new QueryRunnable () {
 
             @Override
-            public void run ( final QueryImpl query ) throws Exception
+            public void run ( final QueryImpl query, final QueryScheduler.Lane lane ) throws Exception
             {
                 if ( query.isUpdateData () )
                 {
-                    AbstractStorageImpl.this.queryExecutor.execute ( new Runnable () {
+                    lane.executeLive ( new Runnable () {
                         @Override
                         public void run ()
                         {
@@ -216,9 +286,10 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
                 return null;
             }
 
-            final QueryImpl query = new QueryImpl ( this, this.queryExecutor, this.eventExecutor, parameters, listener, updateData, null, null );
+            final QueryScheduler.Lane lane = this.queryScheduler.createLane ( this.queryStatistics );
+            final QueryImpl query = new QueryImpl ( this, lane.getLoadExecutor (), this.eventExecutor, parameters, listener, updateData, null, null );
 
-            this.queries.add ( query );
+            this.queries.put ( query, lane );
 
             return query;
         }
@@ -234,7 +305,12 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
         this.writeLock.lock ();
         try
         {
-            this.queries.remove ( query );
+            final QueryScheduler.Lane lane = this.queries.remove ( query );
+            if ( lane != null )
+            {
+                // drop pending loads and updates
+                lane.close ();
+            }
         }
         finally
         {
@@ -250,6 +326,245 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
         return this.nativeLevel.visit ( visitor, new Date ( parameters.getStartTimestamp () ), new Date ( parameters.getEndTimestamp () ) );
     }
 
+    /**
+     * Invalidate all aggregated buckets starting at the timestamp
+     */
+    protected void invalidateLevels ( final long timestamp )
+    {
+        for ( final AggregationLevel level : this.levels )
+        {
+            level.invalidate ( timestamp );
+        }
+    }
+
+    /**
+     * Find the levels which can be used for the query
+     * <p>
+     * These are all levels which are not coarser than the requested entries.
+     * Coarser buckets would never be fully covered by an entry.
+     * </p>
+     *
+     * @return the usable levels, coarsest level first, may be empty
+     */
+    private List<AggregationLevel> findLevels ( final QueryParameters parameters )
+    {
+        if ( this.useNaNs || parameters.getNumberOfEntries () <= 0 )
+        {
+            // NaN values would need to be part of the average
+            return Collections.emptyList ();
+        }
+
+        final double period = (double) ( parameters.getEndTimestamp () - parameters.getStartTimestamp () ) / (double)parameters.getNumberOfEntries ();
+
+        for ( int i = 0; i < this.levels.size (); i++ )
+        {
+            if ( this.levels.get ( i ).getWidth () <= period )
+            {
+                return this.levels.subList ( i, this.levels.size () );
+            }
+        }
+        return Collections.emptyList ();
+    }
+
+    @Override
+    public boolean canAggregate ( final QueryParameters parameters )
+    {
+        return !findLevels ( parameters ).isEmpty ();
+    }
+
+    @Override
+    public boolean visitAggregates ( final QueryParameters parameters, final AggregateVisitor visitor )
+    {
+        final List<AggregationLevel> levels = findLevels ( parameters );
+        if ( levels.isEmpty () )
+        {
+            throw new IllegalStateException ( "No aggregation level available for query" );
+        }
+
+        logger.debug ( "Visiting aggregates - level: {}, parameters: {}", levels.get ( 0 ).getWidth (), parameters );
+
+        final long now = System.currentTimeMillis ();
+        final List<AggregationPlan.Segment> segments = new AggregationPlan ( levels, parameters ).getSegments ();
+
+        int i = 0;
+        while ( i < segments.size () )
+        {
+            final Aggregate aggregate = getCached ( segments.get ( i ) );
+            if ( aggregate != null )
+            {
+                if ( !visitor.aggregate ( aggregate ) )
+                {
+                    return false;
+                }
+                i++;
+                continue;
+            }
+
+            // load the run of missing buckets and partial segments with one pass
+            int runEnd = i + 1;
+            while ( runEnd < segments.size () && getCached ( segments.get ( runEnd ) ) == null )
+            {
+                runEnd++;
+            }
+
+            if ( !loadSegments ( segments.subList ( i, runEnd ), now, visitor ) )
+            {
+                return false;
+            }
+            i = runEnd;
+        }
+
+        return true;
+    }
+
+    private static Aggregate getCached ( final AggregationPlan.Segment segment )
+    {
+        if ( segment.getLevel () == null )
+        {
+            return null;
+        }
+        return segment.getLevel ().get ( segment.getIndex () );
+    }
+
+    private boolean loadSegments ( final List<AggregationPlan.Segment> segments, final long now, final AggregateVisitor visitor )
+    {
+        final long start = segments.get ( 0 ).getStart ();
+        if ( start >= now )
+        {
+            // there is no data in the future
+            return true;
+        }
+
+        final long end = Math.min ( segments.get ( segments.size () - 1 ).getEnd (), now );
+
+        final SegmentBuilder builder = new SegmentBuilder ( segments, now, visitor );
+        if ( !this.nativeLevel.visit ( builder, new Date ( start ), new Date ( end ) ) )
+        {
+            return false;
+        }
+        return builder.finish ();
+    }
+
+    /**
+     * Split a stream of native values into the aggregates of a run of
+     * segments
+     * <p>
+     * Complete buckets are put into the cache of their level.
+     * </p>
+     */
+    private static class SegmentBuilder implements ValueVisitor
+    {
+        private final List<AggregationPlan.Segment> segments;
+
+        private final long now;
+
+        private final Map<AggregationLevel, Long> generations = new HashMap<AggregationLevel, Long> ();
+
+        private final AggregateVisitor visitor;
+
+        private int index;
+
+        private Aggregate current;
+
+        private boolean aborted;
+
+        public SegmentBuilder ( final List<AggregationPlan.Segment> segments, final long now, final AggregateVisitor visitor )
+        {
+            this.segments = segments;
+            this.now = now;
+            this.visitor = visitor;
+
+            for ( final AggregationPlan.Segment segment : segments )
+            {
+                if ( segment.getLevel () != null && !this.generations.containsKey ( segment.getLevel () ) )
+                {
+                    this.generations.put ( segment.getLevel (), segment.getLevel ().getGeneration () );
+                }
+            }
+
+            this.index = 0;
+            this.current = makeAggregate ( segments.get ( 0 ) );
+        }
+
+        private Aggregate makeAggregate ( final AggregationPlan.Segment segment )
+        {
+            return new Aggregate ( segment.getStart (), Math.min ( segment.getEnd (), Math.max ( segment.getStart (), this.now ) ) );
+        }
+
+        private boolean isLast ()
+        {
+            return this.index >= this.segments.size () - 1;
+        }
+
+        @Override
+        public boolean value ( final double value, final Date date, final boolean error, final boolean manual )
+        {
+            final long timestamp = date.getTime ();
+
+            while ( timestamp >= this.current.getEnd () && !isLast () )
+            {
+                if ( !emit () )
+                {
+                    return false;
+                }
+            }
+
+            this.current.next ( value, timestamp, error, manual );
+            return true;
+        }
+
+        /**
+         * Complete the current segment and start the next one
+         */
+        private boolean emit ()
+        {
+            complete ();
+
+            if ( !this.visitor.aggregate ( this.current ) )
+            {
+                this.aborted = true;
+                return false;
+            }
+
+            final Aggregate previous = this.current;
+            this.index++;
+            this.current = makeAggregate ( this.segments.get ( this.index ) );
+            this.current.init ( previous );
+            return true;
+        }
+
+        private void complete ()
+        {
+            this.current.complete ();
+
+            final AggregationPlan.Segment segment = this.segments.get ( this.index );
+            if ( segment.getLevel () != null && segment.getEnd () <= this.now )
+            {
+                segment.getLevel ().put ( segment.getIndex (), this.current, this.generations.get ( segment.getLevel () ) );
+            }
+        }
+
+        public boolean finish ()
+        {
+            if ( this.aborted )
+            {
+                return false;
+            }
+
+            while ( !isLast () && this.segments.get ( this.index + 1 ).getStart () < this.now )
+            {
+                if ( !emit () )
+                {
+                    return false;
+                }
+            }
+
+            // the last segment
+            complete ();
+            return this.visitor.aggregate ( this.current );
+        }
+    }
+
     public void dispose ()
     {
         this.writeLock.lock ();
@@ -268,7 +583,7 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
         try
         {
             // close queries
-            final Set<QueryImpl> queries = new HashSet<QueryImpl> ( this.queries );
+            final Set<QueryImpl> queries = new HashSet<QueryImpl> ( this.queries.keySet () );
             for ( final QueryImpl query : queries )
             {
                 query.close ();
@@ -297,6 +612,8 @@ public abstract class AbstractStorageImpl implements HistoricalItem, ValueSource
         {
             this.jobLock.unlock ();
         }
+
+        this.queryStatistics.unregister ();
     }
 
 }
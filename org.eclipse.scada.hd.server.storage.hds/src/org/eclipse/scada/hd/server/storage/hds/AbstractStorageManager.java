@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     IBH SYSTEMS GmbH - bug fixing, enhance base directory handling
+ *     IBH SYSTEMS GmbH - parallel query scheduling
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.hds;
 
@@ -16,9 +17,7 @@ import java.io.FileInputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ScheduledExecutorService;
 
-import org.eclipse.scada.utils.concurrent.ScheduledExportedExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,14 +26,14 @@ public class AbstractStorageManager
 
     private final static Logger logger = LoggerFactory.getLogger ( AbstractStorageManager.class );
 
-    protected final ScheduledExecutorService queryExecutor;
+    protected final QueryScheduler queryScheduler;
 
     protected final File base;
 
     public AbstractStorageManager ( final File base )
     {
         this.base = base;
-        this.queryExecutor = new ScheduledExportedExecutorService ( "HDSQuery/" + base, Integer.getInteger ( "org.eclipse.scada.hd.server.storage.hds.coreQueryThread", 1 ) );
+        this.queryScheduler = new QueryScheduler ( "HDSQuery/" + base, Integer.getInteger ( "org.eclipse.scada.hd.server.storage.hds.coreQueryThread", 4 ), Integer.getInteger ( "org.eclipse.scada.hd.server.storage.hds.maxConcurrentLoads", 0 ) );
     }
 
     public File getBase ()
@@ -44,7 +43,7 @@ public class AbstractStorageManager
 
     public void dispose ()
     {
-        this.queryExecutor.shutdown ();
+        this.queryScheduler.dispose ();
     }
 
     /**
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.hds;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.scada.hd.server.storage.common.Aggregate;
+
+/**
+ * A cache of pre-aggregated buckets with a fixed width
+ * <p>
+ * Buckets are aligned to multiples of the width. Only complete buckets are
+ * cached, the least recently used buckets get evicted when the cache is full.
+ * </p>
+ */
+class AggregationLevel
+{
+    /**
+     * The number of invalidations remembered for checking concurrent loads
+     */
+    private static final int MAX_INVALIDATIONS = 1024;
+
+    private final long width;
+
+    private final Map<Long, Aggregate> cache;
+
+    private long generation;
+
+    private final Deque<long[]> invalidations = new ArrayDeque<long[]> ();
+
+    private long maxCachedIndex = Long.MIN_VALUE;
+
+    public AggregationLevel ( final long width, final int cacheSize )
+    {
+        this.width = width;
+        this.cache = new LinkedHashMap<Long, Aggregate> ( 16, 0.75f, true ) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry ( final Map.Entry<Long, Aggregate> eldest )
+            {
+                return size () > cacheSize;
+            }
+        };
+    }
+
+    public long getWidth ()
+    {
+        return this.width;
+    }
+
+    public long index ( final long timestamp )
+    {
+        final long index = timestamp / this.width;
+        if ( timestamp < 0 && index * this.width != timestamp )
+        {
+            return index - 1;
+        }
+        return index;
+    }
+
+    public long getStart ( final long index )
+    {
+        return index * this.width;
+    }
+
+    public synchronized Aggregate get ( final long index )
+    {
+        return this.cache.get ( index );
+    }
+
+    /**
+     * Get the current generation, required for {@link #put(long, Aggregate, long)}
+     */
+    public synchronized long getGeneration ()
+    {
+        return this.generation;
+    }
+
+    /**
+     * Put a complete bucket into the cache
+     *
+     * @param index
+     *            the bucket index
+     * @param aggregate
+     *            the completed aggregate
+     * @param generation
+     *            the generation when loading the bucket started, if the
+     *            bucket got invalidated in the meantime it will not be cached
+     */
+    public synchronized void put ( final long index, final Aggregate aggregate, final long generation )
+    {
+        if ( generation != this.generation )
+        {
+            if ( this.generation - generation > this.invalidations.size () )
+            {
+                // we don't know what was invalidated
+                return;
+            }
+
+            final Iterator<long[]> i = this.invalidations.descendingIterator ();
+            while ( i.hasNext () )
+            {
+                final long[] entry = i.next ();
+                if ( entry[0] <= generation )
+                {
+                    break;
+                }
+                if ( entry[1] <= index )
+                {
+                    return;
+                }
+            }
+        }
+
+        this.cache.put ( index, aggregate );
+        this.maxCachedIndex = Math.max ( this.maxCachedIndex, index );
+    }
+
+    /**
+     * Invalidate all buckets starting with the bucket containing the timestamp
+     * <p>
+     * Following buckets are invalidated as well, since they carry the last
+     * value over.
+     * </p>
+     */
+    public synchronized void invalidate ( final long timestamp )
+    {
+        final long index = index ( timestamp );
+
+        this.generation++;
+        this.invalidations.addLast ( new long[] { this.generation, index } );
+        if ( this.invalidations.size () > MAX_INVALIDATIONS )
+        {
+            this.invalidations.removeFirst ();
+        }
+
+        if ( index > this.maxCachedIndex )
+        {
+            // the common case of appending data
+            return;
+        }
+
+        final Iterator<Long> i = this.cache.keySet ().iterator ();
+        while ( i.hasNext () )
+        {
+            if ( i.next () >= index )
+            {
+                i.remove ();
+            }
+        }
+        this.maxCachedIndex = index - 1;
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.hds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.scada.hd.data.QueryParameters;
+import org.eclipse.scada.hd.server.storage.common.QueryBuffer;
+
+/**
+ * Split the cells of a query into buckets of the aggregation levels
+ * <p>
+ * Each cell is filled with the buckets of the coarsest usable level it fully
+ * covers. The partial buckets at the edges of the cell are filled with the
+ * buckets of the next finer level, and so on. What is left at the edges is
+ * aggregated from the native values. No segment spans more than one cell.
+ * </p>
+ */
+class AggregationPlan
+{
+    /**
+     * A part of the query range
+     */
+    public static class Segment
+    {
+        private final long start;
+
+        private final long end;
+
+        private final AggregationLevel level;
+
+        private final long index;
+
+        public Segment ( final long start, final long end, final AggregationLevel level, final long index )
+        {
+            this.start = start;
+            this.end = end;
+            this.level = level;
+            this.index = index;
+        }
+
+        public long getStart ()
+        {
+            return this.start;
+        }
+
+        public long getEnd ()
+        {
+            return this.end;
+        }
+
+        /**
+         * @return the level of the bucket or <code>null</code> if the segment
+         *         has to be aggregated from the native values
+         */
+        public AggregationLevel getLevel ()
+        {
+            return this.level;
+        }
+
+        /**
+         * @return the index of the bucket in its level
+         */
+        public long getIndex ()
+        {
+            return this.index;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return String.format ( "[start: %s, end: %s, level: %s]", this.start, this.end, this.level == null ? null : this.level.getWidth () );
+        }
+    }
+
+    private final List<AggregationLevel> levels;
+
+    private final List<Segment> segments = new ArrayList<Segment> ();
+
+    /**
+     * Create a plan for a query
+     *
+     * @param levels
+     *            the levels to use, coarsest level first
+     * @param parameters
+     *            the query parameters
+     */
+    public AggregationPlan ( final List<AggregationLevel> levels, final QueryParameters parameters )
+    {
+        this.levels = levels;
+
+        final long[] cells = QueryBuffer.getCellBoundaries ( parameters );
+        for ( int i = 0; i + 1 < cells.length; i++ )
+        {
+            if ( cells[i] < cells[i + 1] )
+            {
+                split ( cells[i], cells[i + 1], 0 );
+            }
+        }
+    }
+
+    private void split ( final long start, final long end, final int levelIndex )
+    {
+        if ( levelIndex >= this.levels.size () )
+        {
+            this.segments.add ( new Segment ( start, end, null, 0 ) );
+            return;
+        }
+
+        final AggregationLevel level = this.levels.get ( levelIndex );
+
+        // the buckets from first to last (exclusive) are fully covered
+        long first = level.index ( start );
+        if ( level.getStart ( first ) < start )
+        {
+            first++;
+        }
+        final long last = level.index ( end );
+
+        if ( first >= last )
+        {
+            split ( start, end, levelIndex + 1 );
+            return;
+        }
+
+        if ( start < level.getStart ( first ) )
+        {
+            split ( start, level.getStart ( first ), levelIndex + 1 );
+        }
+        for ( long index = first; index < last; index++ )
+        {
+            this.segments.add ( new Segment ( level.getStart ( index ), level.getStart ( index + 1 ), level, index ) );
+        }
+        if ( level.getStart ( last ) < end )
+        {
+            split ( level.getStart ( last ), end, levelIndex + 1 );
+        }
+    }
+
+    /**
+     * @return the segments in ascending order, covering the query without gaps
+     */
+    public List<Segment> getSegments ()
+    {
+        return Collections.unmodifiableList ( this.segments );
+    }
+}
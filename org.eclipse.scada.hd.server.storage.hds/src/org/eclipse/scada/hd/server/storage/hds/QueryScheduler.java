@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.hds;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.scada.utils.concurrent.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the work of historical queries on a pool of threads
+ * <p>
+ * Each query gets its own {@link Lane}. The tasks of one lane are executed
+ * one after the other, in the order they were submitted, so that a query never
+ * sees concurrent loads or updates. Different lanes run in parallel.
+ * </p>
+ * <p>
+ * Lanes with pending live updates are always served before lanes with
+ * pending loads. The number of loads running at the same time is limited so
+ * that at least one thread stays available for live updates. Ready lanes are
+ * served round robin, one task at a time, so a query requesting many reloads
+ * cannot block the queries of other clients.
+ * </p>
+ */
+public class QueryScheduler
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( QueryScheduler.class );
+
+    private static final class Task
+    {
+        private final Lane lane;
+
+        private final Runnable runnable;
+
+        private final boolean load;
+
+        private final long timestamp;
+
+        public Task ( final Lane lane, final Runnable runnable, final boolean load )
+        {
+            this.lane = lane;
+            this.runnable = runnable;
+            this.load = load;
+            this.timestamp = System.nanoTime ();
+        }
+    }
+
+    private static enum State
+    {
+        IDLE,
+        LIVE_READY,
+        LOAD_READY,
+        RUNNING;
+    }
+
+    /**
+     * A serial task queue of one query
+     */
+    class Lane
+    {
+        private final QueryStatistics statistics;
+
+        private final Deque<Task> live = new ArrayDeque<Task> ();
+
+        private final Deque<Task> loads = new ArrayDeque<Task> ();
+
+        private State state = State.IDLE;
+
+        private boolean closed;
+
+        private final Executor loadExecutor = new Executor () {
+
+            @Override
+            public void execute ( final Runnable command )
+            {
+                submit ( new Task ( Lane.this, command, true ) );
+            }
+        };
+
+        private Lane ( final QueryStatistics statistics )
+        {
+            this.statistics = statistics;
+        }
+
+        /**
+         * Get the executor for loading data
+         *
+         * @return the executor which schedules loads of this lane
+         */
+        public Executor getLoadExecutor ()
+        {
+            return this.loadExecutor;
+        }
+
+        /**
+         * Execute a live update for this lane
+         *
+         * @param command
+         *            the update to execute
+         */
+        public void executeLive ( final Runnable command )
+        {
+            submit ( new Task ( this, command, false ) );
+        }
+
+        /**
+         * Close the lane and drop all pending tasks
+         * <p>
+         * A task which is currently running will not be interrupted.
+         * </p>
+         */
+        public void close ()
+        {
+            closeLane ( this );
+        }
+
+        private boolean hasWork ()
+        {
+            return !this.live.isEmpty () || !this.loads.isEmpty ();
+        }
+
+        private int size ()
+        {
+            return this.live.size () + this.loads.size ();
+        }
+    }
+
+    private final ExecutorService executor;
+
+    private final int threads;
+
+    private final int maxLoads;
+
+    private final Deque<Lane> liveReady = new ArrayDeque<Lane> ();
+
+    private final Deque<Lane> loadReady = new ArrayDeque<Lane> ();
+
+    private int activeWorkers;
+
+    private int runningTasks;
+
+    private int runningLoads;
+
+    private boolean disposed;
+
+    private final Runnable worker = new Runnable () {
+
+        @Override
+        public void run ()
+        {
+            processTasks ();
+        }
+    };
+
+    /**
+     * Create a new query scheduler
+     *
+     * @param name
+     *            the name of the threads
+     * @param threads
+     *            the maximum number of threads
+     * @param maxLoads
+     *            the maximum number of concurrent loads, values less than 1
+     *            will be replaced with one less than the number of threads
+     */
+    public QueryScheduler ( final String name, final int threads, final int maxLoads )
+    {
+        this.threads = Math.max ( 1, threads );
+        this.maxLoads = maxLoads > 0 ? Math.min ( maxLoads, this.threads ) : Math.max ( 1, this.threads - 1 );
+        this.executor = Executors.newFixedThreadPool ( this.threads, new NamedThreadFactory ( name ) );
+
+        logger.info ( "Created query scheduler - threads: {}, maxLoads: {}", this.threads, this.maxLoads );
+    }
+
+    /**
+     * Create a new lane for a query
+     *
+     * @param statistics
+     *            the statistics of the storage the query belongs to
+     * @return the new lane
+     */
+    Lane createLane ( final QueryStatistics statistics )
+    {
+        return new Lane ( statistics );
+    }
+
+    public void dispose ()
+    {
+        synchronized ( this )
+        {
+            this.disposed = true;
+            this.liveReady.clear ();
+            this.loadReady.clear ();
+        }
+        this.executor.shutdown ();
+    }
+
+    private synchronized void submit ( final Task task )
+    {
+        final Lane lane = task.lane;
+
+        if ( this.disposed || lane.closed )
+        {
+            logger.debug ( "Dropping task of closed lane" );
+            return;
+        }
+
+        if ( task.load )
+        {
+            lane.loads.add ( task );
+        }
+        else
+        {
+            lane.live.add ( task );
+        }
+        lane.statistics.queued ( 1 );
+
+        makeReady ( lane );
+        startWorkers ();
+    }
+
+    private synchronized void closeLane ( final Lane lane )
+    {
+        if ( lane.closed )
+        {
+            return;
+        }
+
+        lane.closed = true;
+        lane.statistics.queued ( -lane.size () );
+        lane.live.clear ();
+        lane.loads.clear ();
+
+        switch ( lane.state )
+        {
+            case LIVE_READY:
+                this.liveReady.remove ( lane );
+                lane.state = State.IDLE;
+                break;
+            case LOAD_READY:
+                this.loadReady.remove ( lane );
+                lane.state = State.IDLE;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Put the lane into the matching ready queue
+     * <p>
+     * Must be called while holding the lock
+     * </p>
+     */
+    private void makeReady ( final Lane lane )
+    {
+        if ( lane.state == State.RUNNING || lane.state == State.LIVE_READY )
+        {
+            return;
+        }
+
+        if ( !lane.live.isEmpty () )
+        {
+            if ( lane.state == State.LOAD_READY )
+            {
+                // promote to live updates
+                this.loadReady.remove ( lane );
+            }
+            lane.state = State.LIVE_READY;
+            this.liveReady.add ( lane );
+        }
+        else if ( !lane.loads.isEmpty () && lane.state == State.IDLE )
+        {
+            lane.state = State.LOAD_READY;
+            this.loadReady.add ( lane );
+        }
+    }
+
+    /**
+     * Start workers for the pending work
+     * <p>
+     * Must be called while holding the lock
+     * </p>
+     */
+    private void startWorkers ()
+    {
+        int ready = this.liveReady.size ();
+        if ( this.runningLoads < this.maxLoads )
+        {
+            ready += Math.min ( this.loadReady.size (), this.maxLoads - this.runningLoads );
+        }
+
+        // workers which are not running a task will pick up ready lanes
+        while ( this.activeWorkers < this.threads && this.activeWorkers - this.runningTasks < ready )
+        {
+            this.activeWorkers++;
+            this.executor.execute ( this.worker );
+        }
+    }
+
+    /**
+     * Fetch the next task, or deregister the worker if there is none
+     */
+    private synchronized Task nextTask ()
+    {
+        Lane lane = this.liveReady.poll ();
+        if ( lane == null && this.runningLoads < this.maxLoads )
+        {
+            lane = this.loadReady.poll ();
+        }
+
+        if ( lane == null || this.disposed )
+        {
+            this.activeWorkers--;
+            return null;
+        }
+
+        // a ready lane always has work, live updates go first
+        Task task = lane.live.poll ();
+        if ( task == null )
+        {
+            task = lane.loads.poll ();
+        }
+
+        lane.state = State.RUNNING;
+        this.runningTasks++;
+
+        lane.statistics.queued ( -1 );
+        if ( task.load )
+        {
+            this.runningLoads++;
+            lane.statistics.loadStarted ();
+        }
+
+        return task;
+    }
+
+    private synchronized void taskCompleted ( final Task task )
+    {
+        final Lane lane = task.lane;
+
+        this.runningTasks--;
+        if ( task.load )
+        {
+            this.runningLoads--;
+            lane.statistics.loadCompleted ( System.nanoTime () - task.timestamp );
+        }
+
+        lane.state = State.IDLE;
+        if ( !lane.closed && lane.hasWork () )
+        {
+            // re-queue at the end, giving other lanes a chance
+            makeReady ( lane );
+        }
+        startWorkers ();
+    }
+
+    protected void processTasks ()
+    {
+        Task task;
+        while ( ( task = nextTask () ) != null )
+        {
+            try
+            {
+                task.runnable.run ();
+            }
+            catch ( final Exception e )
+            {
+                logger.warn ( "Failed to process query task", e );
+            }
+            finally
+            {
+                taskCompleted ( task );
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.hds;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Query scheduling statistics of one storage
+ */
+public class QueryStatistics implements QueryStatisticsMXBean
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( QueryStatistics.class );
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private static final AtomicLong instanceCounter = new AtomicLong ();
+
+    private ObjectName name;
+
+    private int queueDepth;
+
+    private int activeLoads;
+
+    private long loadCount;
+
+    private long lastLatency;
+
+    private long totalLatency;
+
+    private long maximumLatency;
+
+    synchronized void queued ( final int delta )
+    {
+        this.queueDepth += delta;
+    }
+
+    synchronized void loadStarted ()
+    {
+        this.activeLoads++;
+    }
+
+    synchronized void loadCompleted ( final long latency )
+    {
+        this.activeLoads--;
+        this.loadCount++;
+        this.lastLatency = latency;
+        this.totalLatency += latency;
+        this.maximumLatency = Math.max ( this.maximumLatency, latency );
+    }
+
+    @Override
+    public synchronized int getQueueDepth ()
+    {
+        return this.queueDepth;
+    }
+
+    @Override
+    public synchronized int getActiveLoads ()
+    {
+        return this.activeLoads;
+    }
+
+    @Override
+    public synchronized long getLoadCount ()
+    {
+        return this.loadCount;
+    }
+
+    @Override
+    public synchronized double getLastLoadLatency ()
+    {
+        return this.lastLatency / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized double getAverageLoadLatency ()
+    {
+        if ( this.loadCount == 0 )
+        {
+            return 0.0;
+        }
+        return this.totalLatency / NANOS_PER_MILLI / this.loadCount;
+    }
+
+    @Override
+    public synchronized double getMaximumLoadLatency ()
+    {
+        return this.maximumLatency / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public synchronized void resetStatistics ()
+    {
+        this.loadCount = 0;
+        this.lastLatency = 0;
+        this.totalLatency = 0;
+        this.maximumLatency = 0;
+    }
+
+    /**
+     * Register the MXBean for the storage
+     * <p>
+     * If another instance is still registered for the same storage, e.g. when
+     * the storage is re-opened before the old instance got disposed, this
+     * instance is registered with an additional <code>instance</code> key
+     * instead. So it never unregisters the bean of the other instance.
+     * </p>
+     */
+    public void register ( final String id )
+    {
+        try
+        {
+            final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer ();
+            final Hashtable<String, String> properties = new Hashtable<String, String> ();
+            properties.put ( "storage", ObjectName.quote ( id ) );
+
+            ObjectName name = new ObjectName ( "org.eclipse.scada.hd.server.storage.hds", properties );
+            try
+            {
+                mbs.registerMBean ( this, name );
+            }
+            catch ( final InstanceAlreadyExistsException e )
+            {
+                properties.put ( "instance", Long.toString ( instanceCounter.incrementAndGet () ) );
+                name = new ObjectName ( "org.eclipse.scada.hd.server.storage.hds", properties );
+                logger.info ( "MXBean for storage {} is still registered, using {}", id, name );
+                mbs.registerMBean ( this, name );
+            }
+            this.name = name;
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to register MXBean", e );
+        }
+    }
+
+    public void unregister ()
+    {
+        if ( this.name == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer ().unregisterMBean ( this.name );
+        }
+        catch ( final Exception e )
+        {
+            logger.warn ( "Failed to unregister MXBean", e );
+        }
+        this.name = null;
+    }
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.hds;
+
+public interface QueryStatisticsMXBean
+{
+    /**
+     * @return the number of query tasks waiting for execution
+     */
+    public int getQueueDepth ();
+
+    /**
+     * @return the number of loads currently running
+     */
+    public int getActiveLoads ();
+
+    /**
+     * @return the number of completed loads
+     */
+    public long getLoadCount ();
+
+    /**
+     * @return the latency of the last load in milliseconds, including the time
+     *         it was queued
+     */
+    public double getLastLoadLatency ();
+
+    /**
+     * @return the average load latency in milliseconds
+     */
+    public double getAverageLoadLatency ();
+
+    /**
+     * @return the maximum load latency in milliseconds
+     */
+    public double getMaximumLoadLatency ();
+
+    public void resetStatistics ();
+}
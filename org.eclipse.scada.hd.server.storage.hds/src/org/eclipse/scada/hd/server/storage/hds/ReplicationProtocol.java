@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.hds;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The protocol for pushing inserted values from a master storage to slave
+ * storages
+ * <p>
+ * After connecting, the slave sends the {@link #MAGIC} value. The master
+ * answers with a {@link #MSG_HELLO} message, carrying the sequence number of
+ * the last value it published. After that the master sends
+ * {@link #MSG_VALUE} messages for each inserted value, with the sequence
+ * number increasing by one for each value, and {@link #MSG_PING} messages when
+ * there is nothing else to send.
+ * </p>
+ * <p>
+ * The slave cannot get values back which were published while it was not
+ * connected. It has to catch up by reading the storage files after each
+ * (re-)connect or when it detects a gap in the sequence numbers.
+ * </p>
+ */
+public final class ReplicationProtocol
+{
+    public static final int MAGIC = 0x48445331;
+
+    public static final byte MSG_HELLO = 1;
+
+    public static final byte MSG_VALUE = 2;
+
+    public static final byte MSG_PING = 3;
+
+    private static final byte FLAG_ERROR = 1;
+
+    private static final byte FLAG_MANUAL = 2;
+
+    private ReplicationProtocol ()
+    {
+    }
+
+    public static void writeHello ( final DataOutput out, final long sequence ) throws IOException
+    {
+        out.writeByte ( MSG_HELLO );
+        out.writeLong ( sequence );
+    }
+
+    public static void writePing ( final DataOutput out ) throws IOException
+    {
+        out.writeByte ( MSG_PING );
+    }
+
+    public static void writeValue ( final DataOutput out, final Value value ) throws IOException
+    {
+        out.writeByte ( MSG_VALUE );
+        out.writeLong ( value.getSequence () );
+        out.writeUTF ( value.getId () );
+        out.writeDouble ( value.getValue () );
+        out.writeLong ( value.getTimestamp () );
+        out.writeByte ( ( value.isError () ? FLAG_ERROR : 0 ) | ( value.isManual () ? FLAG_MANUAL : 0 ) );
+    }
+
+    /**
+     * Read the value following a {@link #MSG_VALUE} message type
+     */
+    public static Value readValue ( final DataInput in ) throws IOException
+    {
+        final long sequence = in.readLong ();
+        final String id = in.readUTF ();
+        final double value = in.readDouble ();
+        final long timestamp = in.readLong ();
+        final byte flags = in.readByte ();
+        return new Value ( sequence, id, value, timestamp, ( flags & FLAG_ERROR ) != 0, ( flags & FLAG_MANUAL ) != 0 );
+    }
+
+    public static class Value
+    {
+        private final long sequence;
+
+        private final String id;
+
+        private final double value;
+
+        private final long timestamp;
+
+        private final boolean error;
+
+        private final boolean manual;
+
+        public Value ( final long sequence, final String id, final double value, final long timestamp, final boolean error, final boolean manual )
+        {
+            this.sequence = sequence;
+            this.id = id;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.error = error;
+            this.manual = manual;
+        }
+
+        public long getSequence ()
+        {
+            return this.sequence;
+        }
+
+        public String getId ()
+        {
+            return this.id;
+        }
+
+        public double getValue ()
+        {
+            return this.value;
+        }
+
+        public long getTimestamp ()
+        {
+            return this.timestamp;
+        }
+
+        public boolean isError ()
+        {
+            return this.error;
+        }
+
+        public boolean isManual ()
+        {
+            return this.manual;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.master.hds;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.scada.hd.server.storage.hds.ReplicationProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Push inserted values to connected slave storages
+ * <p>
+ * Each connected slave gets its own queue and sender thread, so that a slow
+ * slave cannot block inserting values. A slave which cannot keep up gets
+ * disconnected when its queue is full, it will reconnect and catch up from
+ * the storage files.
+ * </p>
+ */
+public class ReplicationServer
+{
+    private final static Logger logger = LoggerFactory.getLogger ( ReplicationServer.class );
+
+    private final int queueSize;
+
+    private final long pingPeriod;
+
+    private final int timeout;
+
+    private final ServerSocket serverSocket;
+
+    private final Set<Connection> connections = new HashSet<Connection> ();
+
+    private long sequence;
+
+    private boolean disposed;
+
+    private final AtomicInteger threadCounter = new AtomicInteger ();
+
+    private class Connection implements Runnable
+    {
+        private final Socket socket;
+
+        private final BlockingQueue<ReplicationProtocol.Value> queue = new ArrayBlockingQueue<ReplicationProtocol.Value> ( ReplicationServer.this.queueSize );
+
+        public Connection ( final Socket socket )
+        {
+            this.socket = socket;
+        }
+
+        public boolean offer ( final ReplicationProtocol.Value value )
+        {
+            return this.queue.offer ( value );
+        }
+
+        @Override
+        public void run ()
+        {
+            try
+            {
+                this.socket.setSoTimeout ( ReplicationServer.this.timeout );
+                this.socket.setTcpNoDelay ( true );
+
+                final DataInputStream in = new DataInputStream ( this.socket.getInputStream () );
+                if ( in.readInt () != ReplicationProtocol.MAGIC )
+                {
+                    logger.warn ( "Invalid handshake from {}", this.socket.getRemoteSocketAddress () );
+                    return;
+                }
+
+                final DataOutputStream out = new DataOutputStream ( new BufferedOutputStream ( this.socket.getOutputStream () ) );
+
+                final long sequence = register ( this );
+                if ( sequence < 0 )
+                {
+                    // disposed
+                    return;
+                }
+
+                logger.info ( "Slave connected - {}, sequence: {}", this.socket.getRemoteSocketAddress (), sequence );
+
+                ReplicationProtocol.writeHello ( out, sequence );
+                out.flush ();
+
+                for ( ;; )
+                {
+                    ReplicationProtocol.Value value = this.queue.poll ( ReplicationServer.this.pingPeriod, TimeUnit.MILLISECONDS );
+                    if ( value == null )
+                    {
+                        ReplicationProtocol.writePing ( out );
+                    }
+                    else
+                    {
+                        // write what is available with one flush
+                        do
+                        {
+                            ReplicationProtocol.writeValue ( out, value );
+                        } while ( ( value = this.queue.poll () ) != null );
+                    }
+                    out.flush ();
+                }
+            }
+            catch ( final IOException e )
+            {
+                logger.info ( "Slave connection failed - {}: {}", this.socket.getRemoteSocketAddress (), e.getMessage () );
+            }
+            catch ( final InterruptedException e )
+            {
+                logger.info ( "Slave connection interrupted" );
+                Thread.currentThread ().interrupt ();
+            }
+            finally
+            {
+                unregister ( this );
+                close ();
+            }
+        }
+
+        public void close ()
+        {
+            try
+            {
+                this.socket.close ();
+            }
+            catch ( final IOException e )
+            {
+                logger.debug ( "Failed to close socket", e );
+            }
+        }
+    }
+
+    public ReplicationServer ( final String host, final int port ) throws IOException
+    {
+        this.queueSize = Integer.getInteger ( "org.eclipse.scada.hd.server.storage.master.hds.push.queueSize", 10000 );
+        this.pingPeriod = Long.getLong ( "org.eclipse.scada.hd.server.storage.master.hds.push.pingPeriod", 5000 );
+        this.timeout = (int)this.pingPeriod * 3;
+
+        this.serverSocket = new ServerSocket ();
+        this.serverSocket.setReuseAddress ( true );
+        this.serverSocket.bind ( new InetSocketAddress ( InetAddress.getByName ( host ), port ) );
+
+        logger.info ( "Accepting slave connections on {}", this.serverSocket.getLocalSocketAddress () );
+
+        final Thread t = new Thread ( "HDSReplicationServer" ) {
+            @Override
+            public void run ()
+            {
+                accept ();
+            }
+        };
+        t.setDaemon ( true );
+        t.start ();
+    }
+
+    protected void accept ()
+    {
+        while ( !this.serverSocket.isClosed () )
+        {
+            try
+            {
+                final Socket socket = this.serverSocket.accept ();
+                final Thread t = new Thread ( new Connection ( socket ), "HDSReplicationServer/" + this.threadCounter.incrementAndGet () );
+                t.setDaemon ( true );
+                t.start ();
+            }
+            catch ( final IOException e )
+            {
+                if ( !this.serverSocket.isClosed () )
+                {
+                    logger.warn ( "Failed to accept slave connection", e );
+                }
+            }
+        }
+    }
+
+    private synchronized long register ( final Connection connection )
+    {
+        if ( this.disposed )
+        {
+            return -1;
+        }
+        this.connections.add ( connection );
+        return this.sequence;
+    }
+
+    private synchronized void unregister ( final Connection connection )
+    {
+        this.connections.remove ( connection );
+    }
+
+    /**
+     * Publish a value which was inserted into a storage
+     */
+    public synchronized void publish ( final String id, final double value, final long timestamp, final boolean error, final boolean manual )
+    {
+        this.sequence++;
+
+        if ( this.connections.isEmpty () )
+        {
+            return;
+        }
+
+        final ReplicationProtocol.Value entry = new ReplicationProtocol.Value ( this.sequence, id, value, timestamp, error, manual );
+
+        for ( final Connection connection : this.connections.toArray ( new Connection[this.connections.size ()] ) )
+        {
+            if ( !connection.offer ( entry ) )
+            {
+                logger.warn ( "Slave cannot keep up, disconnecting - {}", connection.socket.getRemoteSocketAddress () );
+                this.connections.remove ( connection );
+                connection.close ();
+            }
+        }
+    }
+
+    public void dispose ()
+    {
+        final Set<Connection> connections;
+        synchronized ( this )
+        {
+            this.disposed = true;
+            connections = new HashSet<Connection> ( this.connections );
+            this.connections.clear ();
+        }
+
+        try
+        {
+            this.serverSocket.close ();
+        }
+        catch ( final IOException e )
+        {
+            logger.warn ( "Failed to close server socket", e );
+        }
+
+        for ( final Connection connection : connections )
+        {
+            connection.close ();
+        }
+    }
+}
@@ -8,6 +8,7 @@
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
+ *     IBH SYSTEMS GmbH - push values to slaves
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.master.hds;
 
@@ -25,6 +26,7 @@ import org.eclipse.scada.core.Variant;
 import org.eclipse.scada.da.client.DataItemValue;
 import org.eclipse.scada.hd.server.common.StorageHistoricalItem;
 import org.eclipse.scada.hd.server.storage.hds.AbstractStorageImpl;
+import org.eclipse.scada.hd.server.storage.hds.QueryScheduler;
 import org.eclipse.scada.hds.DataFilePool;
 import org.eclipse.scada.utils.concurrent.FutureListener;
 import org.eclipse.scada.utils.concurrent.FutureTask;
@@ -47,6 +49,8 @@ public class StorageImpl extends AbstractStorageImpl implements StorageHistorica
 
     private final int heartbeatFrequency = Integer.getInteger ( "org.eclipse.scada.hd.server.storage.hds.heartbeatFrequency", 3 );
 
+    private final ReplicationServer replicationServer;
+
     private class UpdateJob implements Runnable
     {
         private final double value;
@@ -73,11 +77,12 @@ public class StorageImpl extends AbstractStorageImpl implements StorageHistorica
 
     }
 
-    public StorageImpl ( final File file, final BundleContext context, final DataFilePool pool, final ScheduledExecutorService queryExecutor, final ScheduledExecutorService updateExecutor, final ScheduledExecutorService eventExecutor ) throws Exception
+    public StorageImpl ( final File file, final BundleContext context, final DataFilePool pool, final QueryScheduler queryScheduler, final ScheduledExecutorService updateExecutor, final ScheduledExecutorService eventExecutor, final ReplicationServer replicationServer ) throws Exception
     {
-        super ( file, pool, queryExecutor, eventExecutor );
+        super ( file, pool, queryScheduler, eventExecutor );
 
         this.updateExecutor = updateExecutor;
+        this.replicationServer = replicationServer;
 
         this.heartbeatJob = updateExecutor.scheduleAtFixedRate ( new Runnable () {
             @Override
@@ -222,6 +227,10 @@ public class StorageImpl extends AbstractStorageImpl implements StorageHistorica
         {
             this.nativeLevel.insertValue ( value, timestamp, error, manual );
             notifyData ( value, timestamp, error, manual );
+            if ( this.replicationServer != null )
+            {
+                this.replicationServer.publish ( this.id, value, timestamp.getTime (), error, manual );
+            }
         }
         catch ( final Exception e )
         {
@@ -9,6 +9,7 @@
  *     TH4 SYSTEMS GmbH - initial API and implementation
  *     Jens Reimann - additional work
  *     IBH SYSTEMS GmbH - make the storage base
+ *     IBH SYSTEMS GmbH - push values to slaves
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.master.hds;
 
@@ -52,6 +53,8 @@ public class StorageManager extends AbstractStorageManager
 
     private final ScheduledExportedExecutorService eventExecutor;
 
+    private final ReplicationServer replicationServer;
+
     public StorageManager ( final BundleContext context, final DataFilePool pool )
     {
         super ( makeBase ( context ) );
@@ -61,10 +64,30 @@ public class StorageManager extends AbstractStorageManager
 
         this.updateExecutor = Executors.newSingleThreadScheduledExecutor ( new NamedThreadFactory ( "HDSUpdate" ) );
         this.eventExecutor = new ScheduledExportedExecutorService ( "org.eclipse.scada.hd.server.storage.master.hds.events", 1 );
+        this.replicationServer = makeReplicationServer ();
 
         initialize ();
     }
 
+    private static ReplicationServer makeReplicationServer ()
+    {
+        final int port = Integer.getInteger ( "org.eclipse.scada.hd.server.storage.master.hds.push.port", 0 );
+        if ( port <= 0 )
+        {
+            return null;
+        }
+
+        try
+        {
+            return new ReplicationServer ( System.getProperty ( "org.eclipse.scada.hd.server.storage.master.hds.push.host", "localhost" ), port );
+        }
+        catch ( final Exception e )
+        {
+            logger.error ( "Failed to create replication server, slaves have to watch the storage files", e );
+            return null;
+        }
+    }
+
     private static String unEscapeArgValue ( final String string )
     {
         final String s1 = Pattern.quote ( "\\$\\{" );
@@ -233,7 +256,7 @@ public class StorageManager extends AbstractStorageManager
         this.lock.lock ();
         try
         {
-            final StorageImpl storage = new StorageImpl ( file, this.context, this.pool, this.queryExecutor, this.updateExecutor, this.eventExecutor );
+            final StorageImpl storage = new StorageImpl ( file, this.context, this.pool, this.queryScheduler, this.updateExecutor, this.eventExecutor, this.replicationServer );
             this.storages.put ( storage.getInformation ().getItemId (), storage );
         }
         finally
@@ -289,6 +312,11 @@ public class StorageManager extends AbstractStorageManager
 
         super.dispose ();
 
+        if ( this.replicationServer != null )
+        {
+            this.replicationServer.dispose ();
+        }
+
         this.updateExecutor.shutdown ();
         this.eventExecutor.shutdown ();
     }
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.slave.hds;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PushedValuesTest
+{
+    private static final long EXPIRY = 1000;
+
+    @Test
+    public void testChangeWithoutPush ()
+    {
+        final PushedValues values = new PushedValues ( EXPIRY, 100 );
+
+        Assert.assertFalse ( values.consume ( 0, 100, 0 ) );
+    }
+
+    @Test
+    public void testChangeOfPushedValue ()
+    {
+        final PushedValues values = new PushedValues ( EXPIRY, 100 );
+
+        values.add ( 50, 0 );
+
+        Assert.assertTrue ( values.consume ( 0, 100, 10 ) );
+        // a pushed value covers one change only
+        Assert.assertFalse ( values.consume ( 0, 100, 20 ) );
+        Assert.assertEquals ( 0, values.size () );
+    }
+
+    @Test
+    public void testOtherFile ()
+    {
+        final PushedValues values = new PushedValues ( EXPIRY, 100 );
+
+        values.add ( 150, 0 );
+
+        // the end of a file is exclusive
+        Assert.assertFalse ( values.consume ( 0, 150, 10 ) );
+        Assert.assertEquals ( 1, values.size () );
+
+        Assert.assertTrue ( values.consume ( 150, 250, 10 ) );
+    }
+
+    @Test
+    public void testExpired ()
+    {
+        final PushedValues values = new PushedValues ( EXPIRY, 100 );
+
+        values.add ( 50, 0 );
+
+        Assert.assertFalse ( values.consume ( 0, 100, EXPIRY + 1 ) );
+        Assert.assertEquals ( 0, values.size () );
+    }
+
+    @Test
+    public void testLimit ()
+    {
+        final PushedValues values = new PushedValues ( EXPIRY, 2 );
+
+        values.add ( 10, 0 );
+        values.add ( 110, 0 );
+        values.add ( 210, 0 );
+
+        Assert.assertEquals ( 2, values.size () );
+
+        // the oldest value was dropped
+        Assert.assertFalse ( values.consume ( 0, 100, 10 ) );
+        Assert.assertTrue ( values.consume ( 100, 200, 10 ) );
+        Assert.assertTrue ( values.consume ( 200, 300, 10 ) );
+    }
+
+    @Test
+    public void testClear ()
+    {
+        final PushedValues values = new PushedValues ( EXPIRY, 100 );
+
+        values.add ( 50, 0 );
+        values.clear ();
+
+        Assert.assertFalse ( values.consume ( 0, 100, 10 ) );
+    }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.slave.hds;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.eclipse.scada.hd.server.storage.hds.ReplicationProtocol;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the slave side of the replication with a fake master
+ */
+public class ReplicationClientTest
+{
+    private static final long TIMEOUT = 5000;
+
+    private static class RecordingTarget implements PushTarget
+    {
+        private final String id;
+
+        private boolean pushActive;
+
+        private int catchUps;
+
+        private final List<ReplicationProtocol.Value> values = new LinkedList<> ();
+
+        public RecordingTarget ( final String id )
+        {
+            this.id = id;
+        }
+
+        @Override
+        public synchronized void setPushActive ( final boolean state )
+        {
+            this.pushActive = state;
+            notifyAll ();
+        }
+
+        @Override
+        public synchronized void catchUp ()
+        {
+            this.catchUps++;
+        }
+
+        @Override
+        public synchronized boolean pushData ( final ReplicationProtocol.Value value )
+        {
+            if ( !this.id.equals ( value.getId () ) )
+            {
+                return false;
+            }
+            this.values.add ( value );
+            notifyAll ();
+            return true;
+        }
+
+        public synchronized void waitForPushActive ( final boolean state ) throws InterruptedException
+        {
+            final long end = System.currentTimeMillis () + TIMEOUT;
+            while ( this.pushActive != state && System.currentTimeMillis () < end )
+            {
+                wait ( 100 );
+            }
+            Assert.assertEquals ( state, this.pushActive );
+        }
+
+        public synchronized void waitForValues ( final int count ) throws InterruptedException
+        {
+            final long end = System.currentTimeMillis () + TIMEOUT;
+            while ( this.values.size () < count && System.currentTimeMillis () < end )
+            {
+                wait ( 100 );
+            }
+            Assert.assertEquals ( count, this.values.size () );
+        }
+    }
+
+    private ServerSocket server;
+
+    private ReplicationClient client;
+
+    private final RecordingTarget target1 = new RecordingTarget ( "item1" );
+
+    private final RecordingTarget target2 = new RecordingTarget ( "item2" );
+
+    @Before
+    public void setup () throws Exception
+    {
+        this.server = new ServerSocket ( 0, 1, InetAddress.getByName ( "localhost" ) );
+        this.server.setSoTimeout ( (int)TIMEOUT );
+        this.client = new ReplicationClient ( "localhost:" + this.server.getLocalPort (), Arrays.asList ( this.target1, this.target2 ) );
+    }
+
+    @After
+    public void dispose () throws Exception
+    {
+        this.client.dispose ();
+        this.server.close ();
+    }
+
+    private static void writeValue ( final DataOutputStream out, final long sequence, final String id, final double value ) throws Exception
+    {
+        ReplicationProtocol.writeValue ( out, new ReplicationProtocol.Value ( sequence, id, value, 1000L * sequence, false, false ) );
+    }
+
+    @Test
+    public void testPush () throws Exception
+    {
+        try ( Socket socket = this.server.accept () )
+        {
+            final DataInputStream in = new DataInputStream ( socket.getInputStream () );
+            final DataOutputStream out = new DataOutputStream ( socket.getOutputStream () );
+
+            Assert.assertEquals ( ReplicationProtocol.MAGIC, in.readInt () );
+
+            ReplicationProtocol.writeHello ( out, 10L );
+            out.flush ();
+
+            this.target1.waitForPushActive ( true );
+            this.target2.waitForPushActive ( true );
+
+            writeValue ( out, 11L, "item1", 1.0 );
+            ReplicationProtocol.writePing ( out );
+            writeValue ( out, 12L, "item2", 2.0 );
+            writeValue ( out, 13L, "unknown", 3.0 );
+            writeValue ( out, 14L, "item1", 4.0 );
+            out.flush ();
+
+            this.target1.waitForValues ( 2 );
+            this.target2.waitForValues ( 1 );
+
+            Assert.assertEquals ( 4.0, this.target1.values.get ( 1 ).getValue (), 0.0 );
+            Assert.assertEquals ( 14000L, this.target1.values.get ( 1 ).getTimestamp () );
+            Assert.assertEquals ( 2.0, this.target2.values.get ( 0 ).getValue (), 0.0 );
+
+            // no gap so far
+            Assert.assertEquals ( 0, this.target1.catchUps );
+            Assert.assertEquals ( 0, this.target2.catchUps );
+        }
+
+        // the master is gone
+        this.target1.waitForPushActive ( false );
+        this.target2.waitForPushActive ( false );
+    }
+
+    @Test
+    public void testGap () throws Exception
+    {
+        try ( Socket socket = this.server.accept () )
+        {
+            final DataInputStream in = new DataInputStream ( socket.getInputStream () );
+            final DataOutputStream out = new DataOutputStream ( socket.getOutputStream () );
+
+            Assert.assertEquals ( ReplicationProtocol.MAGIC, in.readInt () );
+
+            ReplicationProtocol.writeHello ( out, 10L );
+            writeValue ( out, 11L, "item1", 1.0 );
+            // value 12 is missing
+            writeValue ( out, 13L, "item1", 3.0 );
+            writeValue ( out, 14L, "item1", 4.0 );
+            out.flush ();
+
+            this.target1.waitForValues ( 3 );
+
+            // all targets catch up, the value is applied anyway
+            Assert.assertEquals ( 1, this.target1.catchUps );
+            Assert.assertEquals ( 1, this.target2.catchUps );
+        }
+    }
+
+    @Test
+    public void testInvalidMessage () throws Exception
+    {
+        try ( Socket socket = this.server.accept () )
+        {
+            final DataInputStream in = new DataInputStream ( socket.getInputStream () );
+            final DataOutputStream out = new DataOutputStream ( socket.getOutputStream () );
+
+            Assert.assertEquals ( ReplicationProtocol.MAGIC, in.readInt () );
+
+            ReplicationProtocol.writeHello ( out, 0L );
+            out.flush ();
+            this.target1.waitForPushActive ( true );
+
+            out.writeByte ( 0x7F );
+            out.flush ();
+
+            // the slave drops the connection
+            this.target1.waitForPushActive ( false );
+            Assert.assertEquals ( -1, in.read () );
+        }
+    }
+}
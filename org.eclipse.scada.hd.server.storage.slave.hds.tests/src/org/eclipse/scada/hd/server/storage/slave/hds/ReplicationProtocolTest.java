@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.slave.hds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+
+import org.eclipse.scada.hd.server.storage.hds.ReplicationProtocol;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplicationProtocolTest
+{
+    @Test
+    public void testMessages () throws Exception
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        final DataOutputStream out = new DataOutputStream ( bos );
+
+        ReplicationProtocol.writeHello ( out, 42L );
+        ReplicationProtocol.writeValue ( out, new ReplicationProtocol.Value ( 43L, "item1", 1.5, 1000L, false, false ) );
+        ReplicationProtocol.writePing ( out );
+        ReplicationProtocol.writeValue ( out, new ReplicationProtocol.Value ( 44L, "item\u00e42", Double.NaN, 2000L, true, true ) );
+        out.close ();
+
+        final DataInputStream in = new DataInputStream ( new ByteArrayInputStream ( bos.toByteArray () ) );
+
+        Assert.assertEquals ( ReplicationProtocol.MSG_HELLO, in.readByte () );
+        Assert.assertEquals ( 42L, in.readLong () );
+
+        Assert.assertEquals ( ReplicationProtocol.MSG_VALUE, in.readByte () );
+        final ReplicationProtocol.Value value1 = ReplicationProtocol.readValue ( in );
+        Assert.assertEquals ( 43L, value1.getSequence () );
+        Assert.assertEquals ( "item1", value1.getId () );
+        Assert.assertEquals ( 1.5, value1.getValue (), 0.0 );
+        Assert.assertEquals ( 1000L, value1.getTimestamp () );
+        Assert.assertFalse ( value1.isError () );
+        Assert.assertFalse ( value1.isManual () );
+
+        Assert.assertEquals ( ReplicationProtocol.MSG_PING, in.readByte () );
+
+        Assert.assertEquals ( ReplicationProtocol.MSG_VALUE, in.readByte () );
+        final ReplicationProtocol.Value value2 = ReplicationProtocol.readValue ( in );
+        Assert.assertEquals ( 44L, value2.getSequence () );
+        Assert.assertEquals ( "item\u00e42", value2.getId () );
+        Assert.assertTrue ( Double.isNaN ( value2.getValue () ) );
+        Assert.assertEquals ( 2000L, value2.getTimestamp () );
+        Assert.assertTrue ( value2.isError () );
+        Assert.assertTrue ( value2.isManual () );
+
+        Assert.assertEquals ( -1, in.read () );
+    }
+
+    @Test
+    public void testFlags () throws Exception
+    {
+        for ( final boolean error : new boolean[] { false, true } )
+        {
+            for ( final boolean manual : new boolean[] { false, true } )
+            {
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+                ReplicationProtocol.writeValue ( new DataOutputStream ( bos ), new ReplicationProtocol.Value ( 1L, "id", 0.0, 0L, error, manual ) );
+
+                final DataInputStream in = new DataInputStream ( new ByteArrayInputStream ( bos.toByteArray () ) );
+                in.readByte ();
+                final ReplicationProtocol.Value value = ReplicationProtocol.readValue ( in );
+
+                Assert.assertEquals ( error, value.isError () );
+                Assert.assertEquals ( manual, value.isManual () );
+            }
+        }
+    }
+
+    @Test ( expected = EOFException.class )
+    public void testTruncatedValue () throws Exception
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        ReplicationProtocol.writeValue ( new DataOutputStream ( bos ), new ReplicationProtocol.Value ( 1L, "id", 0.0, 0L, false, false ) );
+
+        final byte[] data = bos.toByteArray ();
+        final DataInputStream in = new DataInputStream ( new ByteArrayInputStream ( data, 0, data.length - 1 ) );
+        in.readByte ();
+        ReplicationProtocol.readValue ( in );
+    }
+}
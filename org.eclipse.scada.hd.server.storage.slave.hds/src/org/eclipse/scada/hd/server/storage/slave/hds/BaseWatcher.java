@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - report deleted storage files
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.slave.hds;
 
@@ -173,7 +174,7 @@ public class BaseWatcher
                 {
                     if ( this.id != null )
                     {
-                        this.storageManager.fileChanged ( this.path.toFile (), this.id, path.toFile () );
+                        this.storageManager.fileChanged ( this.path.toFile (), this.id, path.toFile (), event.kind () == StandardWatchEventKinds.ENTRY_DELETE );
                     }
                 }
             }
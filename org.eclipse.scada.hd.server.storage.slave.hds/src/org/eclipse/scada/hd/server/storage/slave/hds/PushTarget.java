@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.slave.hds;
+
+import org.eclipse.scada.hd.server.storage.hds.ReplicationProtocol;
+
+/**
+ * Receives the values pushed by the master
+ */
+public interface PushTarget
+{
+    /**
+     * Set whether values are pushed by the master
+     */
+    public void setPushActive ( boolean state );
+
+    /**
+     * Reload everything from the storage files, since pushed values were
+     * missed
+     */
+    public void catchUp ();
+
+    /**
+     * Apply a pushed value
+     *
+     * @return <code>true</code> if the value belongs to this target,
+     *         <code>false</code> otherwise
+     */
+    public boolean pushData ( ReplicationProtocol.Value value );
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.slave.hds;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The values pushed by the master which were not yet seen as file changes
+ * <p>
+ * The master writes each pushed value to the storage files as well, so the
+ * slave receives a change of the file containing the value afterwards. This
+ * change is already applied and can be skipped. Any other change, like values
+ * written by other means, purged or deleted files, must be processed as usual.
+ * </p>
+ * <p>
+ * A pushed value only covers one file change. It expires after some time, in
+ * case the change notification of its file was missed or arrived before the
+ * value.
+ * </p>
+ */
+public class PushedValues
+{
+    private final long expiry;
+
+    private final int maxEntries;
+
+    /**
+     * Maps the timestamp of a pushed value to the time it was received
+     */
+    private final NavigableMap<Long, Long> values = new TreeMap<> ();
+
+    /**
+     * @param expiry
+     *            the time in milliseconds a pushed value covers a file change
+     * @param maxEntries
+     *            the maximum number of pushed values to remember, the oldest
+     *            ones are dropped first
+     */
+    public PushedValues ( final long expiry, final int maxEntries )
+    {
+        this.expiry = expiry;
+        this.maxEntries = maxEntries;
+    }
+
+    public synchronized void add ( final long timestamp, final long now )
+    {
+        this.values.put ( timestamp, now );
+        while ( this.values.size () > this.maxEntries )
+        {
+            this.values.pollFirstEntry ();
+        }
+    }
+
+    /**
+     * Consume the pushed values of a changed file
+     *
+     * @param start
+     *            the start of the file, inclusive
+     * @param end
+     *            the end of the file, exclusive
+     * @param now
+     *            the current time
+     * @return <code>true</code> if the change was caused by pushed values and
+     *         can be skipped, <code>false</code> if it has to be processed
+     */
+    public synchronized boolean consume ( final long start, final long end, final long now )
+    {
+        final NavigableMap<Long, Long> range = this.values.subMap ( start, true, end, false );
+
+        boolean result = false;
+        for ( final Long received : range.values () )
+        {
+            if ( now - received <= this.expiry )
+            {
+                result = true;
+                break;
+            }
+        }
+
+        range.clear ();
+        return result;
+    }
+
+    public synchronized void clear ()
+    {
+        this.values.clear ();
+    }
+
+    public synchronized int size ()
+    {
+        return this.values.size ();
+    }
+}
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.hd.server.storage.slave.hds;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collection;
+
+import org.eclipse.scada.hd.server.storage.hds.ReplicationProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receive values pushed by the master storage
+ * <p>
+ * While connected, the targets are switched to push mode and skip the changes
+ * of the storage files caused by pushed values. Each time the push mode is entered or left,
+ * the storages catch up by reading the storage files, since values may have
+ * been missed in between. The same happens when a gap in the sequence numbers
+ * is detected.
+ * </p>
+ */
+public class ReplicationClient
+{
+    private final static Logger logger = LoggerFactory.getLogger ( ReplicationClient.class );
+
+    private final String host;
+
+    private final int port;
+
+    private final Collection<? extends PushTarget> targets;
+
+    private final long reconnectDelay;
+
+    private final int timeout;
+
+    private final Thread thread;
+
+    private volatile boolean disposed;
+
+    private Socket socket;
+
+    public ReplicationClient ( final String address, final Collection<? extends PushTarget> targets )
+    {
+        final int idx = address.lastIndexOf ( ':' );
+        if ( idx < 0 )
+        {
+            throw new IllegalArgumentException ( String.format ( "Address '%s' must be in the format <host>:<port>", address ) );
+        }
+
+        this.host = address.substring ( 0, idx );
+        this.port = Integer.parseInt ( address.substring ( idx + 1 ) );
+        this.targets = targets;
+
+        this.reconnectDelay = Long.getLong ( "org.eclipse.scada.hd.server.storage.slave.hds.push.reconnectDelay", 5000 );
+        this.timeout = Integer.getInteger ( "org.eclipse.scada.hd.server.storage.slave.hds.push.timeout", 15000 );
+
+        this.thread = new Thread ( "HDSReplicationClient" ) {
+            @Override
+            public void run ()
+            {
+                runClient ();
+            }
+        };
+        this.thread.setDaemon ( true );
+        this.thread.start ();
+    }
+
+    protected void runClient ()
+    {
+        while ( !this.disposed )
+        {
+            try
+            {
+                receive ();
+            }
+            catch ( final IOException e )
+            {
+                if ( !this.disposed )
+                {
+                    logger.info ( "Connection to master failed - {}:{}: {}", new Object[] { this.host, this.port, e.getMessage () } );
+                }
+            }
+            catch ( final Exception e )
+            {
+                logger.warn ( "Failed to receive values from master", e );
+            }
+            finally
+            {
+                closeSocket ();
+                setPushActive ( false );
+            }
+
+            if ( this.disposed )
+            {
+                return;
+            }
+
+            try
+            {
+                Thread.sleep ( this.reconnectDelay );
+            }
+            catch ( final InterruptedException e )
+            {
+                return;
+            }
+        }
+    }
+
+    private void receive () throws IOException
+    {
+        final Socket socket = new Socket ();
+        synchronized ( this )
+        {
+            if ( this.disposed )
+            {
+                return;
+            }
+            this.socket = socket;
+        }
+
+        socket.connect ( new InetSocketAddress ( this.host, this.port ), this.timeout );
+        socket.setSoTimeout ( this.timeout );
+
+        final DataOutputStream out = new DataOutputStream ( socket.getOutputStream () );
+        out.writeInt ( ReplicationProtocol.MAGIC );
+        out.flush ();
+
+        final DataInputStream in = new DataInputStream ( new BufferedInputStream ( socket.getInputStream () ) );
+        if ( in.readByte () != ReplicationProtocol.MSG_HELLO )
+        {
+            throw new IOException ( "Invalid handshake" );
+        }
+
+        long sequence = in.readLong ();
+
+        logger.info ( "Connected to master - {}:{}, sequence: {}", new Object[] { this.host, this.port, sequence } );
+
+        setPushActive ( true );
+
+        for ( ;; )
+        {
+            final byte type = in.readByte ();
+            switch ( type )
+            {
+                case ReplicationProtocol.MSG_PING:
+                    break;
+                case ReplicationProtocol.MSG_VALUE:
+                    final ReplicationProtocol.Value value = ReplicationProtocol.readValue ( in );
+                    if ( value.getSequence () != sequence + 1 )
+                    {
+                        logger.info ( "Gap in sequence numbers - expected: {}, received: {}", sequence + 1, value.getSequence () );
+                        catchUp ();
+                    }
+                    sequence = value.getSequence ();
+                    pushData ( value );
+                    break;
+                default:
+                    throw new IOException ( String.format ( "Invalid message type: %s", type ) );
+            }
+        }
+    }
+
+    private void setPushActive ( final boolean state )
+    {
+        for ( final PushTarget target : this.targets )
+        {
+            target.setPushActive ( state );
+        }
+    }
+
+    private void catchUp ()
+    {
+        for ( final PushTarget target : this.targets )
+        {
+            target.catchUp ();
+        }
+    }
+
+    private void pushData ( final ReplicationProtocol.Value value )
+    {
+        for ( final PushTarget target : this.targets )
+        {
+            if ( target.pushData ( value ) )
+            {
+                return;
+            }
+        }
+        logger.debug ( "Received value for unknown storage: {}", value.getId () );
+    }
+
+    private synchronized void closeSocket ()
+    {
+        if ( this.socket != null )
+        {
+            try
+            {
+                this.socket.close ();
+            }
+            catch ( final IOException e )
+            {
+                logger.debug ( "Failed to close socket", e );
+            }
+            this.socket = null;
+        }
+    }
+
+    public void dispose ()
+    {
+        this.disposed = true;
+        closeSocket ();
+        this.thread.interrupt ();
+    }
+}
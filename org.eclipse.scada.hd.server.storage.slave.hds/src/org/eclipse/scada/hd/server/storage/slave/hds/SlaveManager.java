@@ -34,6 +34,8 @@ public class SlaveManager
 
     private ScheduledExportedExecutorService eventExecutor;
 
+    private ReplicationClient replicationClient;
+
     public SlaveManager ()
     {
         final BundleContext bundleContext = FrameworkUtil.getBundle ( SlaveManager.class ).getBundleContext ();
@@ -73,6 +75,12 @@ public class SlaveManager
                     this.storageManagers.add ( new StorageManager ( bundleContext, new File ( path ), this.pool, this.executor, this.eventExecutor ) );
                 }
             }
+
+            final String pushAddress = System.getProperty ( "org.eclipse.scada.hd.server.storage.slave.hds.push.address" );
+            if ( pushAddress != null && !pushAddress.isEmpty () )
+            {
+                this.replicationClient = new ReplicationClient ( pushAddress, this.storageManagers );
+            }
         }
         catch ( final Exception e )
         {
@@ -83,6 +91,12 @@ public class SlaveManager
 
     public void dispose ()
     {
+        if ( this.replicationClient != null )
+        {
+            this.replicationClient.dispose ();
+            this.replicationClient = null;
+        }
+
         if ( this.pool != null )
         {
             this.pool.dispose ();
@@ -7,6 +7,7 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - receive values pushed by the master
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.slave.hds;
 
@@ -20,6 +21,7 @@ import java.util.regex.Pattern;
 
 import org.eclipse.scada.hd.server.common.HistoricalItem;
 import org.eclipse.scada.hd.server.storage.hds.AbstractStorageImpl;
+import org.eclipse.scada.hd.server.storage.hds.QueryScheduler;
 import org.eclipse.scada.hds.DataFilePool;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -34,9 +36,11 @@ public class StorageImpl extends AbstractStorageImpl
 
     private final ServiceRegistration<HistoricalItem> handle;
 
-    public StorageImpl ( final BundleContext context, final File file, final DataFilePool pool, final ScheduledExecutorService queryExecutor, final ScheduledExecutorService eventExecutor ) throws Exception
+    private final PushedValues pushedValues = new PushedValues ( Long.getLong ( "org.eclipse.scada.hd.server.storage.slave.hds.push.changeExpiry", 10000 ), Integer.getInteger ( "org.eclipse.scada.hd.server.storage.slave.hds.push.maxPendingChanges", 10000 ) );
+
+    public StorageImpl ( final BundleContext context, final File file, final DataFilePool pool, final QueryScheduler queryScheduler, final ScheduledExecutorService eventExecutor ) throws Exception
     {
-        super ( file, pool, queryExecutor, eventExecutor );
+        super ( file, pool, queryScheduler, eventExecutor );
 
         // register with OSGi
         final Dictionary<String, Object> properties = new Hashtable<String, Object> ( 2 );
@@ -56,7 +60,18 @@ public class StorageImpl extends AbstractStorageImpl
 
     public void fileDeleted ( final File file )
     {
-        logger.info ( "File changed: {}", file );
+        handleFileChange ( file, true );
+    }
+
+    public void fileChanged ( final File file )
+    {
+        // FIXME: should use file content for notification
+        handleFileChange ( file, false );
+    }
+
+    private void handleFileChange ( final File file, final boolean deleted )
+    {
+        logger.info ( "File changed: {}, deleted: {}", file, deleted );
 
         final Matcher m = this.fileNamePattern.matcher ( file.getName () );
         if ( !m.matches () )
@@ -69,14 +84,35 @@ public class StorageImpl extends AbstractStorageImpl
 
         final long slice = getStorageInformation ().getConfiguration ().getTimeSlice ();
 
+        if ( this.pushedValues.consume ( start, start + slice, System.currentTimeMillis () ) && !deleted )
+        {
+            logger.debug ( "Skipping change, values were pushed - {} to {}", start, start + slice );
+            return;
+        }
+
         logger.info ( "File change {} to {}", start, start + slice );
+        invalidateLevels ( start );
         handleStoreChanged ( new Date ( start ), new Date ( start + slice ) );
     }
 
-    public void fileChanged ( final File file )
+    /**
+     * Handle a value which was inserted and pushed by the master
+     */
+    public void pushData ( final double value, final Date timestamp, final boolean error, final boolean manual )
     {
-        // FIXME: should use file content for notification
-        fileDeleted ( file );
+        this.pushedValues.add ( timestamp.getTime (), System.currentTimeMillis () );
+        notifyData ( value, timestamp, error, manual );
+    }
+
+    /**
+     * Reload everything from the storage files
+     */
+    public void catchUp ()
+    {
+        logger.debug ( "Catching up from storage files" );
+        this.pushedValues.clear ();
+        invalidateLevels ( 0 );
+        handleStoreChanged ( new Date ( 0 ), new Date () );
     }
 
 }
@@ -7,6 +7,8 @@
  *
  * Contributors:
  *     IBH SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - receive values pushed by the master
+ *     IBH SYSTEMS GmbH - only skip file changes caused by pushed values
  *******************************************************************************/
 package org.eclipse.scada.hd.server.storage.slave.hds;
 
@@ -14,6 +16,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -26,6 +29,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.scada.hd.data.HistoricalItemInformation;
 import org.eclipse.scada.hd.server.storage.hds.AbstractStorageManager;
+import org.eclipse.scada.hd.server.storage.hds.ReplicationProtocol;
 import org.eclipse.scada.hd.server.storage.hds.StorageInformation;
 import org.eclipse.scada.hds.DataFilePool;
 import org.eclipse.scada.utils.str.Tables;
@@ -33,7 +37,7 @@ import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class StorageManager extends AbstractStorageManager
+public class StorageManager extends AbstractStorageManager implements PushTarget
 {
 
     private final static Logger logger = LoggerFactory.getLogger ( StorageManager.class );
@@ -50,6 +54,13 @@ public class StorageManager extends AbstractStorageManager
 
     private final Map<File, StorageImpl> storages = new HashMap<File, StorageImpl> ();
 
+    private final Map<String, StorageImpl> storagesById = new HashMap<String, StorageImpl> ();
+
+    /**
+     * Values are pushed by the master
+     */
+    private volatile boolean pushActive;
+
     private final DataFilePool pool;
 
     private final ScheduledExecutorService eventExecutor;
@@ -151,8 +162,9 @@ public class StorageManager extends AbstractStorageManager
         this.lock.lock ();
         try
         {
-            final StorageImpl storage = new StorageImpl ( this.context, storageDirectory, this.pool, this.queryExecutor, this.eventExecutor );
+            final StorageImpl storage = new StorageImpl ( this.context, storageDirectory, this.pool, this.queryScheduler, this.eventExecutor );
             this.storages.put ( storageDirectory, storage );
+            this.storagesById.put ( storage.getInformation ().getItemId (), storage );
         }
         finally
         {
@@ -171,6 +183,7 @@ public class StorageManager extends AbstractStorageManager
             final StorageImpl storage = this.storages.remove ( storageDirectory );
             if ( storage != null )
             {
+                this.storagesById.remove ( storage.getInformation ().getItemId () );
                 storage.dispose ();
             }
         }
@@ -180,10 +193,17 @@ public class StorageManager extends AbstractStorageManager
         }
     }
 
-    public void fileChanged ( final File storageDirectory, final String id, final File fileChanged )
+    /**
+     * Handle a change of a storage file
+     * <p>
+     * Changes caused by values pushed by the master are skipped by the
+     * storage, deleted files are always processed.
+     * </p>
+     */
+    public void fileChanged ( final File storageDirectory, final String id, final File fileChanged, final boolean deleted )
     {
         this.lock.lock ();
-        logger.debug ( "fileChanged - storageDirectory: {}, id: {}, fileChanged: {}", storageDirectory, id, fileChanged );
+        logger.debug ( "fileChanged - storageDirectory: {}, id: {}, fileChanged: {}, deleted: {}", new Object[] { storageDirectory, id, fileChanged, deleted } );
         try
         {
             final StorageImpl storage = this.storages.get ( storageDirectory );
@@ -192,7 +212,77 @@ public class StorageManager extends AbstractStorageManager
                 logger.info ( "Received change notification for unknown storage: {} / {}", storageDirectory, fileChanged );
                 return;
             }
-            storage.fileChanged ( fileChanged );
+            if ( deleted )
+            {
+                storage.fileDeleted ( fileChanged );
+            }
+            else
+            {
+                storage.fileChanged ( fileChanged );
+            }
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    /**
+     * Set whether values are pushed by the master
+     * <p>
+     * All storages catch up from the storage files when the state changes,
+     * since changes might have been missed in between.
+     * </p>
+     */
+    @Override
+    public void setPushActive ( final boolean state )
+    {
+        if ( this.pushActive == state )
+        {
+            return;
+        }
+
+        logger.info ( "Push active: {}", state );
+        this.pushActive = state;
+        catchUp ();
+    }
+
+    @Override
+    public void catchUp ()
+    {
+        this.lock.lock ();
+        try
+        {
+            for ( final StorageImpl storage : this.storages.values () )
+            {
+                storage.catchUp ();
+            }
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    /**
+     * Push a value to the storage it belongs to
+     *
+     * @return <code>true</code> if the storage is managed by this storage
+     *         manager, <code>false</code> otherwise
+     */
+    @Override
+    public boolean pushData ( final ReplicationProtocol.Value value )
+    {
+        this.lock.lock ();
+        try
+        {
+            final StorageImpl storage = this.storagesById.get ( value.getId () );
+            if ( storage == null )
+            {
+                return false;
+            }
+            storage.pushData ( value.getValue (), new Date ( value.getTimestamp () ), value.isError (), value.isManual () );
+            return true;
         }
         finally
         {
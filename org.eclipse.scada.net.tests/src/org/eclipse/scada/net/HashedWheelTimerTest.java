@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.net;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.scada.net.utils.HashedWheelTimer;
+import org.eclipse.scada.net.utils.HashedWheelTimer.Timeout;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest
+{
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setup ()
+    {
+        // a small wheel, so that timeouts need more than one round
+        this.timer = new HashedWheelTimer ( "HashedWheelTimerTest", 10, TimeUnit.MILLISECONDS, 8 );
+    }
+
+    @After
+    public void dispose ()
+    {
+        this.timer.stop ();
+    }
+
+    @Test
+    public void testExpire () throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch ( 1 );
+
+        final long start = System.nanoTime ();
+        final Timeout timeout = this.timer.newTimeout ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                latch.countDown ();
+            }
+        }, 200, TimeUnit.MILLISECONDS );
+
+        Assert.assertTrue ( latch.await ( 5, TimeUnit.SECONDS ) );
+
+        // never early
+        Assert.assertTrue ( System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos ( 200 ) );
+        Assert.assertTrue ( timeout.isExpired () );
+        Assert.assertFalse ( timeout.cancel () );
+        Assert.assertEquals ( 0, this.timer.getActiveTimeouts () );
+    }
+
+    @Test
+    public void testCancel () throws Exception
+    {
+        final AtomicInteger counter = new AtomicInteger ();
+        final Runnable task = new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                counter.incrementAndGet ();
+            }
+        };
+
+        final CountDownLatch latch = new CountDownLatch ( 1 );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            final Timeout timeout = this.timer.newTimeout ( task, 50 + i % 100, TimeUnit.MILLISECONDS );
+            Assert.assertTrue ( timeout.cancel () );
+            Assert.assertTrue ( timeout.isCancelled () );
+            Assert.assertFalse ( timeout.cancel () );
+        }
+
+        this.timer.newTimeout ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                latch.countDown ();
+            }
+        }, 300, TimeUnit.MILLISECONDS );
+
+        Assert.assertTrue ( latch.await ( 5, TimeUnit.SECONDS ) );
+        Assert.assertEquals ( 0, counter.get () );
+        Assert.assertEquals ( 0, this.timer.getActiveTimeouts () );
+    }
+
+    @Test
+    public void testMany () throws Exception
+    {
+        final int count = 10000;
+        final CountDownLatch latch = new CountDownLatch ( count / 2 );
+        final AtomicInteger early = new AtomicInteger ();
+
+        for ( int i = 0; i < count; i++ )
+        {
+            final long delay = 50 + i % 250;
+            final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos ( delay );
+
+            final Timeout timeout = this.timer.newTimeout ( new Runnable () {
+
+                @Override
+                public void run ()
+                {
+                    if ( System.nanoTime () < deadline )
+                    {
+                        early.incrementAndGet ();
+                    }
+                    latch.countDown ();
+                }
+            }, delay, TimeUnit.MILLISECONDS );
+
+            if ( i % 2 == 1 )
+            {
+                timeout.cancel ();
+            }
+        }
+
+        Assert.assertTrue ( latch.await ( 10, TimeUnit.SECONDS ) );
+        Assert.assertEquals ( 0, early.get () );
+        Assert.assertEquals ( 0, this.timer.getActiveTimeouts () );
+    }
+}
@@ -7,27 +7,32 @@
  *
  * Contributors:
  *     TH4 SYSTEMS GmbH - initial API and implementation
+ *     IBH SYSTEMS GmbH - use a shared timer for timeouts
+ *     IBH SYSTEMS GmbH - notify timeouts outside of the timer thread
  *******************************************************************************/
 package org.eclipse.scada.net.mina;
 
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.mina.core.future.WriteFuture;
 import org.eclipse.scada.utils.stats.StatisticsImpl;
 import org.eclipse.scada.net.base.MessageListener;
 import org.eclipse.scada.net.base.MessageStateListener;
 import org.eclipse.scada.net.base.data.Message;
+import org.eclipse.scada.net.utils.HashedWheelTimer;
+import org.eclipse.scada.net.utils.HashedWheelTimer.Timeout;
 import org.eclipse.scada.net.utils.MessageCreator;
-import org.eclipse.scada.utils.concurrent.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,80 +44,97 @@ public class Messenger implements MessageListener
 
     private final static Logger logger = LoggerFactory.getLogger ( Messenger.class );
 
-    private ScheduledFuture<?> timeoutJob;
+    /**
+     * The timer for message and session timeouts, shared by all messengers
+     */
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer ( "MessengerTimer", Long.getLong ( "org.eclipse.scada.net.mina.timer.tickDuration", 100 ), TimeUnit.MILLISECONDS, Integer.getInteger ( "org.eclipse.scada.net.mina.timer.ticksPerWheel", 512 ) );
 
-    private static class MessageTag
+    /**
+     * Runs the listeners of timed out messages and sessions, shared by all
+     * messengers
+     * <p>
+     * The timer thread only removes the timed out tags, so a slow listener
+     * cannot delay the timeouts of other connections.
+     * </p>
+     */
+    private static final Executor NOTIFIER = createNotifier ( Integer.getInteger ( "org.eclipse.scada.net.mina.notifier.threads", 2 ) );
+
+    private static Executor createNotifier ( final int threads )
     {
-        private MessageStateListener listener;
+        final AtomicInteger counter = new AtomicInteger ();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor ( threads, threads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable> (), new ThreadFactory () {
 
-        private long timestamp = 0;
+            @Override
+            public Thread newThread ( final Runnable r )
+            {
+                final Thread thread = new Thread ( r, "MessengerNotifier/" + counter.incrementAndGet () );
+                thread.setDaemon ( true );
+                return thread;
+            }
+        } );
+        executor.allowCoreThreadTimeOut ( true );
+        return executor;
+    }
 
-        private long timeout = 0;
+    private static class MessageTag
+    {
+        private final MessageStateListener listener;
 
-        private boolean canceled = false;
+        private final long timeout;
 
-        public MessageStateListener getListener ()
-        {
-            return this.listener;
-        }
+        private volatile Timeout timer;
 
-        public void setListener ( final MessageStateListener listener )
+        public MessageTag ( final MessageStateListener listener, final long timeout )
         {
             this.listener = listener;
+            this.timeout = timeout;
         }
 
-        public void setTimestamp ( final long timestamp )
-        {
-            this.timestamp = timestamp;
-        }
-
-        public void setTimeout ( final long timeout )
+        public MessageStateListener getListener ()
         {
-            this.timeout = timeout;
+            return this.listener;
         }
 
-        public synchronized boolean isTimedOut ()
+        public long getTimeout ()
         {
-            if ( this.timeout <= 0 )
-            {
-                return this.canceled;
-            }
-
-            if ( this.canceled )
-            {
-                return true;
-            }
-
-            return System.currentTimeMillis () - this.timestamp >= this.timeout;
+            return this.timeout;
         }
 
-        public synchronized void cancel ()
+        public void setTimer ( final Timeout timer )
         {
-            this.canceled = true;
+            this.timer = timer;
         }
 
-        public boolean isCanceled ()
+        public void cancelTimer ()
         {
-            return this.canceled;
+            final Timeout timer = this.timer;
+            if ( timer != null )
+            {
+                timer.cancel ();
+            }
         }
     }
 
-    private final Map<Long, MessageTag> tagList = new HashMap<Long, MessageTag> ();
+    /**
+     * The tags of messages waiting for a reply
+     * <p>
+     * Whoever removes the tag from the map (the reply, the timeout or the
+     * disconnect) is responsible for notifying the listener.
+     * </p>
+     */
+    private final ConcurrentMap<Long, MessageTag> tagList = new ConcurrentHashMap<Long, MessageTag> ();
 
     private MessageSender connection;
 
-    private ScheduledExecutorService timer;
+    private Timeout sessionTimeoutJob;
 
     private final long sessionTimeout;
 
-    private final long timeoutJobPeriod;
-
     private final StatisticsImpl statistics;
 
     public Messenger ( final long timeout, final StatisticsImpl statistics )
     {
         this.sessionTimeout = timeout;
-        this.timeoutJobPeriod = 1000;
         this.statistics = statistics;
 
         statistics.setLabel ( STATS_RECEIVED_MSGS, "Received messages" );
@@ -124,17 +146,6 @@ public class Messenger implements MessageListener
         return this.sessionTimeout;
     }
 
-    @Override
-    protected void finalize () throws Throwable
-    {
-        logger.debug ( "Finalized" );
-        if ( this.timer != null )
-        {
-            this.timer.shutdown ();
-        }
-        super.finalize ();
-    }
-
     public void connected ( final MessageSender connection )
     {
         disconnected ();
@@ -150,29 +161,25 @@ public class Messenger implements MessageListener
                 this.connection = connection;
                 tags = cleanTagList ();
 
-                this.timer = Executors.newSingleThreadScheduledExecutor ( new NamedThreadFactory ( "MessengerTimer/" + connection, true ) );
-                final Runnable runnable = new Runnable () {
-
-                    @Override
-                    public void run ()
-                    {
-                        Messenger.this.processTimeOuts ();
-                    }
-
-                    @Override
-                    protected void finalize () throws Throwable
-                    {
-                        logger.debug ( "Finalized timeout job" );
-                        super.finalize ();
-                    }
-                };
-                this.timeoutJob = this.timer.scheduleWithFixedDelay ( runnable, this.sessionTimeout, this.timeoutJobPeriod, TimeUnit.MILLISECONDS );
+                scheduleSessionTimeout ( connection, this.sessionTimeout );
             }
         }
 
         fireTimeouts ( tags );
     }
 
+    private synchronized void scheduleSessionTimeout ( final MessageSender connection, final long delay )
+    {
+        this.sessionTimeoutJob = TIMER.newTimeout ( new Runnable () {
+
+            @Override
+            public void run ()
+            {
+                checkSessionTimeout ( connection );
+            }
+        }, delay, TimeUnit.MILLISECONDS );
+    }
+
     /**
      * Disconnects the messenger from the current connection (if there is one).
      * <p>
@@ -188,15 +195,10 @@ public class Messenger implements MessageListener
             this.connection = null;
             logger.info ( "Disconnected" );
             final Collection<MessageTag> tags = cleanTagList ();
-            if ( this.timeoutJob != null )
-            {
-                this.timeoutJob.cancel ( false );
-                this.timeoutJob = null;
-            }
-            if ( this.timer != null )
+            if ( this.sessionTimeoutJob != null )
             {
-                this.timer.shutdown ();
-                this.timer = null;
+                this.sessionTimeoutJob.cancel ();
+                this.sessionTimeoutJob = null;
             }
             return tags;
         }
@@ -249,25 +251,16 @@ public class Messenger implements MessageListener
     {
         final Collection<MessageTag> tags = new LinkedList<MessageTag> ();
 
-        synchronized ( this.tagList )
+        for ( final Map.Entry<Long, MessageTag> entry : this.tagList.entrySet () )
         {
-            for ( final Map.Entry<Long, MessageTag> tag : this.tagList.entrySet () )
+            final MessageTag tag = entry.getValue ();
+            if ( this.tagList.remove ( entry.getKey (), tag ) )
             {
-                try
-                {
-                    if ( !tag.getValue ().isCanceled () )
-                    {
-                        tag.getValue ().cancel ();
-                        tags.add ( tag.getValue () );
-                    }
-                }
-                catch ( final Throwable e )
-                {
-                    logger.warn ( "Failed to handle message timeout", e );
-                }
+                tag.cancelTimer ();
+                tags.add ( tag );
             }
-            this.tagList.clear ();
         }
+
         return tags;
     }
 
@@ -315,106 +308,95 @@ public class Messenger implements MessageListener
     {
         final Long seq = Long.valueOf ( message.getReplySequence () );
 
-        MessageTag tag = null;
-        synchronized ( this.tagList )
+        // if the tag is already timed out then it is not in the list anymore
+        final MessageTag tag = this.tagList.remove ( seq );
+        if ( tag == null )
         {
-            if ( this.tagList.containsKey ( seq ) )
-            {
-                tag = this.tagList.get ( seq );
-
-                // if the tag is timed out then we don't process it here and let processTimeOuts () do the job
-                if ( !tag.isTimedOut () )
-                {
-                    this.tagList.remove ( seq );
-                }
-                else
-                {
-                    logger.info ( "Found tag for message {} but it is timed out", seq );
-                    tag = null;
-                    return true;
-                }
-            }
+            return false;
         }
 
+        tag.cancelTimer ();
+
         try
         {
-            if ( tag != null )
-            {
-                logger.debug ( "Processing message listener for message {}", seq );
-                tag.getListener ().messageReply ( message );
-            }
+            logger.debug ( "Processing message listener for message {}", seq );
+            tag.getListener ().messageReply ( message );
         }
         catch ( final Throwable e )
         {
             logger.warn ( "Custom message failed", e );
         }
-        return tag != null;
+        return true;
     }
 
-    private void processTimeOuts ()
+    private void processTimeOut ( final Long seq, final MessageTag tag )
     {
-        final List<MessageTag> removeBag = new LinkedList<MessageTag> ();
+        if ( !this.tagList.remove ( seq, tag ) )
+        {
+            // got a reply or got disconnected in the meantime
+            return;
+        }
 
-        // check for session timeout
-        checkSessionTimeout ();
+        logger.debug ( "Message {} timed out", seq );
 
-        // check for message timeouts
-        synchronized ( this.tagList )
-        {
-            for ( final Iterator<Map.Entry<Long, MessageTag>> i = this.tagList.entrySet ().iterator (); i.hasNext (); )
-            {
-                final MessageTag tag = i.next ().getValue ();
+        NOTIFIER.execute ( new Runnable () {
 
-                if ( tag.isTimedOut () )
+            @Override
+            public void run ()
+            {
+                try
+                {
+                    tag.getListener ().messageTimedOut ();
+                }
+                catch ( final Throwable e )
                 {
-                    removeBag.add ( tag );
-                    i.remove ();
+                    logger.info ( "Failed to handle messageTimedOut", e );
                 }
             }
-        }
+        } );
+    }
+
+    private void checkSessionTimeout ( final MessageSender connection )
+    {
+        final long timeDiff = System.currentTimeMillis () - this.lastMessge;
 
-        // now send out time outs
-        for ( final MessageTag tag : removeBag )
+        final Collection<MessageTag> tags;
+        synchronized ( this )
         {
-            try
+            if ( this.connection != connection )
             {
-                tag.getListener ().messageTimedOut ();
+                // disconnected in the meantime
+                return;
             }
-            catch ( final Throwable e )
+
+            if ( timeDiff <= this.sessionTimeout )
             {
-                logger.info ( "Failed to handle messageTimedOut", e );
+                // check again when the session would time out
+                scheduleSessionTimeout ( connection, this.sessionTimeout - timeDiff + 1 );
+                return;
             }
-        }
-    }
 
-    private void checkSessionTimeout ()
-    {
-        final long now = System.currentTimeMillis ();
-        final long timeDiff = now - this.lastMessge;
+            logger.warn ( "Closing connection due to receive timeout: {} (timeout: {})", timeDiff, this.sessionTimeout );
 
-        if ( this.connection == null )
-        {
-            logger.warn ( "Called without a connection" );
+            tags = performDisconnect ();
         }
 
-        if ( timeDiff > this.sessionTimeout )
-        {
-            final Collection<MessageTag> tags;
-            synchronized ( this )
+        NOTIFIER.execute ( new Runnable () {
+
+            @Override
+            public void run ()
             {
-                if ( this.connection == null )
+                try
                 {
-                    return;
+                    // "disconnected" will get called from outside, but we are already disconnected
+                    connection.close ();
+                }
+                finally
+                {
+                    fireTimeouts ( tags );
                 }
-
-                logger.warn ( "Closing connection due to receive timeout: {} (timeout: {})", timeDiff, this.sessionTimeout );
-                // we close the connection and wait for "disconnected" to get called from outside
-                this.connection.close ();
-
-                tags = performDisconnect ();
             }
-            fireTimeouts ( tags );
-        }
+        } );
     }
 
     public WriteFuture sendMessage ( final Message message )
@@ -434,9 +416,20 @@ public class Messenger implements MessageListener
             return;
         }
 
-        synchronized ( this.tagList )
+        final Long seq = Long.valueOf ( sequence );
+
+        this.tagList.put ( seq, messageTag );
+
+        if ( messageTag.getTimeout () > 0 )
         {
-            this.tagList.put ( sequence, messageTag );
+            messageTag.setTimer ( TIMER.newTimeout ( new Runnable () {
+
+                @Override
+                public void run ()
+                {
+                    processTimeOut ( seq, messageTag );
+                }
+            }, messageTag.getTimeout (), TimeUnit.MILLISECONDS ) );
         }
     }
 
@@ -461,11 +454,7 @@ public class Messenger implements MessageListener
         final MessageSender connection = this.connection;
         if ( connection != null )
         {
-            final MessageTag tag = new MessageTag ();
-
-            tag.setListener ( listener );
-            tag.setTimestamp ( System.currentTimeMillis () );
-            tag.setTimeout ( timeout < 0 ? 0 : timeout );
+            final MessageTag tag = new MessageTag ( listener, timeout < 0 ? 0 : timeout );
 
             future = connection.sendMessage ( message, new PrepareSendHandler () {
 
@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.net.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A timer for a large number of timeouts which mostly get cancelled
+ * <p>
+ * Adding and cancelling a timeout takes constant time and does not lock. The
+ * timeouts are kept in a wheel of buckets, one bucket per tick. A single
+ * worker thread advances the wheel once per tick and runs the timeouts which
+ * are due. So a timeout never runs early, but may run up to one tick late.
+ * </p>
+ * <p>
+ * The tasks are run on the worker thread and must not block, otherwise all
+ * other timeouts are delayed as well.
+ * </p>
+ * <p>
+ * The worker thread is a daemon thread which is started with the first
+ * timeout.
+ * </p>
+ */
+public class HashedWheelTimer
+{
+    private final static Logger logger = LoggerFactory.getLogger ( HashedWheelTimer.class );
+
+    private static final int STATE_INIT = 0;
+
+    private static final int STATE_STARTED = 1;
+
+    private static final int STATE_STOPPED = 2;
+
+    private final String name;
+
+    private final long tickDuration;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout> ();
+
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout> ();
+
+    private final AtomicInteger state = new AtomicInteger ( STATE_INIT );
+
+    private final AtomicLong activeTimeouts = new AtomicLong ();
+
+    private final long startTime;
+
+    private Thread worker;
+
+    /**
+     * A scheduled task
+     */
+    public static final class Timeout
+    {
+        private static final int INIT = 0;
+
+        private static final int CANCELLED = 1;
+
+        private static final int EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+
+        private final Runnable task;
+
+        /**
+         * The deadline in nanoseconds, relative to the start of the timer
+         */
+        private final long deadline;
+
+        private final AtomicInteger state = new AtomicInteger ( INIT );
+
+        // only accessed by the worker thread
+
+        private long remainingRounds;
+
+        private Bucket bucket;
+
+        private Timeout next;
+
+        private Timeout prev;
+
+        private Timeout ( final HashedWheelTimer timer, final Runnable task, final long deadline )
+        {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the timeout
+         *
+         * @return <code>true</code> if the timeout was cancelled,
+         *         <code>false</code> if it already ran or was cancelled before
+         */
+        public boolean cancel ()
+        {
+            if ( !this.state.compareAndSet ( INIT, CANCELLED ) )
+            {
+                return false;
+            }
+
+            // let the worker remove it from the wheel
+            this.timer.activeTimeouts.decrementAndGet ();
+            this.timer.cancelledTimeouts.add ( this );
+            return true;
+        }
+
+        public boolean isCancelled ()
+        {
+            return this.state.get () == CANCELLED;
+        }
+
+        public boolean isExpired ()
+        {
+            return this.state.get () == EXPIRED;
+        }
+
+        private void expire ()
+        {
+            if ( !this.state.compareAndSet ( INIT, EXPIRED ) )
+            {
+                return;
+            }
+
+            this.timer.activeTimeouts.decrementAndGet ();
+
+            try
+            {
+                this.task.run ();
+            }
+            catch ( final Throwable e )
+            {
+                logger.warn ( "Failed to run timeout", e );
+            }
+        }
+    }
+
+    /**
+     * The timeouts of one slot of the wheel
+     * <p>
+     * A doubly linked list, so that cancelled timeouts can be removed in
+     * constant time.
+     * </p>
+     */
+    private static final class Bucket
+    {
+        private Timeout head;
+
+        private Timeout tail;
+
+        public void add ( final Timeout timeout )
+        {
+            timeout.bucket = this;
+            if ( this.head == null )
+            {
+                this.head = this.tail = timeout;
+            }
+            else
+            {
+                this.tail.next = timeout;
+                timeout.prev = this.tail;
+                this.tail = timeout;
+            }
+        }
+
+        public Timeout remove ( final Timeout timeout )
+        {
+            final Timeout next = timeout.next;
+
+            if ( timeout.prev != null )
+            {
+                timeout.prev.next = next;
+            }
+            if ( timeout.next != null )
+            {
+                timeout.next.prev = timeout.prev;
+            }
+
+            if ( timeout == this.head )
+            {
+                if ( timeout == this.tail )
+                {
+                    this.head = this.tail = null;
+                }
+                else
+                {
+                    this.head = next;
+                }
+            }
+            else if ( timeout == this.tail )
+            {
+                this.tail = timeout.prev;
+            }
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+
+            return next;
+        }
+
+        /**
+         * Run all timeouts of this bucket which are due in the current round
+         */
+        public void expire ( final long now )
+        {
+            Timeout timeout = this.head;
+
+            while ( timeout != null )
+            {
+                if ( timeout.remainingRounds <= 0 && timeout.deadline <= now )
+                {
+                    final Timeout next = remove ( timeout );
+                    timeout.expire ();
+                    timeout = next;
+                }
+                else if ( timeout.isCancelled () )
+                {
+                    timeout = remove ( timeout );
+                }
+                else
+                {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a new timer
+     *
+     * @param name
+     *            the name of the worker thread
+     * @param tickDuration
+     *            the duration of one tick
+     * @param unit
+     *            the unit of the tick duration
+     * @param ticksPerWheel
+     *            the number of slots of the wheel, will be rounded up to the
+     *            next power of two
+     */
+    public HashedWheelTimer ( final String name, final long tickDuration, final TimeUnit unit, final int ticksPerWheel )
+    {
+        if ( tickDuration <= 0 )
+        {
+            throw new IllegalArgumentException ( "Tick duration must be greater than zero" );
+        }
+        if ( ticksPerWheel <= 0 || ticksPerWheel > 1 << 30 )
+        {
+            throw new IllegalArgumentException ( String.format ( "Ticks per wheel must be between 1 and 2^30: %s", ticksPerWheel ) );
+        }
+
+        this.name = name;
+        this.tickDuration = unit.toNanos ( tickDuration );
+
+        int size = 1;
+        while ( size < ticksPerWheel )
+        {
+            size <<= 1;
+        }
+
+        this.wheel = new Bucket[size];
+        for ( int i = 0; i < size; i++ )
+        {
+            this.wheel[i] = new Bucket ();
+        }
+        this.mask = size - 1;
+
+        this.startTime = System.nanoTime ();
+    }
+
+    /**
+     * Schedule a task
+     *
+     * @param task
+     *            the task to run
+     * @param delay
+     *            the delay after which the task is run
+     * @param unit
+     *            the unit of the delay
+     * @return the handle to cancel the task
+     */
+    public Timeout newTimeout ( final Runnable task, final long delay, final TimeUnit unit )
+    {
+        if ( task == null )
+        {
+            throw new NullPointerException ( "Task must not be null" );
+        }
+
+        start ();
+
+        final Timeout timeout = new Timeout ( this, task, System.nanoTime () + unit.toNanos ( delay ) - this.startTime );
+        this.activeTimeouts.incrementAndGet ();
+        this.pendingTimeouts.add ( timeout );
+        return timeout;
+    }
+
+    /**
+     * @return the number of timeouts which are neither cancelled nor expired
+     */
+    public long getActiveTimeouts ()
+    {
+        return this.activeTimeouts.get ();
+    }
+
+    private void start ()
+    {
+        switch ( this.state.get () )
+        {
+            case STATE_INIT:
+                synchronized ( this )
+                {
+                    if ( this.state.compareAndSet ( STATE_INIT, STATE_STARTED ) )
+                    {
+                        this.worker = new Thread ( new Runnable () {
+
+                            @Override
+                            public void run ()
+                            {
+                                HashedWheelTimer.this.run ();
+                            }
+                        }, this.name );
+                        this.worker.setDaemon ( true );
+                        this.worker.start ();
+                    }
+                }
+                break;
+            case STATE_STARTED:
+                break;
+            default:
+                throw new IllegalStateException ( "Timer is stopped" );
+        }
+    }
+
+    /**
+     * Stop the timer
+     * <p>
+     * Timeouts which did not run yet are dropped.
+     * </p>
+     */
+    public void stop ()
+    {
+        final Thread worker;
+        synchronized ( this )
+        {
+            this.state.set ( STATE_STOPPED );
+            worker = this.worker;
+        }
+
+        if ( worker != null && worker != Thread.currentThread () )
+        {
+            worker.interrupt ();
+            try
+            {
+                worker.join ();
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread ().interrupt ();
+            }
+        }
+    }
+
+    private void run ()
+    {
+        logger.debug ( "Starting timer: {}", this.name );
+
+        long tick = 0;
+
+        while ( this.state.get () == STATE_STARTED )
+        {
+            final long now = waitForNextTick ( tick );
+            if ( now < 0 )
+            {
+                break;
+            }
+
+            removeCancelled ();
+            transferPending ( tick );
+            this.wheel[(int) ( tick & this.mask )].expire ( now );
+            tick++;
+        }
+
+        logger.debug ( "Stopped timer: {}", this.name );
+    }
+
+    /**
+     * Sleep until the end of the tick
+     *
+     * @return the current time, relative to the start of the timer, or
+     *         <code>-1</code> if the timer was stopped
+     */
+    private long waitForNextTick ( final long tick )
+    {
+        final long deadline = this.tickDuration * ( tick + 1 );
+
+        while ( true )
+        {
+            final long now = System.nanoTime () - this.startTime;
+            final long sleep = TimeUnit.NANOSECONDS.toMillis ( deadline - now + 999999 );
+
+            if ( sleep <= 0 )
+            {
+                return now;
+            }
+
+            try
+            {
+                Thread.sleep ( sleep );
+            }
+            catch ( final InterruptedException e )
+            {
+                if ( this.state.get () != STATE_STARTED )
+                {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void removeCancelled ()
+    {
+        Timeout timeout;
+        while ( ( timeout = this.cancelledTimeouts.poll () ) != null )
+        {
+            if ( timeout.bucket != null )
+            {
+                timeout.bucket.remove ( timeout );
+            }
+        }
+    }
+
+    private void transferPending ( final long tick )
+    {
+        Timeout timeout;
+        while ( ( timeout = this.pendingTimeouts.poll () ) != null )
+        {
+            if ( timeout.isCancelled () )
+            {
+                continue;
+            }
+
+            final long calculated = timeout.deadline / this.tickDuration;
+            timeout.remainingRounds = ( calculated - tick ) / this.wheel.length;
+
+            // timeouts which are already due go into the current bucket
+            final long ticks = Math.max ( calculated, tick );
+            this.wheel[(int) ( ticks & this.mask )].add ( timeout );
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ngp.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.core.ngp.common.codec.osbp.DefaultBinaryContext;
+import org.eclipse.scada.hd.data.ValueEntry;
+import org.eclipse.scada.hd.protocol.ngp.codec.Structures;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the primitive array methods of the binary context against the list
+ * methods
+ * <p>
+ * Both must produce the same wire format, so that peers using the list
+ * methods can talk to peers using the array methods.
+ * </p>
+ */
+public class ArrayCodecTest
+{
+    private static final byte FIELD = (byte)2;
+
+    private DefaultBinaryContext context;
+
+    private IoBuffer buffer;
+
+    @Before
+    public void setup ()
+    {
+        this.context = new DefaultBinaryContext ();
+        this.buffer = IoBuffer.allocate ( 64 ).setAutoExpand ( true );
+    }
+
+    /**
+     * Switch the buffer from writing to reading and consume the field number
+     */
+    private void startReading ()
+    {
+        this.buffer.flip ();
+        Assert.assertEquals ( FIELD, this.buffer.get () );
+    }
+
+    private void assertFullyRead ()
+    {
+        Assert.assertFalse ( "Buffer has remaining data", this.buffer.hasRemaining () );
+    }
+
+    private byte[] encodeDoubleList ( final List<Double> data ) throws Exception
+    {
+        final IoBuffer buffer = IoBuffer.allocate ( 64 ).setAutoExpand ( true );
+        this.context.encodeDoubleCollection ( buffer, FIELD, data );
+        buffer.flip ();
+        final byte[] result = new byte[buffer.remaining ()];
+        buffer.get ( result );
+        return result;
+    }
+
+    private byte[] encodeDoubleArray ( final double[] data ) throws Exception
+    {
+        final IoBuffer buffer = IoBuffer.allocate ( 64 ).setAutoExpand ( true );
+        this.context.encodeDoubleArray ( buffer, FIELD, data );
+        buffer.flip ();
+        final byte[] result = new byte[buffer.remaining ()];
+        buffer.get ( result );
+        return result;
+    }
+
+    @Test
+    public void testDoubleArrayToList () throws Exception
+    {
+        this.context.encodeDoubleArray ( this.buffer, FIELD, new double[] { 1.0, -2.5, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -0.0 } );
+        startReading ();
+
+        final List<Double> result = this.context.decodeDoubleList ( this.buffer );
+        assertFullyRead ();
+
+        Assert.assertEquals ( Arrays.asList ( 1.0, -2.5, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -0.0 ), result );
+    }
+
+    @Test
+    public void testDoubleListToArray () throws Exception
+    {
+        this.context.encodeDoubleCollection ( this.buffer, FIELD, Arrays.asList ( 1.0, -2.5, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -0.0 ) );
+        startReading ();
+
+        final double[] result = this.context.decodeDoubleArray ( this.buffer );
+        assertFullyRead ();
+
+        Assert.assertArrayEquals ( new double[] { 1.0, -2.5, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -0.0 }, result, 0.0 );
+        // assertArrayEquals treats 0.0 and -0.0 as equal
+        Assert.assertEquals ( Double.doubleToRawLongBits ( -0.0 ), Double.doubleToRawLongBits ( result[5] ) );
+    }
+
+    @Test
+    public void testDoubleSameWireFormat () throws Exception
+    {
+        Assert.assertArrayEquals ( encodeDoubleList ( Arrays.asList ( 1.0, Double.NaN, 3.0 ) ), encodeDoubleArray ( new double[] { 1.0, Double.NaN, 3.0 } ) );
+        Assert.assertArrayEquals ( encodeDoubleList ( Arrays.<Double> asList () ), encodeDoubleArray ( new double[0] ) );
+        Assert.assertArrayEquals ( encodeDoubleList ( null ), encodeDoubleArray ( null ) );
+    }
+
+    @Test
+    public void testDoubleEmpty () throws Exception
+    {
+        this.context.encodeDoubleArray ( this.buffer, FIELD, new double[0] );
+        startReading ();
+
+        final double[] result = this.context.decodeDoubleArray ( this.buffer );
+        assertFullyRead ();
+
+        Assert.assertNotNull ( result );
+        Assert.assertEquals ( 0, result.length );
+    }
+
+    @Test
+    public void testDoubleNull () throws Exception
+    {
+        this.context.encodeDoubleArray ( this.buffer, FIELD, null );
+        startReading ();
+
+        Assert.assertNull ( this.context.decodeDoubleArray ( this.buffer ) );
+        assertFullyRead ();
+    }
+
+    @Test
+    public void testDoubleNullListToArray () throws Exception
+    {
+        this.context.encodeDoubleCollection ( this.buffer, FIELD, null );
+        startReading ();
+
+        Assert.assertNull ( this.context.decodeDoubleArray ( this.buffer ) );
+        assertFullyRead ();
+    }
+
+    @Test
+    public void testDoubleNullArrayToList () throws Exception
+    {
+        this.context.encodeDoubleArray ( this.buffer, FIELD, null );
+        startReading ();
+
+        Assert.assertNull ( this.context.decodeDoubleList ( this.buffer ) );
+        assertFullyRead ();
+    }
+
+    @Test ( expected = NullPointerException.class )
+    public void testDoubleListNullElement () throws Exception
+    {
+        // the wire format has no null elements, neither has the array
+        this.context.encodeDoubleCollection ( this.buffer, FIELD, Arrays.asList ( 1.0, null ) );
+    }
+
+    @Test ( expected = Exception.class )
+    public void testDoubleArrayWrongType () throws Exception
+    {
+        this.context.encodeLongArray ( this.buffer, FIELD, new long[] { 1L } );
+        startReading ();
+
+        this.context.decodeDoubleArray ( this.buffer );
+    }
+
+    @Test
+    public void testLongArray () throws Exception
+    {
+        this.context.encodeLongArray ( this.buffer, FIELD, new long[] { Long.MIN_VALUE, 0L, Long.MAX_VALUE } );
+        startReading ();
+
+        Assert.assertEquals ( Arrays.asList ( Long.MIN_VALUE, 0L, Long.MAX_VALUE ), this.context.decodeLongList ( this.buffer ) );
+        assertFullyRead ();
+
+        this.buffer.clear ();
+        this.context.encodeLongCollection ( this.buffer, FIELD, Arrays.asList ( Long.MIN_VALUE, 0L, Long.MAX_VALUE ) );
+        startReading ();
+
+        Assert.assertArrayEquals ( new long[] { Long.MIN_VALUE, 0L, Long.MAX_VALUE }, this.context.decodeLongArray ( this.buffer ) );
+        assertFullyRead ();
+    }
+
+    @Test
+    public void testIntArray () throws Exception
+    {
+        this.context.encodeIntArray ( this.buffer, FIELD, new int[] { Integer.MIN_VALUE, 0, Integer.MAX_VALUE } );
+        startReading ();
+
+        Assert.assertEquals ( Arrays.asList ( Integer.MIN_VALUE, 0, Integer.MAX_VALUE ), this.context.decodeIntList ( this.buffer ) );
+        assertFullyRead ();
+
+        this.buffer.clear ();
+        this.context.encodeIntCollection ( this.buffer, FIELD, Arrays.asList ( Integer.MIN_VALUE, 0, Integer.MAX_VALUE ) );
+        startReading ();
+
+        Assert.assertArrayEquals ( new int[] { Integer.MIN_VALUE, 0, Integer.MAX_VALUE }, this.context.decodeIntArray ( this.buffer ) );
+        assertFullyRead ();
+    }
+
+    @Test
+    public void testBooleanArray () throws Exception
+    {
+        this.context.encodeBooleanArray ( this.buffer, FIELD, new boolean[] { true, false, true } );
+        startReading ();
+
+        Assert.assertEquals ( Arrays.asList ( true, false, true ), this.context.decodeBooleanList ( this.buffer ) );
+        assertFullyRead ();
+
+        this.buffer.clear ();
+        this.context.encodeBooleanCollection ( this.buffer, FIELD, Arrays.asList ( true, false, true ) );
+        startReading ();
+
+        Assert.assertTrue ( Arrays.equals ( new boolean[] { true, false, true }, this.context.decodeBooleanArray ( this.buffer ) ) );
+        assertFullyRead ();
+    }
+
+    @Test
+    public void testEmptyAndNullArrays () throws Exception
+    {
+        this.context.encodeLongArray ( this.buffer, FIELD, new long[0] );
+        this.context.encodeIntArray ( this.buffer, FIELD, null );
+        this.context.encodeBooleanArray ( this.buffer, FIELD, new boolean[0] );
+        this.context.encodeLongArray ( this.buffer, FIELD, null );
+        startReading ();
+
+        Assert.assertEquals ( 0, this.context.decodeLongArray ( this.buffer ).length );
+        Assert.assertEquals ( FIELD, this.buffer.get () );
+        Assert.assertNull ( this.context.decodeIntArray ( this.buffer ) );
+        Assert.assertEquals ( FIELD, this.buffer.get () );
+        Assert.assertEquals ( 0, this.context.decodeBooleanArray ( this.buffer ).length );
+        Assert.assertEquals ( FIELD, this.buffer.get () );
+        Assert.assertNull ( this.context.decodeLongArray ( this.buffer ) );
+        assertFullyRead ();
+    }
+
+    @Test
+    public void testValueEntry () throws Exception
+    {
+        Structures.encodeValueEntry ( this.context, this.buffer, FIELD, new ValueEntry ( "AVG", new double[] { 1.0, Double.NaN, -3.5 } ) );
+        startReading ();
+
+        final ValueEntry result = Structures.decodeValueEntry ( this.context, this.buffer, false );
+        assertFullyRead ();
+
+        Assert.assertEquals ( "AVG", result.getValueType () );
+        Assert.assertArrayEquals ( new double[] { 1.0, Double.NaN, -3.5 }, result.getValues (), 0.0 );
+    }
+
+    @Test
+    public void testValueEntryNullValues () throws Exception
+    {
+        Structures.encodeValueEntry ( this.context, this.buffer, FIELD, new ValueEntry ( "AVG", null ) );
+        startReading ();
+
+        final ValueEntry result = Structures.decodeValueEntry ( this.context, this.buffer, false );
+        assertFullyRead ();
+
+        Assert.assertEquals ( "AVG", result.getValueType () );
+        Assert.assertNull ( result.getValues () );
+    }
+
+    /**
+     * Decode a value entry which was encoded by a peer still using the list
+     * of values as defined by the model
+     */
+    @Test
+    public void testValueEntryFromList () throws Exception
+    {
+        this.context.beginWriteStructure ( this.buffer, FIELD, false );
+        this.buffer.put ( (byte)2 );
+        this.context.encodeString ( this.buffer, (byte)1, "MIN" );
+        this.context.encodeDoubleCollection ( this.buffer, (byte)2, Arrays.asList ( 0.5, Double.NaN ) );
+        startReading ();
+
+        final ValueEntry result = Structures.decodeValueEntry ( this.context, this.buffer, false );
+        assertFullyRead ();
+
+        Assert.assertEquals ( "MIN", result.getValueType () );
+        Assert.assertArrayEquals ( new double[] { 0.5, Double.NaN }, result.getValues (), 0.0 );
+    }
+
+    @Test
+    public void testNullValueEntry () throws Exception
+    {
+        Structures.encodeValueEntry ( this.context, this.buffer, FIELD, null );
+        startReading ();
+
+        Assert.assertNull ( Structures.decodeValueEntry ( this.context, this.buffer, true ) );
+        assertFullyRead ();
+    }
+}
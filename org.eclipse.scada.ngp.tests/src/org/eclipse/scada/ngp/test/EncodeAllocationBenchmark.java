@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBH SYSTEMS GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBH SYSTEMS GmbH - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.scada.ngp.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.eclipse.scada.ae.data.EventInformation;
+import org.eclipse.scada.ae.data.message.EventPoolDataUpdate;
+import org.eclipse.scada.core.Variant;
+import org.eclipse.scada.core.ngp.common.codec.osbp.BinaryContext;
+import org.eclipse.scada.core.ngp.common.codec.osbp.BinaryMessageCodec;
+import org.eclipse.scada.core.ngp.common.codec.osbp.BinaryProtocol;
+import org.eclipse.scada.core.ngp.common.codec.osbp.DefaultBinaryContext;
+import org.eclipse.scada.da.data.message.ItemDataUpdate;
+import org.eclipse.scada.ngp.test.hd.DataGenerator;
+
+/**
+ * Compare the allocations of encoding messages with a fixed initial buffer
+ * size to the allocations with estimated buffer sizes
+ * <p>
+ * This is not a unit test, run it as a Java application. The allocated bytes
+ * are measured using the thread allocation counter of the JVM, which must be
+ * supported by the running JVM.
+ * </p>
+ */
+public class EncodeAllocationBenchmark
+{
+    private static final int WARMUP = 20000;
+
+    private static final int ITERATIONS = 100000;
+
+    /**
+     * The allocation strategy before the buffer estimation
+     */
+    private static class FixedSizeBinaryContext extends DefaultBinaryContext
+    {
+        @Override
+        public IoBuffer allocateMessageBuffer ( final int messageCode )
+        {
+            final IoBuffer data = IoBuffer.allocate ( 64 );
+            data.setAutoExpand ( true );
+            return data;
+        }
+    }
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean ();
+
+    private final Method allocatedBytes;
+
+    public EncodeAllocationBenchmark () throws Exception
+    {
+        this.allocatedBytes = Class.forName ( "com.sun.management.ThreadMXBean" ).getMethod ( "getThreadAllocatedBytes", long.class );
+    }
+
+    private long getAllocatedBytes () throws Exception
+    {
+        return (Long)this.allocatedBytes.invoke ( this.threadBean, Thread.currentThread ().getId () );
+    }
+
+    private static BinaryProtocol createProtocol ( final BinaryContext context )
+    {
+        final Collection<BinaryMessageCodec> codecs = new LinkedList<BinaryMessageCodec> ();
+        org.eclipse.scada.da.protocol.ngp.codec.ProtocolFactory.fillCodecs ( codecs );
+        org.eclipse.scada.hd.protocol.ngp.codec.ProtocolFactory.fillCodecs ( codecs );
+        org.eclipse.scada.ae.protocol.ngp.codec.ProtocolFactory.fillCodecs ( codecs );
+        return new BinaryProtocol ( context, codecs );
+    }
+
+    private static Object makeItemDataUpdate ()
+    {
+        final Map<String, Variant> attributes = new HashMap<String, Variant> ();
+        attributes.put ( "timestamp", Variant.valueOf ( System.currentTimeMillis () ) );
+        attributes.put ( "error", Variant.FALSE );
+        attributes.put ( "manual", Variant.FALSE );
+        return new ItemDataUpdate ( "plant.area1.device5.value", Variant.valueOf ( 123.456 ), attributes, null, false );
+    }
+
+    private static Object makeEventPoolDataUpdate ()
+    {
+        final List<EventInformation> events = new LinkedList<EventInformation> ();
+        for ( int i = 0; i < 10; i++ )
+        {
+            final Map<String, Variant> attributes = new HashMap<String, Variant> ();
+            attributes.put ( "source", Variant.valueOf ( "plant.area1.device" + i ) );
+            attributes.put ( "message", Variant.valueOf ( "Value exceeded the upper limit" ) );
+            attributes.put ( "monitorType", Variant.valueOf ( "LEVEL" ) );
+            attributes.put ( "value", Variant.valueOf ( 100.0 + i ) );
+            events.add ( new EventInformation ( "event-" + i, System.currentTimeMillis (), System.currentTimeMillis (), attributes ) );
+        }
+        return new EventPoolDataUpdate ( "pool1", events );
+    }
+
+    private double measure ( final BinaryProtocol protocol, final Object message, final int iterations ) throws Exception
+    {
+        final long start = getAllocatedBytes ();
+        for ( int i = 0; i < iterations; i++ )
+        {
+            protocol.encodeMessage ( message );
+        }
+        return (double) ( getAllocatedBytes () - start ) / iterations;
+    }
+
+    private void run ( final String label, final Object message ) throws Exception
+    {
+        final BinaryProtocol before = createProtocol ( new FixedSizeBinaryContext () );
+        final BinaryProtocol after = createProtocol ( new DefaultBinaryContext () );
+
+        measure ( before, message, WARMUP );
+        measure ( after, message, WARMUP );
+
+        final double beforeBytes = measure ( before, message, ITERATIONS );
+        final double afterBytes = measure ( after, message, ITERATIONS );
+
+        System.out.println ( String.format ( "%-20s before: %10.1f bytes/message, after: %10.1f bytes/message", label, beforeBytes, afterBytes ) );
+    }
+
+    public static void main ( final String[] args ) throws Exception
+    {
+        final EncodeAllocationBenchmark benchmark = new EncodeAllocationBenchmark ();
+
+        benchmark.run ( "ItemDataUpdate", makeItemDataUpdate () );
+        benchmark.run ( "UpdateQueryData", new DataGenerator ( new HashSet<String> ( Arrays.asList ( "AVG", "MIN", "MAX" ) ), 1200 ).createData () );
+        benchmark.run ( "EventPoolDataUpdate", makeEventPoolDataUpdate () );
+    }
+}
@@ -48,13 +48,13 @@ public class DataGenerator
         return result;
     }
 
-    private List<Double> makePlainValues ()
+    private double[] makePlainValues ()
     {
-        final ArrayList<Double> result = new ArrayList<Double> ( this.entries );
+        final double[] result = new double[this.entries];
 
         for ( int i = 0; i < this.entries; i++ )
         {
-            result.add ( Double.valueOf ( i ) );
+            result[i] = i;
         }
 
         return result;